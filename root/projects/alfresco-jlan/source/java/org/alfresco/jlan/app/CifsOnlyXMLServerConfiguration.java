@@ -541,6 +541,19 @@ public class CifsOnlyXMLServerConfiguration extends ServerConfiguration {
 			
 			coreConfig.setMemoryPool( DefaultMemoryPoolBufSizes, DefaultMemoryPoolInitAlloc, DefaultMemoryPoolMaxAlloc);
 		}
+		
+		// Check if socket channel I/O should use pooled direct buffers, using the same buffer sizes and maximum
+		// allocations as the memory pool
+		
+		if ( elem != null && coreConfig.getMemoryPool() != null && findChildNode("directBuffers", elem.getChildNodes()) != null) {
+			
+			coreConfig.setDirectMemoryPool( coreConfig.getMemoryPool().getBufferSizes(), coreConfig.getMemoryPool().getMaximumAllocations());
+			
+			// Check if direct buffer leak tracking is enabled
+			
+			if ( findChildNode("directBuffersDebug", elem.getChildNodes()) != null)
+				coreConfig.getDirectMemoryPool().setDebug( true);
+		}
 	}
 
 	/**
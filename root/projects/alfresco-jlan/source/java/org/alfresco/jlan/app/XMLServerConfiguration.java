@@ -518,6 +518,28 @@ public class XMLServerConfiguration extends CifsOnlyXMLServerConfiguration {
 			ftpConfig.setAuthenticator(getText(classElem), params);
 		}
 
+		// Check if the NIO session handling should be enabled
+
+		elem = findChildNode("enableNIO", ftp.getChildNodes());
+		if ( elem != null) {
+
+			// Handle the FTP control sessions using a socket selector and the core thread pool
+
+			ftpConfig.setNIOEnabled( true);
+		}
+
+		// Check if the number of NIO data transfer threads has been specified
+
+		elem = findChildNode("nioDataThreads", ftp.getChildNodes());
+		if ( elem != null) {
+			try {
+				ftpConfig.setNIODataThreads(Integer.parseInt(getText(elem)));
+			}
+			catch (NumberFormatException ex) {
+				throw new InvalidConfigurationException("Invalid FTP NIO data thread count, " + getText(elem));
+			}
+		}
+
 		// FTPS parameter parsing
 		//
 		// Check if a key store path has been specified
@@ -684,6 +706,32 @@ public class XMLServerConfiguration extends CifsOnlyXMLServerConfiguration {
 			}
 		}
 
+		// Check if the TCP RPC connections should be handled using NIO I/O threads
+
+		elem = findChildNode("NIOThreads", nfs.getChildNodes());
+
+		if ( elem != null) {
+
+			try {
+
+				// Convert the I/O thread count
+
+				int ioThreads = Integer.parseInt(getText(elem));
+
+				// Range check the I/O thread count
+
+				if ( ioThreads < 0)
+					throw new InvalidConfigurationException("NFS NIO thread count is invalid, " + ioThreads);
+
+				// Set the I/O thread count
+
+				nfsConfig.setRpcNIOThreads(ioThreads);
+			}
+			catch (NumberFormatException ex) {
+				throw new InvalidConfigurationException("Invalid NFS NIO thread count setting, " + getText(elem));
+			}
+		}
+
 		// Check for a port mapper server port
 
 		if ( findChildNode("disablePortMapperRegistration", nfs.getChildNodes()) != null) {
@@ -888,6 +936,58 @@ public class XMLServerConfiguration extends CifsOnlyXMLServerConfiguration {
 			}
 		}
 
+		// Check if the maximum number of open files cached per session has been specified
+
+		elem = findChildNode("FileCacheMaxFiles", nfs.getChildNodes());
+
+		if ( elem != null) {
+
+			try {
+
+				// Convert the maximum file count
+
+				int maxFiles = Integer.parseInt(getText(elem));
+
+				// Range check the maximum file count
+
+				if ( maxFiles < 1)
+					throw new InvalidConfigurationException("NFS file cache maximum files is invalid, " + maxFiles);
+
+				// Set the maximum file count
+
+				nfsConfig.setNFSFileCacheMaxFiles(maxFiles);
+			}
+			catch (NumberFormatException ex) {
+				throw new InvalidConfigurationException("Invalid NFS file cache maximum files setting, " + getText(elem));
+			}
+		}
+
+		// Check if the file id cache size has been specified
+
+		elem = findChildNode("FileIdCacheSize", nfs.getChildNodes());
+
+		if ( elem != null) {
+
+			try {
+
+				// Convert the cache size
+
+				int cacheSize = Integer.parseInt(getText(elem));
+
+				// Range check the cache size
+
+				if ( cacheSize < 1)
+					throw new InvalidConfigurationException("NFS file id cache size is invalid, " + cacheSize);
+
+				// Set the file id cache size
+
+				nfsConfig.setNFSFileIdCacheSize(cacheSize);
+			}
+			catch (NumberFormatException ex) {
+				throw new InvalidConfigurationException("Invalid NFS file id cache size setting, " + getText(elem));
+			}
+		}
+
 		// Check if NFS file cache debug output is enabled
 
 		if ( findChildNode("fileCacheDebug", nfs.getChildNodes()) != null)
@@ -50,6 +50,14 @@ public interface FTPAuthenticator {
    */
   public boolean authenticateUser( ClientInfo cInfo, FTPSrvSession sess);
   
+  /**
+   * Set the current authenticated user context for this thread, used when the requests for a session
+   * may be processed by different threads
+   * 
+   * @param cInfo ClientInfo, or null to clear the context
+   */
+  public void setCurrentUser( ClientInfo cInfo);
+  
   /**
    * Close the authenticator, perform any cleanup
    */
@@ -39,6 +39,10 @@ public class FTPConfigSection extends ConfigSection {
   // FTP server configuration section name
   
   public static final String SectionName = "FTP";
+  
+  // Default number of threads used by NIO sessions for data transfers
+  
+  public static final int DefaultNIODataThreads = 4;
 
   //  Bind address and FTP server port. A port of -1 indicates do not start FTP server.
   
@@ -92,6 +96,14 @@ public class FTPConfigSection extends ConfigSection {
   
   private boolean m_requireSecureSess;
   
+  // Use a socket channel selector and the core thread pool to handle the FTP control sessions
+  
+  private boolean m_nioEnabled;
+  
+  // Number of threads used by NIO sessions for data transfers, zero to use the core thread pool
+  
+  private int m_nioDataThreads = DefaultNIODataThreads;
+  
   /**
    * Class constructor
    * 
@@ -287,6 +299,24 @@ public class FTPConfigSection extends ConfigSection {
 	  return m_requireSecureSess;
   }
   
+  /**
+   * Determine if the FTP control sessions should be handled using NIO socket channels
+   * 
+   * @return boolean
+   */
+  public final boolean isNIOEnabled() {
+	  return m_nioEnabled;
+  }
+  
+  /**
+   * Return the number of threads used by NIO sessions for data transfers
+   * 
+   * @return int
+   */
+  public final int getNIODataThreads() {
+	  return m_nioDataThreads;
+  }
+  
   /**
    * Set the FTP character set
    * 
@@ -649,6 +679,57 @@ public class FTPConfigSection extends ConfigSection {
 	  return sts;
   }
   
+  /**
+   * Enable/disable the NIO FTP session handling
+   * 
+   * @param nioEna boolean
+   * @return int
+   * @exception InvalidConfigurationException
+   */
+  public final int setNIOEnabled(boolean nioEna)
+  	throws InvalidConfigurationException {
+
+	  //  Inform listeners, validate the configuration change
+	    
+	  int sts = fireConfigurationChange(ConfigId.FTPNIOEnable, new Boolean( nioEna));
+	
+	  //  Set the NIO enabled flag
+	
+	  m_nioEnabled = nioEna;
+	      
+	  //  Return the change status
+	    
+	  return sts;
+  }
+  
+  /**
+   * Set the number of threads used by NIO sessions for data transfers
+   * 
+   * @param dataThreads int
+   * @return int
+   * @exception InvalidConfigurationException
+   */
+  public final int setNIODataThreads(int dataThreads)
+  	throws InvalidConfigurationException {
+
+	  //  Validate the thread count
+	  
+	  if ( dataThreads < 0)
+		  throw new InvalidConfigurationException("Invalid FTP data transfer thread count, " + dataThreads);
+	  
+	  //  Inform listeners, validate the configuration change
+	    
+	  int sts = fireConfigurationChange(ConfigId.FTPNIODataThreads, new Integer( dataThreads));
+	
+	  //  Set the data transfer thread count
+	
+	  m_nioDataThreads = dataThreads;
+	      
+	  //  Return the change status
+	    
+	  return sts;
+  }
+  
   /**
    * Close the configuration section
    */
@@ -21,9 +21,12 @@ package org.alfresco.jlan.ftp;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 
 /**
  * FTP Data Session Class
@@ -32,6 +35,9 @@ import java.net.UnknownHostException;
  * 
  * <p>The PORT command will actively connect to the specified address/port on the client. The PASV command will create a
  * listening socket and wait for the client to connect.
+ * 
+ * <p>If the control session uses a socket channel the data sockets are also created from channels, so that file data
+ * can be transferred using the file channel transferTo()/transferFrom() calls.
  *
  * @author gkspencer
  */
@@ -88,7 +94,7 @@ public class FTPDataSession implements Runnable {
 		
 		//	Create a server socket to listen for the incoming connection
 		
-		m_passiveSock = new ServerSocket(0, 1, null);
+		m_passiveSock = createPassiveSocket(0, null);
 	}
 
 	/**
@@ -112,7 +118,7 @@ public class FTPDataSession implements Runnable {
 		//	Create a server socket to listen for the incoming connection on the specified network adapter
 		
 		m_localPort = localPort;
-		m_passiveSock = new ServerSocket(localPort, 1, bindAddr);
+		m_passiveSock = createPassiveSocket(localPort, bindAddr);
 	}
 	
 	/**
@@ -134,7 +140,7 @@ public class FTPDataSession implements Runnable {
 		
 		//	Create a server socket to listen for the incoming connection on the specified network adapter
 		
-		m_passiveSock = new ServerSocket(0, 1, bindAddr);
+		m_passiveSock = createPassiveSocket(0, bindAddr);
 	}
 	
 	/**
@@ -290,6 +296,24 @@ public class FTPDataSession implements Runnable {
 		
 		if ( m_passiveSock != null)
 			m_activeSock = m_passiveSock.accept();
+		else if ( m_cmdSess.hasSocketChannel()) {
+			
+			//	Connect using a socket channel, so the data transfer can use the file channel calls
+			
+			SocketChannel sockChannel = SocketChannel.open();
+			
+			try {
+				if ( m_localPort != 0)
+					sockChannel.socket().bind(new InetSocketAddress(m_localPort));
+				sockChannel.connect(new InetSocketAddress(m_clientAddr, m_clientPort));
+			}
+			catch ( IOException ex) {
+				sockChannel.close();
+				throw ex;
+			}
+			
+			m_activeSock = sockChannel.socket();
+		}
 		else {
 		  if ( m_localPort != 0) {
 		    
@@ -310,6 +334,37 @@ public class FTPDataSession implements Runnable {
 		return m_activeSock;
 	}
 	
+	/**
+	 * Create the listening socket for a passive connection
+	 * 
+	 * @param localPort int
+	 * @param bindAddr InetAddress
+	 * @return ServerSocket
+	 * @exception IOException
+	 */
+	private final ServerSocket createPassiveSocket(int localPort, InetAddress bindAddr)
+		throws IOException {
+		
+		//	Use a plain server socket unless the control session is using a socket channel
+		
+		if ( m_cmdSess.hasSocketChannel() == false)
+			return new ServerSocket(localPort, 1, bindAddr);
+		
+		//	Create the server socket from a channel, accepted sockets will then have a channel
+		
+		ServerSocketChannel srvChannel = ServerSocketChannel.open();
+		
+		try {
+			srvChannel.socket().bind(new InetSocketAddress(bindAddr, localPort), 1);
+		}
+		catch ( IOException ex) {
+			srvChannel.close();
+			throw ex;
+		}
+		
+		return srvChannel.socket();
+	}
+	
 	/**
 	 * Close the data connection
 	 */
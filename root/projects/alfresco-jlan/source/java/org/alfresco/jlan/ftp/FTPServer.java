@@ -26,6 +26,7 @@ import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.channels.ServerSocketChannel;
 import java.util.Enumeration;
 
 import org.alfresco.jlan.debug.Debug;
@@ -34,10 +35,12 @@ import org.alfresco.jlan.server.SrvSession;
 import org.alfresco.jlan.server.Version;
 import org.alfresco.jlan.server.config.ConfigId;
 import org.alfresco.jlan.server.config.ConfigurationListener;
+import org.alfresco.jlan.server.config.CoreServerConfigSection;
 import org.alfresco.jlan.server.config.InvalidConfigurationException;
 import org.alfresco.jlan.server.config.ServerConfiguration;
 import org.alfresco.jlan.server.core.SharedDeviceList;
 import org.alfresco.jlan.server.filesys.NetworkFileServer;
+import org.alfresco.jlan.server.thread.ThreadRequestPool;
 import org.alfresco.jlan.util.UTF8Normalizer;
 
 
@@ -74,6 +77,15 @@ public class FTPServer extends NetworkFileServer implements Runnable, Configurat
 	
 	private ServerSocket m_srvSock;
 	
+	//	Server socket channel and connections handler, when NIO session handling is enabled
+	
+	private ServerSocketChannel m_srvChannel;
+	private NIOFTPConnectionsHandler m_nioHandler;
+	
+	//	Thread pool used by NIO sessions for data transfers, so that transfers do not hold the core thread pool threads
+	
+	private ThreadRequestPool m_dataThreadPool;
+	
 	//	Active session list
 	
 	private FTPSessionList m_sessions;
@@ -542,9 +554,44 @@ public class FTPServer extends NetworkFileServer implements Runnable, Configurat
 
     try {
 
+			//	Check if NIO session handling is enabled, FTPS sessions require a blocking socket so use a thread
+			//	per session when FTPS is enabled
+			
+			ThreadRequestPool threadPool = null;
+			m_srvChannel = null;
+			m_nioHandler = null;
+			
+			if ( getFTPConfiguration().isNIOEnabled() && getFTPConfiguration().isFTPSEnabled() == false) {
+				CoreServerConfigSection coreConfig = (CoreServerConfigSection) getConfiguration().getConfigSection( CoreServerConfigSection.SectionName);
+				if ( coreConfig != null)
+					threadPool = coreConfig.getThreadPool();
+				
+				if ( threadPool == null && Debug.EnableWarn && hasDebug())
+					Debug.println("[FTP] No core thread pool, NIO session handling disabled");
+			}
+			
 			//	Create the server socket to listen for incoming FTP session requests
 			
-			if ( hasBindAddress())
+			if ( threadPool != null) {
+				
+				//	Create a server socket channel, sessions are handled by the NIO connections handler
+				
+				m_srvChannel = ServerSocketChannel.open();
+				m_srvSock = m_srvChannel.socket();
+				
+				if ( hasBindAddress())
+					m_srvSock.bind(new InetSocketAddress(getBindAddress(), getPort()), LISTEN_BACKLOG);
+				else
+					m_srvSock.bind(new InetSocketAddress(getPort()), LISTEN_BACKLOG);
+				
+				m_nioHandler = new NIOFTPConnectionsHandler(this, threadPool);
+				
+				//	Create the data transfer thread pool
+				
+				if ( getFTPConfiguration().getNIODataThreads() > 0)
+					m_dataThreadPool = new ThreadRequestPool("FTPData", getFTPConfiguration().getNIODataThreads());
+			}
+			else if ( hasBindAddress())
 				m_srvSock = new ServerSocket(getPort(), LISTEN_BACKLOG, getBindAddress());
 			else {
 				
@@ -575,10 +622,23 @@ public class FTPServer extends NetworkFileServer implements Runnable, Configurat
 			
 			setActive(true);
 			fireServerEvent(ServerListener.ServerActive);
+			
+			//	If NIO is enabled the connections handler accepts the connections and dispatches the session
+			//	commands to the thread pool, returns when the server is shutdown
+			
+			if ( m_nioHandler != null) {
+				
+				//	DEBUG
+				
+				if ( Debug.EnableInfo && hasDebug())
+					Debug.println("[FTP] Using NIO session handling");
+				
+				m_nioHandler.runHandler(m_srvChannel);
+			}
 						
-      //  Wait for incoming connection requests
+      //  Wait for incoming connection requests, if not using the NIO connections handler
 
-      while ( hasShutdown() == false) {
+      while ( m_nioHandler == null && hasShutdown() == false) {
 
 		    //  Wait for a connection
 		
@@ -596,22 +656,7 @@ public class FTPServer extends NetworkFileServer implements Runnable, Configurat
 		    //  Create a server session for the new request, and set the session id.
 		
 		    FTPSrvSession srvSess = new FTPSrvSession(sessSock, this);
-		    srvSess.setSessionId(getNextSessionId());
-		    srvSess.setUniqueId("FTP" + srvSess.getSessionId());
-		    srvSess.setDebugPrefix("[FTP" + srvSess.getSessionId() + "] ");
-
-			//	Initialize the root path for the new session, if configured
-				
-			if ( hasRootPath())
-				srvSess.setRootPath(getRootPath());
-							
-			//	Add the session to the active session list
-	
-			addSession(srvSess);
-
-			//	Inform listeners that a new session has been created
-				
-			fireSessionOpenEvent(srvSess);
+		    initializeSession(srvSess);
 									
 		    //  Start the new session in a seperate thread
 		
@@ -681,6 +726,13 @@ public class FTPServer extends NetworkFileServer implements Runnable, Configurat
 			sess.closeSession();			
 		}
 
+		//	Stop the data transfer thread pool
+		
+		if ( m_dataThreadPool != null) {
+			m_dataThreadPool.shutdownThreadPool();
+			m_dataThreadPool = null;
+		}
+
     //  Debug
 
     if (Debug.EnableInfo && hasDebug())
@@ -692,6 +744,42 @@ public class FTPServer extends NetworkFileServer implements Runnable, Configurat
     fireServerEvent(ServerListener.ServerShutdown);
   }
 
+	/**
+	 * Return the thread pool used by NIO sessions for data transfers
+	 * 
+	 * @return ThreadRequestPool, or null if data transfers run on the core thread pool
+	 */
+	protected final ThreadRequestPool getDataTransferThreadPool() {
+		return m_dataThreadPool;
+	}
+	
+	/**
+	 * Initialize a new session, set the session id and add to the active session list
+	 * 
+	 * @param srvSess FTPSrvSession
+	 */
+	protected final void initializeSession(FTPSrvSession srvSess) {
+		
+		//	Set the session id
+		
+		srvSess.setSessionId(getNextSessionId());
+		srvSess.setUniqueId("FTP" + srvSess.getSessionId());
+		srvSess.setDebugPrefix("[FTP" + srvSess.getSessionId() + "] ");
+
+		//	Initialize the root path for the new session, if configured
+			
+		if ( hasRootPath())
+			srvSess.setRootPath(getRootPath());
+						
+		//	Add the session to the active session list
+
+		addSession(srvSess);
+
+		//	Inform listeners that a new session has been created
+			
+		fireSessionOpenEvent(srvSess);
+	}
+	
 	/**
 	 * Shutdown the FTP server
 	 * 
@@ -703,6 +791,11 @@ public class FTPServer extends NetworkFileServer implements Runnable, Configurat
 		
 		setShutdown(true);
 		
+		//	Wakeup the NIO connections handler, if enabled
+		
+		if ( m_nioHandler != null)
+			m_nioHandler.closeHandler();
+		
 		//	Close the FTP server listening socket to wakeup the main FTP server thread
 		
 		try {
@@ -825,6 +918,8 @@ public class FTPServer extends NetworkFileServer implements Runnable, Configurat
 				 		
 					case ConfigId.FTPBindAddress:
 					case ConfigId.FTPPort:
+					case ConfigId.FTPNIOEnable:
+					case ConfigId.FTPNIODataThreads:
 						sts = StsRestartRequired;
 						break;
 				}
@@ -32,6 +32,10 @@ import java.net.Socket;
 import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
 import java.security.KeyManagementException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
@@ -76,6 +80,7 @@ import org.alfresco.jlan.server.filesys.FileOfflineException;
 import org.alfresco.jlan.server.filesys.FileOpenParams;
 import org.alfresco.jlan.server.filesys.FileStatus;
 import org.alfresco.jlan.server.filesys.NetworkFile;
+import org.alfresco.jlan.server.filesys.NetworkFileChannelInterface;
 import org.alfresco.jlan.server.filesys.NotifyChange;
 import org.alfresco.jlan.server.filesys.SearchContext;
 import org.alfresco.jlan.server.filesys.TreeConnection;
@@ -132,6 +137,11 @@ public class FTPSrvSession extends SrvSession implements Runnable {
 
 	private static final int DEFAULT_BUFFERSIZE = 64000;
 
+	// Amount of file data to transfer directly between the file and data socket channels before checking for an
+	// abort, used by NIO sessions
+
+	private static final long CHANNEL_TRANSFERSIZE = 1024 * 1024;
+
 	// Carriage return/line feed combination required for response messages
 
 	protected final static String CRLF = "\r\n";
@@ -185,15 +195,35 @@ public class FTPSrvSession extends SrvSession implements Runnable {
 	protected static final int DefCommandBufSize	= 1024;
 	protected static final int MaxCommandBufSize	= 0xFFFF;	// 64K
 	
+	// NIO session command processing status, the session may be handed to the data transfer thread pool
+	
+	protected static final int ChannelClosed	= 0;
+	protected static final int ChannelActive	= 1;
+	protected static final int ChannelTransfer	= 2;
+	
+	// Time to wait for a non-blocking control channel to accept response data
+	
+	protected static final long ChannelWriteTimeout	= 60000L;	// 1 minute
+	
 	// Session socket
 
 	private Socket m_sock;
 
+	// Session socket channel, if the session is handled by the NIO connections handler
+
+	private SocketChannel m_channel;
+
 	// Input/output streams to remote client
 
 	private InputStream m_in;
 	private byte[] m_inbuf;
 
+	// Length of the partial command in the command buffer, and flag to indicate that the remainder of an over-sized
+	// command is being discarded, used by NIO sessions
+
+	private int m_inlen;
+	private boolean m_skipCmd;
+
 	private OutputStreamWriter m_out;
 
 	// List of pending FTP commands
@@ -294,6 +324,22 @@ public class FTPSrvSession extends SrvSession implements Runnable {
 		m_normalizer = srv.getUTF8Normalizer();
 	}
 
+	/**
+	 * Class constructor
+	 * 
+	 * <p>Create a session for a socket channel that is monitored by the NIO connections handler.
+	 * 
+	 * @param channel SocketChannel
+	 * @param srv FTPServer
+	 */
+	public FTPSrvSession(SocketChannel channel, FTPServer srv) {
+		this(channel.socket(), srv);
+
+		// Save the socket channel
+
+		m_channel = channel;
+	}
+
 	/**
 	 * Close the FTP session, and associated data socket if active
 	 */
@@ -393,6 +439,24 @@ public class FTPSrvSession extends SrvSession implements Runnable {
 		return m_sock.getInetAddress();
 	}
 
+	/**
+	 * Check if the session uses a non-blocking socket channel, monitored by the NIO connections handler
+	 * 
+	 * @return boolean
+	 */
+	public final boolean hasSocketChannel() {
+		return m_channel != null ? true : false;
+	}
+
+	/**
+	 * Return the session socket channel, or null if the session is not handled by the NIO connections handler
+	 * 
+	 * @return SocketChannel
+	 */
+	public final SocketChannel getSocketChannel() {
+		return m_channel;
+	}
+
 	/**
 	 * Check if there is a current working directory
 	 * 
@@ -2048,8 +2112,32 @@ public class FTPSrvSession extends SrvSession implements Runnable {
 			int len = -1;
 			boolean abort = false;
 
+			// For an NIO session the file data may be transferred directly from the file to the data socket channel,
+			// the file data is opened by the first read via the disk driver
+
+			FileChannel fileChannel = null;
+			SocketChannel dataChannel = dataSock.getChannel();
+
 			while (filePos < netFile.getFileSize() && abort == false) {
 
+				// Check if the file data can be transferred directly to the data socket
+
+				if ( fileChannel != null) {
+
+					// Transfer the next block of file data to the client, update the file position
+
+					long xferLen = fileChannel.transferTo(filePos, Math.min(netFile.getFileSize() - filePos, CHANNEL_TRANSFERSIZE), dataChannel);
+					if ( xferLen <= 0)
+						break;
+
+					filePos += xferLen;
+
+					// Check if the transfer has been aborted
+
+					abort = checkForAbort();
+					continue;
+				}
+
 				// Read another block of data from the file
 
 				len = disk.readFile(this, tree, netFile, buf, 0, buf.length, filePos);
@@ -2074,6 +2162,19 @@ public class FTPSrvSession extends SrvSession implements Runnable {
 					// Check if the transfer has been aborted
 
 					abort = checkForAbort();
+
+					// Check if the remaining file data can be transferred directly from the file channel
+
+					if ( dataChannel != null && fileChannel == null) {
+
+						if ( netFile instanceof NetworkFileChannelInterface)
+							fileChannel = ((NetworkFileChannelInterface) netFile).getFileChannel(false);
+
+						if ( fileChannel == null)
+							dataChannel = null;
+						else if ( Debug.EnableInfo && hasDebug(DBG_FILEIO))
+							debugPrintln(" Using file channel transfer, from pos=" + filePos);
+					}
 				}
 			}
 
@@ -2313,6 +2414,16 @@ public class FTPSrvSession extends SrvSession implements Runnable {
 	            int len = is.read(buf, 0, buf.length);
 	            boolean abort = false;
 
+	            // For an NIO session the file data may be transferred directly from the data socket channel to the file,
+	            // the file data is opened by the first write via the disk driver. Not used if the filesystem has a quota
+	            // manager, as writes via the file channel would not allocate space.
+
+	            FileChannel fileChannel = null;
+	            SocketChannel dataChannel = dataSock.getChannel();
+
+	            if ( diskCtx.hasQuotaManager())
+	                dataChannel = null;
+
 	            // If the data is to be appended then set the starting file position to the end of the
 	            // file
 
@@ -2330,12 +2441,38 @@ public class FTPSrvSession extends SrvSession implements Runnable {
 
 	                // Write the current data block to the file, update the file position
 
-	                disk.writeFile(this, tree, netFile, buf, 0, len, filePos);
-	                filePos += len;
+	                disk.writeFile(this, tree, netFile, buf, 0, len, filePos);
+	                filePos += len;
+
+	                // Check if the remaining file data can be transferred directly to the file channel
 
-	                // Read another block of data from the client
+	                if ( dataChannel != null && fileChannel == null) {
 
-	                len = is.read(buf, 0, buf.length);
+	                    if ( netFile instanceof NetworkFileChannelInterface)
+	                        fileChannel = ((NetworkFileChannelInterface) netFile).getFileChannel(true);
+
+	                    if ( fileChannel == null)
+	                        dataChannel = null;
+	                    else if ( Debug.EnableInfo && hasDebug(DBG_FILEIO))
+	                        debugPrintln(" Using file channel transfer, from pos=" + filePos);
+	                }
+
+	                // Read another block of data from the client
+
+	                if ( fileChannel != null) {
+
+	                    // Transfer the next block of data from the client directly to the file
+
+	                    long xferLen = fileChannel.transferFrom(dataChannel, filePos, CHANNEL_TRANSFERSIZE);
+	                    if ( xferLen > 0) {
+	                        filePos += xferLen;
+	                        ((NetworkFileChannelInterface) netFile).fileChannelWritten();
+	                    }
+
+	                    len = (int) xferLen;
+	                }
+	                else
+	                    len = is.read(buf, 0, buf.length);
 
 	                // Check if the file transfer has been aborted
 
@@ -4216,6 +4353,37 @@ public class FTPSrvSession extends SrvSession implements Runnable {
 
 		try {
 
+			// For an NIO session read any pending commands from the non-blocking command channel, and check the
+			// queued commands for an abort
+
+			if ( m_channel != null) {
+
+				readChannelCommands();
+
+				for ( int idx = 0; idx < m_ftpCmdList.size(); idx++) {
+
+					// Check for an abort command
+
+					if ( m_ftpCmdList.get(idx).isCommand() == FTPCommand.Abor) {
+
+						// Remove the abort from the queued commands
+
+						m_ftpCmdList.remove(idx);
+
+						// DEBUG
+
+						if ( Debug.EnableDbg && hasDebug(DBG_FILEIO))
+							debugPrintln("Transfer aborted by client");
+
+						// Indicate an abort has been received
+
+						return true;
+					}
+				}
+
+				return false;
+			}
+
 			// Check if there is any pending data on the command socket
 
 			if ( m_in.available() > 0) {
@@ -4382,15 +4550,7 @@ public class FTPSrvSession extends SrvSession implements Runnable {
     
         			// Get the command string, create the new request
         
-        			String cmd = null;
-        
-        			if ( isUTF8Enabled()) {
-        				cmd = m_normalizer.normalize(new String(m_inbuf, 0, rdlen, "UTF8"));
-        			}
-        			else
-        				cmd = new String(m_inbuf, 0, rdlen);
-        
-        			nextReq = new FTPRequest(cmd);
+        			nextReq = createRequest(m_inbuf, 0, rdlen);
     			}
 		    }
 		}
@@ -4400,6 +4560,133 @@ public class FTPSrvSession extends SrvSession implements Runnable {
 		return nextReq;
 	}
 
+	/**
+	 * Create a request from the received command data
+	 * 
+	 * @param buf byte[]
+	 * @param off int
+	 * @param len int
+	 * @return FTPRequest
+	 * @exception IOException
+	 */
+	private final FTPRequest createRequest(byte[] buf, int off, int len)
+		throws IOException {
+
+		// Get the command string, create the new request
+
+		String cmd = null;
+
+		if ( isUTF8Enabled()) {
+			cmd = m_normalizer.normalize(new String(buf, off, len, "UTF8"));
+		}
+		else
+			cmd = new String(buf, off, len);
+
+		return new FTPRequest(cmd);
+	}
+
+	/**
+	 * Read the pending data from the non-blocking command channel of an NIO session, and queue any complete
+	 * commands for processing
+	 * 
+	 * @return boolean false if the client has closed the connection
+	 * @exception IOException
+	 */
+	protected final boolean readChannelCommands()
+		throws IOException {
+
+		// Read the available data onto the end of any partial command
+
+		int rdlen = 0;
+
+		while (( rdlen = m_channel.read( ByteBuffer.wrap( m_inbuf, m_inlen, m_inbuf.length - m_inlen))) > 0) {
+
+			// Queue the complete commands
+
+			m_inlen += rdlen;
+			queueChannelCommands();
+
+			// Check if the command buffer is full of a partial command
+
+			if ( m_inlen == m_inbuf.length) {
+
+				// Check if the command buffer has already been extended to the maximum size
+
+				if ( m_inbuf.length < MaxCommandBufSize) {
+
+					// Extend the command buffer
+
+					byte[] newbuf = new byte[ Math.min( m_inbuf.length * 2, MaxCommandBufSize)];
+					System.arraycopy( m_inbuf, 0, newbuf, 0, m_inlen);
+
+					m_inbuf = newbuf;
+
+					// DEBUG
+
+					if ( Debug.EnableInfo && hasDebug(DBG_RXDATA))
+						debugPrintln("Extended command buffer to " + m_inbuf.length + " bytes");
+				}
+				else {
+
+					// Command is too large, discard the data up to the end of the command
+
+					m_inlen = 0;
+					m_skipCmd = true;
+
+					// DEBUG
+
+					if ( Debug.EnableInfo && hasDebug(DBG_RXDATA))
+						debugPrintln("Received command too large, ignored");
+				}
+			}
+		}
+
+		// Check if the client has closed the connection
+
+		return rdlen != -1;
+	}
+
+	/**
+	 * Queue the complete commands in the command buffer, and move any partial command to the start of the buffer
+	 * 
+	 * @exception IOException
+	 */
+	private final void queueChannelCommands()
+		throws IOException {
+
+		// Find the end of each complete command
+
+		int startPos = 0;
+
+		for ( int pos = 0; pos < m_inlen; pos++) {
+
+			if ( m_inbuf[pos] != '\n')
+				continue;
+
+			// Trim the trailing <CR><LF>
+
+			int endPos = pos;
+			while ( endPos > startPos && m_inbuf[endPos - 1] == '\r')
+				endPos--;
+
+			// Queue the command, unless it is the end of an over-sized command
+
+			if ( m_skipCmd == true)
+				m_skipCmd = false;
+			else if ( endPos > startPos)
+				m_ftpCmdList.add( createRequest( m_inbuf, startPos, endPos - startPos));
+
+			startPos = pos + 1;
+		}
+
+		// Move any partial command to the start of the buffer
+
+		if ( startPos > 0) {
+			m_inlen -= startPos;
+			System.arraycopy( m_inbuf, startPos, m_inbuf, 0, m_inlen);
+		}
+	}
+
 	/**
 	 * Clear the command socket of pending data
 	 * 
@@ -4834,11 +5121,6 @@ public class FTPSrvSession extends SrvSession implements Runnable {
 
 			sendFTPResponse(220, "FTP server ready");
 
-			// Start/end times if timing debug is enabled
-
-			long startTime = 0L;
-			long endTime = 0L;
-
 			// The server session loops until the NetBIOS hangup state is set.
 
 			FTPRequest ftpReq = null;
@@ -4851,298 +5133,422 @@ public class FTPSrvSession extends SrvSession implements Runnable {
 				if ( ftpReq == null)
 					continue;
 
-				// Debug
+				// Process the request
 
-				if ( Debug.EnableInfo && hasDebug(DBG_TIMING))
-					startTime = System.currentTimeMillis();
+				processCommand(ftpReq);
 
-				if ( Debug.EnableInfo && hasDebug(DBG_RXDATA))
-					debugPrintln("Rx cmd=" + ftpReq);
+			} // end while state
+		}
+		catch (SocketException ex) {
 
-				// Parse the received command, and validate
+			// DEBUG
 
-				switch (ftpReq.isCommand()) {
+			if ( Debug.EnableWarn && hasDebug(DBG_STATE))
+				debugPrintln("Socket closed by remote client");
+		}
+		catch (Exception ex) {
 
-					// User command
+			// Output the exception details
 
-					case FTPCommand.User:
-						procUser(ftpReq);
-						break;
+			if ( isShutdown() == false) {
+				debugPrintln(ex);
+			}
+		}
 
-					// Password command
+		// Cleanup the session, make sure all resources are released
 
-					case FTPCommand.Pass:
-						procPassword(ftpReq);
-						break;
+		closeSession();
 
-					// Quit command
+		// Debug
 
-					case FTPCommand.Quit:
-						procQuit(ftpReq);
-						break;
+		if ( hasDebug(DBG_STATE))
+			debugPrintln("Server session closed");
+	}
 
-					// Type command
+	/**
+	 * Process an FTP request
+	 * 
+	 * @param ftpReq FTPRequest
+	 * @exception IOException
+	 */
+	protected final void processCommand(FTPRequest ftpReq)
+		throws IOException {
 
-					case FTPCommand.Type:
-						procType(ftpReq);
-						break;
+		// Start/end times if timing debug is enabled
 
-					// Port command
+		long startTime = 0L;
+		long endTime = 0L;
 
-					case FTPCommand.Port:
-						procPort(ftpReq);
-						break;
+		// Debug
 
-					// Passive command
+		if ( Debug.EnableInfo && hasDebug(DBG_TIMING))
+			startTime = System.currentTimeMillis();
 
-					case FTPCommand.Pasv:
-						procPassive(ftpReq);
-						break;
+		if ( Debug.EnableInfo && hasDebug(DBG_RXDATA))
+			debugPrintln("Rx cmd=" + ftpReq);
 
-					// Restart position command
+		// Parse the received command, and validate
 
-					case FTPCommand.Rest:
-						procRestart(ftpReq);
-						break;
+		switch (ftpReq.isCommand()) {
 
-					// Return file command
+			// User command
 
-					case FTPCommand.Retr:
-						procReturnFile(ftpReq);
+			case FTPCommand.User:
+				procUser(ftpReq);
+				break;
 
-						// Reset the restart position
+			// Password command
 
-						m_restartPos = 0;
-						break;
+			case FTPCommand.Pass:
+				procPassword(ftpReq);
+				break;
 
-					// Store file command
+			// Quit command
 
-					case FTPCommand.Stor:
-						procStoreFile(ftpReq, false);
-						break;
+			case FTPCommand.Quit:
+				procQuit(ftpReq);
+				break;
 
-					// Append file command
+			// Type command
 
-					case FTPCommand.Appe:
-						procStoreFile(ftpReq, true);
-						break;
+			case FTPCommand.Type:
+				procType(ftpReq);
+				break;
 
-					// Print working directory command
+			// Port command
 
-					case FTPCommand.Pwd:
-					case FTPCommand.XPwd:
-						procPrintWorkDir(ftpReq);
-						break;
+			case FTPCommand.Port:
+				procPort(ftpReq);
+				break;
 
-					// Change working directory command
+			// Passive command
 
-					case FTPCommand.Cwd:
-					case FTPCommand.XCwd:
-						procChangeWorkDir(ftpReq);
-						break;
+			case FTPCommand.Pasv:
+				procPassive(ftpReq);
+				break;
 
-					// Change to previous directory command
+			// Restart position command
 
-					case FTPCommand.Cdup:
-					case FTPCommand.XCup:
-						procCdup(ftpReq);
-						break;
+			case FTPCommand.Rest:
+				procRestart(ftpReq);
+				break;
 
-					// Full directory listing command
+			// Return file command
 
-					case FTPCommand.List:
-						procList(ftpReq);
-						break;
+			case FTPCommand.Retr:
+				procReturnFile(ftpReq);
 
-					// Short directory listing command
+				// Reset the restart position
 
-					case FTPCommand.Nlst:
-						procNList(ftpReq);
-						break;
+				m_restartPos = 0;
+				break;
 
-					// Delete file command
+			// Store file command
 
-					case FTPCommand.Dele:
-						procDeleteFile(ftpReq);
-						break;
+			case FTPCommand.Stor:
+				procStoreFile(ftpReq, false);
+				break;
 
-					// Rename file from command
+			// Append file command
 
-					case FTPCommand.Rnfr:
-						procRenameFrom(ftpReq);
-						break;
+			case FTPCommand.Appe:
+				procStoreFile(ftpReq, true);
+				break;
 
-					// Rename file to comand
+			// Print working directory command
 
-					case FTPCommand.Rnto:
-						procRenameTo(ftpReq);
-						break;
+			case FTPCommand.Pwd:
+			case FTPCommand.XPwd:
+				procPrintWorkDir(ftpReq);
+				break;
 
-					// Create new directory command
+			// Change working directory command
 
-					case FTPCommand.Mkd:
-					case FTPCommand.XMkd:
-						procCreateDirectory(ftpReq);
-						break;
+			case FTPCommand.Cwd:
+			case FTPCommand.XCwd:
+				procChangeWorkDir(ftpReq);
+				break;
 
-					// Delete directory command
+			// Change to previous directory command
 
-					case FTPCommand.Rmd:
-					case FTPCommand.XRmd:
-						procRemoveDirectory(ftpReq);
-						break;
+			case FTPCommand.Cdup:
+			case FTPCommand.XCup:
+				procCdup(ftpReq);
+				break;
 
-					// Return file size command
+			// Full directory listing command
 
-					case FTPCommand.Size:
-						procFileSize(ftpReq);
-						break;
+			case FTPCommand.List:
+				procList(ftpReq);
+				break;
 
-					// Set modify date/time command
+			// Short directory listing command
 
-					case FTPCommand.Mdtm:
-						procModifyDateTime(ftpReq);
-						break;
+			case FTPCommand.Nlst:
+				procNList(ftpReq);
+				break;
 
-					// System status command
+			// Delete file command
 
-					case FTPCommand.Syst:
-						procSystemStatus(ftpReq);
-						break;
+			case FTPCommand.Dele:
+				procDeleteFile(ftpReq);
+				break;
 
-					// Server status command
+			// Rename file from command
 
-					case FTPCommand.Stat:
-						procServerStatus(ftpReq);
-						break;
+			case FTPCommand.Rnfr:
+				procRenameFrom(ftpReq);
+				break;
 
-					// Help command
+			// Rename file to comand
 
-					case FTPCommand.Help:
-						procHelp(ftpReq);
-						break;
+			case FTPCommand.Rnto:
+				procRenameTo(ftpReq);
+				break;
 
-					// No-op command
+			// Create new directory command
 
-					case FTPCommand.Noop:
-						procNoop(ftpReq);
-						break;
+			case FTPCommand.Mkd:
+			case FTPCommand.XMkd:
+				procCreateDirectory(ftpReq);
+				break;
 
-					// Abort command
+			// Delete directory command
 
-					case FTPCommand.Abor:
-						procAbort(ftpReq);
-						break;
+			case FTPCommand.Rmd:
+			case FTPCommand.XRmd:
+				procRemoveDirectory(ftpReq);
+				break;
 
-					// Server features command
+			// Return file size command
 
-					case FTPCommand.Feat:
-						procFeatures(ftpReq);
-						break;
+			case FTPCommand.Size:
+				procFileSize(ftpReq);
+				break;
 
-					// Options command
+			// Set modify date/time command
 
-					case FTPCommand.Opts:
-						procOptions(ftpReq);
-						break;
+			case FTPCommand.Mdtm:
+				procModifyDateTime(ftpReq);
+				break;
 
-					// Machine listing, single folder
+			// System status command
 
-					case FTPCommand.MLst:
-						procMachineListing(ftpReq);
-						break;
+			case FTPCommand.Syst:
+				procSystemStatus(ftpReq);
+				break;
 
-					// Machine listing, folder contents
+			// Server status command
 
-					case FTPCommand.MLsd:
-						procMachineListingContents(ftpReq);
-						break;
+			case FTPCommand.Stat:
+				procServerStatus(ftpReq);
+				break;
 
-					// Site specific commands
+			// Help command
 
-					case FTPCommand.Site:
-						procSite(ftpReq);
-						break;
+			case FTPCommand.Help:
+				procHelp(ftpReq);
+				break;
 
-					// Structure command (obsolete)
+			// No-op command
 
-					case FTPCommand.Stru:
-						procStructure(ftpReq);
-						break;
+			case FTPCommand.Noop:
+				procNoop(ftpReq);
+				break;
 
-					// Mode command (obsolete)
+			// Abort command
 
-					case FTPCommand.Mode:
-						procMode(ftpReq);
-						break;
+			case FTPCommand.Abor:
+				procAbort(ftpReq);
+				break;
 
-					// Allocate command (obsolete)
+			// Server features command
 
-					case FTPCommand.Allo:
-						procAllocate(ftpReq);
-						break;
+			case FTPCommand.Feat:
+				procFeatures(ftpReq);
+				break;
 
-					// Extended Port command
+			// Options command
 
-					case FTPCommand.EPrt:
-						procExtendedPort(ftpReq);
-						break;
+			case FTPCommand.Opts:
+				procOptions(ftpReq);
+				break;
 
-					// Extended Passive command
+			// Machine listing, single folder
 
-					case FTPCommand.EPsv:
-						procExtendedPassive(ftpReq);
-						break;
+			case FTPCommand.MLst:
+				procMachineListing(ftpReq);
+				break;
 
-					// SSL/TLS authentication
+			// Machine listing, folder contents
 
-					case FTPCommand.Auth:
-						procAuth(ftpReq);
-						break;
+			case FTPCommand.MLsd:
+				procMachineListingContents(ftpReq);
+				break;
 
-					// Protected buffer size
-						
-					case FTPCommand.Pbsz:
-					    procProtectedBufferSize( ftpReq);
-					    break;
-					    
-					// Data channel protection level
-					    
-					case FTPCommand.Prot:
-					    procDataChannelProtection( ftpReq);
-					    break;
-					    
-					// Clear command channel
-					    
-					case FTPCommand.Ccc:
-						procClearCommandChannel( ftpReq);
-						break;
-						
-					// Unknown/unimplemented command
-
-					default:
-						if ( ftpReq.isCommand() != FTPCommand.InvalidCmd)
-							sendFTPResponse(502, "Command " + FTPCommand.getCommandName(ftpReq.isCommand()) + " not implemented");
-						else
-							sendFTPResponse(502, "Command not implemented");
-						break;
-				}
+			// Site specific commands
+
+			case FTPCommand.Site:
+				procSite(ftpReq);
+				break;
+
+			// Structure command (obsolete)
+
+			case FTPCommand.Stru:
+				procStructure(ftpReq);
+				break;
+
+			// Mode command (obsolete)
+
+			case FTPCommand.Mode:
+				procMode(ftpReq);
+				break;
+
+			// Allocate command (obsolete)
+
+			case FTPCommand.Allo:
+				procAllocate(ftpReq);
+				break;
+
+			// Extended Port command
+
+			case FTPCommand.EPrt:
+				procExtendedPort(ftpReq);
+				break;
+
+			// Extended Passive command
+
+			case FTPCommand.EPsv:
+				procExtendedPassive(ftpReq);
+				break;
+
+			// SSL/TLS authentication
 
-				// Debug
+			case FTPCommand.Auth:
+				procAuth(ftpReq);
+				break;
 
-				if ( Debug.EnableInfo && hasDebug(DBG_TIMING)) {
-					endTime = System.currentTimeMillis();
-					long duration = endTime - startTime;
-					if ( duration > 20)
-						debugPrintln("Processed cmd " + FTPCommand.getCommandName(ftpReq.isCommand()) + " in " + duration + "ms");
+			// Protected buffer size
+				
+			case FTPCommand.Pbsz:
+			    procProtectedBufferSize( ftpReq);
+			    break;
+			    
+			// Data channel protection level
+			    
+			case FTPCommand.Prot:
+			    procDataChannelProtection( ftpReq);
+			    break;
+			    
+			// Clear command channel
+			    
+			case FTPCommand.Ccc:
+				procClearCommandChannel( ftpReq);
+				break;
+				
+			// Unknown/unimplemented command
+
+			default:
+				if ( ftpReq.isCommand() != FTPCommand.InvalidCmd)
+					sendFTPResponse(502, "Command " + FTPCommand.getCommandName(ftpReq.isCommand()) + " not implemented");
+				else
+					sendFTPResponse(502, "Command not implemented");
+				break;
+		}
+
+		// Debug
+
+		if ( Debug.EnableInfo && hasDebug(DBG_TIMING)) {
+			endTime = System.currentTimeMillis();
+			long duration = endTime - startTime;
+			if ( duration > 20)
+				debugPrintln("Processed cmd " + FTPCommand.getCommandName(ftpReq.isCommand()) + " in " + duration + "ms");
+		}
+
+		// Commit/rollback a transaction that the filesystem driver may have stored in the
+		// session
+
+		endTransaction();
+	}
+
+	/**
+	 * Start an NIO session, send the initial response to the client. Commands received on the non-blocking
+	 * command channel are processed by the thread pool, via the NIO connections handler.
+	 * 
+	 * @exception IOException
+	 */
+	protected final void startChannelSession()
+		throws IOException {
+
+		// Debug
+
+		if ( Debug.EnableInfo && hasDebug(DBG_STATE))
+			debugPrintln("FTP session started (NIO)");
+
+		// Create the output stream, responses are written directly to the socket channel
+
+		m_out = new OutputStreamWriter(new ChannelOutputStream(m_channel));
+
+		m_inbuf = new byte[DefCommandBufSize];
+
+		// Return the initial response
+
+		sendFTPResponse(220, "FTP server ready");
+	}
+
+	/**
+	 * Read and process the pending commands on the command channel of an NIO session. Data transfer commands are
+	 * not processed on the core thread pool, processing stops so that the session can be queued to the data
+	 * transfer thread pool, where the remaining commands are processed.
+	 * 
+	 * @param dataThread boolean true if running on the data transfer thread pool
+	 * @return int ChannelActive, ChannelTransfer to continue on the data transfer thread pool, or ChannelClosed
+	 *         if the session has been closed
+	 */
+	protected final int processChannelCommands(boolean dataThread) {
+
+		try {
+
+			// Read the pending commands, check if the client has closed the connection. Commands have already
+			// been read if the session has been handed to the data transfer thread pool.
+
+			boolean connected = dataThread ? true : readChannelCommands();
+
+			// Process the queued commands, more commands may be queued by the abort check during a file transfer
+
+			while ( m_sock != null && m_ftpCmdList.size() > 0) {
+
+				// Check if the next command transfers data, and should run on the data transfer thread pool
+
+				FTPRequest ftpReq = m_ftpCmdList.get(0);
+
+				if ( dataThread == false && connected == true && isDataTransferCommand(ftpReq) &&
+						getFTPServer().getDataTransferThreadPool() != null)
+					return ChannelTransfer;
+
+				// Process the next request, the user context is set for each request as the thread pool threads
+				// are shared with other sessions and protocols
+
+				m_ftpCmdList.remove(0);
+
+				try {
+					setCurrentUser();
+					processCommand(ftpReq);
+				}
+				finally {
+					clearCurrentUser();
 				}
+			}
 
-				// Commit/rollback a transaction that the filesystem driver may have stored in the
-				// session
+			// Check if the session is still active
 
-				endTransaction();
+			if ( connected == true && m_sock != null)
+				return ChannelActive;
 
-			} // end while state
+			// DEBUG
+
+			if ( connected == false && Debug.EnableWarn && hasDebug(DBG_STATE))
+				debugPrintln("Socket closed by remote client");
 		}
 		catch (SocketException ex) {
 
@@ -5168,5 +5574,148 @@ public class FTPSrvSession extends SrvSession implements Runnable {
 
 		if ( hasDebug(DBG_STATE))
 			debugPrintln("Server session closed");
+
+		return ChannelClosed;
+	}
+
+	/**
+	 * Check if a command transfers data over a data connection
+	 * 
+	 * @param ftpReq FTPRequest
+	 * @return boolean
+	 */
+	private final boolean isDataTransferCommand(FTPRequest ftpReq) {
+
+		switch ( ftpReq.isCommand()) {
+			case FTPCommand.Retr:
+			case FTPCommand.Stor:
+			case FTPCommand.Stou:
+			case FTPCommand.Appe:
+			case FTPCommand.List:
+			case FTPCommand.Nlst:
+			case FTPCommand.MLsd:
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Set the user context of the current thread for a request of an NIO session
+	 */
+	private final void setCurrentUser() {
+
+		FTPAuthenticator ftpAuth = getFTPServer().getFTPConfiguration().getFTPAuthenticator();
+		if ( ftpAuth == null)
+			return;
+
+		// Set the user context, or clear it if the session is not logged on
+
+		ftpAuth.setCurrentUser( isLoggedOn() ? getClientInformation() : null);
+	}
+
+	/**
+	 * Clear the user context of the current thread after a request of an NIO session, so that it cannot be used
+	 * by other requests that run on the thread
+	 */
+	private final void clearCurrentUser() {
+
+		FTPAuthenticator ftpAuth = getFTPServer().getFTPConfiguration().getFTPAuthenticator();
+		if ( ftpAuth != null)
+			ftpAuth.setCurrentUser(null);
+	}
+
+	/**
+	 * Channel Output Stream Class
+	 * 
+	 * <p>Writes the responses for an NIO session directly to the non-blocking socket channel.
+	 */
+	private static class ChannelOutputStream extends OutputStream {
+
+		// Socket channel to write to
+
+		private SocketChannel m_sockChannel;
+
+		// Selector used to wait for the socket channel to accept more data, opened when first required
+
+		private Selector m_writeSelector;
+
+		/**
+		 * Class constructor
+		 * 
+		 * @param channel SocketChannel
+		 */
+		public ChannelOutputStream(SocketChannel channel) {
+			m_sockChannel = channel;
+		}
+
+		/**
+		 * Write a byte to the socket channel
+		 * 
+		 * @param byt int
+		 * @exception IOException
+		 */
+		public void write(int byt)
+			throws IOException {
+			write(new byte[] { (byte) byt }, 0, 1);
+		}
+
+		/**
+		 * Write bytes to the socket channel
+		 * 
+		 * @param buf byte[]
+		 * @param off int
+		 * @param len int
+		 * @exception IOException
+		 */
+		public void write(byte[] buf, int off, int len)
+			throws IOException {
+
+			// Wrap the buffer and output to the socket channel
+
+			ByteBuffer byteBuf = ByteBuffer.wrap(buf, off, len);
+
+			while ( byteBuf.hasRemaining()) {
+
+				// If the socket send buffer is full wait until the channel can accept more data
+
+				if ( m_sockChannel.write(byteBuf) == 0)
+					waitForWrite();
+			}
+		}
+
+		/**
+		 * Wait for the socket channel to accept more data
+		 * 
+		 * @exception IOException
+		 */
+		private final void waitForWrite()
+			throws IOException {
+
+			// Register the channel with a private selector, the channel is also registered for read events with the
+			// NIO connections handler selector
+
+			if ( m_writeSelector == null) {
+				m_writeSelector = Selector.open();
+				m_sockChannel.register(m_writeSelector, SelectionKey.OP_WRITE);
+			}
+
+			if ( m_writeSelector.select(ChannelWriteTimeout) == 0)
+				throw new IOException("Timeout writing to control channel");
+
+			m_writeSelector.selectedKeys().clear();
+		}
+
+		/**
+		 * Close the socket channel
+		 * 
+		 * @exception IOException
+		 */
+		public void close()
+			throws IOException {
+
+			if ( m_writeSelector != null)
+				m_writeSelector.close();
+			m_sockChannel.close();
+		}
 	}
 }
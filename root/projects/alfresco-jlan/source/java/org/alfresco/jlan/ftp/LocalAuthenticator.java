@@ -167,6 +167,16 @@ public class LocalAuthenticator implements FTPAuthenticator {
       m_debug = true;
   }
 
+  /**
+   * Set the current authenticated user context for this thread
+   * 
+   * @param cInfo ClientInfo
+   */
+  public void setCurrentUser(ClientInfo cInfo) {
+    
+    // No per thread user context required for local accounts
+  }
+
   /**
    * Close the authenticator
    */
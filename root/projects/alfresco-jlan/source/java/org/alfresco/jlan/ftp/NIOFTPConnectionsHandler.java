@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2006-2010 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.jlan.ftp;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+
+import org.alfresco.jlan.debug.Debug;
+import org.alfresco.jlan.server.thread.ThreadRequestPool;
+
+/**
+ * NIO FTP Connections Handler Class
+ * 
+ * <p>Accepts incoming FTP connections and monitors the control connections of all FTP sessions using a single
+ * socket selector. Sessions with pending commands are queued to the core server thread pool for processing, rather
+ * than each session using its own thread.
+ * 
+ * @author agent
+ */
+public class NIOFTPConnectionsHandler {
+
+	// FTP server
+	
+	private FTPServer m_server;
+	
+	// Thread pool used to process session commands
+	
+	private ThreadRequestPool m_threadPool;
+	
+	// Selector used to monitor incoming connections and session requests
+	
+	private Selector m_selector;
+	
+	// Shutdown request flag
+	
+	private volatile boolean m_shutdown;
+	
+	// Debug output
+	
+	private boolean m_debug;
+	
+	/**
+	 * Class constructor
+	 * 
+	 * @param srv FTPServer
+	 * @param threadPool ThreadRequestPool
+	 * @exception IOException
+	 */
+	public NIOFTPConnectionsHandler( FTPServer srv, ThreadRequestPool threadPool)
+		throws IOException {
+		
+		m_server     = srv;
+		m_threadPool = threadPool;
+		m_debug      = srv.hasDebug();
+		
+		// Create the selector
+		
+		m_selector = Selector.open();
+	}
+	
+	/**
+	 * Check if debug output is enabled
+	 * 
+	 * @return boolean
+	 */
+	public final boolean hasDebug() {
+		return m_debug;
+	}
+	
+	/**
+	 * Accept connections and dispatch session requests until the handler is closed
+	 * 
+	 * @param srvChannel ServerSocketChannel
+	 * @exception IOException
+	 */
+	public final void runHandler( ServerSocketChannel srvChannel)
+		throws IOException {
+		
+		// Register the server socket for socket accept events
+		
+		srvChannel.configureBlocking( false);
+		srvChannel.register( m_selector, SelectionKey.OP_ACCEPT);
+		
+		// Wait for incoming connections and session requests
+		
+		while ( m_shutdown == false) {
+			
+			int selCnt = 0;
+			
+			try {
+				selCnt = m_selector.select();
+			}
+			catch ( CancelledKeyException ex) {
+				
+				// Session closed during the select, ignore
+			}
+			
+			// Check if the handler has been closed
+			
+			if ( m_shutdown == true || m_selector.isOpen() == false)
+				break;
+			
+			// Check if there are any events to process
+			
+			if ( selCnt == 0)
+				continue;
+			
+			// Iterate the selected keys
+			
+			Iterator<SelectionKey> keysIter = m_selector.selectedKeys().iterator();
+			
+			while ( keysIter.hasNext()) {
+				
+				// Get the current selection key, and remove from the selected list
+				
+				SelectionKey selKey = keysIter.next();
+				keysIter.remove();
+				
+				try {
+					
+					if ( selKey.isValid() == false)
+						continue;
+					
+					if ( selKey.isAcceptable()) {
+						
+						// Accept the new client connection
+						
+						acceptConnection( (ServerSocketChannel) selKey.channel());
+					}
+					else if ( selKey.isReadable()) {
+						
+						// Disable read events for the socket channel until the session has processed the request
+						
+						selKey.interestOps( selKey.interestOps() & ~SelectionKey.OP_READ);
+						
+						// Queue the session to the thread pool
+						
+						FTPSrvSession sess = (FTPSrvSession) selKey.attachment();
+						m_threadPool.queueRequest( new NIOFTPThreadRequest( sess, selKey));
+					}
+				}
+				catch ( CancelledKeyException ex) {
+					
+					// Session closed, ignore
+				}
+			}
+		}
+		
+		// Close the selector
+		
+		try {
+			m_selector.close();
+		}
+		catch ( IOException ex) {
+			
+			// DEBUG
+			
+			if ( Debug.EnableError && hasDebug())
+				Debug.println( "[FTP] Error closing socket selector, " + ex.getMessage());
+		}
+	}
+	
+	/**
+	 * Close the connections handler, wakeup the handler thread
+	 */
+	public final void closeHandler() {
+		m_shutdown = true;
+		m_selector.wakeup();
+	}
+	
+	/**
+	 * Accept an incoming connection and create a new FTP session
+	 * 
+	 * @param srvChannel ServerSocketChannel
+	 */
+	private final void acceptConnection( ServerSocketChannel srvChannel) {
+		
+		SocketChannel sockChannel = null;
+		FTPSrvSession sess = null;
+		
+		try {
+			
+			// Accept the new client connection, may have been accepted already
+			
+			sockChannel = srvChannel.accept();
+			if ( sockChannel == null)
+				return;
+			
+			// Set socket options
+			
+			sockChannel.configureBlocking( false);
+			sockChannel.socket().setTcpNoDelay( true);
+			
+			// DEBUG
+			
+			if ( Debug.EnableInfo && hasDebug())
+				Debug.println( "[FTP] FTP session request received from " + sockChannel.socket().getInetAddress().getHostAddress());
+			
+			// Create the new session, and send the initial response
+			
+			sess = new FTPSrvSession( sockChannel, m_server);
+			m_server.initializeSession( sess);
+			
+			sess.startChannelSession();
+			
+			// Register the session socket for read events
+			
+			sockChannel.register( m_selector, SelectionKey.OP_READ, sess);
+		}
+		catch ( IOException ex) {
+			
+			// DEBUG
+			
+			if ( Debug.EnableError && hasDebug()) {
+				Debug.println( "[FTP] Failed to accept connection");
+				Debug.println( ex);
+			}
+			
+			// Close the session, or the socket if the session was not created
+			
+			if ( sess != null)
+				sess.closeSession();
+			else if ( sockChannel != null) {
+				try {
+					sockChannel.close();
+				}
+				catch ( IOException ex2) {
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2006-2010 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.jlan.ftp;
+
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+
+import org.alfresco.jlan.debug.Debug;
+import org.alfresco.jlan.server.thread.ThreadRequest;
+
+/**
+ * NIO FTP Thread Request Class
+ * 
+ * <p>Holds the details of an NIO channel based FTP session request for processing by a thread pool. Data transfer
+ * commands are processed by the FTP server data transfer thread pool, so that long file transfers do not hold the
+ * core thread pool threads that are shared with the other protocols.
+ * 
+ * @author agent
+ */
+public class NIOFTPThreadRequest implements ThreadRequest {
+
+	// FTP session
+	
+	private FTPSrvSession m_sess;
+	
+	// Selection key for the session socket channel
+	
+	private SelectionKey m_selectionKey;
+	
+	// Request is running on the data transfer thread pool
+	
+	private boolean m_dataThread;
+	
+	/**
+	 * Class constructor
+	 * 
+	 * @param sess FTPSrvSession
+	 * @param selKey SelectionKey
+	 */
+	public NIOFTPThreadRequest( FTPSrvSession sess, SelectionKey selKey) {
+		this( sess, selKey, false);
+	}
+	
+	/**
+	 * Class constructor
+	 * 
+	 * @param sess FTPSrvSession
+	 * @param selKey SelectionKey
+	 * @param dataThread boolean
+	 */
+	public NIOFTPThreadRequest( FTPSrvSession sess, SelectionKey selKey, boolean dataThread) {
+		m_sess         = sess;
+		m_selectionKey = selKey;
+		m_dataThread   = dataThread;
+	}
+	
+	/**
+	 * Run the FTP request
+	 */
+	public void runRequest() {
+		
+		// Process the pending commands for the session, read events for the socket channel are disabled until
+		// the commands have been processed so that the session commands are processed in order
+		
+		int sts = m_sess.processChannelCommands( m_dataThread);
+		
+		if ( sts == FTPSrvSession.ChannelTransfer) {
+			
+			// Continue processing the session commands on the data transfer thread pool, read events stay
+			// disabled until the transfer has completed
+			
+			m_sess.getFTPServer().getDataTransferThreadPool().queueRequest( new NIOFTPThreadRequest( m_sess, m_selectionKey, true));
+			return;
+		}
+		
+		if ( sts == FTPSrvSession.ChannelActive) {
+			
+			try {
+				
+				// Re-enable read events for this socket channel
+				
+				m_selectionKey.interestOps( m_selectionKey.interestOps() | SelectionKey.OP_READ);
+				m_selectionKey.selector().wakeup();
+				return;
+			}
+			catch ( CancelledKeyException ex) {
+				
+				// DEBUG
+				
+				if ( Debug.EnableInfo && m_sess.hasDebug( FTPSrvSession.DBG_STATE))
+					Debug.println("[FTP] Selection key cancelled, sess=" + m_sess.getUniqueId());
+				
+				// Close the session
+				
+				m_sess.closeSession();
+			}
+		}
+		
+		// Session has been closed, cancel the selection key
+		
+		m_selectionKey.cancel();
+		m_selectionKey.selector().wakeup();
+	}
+	
+	/**
+	 * Return the FTP request details as a string
+	 * 
+	 * @return String
+	 */
+	public String toString() {
+		StringBuilder str = new StringBuilder();
+		
+		str.append("[NIO FTP Sess=");
+		str.append( m_sess.getUniqueId());
+		if ( m_dataThread)
+			str.append(",Data");
+		str.append("]");
+		
+		return str.toString();
+	}
+}
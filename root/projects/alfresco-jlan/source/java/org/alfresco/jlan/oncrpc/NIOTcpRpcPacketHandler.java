@@ -0,0 +1,482 @@
+/*
+ * Copyright (C) 2006-2010 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.jlan.oncrpc;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.LinkedList;
+
+import org.alfresco.jlan.debug.Debug;
+import org.alfresco.jlan.server.memory.DirectByteBufferPool;
+
+/**
+ * NIO TCP RPC Packet Handler Class
+ * 
+ * <p>Handles a single TCP RPC client connection for the {@link NIOTcpRpcSessionHandler}. The socket channel is read by
+ * one of the session handler I/O threads, the RPC record marking is decoded as the data arrives and each complete
+ * request is queued for processing, so a client may have many requests outstanding on the connection at the same time.
+ * Responses are sent as the requests complete, which may not be in the order the requests were received, the client
+ * matches the responses to the requests using the XID.
+ * 
+ * <p>Responses are written directly to the socket channel by the thread that processed the request. If the socket send
+ * buffer is full the remaining data is queued and written by the I/O thread when the channel is writeable. When the
+ * session handler has a direct buffer pool the response is copied to a pooled direct buffer, which is queued as-is if
+ * the write is incomplete and released once all of the data has been written.
+ *
+ * @author agent
+ */
+public class NIOTcpRpcPacketHandler implements RpcPacketHandler {
+
+	//	Constants
+	//
+	//	Queued response data size at which reading from the connection is suspended until the client has read the
+	//	responses
+	
+	public static final int MaxQueuedWriteSize	= 1024 * 1024;
+	
+	//	Session handler that owns this connection
+	
+	private NIOTcpRpcSessionHandler m_handler;
+	
+	//	Session id
+	
+	private int m_sessId;
+	
+	//	Socket channel and selection key
+	
+	private SocketChannel m_channel;
+	private SelectionKey m_selKey;
+	
+	//	Client details
+	
+	private InetAddress m_clientAddr;
+	private int m_clientPort;
+	
+	//	Fragment header being received, and count of header bytes received
+	
+	private int m_fragHdr;
+	private int m_fragHdrLen;
+	
+	//	Remaining length of the current fragment, and last fragment flag
+	
+	private int m_fragRemaining;
+	private boolean m_lastFrag;
+	
+	//	RPC request being received, and the length of the request data received
+	
+	private RpcPacket m_rxPkt;
+	private int m_rxLen;
+	
+	//	Queued response data waiting to be written to the socket channel, and the total queued size
+	
+	private LinkedList<ByteBuffer> m_writeQueue;
+	private int m_writeQueueSize;
+	
+	//	Connection closed flag
+	
+	private volatile boolean m_closed;
+	
+	/**
+	 * Class constructor
+	 * 
+	 * @param handler NIOTcpRpcSessionHandler
+	 * @param sessId int
+	 * @param channel SocketChannel
+	 */
+	public NIOTcpRpcPacketHandler(NIOTcpRpcSessionHandler handler, int sessId, SocketChannel channel) {
+		m_handler = handler;
+		m_sessId  = sessId;
+		m_channel = channel;
+		
+		m_clientAddr = channel.socket().getInetAddress();
+		m_clientPort = channel.socket().getPort();
+		
+		m_writeQueue = new LinkedList<ByteBuffer>();
+	}
+	
+	/**
+	 * Return the session id
+	 * 
+	 * @return int
+	 */
+	public final int getSessionId() {
+		return m_sessId;
+	}
+	
+	/**
+	 * Return the socket channel
+	 * 
+	 * @return SocketChannel
+	 */
+	public final SocketChannel getSocketChannel() {
+		return m_channel;
+	}
+	
+	/**
+	 * Check if the connection has been closed
+	 * 
+	 * @return boolean
+	 */
+	public final boolean isClosed() {
+		return m_closed;
+	}
+	
+	/**
+	 * Set the selection key for the socket channel, called by the I/O thread when the channel is registered
+	 * 
+	 * @param selKey SelectionKey
+	 */
+	protected final void setSelectionKey(SelectionKey selKey) {
+		m_selKey = selKey;
+	}
+	
+	/**
+	 * Read the available data from the socket channel and queue any complete RPC requests for processing
+	 * 
+	 * @param ioBuf ByteBuffer
+	 * @return boolean false if the client has closed the connection
+	 * @exception IOException
+	 */
+	protected final boolean readRequests(ByteBuffer ioBuf)
+		throws IOException {
+		
+		//	Read the available data
+		
+		ioBuf.clear();
+		int rdLen = m_channel.read(ioBuf);
+		
+		if ( rdLen == -1)
+			return false;
+		
+		ioBuf.flip();
+		
+		//	Decode the RPC records, a read may contain several requests or only part of a request
+		
+		while ( ioBuf.hasRemaining()) {
+			
+			//	Check if the fragment header is being received
+			
+			if ( m_fragHdrLen < RpcPacket.FragHeaderLen) {
+				
+				m_fragHdr = ( m_fragHdr << 8) | ( ioBuf.get() & 0xFF);
+				m_fragHdrLen++;
+				
+				if ( m_fragHdrLen < RpcPacket.FragHeaderLen)
+					continue;
+				
+				//	Get the fragment length, and check if this is the last fragment of the request
+				
+				m_lastFrag      = ( m_fragHdr & Rpc.LastFragment) != 0;
+				m_fragRemaining = m_fragHdr & Rpc.LengthMask;
+				
+				//	Allocate a packet for the request, if this is the first fragment
+				
+				if ( m_rxPkt == null)
+					m_rxPkt = m_handler.allocateRpcPacket(m_handler.getMaximumRpcSize());
+				
+				//	Check if the buffer is large enough to receive the fragment
+				
+				if ( m_fragRemaining > m_rxPkt.getBuffer().length - RpcPacket.FragHeaderLen - m_rxLen)
+					throw new IOException("Receive RPC buffer overflow, fragment len = " + m_fragRemaining);
+			}
+			
+			//	Copy the fragment data to the request packet
+			
+			int len = Math.min( ioBuf.remaining(), m_fragRemaining);
+			
+			if ( len > 0) {
+				ioBuf.get( m_rxPkt.getBuffer(), RpcPacket.FragHeaderLen + m_rxLen, len);
+				
+				m_rxLen         += len;
+				m_fragRemaining -= len;
+			}
+			
+			//	Check if the fragment is complete
+			
+			if ( m_fragRemaining == 0) {
+				
+				//	Reset the fragment header
+				
+				m_fragHdr    = 0;
+				m_fragHdrLen = 0;
+				
+				//	Check if the request is complete
+				
+				if ( m_lastFrag) {
+					
+					RpcPacket rpc = m_rxPkt;
+					
+					rpc.setBuffer(RpcPacket.FragHeaderLen, m_rxLen + RpcPacket.FragHeaderLen);
+					rpc.setClientDetails(m_clientAddr, m_clientPort, Rpc.TCP);
+					
+					m_rxPkt = null;
+					m_rxLen = 0;
+					
+					//	Process the request
+					
+					processRequest(rpc);
+				}
+			}
+		}
+		
+		//	Connection still open
+		
+		return true;
+	}
+	
+	/**
+	 * Process a received RPC request
+	 * 
+	 * @param rpc RpcPacket
+	 * @exception IOException
+	 */
+	private final void processRequest(RpcPacket rpc)
+		throws IOException {
+		
+		//	Validate the RPC header
+		
+		if ( rpc.getRpcVersion() != Rpc.RpcVersion) {
+			
+			//	Build/send an error response
+			
+			try {
+				rpc.buildRpcMismatchResponse();
+				sendRpcResponse(rpc);
+			}
+			finally {
+				m_handler.deallocateRpcPacket(rpc);
+			}
+		}
+		else {
+			
+			//	Link the RPC request to this connection, and queue the request for processing
+			
+			rpc.setPacketHandler(this);
+			m_handler.queueRpcRequest(rpc);
+		}
+	}
+	
+	/**
+	 * Send an RPC response using the socket channel
+	 * 
+	 * @param rpc RpcPacket
+	 * @exception IOException
+	 */
+	public void sendRpcResponse(RpcPacket rpc)
+		throws IOException {
+		
+		//	Ignore the response if the connection has been closed
+		
+		if ( m_closed)
+			return;
+		
+		//	Copy the response to a pooled direct buffer, if available, else wrap the response buffer
+		
+		DirectByteBufferPool directPool = m_handler.getDirectBufferPool();
+		ByteBuffer txBuf = directPool != null ? directPool.allocateBuffer(rpc.getTxLength()) : null;
+		
+		if ( txBuf != null) {
+			txBuf.put(rpc.getBuffer(), 0, rpc.getTxLength());
+			txBuf.flip();
+		}
+		else
+			txBuf = ByteBuffer.wrap(rpc.getBuffer(), 0, rpc.getTxLength());
+		
+		synchronized ( m_writeQueue) {
+			
+			//	Check if the connection was closed whilst the response was being copied
+			
+			if ( m_closed) {
+				releaseBuffer(txBuf);
+				return;
+			}
+			
+			//	Write the response directly to the socket channel, if there is no data waiting to be written
+			
+			if ( m_writeQueue.size() == 0) {
+				
+				try {
+					m_channel.write(txBuf);
+				}
+				catch (IOException ex) {
+					releaseBuffer(txBuf);
+					throw ex;
+				}
+				
+				if ( txBuf.hasRemaining() == false) {
+					releaseBuffer(txBuf);
+					return;
+				}
+			}
+			
+			//	Queue the remaining data to be written by the I/O thread. The response packet may be released as soon as this
+			//	method returns so data in the response buffer must be copied, a pooled direct buffer is queued as-is.
+			
+			ByteBuffer queuedBuf = txBuf;
+			
+			if ( txBuf.isDirect() == false) {
+				queuedBuf = ByteBuffer.allocate(txBuf.remaining());
+				queuedBuf.put(txBuf);
+				queuedBuf.flip();
+			}
+			
+			m_writeQueue.add(queuedBuf);
+			m_writeQueueSize += queuedBuf.remaining();
+			
+			//	DEBUG
+			
+			if ( Debug.EnableInfo && m_handler.hasDebug())
+				Debug.println("[" + m_handler.getProtocolName() + "] Queued response, sess=" + getSessionId() + ", queued=" + m_writeQueueSize);
+			
+			//	Enable write events for the socket channel
+			
+			updateInterestOps();
+		}
+	}
+	
+	/**
+	 * Write queued response data to the socket channel, called by the I/O thread when the channel is writeable
+	 * 
+	 * @exception IOException
+	 */
+	protected final void writeQueuedResponses()
+		throws IOException {
+		
+		synchronized ( m_writeQueue) {
+			
+			//	Write the queued data until the socket send buffer is full
+			
+			while ( m_writeQueue.size() > 0) {
+				
+				ByteBuffer txBuf = m_writeQueue.getFirst();
+				m_writeQueueSize -= m_channel.write(txBuf);
+				
+				if ( txBuf.hasRemaining())
+					break;
+				
+				releaseBuffer(m_writeQueue.removeFirst());
+			}
+			
+			//	Update the socket channel events, disable write events if the queue is empty
+			
+			updateInterestOps();
+		}
+	}
+	
+	/**
+	 * Update the socket channel events, must be called with the write queue locked.
+	 * 
+	 * <p>Read events are disabled whilst too much response data is queued, so a client that sends requests without reading
+	 * the responses cannot use up the server memory.
+	 */
+	private final void updateInterestOps() {
+		
+		//	Check if the channel has been registered
+		
+		if ( m_selKey == null || m_selKey.isValid() == false)
+			return;
+		
+		int ops = 0;
+		
+		if ( m_writeQueueSize < MaxQueuedWriteSize)
+			ops |= SelectionKey.OP_READ;
+		if ( m_writeQueue.size() > 0)
+			ops |= SelectionKey.OP_WRITE;
+		
+		//	Update the selection key, wakeup the selector so the change is picked up by the I/O thread
+		
+		if ( m_selKey.interestOps() != ops) {
+			m_selKey.interestOps(ops);
+			m_selKey.selector().wakeup();
+		}
+	}
+	
+	/**
+	 * Close the connection, release any partially received request. Called by the I/O thread that owns the connection.
+	 */
+	public void closePacketHandler() {
+		
+		//	Check if the connection is already closed
+		
+		if ( m_closed)
+			return;
+		m_closed = true;
+		
+		//	Cancel the selection key and close the socket channel
+		
+		if ( m_selKey != null)
+			m_selKey.cancel();
+		
+		try {
+			m_channel.close();
+		}
+		catch (IOException ex) {
+		}
+		
+		//	Release the partially received request
+		
+		if ( m_rxPkt != null) {
+			m_handler.deallocateRpcPacket(m_rxPkt);
+			m_rxPkt = null;
+		}
+		
+		//	Release the queued response data
+		
+		synchronized ( m_writeQueue) {
+			while ( m_writeQueue.size() > 0)
+				releaseBuffer(m_writeQueue.removeFirst());
+			m_writeQueueSize = 0;
+		}
+	}
+	
+	/**
+	 * Release a response buffer that has been written, or discarded. Only pooled direct buffers need to be released.
+	 * 
+	 * @param buf ByteBuffer
+	 */
+	private final void releaseBuffer(ByteBuffer buf) {
+		if ( buf.isDirect())
+			m_handler.getDirectBufferPool().releaseBuffer(buf);
+	}
+	
+	/**
+	 * Return the connection details as a string
+	 * 
+	 * @return String
+	 */
+	public String toString() {
+		StringBuilder str = new StringBuilder();
+		
+		str.append("[");
+		str.append(m_handler.getProtocolName());
+		str.append(" sess=");
+		str.append(getSessionId());
+		str.append(",");
+		str.append(m_clientAddr != null ? m_clientAddr.getHostAddress() : "");
+		str.append(":");
+		str.append(m_clientPort);
+		str.append("]");
+		
+		return str.toString();
+	}
+}
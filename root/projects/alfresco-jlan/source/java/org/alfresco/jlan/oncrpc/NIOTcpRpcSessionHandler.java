@@ -0,0 +1,640 @@
+/*
+ * Copyright (C) 2006-2010 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.jlan.oncrpc;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import org.alfresco.jlan.debug.Debug;
+import org.alfresco.jlan.server.NetworkServer;
+import org.alfresco.jlan.server.SessionHandlerBase;
+import org.alfresco.jlan.server.memory.DirectByteBufferPool;
+
+/**
+ * NIO TCP RPC Session Handler Class
+ * 
+ * <p>Receives RPC requests via TCP connections using non-blocking socket channels. The connections are shared between a
+ * small number of I/O threads, each monitoring its connections using a socket selector, rather than using a thread per
+ * connection. Requests are queued to an RPC request thread pool for processing, if a thread pool has not been set the
+ * requests are processed by the I/O thread.
+ * 
+ * <p>Each I/O thread reads into its own direct buffer and the RPC requests are assembled in packets allocated from
+ * the RPC packet pool. If a direct buffer pool has been set the responses are copied to pooled direct buffers for
+ * writing to the socket channel.
+ *
+ * @author agent
+ */
+public class NIOTcpRpcSessionHandler extends SessionHandlerBase implements Runnable {
+
+	//	Constants
+	//
+	//	Default number of I/O threads
+	
+	public static final int DefaultIOThreads		= 2;
+	
+	//	Default packet pool size
+	
+	public static final int DefaultPacketPoolSize	= 50;
+	public static final int DefaultSmallPacketSize	= 512;
+	
+	//	I/O thread read buffer size
+	
+	public static final int IOBufferSize			= 64 * 1024;
+	
+	//	RPC server implementation that handles the RPC processing
+	
+	private RpcProcessor m_rpcProcessor;
+	
+	//	Maximum request size allowed
+	
+	private int m_maxRpcSize;
+	
+	//	RPC packet pool
+	
+	private RpcPacketPool m_packetPool;
+	
+	//	Direct buffer pool used to write responses, optional
+	
+	private DirectByteBufferPool m_directPool;
+	
+	//	Request handler thread pool, or null to process requests using the I/O threads
+	
+	private RpcRequestThreadPool m_threadPool;
+	
+	//	Server socket channel for incoming connections
+	
+	private ServerSocketChannel m_srvChannel;
+	
+	//	I/O threads, and the index of the next I/O thread to be given a new connection
+	
+	private int m_ioThreadCount;
+	private RpcIOThread[] m_ioThreads;
+	private int m_nextIOThread;
+	
+	/**
+	 * RPC I/O Thread Inner Class
+	 * 
+	 * <p>Reads the requests and writes queued responses for a set of connections.
+	 */
+	protected class RpcIOThread implements Runnable {
+		
+		//	Socket selector for the connections handled by this thread
+		
+		private Selector mi_selector;
+		
+		//	Read buffer
+		
+		private ByteBuffer mi_ioBuf;
+		
+		//	New connections waiting to be registered with the selector
+		
+		private LinkedList<NIOTcpRpcPacketHandler> mi_newConnections;
+		
+		//	I/O thread
+		
+		private Thread mi_thread;
+		
+		//	Shutdown flag
+		
+		private volatile boolean mi_shutdown;
+		
+		/**
+		 * Class constructor
+		 * 
+		 * @param name String
+		 * @exception IOException
+		 */
+		public RpcIOThread(String name)
+			throws IOException {
+			
+			//	Create the selector and read buffer
+			
+			mi_selector = Selector.open();
+			mi_ioBuf    = ByteBuffer.allocateDirect(IOBufferSize);
+			
+			mi_newConnections = new LinkedList<NIOTcpRpcPacketHandler>();
+			
+			//	Create the I/O thread
+			
+			mi_thread = new Thread(this);
+			mi_thread.setName(name);
+			mi_thread.setDaemon(true);
+			mi_thread.start();
+		}
+		
+		/**
+		 * Add a new connection to this I/O thread
+		 * 
+		 * @param pktHandler NIOTcpRpcPacketHandler
+		 */
+		public final void addConnection(NIOTcpRpcPacketHandler pktHandler) {
+			
+			//	Queue the connection, it will be registered with the selector by the I/O thread
+			
+			synchronized ( mi_newConnections) {
+				mi_newConnections.add(pktHandler);
+			}
+			
+			mi_selector.wakeup();
+		}
+		
+		/**
+		 * Request the I/O thread to shutdown
+		 */
+		public final void shutdownRequest() {
+			mi_shutdown = true;
+			mi_selector.wakeup();
+		}
+		
+		/**
+		 * Run the I/O thread
+		 */
+		public void run() {
+			
+			//	Loop until shutdown
+			
+			while ( mi_shutdown == false) {
+				
+				//	Wait for socket events
+				
+				try {
+					mi_selector.select();
+				}
+				catch (CancelledKeyException ex) {
+				}
+				catch (IOException ex) {
+					
+					//	DEBUG
+					
+					if ( Debug.EnableError && hasDebug()) {
+						Debug.println("[" + getProtocolName() + "] Error waiting for socket events");
+						Debug.println(ex);
+					}
+				}
+				
+				//	Check for shutdown
+				
+				if ( mi_shutdown == true)
+					break;
+				
+				//	Register any new connections
+				
+				registerNewConnections();
+				
+				//	Process the socket events
+				
+				Iterator<SelectionKey> keysIter = mi_selector.selectedKeys().iterator();
+				
+				while ( keysIter.hasNext()) {
+					
+					SelectionKey selKey = keysIter.next();
+					keysIter.remove();
+					
+					NIOTcpRpcPacketHandler pktHandler = (NIOTcpRpcPacketHandler) selKey.attachment();
+					
+					try {
+						
+						//	Write any queued responses
+						
+						if ( selKey.isValid() && selKey.isWritable())
+							pktHandler.writeQueuedResponses();
+						
+						//	Read and queue the requests, check if the client has closed the connection
+						
+						if ( selKey.isValid() && selKey.isReadable() && pktHandler.readRequests(mi_ioBuf) == false) {
+							
+							//	DEBUG
+							
+							if ( Debug.EnableInfo && hasDebug())
+								Debug.println("[" + getProtocolName() + "] Connection closed by client " + pktHandler);
+							
+							pktHandler.closePacketHandler();
+						}
+					}
+					catch (CancelledKeyException ex) {
+						pktHandler.closePacketHandler();
+					}
+					catch (IOException ex) {
+						
+						//	DEBUG
+						
+						if ( Debug.EnableInfo && hasDebug())
+							Debug.println("[" + getProtocolName() + "] Closing connection " + pktHandler + ", " + ex.getMessage());
+						
+						pktHandler.closePacketHandler();
+					}
+				}
+			}
+			
+			//	Close the connections handled by this thread, and the selector
+			
+			try {
+				Iterator<SelectionKey> keysIter = mi_selector.keys().iterator();
+				
+				while ( keysIter.hasNext()) {
+					NIOTcpRpcPacketHandler pktHandler = (NIOTcpRpcPacketHandler) keysIter.next().attachment();
+					pktHandler.closePacketHandler();
+				}
+				
+				mi_selector.close();
+			}
+			catch (Exception ex) {
+			}
+			
+			//	Close any connections that were not registered
+			
+			synchronized ( mi_newConnections) {
+				while ( mi_newConnections.size() > 0)
+					mi_newConnections.removeFirst().closePacketHandler();
+			}
+		}
+		
+		/**
+		 * Register new connections with the selector
+		 */
+		private final void registerNewConnections() {
+			
+			synchronized ( mi_newConnections) {
+				
+				while ( mi_newConnections.size() > 0) {
+					
+					NIOTcpRpcPacketHandler pktHandler = mi_newConnections.removeFirst();
+					
+					try {
+						
+						//	Register the socket channel for read events
+						
+						SelectionKey selKey = pktHandler.getSocketChannel().register(mi_selector, SelectionKey.OP_READ, pktHandler);
+						pktHandler.setSelectionKey(selKey);
+					}
+					catch (ClosedChannelException ex) {
+						pktHandler.closePacketHandler();
+					}
+				}
+			}
+		}
+	};
+	
+	/**
+	 * Class constructor
+	 * 
+	 * @param name String
+	 * @param protocol String
+	 * @param rpcServer RpcProcessor
+	 * @param server NetworkServer
+	 * @param addr InetAddress
+	 * @param port int
+	 * @param maxSize int
+	 * @param ioThreads int
+	 */
+	public NIOTcpRpcSessionHandler(String name, String protocol, RpcProcessor rpcServer, NetworkServer server,
+			InetAddress addr, int port, int maxSize, int ioThreads) {
+		super(name, protocol, server, addr, port);
+		
+		//	Set the RPC server implementation that will handle the actual requests
+		
+		m_rpcProcessor = rpcServer;
+		
+		//	Set the maximum RPC request size allowed
+		
+		m_maxRpcSize = maxSize;
+		
+		//	Set the number of I/O threads
+		
+		m_ioThreadCount = ioThreads > 0 ? ioThreads : DefaultIOThreads;
+	}
+	
+	/**
+	 * Return the maximum RPC size allowed
+	 * 
+	 * @return int
+	 */
+	protected final int getMaximumRpcSize() {
+		return m_maxRpcSize;
+	}
+	
+	/**
+	 * Return the RPC server used to process the requests
+	 * 
+	 * @return RpcProcessor
+	 */
+	protected final RpcProcessor getRpcProcessor() {
+		return m_rpcProcessor;
+	}
+	
+	/**
+	 * Initialize the session handler
+	 * 
+	 * @param server NetworkServer
+	 * @exception IOException
+	 */
+	public void initializeSessionHandler(NetworkServer server)
+		throws IOException {
+		
+		//	If the packet pool has not been created, create a default packet pool
+		
+		if ( m_packetPool == null)
+			m_packetPool = new RpcPacketPool(DefaultSmallPacketSize, DefaultPacketPoolSize, getMaximumRpcSize(), DefaultPacketPoolSize);
+		
+		//	Create the server socket channel
+		
+		m_srvChannel = ServerSocketChannel.open();
+		
+		InetSocketAddress sockAddr = null;
+		
+		if ( hasBindAddress())
+			sockAddr = new InetSocketAddress(getBindAddress(), getPort());
+		else
+			sockAddr = new InetSocketAddress(getPort());
+		
+		m_srvChannel.socket().bind(sockAddr, getListenBacklog());
+		
+		//	Set the allocated port
+		
+		if ( getPort() == 0)
+			setPort(m_srvChannel.socket().getLocalPort());
+		
+		//	Create the I/O threads
+		
+		m_ioThreads = new RpcIOThread[m_ioThreadCount];
+		
+		for ( int i = 0; i < m_ioThreads.length; i++)
+			m_ioThreads[i] = new RpcIOThread(getProtocolName() + "_TCPIO" + ( i + 1));
+		
+		//	DEBUG
+		
+		if ( Debug.EnableInfo && hasDebug()) {
+			Debug.print("[" + getProtocolName() + "] Binding " + getHandlerName() + " NIO session handler to address : ");
+			if ( hasBindAddress())
+				Debug.println(getBindAddress().getHostAddress());
+			else
+				Debug.println("ALL");
+			Debug.println("[" + getProtocolName() + "] Using " + m_ioThreads.length + " I/O threads");
+		}
+	}
+	
+	/**
+	 * Close the session handler, close all active connections
+	 * 
+	 * @param server NetworkServer
+	 */
+	public void closeSessionHandler(NetworkServer server) {
+		
+		//	Request the listener thread shutdown
+		
+		setShutdown(true);
+		
+		try {
+			
+			//	Close the server socket channel to release any pending accept
+			
+			if ( m_srvChannel != null)
+				m_srvChannel.close();
+		}
+		catch (Exception ex) {
+		}
+		
+		//	Shutdown the I/O threads, each thread closes its connections
+		
+		if ( m_ioThreads != null) {
+			for ( int i = 0; i < m_ioThreads.length; i++)
+				m_ioThreads[i].shutdownRequest();
+		}
+	}
+	
+	/**
+	 * Connection listener thread
+	 */
+	public void run() {
+		
+		try {
+			
+			//	Clear the shutdown flag
+			
+			clearShutdown();
+			
+			//	Wait for incoming connection requests
+			
+			while ( hasShutdown() == false) {
+				
+				//	Wait for a connection
+				
+				SocketChannel sockChannel = m_srvChannel.accept();
+				
+				try {
+					
+					//	Process the new connection request
+					
+					acceptConnection(sockChannel);
+				}
+				catch (IOException ex) {
+					
+					//	Debug
+					
+					if ( Debug.EnableInfo && hasDebug())
+						Debug.println("[" + getProtocolName() + "] Failed to create session, " + ex.toString());
+					
+					try {
+						sockChannel.close();
+					}
+					catch (IOException ex2) {
+					}
+				}
+			}
+		}
+		catch (SocketException ex) {
+			
+			//	Do not report an error if the server has shutdown, closing the server socket
+			//	causes an exception to be thrown.
+			
+			if ( hasShutdown() == false) {
+				Debug.println("[" + getProtocolName() + "] Socket error : " + ex.toString());
+				Debug.println(ex);
+			}
+		}
+		catch (Exception ex) {
+			
+			//	Do not report an error if the server has shutdown, closing the server socket
+			//	causes an exception to be thrown.
+			
+			if ( hasShutdown() == false) {
+				Debug.println("[" + getProtocolName() + "] Server error : " + ex.toString());
+				Debug.println(ex);
+			}
+		}
+		
+		//	Debug
+		
+		if ( Debug.EnableInfo && hasDebug())
+			Debug.println("[" + getProtocolName() + "] " + getHandlerName() + " NIO session handler closed");
+	}
+	
+	/**
+	 * Accept an incoming connection, and pass the connection to an I/O thread
+	 * 
+	 * @param sockChannel SocketChannel
+	 * @exception IOException
+	 */
+	protected void acceptConnection(SocketChannel sockChannel)
+		throws IOException {
+		
+		//	Set the socket channel to non-blocking mode, and set the socket for no delay
+		
+		sockChannel.configureBlocking(false);
+		sockChannel.socket().setTcpNoDelay(true);
+		
+		//	Create a packet handler for the new connection
+		
+		int sessId = getNextSessionId();
+		NIOTcpRpcPacketHandler pktHandler = new NIOTcpRpcPacketHandler(this, sessId, sockChannel);
+		
+		//	Pass the connection to the next I/O thread
+		
+		RpcIOThread ioThread = m_ioThreads[m_nextIOThread];
+		m_nextIOThread = ( m_nextIOThread + 1) % m_ioThreads.length;
+		
+		ioThread.addConnection(pktHandler);
+		
+		//	DEBUG
+		
+		if ( Debug.EnableInfo && hasDebug())
+			Debug.println("[" + getProtocolName() + "] Created new session id = " + sessId + ", from = " + sockChannel.socket().getInetAddress().getHostAddress() +
+					":" + sockChannel.socket().getPort());
+	}
+	
+	/**
+	 * Allocate an RPC packet from the packet pool
+	 * 
+	 * @param size int
+	 * @return RpcPacket
+	 */
+	protected final RpcPacket allocateRpcPacket(int size) {
+		return m_packetPool.allocatePacket(size);
+	}
+	
+	/**
+	 * Release an RPC packet back to the packet pool
+	 * 
+	 * @param pkt RpcPacket
+	 */
+	protected final void deallocateRpcPacket(RpcPacket pkt) {
+		if ( pkt.isAllocatedFromPool())
+			pkt.getOwnerPacketPool().releasePacket(pkt);
+	}
+	
+	/**
+	 * Queue an RPC request to the thread pool for processing, or process the request using the current thread if there
+	 * is no thread pool
+	 * 
+	 * @param rpc RpcPacket
+	 */
+	protected final void queueRpcRequest(RpcPacket rpc) {
+		
+		//	Queue the RPC request to the thread pool
+		
+		if ( m_threadPool != null) {
+			m_threadPool.queueRpcRequest(rpc);
+			return;
+		}
+		
+		//	Process the request using the I/O thread
+		
+		RpcPacket response = null;
+		
+		try {
+			
+			response = m_rpcProcessor.processRpc(rpc);
+			if ( response != null)
+				response.getPacketHandler().sendRpcResponse(response);
+		}
+		catch (Throwable ex) {
+			
+			//	DEBUG
+			
+			if ( hasShutdown() == false) {
+				Debug.println("[" + getProtocolName() + "] Error processing request, " + ex.toString());
+				Debug.println(ex);
+			}
+		}
+		finally {
+			
+			//	Release the RPC packet(s) back to the packet pool
+			
+			deallocateRpcPacket(rpc);
+			if ( response != null && response.getBuffer() != rpc.getBuffer())
+				deallocateRpcPacket(response);
+		}
+	}
+	
+	/**
+	 * Set the packet pool
+	 * 
+	 * @param pktPool RpcPacketPool
+	 */
+	public final void setPacketPool(RpcPacketPool pktPool) {
+		
+		//	Set the packet pool, if not already initialized
+		
+		if ( m_packetPool == null)
+			m_packetPool = pktPool;
+	}
+	
+	/**
+	 * Return the direct buffer pool used to write responses, or null if not set
+	 * 
+	 * @return DirectByteBufferPool
+	 */
+	public final DirectByteBufferPool getDirectBufferPool() {
+		return m_directPool;
+	}
+	
+	/**
+	 * Set the direct buffer pool used to write responses
+	 * 
+	 * @param directPool DirectByteBufferPool
+	 */
+	public final void setDirectBufferPool(DirectByteBufferPool directPool) {
+		m_directPool = directPool;
+	}
+	
+	/**
+	 * Set the thread pool used to process the RPC requests
+	 * 
+	 * @param threadPool RpcRequestThreadPool
+	 */
+	public final void setThreadPool(RpcRequestThreadPool threadPool) {
+		
+		//	Set the thread pool, if not already initialized
+		
+		if ( m_threadPool == null)
+			m_threadPool = threadPool;
+	}
+}
@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.util.Enumeration;
 
 import org.alfresco.jlan.debug.Debug;
+import org.alfresco.jlan.oncrpc.NIOTcpRpcSessionHandler;
 import org.alfresco.jlan.oncrpc.PortMapping;
 import org.alfresco.jlan.oncrpc.Rpc;
 import org.alfresco.jlan.oncrpc.RpcAuthenticationException;
@@ -36,6 +37,7 @@ import org.alfresco.jlan.oncrpc.nfs.NFSConfigSection;
 import org.alfresco.jlan.oncrpc.nfs.NFSHandle;
 import org.alfresco.jlan.oncrpc.nfs.NFSSrvSession;
 import org.alfresco.jlan.server.ServerListener;
+import org.alfresco.jlan.server.SessionHandlerBase;
 import org.alfresco.jlan.server.Version;
 import org.alfresco.jlan.server.auth.acl.AccessControl;
 import org.alfresco.jlan.server.auth.acl.AccessControlManager;
@@ -86,7 +88,7 @@ public class MountServer extends RpcNetworkServer implements RpcProcessor {
 
 	//	Incoming session handler for TCP requests
 	
-	private TcpRpcSessionHandler m_tcpHandler;
+	private SessionHandlerBase m_tcpHandler;
 
 	//	Tree connection hash
 	
@@ -179,14 +181,18 @@ public class MountServer extends RpcNetworkServer implements RpcProcessor {
 	    udpThread.setName("Mountd_UDP");
 	    udpThread.start();
 	    
-	    //	Create the TCP handler for accepting incoming requests
+	    //	Create the TCP handler for accepting incoming requests, use a single NIO I/O thread if NIO is enabled for the
+	    //	NFS server TCP connections
 	    
-	    m_tcpHandler = new TcpRpcSessionHandler("Mountd", "Mnt", this, this, null, getPort(), MaxRequestSize);
+	    if ( getNFSConfiguration().getRpcNIOThreads() > 0)
+	    	m_tcpHandler = new NIOTcpRpcSessionHandler("Mountd", "Mnt", this, this, null, getPort(), MaxRequestSize, 1);
+	    else
+	    	m_tcpHandler = new TcpRpcSessionHandler("Mountd", "Mnt", this, this, null, getPort(), MaxRequestSize);
 	    m_tcpHandler.initializeSessionHandler(this);
 
 	    //	Start the UDP request listener is a seperate thread
 	    
-	    Thread tcpThread = new Thread(m_tcpHandler);
+	    Thread tcpThread = new Thread((Runnable) m_tcpHandler);
 	    tcpThread.setName("Mountd_TCP");
 	    tcpThread.start();
 	    
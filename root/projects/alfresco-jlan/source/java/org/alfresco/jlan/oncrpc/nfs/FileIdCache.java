@@ -19,26 +19,55 @@
 
 package org.alfresco.jlan.oncrpc.nfs;
 
-import java.util.Hashtable;
+import org.alfresco.jlan.util.cache.CacheStatistics;
+import org.alfresco.jlan.util.cache.LRUCache;
+import org.alfresco.jlan.util.cache.ObjectCache;
 
 /**
  * File Id Cache Class
  * 
  * <p>Converts a file/directory id to a share relative path.
+ * 
+ * <p>The cache may be size bounded, in which case the least recently used paths are dropped. This should only be
+ * done for filesystems that can convert a file id back to a path, otherwise handles for paths that have been dropped
+ * will become stale.
  *
  * @author gkspencer
  */
 public class FileIdCache {
 
+	//	Default maximum number of paths for a size bounded cache
+	
+	public static final int DefaultCacheSize	= 65536;
+	
 	//	File id to path cache
 	
-	private Hashtable<Integer, String> m_idCache;
+	private ObjectCache<Integer, String> m_idCache;
 	
 	/**
 	 * Default constructor
 	 */
 	public FileIdCache() {
-		m_idCache = new Hashtable<Integer, String>();
+		this(0);
+	}
+	
+	/**
+	 * Class constructor
+	 * 
+	 * @param maxSize int
+	 */
+	public FileIdCache(int maxSize) {
+		m_idCache = createCache(maxSize);
+	}
+	
+	/**
+	 * Create the file id to path cache, may be overridden to use a different cache implementation
+	 * 
+	 * @param maxSize int
+	 * @return ObjectCache<Integer, String>
+	 */
+	protected ObjectCache<Integer, String> createCache(int maxSize) {
+		return new LRUCache<Integer, String>("NFSFileIdCache", maxSize);
 	}
 	
 	/**
@@ -69,4 +98,13 @@ public class FileIdCache {
 	public final void deletePath(int fid) {
 		m_idCache.remove(new Integer(fid));
 	}
+	
+	/**
+	 * Return the cache statistics
+	 * 
+	 * @return CacheStatistics
+	 */
+	public final CacheStatistics getStatistics() {
+		return m_idCache.getStatistics();
+	}
 }
@@ -73,6 +73,10 @@ public class NFSConfigSection extends ConfigSection {
 
   private int m_nfsThreadPoolSize;
   private int m_nfsPacketPoolSize;
+  
+  //  Number of I/O threads for the NIO TCP RPC handlers, zero to use a thread per TCP connection
+  
+  private int m_rpcNIOThreads;
 
   //  RPC authenticator implementation
 
@@ -84,6 +88,11 @@ public class NFSConfigSection extends ConfigSection {
   private long m_nfsFileCacheIOTimer;
   private long m_nfsFileCacheCloseTimer;
   
+  //  Maximum number of open files cached per session, and maximum number of file id to path mappings cached per share
+  
+  private int m_nfsFileCacheMaxFiles;
+  private int m_nfsFileIdCacheSize;
+  
   private boolean m_nfsFileCacheDebug;
 
   /**
@@ -185,6 +194,16 @@ public class NFSConfigSection extends ConfigSection {
     return m_nfsPacketPoolSize;
   }
 
+  /**
+   * Return the number of I/O threads used to handle the TCP RPC connections, or zero if the TCP connections
+   * each use a thread
+   * 
+   * @return int
+   */
+  public final int getRpcNIOThreads() {
+    return m_rpcNIOThreads;
+  }
+
   /**
    * Get the authenticator object that is used to provide RPC authentication (for the portmapper, mount server and
    * NFS server)
@@ -222,6 +241,25 @@ public class NFSConfigSection extends ConfigSection {
     return m_nfsFileCacheCloseTimer;
   }
   
+  /**
+   * Return the maximum number of open files cached per session, or zero to use the default
+   * 
+   * @return int
+   */
+  public final int getNFSFileCacheMaxFiles() {
+    return m_nfsFileCacheMaxFiles;
+  }
+  
+  /**
+   * Return the maximum number of file id to path mappings cached per share, or zero to use the default. Only
+   * applies to filesystems that can convert a file id to a path.
+   * 
+   * @return int
+   */
+  public final int getNFSFileIdCacheSize() {
+    return m_nfsFileIdCacheSize;
+  }
+  
   /**
    * Check if NFS file cache debug output is enabled
    * 
@@ -397,6 +435,26 @@ public class NFSConfigSection extends ConfigSection {
     
     return sts;
   }
+  
+  /**
+   * Set the number of I/O threads used to handle the TCP RPC connections, zero to use a thread per TCP connection
+   * 
+   * @param ioThreads int
+   * @return int
+   * @exception InvalidConfigurationException
+   */
+  public final int setRpcNIOThreads(int ioThreads)
+    throws InvalidConfigurationException {
+      
+    //  Inform listeners, validate the configuration change
+
+    int sts = fireConfigurationChange(ConfigId.NFSRpcNIOThreads, new Integer(ioThreads));
+    m_rpcNIOThreads = ioThreads;
+    
+    //  Return the change status
+    
+    return sts;
+  }
 
   /**
    * Enable/disable port mapper debug output
@@ -572,6 +630,46 @@ public class NFSConfigSection extends ConfigSection {
     return sts;
   }
   
+  /**
+   * Set the maximum number of open files cached per session, zero to use the default
+   *
+   * @param maxFiles int
+   * @return int
+   * @exception InvalidConfigurationException
+   */
+  public final int setNFSFileCacheMaxFiles(int maxFiles)
+    throws InvalidConfigurationException {
+    
+    //  Inform listeners, validate the configuration change
+
+    int sts = fireConfigurationChange(ConfigId.NFSFileCacheMaxFiles, new Integer(maxFiles));
+    m_nfsFileCacheMaxFiles = maxFiles;
+    
+    //  Return the change status
+    
+    return sts;
+  }
+  
+  /**
+   * Set the maximum number of file id to path mappings cached per share, zero to use the default
+   *
+   * @param cacheSize int
+   * @return int
+   * @exception InvalidConfigurationException
+   */
+  public final int setNFSFileIdCacheSize(int cacheSize)
+    throws InvalidConfigurationException {
+    
+    //  Inform listeners, validate the configuration change
+
+    int sts = fireConfigurationChange(ConfigId.NFSFileIdCacheSize, new Integer(cacheSize));
+    m_nfsFileIdCacheSize = cacheSize;
+    
+    //  Return the change status
+    
+    return sts;
+  }
+  
   /**
    * Set the NFS file cache debug enable flag
    * 
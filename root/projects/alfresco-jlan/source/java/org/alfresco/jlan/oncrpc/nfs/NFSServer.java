@@ -27,6 +27,7 @@ import org.alfresco.jlan.debug.Debug;
 import org.alfresco.jlan.oncrpc.AuthType;
 import org.alfresco.jlan.oncrpc.MultiThreadedTcpRpcSessionHandler;
 import org.alfresco.jlan.oncrpc.MultiThreadedUdpRpcDatagramHandler;
+import org.alfresco.jlan.oncrpc.NIOTcpRpcSessionHandler;
 import org.alfresco.jlan.oncrpc.PortMapping;
 import org.alfresco.jlan.oncrpc.Rpc;
 import org.alfresco.jlan.oncrpc.RpcAuthenticationException;
@@ -37,10 +38,12 @@ import org.alfresco.jlan.oncrpc.RpcPacketPool;
 import org.alfresco.jlan.oncrpc.RpcProcessor;
 import org.alfresco.jlan.oncrpc.RpcRequestThreadPool;
 import org.alfresco.jlan.server.ServerListener;
+import org.alfresco.jlan.server.SessionHandlerBase;
 import org.alfresco.jlan.server.SrvSession;
 import org.alfresco.jlan.server.Version;
 import org.alfresco.jlan.server.auth.acl.AccessControl;
 import org.alfresco.jlan.server.auth.acl.AccessControlManager;
+import org.alfresco.jlan.server.config.CoreServerConfigSection;
 import org.alfresco.jlan.server.config.ServerConfiguration;
 import org.alfresco.jlan.server.core.InvalidDeviceInterfaceException;
 import org.alfresco.jlan.server.core.ShareType;
@@ -174,7 +177,7 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
 
   //	Incoming session handler for TCP requests
 
-  private MultiThreadedTcpRpcSessionHandler m_tcpHandler;
+  private SessionHandlerBase m_tcpHandler;
 
   //	Share details hash
 
@@ -337,20 +340,44 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
       udpThread.setName("NFS_UDP");
       udpThread.start();
 
-      //	Create the TCP handler for accepting incoming requests
+      //	Create the TCP handler for accepting incoming requests, check if the TCP connections should be
+      //	handled by a few NIO I/O threads rather than a thread per connection
 
-      m_tcpHandler = new MultiThreadedTcpRpcSessionHandler("Nfsd", "Nfs", this, this, null, getPort(), MaxRequestSize);
+      if ( getNFSConfiguration().getRpcNIOThreads() > 0) {
+        
+        NIOTcpRpcSessionHandler nioHandler = new NIOTcpRpcSessionHandler("Nfsd", "Nfs", this, this, null, getPort(), MaxRequestSize,
+            getNFSConfiguration().getRpcNIOThreads());
 
-      //	Use the shared thread pool and packet pool
-      
-      m_tcpHandler.setThreadPool(m_threadPool);
-      m_tcpHandler.setPacketPool(m_packetPool);
+        //	Use the shared thread pool and packet pool
+        
+        nioHandler.setThreadPool(m_threadPool);
+        nioHandler.setPacketPool(m_packetPool);
+        
+        //	Write the responses using the global direct buffer pool, if configured
+        
+        CoreServerConfigSection coreConfig = (CoreServerConfigSection) getConfiguration().getConfigSection(CoreServerConfigSection.SectionName);
+        if ( coreConfig != null)
+          nioHandler.setDirectBufferPool(coreConfig.getDirectMemoryPool());
+        
+        m_tcpHandler = nioHandler;
+      }
+      else {
+        
+        MultiThreadedTcpRpcSessionHandler mtHandler = new MultiThreadedTcpRpcSessionHandler("Nfsd", "Nfs", this, this, null, getPort(), MaxRequestSize);
+  
+        //	Use the shared thread pool and packet pool
+        
+        mtHandler.setThreadPool(m_threadPool);
+        mtHandler.setPacketPool(m_packetPool);
+        
+        m_tcpHandler = mtHandler;
+      }
       
       m_tcpHandler.initializeSessionHandler(this);
 
       //	Start the UDP request listener is a seperate thread
 
-      Thread tcpThread = new Thread(m_tcpHandler);
+      Thread tcpThread = new Thread((Runnable) m_tcpHandler);
       tcpThread.setName("NFS_TCP");
       tcpThread.start();
 
@@ -4801,14 +4828,19 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
 
     int fileId = getFileIdForHandle(handle);
 
-    //	Get the per session network file cache, use this to synchronize
+    //	Get the per session network file cache, check if the file is already open
 
     NetworkFileCache fileCache = sess.getFileCache();
-    NetworkFile file = null;
+    NetworkFile file = fileCache.findFile(fileId, sess);
+
+    if (file != null)
+      return file;
+
+    //  Use the file cache to synchronize opening the file
 
     synchronized (fileCache) {
 
-      //	Check the file cache, file may already be open
+      //	Check the file cache again, file may have been opened by another thread
 
       file = fileCache.findFile(fileId, sess);
       if (file == null) {
@@ -4872,21 +4904,9 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
 
     int fileId = getFileIdForHandle(handle);
 
-    //  Get the per session network file cache, use this to synchronize
-
-    NetworkFileCache fileCache = sess.getFileCache();
-    NetworkFile file = null;
-
-    synchronized (fileCache) {
-
-      //    Check the file cache, file may already be open
+    //  Check the per session network file cache, file may already be open
 
-      file = fileCache.findFile(fileId, sess);
-    }
-
-    //  Return the network file
-
-    return file;
+    return sess.getFileCache().findFile(fileId, sess);
   }
 
   /**
@@ -5222,6 +5242,12 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
 
     int newShares = 0;
     
+    //  Get the file id cache size, used for filesystems that can convert file ids to paths
+    
+    int idCacheSize = getNFSConfiguration().getNFSFileIdCacheSize();
+    if ( idCacheSize <= 0)
+      idCacheSize = FileIdCache.DefaultCacheSize;
+    
     while (shares.hasMoreElements()) {
 
       //  Get the shared device
@@ -5249,7 +5275,7 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
           
           // Add the new share details
 
-          m_shareDetails.addDetails(new ShareDetails(share.getName(), fileIdSupport));
+          m_shareDetails.addDetails(new ShareDetails(share.getName(), fileIdSupport, idCacheSize));
           m_connections.addConnection(new TreeConnection(share));
           
           // Update the new share count
@@ -136,12 +136,18 @@ public class NFSSrvSession extends SrvSession {
     // Check if the file cache has been created
     
     if ( m_fileCache == null) {
-      m_fileCache = new NetworkFileCache(getUniqueId());
       
-      // Copy settings to the file cache
+      // Create the file cache, using the configured size limit
       
       NFSConfigSection config = getNFSServer().getNFSConfiguration();
       
+      if ( config.getNFSFileCacheMaxFiles() > 0)
+        m_fileCache = new NetworkFileCache(getUniqueId(), config.getNFSFileCacheMaxFiles());
+      else
+        m_fileCache = new NetworkFileCache(getUniqueId());
+      
+      // Copy settings to the file cache
+      
       m_fileCache.setDebug( hasDebug( NFSServer.DBG_FILE));
       
       if ( config.getNFSFileCacheIOTimer() > 0)
@@ -455,8 +461,15 @@ public class NFSSrvSession extends SrvSession {
 
 		//	Close any open files
 		
-		if ( m_fileCache != null)
+		if ( m_fileCache != null) {
+		  
+		  //  DEBUG
+		  
+		  if (Debug.EnableInfo && hasDebug(NFSServer.DBG_FILE))
+		    debugPrintln("NFS file cache stats=" + m_fileCache.getStatistics());
+		  
 		  m_fileCache.closeAllFiles();
+		}
 			
 		//  Check if there are open tree connections
 
@@ -20,8 +20,8 @@
 package org.alfresco.jlan.oncrpc.nfs;
 
 import java.io.IOException;
-import java.util.Enumeration;
-import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Map;
 
 import org.alfresco.jlan.debug.Debug;
 import org.alfresco.jlan.oncrpc.RpcAuthenticator;
@@ -31,6 +31,10 @@ import org.alfresco.jlan.server.filesys.FileStatus;
 import org.alfresco.jlan.server.filesys.NetworkFile;
 import org.alfresco.jlan.server.filesys.TransactionalFilesystemInterface;
 import org.alfresco.jlan.server.filesys.TreeConnection;
+import org.alfresco.jlan.util.cache.CacheListener;
+import org.alfresco.jlan.util.cache.CacheStatistics;
+import org.alfresco.jlan.util.cache.LRUCache;
+import org.alfresco.jlan.util.cache.ObjectCache;
 
 /**
  * Network File Cache Class
@@ -38,22 +42,31 @@ import org.alfresco.jlan.server.filesys.TreeConnection;
  * <p>
  * Caches the network files that are currently being accessed by the NFS server.
  * 
+ * <p>
+ * Files that have no I/O for the I/O timeout are closed but kept in the cache, in case they are accessed again,
+ * and are removed from the cache after the close timeout. The number of files in the cache may be limited, the
+ * least recently used files are removed to stay within the limit and are closed by a cache expiry thread.
+ * 
  * @author gkspencer
  */
-public class NetworkFileCache {
+public class NetworkFileCache implements CacheListener<Integer, NetworkFileCache.FileEntry> {
 
 	// Default file timeout
 
 	public static final long DefaultFileTimeout = 5000L; // 5 seconds
 	public static final long ClosedFileTimeout = 30000L; // 30 seconds
 
-	// Network file cache, key is the file id
+	// Expiry timer interval
 
-	private Hashtable<Integer, FileEntry> m_fileCache;
+	public static final long ExpiryInterval = 1000L; // 1 second
 
-	// File expiry thread
+	// Default maximum number of files in the cache
+
+	public static final int DefaultMaximumFiles = 1024;
+
+	// Network file cache, key is the file id
 
-	private FileExpiry m_expiryThread;
+	private ObjectCache<Integer, FileEntry> m_fileCache;
 
 	// File timeouts
 
@@ -61,9 +74,9 @@ public class NetworkFileCache {
 	private long m_fileCloseTmo = ClosedFileTimeout;
 
 	// NFS authenticator
-	
+
 	private RpcAuthenticator m_authenticator;
-	
+
 	// Debug enable flag
 
 	private boolean m_debug = false;
@@ -76,16 +89,12 @@ public class NetworkFileCache {
 		// Network file and closed flag
 
 		private NetworkFile m_file;
-		private boolean m_closed;
+		private volatile boolean m_closed;
 
 		// Disk share connection
 
 		private TreeConnection m_conn;
 
-		// File timeout
-
-		private long m_timeout;
-
 		// Session that last accessed the file
 
 		private NFSSrvSession m_sess;
@@ -101,17 +110,6 @@ public class NetworkFileCache {
 			m_file = file;
 			m_conn = conn;
 			m_sess = sess;
-
-			updateTimeout();
-		}
-
-		/**
-		 * Return the file timeout
-		 * 
-		 * @return long
-		 */
-		public final long getTimeout() {
-			return m_timeout;
 		}
 
 		/**
@@ -141,23 +139,6 @@ public class NetworkFileCache {
 			return m_sess;
 		}
 
-		/**
-		 * Update the file timeout
-		 */
-		public final void updateTimeout() {
-			m_timeout = System.currentTimeMillis() + m_fileIOTmo;
-		}
-
-		/**
-		 * Update the file timeout
-		 * 
-		 * @param tmo
-		 *            long
-		 */
-		public final void updateTimeout(long tmo) {
-			m_timeout = tmo;
-		}
-
 		/**
 		 * Set the session that last accessed the file
 		 * 
@@ -177,7 +158,7 @@ public class NetworkFileCache {
 		/**
 		 * Close the file
 		 */
-		public final void closeFile() {
+		public synchronized final void closeFile() {
 			if (m_file != null) {
 				try {
 					m_file.closeFile();
@@ -188,10 +169,10 @@ public class NetworkFileCache {
 		}
 
 		/**
-		 * Open the network file
+		 * Open the network file, if it has been closed
 		 */
-		public final void openFile() {
-			if (m_file != null) {
+		public synchronized final void openFile() {
+			if (m_file != null && m_closed == true) {
 				try {
 					m_file.openFile(false);
 					m_closed = false;
@@ -199,7 +180,7 @@ public class NetworkFileCache {
 				}
 			}
 		}
-		
+
 		/**
 		 * Mark the file entry as closed
 		 */
@@ -207,237 +188,21 @@ public class NetworkFileCache {
 		    if ( m_file != null)
 		        m_closed = true;
 		}
-	};
-
-	/**
-	 * File Expiry Thread Class
-	 */
-	protected class FileExpiry implements Runnable {
-
-		// Expiry thread
-
-		private Thread m_thread;
-
-		// Shutdown flag
-
-		private boolean m_shutdown;
-
+		
 		/**
-		 * Class Constructor
+		 * Return the file entry as a string
 		 * 
-		 * @param name
-		 *            String
+		 * @return String
 		 */
-		public FileExpiry(String name) {
-
-			// Create and start the file expiry thread
-
-			m_thread = new Thread(this);
-			m_thread.setDaemon(true);
-			m_thread.setName("NFSFileExpiry_" + name);
-			m_thread.start();
-		}
-
-		/**
-		 * Main thread method
-		 */
-		public void run() {
-
-			// Loop until shutdown
-
-			while (m_shutdown == false) {
-
-				// Sleep for a while
-
-				try {
-					Thread.sleep(m_fileIOTmo / 2);
-				} catch (InterruptedException ex) {
-				}
-
-				// Get the current system time
-
-				long timeNow = System.currentTimeMillis();
-
-				// Check for expired files
-
-				synchronized (m_fileCache) {
-
-					// Enumerate the cache entries
-
-					Enumeration<Integer> enm = m_fileCache.keys();
-
-					while (enm.hasMoreElements()) {
-
-						// Get the current key
-
-						Integer fileId = enm.nextElement();
-
-						// Get the file entry and check if it has expired
-
-						FileEntry fentry = m_fileCache.get(fileId);
-
-						if (fentry != null && fentry.getTimeout() < timeNow) {
-
-							// Get the network file
-
-							NetworkFile netFile = fentry.getFile();
-
-							// Check if the file has an I/O request pending, if so then reset the file expiry time
-							// for the file
-
-							if (netFile.hasIOPending()) {
-
-								// Update the expiry time for the file entry
-
-								fentry.updateTimeout();
-
-								// DEBUG
-
-								if (Debug.EnableInfo && hasDebug())
-									Debug.println("NFSFileExpiry: I/O pending file="	+ fentry.getFile().getFullName() + ", fid=" + fileId);
-							} 
-							else {
-
-								// Check if the network file is closed, if not  then close the file to release the file
-								// handle but keep the file entry in the file cache for a while as the file may be re-opened
-
-								if (fentry.isClosed() == false) {
-
-									// We need to do the close in the context of the user that opened the file
-									
-									try {
-										
-										// Set the the current user context
-										
-										m_authenticator.setCurrentUser( fentry.getSession(), fentry.getSession().getNFSClientInformation());
-									
-										// Check if the filesystem is transactional, in this case only mark the file as closed
-										
-										if ( fentry.getConnection().getInterface() instanceof TransactionalFilesystemInterface) {
-										    
-										    // Mark the file as closed, wait for second stage expiry to actually close the file
-										    
-										    fentry.markAsClosed();
-
-										    // DEBUG
-									        
-                                            if (Debug.EnableInfo && hasDebug())
-                                                Debug.println("NFSFileExpiry: Marked as closed file=" + fentry.getFile().getFullName() + ", fid=" + fileId + " (cached)");
-										}
-										else {
-										    
-    										// Close the network file
-    	
-    										fentry.closeFile();
-    	
-    										// Update the file entry timeout to keep the file in the cache for a while
-    	
-    										fentry.updateTimeout(System.currentTimeMillis() + m_fileCloseTmo);
-    	
-    										// DEBUG
-    	
-    										if (Debug.EnableInfo && hasDebug())
-    											Debug.println("NFSFileExpiry: Closed file="	+ fentry.getFile().getFullName() + ", fid="	+ fileId + " (cached)");
-										}
-										
-										// Clear the user context
-										
-										m_authenticator.setCurrentUser( fentry.getSession(), null);
-									}
-									catch (Exception ex) {
-								
-										// DEBUG
-										
-										if ( Debug.EnableInfo && hasDebug()) {
-											Debug.println("Error closing file, fentry=" + fentry + ", ex=" + ex.getMessage());
-											Debug.println(ex);
-										}
-									}
-								} 
-								else {
-
-									// File entry has expired, remove it from the cache
-
-									m_fileCache.remove(fileId);
-
-									// Close the file via the disk interface
-
-									try {
-
-										// Set the the current user context
-										
-										m_authenticator.setCurrentUser( fentry.getSession(), fentry.getSession().getNFSClientInformation());
-									
-										// Get the disk interface
-
-										DiskInterface disk = (DiskInterface) fentry.getConnection().getInterface();
-
-										// Close the file
-
-										if ( disk.fileExists( fentry.getSession(), fentry.getConnection(), netFile.getFullName()) != FileStatus.NotExist) {
-											
-										    // Check if the file has already been closed
-										    
-										    if ( netFile.isClosed() == false) {
-										    
-										        // Close the file
-										        
-    											disk.closeFile(fentry.getSession(),	fentry.getConnection(),	netFile);
-    
-    											// DEBUG
-    	
-    											if (Debug.EnableInfo && hasDebug())
-    												Debug.println("NFSFileExpiry: Closed file="	+ fentry.getFile().getFullName() + ", fid="	+ fileId + " (removed)");
-										    }
-										    else if ( Debug.EnableInfo && hasDebug())
-										        Debug.println("NFSFileExpiry: File already closed, file=" + fentry.getFile().getFullName() + ", fid=" + fileId);
-										}
-										else if ( Debug.EnableInfo && hasDebug())
-											Debug.println("NFSFileExpiry: File deleted before close, " + netFile.getFullName());
-
-										// Clear the user context
-										
-										m_authenticator.setCurrentUser( fentry.getSession(), null);
-									} 
-									catch (Exception ex) {
-
-										// DEBUG
-										
-										if ( Debug.EnableInfo && hasDebug()) {
-											Debug.println("Error closing file, fentry=" + fentry + ", ex=" + ex.getMessage());
-											Debug.println(ex);
-										}
-									}
-								}
-							}
-						}
-					}
-				}
-			}
-		}
-
-		/**
-		 * Request the file expiry thread to shutdown
-		 */
-		public final void requestShutdown() {
-
-			// Set the shutdown flag
-
-			m_shutdown = true;
-
-			// Wakeup the thread
-
-			try {
-				m_thread.interrupt();
-			} catch (Exception ex) {
-			}
-
-			// Wait for the expiry thread to complete
-
-			try {
-				m_thread.join(m_fileIOTmo);
-			} catch (Exception ex) {
-			}
+		public String toString() {
+			StringBuffer str = new StringBuffer();
+			
+			str.append("[");
+			str.append(m_file);
+			str.append(m_closed ? ",Closed" : ",Open");
+			str.append("]");
+			
+			return str.toString();
 		}
 	};
 
@@ -448,14 +213,37 @@ public class NetworkFileCache {
 	 *            String
 	 */
 	public NetworkFileCache(String name) {
+		this(name, DefaultMaximumFiles);
+	}
 
-		// Create the file cache
+	/**
+	 * Class constructor
+	 * 
+	 * @param name
+	 *            String
+	 * @param maxFiles
+	 *            int
+	 */
+	public NetworkFileCache(String name, int maxFiles) {
 
-		m_fileCache = new Hashtable<Integer, FileEntry>();
+		// Create the file cache, files are expired by the cache
 
-		// Start the file expiry thread
+		m_fileCache = createCache(name, maxFiles);
+		m_fileCache.setCacheListener(this);
+		m_fileCache.setIdleTimeout(m_fileIOTmo);
+	}
 
-		m_expiryThread = new FileExpiry(name);
+	/**
+	 * Create the open file cache, may be overridden to use a different cache implementation
+	 * 
+	 * @param name
+	 *            String
+	 * @param maxFiles
+	 *            int
+	 * @return ObjectCache<Integer, FileEntry>
+	 */
+	protected ObjectCache<Integer, FileEntry> createCache(String name, int maxFiles) {
+		return new LRUCache<Integer, FileEntry>("NFSFileCache_" + name, maxFiles, ExpiryInterval);
 	}
 
 	/**
@@ -474,11 +262,9 @@ public class NetworkFileCache {
 	 * @param conn TreeConnection
 	 * @param sess NFSSrvSession
 	 */
-	public synchronized final void addFile(NetworkFile file,
+	public final void addFile(NetworkFile file,
 			TreeConnection conn, NFSSrvSession sess) {
-		synchronized (m_fileCache) {
-			m_fileCache.put(new Integer(file.getFileId()), new FileEntry(file, conn, sess));
-		}
+		m_fileCache.put(new Integer(file.getFileId()), new FileEntry(file, conn, sess));
 	}
 
 	/**
@@ -486,15 +272,8 @@ public class NetworkFileCache {
 	 * 
 	 * @param id
 	 */
-	public synchronized final void removeFile(int id) {
-
-		// Create the search key
-
-		Integer fileId = new Integer(id);
-
-		synchronized (m_fileCache) {
-			m_fileCache.remove(fileId);
-		}
+	public final void removeFile(int id) {
+		m_fileCache.remove(new Integer(id));
 	}
 
 	/**
@@ -506,25 +285,16 @@ public class NetworkFileCache {
 	 *            SrvSession
 	 * @return NetworkFile
 	 */
-	public synchronized final NetworkFile findFile(int id, SrvSession sess) {
-
-		// Create the search key
+	public final NetworkFile findFile(int id, SrvSession sess) {
 
-		Integer fileId = new Integer(id);
-		FileEntry fentry = null;
+		// Find the file, this also updates the file timeout
 
-		synchronized (m_fileCache) {
-			fentry = m_fileCache.get(fileId);
-		}
+		FileEntry fentry = m_fileCache.get(new Integer(id));
 
 		// Return the file, or null if not found
 
 		if (fentry != null) {
 
-			// Update the file timeout
-
-			fentry.updateTimeout();
-
 			// Check if the file is open
 
 			if (fentry.isClosed())
@@ -549,31 +319,38 @@ public class NetworkFileCache {
 		return m_fileCache.size();
 	}
 
+	/**
+	 * Return the cache statistics
+	 * 
+	 * @return CacheStatistics
+	 */
+	public final CacheStatistics getStatistics() {
+		return m_fileCache.getStatistics();
+	}
+
 	/**
 	 * Close the expiry cache, close and remove all files from the cache and
-	 * stop the expiry thread.
+	 * stop the expiry processing.
 	 */
 	public final void closeAllFiles() {
 
-		// Enumerate the cache entries
-
-		Enumeration<Integer> keys = m_fileCache.keys();
+		// Stop the expiry processing
 
-		while (keys.hasMoreElements()) {
+		m_fileCache.shutdown();
 
-			// Get the current key and lookup the matching value
+		// Enumerate the cache entries
 
-			Integer key = keys.nextElement();
-			FileEntry entry = m_fileCache.get(key);
+		Iterator<Map.Entry<Integer, FileEntry>> entries = m_fileCache.snapshot().entrySet().iterator();
 
-			// Expire the file entry
+		while (entries.hasNext()) {
 
-			entry.updateTimeout(0L);
-		}
+			// Remove the file entry from the cache and close the file
 
-		// Shutdown the expiry thread, this should close the files
+			Map.Entry<Integer, FileEntry> entry = entries.next();
 
-		m_expiryThread.requestShutdown();
+			if ( m_fileCache.remove(entry.getKey()) != null)
+				entryRemoved(entry.getKey(), entry.getValue(), false);
+		}
 	}
 
 	/**
@@ -594,6 +371,7 @@ public class NetworkFileCache {
 	 */
 	public final void setIOTimer(long ioTimer) {
 		m_fileIOTmo = ioTimer;
+		m_fileCache.setIdleTimeout(ioTimer);
 	}
 
 	/**
@@ -614,30 +392,190 @@ public class NetworkFileCache {
 	public final void setRpcAuthenticator(RpcAuthenticator auth) {
 		m_authenticator = auth;
 	}
-	
+
 	/**
 	 * Dump the cache entries to the debug device
 	 */
 	public final void dumpCache() {
 
-		// Dump the count of entries in the cache
+		// Dump the count of entries in the cache and the cache statistics
 
-		Debug.println("NetworkFileCache entries=" + numberOfEntries());
+		Debug.println("NetworkFileCache entries=" + numberOfEntries() + ", stats=" + getStatistics());
 
 		// Enumerate the cache entries
 
-		Enumeration<Integer> keys = m_fileCache.keys();
+		Iterator<Map.Entry<Integer, FileEntry>> entries = m_fileCache.snapshot().entrySet().iterator();
 
-		while (keys.hasMoreElements()) {
+		while (entries.hasNext()) {
 
-			// Get the current key and lookup the matching value
+			// Dump the entry details
 
-			Integer key = keys.nextElement();
-			FileEntry entry = m_fileCache.get(key);
+			Map.Entry<Integer, FileEntry> entry = entries.next();
+			Debug.println("fid=" + entry.getKey() + ": " + entry.getValue());
+		}
+	}
 
-			// Dump the entry details
+	/**
+	 * File entry has reached its timeout. Files with I/O pending are kept, open files are closed and kept in the
+	 * cache for the close timeout, closed files are removed from the cache.
+	 * 
+	 * @param fileId Integer
+	 * @param fentry FileEntry
+	 * @return long
+	 */
+	public long entryExpired(Integer fileId, FileEntry fentry) {
+
+		// Check if the file has an I/O request pending, if so then reset the file expiry time
+		// for the file
+
+		if (fentry.getFile().hasIOPending()) {
+
+			// DEBUG
+
+			if (Debug.EnableInfo && hasDebug())
+				Debug.println("NFSFileExpiry: I/O pending file="	+ fentry.getFile().getFullName() + ", fid=" + fileId);
+
+			// Keep the file entry for another I/O timeout
+
+			return m_fileIOTmo;
+		}
+
+		// Check if the network file is closed, if so then remove it from the cache
+
+		if (fentry.isClosed())
+			return 0L;
+
+		// Close the file to release the file handle but keep the file entry in the file cache for a while as the file
+		// may be re-opened
+
+		long keepTmo = m_fileCloseTmo;
+
+		// We need to do the close in the context of the user that opened the file
+
+		try {
+
+			// Set the the current user context
+
+			m_authenticator.setCurrentUser( fentry.getSession(), fentry.getSession().getNFSClientInformation());
+
+			// Check if the filesystem is transactional, in this case only mark the file as closed
+
+			if ( fentry.getConnection().getInterface() instanceof TransactionalFilesystemInterface) {
+
+			    // Mark the file as closed, wait for second stage expiry to actually close the file
+
+			    fentry.markAsClosed();
+			    keepTmo = m_fileIOTmo / 2;
+
+			    // DEBUG
+
+                if (Debug.EnableInfo && hasDebug())
+                    Debug.println("NFSFileExpiry: Marked as closed file=" + fentry.getFile().getFullName() + ", fid=" + fileId + " (cached)");
+			}
+			else {
+
+				// Close the network file, keep the file in the cache for a while
+
+				fentry.closeFile();
+
+				// DEBUG
+
+				if (Debug.EnableInfo && hasDebug())
+					Debug.println("NFSFileExpiry: Closed file="	+ fentry.getFile().getFullName() + ", fid="	+ fileId + " (cached)");
+			}
+
+			// Clear the user context
+
+			m_authenticator.setCurrentUser( fentry.getSession(), null);
+		}
+		catch (Exception ex) {
+
+			// DEBUG
+
+			if ( Debug.EnableInfo && hasDebug()) {
+				Debug.println("Error closing file, fentry=" + fentry + ", ex=" + ex.getMessage());
+				Debug.println(ex);
+			}
+		}
+
+		// Keep the file entry
+
+		return keepTmo;
+	}
+
+	/**
+	 * Check if a file entry can be evicted, files with I/O pending are not evicted
+	 * 
+	 * @param fileId Integer
+	 * @param fentry FileEntry
+	 * @return boolean
+	 */
+	public boolean isEvictable(Integer fileId, FileEntry fentry) {
+		return fentry.getFile().hasIOPending() == false;
+	}
 
-			Debug.println("fid=" + key + ": " + entry);
+	/**
+	 * File entry has been removed from the cache, close the file via the disk interface. Runs on a cache expiry
+	 * thread, except when all files are closed, so the user context set for the close is not one an NFS request
+	 * is using.
+	 * 
+	 * @param fileId Integer
+	 * @param fentry FileEntry
+	 * @param evicted boolean
+	 */
+	public void entryRemoved(Integer fileId, FileEntry fentry, boolean evicted) {
+
+		// Get the network file
+
+		NetworkFile netFile = fentry.getFile();
+
+		// Close the file via the disk interface
+
+		try {
+
+			// Set the the current user context
+
+			m_authenticator.setCurrentUser( fentry.getSession(), fentry.getSession().getNFSClientInformation());
+
+			// Get the disk interface
+
+			DiskInterface disk = (DiskInterface) fentry.getConnection().getInterface();
+
+			// Close the file
+
+			if ( disk.fileExists( fentry.getSession(), fentry.getConnection(), netFile.getFullName()) != FileStatus.NotExist) {
+
+			    // Check if the file has already been closed
+
+			    if ( netFile.isClosed() == false) {
+
+			        // Close the file
+
+					disk.closeFile(fentry.getSession(),	fentry.getConnection(),	netFile);
+
+					// DEBUG
+
+					if (Debug.EnableInfo && hasDebug())
+						Debug.println("NFSFileExpiry: Closed file="	+ fentry.getFile().getFullName() + ", fid="	+ fileId + (evicted ? " (evicted)" : " (removed)"));
+			    }
+			    else if ( Debug.EnableInfo && hasDebug())
+			        Debug.println("NFSFileExpiry: File already closed, file=" + fentry.getFile().getFullName() + ", fid=" + fileId);
+			}
+			else if ( Debug.EnableInfo && hasDebug())
+				Debug.println("NFSFileExpiry: File deleted before close, " + netFile.getFullName());
+
+			// Clear the user context
+
+			m_authenticator.setCurrentUser( fentry.getSession(), null);
+		} 
+		catch (Exception ex) {
+
+			// DEBUG
+
+			if ( Debug.EnableInfo && hasDebug()) {
+				Debug.println("Error closing file, fentry=" + fentry + ", ex=" + ex.getMessage());
+				Debug.println(ex);
+			}
 		}
 	}
 }
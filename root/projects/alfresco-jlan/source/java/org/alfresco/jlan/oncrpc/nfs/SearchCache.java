@@ -19,9 +19,15 @@
 
 package org.alfresco.jlan.oncrpc.nfs;
 
+import java.util.Iterator;
+import java.util.Map;
+
 import org.alfresco.jlan.debug.Debug;
 import org.alfresco.jlan.server.filesys.SearchContext;
-
+import org.alfresco.jlan.util.cache.CacheListener;
+import org.alfresco.jlan.util.cache.CacheStatistics;
+import org.alfresco.jlan.util.cache.LRUCache;
+import org.alfresco.jlan.util.cache.ObjectCache;
 
 /**
  * Search Cache Class
@@ -30,177 +36,49 @@ import org.alfresco.jlan.server.filesys.SearchContext;
  *
  * @author gkspencer
  */
-public class SearchCache {
+public class SearchCache implements CacheListener<Integer, SearchContext> {
 
 	//	Maximum number of active searches
 	
 	public static final int MaximumSearches				= 255;
-
+	
 	//	Default search timeout
 	
 	public static final long DefaultSearchTimeout	= 30000L;	//	30 seconds
-		
-	//	Array of active searches, last allocated index
 	
-	private SearchEntry[] m_searches;
-	private int m_lastIdx;
-
-	//	Search timeout
+	//	Active searches, key is the search id. The search id range limits the number of searches.
 	
-	private long m_searchTmo = DefaultSearchTimeout;
+	private ObjectCache<Integer, SearchContext> m_searches;
 	
-	//	Debug enable flag
+	//	Last allocated search id
 	
-	private boolean m_debug = true;
+	private int m_lastIdx;
 	
-	/**
-	 * Search Entry Class
-	 */
-	protected class SearchEntry {
-		
-		//	Search context
-		
-		private SearchContext m_search;
-		
-		//	Search timeout
-		
-		private long m_timeout;
-		
-		/**
-		 * Class constructor
-		 * 
-		 * @param search SearchContext
-		 */
-		public SearchEntry ( SearchContext search) {
-			m_search = search;
-			updateTimeout();
-		}
-		
-		/**
-		 * Return the search timeout
-		 * 
-		 * @return long
-		 */
-		public final long getTimeout() {
-			return m_timeout;
-		}
-		
-		/**
-		 * Return the search context
-		 * 
-		 * @return SearchContext
-		 */
-		public final SearchContext getSearch() {
-			return m_search;
-		}
-		
-		/**
-		 * Update the search timeout
-		 */
-		public final void updateTimeout() {
-			m_timeout = System.currentTimeMillis() + m_searchTmo;
-		}
-	};
+	//	Debug enable flag
 	
-	/**
-	 * Search Expiry Thread Class
-	 */
-	protected class SearchExpiry implements Runnable {
-		
-		//	Expiry thread
-		
-		private Thread m_thread;
-		
-		//	Wakeup interval
-		
-		private long m_wakeup;
-		
-		/**
-		 * Class Constructor
-		 * 
-		 * @param wakeup long
-		 */
-		public SearchExpiry (long wakeup) {
-			
-			//	Set the wakeup interval
-			
-			m_wakeup = wakeup;
-			
-			//	Create and start the search expiry thread
-			
-			m_thread = new Thread(this);
-			m_thread.setDaemon(true);
-			m_thread.setName("NFSSearchExpiry");
-			m_thread.start();
-		}
-		
-		/**
-		 * Main thread method
-		 */
-		public void run() {
-			
-			//	Loop until shutdown
-			
-			while ( true) {
-				
-				//	Sleep for a while
-				
-				try {
-					Thread.sleep(m_wakeup);
-				}
-				catch (InterruptedException ex) {
-				}
+	private boolean m_debug = true;
 
-				//	Get the current system time
-				
-				long timeNow = System.currentTimeMillis();
-								
-				//	Check for expired searches
-				
-				synchronized ( m_searches) {
-					
-					//	Check all allocated slots
-					
-					for ( int i = 0; i < m_searches.length; i++) {
-						
-						//	Check if the current slot has a valid entry
-						
-						if ( m_searches[i] != null && m_searches[i].getTimeout() < timeNow) {
-							
-							//	Remove the current search entry
-							
-							SearchEntry entry = m_searches[i];
-							m_searches[i] = null;
-							
-							//	Close the search
-							
-							entry.getSearch().closeSearch();
-							
-							//	DEBUG
-							
-							if ( Debug.EnableInfo && hasDebug())
-								Debug.println("NFSSearchExpiry: Closed search=" + entry.getSearch().getSearchString() + ", id=" + i);
-						}
-					}
-				}
-			}
-		}
-	};
-	
 	/**
 	 * Default constructor
 	 */
 	public SearchCache() {
 		
-		//	Create the active search list
+		//	Create the active search list, searches are expired by the cache
 		
-		m_searches = new SearchEntry[MaximumSearches];
-		
-		//	Start the search expiry thread
-		
-		new SearchExpiry(DefaultSearchTimeout / 2);
+		m_searches = createCache();
+		m_searches.setCacheListener(this);
+		m_searches.setIdleTimeout(DefaultSearchTimeout);
 	}
-
+	
+	/**
+	 * Create the active search cache, may be overridden to use a different cache implementation
+	 * 
+	 * @return ObjectCache<Integer, SearchContext>
+	 */
+	protected ObjectCache<Integer, SearchContext> createCache() {
+		return new LRUCache<Integer, SearchContext>("NFSSearchCache", 0, DefaultSearchTimeout / 4);
+	}
+	
 	/**
 	 * Determine if debug output is enabled
 	 * 
@@ -209,7 +87,7 @@ public class SearchCache {
 	public final boolean hasDebug() {
 		return m_debug;
 	}
-		
+	
 	/**
 	 * Allocate a search slot
 	 * 
@@ -217,39 +95,27 @@ public class SearchCache {
 	 * @return int
 	 */
 	public final int allocateSearchId(SearchContext search) {
-
-		synchronized ( m_searches) {
-					
-			//	Search for a free slot in the search list
+		
+		//	Search for a free slot in the search list
+		
+		for ( int cnt = 0; cnt < MaximumSearches; cnt++) {
 			
-			int cnt = 0;
+			//	Get the next search id, wrap the id if required
 			
-			while ( cnt < MaximumSearches) {
-	
-				//	Check if the index has wrapped
-				
+			int id = 0;
+			
+			synchronized ( this) {
 				if ( m_lastIdx >= MaximumSearches)
 					m_lastIdx = 0;
-								
-				//	Check if the current slot is empty
-				
-				if ( m_searches[m_lastIdx] == null) {
-					
-					//	Use this slot
-	
-					SearchEntry entry = new SearchEntry(search);				
-					m_searches[m_lastIdx] = entry;
-					return m_lastIdx++;
-				}
-				else
-					m_lastIdx++;
-					
-				//	Update the slot count
-				
-				cnt++;
+				id = m_lastIdx++;
 			}
+			
+			//	Use the search id if it is not in use
+			
+			if ( m_searches.putIfAbsent(new Integer(id), search) == null)
+				return id;
 		}
-				
+		
 		//	No empty search slot found
 		
 		return -1;
@@ -261,17 +127,15 @@ public class SearchCache {
 	 * @param id int
 	 */
 	public final void releaseSearchId(int id) {
-
+		
 		//	Range check the id
-				
+		
 		if ( id < 0 || id >= MaximumSearches)
 			return;
-			
+		
 		//	Delete the search entry
-
-		synchronized ( m_searches) {
-			m_searches[id] = null;
-		}
+		
+		m_searches.remove(new Integer(id));
 	}
 	
 	/**
@@ -283,31 +147,22 @@ public class SearchCache {
 	public final SearchContext getSearch(int id) {
 		
 		//	Range check the id
-				
+		
 		if ( id < 0 || id >= MaximumSearches)
 			return null;
-			
-		//	Get the search entry
-		
-		SearchEntry entry = null;
-		
-		synchronized ( m_searches) {
-			entry = m_searches[id];
-		}
-		
-		//	Return the search context, if valid
-		
-		if ( entry != null) {
-			
-			//	Update the search timeout and return the search
-			
-			entry.updateTimeout();
-			return entry.getSearch();
-		}
 		
-		//	Invalid search
+		//	Get the search, this also updates the search timeout
 		
-		return null;
+		return m_searches.get(new Integer(id));
+	}
+	
+	/**
+	 * Return the cache statistics
+	 * 
+	 * @return CacheStatistics
+	 */
+	public final CacheStatistics getStatistics() {
+		return m_searches.getStatistics();
 	}
 	
 	/**
@@ -315,23 +170,54 @@ public class SearchCache {
 	 */
 	public final void dumpSearches() {
 		
-		synchronized ( m_searches) {
-			
-			//	Find all active searches in the list
-			
-			for ( int i = 0; i < m_searches.length; i++) {
-				
-				//	Check if the current search slot is active
-				
-				if ( m_searches[i] != null) {
-					
-					//	Get the search details
-					
-					SearchEntry entry = m_searches[i];
-					
-					Debug.println("" + i + ": " + entry.getSearch().toString());
-				}
-			}
+		//	Find all active searches in the list
+		
+		Iterator<Map.Entry<Integer, SearchContext>> iter = m_searches.snapshot().entrySet().iterator();
+		
+		while ( iter.hasNext()) {
+			Map.Entry<Integer, SearchContext> entry = iter.next();
+			Debug.println("" + entry.getKey() + ": " + entry.getValue().toString());
 		}
 	}
+	
+	/**
+	 * Search has timed out, remove it from the cache
+	 * 
+	 * @param id Integer
+	 * @param search SearchContext
+	 * @return long
+	 */
+	public long entryExpired(Integer id, SearchContext search) {
+		return 0L;
+	}
+	
+	/**
+	 * Check if a search can be evicted
+	 * 
+	 * @param id Integer
+	 * @param search SearchContext
+	 * @return boolean
+	 */
+	public boolean isEvictable(Integer id, SearchContext search) {
+		return true;
+	}
+	
+	/**
+	 * Search has been removed from the cache, close the search
+	 * 
+	 * @param id Integer
+	 * @param search SearchContext
+	 * @param evicted boolean
+	 */
+	public void entryRemoved(Integer id, SearchContext search, boolean evicted) {
+		
+		//	Close the search
+		
+		search.closeSearch();
+		
+		//	DEBUG
+		
+		if ( Debug.EnableInfo && hasDebug())
+			Debug.println("NFSSearchExpiry: Closed search=" + search.getSearchString() + ", id=" + id);
+	}
 }
@@ -49,6 +49,17 @@ public class ShareDetails {
 	 * @param fileIdSupport boolean
 	 */
 	public ShareDetails(String name, boolean fileIdSupport) {
+		this(name, fileIdSupport, 0);
+	}
+
+	/**
+	 * Class constructor
+	 *
+	 * @param name String
+	 * @param fileIdSupport boolean
+	 * @param idCacheSize int
+	 */
+	public ShareDetails(String name, boolean fileIdSupport, int idCacheSize) {
 		
 		//	Save the share name
 		
@@ -58,9 +69,13 @@ public class ShareDetails {
 		
 		m_fileIdLookup = fileIdSupport;
 		
-		//	Create the file id and search caches
+		//	Create the file id cache. The cache can only be size limited if the filesystem can convert a file id to a path,
+		//	otherwise handles for paths that have been dropped from the cache would become stale.
 		
-		m_idCache = new FileIdCache();
+		if ( fileIdSupport && idCacheSize > 0)
+			m_idCache = new FileIdCache(idCacheSize);
+		else
+			m_idCache = new FileIdCache();
 	}
 
 	/**
@@ -24,6 +24,7 @@ import java.util.Enumeration;
 import java.util.Hashtable;
 
 import org.alfresco.jlan.debug.Debug;
+import org.alfresco.jlan.oncrpc.NIOTcpRpcSessionHandler;
 import org.alfresco.jlan.oncrpc.PortMapping;
 import org.alfresco.jlan.oncrpc.Rpc;
 import org.alfresco.jlan.oncrpc.RpcPacket;
@@ -33,6 +34,7 @@ import org.alfresco.jlan.oncrpc.UdpRpcDatagramHandler;
 import org.alfresco.jlan.oncrpc.nfs.NFSConfigSection;
 import org.alfresco.jlan.server.NetworkServer;
 import org.alfresco.jlan.server.ServerListener;
+import org.alfresco.jlan.server.SessionHandlerBase;
 import org.alfresco.jlan.server.Version;
 import org.alfresco.jlan.server.config.ServerConfiguration;
 
@@ -67,7 +69,7 @@ public class PortMapperServer extends NetworkServer implements RpcProcessor {
 
 	//	Incoming session handler for TCP requests
 	
-	private TcpRpcSessionHandler m_tcpHandler;
+	private SessionHandlerBase m_tcpHandler;
 	
 	//	Portmapper port
 	
@@ -152,14 +154,18 @@ public class PortMapperServer extends NetworkServer implements RpcProcessor {
 	    udpThread.setName("PortMap_UDP");
 	    udpThread.start();
 	    
-	    //	Create the TCP RPC handler to accept incoming requests
+	    //	Create the TCP RPC handler to accept incoming requests, use a single NIO I/O thread if NIO is enabled for the
+	    //	NFS server TCP connections
 	    
-	    m_tcpHandler = new TcpRpcSessionHandler("PortMap", "Port", this, this, null, getPort(), MaxRequestSize);
+	    if ( getNFSConfiguration().getRpcNIOThreads() > 0)
+	    	m_tcpHandler = new NIOTcpRpcSessionHandler("PortMap", "Port", this, this, null, getPort(), MaxRequestSize, 1);
+	    else
+	    	m_tcpHandler = new TcpRpcSessionHandler("PortMap", "Port", this, this, null, getPort(), MaxRequestSize);
 	    m_tcpHandler.initializeSessionHandler(this);
 
 	    //	Start the UDP request listener is a seperate thread
 	    
-	    Thread tcpThread = new Thread(m_tcpHandler);
+	    Thread tcpThread = new Thread((Runnable) m_tcpHandler);
 	    tcpThread.setName("PortMap_TCP");
 	    tcpThread.start();
 
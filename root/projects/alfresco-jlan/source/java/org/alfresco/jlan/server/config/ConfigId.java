@@ -100,6 +100,8 @@ public class ConfigId {
 	public static final int FTPTrustStore 		= GroupFTP + 14;
 	public static final int FTPPassphrase 		= GroupFTP + 15;
 	public static final int FTPRequireSecure	= GroupFTP + 16;
+	public static final int FTPNIOEnable		= GroupFTP + 17;
+	public static final int FTPNIODataThreads	= GroupFTP + 18;
 
 	// NFS server variables
 
@@ -117,6 +119,9 @@ public class ConfigId {
 	public static final int NFSFileCacheCloseTimer = GroupNFS + 12;
 	public static final int NFSFileCacheDebug 	= GroupNFS + 13;
 	public static final int NFSRPCRegistrationPort = GroupNFS + 14;
+	public static final int NFSRpcNIOThreads	= GroupNFS + 15;
+	public static final int NFSFileCacheMaxFiles = GroupNFS + 16;
+	public static final int NFSFileIdCacheSize	= GroupNFS + 17;
 
 	// NetBIOS server variables
 
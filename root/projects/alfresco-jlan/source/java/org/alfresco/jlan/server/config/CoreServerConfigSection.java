@@ -20,6 +20,7 @@
 package org.alfresco.jlan.server.config;
 
 import org.alfresco.jlan.server.memory.ByteBufferPool;
+import org.alfresco.jlan.server.memory.DirectByteBufferPool;
 import org.alfresco.jlan.server.thread.ThreadRequestPool;
 
 /**
@@ -41,6 +42,10 @@ public class CoreServerConfigSection extends ConfigSection {
 	
 	private ByteBufferPool m_memoryPool;
 	
+	// Direct buffer pool used for socket channel I/O, optional
+	
+	private DirectByteBufferPool m_directPool;
+	
 	/**
 	 * Class constructor
 	 * 
@@ -68,6 +73,15 @@ public class CoreServerConfigSection extends ConfigSection {
 		return m_memoryPool;
 	}
 	
+	/**
+	 * Return the direct buffer pool used for socket channel I/O, or null if not configured
+	 * 
+	 * @return DirectByteBufferPool
+	 */
+	public final DirectByteBufferPool getDirectMemoryPool() {
+		return m_directPool;
+	}
+	
 	/**
 	 * Set the thread pool initial and maximum size
 	 * 
@@ -129,4 +143,34 @@ public class CoreServerConfigSection extends ConfigSection {
 		
 		m_memoryPool = new ByteBufferPool( pktSizes, initAlloc, maxAlloc);
 	}
+	
+	/**
+	 * Set the direct buffer pool sizes/allocations. Direct buffers are allocated on demand, in slabs.
+	 * 
+	 * @param bufSizes int[]
+	 * @param maxAlloc int[]
+	 * @exception InvalidConfigurationException
+	 */
+	public final void setDirectMemoryPool(int[] bufSizes, int[] maxAlloc)
+		throws InvalidConfigurationException {
+
+		// Make sure the buffer size and allocation lists are the same length
+		
+		if ( bufSizes.length != maxAlloc.length)
+			throw new InvalidConfigurationException("Invalid direct buffer size/allocation lists, lengths do not match");
+		
+		// Check if the direct buffer pool has already been configured
+		
+		if ( m_directPool != null)
+			throw new InvalidConfigurationException("Direct buffer pool already configured");
+		
+		// Create the direct buffer pool
+		
+		try {
+			m_directPool = new DirectByteBufferPool( bufSizes, new int[ bufSizes.length], maxAlloc);
+		}
+		catch ( RuntimeException ex) {
+			throw new InvalidConfigurationException( ex.getMessage());
+		}
+	}
 }
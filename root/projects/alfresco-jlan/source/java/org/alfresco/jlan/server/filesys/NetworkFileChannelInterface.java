@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2006-2010 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.jlan.server.filesys;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Network File Channel Interface
+ * 
+ * <p>Optional interface that a NetworkFile implementation can implement when the file data is held in a local
+ * file, so that protocol servers can transfer file data directly between the file and a socket channel using
+ * FileChannel.transferTo() and FileChannel.transferFrom(), or read file data into a direct buffer that is written
+ * to a socket channel.
+ * 
+ * <p>The file data should be opened by the disk driver, using a normal read or write, before the channel is
+ * requested.
+ *
+ * @author agent
+ */
+public interface NetworkFileChannelInterface {
+
+	/**
+	 * Return the file channel for the open file data, or null if the file data is not open for the
+	 * required access or is not held in a local file
+	 * 
+	 * @param write boolean
+	 * @return FileChannel
+	 * @exception IOException
+	 */
+	public FileChannel getFileChannel(boolean write)
+		throws IOException;
+	
+	/**
+	 * Read file data from the file channel into a buffer. Returns -1 if the file data is not open for reading or
+	 * is not held in a local file, the data must then be read via the disk driver.
+	 * 
+	 * @param buf ByteBuffer
+	 * @param fileOff long
+	 * @return int
+	 * @exception IOException
+	 */
+	public int readFile(ByteBuffer buf, long fileOff)
+		throws IOException;
+	
+	/**
+	 * Update the file details after data has been written to the file via the file channel
+	 * 
+	 * @exception IOException
+	 */
+	public void fileChannelWritten()
+		throws IOException;
+}
@@ -158,6 +158,24 @@ public class ByteBufferPool {
 		return m_bufSizes[ m_bufSizes.length - 1];
 	}
 	
+	/**
+	 * Return the buffer sizes
+	 * 
+	 * @return int[]
+	 */
+	public final int[] getBufferSizes() {
+		return m_bufSizes;
+	}
+	
+	/**
+	 * Return the maximum allocation for each buffer size
+	 * 
+	 * @return int[]
+	 */
+	public final int[] getMaximumAllocations() {
+		return m_maxAlloc;
+	}
+	
 	/**
 	 * Return the byte buffer pool details as a string
 	 * 
@@ -0,0 +1,527 @@
+/*
+ * Copyright (C) 2006-2010 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.jlan.server.memory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.alfresco.jlan.debug.Debug;
+
+/**
+ * Direct Byte Buffer Pool Class
+ * 
+ * <p>Memory pool of different sized direct byte buffers used for socket channel I/O. Reading or writing a heap buffer
+ * via a socket channel makes the JVM copy the data via a temporary direct buffer, which it caches per thread. Using
+ * pooled direct buffers avoids the extra copy and stops every worker thread from holding its own large temporary buffer.
+ * 
+ * <p>Direct memory is expensive to allocate and is only freed by the garbage collector, so the buffers for each size are
+ * sliced out of larger slabs and are kept by the pool once allocated.
+ * 
+ * <p>An allocation that is larger than the largest buffer size, or that would go over the maximum allocation for the
+ * buffer size, returns null and the caller should fall back to using a heap buffer.
+ * 
+ * <p>When debug is enabled the pool records where each outstanding buffer was allocated so that buffers that are released
+ * twice, or never released, can be reported. Buffers that are not being tracked, such as those allocated before debug
+ * was enabled, are still returned to the pool.
+ * 
+ * @author agent
+ */
+public class DirectByteBufferPool {
+
+	// Constants
+	//
+	// Default slab size, buffers are allocated in slabs of this size or one buffer at a time if the buffer size is larger
+	
+	public static final int DefaultSlabSize	= 256 * 1024;
+	
+	// Number of outstanding allocations to dump when a buffer size runs out of buffers
+	
+	private static final int DumpAllocations	= 10;
+	
+	// Buffer lists for each buffer size, in ascending size order
+	
+	private BufferList[] m_bufferLists;
+	
+	// Debug enable, may be changed whilst buffers are being allocated and released
+	
+	private volatile boolean m_debug;
+	
+	// Outstanding buffer allocations, only tracked when debug is enabled. Byte buffer equality is based on the buffer
+	// contents so the buffers are tracked by identity.
+	
+	private Map<ByteBuffer, Allocation> m_outstanding = new IdentityHashMap<ByteBuffer, Allocation>();
+	
+	/**
+	 * Direct Buffer List Inner Class
+	 * 
+	 * <p>Contains the free direct buffers of a particular size.
+	 */
+	protected class BufferList {
+		
+		// Buffer size, number of buffers per slab and maximum allocation
+		
+		private int mi_bufSize;
+		private int mi_slabCount;
+		private int mi_maxAlloc;
+		
+		// Free buffers
+		
+		private ArrayList<ByteBuffer> mi_freeList;
+		
+		// Count of buffers created, and count of slabs allocated
+		
+		private int mi_bufCount;
+		private int mi_slabs;
+		
+		// Statistics
+		
+		private long mi_statAllocs;
+		private long mi_statFailed;
+		
+		/**
+		 * Class constructor
+		 * 
+		 * @param bufSize int
+		 * @param initAlloc int
+		 * @param maxAlloc int
+		 * @param slabSize int
+		 */
+		protected BufferList(int bufSize, int initAlloc, int maxAlloc, int slabSize) {
+			mi_bufSize  = bufSize;
+			mi_maxAlloc = maxAlloc;
+			
+			mi_slabCount = Math.max(1, slabSize / bufSize);
+			mi_freeList  = new ArrayList<ByteBuffer>();
+			
+			// Allocate the initial buffers
+			
+			while ( mi_bufCount < initAlloc)
+				allocateSlab();
+		}
+		
+		/**
+		 * Return the buffer size
+		 * 
+		 * @return int
+		 */
+		public final int getBufferSize() {
+			return mi_bufSize;
+		}
+		
+		/**
+		 * Allocate a buffer, or return null if the maximum allocation has been reached
+		 * 
+		 * @return ByteBuffer
+		 */
+		protected synchronized final ByteBuffer allocateBuffer() {
+			
+			// Allocate another slab of buffers if the free list is empty
+			
+			if ( mi_freeList.size() == 0 && mi_bufCount < mi_maxAlloc)
+				allocateSlab();
+			
+			if ( mi_freeList.size() == 0) {
+				mi_statFailed++;
+				return null;
+			}
+			
+			mi_statAllocs++;
+			return mi_freeList.remove( mi_freeList.size() - 1);
+		}
+		
+		/**
+		 * Release a buffer back to the free list
+		 * 
+		 * @param buf ByteBuffer
+		 */
+		protected synchronized final void releaseBuffer(ByteBuffer buf) {
+			buf.clear();
+			mi_freeList.add( buf);
+		}
+		
+		/**
+		 * Allocate a slab of direct memory and slice it into buffers
+		 */
+		private final void allocateSlab() {
+			
+			// Do not go over the maximum allocation
+			
+			int cnt = Math.min( mi_slabCount, mi_maxAlloc - mi_bufCount);
+			ByteBuffer slab = ByteBuffer.allocateDirect( mi_bufSize * cnt);
+			
+			for ( int i = 0; i < cnt; i++) {
+				slab.limit(( i + 1) * mi_bufSize);
+				slab.position( i * mi_bufSize);
+				mi_freeList.add( slab.slice());
+			}
+			
+			mi_bufCount += cnt;
+			mi_slabs++;
+		}
+		
+		/**
+		 * Return the buffer list details as a string
+		 * 
+		 * @return String
+		 */
+		public synchronized String toString() {
+			StringBuilder str = new StringBuilder();
+			
+			str.append("[");
+			str.append( mi_bufSize);
+			str.append(",Free=");
+			str.append( mi_freeList.size());
+			str.append(",Bufs=");
+			str.append( mi_bufCount);
+			str.append("/");
+			str.append( mi_maxAlloc);
+			str.append(",Slabs=");
+			str.append( mi_slabs);
+			str.append(",Allocs=");
+			str.append( mi_statAllocs);
+			str.append(",Failed=");
+			str.append( mi_statFailed);
+			str.append("]");
+			
+			return str.toString();
+		}
+	}
+	
+	/**
+	 * Allocation Details Inner Class
+	 * 
+	 * <p>Records where and when an outstanding buffer was allocated.
+	 */
+	protected static class Allocation {
+		
+		// Allocation time and stack trace
+		
+		private long mi_allocTime;
+		private Throwable mi_trace;
+		
+		/**
+		 * Class constructor
+		 * 
+		 * @param siz int
+		 */
+		protected Allocation(int siz) {
+			mi_allocTime = System.currentTimeMillis();
+			mi_trace = new Exception("Direct buffer allocated, size=" + siz);
+		}
+	}
+	
+	/**
+	 * Class constructor
+	 * 
+	 * @param bufSizes int[]
+	 * @param initAlloc int[]
+	 * @param maxAlloc int[]
+	 */
+	public DirectByteBufferPool( int[] bufSizes, int[] initAlloc, int[] maxAlloc) {
+		this( bufSizes, initAlloc, maxAlloc, DefaultSlabSize);
+	}
+	
+	/**
+	 * Class constructor
+	 * 
+	 * @param bufSizes int[]
+	 * @param initAlloc int[]
+	 * @param maxAlloc int[]
+	 * @param slabSize int
+	 */
+	public DirectByteBufferPool( int[] bufSizes, int[] initAlloc, int[] maxAlloc, int slabSize) {
+		
+		// Validate the buffer size, initial allocation and maximum allocation arrays
+		
+		if ( bufSizes.length == 0 || bufSizes.length != initAlloc.length || bufSizes.length != maxAlloc.length || slabSize <= 0)
+			throw new RuntimeException("Invalid DirectByteBufferPool parameters");
+		
+		// Create the buffer lists
+		
+		m_bufferLists = new BufferList[ bufSizes.length];
+		
+		for ( int i = 0; i < bufSizes.length; i++) {
+			
+			// Validate the settings for the current buffer size
+			
+			if ( bufSizes[ i] <= 0 || initAlloc[ i] < 0 || maxAlloc[ i] <= 0 || initAlloc[ i] > maxAlloc[ i])
+				throw new RuntimeException("Invalid DirectByteBufferPool parameters, size=" + bufSizes[ i] + ", alloc=" + initAlloc[ i] + "/" + maxAlloc[ i]);
+			
+			if ( i > 0 && bufSizes[ i] <= bufSizes[ i - 1])
+				throw new RuntimeException("DirectByteBufferPool sizes are not in ascending order");
+			
+			m_bufferLists[ i] = new BufferList( bufSizes[ i], initAlloc[ i], maxAlloc[ i], slabSize);
+		}
+	}
+	
+	/**
+	 * Allocate a direct buffer with at least the specified capacity. The buffer limit is set to the requested size.
+	 * 
+	 * @param siz int
+	 * @return ByteBuffer, or null if the request is too large or there are no buffers available
+	 */
+	public final ByteBuffer allocateBuffer( int siz) {
+		
+		// Find the buffer list for the requested size
+		
+		int idx = 0;
+		
+		while ( idx < m_bufferLists.length && siz > m_bufferLists[ idx].getBufferSize())
+			idx++;
+		
+		if ( idx == m_bufferLists.length)
+			return null;
+		
+		// Allocate a buffer
+		
+		ByteBuffer buf = m_bufferLists[ idx].allocateBuffer();
+		
+		if ( buf == null) {
+			
+			// DEBUG
+			
+			if ( Debug.EnableDbg && hasDebug())
+				dumpAllocations( "[Memory] Direct buffer allocate failed, size=" + siz, m_bufferLists[ idx].getBufferSize());
+			
+			return null;
+		}
+		
+		buf.limit( siz);
+		
+		// Record where the buffer was allocated
+		
+		if ( hasDebug()) {
+			synchronized ( m_outstanding) {
+				m_outstanding.put( buf, new Allocation( siz));
+			}
+		}
+		
+		return buf;
+	}
+	
+	/**
+	 * Release a direct buffer back to the pool
+	 * 
+	 * @param buf ByteBuffer
+	 */
+	public final void releaseBuffer( ByteBuffer buf) {
+		
+		// Check that the buffer is outstanding, the buffer may have been allocated before debug was enabled so
+		// it is still returned to the pool
+		
+		if ( hasDebug()) {
+			
+			Allocation alloc = null;
+			
+			synchronized ( m_outstanding) {
+				alloc = m_outstanding.remove( buf);
+			}
+			
+			if ( alloc == null) {
+				
+				// DEBUG
+				
+				if ( Debug.EnableError) {
+					Debug.println("[Memory] Direct buffer released that is not tracked as outstanding, capacity=" + buf.capacity());
+					Debug.println( new Exception("Stack Trace"));
+				}
+			}
+		}
+		
+		// Find the buffer list the buffer was allocated from
+		
+		int idx = 0;
+		
+		while ( idx < m_bufferLists.length && buf.capacity() != m_bufferLists[ idx].getBufferSize())
+			idx++;
+		
+		if ( idx == m_bufferLists.length)
+			throw new RuntimeException("Released direct buffer does not match any buffer sizes, " + buf.capacity());
+		
+		// Release the buffer
+		
+		m_bufferLists[ idx].releaseBuffer( buf);
+	}
+	
+	/**
+	 * Return the length of the smallest buffer size available
+	 * 
+	 * @return int
+	 */
+	public final int getSmallestSize() {
+		return m_bufferLists[ 0].getBufferSize();
+	}
+	
+	/**
+	 * Return the length of the largest buffer size available
+	 * 
+	 * @return int
+	 */
+	public final int getLargestSize() {
+		return m_bufferLists[ m_bufferLists.length - 1].getBufferSize();
+	}
+	
+	/**
+	 * Check if debug is enabled
+	 * 
+	 * @return boolean
+	 */
+	public final boolean hasDebug() {
+		return m_debug;
+	}
+	
+	/**
+	 * Enable/disable debug, buffer allocations are only tracked whilst debug is enabled
+	 * 
+	 * @param ena boolean
+	 */
+	public final void setDebug( boolean ena) {
+		m_debug = ena;
+		
+		if ( ena == false) {
+			synchronized ( m_outstanding) {
+				m_outstanding.clear();
+			}
+		}
+	}
+	
+	/**
+	 * Return the count of outstanding buffers, only available when debug is enabled
+	 * 
+	 * @return int
+	 */
+	public final int getOutstandingCount() {
+		synchronized ( m_outstanding) {
+			return m_outstanding.size();
+		}
+	}
+	
+	/**
+	 * Check for buffers that have been outstanding for longer than the specified time, and output where the buffers were
+	 * allocated. Only available when debug is enabled.
+	 * 
+	 * @param maxAge long
+	 * @return int
+	 */
+	public final int checkForLeaks( long maxAge) {
+		
+		// Check for buffers allocated before the cutoff time
+		
+		long cutoff = System.currentTimeMillis() - maxAge;
+		int leakCnt = 0;
+		
+		synchronized ( m_outstanding) {
+			
+			Iterator<Map.Entry<ByteBuffer, Allocation>> iter = m_outstanding.entrySet().iterator();
+			
+			while ( iter.hasNext()) {
+				Map.Entry<ByteBuffer, Allocation> entry = iter.next();
+				Allocation alloc = entry.getValue();
+				
+				if ( alloc.mi_allocTime <= cutoff) {
+					leakCnt++;
+					
+					// DEBUG
+					
+					if ( Debug.EnableError) {
+						Debug.println("[Memory] Direct buffer outstanding for " + (System.currentTimeMillis() - alloc.mi_allocTime) + "ms, capacity=" + entry.getKey().capacity());
+						Debug.println( alloc.mi_trace);
+					}
+				}
+			}
+		}
+		
+		return leakCnt;
+	}
+	
+	/**
+	 * Output where the oldest outstanding buffers of the specified size were allocated
+	 * 
+	 * @param msg String
+	 * @param bufSize int
+	 */
+	private final void dumpAllocations( String msg, int bufSize) {
+		
+		Debug.println( msg);
+		
+		// Find the oldest outstanding allocations for the buffer size
+		
+		ArrayList<Allocation> allocs = new ArrayList<Allocation>();
+		
+		synchronized ( m_outstanding) {
+			
+			Iterator<Map.Entry<ByteBuffer, Allocation>> iter = m_outstanding.entrySet().iterator();
+			
+			while ( iter.hasNext()) {
+				Map.Entry<ByteBuffer, Allocation> entry = iter.next();
+				if ( entry.getKey().capacity() == bufSize)
+					allocs.add( entry.getValue());
+			}
+		}
+		
+		if ( allocs.size() == 0)
+			return;
+		
+		// Sort the allocations, oldest first
+		
+		Collections.sort( allocs, new Comparator<Allocation>() {
+			public int compare(Allocation a1, Allocation a2) {
+				if ( a1.mi_allocTime < a2.mi_allocTime)
+					return -1;
+				return a1.mi_allocTime == a2.mi_allocTime ? 0 : 1;
+			}
+		});
+		
+		Debug.println("[Memory] Oldest " + DumpAllocations + " allocations:");
+		
+		for ( int i = 0; i < allocs.size() && i < DumpAllocations; i++)
+			Debug.println( allocs.get( i).mi_trace);
+	}
+	
+	/**
+	 * Return the direct buffer pool details as a string
+	 * 
+	 * @return String
+	 */
+	public String toString() {
+		StringBuilder str = new StringBuilder();
+		
+		str.append("[DirectBufferLists: ");
+		
+		for ( int i = 0; i < m_bufferLists.length; i++) {
+			str.append( m_bufferLists[ i].toString());
+			str.append(" ");
+		}
+		
+		if ( hasDebug()) {
+			str.append("Outstanding=");
+			str.append( getOutstandingCount());
+		}
+		
+		str.append("]");
+		
+		return str.toString();
+	}
+}
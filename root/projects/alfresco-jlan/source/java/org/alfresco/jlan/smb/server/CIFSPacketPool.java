@@ -24,6 +24,7 @@ import java.util.Map;
 import org.alfresco.jlan.debug.Debug;
 import org.alfresco.jlan.server.core.NoPooledMemoryException;
 import org.alfresco.jlan.server.memory.ByteBufferPool;
+import org.alfresco.jlan.server.memory.DirectByteBufferPool;
 
 /**
  * CIFs Packet Pool Class
@@ -42,6 +43,10 @@ public class CIFSPacketPool {
 	
 	private ByteBufferPool m_bufferPool;
 
+	// Direct buffer pool used to send file data from socket channel handlers, optional
+	
+	private DirectByteBufferPool m_directPool;
+	
 	// Debug tracking of what packets were borrowed by what stack traces
 	private Map<SMBSrvPacket, Throwable> m_borrowed = new LinkedHashMap<SMBSrvPacket, Throwable>();
 	
@@ -290,6 +295,24 @@ public class CIFSPacketPool {
 		return m_bufferPool.getLargestSize();
 	}
 
+	/**
+	 * Return the direct buffer pool used to send file data, or null if not configured
+	 * 
+	 * @return DirectByteBufferPool
+	 */
+	public final DirectByteBufferPool getDirectBufferPool() {
+		return m_directPool;
+	}
+	
+	/**
+	 * Set the direct buffer pool used to send file data
+	 * 
+	 * @param directPool DirectByteBufferPool
+	 */
+	public final void setDirectBufferPool( DirectByteBufferPool directPool) {
+		m_directPool = directPool;
+	}
+	
 	/**
 	 * Check if over sized packet allocations are allowed
 	 * 
@@ -21,6 +21,7 @@ package org.alfresco.jlan.smb.server;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.sql.Time;
 
 import org.alfresco.jlan.debug.Debug;
@@ -60,6 +61,7 @@ import org.alfresco.jlan.server.filesys.FileSystem;
 import org.alfresco.jlan.server.filesys.IOControlNotImplementedException;
 import org.alfresco.jlan.server.filesys.IOCtlInterface;
 import org.alfresco.jlan.server.filesys.NetworkFile;
+import org.alfresco.jlan.server.filesys.NetworkFileChannelInterface;
 import org.alfresco.jlan.server.filesys.NotifyChange;
 import org.alfresco.jlan.server.filesys.PathNotFoundException;
 import org.alfresco.jlan.server.filesys.SearchContext;
@@ -76,6 +78,7 @@ import org.alfresco.jlan.server.locking.LockManager;
 import org.alfresco.jlan.server.locking.OpLockDetails;
 import org.alfresco.jlan.server.locking.OpLockInterface;
 import org.alfresco.jlan.server.locking.OpLockManager;
+import org.alfresco.jlan.server.memory.DirectByteBufferPool;
 import org.alfresco.jlan.smb.DataType;
 import org.alfresco.jlan.smb.FileInfoLevel;
 import org.alfresco.jlan.smb.FindFirstNext;
@@ -94,6 +97,7 @@ import org.alfresco.jlan.smb.nt.LoadException;
 import org.alfresco.jlan.smb.nt.NTIOCtl;
 import org.alfresco.jlan.smb.nt.SaveException;
 import org.alfresco.jlan.smb.nt.SecurityDescriptor;
+import org.alfresco.jlan.smb.server.nio.ChannelPacketHandler;
 import org.alfresco.jlan.smb.server.notify.NotifyChangeEventList;
 import org.alfresco.jlan.smb.server.notify.NotifyChangeHandler;
 import org.alfresco.jlan.smb.server.notify.NotifyRequest;
@@ -2075,6 +2079,23 @@ public class NTProtocolHandler extends CoreProtocolHandler {
 					return;
 				}
 				
+				// Flush any data the filesystem has buffered for the file, before the oplock is released and any deferred
+				// open is processed
+				
+				if ( netFile.getWriteCount() > 0) {
+					
+					try {
+						disk.flushFile( m_sess, conn, netFile);
+					}
+					catch ( IOException ex) {
+						
+						// Log the error, the buffered data may have been lost
+						
+						Debug.println("Oplock break flush failed, file=" + netFile, Debug.Error);
+						Debug.println(ex, Debug.Error);
+					}
+				}
+				
 				// Release the oplock
 				
 				oplockMgr.releaseOpLock( oplock.getPath());
@@ -2670,6 +2691,7 @@ public class NTProtocolHandler extends CoreProtocolHandler {
 		byte[] buf = respPkt.getBuffer();
 		int dataPos = 0;
 		int rdlen = 0;
+		ByteBuffer directData = null;
 
 		try {
 
@@ -2683,9 +2705,19 @@ public class NTProtocolHandler extends CoreProtocolHandler {
 			dataPos = respPkt.getByteOffset();
 			dataPos = DataPacker.wordAlign(dataPos); // align the data buffer
 
-			// Check if the requested data will fit into the current packet
+			// If there are no chained commands try and read the data into a direct buffer, that is sent after the
+			// response header without being copied into the packet
 			
-			if ( maxCount > ( buf.length - dataPos)) {
+			if ( smbPkt.hasAndXCommand() == false)
+				directData = readFileDirect( netFile, maxCount, offset);
+			
+			if ( directData != null) {
+				
+				// Data has been read into the direct buffer
+				
+				rdlen = directData.remaining();
+			}
+			else if ( maxCount > ( buf.length - dataPos)) {
 
 				// Allocate a larger packet for the response
 				
@@ -2697,15 +2729,18 @@ public class NTProtocolHandler extends CoreProtocolHandler {
 				respPkt.setParameterCount( 12);
 			}
 			
-			// Check if the requested data length will fit into the buffer
-
-			int dataLen = buf.length - dataPos;
-			if ( dataLen < maxCount)
-				maxCount = dataLen;
-
-			// Read from the file
-
-			rdlen = disk.readFile(m_sess, conn, netFile, buf, dataPos, maxCount, offset);
+			if ( directData == null) {
+				
+				// Check if the requested data length will fit into the buffer
+	
+				int dataLen = buf.length - dataPos;
+				if ( dataLen < maxCount)
+					maxCount = dataLen;
+	
+				// Read from the file
+	
+				rdlen = disk.readFile(m_sess, conn, netFile, buf, dataPos, maxCount, offset);
+			}
 		}
 		catch (InvalidDeviceInterfaceException ex) {
 
@@ -2805,6 +2840,17 @@ public class NTProtocolHandler extends CoreProtocolHandler {
 
 			m_sess.sendResponseSMB(smbPkt.getAssociatedPacket(), pos);
 		}
+		else if ( directData != null) {
+			
+			// Send the read andX response header followed by the data from the direct buffer
+			
+			try {
+				m_sess.sendResponseSMB(respPkt, respPkt.getLength(), directData);
+			}
+			finally {
+				m_sess.getPacketPool().getDirectBufferPool().releaseBuffer( directData);
+			}
+		}
 		else {
 
 			// Send the normal read andX response
@@ -2813,6 +2859,65 @@ public class NTProtocolHandler extends CoreProtocolHandler {
 		}
 	}
 
+	/**
+	 * Read file data directly into a pooled direct buffer, if the session uses a channel packet handler and the
+	 * file data is already open and local to the server
+	 * 
+	 * @param netFile NetworkFile
+	 * @param maxCount int
+	 * @param offset long
+	 * @return ByteBuffer holding the data read, or null if the data must be read via the disk interface
+	 * @exception IOException
+	 */
+	private final ByteBuffer readFileDirect( NetworkFile netFile, int maxCount, long offset)
+		throws IOException {
+
+		// Check if the file data and the session can be used for a direct read
+		
+		DirectByteBufferPool directPool = m_sess.getPacketPool().getDirectBufferPool();
+		
+		if ( maxCount <= 0 || directPool == null || netFile instanceof NetworkFileChannelInterface == false ||
+				m_sess.getPacketHandler() instanceof ChannelPacketHandler == false)
+			return null;
+		
+		// Allocate a direct buffer for the data
+		
+		ByteBuffer directBuf = directPool.allocateBuffer( maxCount);
+		if ( directBuf == null)
+			return null;
+		
+		// Read the file data into the direct buffer
+		
+		boolean release = true;
+		
+		try {
+			int rdlen = ((NetworkFileChannelInterface) netFile).readFile( directBuf, offset);
+			
+			if ( rdlen >= 0) {
+				directBuf.flip();
+				release = false;
+				
+				// DEBUG
+				
+				if ( Debug.EnableInfo && m_sess.hasDebug(SMBSrvSession.DBG_FILEIO))
+					m_sess.debugPrintln("File Read AndX [" + netFile.getFileId() + "] : Direct read len=" + rdlen);
+				
+				return directBuf;
+			}
+		}
+		finally {
+			
+			// Release the buffer if the data was not read
+			
+			if ( release)
+				directPool.releaseBuffer( directBuf);
+		}
+		
+		// File data is not open, use the disk interface
+		
+		return null;
+	}
+
 	/**
 	 * Rename a file.
 	 * 
@@ -229,6 +229,10 @@ public class SMBServer extends NetworkFileServer implements Runnable, Configurat
 				
 				m_packetPool = new CIFSPacketPool( m_coreConfig.getMemoryPool());
 				
+				// Use pooled direct buffers to send file data, if configured
+				
+				m_packetPool.setDirectBufferPool( m_coreConfig.getDirectMemoryPool());
+				
 				// Check if packet pool debugging is enabled
 				
 				if (( m_cifsConfig.getSessionDebugFlags() & SMBSrvSession.DBG_PKTPOOL) != 0)
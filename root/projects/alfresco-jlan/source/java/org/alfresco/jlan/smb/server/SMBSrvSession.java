@@ -22,6 +22,7 @@ package org.alfresco.jlan.smb.server;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
 import java.net.SocketTimeoutException;
 import java.util.Enumeration;
 import java.util.Hashtable;
@@ -51,6 +52,7 @@ import org.alfresco.jlan.smb.SMBDate;
 import org.alfresco.jlan.smb.SMBErrorText;
 import org.alfresco.jlan.smb.SMBStatus;
 import org.alfresco.jlan.smb.server.notify.NotifyRequest;
+import org.alfresco.jlan.smb.server.nio.ChannelPacketHandler;
 import org.alfresco.jlan.smb.server.notify.NotifyRequestList;
 import org.alfresco.jlan.util.DataPacker;
 import org.alfresco.jlan.util.HexDump;
@@ -1593,6 +1595,59 @@ public class SMBSrvSession extends SrvSession implements Runnable {
 	public synchronized final void sendResponseSMB(SMBSrvPacket pkt, int len)
 		throws IOException {
 
+		// Prepare the response
+
+		prepareResponseSMB(pkt);
+
+		// Send the response packet
+
+		m_pktHandler.writePacket(pkt, len);
+		m_pktHandler.flushPacket();
+
+		// Debug
+
+		if ( Debug.EnableInfo && hasDebug(DBG_TXDATA)) {
+			debugPrintln("Tx Data len=" + len);
+			HexDump.Dump(pkt.getBuffer(), 64, 0, Debug.getDebugInterface());
+		}
+	}
+
+	/**
+	 * Send an SMB response with the data held in a separate buffer, the packet handler must be a channel
+	 * packet handler
+	 * 
+	 * @param pkt SMBSrvPacket
+	 * @param len int
+	 * @param data ByteBuffer
+	 * @exception IOException
+	 */
+	public synchronized final void sendResponseSMB(SMBSrvPacket pkt, int len, ByteBuffer data)
+		throws IOException {
+
+		// Prepare the response
+
+		prepareResponseSMB(pkt);
+
+		// Send the response packet header followed by the data
+
+		((ChannelPacketHandler) m_pktHandler).writePacket(pkt, len, data);
+		m_pktHandler.flushPacket();
+
+		// Debug
+
+		if ( Debug.EnableInfo && hasDebug(DBG_TXDATA)) {
+			debugPrintln("Tx Data len=" + len + " (direct)");
+			HexDump.Dump(pkt.getBuffer(), 64, 0, Debug.getDebugInterface());
+		}
+	}
+
+	/**
+	 * Prepare an SMB response for sending, end any active transaction and set the response flags
+	 * 
+	 * @param pkt SMBSrvPacket
+	 */
+	private final void prepareResponseSMB(SMBSrvPacket pkt) {
+
 		// Commit/rollback any active transactions before sending the response
 		
 		if ( hasTransaction()) {
@@ -1632,18 +1687,6 @@ public class SMBSrvSession extends SrvSession implements Runnable {
 		flags2 &= ~(SMBSrvPacket.FLG2_EXTENDEDATTRIB + SMBSrvPacket.FLG2_DFSRESOLVE + SMBSrvPacket.FLG2_SECURITYSIGS);
 
 		pkt.setFlags2(flags2);
-
-		// Send the response packet
-
-		m_pktHandler.writePacket(pkt, len);
-		m_pktHandler.flushPacket();
-
-		// Debug
-
-		if ( Debug.EnableInfo && hasDebug(DBG_TXDATA)) {
-			debugPrintln("Tx Data len=" + len);
-			HexDump.Dump(pkt.getBuffer(), 64, 0, Debug.getDebugInterface());
-		}
 	}
 
 	/**
@@ -23,10 +23,13 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 import org.alfresco.jlan.server.filesys.AccessMode;
 import org.alfresco.jlan.server.filesys.DiskFullException;
 import org.alfresco.jlan.server.filesys.NetworkFile;
+import org.alfresco.jlan.server.filesys.NetworkFileChannelInterface;
 import org.alfresco.jlan.smb.SeekType;
 
 /**
@@ -34,7 +37,7 @@ import org.alfresco.jlan.smb.SeekType;
  *
  * @author gkspencer
  */
-public class JavaNetworkFile extends NetworkFile {
+public class JavaNetworkFile extends NetworkFile implements NetworkFileChannelInterface {
 
   //	File details
 
@@ -499,4 +502,56 @@ public class JavaNetworkFile extends NetworkFile {
     
 		incrementWriteCount();
   }
+
+  /**
+   * Return the file channel for the open file, or null if the file is not open for the required access
+   *
+   * @param write boolean
+   * @return FileChannel
+   * @exception IOException
+   */
+  public FileChannel getFileChannel(boolean write)
+    throws IOException {
+
+    //  Check if the file is open, and is writeable if required
+
+    if (m_io == null || (write && getGrantedAccess() != NetworkFile.READWRITE))
+      return null;
+    return m_io.getChannel();
+  }
+
+  /**
+   * Read from the file channel into a buffer, or return -1 if the file is not open
+   *
+   * @param buf ByteBuffer
+   * @param fileOff long
+   * @return int
+   * @exception IOException
+   */
+  public int readFile(ByteBuffer buf, long fileOff)
+    throws IOException {
+
+    if (m_io == null)
+      return -1;
+
+    //  Read from the file, a read at or past the end of file returns no data
+
+    int rdlen = m_io.getChannel().read(buf, fileOff);
+    return rdlen < 0 ? 0 : rdlen;
+  }
+
+  /**
+   * Update the file details after data has been written via the file channel
+   *
+   * @exception IOException
+   */
+  public void fileChannelWritten()
+    throws IOException {
+
+    //  Update the file size and write count
+
+    if (m_io != null)
+      setFileSize(m_io.length());
+    incrementWriteCount();
+  }
 }
@@ -25,6 +25,7 @@ import java.nio.channels.SocketChannel;
 
 import org.alfresco.jlan.smb.server.CIFSPacketPool;
 import org.alfresco.jlan.smb.server.PacketHandler;
+import org.alfresco.jlan.smb.server.SMBSrvPacket;
 
 /**
  * Channel Packet Handler Class
@@ -127,6 +128,39 @@ public abstract class ChannelPacketHandler extends PacketHandler {
 			m_sockChannel.write( buf);
 	}
 
+	/**
+	 * Write bytes to the output socket channel followed by the data in a separate buffer, using a gathering write
+	 * 
+	 * @param pkt byte[]
+	 * @param off int
+	 * @param len int
+	 * @param data ByteBuffer
+	 * @exception IOException If a network error occurs.
+	 */
+	protected void writeBytes(byte[] pkt, int off, int len, ByteBuffer data)
+		throws IOException {
+
+		// Wrap the buffer and output it with the data to the socket channel
+		
+		ByteBuffer[] bufs = new ByteBuffer[] { ByteBuffer.wrap( pkt, off, len), data };
+		
+		while ( bufs[0].hasRemaining() || data.hasRemaining())
+			m_sockChannel.write( bufs);
+	}
+
+	/**
+	 * Send an SMB response packet with the data held in a separate buffer, such as a direct buffer that file data has
+	 * been read into, so that the data is not copied into the packet. The packet holds the SMB header up to the start
+	 * of the data, the length includes the data.
+	 * 
+	 * @param pkt SMBSrvPacket
+	 * @param len int
+	 * @param data ByteBuffer
+	 * @exception IOException If a network error occurs.
+	 */
+	public abstract void writePacket(SMBSrvPacket pkt, int len, ByteBuffer data)
+		throws IOException;
+
 	/**
 	 * Flush the output socket
 	 * 
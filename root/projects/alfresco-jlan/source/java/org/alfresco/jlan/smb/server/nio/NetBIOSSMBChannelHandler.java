@@ -20,6 +20,7 @@
 package org.alfresco.jlan.smb.server.nio;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 
 import org.alfresco.jlan.netbios.RFCNetBIOSProtocol;
@@ -192,4 +193,42 @@ public class NetBIOSSMBChannelHandler extends ChannelPacketHandler {
 
 		writeBytes(buf, 0, len);
 	}
+
+	/**
+	 * Send an SMB response packet with the data held in a separate buffer
+	 * 
+	 * @param pkt SMBSrvPacket
+	 * @param len int
+	 * @param data ByteBuffer
+	 * @exception IOException If a network error occurs.
+	 */
+	public void writePacket(SMBSrvPacket pkt, int len, ByteBuffer data)
+		throws IOException {
+
+		// Fill in the NetBIOS message header, the length includes the data
+		
+		byte[] buf = pkt.getBuffer();
+		
+		buf[0] = (byte) RFCNetBIOSProtocol.SESSION_MESSAGE;
+		buf[1] = (byte) 0;
+
+		if ( len > 0xFFFF) {
+
+			// Set the >64K flag and the low word of the data length
+
+			buf[1] = (byte) 0x01;
+			DataPacker.putShort((short) (len & 0xFFFF), buf, 2);
+		}
+		else {
+
+			// Set the data length
+
+			DataPacker.putShort((short) len, buf, 2);
+		}
+		
+		// Output the packet header followed by the data
+		
+		int bufSiz = len + RFCNetBIOSProtocol.HEADER_LEN - data.remaining();
+		writeBytes(buf, 0, bufSiz, data);
+	}
 }
@@ -20,6 +20,7 @@
 package org.alfresco.jlan.smb.server.nio;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 
 import org.alfresco.jlan.netbios.RFCNetBIOSProtocol;
@@ -160,4 +161,26 @@ public class TcpipSMBChannelHandler extends ChannelPacketHandler {
 		int bufSiz = len + RFCNetBIOSProtocol.HEADER_LEN;
 		writeBytes(buf, 0, bufSiz);
 	}
+
+	/**
+	 * Send an SMB response packet with the data held in a separate buffer
+	 * 
+	 * @param pkt SMBSrvPacket
+	 * @param len int
+	 * @param data ByteBuffer
+	 * @exception IOException If a network error occurs.
+	 */
+	public void writePacket(SMBSrvPacket pkt, int len, ByteBuffer data)
+		throws IOException {
+
+		// Fill in the TCP SMB message header, the length includes the data
+		
+		byte[] buf = pkt.getBuffer();
+		DataPacker.putInt(len, buf, 0);
+
+		// Output the packet header followed by the data
+		
+		int bufSiz = len + RFCNetBIOSProtocol.HEADER_LEN - data.remaining();
+		writeBytes(buf, 0, bufSiz, data);
+	}
 }
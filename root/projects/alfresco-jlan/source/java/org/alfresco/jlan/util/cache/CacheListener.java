@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2006-2010 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.jlan.util.cache;
+
+/**
+ * Cache Listener Interface
+ * 
+ * <p>Allows the owner of an object cache to take part in the expiry and eviction of cache entries, for example to
+ * close a file that has been removed from an open file cache.
+ *
+ * @author agent
+ */
+public interface CacheListener<K, V> {
+
+	/**
+	 * Cache entry has reached its expiry time. Return the number of milliseconds to keep the entry in the cache for,
+	 * or zero to remove the entry.
+	 * 
+	 * @param key K
+	 * @param value V
+	 * @return long
+	 */
+	public long entryExpired(K key, V value);
+	
+	/**
+	 * Check if a cache entry can be evicted to keep the cache within its size limit. Called whilst the cache
+	 * is locked so must not block.
+	 * 
+	 * @param key K
+	 * @param value V
+	 * @return boolean
+	 */
+	public boolean isEvictable(K key, V value);
+	
+	/**
+	 * Cache entry has been removed from the cache due to expiry or eviction. Not called for entries removed by
+	 * the cache owner. Evicted entries are reported on a cache expiry thread, after the entry that caused the
+	 * eviction has been added.
+	 * 
+	 * @param key K
+	 * @param value V
+	 * @param evicted boolean
+	 */
+	public void entryRemoved(K key, V value, boolean evicted);
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2006-2010 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.jlan.util.cache;
+
+/**
+ * Cache Statistics Class
+ * 
+ * <p>Snapshot of the hit, miss, eviction and expiry counters of an object cache.
+ *
+ * @author agent
+ */
+public class CacheStatistics {
+
+	//	Cache name
+	
+	private String m_name;
+	
+	//	Current and maximum number of entries, zero maximum if not bounded
+	
+	private int m_size;
+	private int m_maxSize;
+	
+	//	Counters
+	
+	private long m_hits;
+	private long m_misses;
+	private long m_puts;
+	private long m_evictions;
+	private long m_expirations;
+	
+	/**
+	 * Class constructor
+	 * 
+	 * @param name String
+	 * @param size int
+	 * @param maxSize int
+	 * @param hits long
+	 * @param misses long
+	 * @param puts long
+	 * @param evictions long
+	 * @param expirations long
+	 */
+	public CacheStatistics(String name, int size, int maxSize, long hits, long misses, long puts, long evictions, long expirations) {
+		m_name = name;
+		m_size = size;
+		m_maxSize = maxSize;
+		m_hits = hits;
+		m_misses = misses;
+		m_puts = puts;
+		m_evictions = evictions;
+		m_expirations = expirations;
+	}
+	
+	/**
+	 * Return the cache name
+	 * 
+	 * @return String
+	 */
+	public final String getName() {
+		return m_name;
+	}
+	
+	/**
+	 * Return the number of entries in the cache
+	 * 
+	 * @return int
+	 */
+	public final int getSize() {
+		return m_size;
+	}
+	
+	/**
+	 * Return the maximum number of entries, or zero if the cache is not bounded
+	 * 
+	 * @return int
+	 */
+	public final int getMaximumSize() {
+		return m_maxSize;
+	}
+	
+	/**
+	 * Return the number of lookups that found an entry
+	 * 
+	 * @return long
+	 */
+	public final long getHits() {
+		return m_hits;
+	}
+	
+	/**
+	 * Return the number of lookups that did not find an entry
+	 * 
+	 * @return long
+	 */
+	public final long getMisses() {
+		return m_misses;
+	}
+	
+	/**
+	 * Return the number of entries added to the cache
+	 * 
+	 * @return long
+	 */
+	public final long getPuts() {
+		return m_puts;
+	}
+	
+	/**
+	 * Return the number of entries evicted to keep the cache within its size limit
+	 * 
+	 * @return long
+	 */
+	public final long getEvictions() {
+		return m_evictions;
+	}
+	
+	/**
+	 * Return the number of entries removed by the idle timeout
+	 * 
+	 * @return long
+	 */
+	public final long getExpirations() {
+		return m_expirations;
+	}
+	
+	/**
+	 * Return the hit ratio as a percentage
+	 * 
+	 * @return int
+	 */
+	public final int getHitRatio() {
+		long lookups = m_hits + m_misses;
+		return lookups > 0 ? (int) ((m_hits * 100L) / lookups) : 0;
+	}
+	
+	/**
+	 * Return the statistics as a string
+	 * 
+	 * @return String
+	 */
+	public String toString() {
+		StringBuffer str = new StringBuffer();
+		
+		str.append("[");
+		str.append(getName());
+		str.append(" size=");
+		str.append(getSize());
+		if ( getMaximumSize() > 0) {
+			str.append("/");
+			str.append(getMaximumSize());
+		}
+		str.append(",hits=");
+		str.append(getHits());
+		str.append(",misses=");
+		str.append(getMisses());
+		str.append(",hitRatio=");
+		str.append(getHitRatio());
+		str.append("%,puts=");
+		str.append(getPuts());
+		str.append(",evictions=");
+		str.append(getEvictions());
+		str.append(",expired=");
+		str.append(getExpirations());
+		str.append("]");
+		
+		return str.toString();
+	}
+}
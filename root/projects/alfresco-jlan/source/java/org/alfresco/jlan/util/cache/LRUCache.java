@@ -0,0 +1,718 @@
+/*
+ * Copyright (C) 2006-2010 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.jlan.util.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.alfresco.jlan.debug.Debug;
+
+/**
+ * LRU Cache Class
+ * 
+ * <p>Lock striped, least recently used object cache. The cache is split into segments by key hash, each segment
+ * has its own lock so that threads using different keys do not contend. When a maximum size is set each segment
+ * evicts its least recently used entries to stay within its share of the limit.
+ * 
+ * <p>Entries that have not been accessed for the idle timeout are expired using a timer wheel, the wheels of
+ * all caches are driven by a small shared pool of expiry threads. The listener is told about evicted entries on
+ * the same threads, so that its clean up never runs in, or changes the context of, the thread adding an entry.
+ *
+ * @author agent
+ */
+public class LRUCache<K, V> implements ObjectCache<K, V> {
+
+	//	Default and maximum number of segments
+	
+	public static final int DefaultSegments	= 16;
+	
+	//	Minimum number of entries per segment for a size bounded cache
+	
+	private static final int MinSegmentSize	= 8;
+	
+	//	Default expiry tick interval, in milliseconds
+	
+	public static final long DefaultTickInterval	= 1000L;
+	
+	//	Number of shared expiry threads
+	
+	private static final int ExpiryThreads	= 2;
+	
+	//	Shared expiry timer
+	
+	private static ScheduledThreadPoolExecutor s_expiryTimer;
+	
+	//	Cache name
+	
+	private String m_name;
+	
+	//	Cache segments and mask to convert a hash to a segment index
+	
+	private Segment<K, V>[] m_segments;
+	private int m_segMask;
+	
+	//	Maximum number of entries, zero if not bounded
+	
+	private int m_maxSize;
+	
+	//	Idle timeout, zero if entries do not expire
+	
+	private volatile long m_idleTmo;
+	
+	//	Expiry timer wheel and the scheduled expiry task
+	
+	private TimerWheel<Entry<K, V>> m_wheel;
+	private ScheduledFuture<?> m_expiryTask;
+	
+	//	Cache listener
+	
+	private volatile CacheListener<K, V> m_listener;
+	
+	//	Count of expired entries
+	
+	private AtomicLong m_expirations = new AtomicLong();
+	
+	/**
+	 * Cache Entry Class
+	 */
+	protected static class Entry<K, V> extends TimerWheel.Timeout {
+		
+		//	Key and value
+		
+		private K mi_key;
+		private V mi_value;
+		
+		/**
+		 * Class constructor
+		 * 
+		 * @param key K
+		 * @param value V
+		 */
+		public Entry(K key, V value) {
+			mi_key = key;
+			mi_value = value;
+		}
+		
+		/**
+		 * Return the key
+		 * 
+		 * @return K
+		 */
+		public final K getKey() {
+			return mi_key;
+		}
+		
+		/**
+		 * Return the value
+		 * 
+		 * @return V
+		 */
+		public final V getValue() {
+			return mi_value;
+		}
+	}
+	
+	/**
+	 * Cache Segment Class
+	 * 
+	 * <p>Access ordered map of cache entries, guarded by the segment lock. The counters are only updated whilst
+	 * the lock is held.
+	 */
+	protected static class Segment<K, V> extends ReentrantLock {
+		
+		private static final long serialVersionUID = 1L;
+		
+		//	Entries, in least recently used order
+		
+		private LinkedHashMap<K, Entry<K, V>> mi_map;
+		
+		//	Maximum number of entries in this segment, zero if not bounded
+		
+		private int mi_maxSize;
+		
+		//	Counters
+		
+		private long mi_hits;
+		private long mi_misses;
+		private long mi_puts;
+		private long mi_evictions;
+		
+		/**
+		 * Class constructor
+		 * 
+		 * @param maxSize int
+		 */
+		public Segment(int maxSize) {
+			mi_maxSize = maxSize;
+			mi_map = new LinkedHashMap<K, Entry<K, V>>(16, 0.75f, true);
+		}
+	}
+	
+	/**
+	 * Expiry Thread Factory Class
+	 */
+	protected static class ExpiryThreadFactory implements ThreadFactory {
+		
+		//	Thread counter
+		
+		private int mi_threadId;
+		
+		/**
+		 * Create an expiry thread
+		 * 
+		 * @param run Runnable
+		 * @return Thread
+		 */
+		public synchronized Thread newThread(Runnable run) {
+			Thread thread = new Thread(run);
+			thread.setDaemon(true);
+			thread.setName("CacheExpiry_" + ++mi_threadId);
+			return thread;
+		}
+	}
+	
+	/**
+	 * Class constructor
+	 * 
+	 * <p>Create a cache that is not size bounded
+	 * 
+	 * @param name String
+	 */
+	public LRUCache(String name) {
+		this(name, 0, 0L);
+	}
+	
+	/**
+	 * Class constructor
+	 * 
+	 * @param name String
+	 * @param maxSize int
+	 */
+	public LRUCache(String name, int maxSize) {
+		this(name, maxSize, 0L);
+	}
+	
+	/**
+	 * Class constructor
+	 * 
+	 * @param name String
+	 * @param maxSize int
+	 * @param tick long
+	 */
+	@SuppressWarnings("unchecked")
+	public LRUCache(String name, int maxSize, long tick) {
+		
+		m_name = name;
+		m_maxSize = maxSize > 0 ? maxSize : 0;
+		
+		//	Use fewer segments for small caches, so that each segment has a useful number of entries
+		
+		int numSegs = DefaultSegments;
+		
+		if ( m_maxSize > 0) {
+			while ( numSegs > 1 && m_maxSize / numSegs < MinSegmentSize)
+				numSegs >>= 1;
+		}
+		
+		//	Create the segments, spreading the size limit between them
+		
+		int segSize = m_maxSize > 0 ? (m_maxSize + numSegs - 1) / numSegs : 0;
+		
+		m_segments = new Segment[numSegs];
+		m_segMask = numSegs - 1;
+		
+		for ( int i = 0; i < numSegs; i++)
+			m_segments[i] = new Segment<K, V>(segSize);
+		
+		//	Create the expiry timer wheel, if required
+		
+		if ( tick > 0)
+			m_wheel = new TimerWheel<Entry<K, V>>(tick);
+	}
+	
+	/**
+	 * Return the cache name
+	 * 
+	 * @return String
+	 */
+	public final String getName() {
+		return m_name;
+	}
+	
+	/**
+	 * Return the maximum number of entries, or zero if the cache is not bounded
+	 * 
+	 * @return int
+	 */
+	public final int getMaximumSize() {
+		return m_maxSize;
+	}
+	
+	/**
+	 * Return the idle timeout, in milliseconds
+	 * 
+	 * @return long
+	 */
+	public final long getIdleTimeout() {
+		return m_idleTmo;
+	}
+	
+	/**
+	 * Return the value for the specified key, or null if not found
+	 * 
+	 * @param key K
+	 * @return V
+	 */
+	public V get(K key) {
+		
+		Segment<K, V> seg = segmentFor(key);
+		Entry<K, V> entry = null;
+		
+		seg.lock();
+		try {
+			
+			//	Find the entry, this also moves the entry to the most recently used position
+			
+			entry = seg.mi_map.get(key);
+			
+			if ( entry != null)
+				seg.mi_hits++;
+			else
+				seg.mi_misses++;
+		}
+		finally {
+			seg.unlock();
+		}
+		
+		//	Check if the entry was found
+		
+		if ( entry == null)
+			return null;
+		
+		//	Reset the idle timeout, the timer wheel picks up the new deadline when the entry's slot is processed
+		
+		long tmo = m_idleTmo;
+		if ( tmo > 0)
+			entry.setDeadline(System.currentTimeMillis() + tmo);
+		
+		return entry.getValue();
+	}
+	
+	/**
+	 * Add an entry to the cache, replacing any existing entry
+	 * 
+	 * @param key K
+	 * @param value V
+	 * @return V
+	 */
+	public V put(K key, V value) {
+		return addEntry(key, value, true);
+	}
+	
+	/**
+	 * Add an entry to the cache if there is no existing entry with the same key
+	 * 
+	 * @param key K
+	 * @param value V
+	 * @return V
+	 */
+	public V putIfAbsent(K key, V value) {
+		return addEntry(key, value, false);
+	}
+	
+	/**
+	 * Remove an entry from the cache
+	 * 
+	 * @param key K
+	 * @return V
+	 */
+	public V remove(K key) {
+		
+		Segment<K, V> seg = segmentFor(key);
+		Entry<K, V> entry = null;
+		
+		seg.lock();
+		try {
+			entry = seg.mi_map.remove(key);
+		}
+		finally {
+			seg.unlock();
+		}
+		
+		//	Drop the entry from the timer wheel and return the old value
+		
+		if ( entry == null)
+			return null;
+		
+		entry.cancel();
+		return entry.getValue();
+	}
+	
+	/**
+	 * Return the number of entries in the cache
+	 * 
+	 * @return int
+	 */
+	public int size() {
+		
+		int size = 0;
+		
+		for ( int i = 0; i < m_segments.length; i++) {
+			Segment<K, V> seg = m_segments[i];
+			
+			seg.lock();
+			try {
+				size += seg.mi_map.size();
+			}
+			finally {
+				seg.unlock();
+			}
+		}
+		
+		return size;
+	}
+	
+	/**
+	 * Return a copy of the current cache entries
+	 * 
+	 * @return Map<K, V>
+	 */
+	public Map<K, V> snapshot() {
+		
+		HashMap<K, V> entries = new HashMap<K, V>();
+		
+		for ( int i = 0; i < m_segments.length; i++) {
+			Segment<K, V> seg = m_segments[i];
+			
+			seg.lock();
+			try {
+				Iterator<Entry<K, V>> iter = seg.mi_map.values().iterator();
+				
+				while ( iter.hasNext()) {
+					Entry<K, V> entry = iter.next();
+					entries.put(entry.getKey(), entry.getValue());
+				}
+			}
+			finally {
+				seg.unlock();
+			}
+		}
+		
+		return entries;
+	}
+	
+	/**
+	 * Set the idle timeout, in milliseconds. The new timeout applies to entries as they are accessed. The cache must
+	 * have been created with a tick interval for entries to be expired.
+	 * 
+	 * @param tmo long
+	 */
+	public void setIdleTimeout(long tmo) {
+		m_idleTmo = tmo > 0 ? tmo : 0L;
+		
+		//	Start the expiry task when the timeout is first set
+		
+		if ( m_idleTmo > 0 && m_wheel != null)
+			startExpiry();
+	}
+	
+	/**
+	 * Set the cache listener
+	 * 
+	 * @param listener CacheListener<K, V>
+	 */
+	public void setCacheListener(CacheListener<K, V> listener) {
+		m_listener = listener;
+	}
+	
+	/**
+	 * Return the cache statistics
+	 * 
+	 * @return CacheStatistics
+	 */
+	public CacheStatistics getStatistics() {
+		
+		int size = 0;
+		long hits = 0L;
+		long misses = 0L;
+		long puts = 0L;
+		long evictions = 0L;
+		
+		for ( int i = 0; i < m_segments.length; i++) {
+			Segment<K, V> seg = m_segments[i];
+			
+			seg.lock();
+			try {
+				size += seg.mi_map.size();
+				hits += seg.mi_hits;
+				misses += seg.mi_misses;
+				puts += seg.mi_puts;
+				evictions += seg.mi_evictions;
+			}
+			finally {
+				seg.unlock();
+			}
+		}
+		
+		return new CacheStatistics(getName(), size, getMaximumSize(), hits, misses, puts, evictions, m_expirations.get());
+	}
+	
+	/**
+	 * Stop the expiry task, the cache entries are not changed
+	 */
+	public synchronized void shutdown() {
+		if ( m_expiryTask != null) {
+			m_expiryTask.cancel(false);
+			m_expiryTask = null;
+		}
+	}
+	
+	/**
+	 * Check for expired entries, called by the expiry timer
+	 */
+	protected final void checkExpiry() {
+		
+		m_wheel.advance(System.currentTimeMillis(), new TimerWheel.ExpiryHandler<Entry<K, V>>() {
+			public void timeoutExpired(Entry<K, V> entry, long timeNow) {
+				expireEntry(entry, timeNow);
+			}
+		});
+	}
+	
+	/**
+	 * Add an entry to the cache
+	 * 
+	 * @param key K
+	 * @param value V
+	 * @param replace boolean
+	 * @return V
+	 */
+	private final V addEntry(K key, V value, boolean replace) {
+		
+		Segment<K, V> seg = segmentFor(key);
+		CacheListener<K, V> listener = m_listener;
+		
+		Entry<K, V> entry = new Entry<K, V>(key, value);
+		Entry<K, V> oldEntry = null;
+		ArrayList<Entry<K, V>> evicted = null;
+		
+		long tmo = m_idleTmo;
+		if ( tmo > 0)
+			entry.setDeadline(System.currentTimeMillis() + tmo);
+		
+		seg.lock();
+		try {
+			
+			//	Check for an existing entry
+			
+			oldEntry = seg.mi_map.get(key);
+			if ( oldEntry != null && replace == false)
+				return oldEntry.getValue();
+			
+			seg.mi_map.put(key, entry);
+			seg.mi_puts++;
+			
+			//	Evict the least recently used entries if the segment is over its size limit. Entries that the listener
+			//	will not allow to be evicted are skipped, so the segment may stay over its limit for a while.
+			
+			if ( seg.mi_maxSize > 0 && seg.mi_map.size() > seg.mi_maxSize) {
+				
+				Iterator<Entry<K, V>> iter = seg.mi_map.values().iterator();
+				
+				while ( seg.mi_map.size() > seg.mi_maxSize && iter.hasNext()) {
+					Entry<K, V> lruEntry = iter.next();
+					
+					if ( lruEntry != entry && ( listener == null || listener.isEvictable(lruEntry.getKey(), lruEntry.getValue()))) {
+						iter.remove();
+						lruEntry.cancel();
+						
+						if ( evicted == null)
+							evicted = new ArrayList<Entry<K, V>>();
+						evicted.add(lruEntry);
+						seg.mi_evictions++;
+					}
+				}
+			}
+		}
+		finally {
+			seg.unlock();
+		}
+		
+		//	Drop the replaced entry from the timer wheel, add the new entry
+		
+		if ( oldEntry != null)
+			oldEntry.cancel();
+		
+		if ( tmo > 0 && m_wheel != null)
+			m_wheel.schedule(entry);
+		
+		//	Inform the listener of evicted entries on an expiry thread
+		
+		if ( evicted != null && listener != null)
+			notifyEvicted(evicted, listener);
+		
+		//	Return the previous value
+		
+		return oldEntry != null ? oldEntry.getValue() : null;
+	}
+	
+	/**
+	 * Inform the listener of evicted entries using the shared expiry timer
+	 * 
+	 * @param evicted ArrayList<Entry<K, V>>
+	 * @param listener CacheListener<K, V>
+	 */
+	private final void notifyEvicted(final ArrayList<Entry<K, V>> evicted, final CacheListener<K, V> listener) {
+		
+		getExpiryTimer().execute(new Runnable() {
+			public void run() {
+				for ( int i = 0; i < evicted.size(); i++) {
+					Entry<K, V> lruEntry = evicted.get(i);
+					
+					try {
+						listener.entryRemoved(lruEntry.getKey(), lruEntry.getValue(), true);
+					}
+					catch (Exception ex) {
+						Debug.println("Cache " + getName() + " eviction error, key=" + lruEntry.getKey() + ", ex=" + ex.toString());
+					}
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Process an expired entry
+	 * 
+	 * @param entry Entry<K, V>
+	 * @param timeNow long
+	 */
+	private final void expireEntry(Entry<K, V> entry, long timeNow) {
+		
+		//	Check if the listener wants to keep the entry for longer
+		
+		CacheListener<K, V> listener = m_listener;
+		long keepTmo = 0L;
+		
+		if ( listener != null) {
+			try {
+				keepTmo = listener.entryExpired(entry.getKey(), entry.getValue());
+			}
+			catch (Exception ex) {
+				Debug.println("Cache " + getName() + " expiry error, key=" + entry.getKey() + ", ex=" + ex.toString());
+			}
+		}
+		
+		if ( keepTmo > 0) {
+			entry.setDeadline(System.currentTimeMillis() + keepTmo);
+			m_wheel.schedule(entry);
+			return;
+		}
+		
+		//	Remove the entry, unless it has been replaced or accessed since it expired
+		
+		Segment<K, V> seg = segmentFor(entry.getKey());
+		boolean removed = false;
+		
+		seg.lock();
+		try {
+			if ( seg.mi_map.get(entry.getKey()) == entry && entry.getDeadline() <= timeNow) {
+				seg.mi_map.remove(entry.getKey());
+				removed = true;
+			}
+		}
+		finally {
+			seg.unlock();
+		}
+		
+		if ( removed) {
+			
+			//	Inform the listener
+			
+			entry.cancel();
+			m_expirations.incrementAndGet();
+			
+			if ( listener != null)
+				listener.entryRemoved(entry.getKey(), entry.getValue(), false);
+		}
+		else if ( entry.isCancelled() == false)
+			m_wheel.schedule(entry);
+	}
+	
+	/**
+	 * Start the expiry task, if not already running
+	 */
+	private synchronized final void startExpiry() {
+		
+		if ( m_expiryTask != null)
+			return;
+		
+		long tick = m_wheel.getTickInterval();
+		
+		m_expiryTask = getExpiryTimer().scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					checkExpiry();
+				}
+				catch (Throwable ex) {
+					Debug.println("Cache " + getName() + " expiry error, ex=" + ex.toString());
+					Debug.println(ex);
+				}
+			}
+		}, tick, tick, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Return the segment for the specified key
+	 * 
+	 * @param key K
+	 * @return Segment<K, V>
+	 */
+	private final Segment<K, V> segmentFor(K key) {
+		
+		//	Spread the hash bits so that sequential keys, such as file ids, are shared between the segments
+		
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		h *= 0x85ebca6b;
+		h ^= (h >>> 13);
+		
+		return m_segments[h & m_segMask];
+	}
+	
+	/**
+	 * Return the shared expiry timer, create the timer on first use
+	 * 
+	 * @return ScheduledThreadPoolExecutor
+	 */
+	private static synchronized final ScheduledThreadPoolExecutor getExpiryTimer() {
+		if ( s_expiryTimer == null)
+			s_expiryTimer = new ScheduledThreadPoolExecutor(ExpiryThreads, new ExpiryThreadFactory());
+		return s_expiryTimer;
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2006-2010 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.jlan.util.cache;
+
+import java.util.Map;
+
+/**
+ * Object Cache Interface
+ * 
+ * <p>A concurrent, optionally size bounded and expiring, key/value cache used by the file servers to cache
+ * file handles, open files and searches. Implementations must be safe for use by multiple threads.
+ *
+ * @author agent
+ */
+public interface ObjectCache<K, V> {
+
+	/**
+	 * Return the cache name
+	 * 
+	 * @return String
+	 */
+	public String getName();
+	
+	/**
+	 * Return the value for the specified key, or null if not found. The entry is marked as recently used and
+	 * the idle timeout for the entry is reset.
+	 * 
+	 * @param key K
+	 * @return V
+	 */
+	public V get(K key);
+	
+	/**
+	 * Add an entry to the cache, replacing any existing entry with the same key
+	 * 
+	 * @param key K
+	 * @param value V
+	 * @return V
+	 */
+	public V put(K key, V value);
+	
+	/**
+	 * Add an entry to the cache if there is no existing entry with the same key
+	 * 
+	 * @param key K
+	 * @param value V
+	 * @return V
+	 */
+	public V putIfAbsent(K key, V value);
+	
+	/**
+	 * Remove an entry from the cache
+	 * 
+	 * @param key K
+	 * @return V
+	 */
+	public V remove(K key);
+	
+	/**
+	 * Return the number of entries in the cache
+	 * 
+	 * @return int
+	 */
+	public int size();
+	
+	/**
+	 * Return a copy of the current cache entries, the entries are not marked as used
+	 * 
+	 * @return Map<K, V>
+	 */
+	public Map<K, V> snapshot();
+	
+	/**
+	 * Set the idle timeout, in milliseconds, entries that have not been accessed for the idle timeout are expired.
+	 * Zero disables expiry.
+	 * 
+	 * @param tmo long
+	 */
+	public void setIdleTimeout(long tmo);
+	
+	/**
+	 * Set the listener that controls expiry and eviction of cache entries
+	 * 
+	 * @param listener CacheListener<K, V>
+	 */
+	public void setCacheListener(CacheListener<K, V> listener);
+	
+	/**
+	 * Return the cache statistics
+	 * 
+	 * @return CacheStatistics
+	 */
+	public CacheStatistics getStatistics();
+	
+	/**
+	 * Stop the cache expiry processing
+	 */
+	public void shutdown();
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2006-2010 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.jlan.util.cache;
+
+import java.util.ArrayList;
+
+/**
+ * Timer Wheel Class
+ * 
+ * <p>Hashed timer wheel used to expire cache entries. Each timeout is held in the slot for the tick that its
+ * deadline falls in, so each tick only looks at the timeouts that may have expired rather than the whole cache.
+ * 
+ * <p>Deadlines may be moved forward without rescheduling the timeout, when the slot is processed the timeout is
+ * moved to the slot for its new deadline. Deadlines beyond one turn of the wheel are handled in the same way.
+ *
+ * @author agent
+ */
+public class TimerWheel<T extends TimerWheel.Timeout> {
+
+	//	Default number of slots
+	
+	public static final int DefaultSlots	= 64;
+	
+	//	Tick interval, in milliseconds
+	
+	private long m_tick;
+	
+	//	Wheel slots, and mask to convert a tick number to a slot index
+	
+	private Slot<T>[] m_slots;
+	private int m_mask;
+	
+	//	Last tick that has been processed
+	
+	private volatile long m_lastTick;
+	
+	/**
+	 * Timeout Class
+	 * 
+	 * <p>Base class for objects held in a timer wheel.
+	 */
+	public static abstract class Timeout {
+		
+		//	Expiry time, and cancelled flag
+		
+		private volatile long mi_deadline;
+		private volatile boolean mi_cancelled;
+		
+		/**
+		 * Return the expiry time
+		 * 
+		 * @return long
+		 */
+		public final long getDeadline() {
+			return mi_deadline;
+		}
+		
+		/**
+		 * Set the expiry time
+		 * 
+		 * @param deadline long
+		 */
+		public final void setDeadline(long deadline) {
+			mi_deadline = deadline;
+		}
+		
+		/**
+		 * Check if the timeout has been cancelled
+		 * 
+		 * @return boolean
+		 */
+		public final boolean isCancelled() {
+			return mi_cancelled;
+		}
+		
+		/**
+		 * Cancel the timeout, it will be dropped from the wheel when its slot is next processed
+		 */
+		public final void cancel() {
+			mi_cancelled = true;
+		}
+	}
+	
+	/**
+	 * Expiry Handler Interface
+	 */
+	public interface ExpiryHandler<T> {
+		
+		/**
+		 * Timeout has expired. The handler must reschedule the timeout if it is to be kept.
+		 * 
+		 * @param timeout T
+		 * @param timeNow long
+		 */
+		public void timeoutExpired(T timeout, long timeNow);
+	}
+	
+	/**
+	 * Slot Class
+	 */
+	protected static class Slot<T> {
+		
+		//	Timeouts in this slot
+		
+		private ArrayList<T> mi_timeouts = new ArrayList<T>();
+		
+		/**
+		 * Add a timeout to the slot
+		 * 
+		 * @param timeout T
+		 */
+		public synchronized final void add(T timeout) {
+			mi_timeouts.add(timeout);
+		}
+		
+		/**
+		 * Remove all timeouts from the slot
+		 * 
+		 * @return ArrayList<T>
+		 */
+		public synchronized final ArrayList<T> removeAll() {
+			if ( mi_timeouts.size() == 0)
+				return null;
+			
+			ArrayList<T> timeouts = mi_timeouts;
+			mi_timeouts = new ArrayList<T>();
+			return timeouts;
+		}
+	}
+	
+	/**
+	 * Class constructor
+	 * 
+	 * @param tick long
+	 */
+	public TimerWheel(long tick) {
+		this(tick, DefaultSlots);
+	}
+	
+	/**
+	 * Class constructor
+	 * 
+	 * @param tick long
+	 * @param slots int
+	 */
+	@SuppressWarnings("unchecked")
+	public TimerWheel(long tick, int slots) {
+		
+		//	Round the slot count up to a power of two
+		
+		int numSlots = 1;
+		while ( numSlots < slots)
+			numSlots <<= 1;
+		
+		m_tick = tick > 0 ? tick : 1L;
+		m_slots = new Slot[numSlots];
+		m_mask = numSlots - 1;
+		
+		for ( int i = 0; i < numSlots; i++)
+			m_slots[i] = new Slot<T>();
+		
+		m_lastTick = System.currentTimeMillis() / m_tick;
+	}
+	
+	/**
+	 * Return the tick interval
+	 * 
+	 * @return long
+	 */
+	public final long getTickInterval() {
+		return m_tick;
+	}
+	
+	/**
+	 * Add a timeout to the wheel, using its current deadline
+	 * 
+	 * @param timeout T
+	 */
+	public final void schedule(T timeout) {
+		
+		//	Find the tick the deadline falls in, timeouts that are already due go in the next slot to be processed
+		
+		long tick = timeout.getDeadline() / m_tick;
+		long lastTick = m_lastTick;
+		
+		if ( tick <= lastTick)
+			tick = lastTick + 1;
+		
+		m_slots[(int) (tick & m_mask)].add(timeout);
+	}
+	
+	/**
+	 * Process the slots up to the specified time, calling the handler for each expired timeout
+	 * 
+	 * @param timeNow long
+	 * @param handler ExpiryHandler<T>
+	 * @return int
+	 */
+	public final int advance(long timeNow, ExpiryHandler<T> handler) {
+		
+		//	Find the range of ticks to process, process each slot once at most if the wheel has fallen behind
+		
+		long nowTick = timeNow / m_tick;
+		long tick = m_lastTick;
+		
+		if ( nowTick - tick > m_slots.length)
+			tick = nowTick - m_slots.length;
+		
+		int expired = 0;
+		
+		while ( tick < nowTick) {
+			
+			//	Mark the tick as processed before checking the slot, so that timeouts that are rescheduled go into a later slot
+			
+			tick++;
+			m_lastTick = tick;
+			
+			ArrayList<T> timeouts = m_slots[(int) (tick & m_mask)].removeAll();
+			if ( timeouts == null)
+				continue;
+			
+			for ( int i = 0; i < timeouts.size(); i++) {
+				T timeout = timeouts.get(i);
+				
+				//	Drop cancelled timeouts, move timeouts with a later deadline to their new slot
+				
+				if ( timeout.isCancelled())
+					continue;
+				else if ( timeout.getDeadline() > timeNow)
+					schedule(timeout);
+				else {
+					handler.timeoutExpired(timeout, timeNow);
+					expired++;
+				}
+			}
+		}
+		
+		//	Return the number of expired timeouts
+		
+		return expired;
+	}
+}
@@ -517,6 +517,16 @@ public interface NodeService
     @Auditable(parameters = {"nodeRef"})
     public List<ChildAssociationRef> getChildAssocs(NodeRef nodeRef) throws InvalidNodeRefException;
     
+    /**
+     * Loads the properties and aspects of the given nodes in bulk, ahead of them being read
+     * one node at a time, e.g. after listing the children of a node.  This is purely an
+     * optimization: nothing is returned and nodes that don't exist are ignored.
+     * 
+     * @param nodeRefs          the nodes whose properties and aspects are about to be read
+     */
+    @Auditable(parameters = {"nodeRefs"})
+    public void preloadNodes(List<NodeRef> nodeRefs);
+    
     /**
      * Gets all child associations where the pattern of the association qualified
      * name is a match.  Using a {@link org.alfresco.service.namespace.RegexQNamePattern#MATCH_ALL wildcard}
@@ -90,95 +90,33 @@ public class NodesMetaDataGet extends DeclarativeWebScript
                 throw new WebScriptException("Failed to convert request to String");
             }
             JSONObject o = new JSONObject(content.getContent());
-            
-            List<Long> nodeIds = null;
-            if(o.has("nodeIds"))
-            {
-                JSONArray jsonNodeIds =  o.getJSONArray("nodeIds");
-                nodeIds = new ArrayList<Long>(jsonNodeIds.length());
-                for(int i = 0; i < jsonNodeIds.length(); i++)
-                {
-                    Long nodeId = jsonNodeIds.getLong(i);
-                    nodeIds.add(nodeId);
-                }
-            }
-            
-            Long fromNodeId = o.has("fromNodeId") ? o.getLong("fromNodeId") : null;
-            Long toNodeId = o.has("toNodeId") ? o.getLong("toNodeId") : null;
-            
-            // 0 or Integer.MAX_VALUE => ignore
-            int maxResults = o.has("maxResults") ? o.getInt("maxResults") : 0;
+            NodeMetaDataParameters params = getNodeMetaDataParameters(o);
+            MetaDataResultsFilter filter = getMetaDataResultsFilter(o);
 
+            int maxResults = params.getMaxResults();
             int size = 0;
             if(maxResults != 0 && maxResults != Integer.MAX_VALUE)
             {
                 size = maxResults;
             }
-            else if(nodeIds != null)
+            else if(params.getNodeIds() != null)
             {
-                size = nodeIds.size();
+                size = params.getNodeIds().size();
             }
-            else if(fromNodeId != null && toNodeId != null)
+            else if(params.getFromNodeId() != null && params.getToNodeId() != null)
             {
-                if((toNodeId.longValue() - fromNodeId.longValue()) > Integer.MAX_VALUE)
+                long range = params.getToNodeId().longValue() - params.getFromNodeId().longValue();
+                if(range > Integer.MAX_VALUE)
                 {
                     throw new WebScriptException("Too many nodes expected, try changing the criteria");
                 }
-                size = (int)(toNodeId - fromNodeId);
+                size = (int)range;
             }
 
             final boolean noSizeCalculated = (size == 0);
 
-            // filters, defaults are 'true'
-            MetaDataResultsFilter filter = new MetaDataResultsFilter();
-            if(o.has("includeAclId"))
-            {
-                filter.setIncludeAclId(o.getBoolean("includeAclId"));
-            }
-            if(o.has("includeAspects"))
-            {
-                filter.setIncludeAspects(o.getBoolean("includeAspects"));
-            }
-            if(o.has("includeNodeRef"))
-            {
-                filter.setIncludeNodeRef(o.getBoolean("includeNodeRef"));
-            }
-            if(o.has("includeOwner"))
-            {
-                filter.setIncludeOwner(o.getBoolean("includeOwner"));
-            }
-            if(o.has("includeProperties"))
-            {
-                filter.setIncludeProperties(o.getBoolean("includeProperties"));
-            }
-            if(o.has("includePaths"))
-            {
-                filter.setIncludePaths(o.getBoolean("includePaths"));
-            }
-            if(o.has("includeType"))
-            {
-                filter.setIncludeType(o.getBoolean("includeType"));
-            }
-            if(o.has("includeParentAssociations"))
-            {
-                filter.setIncludeParentAssociations(o.getBoolean("includeChildIds"));
-            }
-            if(o.has("includeChildIds"))
-            {
-                filter.setIncludeChildIds(o.getBoolean("includeChildIds"));
-            }
-            if(o.has("includeTxnId"))
-            {
-                filter.setIncludeTxnId(o.getBoolean("includeTxnId"));
-            }
-            
             final ArrayList<FreemarkerNodeMetaData> nodesMetaData = 
                 new ArrayList<FreemarkerNodeMetaData>(size > 0 ? size : INITIAL_DEFAULT_SIZE);
-            NodeMetaDataParameters params = new NodeMetaDataParameters();
-            params.setNodeIds(nodeIds);
-            params.setFromNodeId(fromNodeId);
-            params.setToNodeId(toNodeId);
-            params.setMaxResults(maxResults);
 
             solrTrackingComponent.getNodesMetadata(params, filter, new NodeMetaDataQueryCallback()
             {
@@ -231,6 +169,90 @@ public class NodesMetaDataGet extends DeclarativeWebScript
         }
     }
 
+    /**
+     * Get the node selection criteria from a metadata request
+     */
+    static NodeMetaDataParameters getNodeMetaDataParameters(JSONObject o) throws JSONException
+    {
+        List<Long> nodeIds = null;
+        if(o.has("nodeIds"))
+        {
+            JSONArray jsonNodeIds =  o.getJSONArray("nodeIds");
+            nodeIds = new ArrayList<Long>(jsonNodeIds.length());
+            for(int i = 0; i < jsonNodeIds.length(); i++)
+            {
+                Long nodeId = jsonNodeIds.getLong(i);
+                nodeIds.add(nodeId);
+            }
+        }
+        
+        Long fromNodeId = o.has("fromNodeId") ? o.getLong("fromNodeId") : null;
+        Long toNodeId = o.has("toNodeId") ? o.getLong("toNodeId") : null;
+        
+        // 0 or Integer.MAX_VALUE => ignore
+        int maxResults = o.has("maxResults") ? o.getInt("maxResults") : 0;
+
+        NodeMetaDataParameters params = new NodeMetaDataParameters();
+        params.setNodeIds(nodeIds);
+        params.setFromNodeId(fromNodeId);
+        params.setToNodeId(toNodeId);
+        params.setMaxResults(maxResults);
+        return params;
+    }
+
+    /**
+     * Get the metadata to include from a metadata request; everything is included by default
+     */
+    static MetaDataResultsFilter getMetaDataResultsFilter(JSONObject o) throws JSONException
+    {
+        MetaDataResultsFilter filter = new MetaDataResultsFilter();
+        if(o.has("includeAclId"))
+        {
+            filter.setIncludeAclId(o.getBoolean("includeAclId"));
+        }
+        if(o.has("includeAspects"))
+        {
+            filter.setIncludeAspects(o.getBoolean("includeAspects"));
+        }
+        if(o.has("includeNodeRef"))
+        {
+            filter.setIncludeNodeRef(o.getBoolean("includeNodeRef"));
+        }
+        if(o.has("includeOwner"))
+        {
+            filter.setIncludeOwner(o.getBoolean("includeOwner"));
+        }
+        if(o.has("includeProperties"))
+        {
+            filter.setIncludeProperties(o.getBoolean("includeProperties"));
+        }
+        if(o.has("includePaths"))
+        {
+            filter.setIncludePaths(o.getBoolean("includePaths"));
+        }
+        if(o.has("includeType"))
+        {
+            filter.setIncludeType(o.getBoolean("includeType"));
+        }
+        if(o.has("includeParentAssociations"))
+        {
+            filter.setIncludeParentAssociations(o.getBoolean("includeParentAssociations"));
+        }
+        if(o.has("includeChildAssociations"))
+        {
+            filter.setIncludeChildAssociations(o.getBoolean("includeChildAssociations"));
+        }
+        if(o.has("includeChildIds"))
+        {
+            filter.setIncludeChildIds(o.getBoolean("includeChildIds"));
+        }
+        if(o.has("includeTxnId"))
+        {
+            filter.setIncludeTxnId(o.getBoolean("includeTxnId"));
+        }
+        return filter;
+    }
+
     /**
      * Bean to store node meta data for use by FreeMarker templates
      * 
@@ -418,7 +440,7 @@ public class NodesMetaDataGet extends DeclarativeWebScript
             this.txnId = txnId;
         }
         
-        private ArrayList<NodeRef> getAncestors(Path path)
+        static ArrayList<NodeRef> getAncestors(Path path)
         {
             ArrayList<NodeRef> ancestors = new ArrayList<NodeRef>(8);
             for (Iterator<Path.Element> elit = path.iterator(); elit.hasNext(); /**/)
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.repo.web.scripts.solr;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.repo.solr.MetaDataResultsFilter;
+import org.alfresco.repo.solr.NodeMetaData;
+import org.alfresco.repo.solr.NodeMetaDataParameters;
+import org.alfresco.repo.solr.SOLRTrackingComponent;
+import org.alfresco.repo.solr.SOLRTrackingComponent.NodeMetaDataQueryCallback;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.Path;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.util.Pair;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONWriter;
+import org.springframework.extensions.surf.util.Content;
+import org.springframework.extensions.webscripts.AbstractWebScript;
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptException;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+import org.springframework.extensions.webscripts.WebScriptResponse;
+
+/**
+ * Support for SOLR: Get metadata for nodes given IDs, ranges of IDs, etc.
+ * <p/>
+ * The request is the same as for {@link NodesMetaDataGet} and so is the JSON document returned,
+ * but each node is written to the response as soon as it has been retrieved rather than being
+ * collected and rendered by a template.  The memory used is therefore independent of the
+ * number of nodes returned.
+ *
+ * @since 4.0
+ */
+public class NodesMetaDataStreamGet extends AbstractWebScript
+{
+    protected static final Log logger = LogFactory.getLog(NodesMetaDataStreamGet.class);
+
+    private SOLRTrackingComponent solrTrackingComponent;
+    private SOLRSerializer solrSerializer;
+
+    public void setSolrTrackingComponent(SOLRTrackingComponent solrTrackingComponent)
+    {
+        this.solrTrackingComponent = solrTrackingComponent;
+    }
+
+    public void setSolrSerializer(SOLRSerializer solrSerializer)
+    {
+        this.solrSerializer = solrSerializer;
+    }
+
+    @Override
+    public void execute(WebScriptRequest req, WebScriptResponse res) throws IOException
+    {
+        NodeMetaDataParameters params;
+        final MetaDataResultsFilter filter;
+        try
+        {
+            Content content = req.getContent();
+            if(content == null)
+            {
+                throw new WebScriptException(Status.STATUS_BAD_REQUEST, "Missing POST body.");
+            }
+            JSONObject o = new JSONObject(content.getContent());
+            params = NodesMetaDataGet.getNodeMetaDataParameters(o);
+            filter = NodesMetaDataGet.getMetaDataResultsFilter(o);
+        }
+        catch(JSONException e)
+        {
+            throw new WebScriptException(Status.STATUS_BAD_REQUEST, "Invalid JSON", e);
+        }
+
+        res.setContentType("application/json");
+        res.setContentEncoding("UTF-8");
+        Writer writer = res.getWriter();
+        final JSONWriter jsonOut = new JSONWriter(writer);
+        try
+        {
+            jsonOut.object();
+            jsonOut.key("nodes");
+            jsonOut.array();
+
+            final int[] count = new int[] {0};
+            solrTrackingComponent.getNodesMetadata(params, filter, new NodeMetaDataQueryCallback()
+            {
+                @Override
+                public boolean handleNodeMetaData(NodeMetaData nodeMetaData)
+                {
+                    try
+                    {
+                        writeNodeMetaData(jsonOut, nodeMetaData, filter);
+                        count[0]++;
+                    }
+                    catch(Exception e)
+                    {
+                        throw new AlfrescoRuntimeException("Problem writing node metadata " + nodeMetaData.getNodeId(), e);
+                    }
+                    return true;
+                }
+            });
+
+            jsonOut.endArray();
+            jsonOut.endObject();
+
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Streamed metadata for " + count[0] + " nodes: \n\tRequest: " + req);
+            }
+        }
+        catch(JSONException e)
+        {
+            throw new WebScriptException("Failed to write JSON", e);
+        }
+        writer.flush();
+        res.setStatus(Status.STATUS_OK);
+    }
+
+    /**
+     * Write the metadata of one node in the form produced by the <tt>nodesMetaData.post.json.ftl</tt> template
+     */
+    private void writeNodeMetaData(JSONWriter jsonOut, NodeMetaData nodeMetaData, MetaDataResultsFilter filter) throws IOException, JSONException
+    {
+        jsonOut.object();
+        jsonOut.key("id").value(nodeMetaData.getNodeId().longValue());
+        if(filter.getIncludeNodeRef() && nodeMetaData.getNodeRef() != null)
+        {
+            jsonOut.key("nodeRef").value(nodeMetaData.getNodeRef().toString());
+        }
+        if(filter.getIncludeType() && nodeMetaData.getNodeType() != null)
+        {
+            jsonOut.key("type").value(solrSerializer.serializeValue(String.class, nodeMetaData.getNodeType()));
+        }
+        if(filter.getIncludeAclId() && nodeMetaData.getAclId() != null)
+        {
+            jsonOut.key("aclId").value(nodeMetaData.getAclId().longValue());
+        }
+        if(filter.getIncludeTxnId() && nodeMetaData.getTxnId() != null)
+        {
+            jsonOut.key("txnId").value(nodeMetaData.getTxnId().longValue());
+        }
+        Map<QName, Serializable> props = nodeMetaData.getProperties();
+        if(filter.getIncludeProperties() && props != null)
+        {
+            jsonOut.key("properties").object();
+            for(Map.Entry<QName, Serializable> entry : props.entrySet())
+            {
+                // The serialized value is already JSON
+                jsonOut.key(solrSerializer.serializeValue(String.class, entry.getKey()));
+                jsonOut.value(solrSerializer.serialize(entry.getKey(), entry.getValue()));
+            }
+            jsonOut.endObject();
+        }
+        Set<QName> aspects = nodeMetaData.getAspects();
+        if(filter.getIncludeAspects() && aspects != null)
+        {
+            jsonOut.key("aspects").array();
+            for(QName aspect : aspects)
+            {
+                jsonOut.value(solrSerializer.serializeValue(String.class, aspect));
+            }
+            jsonOut.endArray();
+        }
+        Collection<Pair<Path, QName>> paths = nodeMetaData.getPaths();
+        if(filter.getIncludePaths() && paths != null)
+        {
+            Set<String> ancestors = new HashSet<String>();
+            jsonOut.key("paths").array();
+            for(Pair<Path, QName> pair : paths)
+            {
+                jsonOut.object();
+                jsonOut.key("path").value(solrSerializer.serializeValue(String.class, pair.getFirst()));
+                if(pair.getSecond() != null)
+                {
+                    jsonOut.key("qname").value(solrSerializer.serializeValue(String.class, pair.getSecond()));
+                }
+                jsonOut.endObject();
+
+                for(NodeRef ancestor : NodesMetaDataGet.FreemarkerNodeMetaData.getAncestors(pair.getFirst()))
+                {
+                    ancestors.add(ancestor.toString());
+                }
+            }
+            jsonOut.endArray();
+            if(ancestors.size() > 0)
+            {
+                jsonOut.key("ancestors").array();
+                for(String ancestor : ancestors)
+                {
+                    jsonOut.value(ancestor);
+                }
+                jsonOut.endArray();
+            }
+        }
+        List<ChildAssociationRef> parentAssocs = nodeMetaData.getParentAssocs();
+        if(filter.getIncludeParentAssociations() && parentAssocs != null && parentAssocs.size() > 0)
+        {
+            writeAssocs(jsonOut, "parentAssocs", parentAssocs);
+            jsonOut.key("parentAssocsCrc");
+            if(nodeMetaData.getParentAssocsCrc() != null)
+            {
+                jsonOut.value(nodeMetaData.getParentAssocsCrc().longValue());
+            }
+            else
+            {
+                jsonOut.value(JSONObject.NULL);
+            }
+        }
+        List<ChildAssociationRef> childAssocs = nodeMetaData.getChildAssocs();
+        if(filter.getIncludeChildAssociations() && childAssocs != null && childAssocs.size() > 0)
+        {
+            writeAssocs(jsonOut, "childAssocs", childAssocs);
+        }
+        List<Long> childIds = nodeMetaData.getChildIds();
+        if(filter.getIncludeChildIds() && childIds != null && childIds.size() > 0)
+        {
+            jsonOut.key("childIds").array();
+            for(Long childId : childIds)
+            {
+                jsonOut.value(childId.longValue());
+            }
+            jsonOut.endArray();
+        }
+        if(filter.getIncludeOwner() && nodeMetaData.getOwner() != null)
+        {
+            jsonOut.key("owner").value(nodeMetaData.getOwner());
+        }
+        jsonOut.endObject();
+    }
+
+    private void writeAssocs(JSONWriter jsonOut, String key, List<ChildAssociationRef> assocs) throws JSONException
+    {
+        jsonOut.key(key).array();
+        for(ChildAssociationRef assoc : assocs)
+        {
+            jsonOut.value(assoc.toString());
+        }
+        jsonOut.endArray();
+    }
+}
@@ -1,11 +1,13 @@
 package org.alfresco.repo.web.scripts.solr;
 
+import org.json.JSONString;
+
 /**
- * Represents a property value to be used by Freemarker
+ * Represents a property value to be used by Freemarker or written directly as JSON
  * 
  * @since 4.0
  */
-class PropertyValue
+class PropertyValue implements JSONString
 {
     // is value actually a string or a JSON object or array
     // if true, enclose the value in double quotes (to represent a JSON string)
@@ -43,4 +45,12 @@ class PropertyValue
         }
         return sb.toString();
     }
+
+    /**
+     * The value is already in JSON form
+     */
+    public String toJSONString()
+    {
+        return toString();
+    }
 }
@@ -449,7 +449,12 @@ public class SOLRWebScriptTest extends BaseWebScriptTest
 
     private JSONArray getNodesMetaData(List<Long> nodeIds, int maxResults, int numMetaDataNodes) throws Exception
     {
-        StringBuilder url = new StringBuilder("/api/solr/metadata");
+        return getNodesMetaData("/api/solr/metadata", nodeIds, maxResults, numMetaDataNodes);
+    }
+
+    private JSONArray getNodesMetaData(String metaDataUrl, List<Long> nodeIds, int maxResults, int numMetaDataNodes) throws Exception
+    {
+        StringBuilder url = new StringBuilder(metaDataUrl);
 
         JSONObject json = new JSONObject();
         if(nodeIds != null && nodeIds.size() > 0)
@@ -653,6 +658,53 @@ public class SOLRWebScriptTest extends BaseWebScriptTest
         assertTrue("Expected author property", containsProperty(propertyMap, ContentModel.PROP_AUTHOR, "ste\"ve"));
     }
     
+    public void testNodeMetaDataStream() throws Exception
+    {
+        long fromCommitTime = System.currentTimeMillis();
+
+        buildTransactions7();
+
+        JSONArray transactions = getTransactions(fromCommitTime);
+        assertEquals("Number of transactions is incorrect", 1, transactions.length());
+
+        List<Long> transactionIds = getTransactionIds(transactions);
+
+        GetNodesParameters params = new GetNodesParameters();
+        params.setTransactionIds(transactionIds);
+        JSONArray nodes = getNodes(params, 0, 2);
+        
+        List<Long> nodeIds = new ArrayList<Long>(nodes.length());
+        for(int i = 0; i < nodes.length(); i++)
+        {
+            JSONObject node = nodes.getJSONObject(i);
+            nodeIds.add(node.getLong("id"));
+        }
+        
+        // The streamed metadata must match the templated metadata
+        JSONArray nodesMetaData = getNodesMetaData(nodeIds, 0, 2);
+        JSONArray streamedNodesMetaData = getNodesMetaData("/api/solr/metadata/stream", nodeIds, 0, 2);
+        for(int i = 0; i < nodesMetaData.length(); i++)
+        {
+            JSONObject node = nodesMetaData.getJSONObject(i);
+            JSONObject streamedNode = streamedNodesMetaData.getJSONObject(i);
+            assertEquals("Id is incorrect", node.getLong("id"), streamedNode.getLong("id"));
+            assertEquals("NodeRef is incorrect", node.getString("nodeRef"), streamedNode.getString("nodeRef"));
+            assertEquals("Type is incorrect", node.getString("type"), streamedNode.getString("type"));
+            assertEquals("Acl id is incorrect", node.getLong("aclId"), streamedNode.getLong("aclId"));
+            assertEquals("Txn id is incorrect", node.getLong("txnId"), streamedNode.getLong("txnId"));
+            assertEquals("Aspects are incorrect", node.getJSONArray("aspects").length(), streamedNode.getJSONArray("aspects").length());
+            assertEquals("Paths are incorrect", node.getJSONArray("paths").length(), streamedNode.getJSONArray("paths").length());
+            assertEquals("Properties are incorrect",
+                    getPropertyMap(node.getJSONObject("properties")),
+                    getPropertyMap(streamedNode.getJSONObject("properties")));
+        }
+
+        JSONObject node = streamedNodesMetaData.getJSONObject(1);
+        assertEquals("NodeRef is incorrect", contents.get(0), new NodeRef(node.getString("nodeRef")));
+        assertTrue("Expected author aspect", containsAspect(node.getJSONArray("aspects"), ContentModel.ASPECT_AUTHOR));
+        assertTrue("Expected author property", containsProperty(getPropertyMap(node.getJSONObject("properties")), ContentModel.PROP_AUTHOR, "ste\"ve"));
+    }
+    
 //    public void testNodeMetaDataManyNodes() throws Exception
 //    {
 //        long fromCommitTime = System.currentTimeMillis();
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.repo.benchmark;
+
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.util.ApplicationContextHelper;
+import org.springframework.context.ApplicationContext;
+
+/**
+ * Gives the benchmarks that need the database access to a single repository application context
+ * per benchmark JVM.  The context is the one used by the repository tests and so connects to the
+ * database given by the <b>db.*</b> properties of the build environment.
+ * 
+ * @author agent
+ * @since 4.0
+ */
+public class BenchmarkContext
+{
+    private BenchmarkContext()
+    {
+    }
+
+    /**
+     * @return              Returns the repository application context, starting it if necessary
+     */
+    public static ApplicationContext getApplicationContext()
+    {
+        return ApplicationContextHelper.getApplicationContext();
+    }
+
+    /**
+     * Runs the work as the system user in a new transaction, retrying as necessary
+     * 
+     * @param callback      the work to do
+     * @param readOnly      <tt>true</tt> for a read-only transaction
+     * @return              Returns the result of the callback
+     */
+    public static <R> R doInTransaction(RetryingTransactionCallback<R> callback, boolean readOnly)
+    {
+        return doInTransaction(callback, readOnly, AuthenticationUtil.getSystemUserName());
+    }
+
+    /**
+     * Runs the work as the given user in a new transaction, retrying as necessary
+     * 
+     * @param callback      the work to do
+     * @param readOnly      <tt>true</tt> for a read-only transaction
+     * @param userName      the user to run as
+     * @return              Returns the result of the callback
+     */
+    public static <R> R doInTransaction(
+            final RetryingTransactionCallback<R> callback,
+            final boolean readOnly,
+            String userName)
+    {
+        TransactionService transactionService = (TransactionService) getApplicationContext().getBean("transactionService");
+        final RetryingTransactionHelper txnHelper = transactionService.getRetryingTransactionHelper();
+        RunAsWork<R> work = new RunAsWork<R>()
+        {
+            public R doWork() throws Exception
+            {
+                return txnHelper.doInTransaction(callback, readOnly, true);
+            }
+        };
+        return AuthenticationUtil.runAs(work, userName);
+    }
+}
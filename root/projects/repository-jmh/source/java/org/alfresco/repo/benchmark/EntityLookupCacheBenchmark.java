@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.repo.benchmark;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.repo.cache.MemoryCache;
+import org.alfresco.repo.cache.lookup.EntityLookupCache;
+import org.alfresco.repo.cache.lookup.EntityLookupCache.EntityLookupCallbackDAOAdaptor;
+import org.alfresco.util.Pair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link EntityLookupCache} lookups by key and by value against an in-memory "database",
+ * so that only the cache overheads are included.
+ * 
+ * @author agent
+ * @since 4.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class EntityLookupCacheBenchmark
+{
+    private static final int ENTITY_COUNT = 10000;
+
+    private EntityLookupCache<Long, String, String> entityLookupCache;
+    private AtomicLong counter;
+
+    @Setup
+    public void setUp()
+    {
+        entityLookupCache = new EntityLookupCache<Long, String, String>(
+                new MemoryCache<Long, Object>(),
+                "Benchmark",
+                new InMemoryDAO());
+        for (int i = 0; i < ENTITY_COUNT; i++)
+        {
+            entityLookupCache.getOrCreateByValue("Value-" + i);
+        }
+        counter = new AtomicLong();
+    }
+
+    @Benchmark
+    public Pair<Long, String> getByKey()
+    {
+        return entityLookupCache.getByKey(Long.valueOf(counter.incrementAndGet() % ENTITY_COUNT + 1));
+    }
+
+    @Benchmark
+    public Pair<Long, String> getByValue()
+    {
+        return entityLookupCache.getByValue("Value-" + counter.incrementAndGet() % ENTITY_COUNT);
+    }
+
+    @Benchmark
+    public Pair<Long, String> getOrCreateByValue()
+    {
+        return entityLookupCache.getOrCreateByValue("Value-" + counter.incrementAndGet() % (ENTITY_COUNT * 2));
+    }
+
+    /**
+     * A two-way map standing in for the database table
+     */
+    private static class InMemoryDAO extends EntityLookupCallbackDAOAdaptor<Long, String, String>
+    {
+        private final Map<Long, String> valuesById = new ConcurrentHashMap<Long, String>();
+        private final Map<String, Long> idsByValue = new ConcurrentHashMap<String, Long>();
+        private final AtomicLong nextId = new AtomicLong();
+
+        @Override
+        public String getValueKey(String value)
+        {
+            return value;
+        }
+
+        public Pair<Long, String> findByKey(Long key)
+        {
+            String value = valuesById.get(key);
+            return value == null ? null : new Pair<Long, String>(key, value);
+        }
+
+        @Override
+        public Pair<Long, String> findByValue(String value)
+        {
+            Long id = idsByValue.get(value);
+            return id == null ? null : new Pair<Long, String>(id, value);
+        }
+
+        public synchronized Pair<Long, String> createValue(String value)
+        {
+            Long id = Long.valueOf(nextId.incrementAndGet());
+            valuesById.put(id, value);
+            idsByValue.put(value, id);
+            return new Pair<Long, String>(id, value);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.repo.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.repo.search.impl.parsers.FTSLexer;
+import org.alfresco.repo.search.impl.parsers.FTSParser;
+import org.antlr.runtime.ANTLRStringStream;
+import org.antlr.runtime.CommonTokenStream;
+import org.antlr.runtime.RecognitionException;
+import org.antlr.runtime.tree.CommonTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the parsing of full text search queries into trees by the {@link FTSParser}, in the same way
+ * as the <tt>FTSQueryParser</tt> does before building the query.
+ * 
+ * @author agent
+ * @since 4.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class FTSParserBenchmark
+{
+    /** The query to parse */
+    @Param({
+        "woof",
+        "cm:name:\"alfresco*\" AND TYPE:\"cm:content\"",
+        "(cm:title:(big OR small) AND -cm:description:lazy) OR cm:created:[\"2010-01-01\" TO NOW] AND ~cm:name:'a b c'^2"
+    })
+    public String query;
+
+    @Benchmark
+    public CommonTree parse() throws RecognitionException
+    {
+        FTSLexer lexer = new FTSLexer(new ANTLRStringStream(query));
+        FTSParser parser = new FTSParser(new CommonTokenStream(lexer));
+        parser.setMode(FTSParser.Mode.DEFAULT_CONJUNCTION);
+        parser.setDefaultFieldConjunction(true);
+        return (CommonTree) parser.ftsQuery().getTree();
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.repo.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.repo.content.ContentContext;
+import org.alfresco.repo.content.filestore.FileContentStore;
+import org.alfresco.service.cmr.repository.ContentWriter;
+import org.alfresco.util.GUID;
+import org.alfresco.util.TempFileProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.support.StaticApplicationContext;
+
+/**
+ * Measures the writing and reading of binaries by a {@link FileContentStore} in a temporary directory.
+ * Binaries written during an iteration are deleted at the end of the iteration.
+ * 
+ * @author agent
+ * @since 4.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class FileContentStoreBenchmark
+{
+    /** The size of each binary in bytes */
+    @Param({"1024", "1048576"})
+    public int size;
+
+    private FileContentStore store;
+    private byte[] content;
+    private byte[] buffer;
+    private String readUrl;
+    private List<String> writtenUrls;
+
+    @Setup
+    public void setUp()
+    {
+        StaticApplicationContext ctx = new StaticApplicationContext();
+        ctx.refresh();
+        File rootDir = new File(TempFileProvider.getTempDir(), getClass().getSimpleName() + "-" + GUID.generate());
+        store = new FileContentStore(ctx, rootDir);
+
+        content = new byte[size];
+        new Random(42L).nextBytes(content);
+        buffer = new byte[8192];
+        readUrl = write();
+        writtenUrls = new ArrayList<String>();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        store.delete(readUrl);
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteWritten()
+    {
+        for (String contentUrl : writtenUrls)
+        {
+            store.delete(contentUrl);
+        }
+        writtenUrls.clear();
+    }
+
+    private String write()
+    {
+        ContentWriter writer = store.getWriter(ContentContext.NULL_CONTEXT);
+        writer.putContent(new ByteArrayInputStream(content));
+        return writer.getContentUrl();
+    }
+
+    @Benchmark
+    public String writeContent()
+    {
+        String contentUrl = write();
+        writtenUrls.add(contentUrl);
+        return contentUrl;
+    }
+
+    @Benchmark
+    public long readContent() throws IOException
+    {
+        long total = 0L;
+        InputStream is = store.getReader(readUrl).getContentInputStream();
+        try
+        {
+            int read;
+            while ((read = is.read(buffer)) > 0)
+            {
+                total += read;
+            }
+        }
+        finally
+        {
+            is.close();
+        }
+        return total;
+    }
+}
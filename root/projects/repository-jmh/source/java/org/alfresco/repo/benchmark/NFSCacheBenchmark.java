@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.repo.benchmark;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.jlan.oncrpc.nfs.FileIdCache;
+import org.alfresco.jlan.oncrpc.nfs.NetworkFileCache;
+import org.alfresco.jlan.server.filesys.NetworkFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Replays a mix of NFS operations against the NFS server's {@link FileIdCache file id cache} and
+ * {@link NetworkFileCache open file cache} from several threads, as a parallel build over an NFS mount does.
+ * Only the cache lookups and updates made for each operation are included, not the RPC or filesystem work.
+ * <p>
+ * The operation trace is generated up front from a fixed seed, so each run replays the same operations.
+ * Each thread starts at a different point in the trace.  Most operations use a small set of hot files.
+ * 
+ * @author agent
+ * @since 4.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Threads(8)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class NFSCacheBenchmark
+{
+    private static final int TRACE_LENGTH = 1 << 16;
+    private static final int FILE_COUNT = 100000;
+    private static final int HOT_FILE_COUNT = 512;
+
+    private static final int OP_GETATTR = 0;
+    private static final int OP_LOOKUP = 1;
+    private static final int OP_READ = 2;
+    private static final int OP_WRITE = 3;
+    private static final int OP_REMOVE = 4;
+
+    /** Operation mix in percent, in the order GETATTR, LOOKUP, READ, WRITE and REMOVE */
+    private static final int[] OP_MIX = {40, 25, 20, 13, 2};
+
+    /** The maximum number of file id to path mappings, 0 for an unbounded cache */
+    @Param({"0", "16384"})
+    public int idCacheSize;
+
+    private FileIdCache idCache;
+    private NetworkFileCache fileCache;
+    private int[] traceOps;
+    private int[] traceIds;
+
+    /**
+     * The position of a thread in the operation trace
+     */
+    @State(Scope.Thread)
+    public static class TraceCursor
+    {
+        private static int nextStart;
+
+        private int position;
+
+        @Setup
+        public void setUp()
+        {
+            synchronized (TraceCursor.class)
+            {
+                position = nextStart;
+                nextStart += TRACE_LENGTH / 8 + 1;
+            }
+        }
+
+        private int next()
+        {
+            position = (position + 1) & (TRACE_LENGTH - 1);
+            return position;
+        }
+    }
+
+    @Setup
+    public void setUp()
+    {
+        idCache = new FileIdCache(idCacheSize);
+        fileCache = new NetworkFileCache("benchmark", HOT_FILE_COUNT * 2);
+        // Keep the files open for the whole run
+        fileCache.setIOTimer(TimeUnit.HOURS.toMillis(1L));
+
+        for (int i = 0; i < FILE_COUNT; i++)
+        {
+            idCache.addPath(i, pathFor(i));
+        }
+
+        // Build the trace.  Reads and writes use the hot files, which stay open, as do 80% of the other operations
+        Random random = new Random(42L);
+        traceOps = new int[TRACE_LENGTH];
+        traceIds = new int[TRACE_LENGTH];
+        for (int i = 0; i < TRACE_LENGTH; i++)
+        {
+            int op = 0;
+            int pick = random.nextInt(100);
+            while (pick >= OP_MIX[op])
+            {
+                pick -= OP_MIX[op];
+                op++;
+            }
+            traceOps[i] = op;
+            boolean hot = (op == OP_READ || op == OP_WRITE || random.nextInt(100) < 80);
+            traceIds[i] = hot ? random.nextInt(HOT_FILE_COUNT) : random.nextInt(FILE_COUNT);
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        fileCache.closeAllFiles();
+    }
+
+    @Benchmark
+    public Object replay(TraceCursor cursor)
+    {
+        int pos = cursor.next();
+        int fileId = traceIds[pos];
+        switch (traceOps[pos])
+        {
+        case OP_GETATTR:
+            return idCache.findPath(fileId);
+        case OP_LOOKUP:
+            String path = idCache.findPath(fileId);
+            if (path == null)
+            {
+                path = pathFor(fileId);
+                idCache.addPath(fileId, path);
+            }
+            return path;
+        case OP_READ:
+        case OP_WRITE:
+            NetworkFile file = fileCache.findFile(fileId, null);
+            if (file == null)
+            {
+                file = new BenchmarkFile(fileId);
+                fileCache.addFile(file, null, null);
+            }
+            return file;
+        default:
+            // OP_REMOVE
+            idCache.deletePath(fileId);
+            fileCache.removeFile(fileId);
+            return null;
+        }
+    }
+
+    private static String pathFor(int fileId)
+    {
+        return "\\dir" + (fileId / 100) + "\\file" + fileId + ".c";
+    }
+
+    /**
+     * A network file that does no I/O
+     */
+    private static class BenchmarkFile extends NetworkFile
+    {
+        private BenchmarkFile(int fileId)
+        {
+            super(fileId);
+            setFullName(pathFor(fileId));
+        }
+
+        @Override
+        public void openFile(boolean createFlag) throws IOException
+        {
+        }
+
+        @Override
+        public int readFile(byte[] buf, int len, int pos, long fileOff) throws IOException
+        {
+            return 0;
+        }
+
+        @Override
+        public void writeFile(byte[] buf, int len, int pos, long fileOff) throws IOException
+        {
+        }
+
+        @Override
+        public long seekFile(long pos, int typ) throws IOException
+        {
+            return pos;
+        }
+
+        @Override
+        public void flushFile() throws IOException
+        {
+        }
+
+        @Override
+        public void truncateFile(long siz) throws IOException
+        {
+        }
+
+        @Override
+        public void closeFile() throws IOException
+        {
+            setClosed(true);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.repo.benchmark;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.domain.node.NodeDAO;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.util.GUID;
+import org.alfresco.util.Pair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ApplicationContext;
+
+/**
+ * Measures the {@link NodeDAO} node creation, lookup and property calls in a store of its own.
+ * Each benchmark invocation is one transaction of several operations and the figures are given
+ * per operation.
+ * 
+ * @see BenchmarkContext
+ * 
+ * @author agent
+ * @since 4.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class NodeDAOBenchmark
+{
+    private static final int NODE_COUNT = 1000;
+    private static final int READS_PER_TXN = 100;
+    private static final int WRITES_PER_TXN = 10;
+    private static final QName PROP_VALUE = QName.createQName("http://www.alfresco.org/model/benchmark/1.0", "value");
+
+    private NodeDAO nodeDAO;
+    private NodeService nodeService;
+    private StoreRef storeRef;
+    private Long rootNodeId;
+    private List<NodeRef> nodeRefs;
+    private List<Long> nodeIds;
+    private int counter;
+
+    @Setup
+    public void setUp()
+    {
+        ApplicationContext ctx = BenchmarkContext.getApplicationContext();
+        nodeDAO = (NodeDAO) ctx.getBean("nodeDAO");
+        nodeService = (NodeService) ctx.getBean("nodeService");
+        nodeRefs = new ArrayList<NodeRef>(NODE_COUNT);
+        nodeIds = new ArrayList<Long>(NODE_COUNT);
+        RetryingTransactionCallback<Void> setUpCallback = new RetryingTransactionCallback<Void>()
+        {
+            public Void execute() throws Throwable
+            {
+                storeRef = nodeService.createStore(StoreRef.PROTOCOL_WORKSPACE, "NodeDAOBenchmark-" + GUID.generate());
+                rootNodeId = nodeDAO.getRootNode(storeRef).getFirst();
+                for (int i = 0; i < NODE_COUNT; i++)
+                {
+                    Pair<Long, NodeRef> nodePair = createNode();
+                    nodeDAO.addNodeProperties(nodePair.getFirst(), Collections.<QName, Serializable>singletonMap(PROP_VALUE, "Value-" + i));
+                    nodeIds.add(nodePair.getFirst());
+                    nodeRefs.add(nodePair.getSecond());
+                }
+                return null;
+            }
+        };
+        BenchmarkContext.doInTransaction(setUpCallback, false);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        RetryingTransactionCallback<Void> tearDownCallback = new RetryingTransactionCallback<Void>()
+        {
+            public Void execute() throws Throwable
+            {
+                nodeService.deleteStore(storeRef);
+                return null;
+            }
+        };
+        BenchmarkContext.doInTransaction(tearDownCallback, false);
+    }
+
+    private Pair<Long, NodeRef> createNode()
+    {
+        return nodeDAO.newNode(
+                rootNodeId,
+                ContentModel.ASSOC_CHILDREN,
+                QName.createQName(NamespaceService.SYSTEM_MODEL_1_0_URI, GUID.generate()),
+                storeRef,
+                null,
+                ContentModel.TYPE_CONTAINER,
+                Locale.ENGLISH,
+                null,
+                null).getChildNode().getNodePair();
+    }
+
+    private synchronized int nextIndex()
+    {
+        counter = (counter + 1) % NODE_COUNT;
+        return counter;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WRITES_PER_TXN)
+    public void newNode()
+    {
+        RetryingTransactionCallback<Void> callback = new RetryingTransactionCallback<Void>()
+        {
+            public Void execute() throws Throwable
+            {
+                for (int i = 0; i < WRITES_PER_TXN; i++)
+                {
+                    createNode();
+                }
+                return null;
+            }
+        };
+        BenchmarkContext.doInTransaction(callback, false);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(READS_PER_TXN)
+    public void getNodePair()
+    {
+        RetryingTransactionCallback<Void> callback = new RetryingTransactionCallback<Void>()
+        {
+            public Void execute() throws Throwable
+            {
+                for (int i = 0; i < READS_PER_TXN; i++)
+                {
+                    nodeDAO.getNodePair(nodeRefs.get(nextIndex()));
+                }
+                return null;
+            }
+        };
+        BenchmarkContext.doInTransaction(callback, true);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(READS_PER_TXN)
+    public void getNodeProperties()
+    {
+        RetryingTransactionCallback<Void> callback = new RetryingTransactionCallback<Void>()
+        {
+            public Void execute() throws Throwable
+            {
+                for (int i = 0; i < READS_PER_TXN; i++)
+                {
+                    Map<QName, Serializable> properties = nodeDAO.getNodeProperties(nodeIds.get(nextIndex()));
+                    if (properties.get(PROP_VALUE) == null)
+                    {
+                        throw new IllegalStateException("Benchmark property not found");
+                    }
+                }
+                return null;
+            }
+        };
+        BenchmarkContext.doInTransaction(callback, true);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WRITES_PER_TXN)
+    public void addNodeProperties()
+    {
+        RetryingTransactionCallback<Void> callback = new RetryingTransactionCallback<Void>()
+        {
+            public Void execute() throws Throwable
+            {
+                for (int i = 0; i < WRITES_PER_TXN; i++)
+                {
+                    nodeDAO.addNodeProperties(
+                            nodeIds.get(nextIndex()),
+                            Collections.<QName, Serializable>singletonMap(PROP_VALUE, GUID.generate()));
+                }
+                return null;
+            }
+        };
+        BenchmarkContext.doInTransaction(callback, false);
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.repo.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.security.AccessStatus;
+import org.alfresco.service.cmr.security.PermissionService;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.util.GUID;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ApplicationContext;
+
+/**
+ * Measures <tt>PermissionServiceImpl.hasPermission</tt> for a user that has been given the
+ * <b>Consumer</b> role on a folder of documents, checking both an allowed and a denied permission.
+ * Each benchmark invocation is one read-only transaction of several checks and the figures are given
+ * per check.
+ * 
+ * @see BenchmarkContext
+ * 
+ * @author agent
+ * @since 4.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class PermissionServiceBenchmark
+{
+    private static final int DOCUMENT_COUNT = 100;
+    private static final int CHECKS_PER_TXN = 100;
+
+    private PermissionService permissionService;
+    private NodeService nodeService;
+    private StoreRef storeRef;
+    private String userName;
+    private List<NodeRef> documentRefs;
+    private int counter;
+
+    @Setup
+    public void setUp()
+    {
+        ApplicationContext ctx = BenchmarkContext.getApplicationContext();
+        permissionService = (PermissionService) ctx.getBean("permissionServiceImpl");
+        nodeService = (NodeService) ctx.getBean("nodeService");
+        userName = "PermissionServiceBenchmark-" + GUID.generate();
+        documentRefs = new ArrayList<NodeRef>(DOCUMENT_COUNT);
+        RetryingTransactionCallback<Void> setUpCallback = new RetryingTransactionCallback<Void>()
+        {
+            public Void execute() throws Throwable
+            {
+                storeRef = nodeService.createStore(StoreRef.PROTOCOL_WORKSPACE, "PermissionServiceBenchmark-" + GUID.generate());
+                NodeRef rootNodeRef = nodeService.getRootNode(storeRef);
+                NodeRef folderRef = nodeService.createNode(
+                        rootNodeRef,
+                        ContentModel.ASSOC_CHILDREN,
+                        QName.createQName(NamespaceService.CONTENT_MODEL_1_0_URI, "folder"),
+                        ContentModel.TYPE_FOLDER).getChildRef();
+                permissionService.setInheritParentPermissions(folderRef, false);
+                permissionService.setPermission(folderRef, userName, PermissionService.CONSUMER, true);
+                for (int i = 0; i < DOCUMENT_COUNT; i++)
+                {
+                    NodeRef documentRef = nodeService.createNode(
+                            folderRef,
+                            ContentModel.ASSOC_CONTAINS,
+                            QName.createQName(NamespaceService.CONTENT_MODEL_1_0_URI, "document-" + i),
+                            ContentModel.TYPE_CONTENT).getChildRef();
+                    documentRefs.add(documentRef);
+                }
+                return null;
+            }
+        };
+        BenchmarkContext.doInTransaction(setUpCallback, false);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        RetryingTransactionCallback<Void> tearDownCallback = new RetryingTransactionCallback<Void>()
+        {
+            public Void execute() throws Throwable
+            {
+                nodeService.deleteStore(storeRef);
+                return null;
+            }
+        };
+        BenchmarkContext.doInTransaction(tearDownCallback, false);
+    }
+
+    private synchronized int nextIndex()
+    {
+        counter = (counter + 1) % DOCUMENT_COUNT;
+        return counter;
+    }
+
+    private void checkPermission(final String permission, final AccessStatus expected)
+    {
+        RetryingTransactionCallback<Void> callback = new RetryingTransactionCallback<Void>()
+        {
+            public Void execute() throws Throwable
+            {
+                for (int i = 0; i < CHECKS_PER_TXN; i++)
+                {
+                    AccessStatus status = permissionService.hasPermission(documentRefs.get(nextIndex()), permission);
+                    if (status != expected)
+                    {
+                        throw new IllegalStateException("Expected " + expected + " for " + permission + " but got " + status);
+                    }
+                }
+                return null;
+            }
+        };
+        BenchmarkContext.doInTransaction(callback, true, userName);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CHECKS_PER_TXN)
+    public void hasPermissionAllowed()
+    {
+        checkPermission(PermissionService.READ, AccessStatus.ALLOWED);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CHECKS_PER_TXN)
+    public void hasPermissionDenied()
+    {
+        checkPermission(PermissionService.WRITE, AccessStatus.DENIED);
+    }
+}
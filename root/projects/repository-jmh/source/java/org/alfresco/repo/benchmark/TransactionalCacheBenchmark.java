@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.repo.benchmark;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.repo.cache.MemoryCache;
+import org.alfresco.repo.cache.SimpleCache;
+import org.alfresco.repo.cache.TransactionalCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+/**
+ * Measures a {@link TransactionalCache} transaction: reads and writes of a number of entries followed
+ * by the commit or rollback.  As in the <tt>TransactionalCachePerformanceTester</tt>, the transactions
+ * are simulated by driving the Spring transaction synchronizations directly, so the figures only include
+ * the cache and transaction-listener overheads.
+ * 
+ * @author agent
+ * @since 4.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class TransactionalCacheBenchmark
+{
+    private static final int KEY_SPACE = 10000;
+
+    /** The number of entries read and written in each transaction */
+    @Param({"10", "100"})
+    public int entriesPerTxn;
+
+    private TransactionalCache<Serializable, Object> cache;
+    private int txn;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        SimpleCache<Serializable, Object> sharedCache = new MemoryCache<Serializable, Object>();
+        for (int i = 0; i < KEY_SPACE; i++)
+        {
+            sharedCache.put(Integer.valueOf(i), Integer.valueOf(i));
+        }
+        cache = new TransactionalCache<Serializable, Object>();
+        cache.setName("benchmarkCache");
+        cache.setSharedCache(sharedCache);
+        cache.setMaxCacheSize(entriesPerTxn * 2);
+        cache.afterPropertiesSet();
+    }
+
+    @Benchmark
+    public void getCommit(Blackhole blackhole)
+    {
+        int base = nextBase();
+        TransactionSynchronizationManager.initSynchronization();
+        try
+        {
+            for (int i = 0; i < entriesPerTxn; i++)
+            {
+                blackhole.consume(cache.get(Integer.valueOf((base + i) % KEY_SPACE)));
+            }
+            complete(true);
+        }
+        finally
+        {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Benchmark
+    public void putGetCommit(Blackhole blackhole)
+    {
+        int base = nextBase();
+        TransactionSynchronizationManager.initSynchronization();
+        try
+        {
+            for (int i = 0; i < entriesPerTxn; i++)
+            {
+                Integer key = Integer.valueOf((base + i) % KEY_SPACE);
+                cache.put(key, Integer.valueOf(txn));
+                blackhole.consume(cache.get(key));
+            }
+            complete(true);
+        }
+        finally
+        {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Benchmark
+    public void putRollback()
+    {
+        int base = nextBase();
+        TransactionSynchronizationManager.initSynchronization();
+        try
+        {
+            for (int i = 0; i < entriesPerTxn; i++)
+            {
+                cache.put(Integer.valueOf((base + i) % KEY_SPACE), Integer.valueOf(txn));
+            }
+            complete(false);
+        }
+        finally
+        {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    private int nextBase()
+    {
+        txn++;
+        return (txn * entriesPerTxn) % KEY_SPACE;
+    }
+
+    private void complete(boolean commit)
+    {
+        if (commit)
+        {
+            TransactionSynchronizationUtils.triggerBeforeCommit(false);
+        }
+        TransactionSynchronizationUtils.triggerBeforeCompletion();
+        if (commit)
+        {
+            TransactionSynchronizationUtils.triggerAfterCommit();
+        }
+        TransactionSynchronizationUtils.triggerAfterCompletion(commit
+                ? TransactionSynchronization.STATUS_COMMITTED
+                : TransactionSynchronization.STATUS_ROLLED_BACK);
+    }
+}
@@ -0,0 +1,28 @@
+--
+-- Title:      Content URL hash tables
+-- Database:   MySQL InnoDB
+-- Since:      V4.0 Schema 5020
+--
+-- Please contact support@alfresco.com if you need assistance with the upgrade.
+--
+
+CREATE TABLE alf_content_url_hash
+(
+   content_url_id BIGINT NOT NULL,
+   content_hash VARCHAR(64) NOT NULL,
+   PRIMARY KEY (content_url_id),
+   INDEX idx_alf_conthash_hs (content_hash),
+   CONSTRAINT fk_alf_cont_hash_url FOREIGN KEY (content_url_id) REFERENCES alf_content_url (id) ON DELETE CASCADE
+) ENGINE=InnoDB;
+
+--
+-- Record script finish
+--
+DELETE FROM alf_applied_patch WHERE id = 'patch.db-V4.0-ContentUrlHashTables';
+INSERT INTO alf_applied_patch
+  (id, description, fixes_from_schema, fixes_to_schema, applied_to_schema, target_schema, applied_on_date, applied_to_server, was_executed, succeeded, report)
+  VALUES
+  (
+    'patch.db-V4.0-ContentUrlHashTables', 'Manually executed script upgrade V4.0: Content URL Hash Tables',
+    0, 5019, -1, 5020, null, 'UNKNOWN', ${TRUE}, ${TRUE}, 'Script completed'
+  );
\ No newline at end of file
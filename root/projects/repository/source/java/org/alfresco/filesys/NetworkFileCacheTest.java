@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.filesys;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.alfresco.jlan.oncrpc.Rpc;
+import org.alfresco.jlan.oncrpc.RpcAuthenticator;
+import org.alfresco.jlan.oncrpc.RpcPacket;
+import org.alfresco.jlan.oncrpc.nfs.NFSSrvSession;
+import org.alfresco.jlan.oncrpc.nfs.NetworkFileCache;
+import org.alfresco.jlan.server.SrvSession;
+import org.alfresco.jlan.server.auth.ClientInfo;
+import org.alfresco.jlan.server.config.ServerConfiguration;
+import org.alfresco.jlan.server.filesys.DiskInterface;
+import org.alfresco.jlan.server.filesys.DiskSharedDevice;
+import org.alfresco.jlan.server.filesys.FileStatus;
+import org.alfresco.jlan.server.filesys.NetworkFile;
+import org.alfresco.jlan.server.filesys.TreeConnection;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.extensions.config.ConfigElement;
+
+/**
+ * Checks that files evicted from a full NFS {@link NetworkFileCache} are closed as their session's user, without
+ * changing the user of the NFS request that opened more files.
+ *
+ * @author agent
+ * @since 4.0
+ */
+public class NetworkFileCacheTest
+{
+    private static final int MAX_FILES = 16;
+
+    private ThreadLocalAuthenticator authenticator;
+    private ClientInfo fileUser;
+    private NFSSrvSession sess;
+    private TreeConnection conn;
+    private NetworkFileCache fileCache;
+
+    private final AtomicInteger closedFiles = new AtomicInteger();
+    private final Set<Thread> closingThreads = Collections.synchronizedSet(new HashSet<Thread>());
+    private final AtomicInteger closedAsOtherUser = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        authenticator = new ThreadLocalAuthenticator();
+        fileUser = ClientInfo.createInfo("fileUser", null);
+        sess = new NFSSrvSession(null, InetAddress.getByName("127.0.0.1"), 1023, Rpc.TCP);
+        sess.setNFSClientInformation(fileUser);
+
+        DiskInterface disk = mock(DiskInterface.class);
+        when(disk.fileExists(any(SrvSession.class), any(TreeConnection.class), anyString())).thenReturn(FileStatus.FileExists);
+        doAnswer(new Answer<Void>()
+        {
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                closingThreads.add(Thread.currentThread());
+                if (authenticator.getCurrentUser() != fileUser)
+                {
+                    closedAsOtherUser.incrementAndGet();
+                }
+                closedFiles.incrementAndGet();
+                return null;
+            }
+        }).when(disk).closeFile(any(SrvSession.class), any(TreeConnection.class), any(NetworkFile.class));
+        conn = new TreeConnection(new DiskSharedDevice("test", disk, null));
+
+        fileCache = new NetworkFileCache("test", MAX_FILES);
+        fileCache.setRpcAuthenticator(authenticator);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        fileCache.closeAllFiles();
+    }
+
+    @Test
+    public void evictionKeepsTheRequestUser() throws Exception
+    {
+        // The NFS request runs as the user it was authenticated as
+        ClientInfo requestUser = ClientInfo.createInfo("requestUser", null);
+        authenticator.setCurrentUser(sess, requestUser);
+
+        int fileCount = MAX_FILES * 4;
+        for (int i = 1; i <= fileCount; i++)
+        {
+            fileCache.addFile(new TestNetworkFile(i), conn, sess);
+            assertSame("Eviction changed the user of the request", requestUser, authenticator.getCurrentUser());
+        }
+
+        long evictions = fileCache.getStatistics().getEvictions();
+        assertTrue("Files must have been evicted", evictions >= fileCount - MAX_FILES);
+        long waitUntil = System.currentTimeMillis() + 10000L;
+        while (closedFiles.get() < evictions && System.currentTimeMillis() < waitUntil)
+        {
+            Thread.sleep(10L);
+        }
+        assertEquals(evictions, closedFiles.get());
+        assertEquals("Evicted files must be closed as the user of their session", 0, closedAsOtherUser.get());
+        assertTrue(closingThreads.size() > 0);
+        for (Thread thread : closingThreads)
+        {
+            assertNotSame("Evicted files must not be closed by the request", Thread.currentThread(), thread);
+        }
+    }
+
+    /**
+     * Keeps the current user per thread, as the repository's authenticator does
+     */
+    private static class ThreadLocalAuthenticator implements RpcAuthenticator
+    {
+        private final ThreadLocal<ClientInfo> currentUser = new ThreadLocal<ClientInfo>();
+
+        private ClientInfo getCurrentUser()
+        {
+            return currentUser.get();
+        }
+
+        public void setCurrentUser(SrvSession sess, ClientInfo client)
+        {
+            currentUser.set(client);
+        }
+
+        public void initialize(ServerConfiguration config, ConfigElement params)
+        {
+        }
+
+        public Object authenticateRpcClient(int authType, RpcPacket rpc)
+        {
+            return null;
+        }
+
+        public ClientInfo getRpcClientInformation(Object sessKey, RpcPacket rpc)
+        {
+            return null;
+        }
+
+        public int[] getRpcAuthenticationTypes()
+        {
+            return new int[0];
+        }
+    }
+
+    /**
+     * Open network file that does no I/O
+     */
+    private static class TestNetworkFile extends NetworkFile
+    {
+        private TestNetworkFile(int fid)
+        {
+            super(fid);
+            setFullName("\\file" + fid);
+            setClosed(false);
+        }
+
+        public void openFile(boolean createFlag) throws IOException
+        {
+        }
+
+        public int readFile(byte[] buf, int len, int pos, long fileOff) throws IOException
+        {
+            return 0;
+        }
+
+        public void writeFile(byte[] buf, int len, int pos, long fileOff) throws IOException
+        {
+        }
+
+        public long seekFile(long pos, int typ) throws IOException
+        {
+            return pos;
+        }
+
+        public void flushFile() throws IOException
+        {
+        }
+
+        public void truncateFile(long siz) throws IOException
+        {
+        }
+
+        public void closeFile() throws IOException
+        {
+        }
+    }
+}
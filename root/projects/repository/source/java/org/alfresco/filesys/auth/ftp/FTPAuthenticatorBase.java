@@ -164,6 +164,33 @@ public abstract class FTPAuthenticatorBase implements FTPAuthenticator, Activate
 	 */
 	public abstract boolean authenticateUser(ClientInfo info, FTPSrvSession sess);
 
+	/**
+	 * Set the current authenticated user context for this thread
+	 * 
+	 * @param client ClientInfo or null to clear the context
+	 */
+	public void setCurrentUser(ClientInfo client)
+	{
+	    if ( client == null)
+	    {
+	        // Clear the authentication, the session is not logged on
+	        
+	        getAuthenticationComponent().clearCurrentSecurityContext();
+	    }
+	    else if ( client.isGuest())
+	    {
+	        // Enable guest access for the request
+	        
+	        getAuthenticationComponent().setGuestUserAsCurrentUser();
+	    }
+	    else
+	    {
+	        // Run the request as the logged on user
+	        
+	        getAuthenticationComponent().setCurrentUser(client.getUserName());
+	    }
+	}
+
 	/**
 	 * Close the authenticator, perform any cleanup
 	 */
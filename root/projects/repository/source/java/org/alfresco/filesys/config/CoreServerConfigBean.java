@@ -40,6 +40,12 @@ public class CoreServerConfigBean
     /** The memory packet sizes. */
     private List<MemoryPacketConfigBean> memoryPacketSizes;
 
+    /** Use pooled direct buffers for socket channel I/O. */
+    private boolean directBuffers;
+
+    /** The direct buffer pool debug. */
+    private boolean directBuffersDebug;
+
     /**
      * Gets the thread pool init.
      * 
@@ -123,4 +129,46 @@ public class CoreServerConfigBean
     {
         this.memoryPacketSizes = memoryPacketSizes;
     }
+
+    /**
+     * Checks if socket channel I/O uses pooled direct buffers.
+     * 
+     * @return true, if direct buffers are enabled
+     */
+    public boolean getDirectBuffers()
+    {
+        return directBuffers;
+    }
+
+    /**
+     * Enables pooled direct buffers for socket channel I/O, using the memory packet sizes.
+     * 
+     * @param directBuffers
+     *            the new direct buffers setting
+     */
+    public void setDirectBuffers(boolean directBuffers)
+    {
+        this.directBuffers = directBuffers;
+    }
+
+    /**
+     * Checks if direct buffer pool debug is enabled.
+     * 
+     * @return true, if direct buffer pool debug is enabled
+     */
+    public boolean getDirectBuffersDebug()
+    {
+        return directBuffersDebug;
+    }
+
+    /**
+     * Sets the direct buffer pool debug, which tracks outstanding buffers to report leaks.
+     * 
+     * @param directBuffersDebug
+     *            the new direct buffers debug
+     */
+    public void setDirectBuffersDebug(boolean directBuffersDebug)
+    {
+        this.directBuffersDebug = directBuffersDebug;
+    }
 }
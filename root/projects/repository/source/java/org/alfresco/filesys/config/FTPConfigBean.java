@@ -19,6 +19,7 @@
 package org.alfresco.filesys.config;
 
 import org.alfresco.jlan.ftp.FTPAuthenticator;
+import org.alfresco.jlan.ftp.FTPConfigSection;
 
 // TODO: Auto-generated Javadoc
 /**
@@ -78,6 +79,14 @@ public class FTPConfigBean
     
     private boolean m_sslDebug;
     
+    // Use NIO socket channels and the core thread pool for the FTP sessions
+    
+    private boolean m_nioEnabled;
+    
+    // Number of threads used by NIO sessions for data transfers
+    
+    private int m_nioDataThreads = FTPConfigSection.DefaultNIODataThreads;
+    
     /**
      * Checks if is server enabled.
      * 
@@ -392,4 +401,40 @@ public class FTPConfigBean
     public final void setSslEngineDebug( boolean sslDebug) {
     	m_sslDebug = sslDebug;
     }
+    
+    /**
+     * Determine if the FTP sessions should be handled using NIO socket channels
+     * 
+     * @return boolean
+     */
+    public final boolean hasNioEnabled() {
+    	return m_nioEnabled;
+    }
+    
+    /**
+     * Enable/disable the NIO FTP session handling
+     * 
+     * @param nioEnabled boolean
+     */
+    public final void setNioEnabled( boolean nioEnabled) {
+    	m_nioEnabled = nioEnabled;
+    }
+    
+    /**
+     * Return the number of threads used by NIO sessions for data transfers
+     * 
+     * @return int
+     */
+    public final int getNioDataThreads() {
+    	return m_nioDataThreads;
+    }
+    
+    /**
+     * Set the number of threads used by NIO sessions for data transfers, zero to use the core thread pool
+     * 
+     * @param nioDataThreads int
+     */
+    public final void setNioDataThreads( int nioDataThreads) {
+    	m_nioDataThreads = nioDataThreads;
+    }
 }
@@ -41,6 +41,9 @@ public class NFSConfigBean
     /** The packet pool. */
     private Integer packetPool;
 
+    /** The number of NIO threads for the TCP connections. */
+    private Integer nioThreads;
+
     /** The port mapper port. */
     private Integer portMapperPort;
 
@@ -149,6 +152,27 @@ public class NFSConfigBean
         this.packetPool = packetPool;
     }
 
+    /**
+     * Gets the number of NIO threads used to handle the TCP connections.
+     * 
+     * @return the number of NIO threads, zero to use a thread per connection
+     */
+    public Integer getNioThreads()
+    {
+        return nioThreads;
+    }
+
+    /**
+     * Sets the number of NIO threads used to handle the TCP connections.
+     * 
+     * @param nioThreads
+     *            the number of NIO threads, zero to use a thread per connection
+     */
+    public void setNioThreads(Integer nioThreads)
+    {
+        this.nioThreads = nioThreads;
+    }
+
     /**
      * Gets the port mapper port.
      * 
@@ -1406,6 +1406,16 @@ public class ServerConfigurationBean extends AbstractServerConfigurationBean
     			ftpConfig.setRequireSecureSession( true);
     		}
     		
+    		// Check if the FTP sessions should be handled using NIO socket channels
+    		
+    		if ( ftpConfigBean.hasNioEnabled()) {
+    			
+    			// Use a socket selector and the core thread pool to process the FTP session commands
+    			
+    			ftpConfig.setNIOEnabled( true);
+    			ftpConfig.setNIODataThreads( ftpConfigBean.getNioDataThreads());
+    		}
+    		
     		// Check that all the required FTPS parameters have been set
     		
     		if ( ftpConfig.getKeyStorePath() != null || ftpConfig.getTrustStorePath() != null || ftpConfig.getPassphrase() != null) {
@@ -1499,6 +1509,22 @@ public class ServerConfigurationBean extends AbstractServerConfigurationBean
                 nfsConfig.setNFSPacketPoolSize(pktPoolSize);
             }
 
+            // Check if the TCP connections should be handled by NIO threads
+
+            Integer nioThreads = nfsConfigBean.getNioThreads();
+
+            if (nioThreads != null)
+            {
+                // Range check the NIO thread count
+
+                if (nioThreads < 0)
+                    throw new AlfrescoRuntimeException("NFS NIO thread count is invalid, " + nioThreads);
+
+                // Set the NIO thread count
+
+                nfsConfig.setRpcNIOThreads(nioThreads);
+            }
+
             // Check for a port mapper server port
 
             Integer portMapperPort = nfsConfigBean.getPortMapperPort();
@@ -2150,6 +2176,17 @@ public class ServerConfigurationBean extends AbstractServerConfigurationBean
 
             coreConfig.setMemoryPool(DefaultMemoryPoolBufSizes, DefaultMemoryPoolInitAlloc, DefaultMemoryPoolMaxAlloc);
         }
+
+        // Check if socket channel I/O should use pooled direct buffers, using the memory pool sizes
+
+        if (coreServerConfigBean.getDirectBuffers())
+        {
+            coreConfig.setDirectMemoryPool(coreConfig.getMemoryPool().getBufferSizes(), coreConfig.getMemoryPool()
+                    .getMaximumAllocations());
+
+            if (coreServerConfigBean.getDirectBuffersDebug())
+                coreConfig.getDirectMemoryPool().setDebug(true);
+        }
     }
     
     /**
@@ -18,6 +18,8 @@
  */
 package org.alfresco.filesys.repo;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Pattern;
 
 import org.alfresco.error.AlfrescoRuntimeException;
@@ -33,6 +35,7 @@ import org.alfresco.jlan.server.filesys.DiskSharedDevice;
 import org.alfresco.jlan.server.filesys.FileName;
 import org.alfresco.jlan.server.filesys.FileSystem;
 import org.alfresco.jlan.server.filesys.quota.QuotaManagerException;
+import org.alfresco.jlan.server.memory.DirectByteBufferPool;
 import org.alfresco.jlan.server.thread.ThreadRequestPool;
 import org.alfresco.service.cmr.repository.NodeRef;
 
@@ -45,6 +48,18 @@ import org.alfresco.service.cmr.repository.NodeRef;
  */
 public class ContentContext extends AlfrescoContext
 {
+    // Largest read-ahead/write buffer, larger read-ahead and write coalescing sizes are reduced to this size
+    
+    public static final int MaxIOBufferSize = 1024 * 1024;
+    
+    // Total direct memory of the read-ahead/write buffer pool, which is shared by all filesystems
+    
+    private static final int IOBufferPoolMemoryLimit = 32 * 1024 * 1024;
+    
+    // Read-ahead/write buffer pool, created when first required
+    
+    private static DirectByteBufferPool s_ioBufferPool;
+    
     // Store and root path
     
     private String m_storeName;
@@ -80,6 +95,15 @@ public class ContentContext extends AlfrescoContext
     
     private ThreadRequestPool m_threadPool;
     
+    // Maximum read-ahead size and write coalescing buffer size for open files, zero to disable. Disabled by default.
+    
+    private int m_readAheadSize;
+    private int m_writeCoalesceSize;
+    
+    // Read-ahead/write statistics
+    
+    private ContentIOStatistics m_ioStats = new ContentIOStatistics();
+    
     private Pattern renameShufflePattern = Pattern.compile("(.*\\.tmp)|(.*\\.wbk)|(.*\\.bak)|(.*\\~)");
     
     /**
@@ -168,6 +192,108 @@ public class ContentContext extends AlfrescoContext
     	m_oplocksDisabled = disableOplocks;
     }
 
+    /**
+     * Set the maximum read-ahead size for sequential file reads, zero disables read-ahead. The size is limited
+     * to {@link #MaxIOBufferSize}.
+     * 
+     * @param readAheadSize int
+     */
+    public void setReadAheadSize(int readAheadSize)
+    {
+        m_readAheadSize = Math.min(readAheadSize, MaxIOBufferSize);
+    }
+    
+    /**
+     * Set the buffer size used to coalesce adjacent file writes, zero disables write coalescing. The size is
+     * limited to {@link #MaxIOBufferSize}.
+     * 
+     * @param writeCoalesceSize int
+     */
+    public void setWriteCoalesceSize(int writeCoalesceSize)
+    {
+        m_writeCoalesceSize = Math.min(writeCoalesceSize, MaxIOBufferSize);
+    }
+    
+    /**
+     * Return the maximum read-ahead size
+     * 
+     * @return int
+     */
+    public int getReadAheadSize()
+    {
+        return m_readAheadSize;
+    }
+    
+    /**
+     * Return the write coalescing buffer size
+     * 
+     * @return int
+     */
+    public int getWriteCoalesceSize()
+    {
+        return m_writeCoalesceSize;
+    }
+    
+    /**
+     * Return the read-ahead and write coalescing statistics for the filesystem
+     * 
+     * @return ContentIOStatistics
+     */
+    public final ContentIOStatistics getIOStatistics()
+    {
+        return m_ioStats;
+    }
+    
+    /**
+     * Create the read-ahead/write buffer for an open file
+     * 
+     * @return ContentIOBuffer, or null if read-ahead and write coalescing are disabled
+     */
+    public ContentIOBuffer createIOBuffer()
+    {
+        if ( m_readAheadSize <= 0 && m_writeCoalesceSize <= 0)
+        {
+            return null;
+        }
+        return new ContentIOBuffer(getIOBufferPool(), m_readAheadSize, m_writeCoalesceSize, m_ioStats);
+    }
+    
+    /**
+     * Return the read-ahead/write buffer pool, the pool is created when first required and is shared by all
+     * filesystems. The buffer sizes double from the initial read-ahead size up to {@link #MaxIOBufferSize}, and the
+     * memory limit is split equally between the buffer sizes, so the pool never holds more than the limit in total.
+     * When the pool is exhausted open files read and write directly.
+     * 
+     * @return DirectByteBufferPool
+     */
+    protected DirectByteBufferPool getIOBufferPool()
+    {
+        synchronized ( ContentContext.class)
+        {
+            if ( s_ioBufferPool == null)
+            {
+                List<Integer> sizes = new ArrayList<Integer>();
+                for ( int bufSize = ContentIOBuffer.InitialReadAheadSize; bufSize <= MaxIOBufferSize; bufSize *= 2)
+                {
+                    sizes.add(bufSize);
+                }
+                
+                int[] bufSizes = new int[sizes.size()];
+                int[] maxAlloc = new int[sizes.size()];
+                int sizeLimit = IOBufferPoolMemoryLimit / bufSizes.length;
+                
+                for ( int i = 0; i < bufSizes.length; i++)
+                {
+                    bufSizes[i] = sizes.get(i);
+                    maxAlloc[i] = Math.max(1, sizeLimit / bufSizes[i]);
+                }
+                
+                s_ioBufferPool = new DirectByteBufferPool(bufSizes, new int[bufSizes.length], maxAlloc);
+            }
+            return s_ioBufferPool;
+        }
+    }
+    
     /**
      * Get the regular expression pattern that will be applied to detected potential
      * rename shuffles.
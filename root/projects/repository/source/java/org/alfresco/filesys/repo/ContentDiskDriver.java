@@ -1875,7 +1875,7 @@ public class ContentDiskDriver extends AlfrescoTxDiskDriver implements DiskInter
                     
                     // Create a new network file for the open request
                 
-                    netFile = ContentNetworkFile.createFile(nodeService, contentService, mimetypeService, cifsHelper, nodeRef, params, sess);
+                    netFile = ContentNetworkFile.createFile(nodeService, contentService, mimetypeService, cifsHelper, nodeRef, params, sess, ctx);
                 }
             }
             else
@@ -2088,7 +2088,7 @@ public class ContentDiskDriver extends AlfrescoTxDiskDriver implements DiskInter
             
             // Create the network file
             
-            ContentNetworkFile netFile = ContentNetworkFile.createFile(nodeService, contentService, mimetypeService, cifsHelper, result.getSecond(), params, sess);
+            ContentNetworkFile netFile = ContentNetworkFile.createFile(nodeService, contentService, mimetypeService, cifsHelper, result.getSecond(), params, sess, ctx);
             
             // Always allow write access to a newly created file
             
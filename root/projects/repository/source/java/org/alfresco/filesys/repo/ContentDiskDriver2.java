@@ -1031,7 +1031,7 @@ public class ContentDiskDriver2 extends  AlfrescoDiskDriver implements ExtendedD
                     if(params.isReadOnlyAccess())
                     {
                         logger.debug("open file for read only");
-                        netFile = ContentNetworkFile.createFile(nodeService, contentService, mimetypeService, getCifsHelper(), nodeRef, params, session);
+                        netFile = ContentNetworkFile.createFile(nodeService, contentService, mimetypeService, getCifsHelper(), nodeRef, params, session, ctx);
 
                         if(!netFile.isReadOnly())
                         {
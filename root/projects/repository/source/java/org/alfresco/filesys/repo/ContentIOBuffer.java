@@ -0,0 +1,423 @@
+/*
+ * Copyright (C) 2005-2010 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.filesys.repo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.alfresco.jlan.server.memory.DirectByteBufferPool;
+
+/**
+ * Content I/O Buffer Class
+ * 
+ * <p>Read-ahead and write coalescing for an open content file. Network clients read and write files in small blocks,
+ * each of which would otherwise be a separate positioned read or write on the content channel.
+ * 
+ * <p>Sequential reads are detected and, once a run of sequential reads has been seen, the content is read ahead into a
+ * pooled buffer. The read-ahead size starts small and doubles with each read-ahead of the run, up to the maximum
+ * read-ahead size, and drops back when the reads become random.
+ * 
+ * <p>A write that follows on directly from the previous write is appended to a pending write buffer, the pending data is
+ * written to the content channel when the buffer is full, a non-adjacent write or a read is done, or the file is
+ * flushed or closed.
+ * 
+ * @author agent
+ */
+public class ContentIOBuffer
+{
+    // Initial read-ahead size, doubles for each read-ahead of a sequential read run up to the maximum read-ahead size
+    
+    public static final int InitialReadAheadSize = 64 * 1024;
+    
+    // Number of sequential reads before the file data is read ahead
+    
+    public static final int SequentialReadCount = 2;
+    
+    // Pool that the read-ahead and write buffers are allocated from
+    
+    private DirectByteBufferPool m_bufferPool;
+    
+    // Maximum read-ahead size and write coalescing buffer size, zero if disabled
+    
+    private int m_maxReadAhead;
+    private int m_coalesceSize;
+    
+    // Filesystem statistics
+    
+    private ContentIOStatistics m_stats;
+    
+    // Sequential read detection, offset of the next sequential read and the count of sequential reads
+    
+    private long m_nextReadOffset;
+    private int m_seqReads;
+    
+    // Current read-ahead size
+    
+    private int m_readAheadSize;
+    
+    // Read-ahead buffer, file offset and length of the buffered data, and flag to indicate the data runs to the end of file
+    
+    private ByteBuffer m_readBuf;
+    private long m_readOffset;
+    private int m_readLen;
+    private boolean m_readEOF;
+    
+    // Pending write buffer, file offset and length of the pending data
+    
+    private ByteBuffer m_writeBuf;
+    private long m_writeOffset;
+    private int m_writeLen;
+    
+    /**
+     * Class constructor
+     * 
+     * @param bufferPool DirectByteBufferPool
+     * @param maxReadAhead int
+     * @param coalesceSize int
+     * @param stats ContentIOStatistics
+     */
+    public ContentIOBuffer(DirectByteBufferPool bufferPool, int maxReadAhead, int coalesceSize, ContentIOStatistics stats)
+    {
+        m_bufferPool = bufferPool;
+        m_maxReadAhead = Math.max(0, maxReadAhead);
+        m_coalesceSize = Math.max(0, coalesceSize);
+        m_stats = stats;
+    }
+    
+    /**
+     * Read from the file, via the read-ahead buffer
+     * 
+     * @param channel FileChannel
+     * @param buffer byte[]
+     * @param length int
+     * @param position int
+     * @param fileOffset long
+     * @return int
+     * @exception IOException
+     */
+    public synchronized int readFile(FileChannel channel, byte[] buffer, int length, int position, long fileOffset)
+        throws IOException
+    {
+        // Any pending write data must be written so that it is visible to the read
+        
+        flushWrites(channel);
+        
+        // Check if this read follows on from the previous read
+        
+        if ( fileOffset == m_nextReadOffset)
+        {
+            m_seqReads++;
+        }
+        else
+        {
+            m_seqReads = 0;
+            m_readAheadSize = 0;
+        }
+        m_nextReadOffset = fileOffset + length;
+        
+        // Check if the read can be satisfied from the read-ahead buffer
+        
+        int count = readBuffered(buffer, length, position, fileOffset);
+        m_stats.recordRead(count != -1);
+        
+        if ( count != -1)
+        {
+            return count;
+        }
+        
+        // Read ahead if this is part of a sequential read run, and the previous read-ahead did not stop at the end of file
+        
+        boolean pastEOF = m_readEOF && fileOffset >= m_readOffset + m_readLen;
+        
+        if ( m_seqReads >= SequentialReadCount && length < m_maxReadAhead && pastEOF == false && fillReadAhead(channel, fileOffset, length))
+        {
+            return readBuffered(buffer, length, position, fileOffset);
+        }
+        
+        // Read directly from the channel
+        
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, position, length);
+        return channel.read(byteBuffer, fileOffset);
+    }
+    
+    /**
+     * Write to the file, via the pending write buffer
+     * 
+     * @param channel FileChannel
+     * @param buffer byte[]
+     * @param length int
+     * @param position int
+     * @param fileOffset long
+     * @exception IOException
+     */
+    public synchronized void writeFile(FileChannel channel, byte[] buffer, int length, int position, long fileOffset)
+        throws IOException
+    {
+        // The write may overlap the read-ahead data
+        
+        invalidateReadAhead();
+        
+        // Check if the write follows on from the pending write and fits into the write buffer
+        
+        if ( m_writeLen > 0 && fileOffset == m_writeOffset + m_writeLen && m_writeLen + length <= m_coalesceSize)
+        {
+            m_writeBuf.put(buffer, position, length);
+            m_writeLen += length;
+            
+            m_stats.recordWrite(length, true);
+            return;
+        }
+        
+        // Write out the current pending data
+        
+        flushWrites(channel);
+        m_stats.recordWrite(length, false);
+        
+        // Start a new pending write, if the write is smaller than the write buffer
+        
+        if ( length > 0 && length < m_coalesceSize)
+        {
+            if ( m_writeBuf == null)
+            {
+                m_writeBuf = m_bufferPool.allocateBuffer(m_coalesceSize);
+            }
+            
+            if ( m_writeBuf != null)
+            {
+                m_writeBuf.clear();
+                m_writeBuf.put(buffer, position, length);
+                
+                m_writeOffset = fileOffset;
+                m_writeLen = length;
+                return;
+            }
+        }
+        
+        // Write directly to the channel
+        
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, position, length);
+        channel.write(byteBuffer, fileOffset);
+    }
+    
+    /**
+     * Write any pending data to the channel. The pending data is kept if the write fails.
+     * 
+     * @param channel FileChannel
+     * @exception IOException
+     */
+    public synchronized void flushWrites(FileChannel channel)
+        throws IOException
+    {
+        if ( m_writeLen == 0)
+        {
+            return;
+        }
+        
+        // Write the pending data
+        
+        ByteBuffer pendingData = m_writeBuf.duplicate();
+        pendingData.flip();
+        
+        while ( pendingData.hasRemaining())
+        {
+            channel.write(pendingData, m_writeOffset + pendingData.position());
+        }
+        
+        m_writeLen = 0;
+        m_writeBuf.clear();
+        
+        m_stats.recordWriteFlush();
+    }
+    
+    /**
+     * Check if there is pending write data
+     * 
+     * @return boolean
+     */
+    public synchronized boolean hasPendingWrites()
+    {
+        return m_writeLen > 0;
+    }
+    
+    /**
+     * Return the file offset of the end of the pending write data, or -1 if there is no pending data
+     * 
+     * @return long
+     */
+    public synchronized long getPendingWriteEnd()
+    {
+        return m_writeLen > 0 ? m_writeOffset + m_writeLen : -1L;
+    }
+    
+    /**
+     * Discard the read-ahead data, called when the file data may have been changed other than via this buffer
+     */
+    public synchronized void invalidateReadAhead()
+    {
+        m_readLen = 0;
+        m_readEOF = false;
+    }
+    
+    /**
+     * Release the buffers back to the pool, any pending write data is discarded
+     */
+    public synchronized void release()
+    {
+        if ( m_readBuf != null)
+        {
+            m_bufferPool.releaseBuffer(m_readBuf);
+            m_readBuf = null;
+        }
+        m_readLen = 0;
+        
+        if ( m_writeBuf != null)
+        {
+            m_bufferPool.releaseBuffer(m_writeBuf);
+            m_writeBuf = null;
+        }
+        m_writeLen = 0;
+    }
+    
+    /**
+     * Copy data from the read-ahead buffer, if the buffer contains all of the requested data or all of the data up to
+     * the end of file
+     * 
+     * @param buffer byte[]
+     * @param length int
+     * @param position int
+     * @param fileOffset long
+     * @return int, or -1 if the data is not buffered
+     */
+    private int readBuffered(byte[] buffer, int length, int position, long fileOffset)
+    {
+        if ( m_readLen == 0 || fileOffset < m_readOffset)
+        {
+            return -1;
+        }
+        
+        long readEnd = m_readOffset + m_readLen;
+        
+        if ( fileOffset + length > readEnd && (m_readEOF == false || fileOffset > readEnd))
+        {
+            return -1;
+        }
+        
+        // Copy the buffered data
+        
+        int bufPos = (int) (fileOffset - m_readOffset);
+        int count = (int) Math.min(length, readEnd - fileOffset);
+        
+        m_readBuf.limit(bufPos + count);
+        m_readBuf.position(bufPos);
+        m_readBuf.get(buffer, position, count);
+        
+        return count;
+    }
+    
+    /**
+     * Fill the read-ahead buffer starting at the specified file offset
+     * 
+     * @param channel FileChannel
+     * @param fileOffset long
+     * @param length int
+     * @return boolean
+     * @exception IOException
+     */
+    private boolean fillReadAhead(FileChannel channel, long fileOffset, int length)
+        throws IOException
+    {
+        // Increase the read-ahead size for each read-ahead of a sequential read run
+        
+        if ( m_readAheadSize == 0)
+        {
+            m_readAheadSize = Math.min(InitialReadAheadSize, m_maxReadAhead);
+        }
+        else
+        {
+            m_readAheadSize = Math.min(m_readAheadSize * 2, m_maxReadAhead);
+        }
+        
+        int readSize = Math.max(m_readAheadSize, length);
+        
+        // Make sure the read-ahead buffer is large enough
+        
+        if ( m_readBuf != null && m_readBuf.capacity() < readSize)
+        {
+            m_bufferPool.releaseBuffer(m_readBuf);
+            m_readBuf = null;
+        }
+        
+        m_readLen = 0;
+        m_readEOF = false;
+        
+        if ( m_readBuf == null)
+        {
+            m_readBuf = m_bufferPool.allocateBuffer(readSize);
+            if ( m_readBuf == null)
+            {
+                return false;
+            }
+        }
+        
+        // Read the file data
+        
+        m_readBuf.clear();
+        m_readBuf.limit(readSize);
+        
+        while ( m_readBuf.hasRemaining())
+        {
+            if ( channel.read(m_readBuf, fileOffset + m_readBuf.position()) <= 0)
+            {
+                m_readEOF = true;
+                break;
+            }
+        }
+        
+        m_readOffset = fileOffset;
+        m_readLen = m_readBuf.position();
+        
+        m_stats.recordReadAheadFill(m_readLen);
+        return true;
+    }
+    
+    /**
+     * Return the buffer details as a string
+     * 
+     * @return String
+     */
+    public synchronized String toString()
+    {
+        StringBuilder str = new StringBuilder();
+        
+        str.append("[ReadAhead=");
+        str.append(m_readOffset);
+        str.append(":");
+        str.append(m_readLen);
+        str.append(",SeqReads=");
+        str.append(m_seqReads);
+        str.append(",PendingWrite=");
+        str.append(m_writeOffset);
+        str.append(":");
+        str.append(m_writeLen);
+        str.append("]");
+        
+        return str.toString();
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2005-2010 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.filesys.repo;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.alfresco.jlan.server.memory.DirectByteBufferPool;
+import org.alfresco.util.TempFileProvider;
+
+/**
+ * Tests the read-ahead and write coalescing of the {@link ContentIOBuffer} against a temporary file.
+ * 
+ * @author agent
+ */
+public class ContentIOBufferTest extends TestCase
+{
+    private static final int BLOCK_SIZE = 4096;
+    private static final int FILE_SIZE = 300 * 1024 + 100;
+    
+    private File file;
+    private RandomAccessFile raFile;
+    private FileChannel channel;
+    private byte[] data;
+    
+    private DirectByteBufferPool bufferPool;
+    private ContentIOStatistics stats;
+    
+    @Override
+    protected void setUp() throws Exception
+    {
+        data = new byte[FILE_SIZE];
+        for (int i = 0; i < data.length; i++)
+        {
+            data[i] = (byte) (i * 31 + (i >> 8));
+        }
+        
+        file = TempFileProvider.createTempFile(getName(), ".bin");
+        raFile = new RandomAccessFile(file, "rw");
+        raFile.write(data);
+        channel = raFile.getChannel();
+        
+        bufferPool = new DirectByteBufferPool(new int[] { 64 * 1024, 128 * 1024, 256 * 1024 }, new int[] { 0, 0, 0 }, new int[] { 4, 4, 4 });
+        bufferPool.setDebug(true);
+        stats = new ContentIOStatistics();
+    }
+    
+    @Override
+    protected void tearDown() throws Exception
+    {
+        raFile.close();
+        file.delete();
+    }
+    
+    private byte[] read(ContentIOBuffer ioBuffer, long offset, int length) throws Exception
+    {
+        byte[] buf = new byte[length + 10];
+        int count = ioBuffer.readFile(channel, buf, length, 10, offset);
+        if (count < 0)
+        {
+            return new byte[0];
+        }
+        return Arrays.copyOfRange(buf, 10, 10 + count);
+    }
+    
+    private byte[] expected(long offset, int length)
+    {
+        int end = (int) Math.min(data.length, offset + length);
+        return offset >= data.length ? new byte[0] : Arrays.copyOfRange(data, (int) offset, end);
+    }
+    
+    public void testSequentialReadAhead() throws Exception
+    {
+        ContentIOBuffer ioBuffer = new ContentIOBuffer(bufferPool, 256 * 1024, 0, stats);
+        
+        for (long offset = 0; offset < FILE_SIZE + BLOCK_SIZE; offset += BLOCK_SIZE)
+        {
+            assertTrue("Data mismatch at " + offset, Arrays.equals(expected(offset, BLOCK_SIZE), read(ioBuffer, offset, BLOCK_SIZE)));
+        }
+        
+        // Read-ahead sizes 64K, 128K and 256K cover the file after the first read
+        assertEquals(3, stats.getReadAheadFills());
+        assertEquals(FILE_SIZE - BLOCK_SIZE, stats.getReadAheadBytes());
+        assertTrue(stats.getReadAheadHitRatio() > 90);
+        
+        ioBuffer.release();
+        assertEquals(0, bufferPool.getOutstandingCount());
+    }
+    
+    public void testRandomReadsDoNotReadAhead() throws Exception
+    {
+        ContentIOBuffer ioBuffer = new ContentIOBuffer(bufferPool, 256 * 1024, 0, stats);
+        
+        long[] offsets = { 200000, 1000, 150000, 70000, 5, 299000 };
+        for (long offset : offsets)
+        {
+            assertTrue(Arrays.equals(expected(offset, BLOCK_SIZE), read(ioBuffer, offset, BLOCK_SIZE)));
+        }
+        assertEquals(0, stats.getReadAheadFills());
+        assertEquals(0, stats.getReadAheadHits());
+        assertEquals(6, stats.getReads());
+    }
+    
+    public void testWriteCoalescing() throws Exception
+    {
+        ContentIOBuffer ioBuffer = new ContentIOBuffer(bufferPool, 0, 64 * 1024, stats);
+        
+        // 32 adjacent 4K writes fill two 64K write buffers
+        byte[] block = new byte[BLOCK_SIZE + 10];
+        for (int i = 0; i < 32; i++)
+        {
+            Arrays.fill(block, (byte) i);
+            ioBuffer.writeFile(channel, block, BLOCK_SIZE, 10, (long) i * BLOCK_SIZE);
+            data = writeExpected(data, i * BLOCK_SIZE, BLOCK_SIZE, (byte) i);
+        }
+        assertEquals(32 * BLOCK_SIZE, ioBuffer.getPendingWriteEnd());
+        assertEquals(30, stats.getCoalescedWrites());
+        assertEquals(30L * BLOCK_SIZE, stats.getCoalescedBytes());
+        assertEquals(1, stats.getWriteFlushes());
+        
+        // A read sees the pending data
+        assertTrue(Arrays.equals(expected(100000, BLOCK_SIZE), read(ioBuffer, 100000, BLOCK_SIZE)));
+        assertFalse(ioBuffer.hasPendingWrites());
+        
+        // A non-adjacent write flushes the pending data
+        Arrays.fill(block, (byte) 99);
+        ioBuffer.writeFile(channel, block, 100, 10, 250000);
+        ioBuffer.writeFile(channel, block, 100, 10, 10);
+        data = writeExpected(data, 250000, 100, (byte) 99);
+        data = writeExpected(data, 10, 100, (byte) 99);
+        ioBuffer.flushWrites(channel);
+        
+        byte[] fileData = new byte[FILE_SIZE];
+        raFile.seek(0);
+        raFile.readFully(fileData);
+        assertTrue(Arrays.equals(data, fileData));
+        
+        ioBuffer.release();
+        assertEquals(0, bufferPool.getOutstandingCount());
+    }
+    
+    public void testWriteInvalidatesReadAhead() throws Exception
+    {
+        ContentIOBuffer ioBuffer = new ContentIOBuffer(bufferPool, 256 * 1024, 64 * 1024, stats);
+        
+        for (int i = 0; i < 4; i++)
+        {
+            read(ioBuffer, (long) i * BLOCK_SIZE, BLOCK_SIZE);
+        }
+        assertEquals(1, stats.getReadAheadFills());
+        
+        // Overwrite data that has been read ahead, then read it back
+        byte[] block = new byte[BLOCK_SIZE];
+        Arrays.fill(block, (byte) 7);
+        ioBuffer.writeFile(channel, block, BLOCK_SIZE, 0, 5 * BLOCK_SIZE);
+        data = writeExpected(data, 5 * BLOCK_SIZE, BLOCK_SIZE, (byte) 7);
+        
+        assertTrue(Arrays.equals(expected(4 * BLOCK_SIZE, 2 * BLOCK_SIZE), read(ioBuffer, 4 * BLOCK_SIZE, 2 * BLOCK_SIZE)));
+        
+        ioBuffer.release();
+    }
+    
+    public void testPoolExhausted() throws Exception
+    {
+        DirectByteBufferPool smallPool = new DirectByteBufferPool(new int[] { 64 * 1024 }, new int[] { 0 }, new int[] { 1 });
+        ContentIOBuffer ioBuffer1 = new ContentIOBuffer(smallPool, 64 * 1024, 64 * 1024, stats);
+        ContentIOBuffer ioBuffer2 = new ContentIOBuffer(smallPool, 64 * 1024, 64 * 1024, stats);
+        
+        // The first file takes the only buffer, the second file falls back to direct channel I/O
+        byte[] block = new byte[BLOCK_SIZE];
+        ioBuffer1.writeFile(channel, block, BLOCK_SIZE, 0, 0);
+        assertTrue(ioBuffer1.hasPendingWrites());
+        ioBuffer2.writeFile(channel, block, BLOCK_SIZE, 0, 8192);
+        assertFalse(ioBuffer2.hasPendingWrites());
+        
+        for (int i = 0; i < 4; i++)
+        {
+            assertTrue(Arrays.equals(expected(16384 + i * BLOCK_SIZE, BLOCK_SIZE), read(ioBuffer2, 16384 + i * BLOCK_SIZE, BLOCK_SIZE)));
+        }
+        assertEquals(0, stats.getReadAheadFills());
+        
+        ioBuffer1.release();
+        ioBuffer2.release();
+    }
+    
+    private static byte[] writeExpected(byte[] data, int offset, int length, byte value)
+    {
+        Arrays.fill(data, offset, offset + length, value);
+        return data;
+    }
+}
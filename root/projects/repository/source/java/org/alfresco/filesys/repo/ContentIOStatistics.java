@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2005-2010 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.filesys.repo;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content I/O Statistics Class
+ * 
+ * <p>Read-ahead and write coalescing statistics for a filesystem, updated by all of the content files open on the
+ * filesystem.
+ * 
+ * @author agent
+ */
+public class ContentIOStatistics
+{
+    // Read statistics
+    
+    private AtomicLong m_reads = new AtomicLong();
+    private AtomicLong m_readAheadHits = new AtomicLong();
+    private AtomicLong m_readAheadFills = new AtomicLong();
+    private AtomicLong m_readAheadBytes = new AtomicLong();
+    
+    // Write statistics
+    
+    private AtomicLong m_writes = new AtomicLong();
+    private AtomicLong m_coalescedWrites = new AtomicLong();
+    private AtomicLong m_coalescedBytes = new AtomicLong();
+    private AtomicLong m_writeFlushes = new AtomicLong();
+    
+    /**
+     * Return the count of file reads
+     * 
+     * @return long
+     */
+    public final long getReads()
+    {
+        return m_reads.get();
+    }
+    
+    /**
+     * Return the count of file reads that were satisfied from a read-ahead buffer
+     * 
+     * @return long
+     */
+    public final long getReadAheadHits()
+    {
+        return m_readAheadHits.get();
+    }
+    
+    /**
+     * Return the count of read-ahead buffer fills
+     * 
+     * @return long
+     */
+    public final long getReadAheadFills()
+    {
+        return m_readAheadFills.get();
+    }
+    
+    /**
+     * Return the number of bytes read into read-ahead buffers
+     * 
+     * @return long
+     */
+    public final long getReadAheadBytes()
+    {
+        return m_readAheadBytes.get();
+    }
+    
+    /**
+     * Return the read-ahead hit ratio, as the percentage of file reads satisfied from a read-ahead buffer
+     * 
+     * @return int
+     */
+    public final int getReadAheadHitRatio()
+    {
+        long reads = m_reads.get();
+        return reads > 0 ? (int) ((m_readAheadHits.get() * 100L) / reads) : 0;
+    }
+    
+    /**
+     * Return the count of file writes
+     * 
+     * @return long
+     */
+    public final long getWrites()
+    {
+        return m_writes.get();
+    }
+    
+    /**
+     * Return the count of writes that were appended to a pending write
+     * 
+     * @return long
+     */
+    public final long getCoalescedWrites()
+    {
+        return m_coalescedWrites.get();
+    }
+    
+    /**
+     * Return the number of bytes appended to pending writes
+     * 
+     * @return long
+     */
+    public final long getCoalescedBytes()
+    {
+        return m_coalescedBytes.get();
+    }
+    
+    /**
+     * Return the count of pending writes flushed to the content channel
+     * 
+     * @return long
+     */
+    public final long getWriteFlushes()
+    {
+        return m_writeFlushes.get();
+    }
+    
+    /**
+     * Record a file read
+     * 
+     * @param hit boolean
+     */
+    protected final void recordRead(boolean hit)
+    {
+        m_reads.incrementAndGet();
+        if ( hit)
+            m_readAheadHits.incrementAndGet();
+    }
+    
+    /**
+     * Record a read-ahead buffer fill
+     * 
+     * @param len int
+     */
+    protected final void recordReadAheadFill(int len)
+    {
+        m_readAheadFills.incrementAndGet();
+        m_readAheadBytes.addAndGet(len);
+    }
+    
+    /**
+     * Record a file write
+     * 
+     * @param len int
+     * @param coalesced boolean
+     */
+    protected final void recordWrite(int len, boolean coalesced)
+    {
+        m_writes.incrementAndGet();
+        if ( coalesced)
+        {
+            m_coalescedWrites.incrementAndGet();
+            m_coalescedBytes.addAndGet(len);
+        }
+    }
+    
+    /**
+     * Record a pending write flush
+     */
+    protected final void recordWriteFlush()
+    {
+        m_writeFlushes.incrementAndGet();
+    }
+    
+    /**
+     * Return the statistics as a string
+     * 
+     * @return String
+     */
+    public String toString()
+    {
+        StringBuilder str = new StringBuilder();
+        
+        str.append("[Reads=");
+        str.append(getReads());
+        str.append(",ReadAheadHits=");
+        str.append(getReadAheadHits());
+        str.append("(");
+        str.append(getReadAheadHitRatio());
+        str.append("%),ReadAheadFills=");
+        str.append(getReadAheadFills());
+        str.append(",ReadAheadBytes=");
+        str.append(getReadAheadBytes());
+        str.append(",Writes=");
+        str.append(getWrites());
+        str.append(",CoalescedWrites=");
+        str.append(getCoalescedWrites());
+        str.append(",CoalescedBytes=");
+        str.append(getCoalescedBytes());
+        str.append(",Flushes=");
+        str.append(getWriteFlushes());
+        str.append("]");
+        
+        return str.toString();
+    }
+}
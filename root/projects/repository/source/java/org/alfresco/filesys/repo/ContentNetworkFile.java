@@ -31,6 +31,7 @@ import org.alfresco.jlan.server.filesys.FileAttribute;
 import org.alfresco.jlan.server.filesys.FileInfo;
 import org.alfresco.jlan.server.filesys.FileOpenParams;
 import org.alfresco.jlan.server.filesys.NetworkFile;
+import org.alfresco.jlan.server.filesys.NetworkFileChannelInterface;
 import org.alfresco.jlan.smb.SeekType;
 import org.alfresco.jlan.smb.server.SMBSrvSession;
 import org.alfresco.model.ContentModel;
@@ -63,7 +64,7 @@ import org.springframework.extensions.surf.util.I18NUtil;
  * 
  * @author Derek Hulley
  */
-public class ContentNetworkFile extends NodeRefNetworkFile
+public class ContentNetworkFile extends NodeRefNetworkFile implements NetworkFileChannelInterface
 {
     private static final Log logger = LogFactory.getLog(ContentNetworkFile.class);
     
@@ -83,12 +84,25 @@ public class ContentNetworkFile extends NodeRefNetworkFile
     
     // Flag to indicate if the file channel is writable
     private boolean writableChannel;
+    
+    // Read-ahead and write coalescing buffer, or null if not enabled for the filesystem
+    private ContentIOBuffer ioBuffer;
 
     /**
      * Helper method to create a {@link NetworkFile network file} given a node reference.
      */
     public static ContentNetworkFile createFile( NodeService nodeService, ContentService contentService, MimetypeService mimetypeService,
             CifsHelper cifsHelper, NodeRef nodeRef, FileOpenParams params, SrvSession sess)
+    {
+        return createFile( nodeService, contentService, mimetypeService, cifsHelper, nodeRef, params, sess, null);
+    }
+
+    /**
+     * Helper method to create a {@link NetworkFile network file} given a node reference, using the
+     * read-ahead and write coalescing settings of the filesystem.
+     */
+    public static ContentNetworkFile createFile( NodeService nodeService, ContentService contentService, MimetypeService mimetypeService,
+            CifsHelper cifsHelper, NodeRef nodeRef, FileOpenParams params, SrvSession sess, ContentContext ctx)
     {
         String path = params.getPath();
         
@@ -168,6 +182,11 @@ public class ContentNetworkFile extends NodeRefNetworkFile
         
         netFile.setProcessId( params.getProcessId());
         
+        // Set the read-ahead and write coalescing buffer
+        
+        if ( ctx != null && fileInfo.isDirectory() == false)
+            netFile.setIOBuffer( ctx.createIOBuffer());
+        
         // If the file is read-only then only allow read access
         
         if ( netFile.isReadOnly())
@@ -225,6 +244,8 @@ public class ContentNetworkFile extends NodeRefNetworkFile
         	str.append( writableChannel ? "(Write)" : "(Read)");
         if ( modified)
         	str.append( ",modified");
+        if ( ioBuffer != null)
+            str.append( ioBuffer);
         str.append( "]");
 
         return str.toString();
@@ -246,6 +267,47 @@ public class ContentNetworkFile extends NodeRefNetworkFile
         return (access == NetworkFile.READWRITE || access == NetworkFile.WRITEONLY);
     }
 
+    /**
+     * Set the read-ahead and write coalescing buffer
+     * 
+     * @param ioBuffer ContentIOBuffer
+     */
+    public final void setIOBuffer(ContentIOBuffer ioBuffer)
+    {
+        this.ioBuffer = ioBuffer;
+    }
+    
+    /**
+     * Return the read-ahead and write coalescing buffer
+     * 
+     * @return ContentIOBuffer, or null if not enabled
+     */
+    public final ContentIOBuffer getIOBuffer()
+    {
+        return ioBuffer;
+    }
+    
+    /**
+     * Write any coalesced write data to the content channel
+     * 
+     * @exception IOException
+     */
+    private void flushIOBuffer()
+        throws IOException
+    {
+        if ( ioBuffer != null && channel != null)
+            ioBuffer.flushWrites(channel);
+    }
+    
+    /**
+     * Release the read-ahead and write coalescing buffers
+     */
+    private void releaseIOBuffer()
+    {
+        if ( ioBuffer != null)
+            ioBuffer.release();
+    }
+    
     /**
      * Determine if the file content data has been opened
      * 
@@ -311,6 +373,11 @@ public class ContentNetworkFile extends NodeRefNetworkFile
                 {
                     logger.error("Error closing read-only channel", ex);
                 }
+                
+                // Discard data read ahead via the read-only channel
+                
+                if ( ioBuffer != null)
+                    ioBuffer.invalidateReadAhead();
             
                 // Debug
             
@@ -428,6 +495,7 @@ public class ContentNetworkFile extends NodeRefNetworkFile
                 logger.debug("file is a directory - nothing to do");
             }
         	
+            releaseIOBuffer();
             setClosed( true);
             return;
         }
@@ -438,6 +506,7 @@ public class ContentNetworkFile extends NodeRefNetworkFile
                 logger.debug("no content to write - nothing to do");
             }
         	
+            releaseIOBuffer();
             setClosed( true);
             return;
         }
@@ -460,7 +529,10 @@ public class ContentNetworkFile extends NodeRefNetworkFile
                 // We may be in a retry block, in which case this section will already have executed and channel will be null
                 if (channel != null)
                 {
-                    // Close the channel
+                    // Write out any coalesced writes, then close the channel
+                    flushIOBuffer();
+                    releaseIOBuffer();
+                    
                     channel.close();
                     channel = null;
                 }
@@ -543,6 +615,8 @@ public class ContentNetworkFile extends NodeRefNetworkFile
                     logger.debug("content not modified - simply close the channel");
                 }
         	
+                releaseIOBuffer();
+                
                 channel.close();
                 channel = null;
                 content = null;
@@ -578,6 +652,12 @@ public class ContentNetworkFile extends NodeRefNetworkFile
                 
                 openContent(true, false);
 
+                // Write out any coalesced writes before the file size changes
+                
+                flushIOBuffer();
+                if ( ioBuffer != null)
+                    ioBuffer.invalidateReadAhead();
+                
                 // Truncate or extend the channel
                 
                 channel.truncate(size);
@@ -643,19 +723,30 @@ public class ContentNetworkFile extends NodeRefNetworkFile
     		throw new DiskFullException("Failed to open " + getFullName() + " for write");
     	}
         
-        // Write to the channel
+        // Write to the channel, adjacent writes may be coalesced
         
-        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, position, length);
-        int count = channel.write(byteBuffer, fileOffset);
+        int count = length;
+        long fileSize = -1L;
+        
+        if ( ioBuffer != null)
+        {
+            ioBuffer.writeFile(channel, buffer, length, position, fileOffset);
+            fileSize = ioBuffer.getPendingWriteEnd();
+        }
+        else
+        {
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, position, length);
+            count = channel.write(byteBuffer, fileOffset);
+        }
         
         // Set modification flag
         
         modified = true;
         incrementWriteCount();
 
-        // Update the current file size
+        // Update the current file size, including any coalesced data that has not been written to the channel yet
         
-        setFileSize(channel.size());
+        setFileSize(Math.max(channel.size(), fileSize));
         
         // Update the modification date/time
         
@@ -668,6 +759,96 @@ public class ContentNetworkFile extends NodeRefNetworkFile
             logger.debug("Write file=" + this + ", size=" + count);
     }
 
+    /**
+     * Return the content channel, if the content has already been opened with the required access
+     * 
+     * @param write true if the channel must be writable
+     * @return Returns the open channel, or null if the content is not open for the required access
+     */
+    public FileChannel getFileChannel(boolean write)
+    {
+        // update of channel and content member variables need to be serialized 
+        synchronized(this)
+        {
+            if (channel == null || (write && writableChannel == false))
+            {
+                return null;
+            }
+            
+            // The channel is to be accessed directly, so write out any coalesced writes
+            
+            if ( ioBuffer != null)
+            {
+                try
+                {
+                    ioBuffer.flushWrites(channel);
+                }
+                catch (IOException ex)
+                {
+                    logger.error("Error writing coalesced writes for " + getName(), ex);
+                    return null;
+                }
+                
+                if ( write)
+                    ioBuffer.invalidateReadAhead();
+            }
+            return channel;
+        }
+    }
+
+    /**
+     * Read from the content channel into a buffer, if the content has already been opened
+     * 
+     * @param buffer the buffer to read into
+     * @param fileOffset the file position to read from
+     * @return Returns the number of bytes read, or -1 if the content is not open
+     */
+    public int readFile(ByteBuffer buffer, long fileOffset)
+        throws IOException
+    {
+        FileChannel readChannel = getFileChannel(false);
+        if (readChannel == null)
+        {
+            return -1;
+        }
+        
+        int count = readChannel.read(buffer, fileOffset);
+        if (count < 0)
+        {
+            count = 0;
+        }
+        
+        // Update the access date/time
+        
+        if ( getFileState() != null)
+            getFileState().updateAccessDateTime();
+        
+        return count;
+    }
+
+    /**
+     * Update the file details after data has been written directly to the content channel
+     * 
+     * @exception IOException
+     */
+    public void fileChannelWritten()
+        throws IOException
+    {
+        // Set modification flag
+        
+        modified = true;
+        incrementWriteCount();
+
+        // Update the current file size
+        
+        setFileSize(channel.size());
+        
+        // Update the modification date/time
+        
+        if ( getFileState() != null)
+        	getFileState().updateModifyDateTime();
+    }
+
     /**
      * Read from the file.
      * 
@@ -685,10 +866,19 @@ public class ContentNetworkFile extends NodeRefNetworkFile
         
         openContent(false, false);
         
-        // Read from the channel
+        // Read from the channel, sequential reads may be satisfied from the read-ahead buffer
         
-        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, position, length);
-        int count = channel.read(byteBuffer, fileOffset);
+        int count;
+        
+        if ( ioBuffer != null)
+        {
+            count = ioBuffer.readFile(channel, buffer, length, position, fileOffset);
+        }
+        else
+        {
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, position, length);
+            count = channel.read(byteBuffer, fileOffset);
+        }
         if (count < 0)
         {
             count = 0;  // doesn't obey the same rules, i.e. just returns the bytes read
@@ -736,6 +926,10 @@ public class ContentNetworkFile extends NodeRefNetworkFile
         //  Open the file, if not already open
 
         openContent( false, false);
+        
+        // Write out any coalesced writes so the channel size is current
+        
+        flushIOBuffer();
 
         //  Check if the current file position is the required file position
 
@@ -794,6 +988,10 @@ public class ContentNetworkFile extends NodeRefNetworkFile
     	
         openContent(true, false);
         
+        // Write out any coalesced writes
+        
+        flushIOBuffer();
+        
         // Flush the channel - metadata flushing is not important
         
         channel.force(false);
@@ -20,6 +20,7 @@
 package org.alfresco.filesys.repo;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -104,6 +105,19 @@ public class MSOfficeContentNetworkFile extends ContentNetworkFile {
     	return super.readFile( buffer, length, position, fileOffset);
     }
 
+    /**
+     * Return the content channel, writes must not bypass the write buffering
+     * 
+     * @param write true if the channel must be writable
+     * @return FileChannel
+     */
+    public FileChannel getFileChannel(boolean write)
+    {
+        if ( write && m_writeList != null)
+            return null;
+        return super.getFileChannel( write);
+    }
+
     /**
      * Write a block of data to the file.
      * 
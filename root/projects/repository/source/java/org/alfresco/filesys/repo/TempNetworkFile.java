@@ -96,6 +96,19 @@ public class TempNetworkFile extends JavaNetworkFile implements NetworkFileState
         }
     }
     
+    @Override
+    public void fileChannelWritten() throws IOException
+    {
+        super.fileChannelWritten();
+        
+        long size = getFileSize();
+        if(fileState != null)
+        {
+            fileState.updateModifyDateTime();
+            fileState.setFileSize(size);
+        }
+    }
+    
     @Override
     public void truncateFile(long size) throws IOException
     {
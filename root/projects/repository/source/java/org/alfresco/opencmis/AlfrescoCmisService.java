@@ -766,6 +766,7 @@ public class AlfrescoCmisService extends AbstractCmisService
     {
         // get the children references
         List<ChildAssociationRef> childrenList = connector.getNodeService().getChildAssocs(folderNodeRef);
+        preloadChildren(childrenList);
         for (ChildAssociationRef child : childrenList)
         {
             try
@@ -819,6 +820,20 @@ public class AlfrescoCmisService extends AbstractCmisService
         }
     }
 
+    /**
+     * Bulk-loads the properties and aspects of the children so that building the CMIS objects
+     * does not hit the database once per child.
+     */
+    private void preloadChildren(List<ChildAssociationRef> childrenList)
+    {
+        List<NodeRef> childNodeRefs = new ArrayList<NodeRef>(childrenList.size());
+        for (ChildAssociationRef child : childrenList)
+        {
+            childNodeRefs.add(child.getChildRef());
+        }
+        connector.getNodeService().preloadNodes(childNodeRefs);
+    }
+
     @Override
     public ObjectData getFolderParent(String repositoryId, String folderId, String filter, ExtensionsData extension)
     {
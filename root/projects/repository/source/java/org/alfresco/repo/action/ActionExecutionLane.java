@@ -0,0 +1,364 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.repo.action;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.util.PropertyCheck;
+import org.alfresco.util.TraceableThreadFactory;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * An execution lane for asynchronous actions.  Each lane has its own thread pool and queue so that a
+ * flood of one kind of action (e.g. thumbnails for a bulk upload) does not hold up other actions.
+ * <p>
+ * A lane either creates its own pool with a bounded queue or, if a
+ * {@link #setThreadPoolExecutor(ThreadPoolExecutor) thread pool} is given, uses that.  When its own queue is
+ * full, the action is run by the caller ({@link FullQueuePolicy#CALLER_RUNS CALLER_RUNS}) or the caller waits
+ * for space ({@link FullQueuePolicy#BLOCK BLOCK}) and then runs the action itself if none becomes available.
+ * <p>
+ * Actions submitted with a key are coalesced: while an action with an equal key is waiting to start,
+ * further actions with that key are dropped.
+ *
+ * @author agent
+ * @since 4.0
+ */
+public class ActionExecutionLane implements ActionExecutionLaneMBean
+{
+    /**
+     * What to do when the lane's queue is full
+     */
+    public enum FullQueuePolicy
+    {
+        /** Run the action in the calling thread */
+        CALLER_RUNS,
+        /** Wait for space in the queue, running the action in the calling thread if none becomes available */
+        BLOCK
+    }
+
+    private static Log logger = LogFactory.getLog(ActionExecutionLane.class);
+
+    private String name;
+    private List<String> actionDefinitionNames = Collections.emptyList();
+    private int poolSize = 2;
+    private int queueSize = 1000;
+    private FullQueuePolicy fullQueuePolicy = FullQueuePolicy.CALLER_RUNS;
+    private long maxBlockMillis = 10000L;
+    private ThreadPoolExecutor threadPoolExecutor;
+    private boolean ownPool;
+
+    private final ConcurrentMap<Object, Object> pendingKeys = new ConcurrentHashMap<Object, Object>();
+    private final AtomicLong executedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong callerRunsCount = new AtomicLong();
+    private final AtomicLong totalQueueLatency = new AtomicLong();
+    private final AtomicLong maxQueueLatency = new AtomicLong();
+    private final AtomicLong totalExecutionTime = new AtomicLong();
+
+    /**
+     * @param name                      the name of the lane, used for threads and logging
+     */
+    public void setName(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * @param actionDefinitionNames     the names of the actions executed in this lane
+     */
+    public void setActionDefinitionNames(List<String> actionDefinitionNames)
+    {
+        this.actionDefinitionNames = actionDefinitionNames;
+    }
+
+    /**
+     * @param poolSize                  the number of threads in the lane's own pool (default: 2)
+     */
+    public void setPoolSize(int poolSize)
+    {
+        this.poolSize = poolSize;
+    }
+
+    /**
+     * @param queueSize                 the capacity of the lane's own queue (default: 1000)
+     */
+    public void setQueueSize(int queueSize)
+    {
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * @param fullQueuePolicy           what to do when the lane's own queue is full (default: CALLER_RUNS)
+     */
+    public void setFullQueuePolicy(FullQueuePolicy fullQueuePolicy)
+    {
+        this.fullQueuePolicy = fullQueuePolicy;
+    }
+
+    /**
+     * @param maxBlockMillis            how long a caller waits for space with the BLOCK policy (default: 10s)
+     */
+    public void setMaxBlockMillis(long maxBlockMillis)
+    {
+        this.maxBlockMillis = maxBlockMillis;
+    }
+
+    /**
+     * Use an existing pool, which may be shared with other components, instead of creating one
+     */
+    public void setThreadPoolExecutor(ThreadPoolExecutor threadPoolExecutor)
+    {
+        this.threadPoolExecutor = threadPoolExecutor;
+    }
+
+    /**
+     * @return                          Returns the names of the actions executed in this lane
+     */
+    public List<String> getActionDefinitionNames()
+    {
+        return actionDefinitionNames;
+    }
+
+    /**
+     * Creates the lane's pool, if one has not been given
+     */
+    public synchronized void init()
+    {
+        PropertyCheck.mandatory(this, "name", name);
+        if (threadPoolExecutor != null)
+        {
+            return;
+        }
+        TraceableThreadFactory threadFactory = new TraceableThreadFactory();
+        threadFactory.setThreadDaemon(true);
+        threadFactory.setNamePrefix("AsyncAction-" + name);
+        threadPoolExecutor = new ThreadPoolExecutor(
+                poolSize, poolSize,
+                60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize),
+                threadFactory,
+                new FullQueueHandler());
+        ownPool = true;
+    }
+
+    /**
+     * Stops the lane's own pool.  Actions that have not started are abandoned.
+     */
+    public synchronized void shutdown()
+    {
+        if (ownPool && threadPoolExecutor != null)
+        {
+            threadPoolExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Execute an action in this lane
+     *
+     * @param key                       the identity of the action for coalescing, or <tt>null</tt> to always execute it
+     * @param runnable                  the action execution
+     * @return                          Returns <tt>false</tt> if the action was dropped because an equal one is waiting
+     */
+    public boolean execute(Object key, Runnable runnable)
+    {
+        if (key != null && pendingKeys.putIfAbsent(key, key) != null)
+        {
+            coalescedCount.incrementAndGet();
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Lane " + name + " coalesced action: " + key);
+            }
+            return false;
+        }
+        try
+        {
+            threadPoolExecutor.execute(new LaneRunnable(key, runnable));
+        }
+        catch (RuntimeException e)
+        {
+            // The action was never queued, so it must not hold back later duplicates
+            if (key != null)
+            {
+                pendingKeys.remove(key);
+            }
+            throw e;
+        }
+        return true;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public int getQueueDepth()
+    {
+        return threadPoolExecutor.getQueue().size();
+    }
+
+    public int getActiveCount()
+    {
+        return threadPoolExecutor.getActiveCount();
+    }
+
+    public int getMaximumPoolSize()
+    {
+        return threadPoolExecutor.getMaximumPoolSize();
+    }
+
+    public long getExecutedCount()
+    {
+        return executedCount.get();
+    }
+
+    public long getCoalescedCount()
+    {
+        return coalescedCount.get();
+    }
+
+    public long getCallerRunsCount()
+    {
+        return callerRunsCount.get();
+    }
+
+    public long getAverageQueueLatencyMillis()
+    {
+        long count = executedCount.get();
+        return count == 0 ? 0L : totalQueueLatency.get() / count;
+    }
+
+    public long getMaxQueueLatencyMillis()
+    {
+        return maxQueueLatency.get();
+    }
+
+    public long getAverageExecutionTimeMillis()
+    {
+        long count = executedCount.get();
+        return count == 0 ? 0L : totalExecutionTime.get() / count;
+    }
+
+    public void resetStatistics()
+    {
+        executedCount.set(0L);
+        coalescedCount.set(0L);
+        callerRunsCount.set(0L);
+        totalQueueLatency.set(0L);
+        maxQueueLatency.set(0L);
+        totalExecutionTime.set(0L);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ActionExecutionLane[name=" + name + ", actions=" + actionDefinitionNames + "]";
+    }
+
+    /**
+     * Records the time spent waiting and executing, and releases the coalescing key once the action starts
+     */
+    private class LaneRunnable implements Runnable
+    {
+        private final Object key;
+        private final Runnable runnable;
+        private final Thread submitter;
+        private final long queuedAt;
+
+        private LaneRunnable(Object key, Runnable runnable)
+        {
+            this.key = key;
+            this.runnable = runnable;
+            this.submitter = Thread.currentThread();
+            this.queuedAt = System.currentTimeMillis();
+        }
+
+        public void run()
+        {
+            long startedAt = System.currentTimeMillis();
+            if (key != null)
+            {
+                // Later duplicates must run again as they may see newer changes
+                pendingKeys.remove(key);
+            }
+            if (Thread.currentThread() == submitter)
+            {
+                callerRunsCount.incrementAndGet();
+            }
+            long latency = startedAt - queuedAt;
+            totalQueueLatency.addAndGet(latency);
+            long max;
+            while ((max = maxQueueLatency.get()) < latency && !maxQueueLatency.compareAndSet(max, latency))
+            {
+                // Retry
+            }
+            try
+            {
+                runnable.run();
+            }
+            finally
+            {
+                totalExecutionTime.addAndGet(System.currentTimeMillis() - startedAt);
+                executedCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Applies the {@link FullQueuePolicy} when the lane's own queue is full
+     */
+    private class FullQueueHandler implements RejectedExecutionHandler
+    {
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor)
+        {
+            if (executor.isShutdown())
+            {
+                logger.warn("Lane " + name + " has been shut down; dropping action.");
+                return;
+            }
+            if (fullQueuePolicy == FullQueuePolicy.BLOCK)
+            {
+                try
+                {
+                    if (executor.getQueue().offer(r, maxBlockMillis, TimeUnit.MILLISECONDS))
+                    {
+                        return;
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Lane " + name + " is full; running action in the calling thread.");
+            }
+            r.run();
+        }
+    }
+}
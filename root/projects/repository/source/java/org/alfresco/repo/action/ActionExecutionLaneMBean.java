@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.repo.action;
+
+/**
+ * JMX management interface for an {@link ActionExecutionLane}.
+ *
+ * @author agent
+ * @since 4.0
+ */
+public interface ActionExecutionLaneMBean
+{
+    /**
+     * @return              Returns the name of the lane
+     */
+    public String getName();
+
+    /**
+     * @return              Returns the number of actions waiting to be executed
+     */
+    public int getQueueDepth();
+
+    /**
+     * @return              Returns the number of actions currently executing
+     */
+    public int getActiveCount();
+
+    /**
+     * @return              Returns the maximum number of actions executed at the same time
+     */
+    public int getMaximumPoolSize();
+
+    /**
+     * @return              Returns the number of actions executed since startup
+     */
+    public long getExecutedCount();
+
+    /**
+     * @return              Returns the number of actions that were dropped because an identical action was already waiting
+     */
+    public long getCoalescedCount();
+
+    /**
+     * @return              Returns the number of actions executed by the caller because the queue was full
+     */
+    public long getCallerRunsCount();
+
+    /**
+     * @return              Returns the average time, in milliseconds, that actions waited before execution
+     */
+    public long getAverageQueueLatencyMillis();
+
+    /**
+     * @return              Returns the longest time, in milliseconds, that an action waited before execution
+     */
+    public long getMaxQueueLatencyMillis();
+
+    /**
+     * @return              Returns the average execution time of actions, in milliseconds
+     */
+    public long getAverageExecutionTimeMillis();
+
+    /**
+     * Reset the counts and times
+     */
+    public void resetStatistics();
+}
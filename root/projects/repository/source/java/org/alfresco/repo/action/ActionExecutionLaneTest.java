@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.repo.action;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.alfresco.repo.action.AsynchronousActionExecutionQueueImpl.ActionKey;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.StoreRef;
+
+/**
+ * Tests the coalescing and full queue behaviour of {@link ActionExecutionLane}.
+ *
+ * @author agent
+ * @since 4.0
+ */
+public class ActionExecutionLaneTest extends TestCase
+{
+    private ActionExecutionLane lane;
+    private CountDownLatch gate;
+    private AtomicInteger runCount;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        gate = new CountDownLatch(1);
+        runCount = new AtomicInteger();
+        lane = new ActionExecutionLane();
+        lane.setName("test");
+        lane.setPoolSize(1);
+        lane.setQueueSize(2);
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        gate.countDown();
+        lane.shutdown();
+    }
+
+    private Runnable newRunnable()
+    {
+        return new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    gate.await(10, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                runCount.incrementAndGet();
+            }
+        };
+    }
+
+    private Runnable newQuickRunnable()
+    {
+        return new Runnable()
+        {
+            public void run()
+            {
+                runCount.incrementAndGet();
+            }
+        };
+    }
+
+    private void waitForExecutions(long count) throws InterruptedException
+    {
+        for (int i = 0; i < 500 && lane.getExecutedCount() < count; i++)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(count, lane.getExecutedCount());
+    }
+
+    /**
+     * Blocks the only thread and waits for it to take the task
+     */
+    private void occupyThread() throws InterruptedException
+    {
+        lane.execute(null, newRunnable());
+        for (int i = 0; i < 500 && lane.getActiveCount() == 0; i++)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(1, lane.getActiveCount());
+    }
+
+    public void testCoalescing() throws Exception
+    {
+        lane.init();
+        occupyThread();
+
+        assertTrue(lane.execute("a", newRunnable()));
+        assertFalse("Duplicate of a waiting action must be dropped", lane.execute("a", newRunnable()));
+        assertTrue(lane.execute("b", newRunnable()));
+        assertEquals(2, lane.getQueueDepth());
+        assertEquals(1L, lane.getCoalescedCount());
+
+        gate.countDown();
+        waitForExecutions(3);
+        assertEquals(3, runCount.get());
+
+        // Once started, the key may be used again
+        assertTrue(lane.execute("a", newRunnable()));
+        waitForExecutions(4);
+    }
+
+    public void testRejectedActionReleasesKey() throws Exception
+    {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                1, 1, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadPoolExecutor.AbortPolicy());
+        lane.setThreadPoolExecutor(executor);
+        lane.init();
+        try
+        {
+            occupyThread();
+            try
+            {
+                lane.execute("a", newQuickRunnable());
+                fail("The pool has no room for the action");
+            }
+            catch (RejectedExecutionException e)
+            {
+                // Expected
+            }
+            gate.countDown();
+            waitForExecutions(1);
+
+            assertTrue("A rejected action must not hold back later ones", lane.execute("a", newQuickRunnable()));
+            waitForExecutions(2);
+            assertEquals(0L, lane.getCoalescedCount());
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    public void testActionKeys() throws Exception
+    {
+        NodeRef nodeRef = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, "node");
+
+        ActionImpl action = new ActionImpl(null, "action-1", "extract-metadata");
+        assertTrue(ActionKey.isCoalescable(action));
+        // Each request creates a new action, with a new ID
+        ActionImpl repeat = new ActionImpl(null, "action-2", "extract-metadata");
+        assertEquals(
+                "Separately created identical actions are repeats",
+                new ActionKey(nodeRef, action, true),
+                new ActionKey(nodeRef, repeat, true));
+        assertEquals(new ActionKey(nodeRef, action, true).hashCode(), new ActionKey(nodeRef, repeat, true).hashCode());
+        repeat.setRunAsUser("admin");
+        assertFalse(
+                "Actions run as different users are not repeats",
+                new ActionKey(nodeRef, action, true).equals(new ActionKey(nodeRef, repeat, true)));
+        repeat.setRunAsUser(null);
+        repeat.setParameterValue("executeAsynchronously", Boolean.TRUE);
+        assertFalse(
+                "Actions with different parameters are not repeats",
+                new ActionKey(nodeRef, action, true).equals(new ActionKey(nodeRef, repeat, true)));
+        assertFalse(
+                "Actions of a different kind are not repeats",
+                new ActionKey(nodeRef, action, true).equals(
+                        new ActionKey(nodeRef, new ActionImpl(null, "action-3", "transform"), true)));
+
+        // Rules run as composite actions with no parameters of their own
+        CompositeActionImpl rule = new CompositeActionImpl(null, "rule-1");
+        rule.addAction(action);
+        assertFalse(ActionKey.isCoalescable(rule));
+
+        ActionImpl conditional = new ActionImpl(null, "action-4", "extract-metadata");
+        conditional.addActionCondition(new ActionConditionImpl("condition-1", "no-condition"));
+        assertFalse(ActionKey.isCoalescable(conditional));
+    }
+
+    public void testCallerRunsWhenFull() throws Exception
+    {
+        lane.init();
+        occupyThread();
+        lane.execute(null, newRunnable());
+        lane.execute(null, newRunnable());
+
+        // The queue is full, so this runs here
+        lane.execute(null, newQuickRunnable());
+        assertEquals(1L, lane.getCallerRunsCount());
+        assertEquals(1, runCount.get());
+
+        gate.countDown();
+        waitForExecutions(4);
+    }
+
+    public void testBlockWhenFull() throws Exception
+    {
+        lane.setFullQueuePolicy(ActionExecutionLane.FullQueuePolicy.BLOCK);
+        lane.setMaxBlockMillis(10000L);
+        lane.init();
+        occupyThread();
+        lane.execute(null, newRunnable());
+        lane.execute(null, newRunnable());
+
+        // Let the lane drain after the caller has started waiting
+        new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    Thread.sleep(200);
+                }
+                catch (InterruptedException e)
+                {
+                }
+                gate.countDown();
+            }
+        }.start();
+        long before = System.currentTimeMillis();
+        lane.execute(null, newRunnable());
+        assertTrue("Caller should have waited for space", System.currentTimeMillis() - before >= 100);
+        waitForExecutions(4);
+        assertEquals(0L, lane.getCallerRunsCount());
+        assertTrue(lane.getMaxQueueLatencyMillis() >= 100);
+    }
+
+    public void testBlockTimesOut() throws Exception
+    {
+        lane.setFullQueuePolicy(ActionExecutionLane.FullQueuePolicy.BLOCK);
+        lane.setMaxBlockMillis(50L);
+        lane.init();
+        occupyThread();
+        lane.execute(null, newRunnable());
+        lane.execute(null, newRunnable());
+
+        // No space becomes available, so this runs here after waiting
+        long before = System.currentTimeMillis();
+        lane.execute(null, newQuickRunnable());
+        assertTrue("Caller should have waited for space", System.currentTimeMillis() - before >= 40);
+        assertEquals(1L, lane.getCallerRunsCount());
+
+        gate.countDown();
+        waitForExecutions(4);
+
+        lane.resetStatistics();
+        assertEquals(0L, lane.getExecutedCount());
+        assertEquals(0L, lane.getAverageQueueLatencyMillis());
+    }
+}
@@ -55,6 +55,7 @@ public class ActionTestSuite extends TestSuite
         suite.addTestSuite(CompositeActionImplTest.class);
         suite.addTestSuite(ActionServiceImplTest.class);
         suite.addTestSuite(CompositeActionConditionImplTest.class);
+        suite.addTestSuite(ActionExecutionLaneTest.class);
         
         // Test evaluators
         suite.addTestSuite(IsSubTypeEvaluatorTest.class);
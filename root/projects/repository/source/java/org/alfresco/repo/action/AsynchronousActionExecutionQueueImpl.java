@@ -18,6 +18,9 @@
  */
 package org.alfresco.repo.action;
 
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -26,6 +29,7 @@ import java.util.Vector;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ThreadPoolExecutor;
 
+import org.alfresco.error.AlfrescoRuntimeException;
 import org.alfresco.error.StackTraceUtil;
 import org.alfresco.repo.action.AsynchronousActionExecutionQueuePolicies.OnAsyncActionExecute;
 import org.alfresco.repo.policy.ClassPolicyDelegate;
@@ -39,14 +43,22 @@ import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransacti
 import org.alfresco.repo.transaction.TransactionListenerAdapter;
 import org.alfresco.service.cmr.action.Action;
 import org.alfresco.service.cmr.action.ActionServiceException;
+import org.alfresco.service.cmr.action.ActionStatus;
+import org.alfresco.service.cmr.action.CompositeAction;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.cmr.repository.NodeService;
 import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.util.EqualsHelper;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 /**
  * The asynchronous action execution queue implementation
+ * <p>
+ * Actions are run in the {@link ActionExecutionLane lane} configured for their action definition name, or in
+ * the default lane, which uses the {@link #setThreadPoolExecutor(ThreadPoolExecutor) thread pool}, if no lane
+ * is configured for them.  This allows expensive actions, such as thumbnailing, to be throttled without
+ * holding up other actions.
  * 
  * @author Roy Wetherall
  */
@@ -60,6 +72,12 @@ public class AsynchronousActionExecutionQueueImpl implements AsynchronousActionE
     private PolicyComponent policyComponent;
     private Map<String, AbstractAsynchronousActionFilter>
             actionFilters = new ConcurrentHashMap<String, AbstractAsynchronousActionFilter>();
+    private List<ActionExecutionLane> lanes = Collections.emptyList();
+    private boolean coalesceDuplicates = false;
+
+    /** The lanes by action definition name */
+    private Map<String, ActionExecutionLane> lanesByActionName = new HashMap<String, ActionExecutionLane>();
+    private ActionExecutionLane defaultLane;
 
 	/**
 	 * We keep a record of ongoing asynchronous actions (this includes those being executed and
@@ -85,6 +103,29 @@ public class AsynchronousActionExecutionQueueImpl implements AsynchronousActionE
     {
         // Register the policies
         onAsyncActionExecuteDelegate = policyComponent.registerClassPolicy(OnAsyncActionExecute.class);
+        
+        // The default lane runs anything that does not have a lane of its own
+        if (defaultLane == null)
+        {
+            defaultLane = new ActionExecutionLane();
+            defaultLane.setName("default");
+            defaultLane.setThreadPoolExecutor(threadPoolExecutor);
+            defaultLane.init();
+        }
+        Map<String, ActionExecutionLane> lanesByActionName = new HashMap<String, ActionExecutionLane>();
+        for (ActionExecutionLane lane : lanes)
+        {
+            for (String actionDefinitionName : lane.getActionDefinitionNames())
+            {
+                ActionExecutionLane existingLane = lanesByActionName.put(actionDefinitionName, lane);
+                if (existingLane != null)
+                {
+                    throw new AlfrescoRuntimeException(
+                            "Action '" + actionDefinitionName + "' is in more than one lane: " + existingLane + ", " + lane);
+                }
+            }
+        }
+        this.lanesByActionName = lanesByActionName;
     }
 
     /**
@@ -98,6 +139,49 @@ public class AsynchronousActionExecutionQueueImpl implements AsynchronousActionE
         this.threadPoolExecutor = threadPoolExecutor;
     }
 
+    /**
+     * Set the lanes that run specific actions.  Actions that are not in any of the lanes are run
+     * using the {@link #setThreadPoolExecutor(ThreadPoolExecutor) thread pool}.
+     * 
+     * @param lanes                         the lanes, each of which is initialized independently
+     */
+    public void setLanes(List<ActionExecutionLane> lanes)
+    {
+        this.lanes = lanes;
+    }
+
+    /**
+     * Set the lane that runs actions that are not in any of the {@link #setLanes(List) lanes}.  If this is not
+     * set, a lane using the {@link #setThreadPoolExecutor(ThreadPoolExecutor) thread pool} is created.
+     * 
+     * @param defaultLane                   the default lane
+     */
+    public void setDefaultLane(ActionExecutionLane defaultLane)
+    {
+        this.defaultLane = defaultLane;
+    }
+
+    /**
+     * Set whether an action is dropped if the same action, for the same node and with the same parameters,
+     * is still waiting to be executed.  Actions whose status is tracked, composite actions (such as rules)
+     * and actions with conditions or compensating actions are never dropped.
+     * 
+     * @param coalesceDuplicates            <tt>true</tt> to drop duplicate actions (default: <tt>false</tt>)
+     */
+    public void setCoalesceDuplicates(boolean coalesceDuplicates)
+    {
+        this.coalesceDuplicates = coalesceDuplicates;
+    }
+
+    /**
+     * @return                              Returns the lane that runs the given action
+     */
+    ActionExecutionLane getLane(String actionDefinitionName)
+    {
+        ActionExecutionLane lane = lanesByActionName.get(actionDefinitionName);
+        return lane == null ? defaultLane : lane;
+    }
+
     /**
      * Set the transaction service
      * 
@@ -181,6 +265,7 @@ public class AsynchronousActionExecutionQueueImpl implements AsynchronousActionE
 	public void executeAction(RuntimeActionService actionService, Action action, NodeRef actionedUponNodeRef,
             boolean checkConditions, Set<String> actionChain, NodeRef actionExecutionHistoryNodeRef)
     {
+    	ActionExecutionLane lane = getLane(action.getActionDefinitionName());
     	if (logger.isDebugEnabled())
     	{
     	    StringBuilder msg = new StringBuilder();
@@ -189,11 +274,11 @@ public class AsynchronousActionExecutionQueueImpl implements AsynchronousActionE
     	    logger.debug(msg.toString());
 
     	    msg = new StringBuilder();
-    	    msg.append("ThreadPool's active count = ").append(this.threadPoolExecutor.getActiveCount());
+    	    msg.append("Lane ").append(lane.getName()).append(" active count = ").append(lane.getActiveCount());
     	    logger.debug(msg.toString());
 
     	    msg = new StringBuilder();
-    	    msg.append("ThreadPool's queue size = ").append(this.threadPoolExecutor.getQueue().size());
+    	    msg.append("Lane ").append(lane.getName()).append(" queue size = ").append(lane.getQueueDepth());
     	    logger.debug(msg.toString());
     	}
 
@@ -262,7 +347,17 @@ public class AsynchronousActionExecutionQueueImpl implements AsynchronousActionE
         	
         	// Queue it and do it.
         	ongoingActions.add(nodeBeingNewlyActioned);
-        	threadPoolExecutor.execute(runnable);
+        	ActionKey key = null;
+        	if (coalesceDuplicates && action.getExecutionStatus() != ActionStatus.Pending && ActionKey.isCoalescable(action))
+        	{
+        	    key = new ActionKey(actionedUponNodeRef, action, checkConditions);
+        	}
+        	if (!lane.execute(key, runnable))
+        	{
+        	    // An identical action is still waiting
+        	    ongoingActions.remove(nodeBeingNewlyActioned);
+        	    return;
+        	}
         }
 
         // Done
@@ -294,6 +389,72 @@ public class AsynchronousActionExecutionQueueImpl implements AsynchronousActionE
     	ongoingActions.remove(ongoing);
     }
     
+    /**
+     * Identifies actions that would have the same outcome if run one after the other: the same kind of action,
+     * with the same parameters, run as the same user against the same node.  Callers create a new action, with a
+     * new ID, for each request, so the ID is not part of the key.  Only plain actions are coalesced: composite
+     * actions, such as rules, and actions with conditions or compensating actions carry more than their
+     * parameters, so they are always executed.
+     */
+    static class ActionKey
+    {
+        private final NodeRef actionedUponNodeRef;
+        private final String actionDefinitionName;
+        private final Map<String, Serializable> parameterValues;
+        private final String runAsUser;
+        private final boolean checkConditions;
+
+        ActionKey(NodeRef actionedUponNodeRef, Action action, boolean checkConditions)
+        {
+            this.actionedUponNodeRef = actionedUponNodeRef;
+            this.actionDefinitionName = action.getActionDefinitionName();
+            this.parameterValues = new HashMap<String, Serializable>(action.getParameterValues());
+            this.runAsUser = (action instanceof ActionImpl) ? ((ActionImpl) action).getRunAsUser() : null;
+            this.checkConditions = checkConditions;
+        }
+
+        /**
+         * @return                      Returns <tt>true</tt> if the action may be dropped when a repeat of it is waiting
+         */
+        static boolean isCoalescable(Action action)
+        {
+            return !(action instanceof CompositeAction)
+                && !action.hasActionConditions()
+                && action.getCompensatingAction() == null;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return (actionedUponNodeRef == null ? 0 : actionedUponNodeRef.hashCode()) * 37 + actionDefinitionName.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj)
+            {
+                return true;
+            }
+            if (!(obj instanceof ActionKey))
+            {
+                return false;
+            }
+            ActionKey that = (ActionKey) obj;
+            return EqualsHelper.nullSafeEquals(this.actionedUponNodeRef, that.actionedUponNodeRef)
+                && this.actionDefinitionName.equals(that.actionDefinitionName)
+                && this.parameterValues.equals(that.parameterValues)
+                && EqualsHelper.nullSafeEquals(this.runAsUser, that.runAsUser)
+                && this.checkConditions == that.checkConditions;
+        }
+
+        @Override
+        public String toString()
+        {
+            return actionDefinitionName + " on " + actionedUponNodeRef;
+        }
+    }
+
     /**
      * Transaction listener used to invoke callback policies
      */
@@ -33,11 +33,20 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.alfresco.error.AlfrescoRuntimeException;
 import org.alfresco.repo.activities.post.lookup.PostLookup;
 import org.alfresco.repo.domain.activities.ActivityFeedDAO;
 import org.alfresco.repo.domain.activities.ActivityFeedEntity;
@@ -45,6 +54,7 @@ import org.alfresco.repo.domain.activities.ActivityPostEntity;
 import org.alfresco.repo.domain.activities.FeedControlEntity;
 import org.alfresco.repo.template.ISO8601DateFormatMethod;
 import org.alfresco.repo.tenant.TenantService;
+import org.alfresco.util.EqualsHelper;
 import org.alfresco.util.JSONtoFmModel;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -90,6 +100,95 @@ public abstract class FeedTaskProcessor
     private static final String URL_SERVICE_TEMPLATE  = "/api/activities/template";
     
     
+    private ThreadPoolExecutor threadPoolExecutor;
+    private boolean parallel = false;
+    private int batchSize = 100;
+    private long templateCacheTimeoutMillis = 300000L;
+    
+    private volatile TemplateCache persistentTemplateCache;
+    
+    private final AtomicLong processedPostCount = new AtomicLong();
+    private final AtomicLong generatedEntryCount = new AtomicLong();
+    private volatile double lastPostsPerSecond;
+    private volatile double lastEntriesPerSecond;
+    
+    /**
+     * @param threadPoolExecutor    the pool used to generate feed entries in parallel mode
+     */
+    public void setThreadPoolExecutor(ThreadPoolExecutor threadPoolExecutor)
+    {
+        this.threadPoolExecutor = threadPoolExecutor;
+    }
+    
+    /**
+     * Set whether feed entries are generated in parallel.  In parallel mode the recipients of each post
+     * are split into batches that are processed by the {@link #setThreadPoolExecutor(ThreadPoolExecutor) thread pool}:
+     * feed controls are fetched once per batch and compiled templates are kept between runs.  The entries generated
+     * for a post are inserted as a batch, in the same transaction that marks the post as processed.
+     * 
+     * @param parallel              <tt>true</tt> to generate feed entries in parallel (default: <tt>false</tt>)
+     */
+    public void setParallel(boolean parallel)
+    {
+        this.parallel = parallel;
+    }
+    
+    /**
+     * @param batchSize             the number of recipients handled per batch in parallel mode (default: 100)
+     */
+    public void setBatchSize(int batchSize)
+    {
+        this.batchSize = batchSize;
+    }
+    
+    /**
+     * @param templateCacheTimeoutMillis    how long compiled templates are kept in parallel mode (default: 5 minutes)
+     */
+    public void setTemplateCacheTimeoutMillis(long templateCacheTimeoutMillis)
+    {
+        this.templateCacheTimeoutMillis = templateCacheTimeoutMillis;
+    }
+    
+    /**
+     * Discard the templates kept between runs in parallel mode
+     */
+    public void clearTemplateCache()
+    {
+        persistentTemplateCache = null;
+    }
+    
+    /**
+     * @return                      the number of activity posts processed since startup
+     */
+    public long getProcessedPostCount()
+    {
+        return processedPostCount.get();
+    }
+    
+    /**
+     * @return                      the number of feed entries generated since startup
+     */
+    public long getGeneratedEntryCount()
+    {
+        return generatedEntryCount.get();
+    }
+    
+    /**
+     * @return                      the activity posts processed per second by the last run
+     */
+    public double getLastPostsPerSecond()
+    {
+        return lastPostsPerSecond;
+    }
+    
+    /**
+     * @return                      the feed entries generated per second by the last run
+     */
+    public double getLastEntriesPerSecond()
+    {
+        return lastEntriesPerSecond;
+    }
+    
     public void process(int jobTaskNode, long minSeq, long maxSeq, RepoCtx ctx) throws Exception
     {
         long startTime = System.currentTimeMillis();
@@ -105,10 +204,8 @@ public abstract class FeedTaskProcessor
         selector.setMaxId(maxSeq);
         selector.setStatus(ActivityPostEntity.STATUS.POSTED.toString());
         
-        String ticket = ctx.getTicket();
-        
         List<ActivityPostEntity> activityPosts = null;
-        int totalGenerated = 0;
+        AtomicInteger totalGenerated = new AtomicInteger();
         
         try
         {
@@ -116,321 +213,544 @@ public abstract class FeedTaskProcessor
             
             if (logger.isDebugEnabled()) { logger.debug("Process: " + activityPosts.size() + " activity posts"); }
             
-            Configuration cfg = getFreemarkerConfiguration(ctx);
+            if (parallel && threadPoolExecutor != null)
+            {
+                processInParallel(activityPosts, ctx, totalGenerated);
+            }
+            else
+            {
+                processInSequence(activityPosts, ctx, totalGenerated);
+            }
+        }
+        catch(SQLException se)
+        {
+            logger.error(se);
+            throw se;
+        }
+        finally
+        {
+            int postCnt = activityPosts == null ? 0 : activityPosts.size();
+            int generatedCnt = totalGenerated.get();
+            long duration = System.currentTimeMillis() - startTime;
             
-            Map<String, List<String>> activityTemplates = new HashMap<String, List<String>>(10);
-            Map<String, Set<String>> siteConnectedUsers = new TreeMap<String, Set<String>>();
-            Map<String, Set<String>> followers = new TreeMap<String, Set<String>>();
-            Map<String, List<FeedControlEntity>> userFeedControls = new HashMap<String, List<FeedControlEntity>>();
-            Map<String, Template> templateCache = new TreeMap<String, Template>();
+            processedPostCount.addAndGet(postCnt);
+            generatedEntryCount.addAndGet(generatedCnt);
+            double seconds = Math.max(duration, 1L) / 1000.0;
+            lastPostsPerSecond = postCnt / seconds;
+            lastEntriesPerSecond = generatedCnt / seconds;
             
-            // for each activity post ...
-            for (ActivityPostEntity activityPost : activityPosts)
+            // TODO i18n info message
+            StringBuilder sb = new StringBuilder();
+            sb.append("Generated ").append(generatedCnt).append(" activity feed entr").append(generatedCnt == 1 ? "y" : "ies");
+            sb.append(" for ").append(postCnt).append(" activity post").append(postCnt != 1 ? "s" : "").append(" (in ").append(duration).append(" msecs");
+            sb.append(String.format(", %.1f posts/sec, %.1f entries/sec)", lastPostsPerSecond, lastEntriesPerSecond));
+            logger.info(sb.toString());
+        }
+    }
+    
+    /**
+     * Generate the feed entries of each post in turn, one recipient at a time
+     */
+    private void processInSequence(List<ActivityPostEntity> activityPosts, RepoCtx ctx, AtomicInteger totalGenerated) throws Exception
+    {
+        Configuration cfg = getFreemarkerConfiguration(ctx);
+        
+        Map<String, List<String>> activityTemplates = new HashMap<String, List<String>>(10);
+        Map<String, Set<String>> siteConnectedUsers = new TreeMap<String, Set<String>>();
+        Map<String, Set<String>> followers = new TreeMap<String, Set<String>>();
+        Map<String, List<FeedControlEntity>> userFeedControls = new HashMap<String, List<FeedControlEntity>>();
+        Map<String, Template> templateCache = new TreeMap<String, Template>();
+        
+        // for each activity post ...
+        for (ActivityPostEntity activityPost : activityPosts)
+        {
+            PreparedPost post = preparePost(activityPost, ctx, activityTemplates, siteConnectedUsers, followers);
+            if (post == null)
             {
-                String postingUserId = activityPost.getUserId();
-                String activityType = activityPost.getActivityType();
+                continue;
+            }
+            
+            try 
+            { 
+                startTransaction();
                 
-                // eg. org.alfresco.folder.added -> added
-                String baseActivityType = getBaseActivityType(activityType);
+                if (logger.isTraceEnabled())
+                {
+                    logger.trace("Process: " + post.recipients.size() + " candidate connections for activity post " + activityPost.getId());
+                }
                 
-                List<String> fmTemplates = activityTemplates.get(baseActivityType);
+                int excludedConnections = 0;
                 
-                if (fmTemplates == null)
+                for (String recipient : post.recipients)
                 {
-                    // eg. org.alfresco.folder.added -> /org/alfresco/folder/added (note: the leading slash)
-                    String templateSubPath = getTemplateSubPath(activityType);
-                    
-                    fmTemplates = new ArrayList<String>(0);
-                    while (true)
+                    List<FeedControlEntity> feedControls = null;
+                    if (! recipient.equals(""))
                     {
-                        int idx = templateSubPath.lastIndexOf("/");
-                        if (idx != -1)
+                        // Get user's feed controls
+                        feedControls = userFeedControls.get(recipient);
+                        if (feedControls == null)
                         {
-                            templateSubPath = templateSubPath.substring(0, idx);
-                            Map<String, List<String>> templates = null;
-                            try
-                            {
-                                // Repository callback to get list of FreeMarker templates for given activity type
-                                templates = getActivityTypeTemplates(ctx.getRepoEndPoint(), ticket, templateSubPath+"/");
-                            }
-                            catch (FileNotFoundException fnfe)
-                            {
-                                // ignore - path does not exist
-                            }
-                            if (templates != null)
-                            {
-                                if (templates.get(baseActivityType) != null)
-                                {
-                                    // add templates, if format not already included
-                                    addMissingFormats(activityType, fmTemplates, templates.get(baseActivityType));
-                                }
-                                
-                                // special fallback case
-                                if (templates.get("generic") != null)
-                                {
-                                    // add templates, if format not already included
-                                    addMissingFormats(activityType, fmTemplates, templates.get("generic"));
-                                }
-                            }
-                        }
-                        else
-                        {
-                            break;
+                            feedControls = getFeedControls(recipient);
+                            userFeedControls.put(recipient, feedControls);
                         }
                     }
                     
-                    activityTemplates.put(baseActivityType, fmTemplates);
+                    List<ActivityFeedEntity> feeds = generateFeedEntries(post, recipient, feedControls, ctx, cfg, templateCache);
+                    if (feeds == null)
+                    {
+                        excludedConnections++;
+                        continue;
+                    }
                     
-                    if (logger.isTraceEnabled())
+                    for (ActivityFeedEntity feed : feeds)
                     {
-                        for (String fmTemplate : fmTemplates)
-                        {
-                            logger.trace("For activityType '"+activityType+"' found activity type template: "+fmTemplate);
-                        }
+                        // Insert activity feed
+                        insertFeedEntry(feed); // ignore returned feedId
+                        
+                        totalGenerated.incrementAndGet();
                     }
                 }
                 
-                if (fmTemplates.size() == 0)
+                updatePostStatus(activityPost.getId(), ActivityPostEntity.STATUS.PROCESSED);
+                
+                commitTransaction();
+                
+                if (logger.isDebugEnabled())
+                {
+                    logger.debug("Processed: " + (post.recipients.size() - excludedConnections) + " connections for activity post " + activityPost.getId() + " (excluded " + excludedConnections + ")");
+                }
+            } 
+            finally 
+            { 
+                endTransaction();
+            } 
+        }
+    }
+    
+    /**
+     * Fan out the recipients of each post to the thread pool in batches.  Posts are prepared while the
+     * batches of earlier posts are being processed and are completed in order.
+     */
+    private void processInParallel(List<ActivityPostEntity> activityPosts, RepoCtx ctx, AtomicInteger totalGenerated) throws Exception
+    {
+        TemplateCache templates = getTemplateCache(ctx);
+        
+        Map<String, Set<String>> siteConnectedUsers = new TreeMap<String, Set<String>>();
+        Map<String, Set<String>> followers = new TreeMap<String, Set<String>>();
+        Map<String, List<FeedControlEntity>> userFeedControls = new ConcurrentHashMap<String, List<FeedControlEntity>>();
+        
+        int maxPendingPosts = Math.max(1, threadPoolExecutor.getMaximumPoolSize());
+        LinkedList<PendingPost> pendingPosts = new LinkedList<PendingPost>();
+        try
+        {
+            for (ActivityPostEntity activityPost : activityPosts)
+            {
+                PreparedPost post = preparePost(activityPost, ctx, templates.activityTemplates, siteConnectedUsers, followers);
+                if (post == null)
                 {
-                    logger.error("Skipping activity post " + activityPost.getId() + " since no specific/generic templates for activityType: " + activityType );
-                    updatePostStatus(activityPost.getId(), ActivityPostEntity.STATUS.ERROR);
                     continue;
                 }
                 
-                Map<String, Object> model = null;
+                List<String> recipients = new ArrayList<String>(post.recipients);
+                PendingPost pendingPost = new PendingPost(post);
+                for (int i = 0; i < recipients.size(); i += batchSize)
+                {
+                    List<String> batch = recipients.subList(i, Math.min(recipients.size(), i + batchSize));
+                    FeedEntryBatch work = new FeedEntryBatch(post, batch, userFeedControls, ctx, templates);
+                    pendingPost.results.add(threadPoolExecutor.submit(work));
+                }
+                pendingPosts.add(pendingPost);
+                
+                while (pendingPosts.size() > maxPendingPosts)
+                {
+                    completePost(pendingPosts.removeFirst(), totalGenerated);
+                }
+            }
+            while (!pendingPosts.isEmpty())
+            {
+                completePost(pendingPosts.removeFirst(), totalGenerated);
+            }
+        }
+        finally
+        {
+            // Only left over if something failed
+            for (PendingPost pendingPost : pendingPosts)
+            {
+                for (Future<GeneratedFeeds> result : pendingPost.results)
+                {
+                    result.cancel(false);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Wait for the batches of a post, then insert its feed entries and mark it as processed together
+     */
+    private void completePost(PendingPost pendingPost, AtomicInteger totalGenerated) throws Exception
+    {
+        long postId = pendingPost.post.activityPost.getId();
+        List<ActivityFeedEntity> feeds = new ArrayList<ActivityFeedEntity>();
+        int excludedConnections = 0;
+        for (Future<GeneratedFeeds> result : pendingPost.results)
+        {
+            try
+            {
+                GeneratedFeeds generated = result.get();
+                feeds.addAll(generated.feeds);
+                excludedConnections += generated.excludedConnections;
+            }
+            catch (ExecutionException e)
+            {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception)
+                {
+                    throw (Exception) cause;
+                }
+                throw new AlfrescoRuntimeException("Failed to generate feed entries for activity post " + postId, cause);
+            }
+        }
+        
+        insertPostFeedEntries(postId, feeds);
+        totalGenerated.addAndGet(feeds.size());
+        
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Processed: " + (pendingPost.post.recipients.size() - excludedConnections) + " connections for activity post " + postId + " (excluded " + excludedConnections + ")");
+        }
+    }
+    
+    /**
+     * Find the templates, model and recipients for an activity post.
+     * 
+     * @return                  the prepared post or <tt>null</tt> if the post could not be processed (and has been marked as such)
+     */
+    private PreparedPost preparePost(
+            ActivityPostEntity activityPost,
+            RepoCtx ctx,
+            Map<String, List<String>> activityTemplates,
+            Map<String, Set<String>> siteConnectedUsers,
+            Map<String, Set<String>> followers) throws Exception
+    {
+        String activityType = activityPost.getActivityType();
+        
+        // eg. org.alfresco.folder.added -> added
+        String baseActivityType = getBaseActivityType(activityType);
+        
+        List<String> fmTemplates = activityTemplates.get(baseActivityType);
+        
+        if (fmTemplates == null)
+        {
+            fmTemplates = getActivityTypeTemplates(ctx, activityType, baseActivityType);
+            activityTemplates.put(baseActivityType, fmTemplates);
+        }
+        
+        if (fmTemplates.size() == 0)
+        {
+            logger.error("Skipping activity post " + activityPost.getId() + " since no specific/generic templates for activityType: " + activityType );
+            updatePostStatus(activityPost.getId(), ActivityPostEntity.STATUS.ERROR);
+            return null;
+        }
+        
+        Map<String, Object> model = null;
+        try
+        {
+            model = JSONtoFmModel.convertJSONObjectToMap(activityPost.getActivityData());
+        }
+        catch(JSONException je)
+        {
+            logger.error("Skipping activity post " + activityPost.getId() + " due to invalid activity data: " + je);
+            updatePostStatus(activityPost.getId(), ActivityPostEntity.STATUS.ERROR);
+            return null;
+        }
+        
+        // note: for MT share, site id should already be mangled - in addition to extra tenant domain info
+        
+        String thisSite = activityPost.getSiteNetwork();
+        String tenantDomain = (String)model.get(PostLookup.JSON_TENANT_DOMAIN);
+        
+        if (thisSite != null)
+        {
+            if (tenantDomain != null)
+            {
+                thisSite = getTenantName(thisSite, tenantDomain);
+            }
+            else
+            {
+                // for backwards compatibility
+                tenantDomain = getTenantDomain(thisSite);
+            }
+        }
+        if (tenantDomain == null)
+        {
+            tenantDomain = TenantService.DEFAULT_DOMAIN;
+        }
+        
+        model.put(ActivityFeedEntity.KEY_ACTIVITY_FEED_TYPE, activityPost.getActivityType());
+        model.put(ActivityFeedEntity.KEY_ACTIVITY_FEED_SITE, thisSite);
+        model.put("userId", activityPost.getUserId());
+        model.put("id", activityPost.getId());
+        model.put("date", activityPost.getPostDate()); // post date rather than time that feed is generated
+        model.put("xmldate", new ISO8601DateFormatMethod());
+        model.put("repoEndPoint", ctx.getRepoEndPoint());
+        
+        for (String fmTemplate : fmTemplates)
+        {
+            if (getTemplateFormat(fmTemplate).equals(FeedTaskProcessor.FEED_FORMAT_JSON))
+            {
+                // allows generic JSON template to simply pass straight through
+                model.put("activityData", activityPost.getActivityData());
+            }
+        }
+        
+        // Recipients of this post
+        Set<String> recipients = new HashSet<String>();
+        
+        // Add site members to recipient list
+        if (thisSite.length() > 0)
+        {        
+            // Get the members of this site - save hammering the repository by reusing cached site members
+            Set<String> connectedUsers = siteConnectedUsers.get(thisSite);
+            if (connectedUsers == null)
+            {
                 try
                 {
-                    model = JSONtoFmModel.convertJSONObjectToMap(activityPost.getActivityData());
+                    // Repository callback to get site members
+                    connectedUsers = getSiteMembers(ctx, thisSite, tenantDomain);
+                    connectedUsers.add(""); // add empty posting userid - to represent site feed !
                 }
-                catch(JSONException je)
+                catch(Exception e)
                 {
-                    logger.error("Skipping activity post " + activityPost.getId() + " due to invalid activity data: " + je);
+                    logger.error("Skipping activity post " + activityPost.getId() + " since failed to get site members: " + e);
                     updatePostStatus(activityPost.getId(), ActivityPostEntity.STATUS.ERROR);
-                    continue;
+                    return null;
                 }
                 
-                // note: for MT share, site id should already be mangled - in addition to extra tenant domain info
-                
-                String thisSite = activityPost.getSiteNetwork();
-                String tenantDomain = (String)model.get(PostLookup.JSON_TENANT_DOMAIN);
-                
-                if (thisSite != null)
+                // Cache them for future use in this same invocation
+                siteConnectedUsers.put(thisSite, connectedUsers);
+            }
+            
+            recipients.addAll(connectedUsers);
+        }
+        
+        // Add followers to recipient list
+        
+        // MT Share - mangle key to be within context of tenant
+        String key = getTenantKey(activityPost.getUserId(), tenantDomain);
+        Set<String> followerUsers = followers.get(key);
+        if (followerUsers == null)
+        {
+            try
+            {
+                followerUsers = getFollowers(activityPost.getUserId(), tenantDomain);
+            }
+            catch(Exception e)
+            {
+                logger.error("Skipping activity post " + activityPost.getId() + " since failed to get followers: " + e);
+                updatePostStatus(activityPost.getId(), ActivityPostEntity.STATUS.ERROR);
+                return null;
+            }
+            
+            followers.put(key, followerUsers);
+        }
+        recipients.addAll(followerUsers);
+        
+        // Add the originator to recipients
+        recipients.add(activityPost.getUserId());
+        
+        return new PreparedPost(activityPost, fmTemplates, model, thisSite, recipients);
+    }
+    
+    /**
+     * Find the FreeMarker templates for an activity type, falling back to the generic templates
+     */
+    private List<String> getActivityTypeTemplates(RepoCtx ctx, String activityType, String baseActivityType) throws Exception
+    {
+        // eg. org.alfresco.folder.added -> /org/alfresco/folder/added (note: the leading slash)
+        String templateSubPath = getTemplateSubPath(activityType);
+        
+        List<String> fmTemplates = new ArrayList<String>(0);
+        while (true)
+        {
+            int idx = templateSubPath.lastIndexOf("/");
+            if (idx != -1)
+            {
+                templateSubPath = templateSubPath.substring(0, idx);
+                Map<String, List<String>> templates = null;
+                try
+                {
+                    // Repository callback to get list of FreeMarker templates for given activity type
+                    templates = getActivityTypeTemplates(ctx.getRepoEndPoint(), ctx.getTicket(), templateSubPath+"/");
+                }
+                catch (FileNotFoundException fnfe)
                 {
-                    if (tenantDomain != null)
+                    // ignore - path does not exist
+                }
+                if (templates != null)
+                {
+                    if (templates.get(baseActivityType) != null)
                     {
-                        thisSite = getTenantName(thisSite, tenantDomain);
+                        // add templates, if format not already included
+                        addMissingFormats(activityType, fmTemplates, templates.get(baseActivityType));
                     }
-                    else
+                    
+                    // special fallback case
+                    if (templates.get("generic") != null)
                     {
-                        // for backwards compatibility
-                        tenantDomain = getTenantDomain(thisSite);
+                        // add templates, if format not already included
+                        addMissingFormats(activityType, fmTemplates, templates.get("generic"));
                     }
                 }
-                if (tenantDomain == null)
+            }
+            else
+            {
+                break;
+            }
+        }
+        
+        if (logger.isTraceEnabled())
+        {
+            for (String fmTemplate : fmTemplates)
+            {
+                logger.trace("For activityType '"+activityType+"' found activity type template: "+fmTemplate);
+            }
+        }
+        return fmTemplates;
+    }
+    
+    /**
+     * Generate the feed entries of a post for one recipient
+     * 
+     * @return                  the feed entries or <tt>null</tt> if the recipient is excluded
+     */
+    private List<ActivityFeedEntity> generateFeedEntries(
+            PreparedPost post,
+            String recipient,
+            List<FeedControlEntity> feedControls,
+            RepoCtx ctx,
+            Configuration cfg,
+            Map<String, Template> templateCache) throws Exception
+    {
+        ActivityPostEntity activityPost = post.activityPost;
+        
+        // filter based on opt-out feed controls (if any)
+        if (! acceptActivity(activityPost, feedControls))
+        {
+            return null;
+        }
+        
+        // read permission check
+        if (! canRead(ctx, recipient, post.model))
+        {
+            return null;
+        }
+        
+        List<ActivityFeedEntity> feeds = new ArrayList<ActivityFeedEntity>(post.fmTemplates.size());
+        for (String fmTemplate : post.fmTemplates)
+        {
+            // determine format - based on template naming convention
+            String formatFound = getTemplateFormat(fmTemplate);
+            
+            ActivityFeedEntity feed = new ActivityFeedEntity();
+            
+            // Generate activity feed summary 
+            feed.setFeedUserId(recipient);
+            feed.setPostUserId(activityPost.getUserId());
+            feed.setActivityType(activityPost.getActivityType());
+            
+            String activitySummary = processFreemarker(templateCache, fmTemplate, cfg, post.model);
+            if (! activitySummary.equals(""))
+            {
+                if (activitySummary.length() > ActivityFeedDAO.MAX_LEN_ACTIVITY_SUMMARY)
                 {
-                    tenantDomain = TenantService.DEFAULT_DOMAIN;
+                    logger.warn("Skip feed entry (activity post " + activityPost.getId() + ") since activity summary - exceeds " + ActivityFeedDAO.MAX_LEN_ACTIVITY_SUMMARY + " chars: " + activitySummary);
                 }
-                
-                model.put(ActivityFeedEntity.KEY_ACTIVITY_FEED_TYPE, activityPost.getActivityType());
-                model.put(ActivityFeedEntity.KEY_ACTIVITY_FEED_SITE, thisSite);
-                model.put("userId", activityPost.getUserId());
-                model.put("id", activityPost.getId());
-                model.put("date", activityPost.getPostDate()); // post date rather than time that feed is generated
-                model.put("xmldate", new ISO8601DateFormatMethod());
-                model.put("repoEndPoint", ctx.getRepoEndPoint());
-                
-                // Recipients of this post
-                Set<String> recipients = new HashSet<String>();
-                
-                // Add site members to recipient list
-                if (thisSite.length() > 0)
-                {        
-                    // Get the members of this site - save hammering the repository by reusing cached site members
-                    Set<String> connectedUsers = siteConnectedUsers.get(thisSite);
-                    if (connectedUsers == null)
-                    {
-                        try
-                        {
-                            // Repository callback to get site members
-                            connectedUsers = getSiteMembers(ctx, thisSite, tenantDomain);
-                            connectedUsers.add(""); // add empty posting userid - to represent site feed !
-                        }
-                        catch(Exception e)
-                        {
-                            logger.error("Skipping activity post " + activityPost.getId() + " since failed to get site members: " + e);
-                            updatePostStatus(activityPost.getId(), ActivityPostEntity.STATUS.ERROR);
-                            continue;
-                        }
-                        
-                        // Cache them for future use in this same invocation
-                        siteConnectedUsers.put(thisSite, connectedUsers);
-                    }
+                else
+                {
+                    feed.setActivitySummary(activitySummary);
+                    feed.setActivitySummaryFormat(formatFound);
+                    feed.setSiteNetwork(post.thisSite);
+                    feed.setAppTool(activityPost.getAppTool());
+                    feed.setPostDate(activityPost.getPostDate());
+                    feed.setPostId(activityPost.getId());
+                    feed.setFeedDate(new Date());
                     
-                    recipients.addAll(connectedUsers);
+                    feeds.add(feed);
                 }
-                
-                // Add followers to recipient list
-                
-                // MT Share - mangle key to be within context of tenant
-                String key = getTenantKey(activityPost.getUserId(), tenantDomain);
-                Set<String> followerUsers = followers.get(key);
-                if (followerUsers == null)
+            }
+            else
+            {
+                if (logger.isDebugEnabled())
                 {
-                    try
-                    {
-                        followerUsers = getFollowers(activityPost.getUserId(), tenantDomain);
-                    }
-                    catch(Exception e)
-                    {
-                        logger.error("Skipping activity post " + activityPost.getId() + " since failed to get followers: " + e);
-                        updatePostStatus(activityPost.getId(), ActivityPostEntity.STATUS.ERROR);
-                        continue;
-                    }
-                    
-                    followers.put(key, followerUsers);
+                    logger.debug("Empty template result for activityType '" + activityPost.getActivityType() + "' using format '" + formatFound + "' hence skip feed entry (activity post " + activityPost.getId() + ")");
                 }
-                recipients.addAll(followerUsers);
-                
-                // Add the originator to recipients
-                recipients.add(activityPost.getUserId());
-                
-                try 
-                { 
-                    startTransaction();
-                    
-                    if (logger.isTraceEnabled())
-                    {
-                        logger.trace("Process: " + recipients.size() + " candidate connections for activity post " + activityPost.getId());
-                    }
-                    
-                    int excludedConnections = 0;
-                    
-                    for (String recipient : recipients)
-                    {
-                        List<FeedControlEntity> feedControls = null;
-                        if (! recipient.equals(""))
-                        {
-                            // Get user's feed controls
-                            feedControls = userFeedControls.get(recipient);
-                            if (feedControls == null)
-                            {
-                                feedControls = getFeedControls(recipient);
-                                userFeedControls.put(recipient, feedControls);
-                            }
-                        }
-                        
-                        // filter based on opt-out feed controls (if any)
-                        if (! acceptActivity(activityPost, feedControls))
-                        {
-                            excludedConnections++;
-                        }
-                        else
-                        {
-                            // read permission check
-                            if (! canRead(ctx, recipient, model))
-                            {
-                                excludedConnections++;
-                                continue;
-                            }
-                            
-                            for (String fmTemplate : fmTemplates)
-                            {
-                                // determine format - based on template naming convention
-                                String formatFound = null;
-                                for (String format : formats)
-                                {
-                                    if (fmTemplate.contains("."+format+"."))
-                                    {
-                                        formatFound = format;
-                                        break;
-                                    }
-                                }
-                                
-                                if (formatFound == null)
-                                {
-                                    formatFound = defaultFormat;
-                                    logger.warn("Unknown format for: " + fmTemplate + " default to '"+formatFound+"'");
-                                }
-                                
-                                ActivityFeedEntity feed = new ActivityFeedEntity();
-                                
-                                // Generate activity feed summary 
-                                feed.setFeedUserId(recipient);
-                                feed.setPostUserId(postingUserId);
-                                feed.setActivityType(activityType);
-                                
-                                if (formatFound.equals(FeedTaskProcessor.FEED_FORMAT_JSON))
-                                {
-                                    // allows generic JSON template to simply pass straight through
-                                    model.put("activityData", activityPost.getActivityData());
-                                }
-                                
-                                String activitySummary = processFreemarker(templateCache, fmTemplate, cfg, model);
-                                if (! activitySummary.equals(""))
-                                {
-                                    if (activitySummary.length() > ActivityFeedDAO.MAX_LEN_ACTIVITY_SUMMARY)
-                                    {
-                                        logger.warn("Skip feed entry (activity post " + activityPost.getId() + ") since activity summary - exceeds " + ActivityFeedDAO.MAX_LEN_ACTIVITY_SUMMARY + " chars: " + activitySummary);
-                                    }
-                                    else
-                                    {
-                                        feed.setActivitySummary(activitySummary);
-                                        feed.setActivitySummaryFormat(formatFound);
-                                        feed.setSiteNetwork(thisSite);
-                                        feed.setAppTool(activityPost.getAppTool());
-                                        feed.setPostDate(activityPost.getPostDate());
-                                        feed.setPostId(activityPost.getId());
-                                        feed.setFeedDate(new Date());
-                                        
-                                        // Insert activity feed
-                                        insertFeedEntry(feed); // ignore returned feedId
-                                        
-                                        totalGenerated++;
-                                    }
-                                }
-                                else
-                                {
-                                    if (logger.isDebugEnabled())
-                                    {
-                                        logger.debug("Empty template result for activityType '" + activityType + "' using format '" + formatFound + "' hence skip feed entry (activity post " + activityPost.getId() + ")");
-                                    }
-                                }
-                            }
-                        }
-                    }
-                    
-                    updatePostStatus(activityPost.getId(), ActivityPostEntity.STATUS.PROCESSED);
-                    
-                    commitTransaction();
-                    
-                    if (logger.isDebugEnabled())
-                    {
-                        logger.debug("Processed: " + (recipients.size() - excludedConnections) + " connections for activity post " + activityPost.getId() + " (excluded " + excludedConnections + ")");
-                    }
-                } 
-                finally 
-                { 
-                    endTransaction();
-                } 
             }
         }
-        catch(SQLException se)
+        return feeds;
+    }
+    
+    /**
+     * Determine the format of a template based on the template naming convention
+     */
+    private String getTemplateFormat(String fmTemplate)
+    {
+        for (String format : formats)
         {
-            logger.error(se);
-            throw se;
+            if (fmTemplate.contains("."+format+"."))
+            {
+                return format;
+            }
         }
-        finally
+        logger.warn("Unknown format for: " + fmTemplate + " default to '"+defaultFormat+"'");
+        return defaultFormat;
+    }
+    
+    /**
+     * Get the templates kept between runs, starting afresh if they are too old or the ticket has changed
+     */
+    private synchronized TemplateCache getTemplateCache(RepoCtx ctx)
+    {
+        TemplateCache cache = persistentTemplateCache;
+        long now = System.currentTimeMillis();
+        if (cache == null ||
+            now - cache.created > templateCacheTimeoutMillis ||
+            !EqualsHelper.nullSafeEquals(cache.ticket, ctx.getTicket()))
         {
-            int postCnt = activityPosts == null ? 0 : activityPosts.size();
-            
-            // TODO i18n info message
-            StringBuilder sb = new StringBuilder();
-            sb.append("Generated ").append(totalGenerated).append(" activity feed entr").append(totalGenerated == 1 ? "y" : "ies");
-            sb.append(" for ").append(postCnt).append(" activity post").append(postCnt != 1 ? "s" : "").append(" (in ").append(System.currentTimeMillis() - startTime).append(" msecs)");
-            logger.info(sb.toString());
+            cache = new TemplateCache(getFreemarkerConfiguration(ctx), ctx.getTicket(), now);
+            persistentTemplateCache = cache;
         }
+        return cache;
     }
-
+    
+    /**
+     * Ensure that the feed controls of the given users are cached, using one query for those that are not
+     */
+    private void prefetchFeedControls(List<String> users, Map<String, List<FeedControlEntity>> userFeedControls) throws SQLException
+    {
+        Map<String, List<FeedControlEntity>> fetched = new HashMap<String, List<FeedControlEntity>>(users.size() * 2);
+        for (String user : users)
+        {
+            if (! user.equals("") && ! userFeedControls.containsKey(user))
+            {
+                fetched.put(user, new ArrayList<FeedControlEntity>(0));
+            }
+        }
+        if (fetched.isEmpty())
+        {
+            return;
+        }
+        List<FeedControlEntity> feedControls = selectUserFeedControls(new ArrayList<String>(fetched.keySet()));
+        for (FeedControlEntity feedControl : feedControls)
+        {
+            List<FeedControlEntity> userControls = fetched.get(feedControl.getFeedUserId());
+            if (userControls != null)
+            {
+                userControls.add(feedControl);
+            }
+        }
+        userFeedControls.putAll(fetched);
+    }
+    
     public abstract void startTransaction() throws SQLException;
 
     public abstract void commitTransaction() throws SQLException;
@@ -446,6 +766,49 @@ public abstract class FeedTaskProcessor
     public abstract long insertFeedEntry(ActivityFeedEntity feed) throws SQLException;
 
     public abstract int updatePostStatus(long id, ActivityPostEntity.STATUS status) throws SQLException;
+    
+    /**
+     * Get the feed controls of several users.  The default implementation selects them one user at a time.
+     */
+    public List<FeedControlEntity> selectUserFeedControls(List<String> userIds) throws SQLException
+    {
+        List<FeedControlEntity> feedControls = new ArrayList<FeedControlEntity>();
+        for (String userId : userIds)
+        {
+            feedControls.addAll(selectUserFeedControls(userId));
+        }
+        return feedControls;
+    }
+    
+    /**
+     * Insert several feed entries.  The default implementation inserts them one at a time.
+     */
+    public void insertFeedEntries(List<ActivityFeedEntity> feeds) throws SQLException
+    {
+        for (ActivityFeedEntity feed : feeds)
+        {
+            insertFeedEntry(feed);
+        }
+    }
+    
+    /**
+     * Insert the feed entries generated for an activity post and mark the post as processed, in one transaction,
+     * so that a failure leaves the post to be processed again without any of its entries.
+     */
+    public void insertPostFeedEntries(long postId, List<ActivityFeedEntity> feeds) throws SQLException
+    {
+        try
+        {
+            startTransaction();
+            insertFeedEntries(feeds);
+            updatePostStatus(postId, ActivityPostEntity.STATUS.PROCESSED);
+            commitTransaction();
+        }
+        finally
+        {
+            endTransaction();
+        }
+    }
 
     protected String callWebScript(String urlString, String ticket) throws MalformedURLException, URISyntaxException, IOException
     {
@@ -748,6 +1111,124 @@ public abstract class FeedTaskProcessor
         return (parts.length != 0 ? parts[parts.length-1] : "");
     }
     
+    /**
+     * An activity post with its templates, model and recipients
+     */
+    private static class PreparedPost
+    {
+        private final ActivityPostEntity activityPost;
+        private final List<String> fmTemplates;
+        private final Map<String, Object> model;
+        private final String thisSite;
+        private final Set<String> recipients;
+        
+        private PreparedPost(ActivityPostEntity activityPost, List<String> fmTemplates, Map<String, Object> model, String thisSite, Set<String> recipients)
+        {
+            this.activityPost = activityPost;
+            this.fmTemplates = fmTemplates;
+            this.model = model;
+            this.thisSite = thisSite;
+            this.recipients = recipients;
+        }
+    }
+    
+    /**
+     * A post whose batches have been handed to the thread pool
+     */
+    private static class PendingPost
+    {
+        private final PreparedPost post;
+        private final List<Future<GeneratedFeeds>> results = new ArrayList<Future<GeneratedFeeds>>(4);
+        
+        private PendingPost(PreparedPost post)
+        {
+            this.post = post;
+        }
+    }
+    
+    /**
+     * Templates and configuration kept between runs in parallel mode
+     */
+    private static class TemplateCache
+    {
+        private final Configuration cfg;
+        private final String ticket;
+        private final long created;
+        private final Map<String, List<String>> activityTemplates = new ConcurrentHashMap<String, List<String>>(10);
+        private final Map<String, Template> templates = new ConcurrentHashMap<String, Template>(10);
+        
+        private TemplateCache(Configuration cfg, String ticket, long created)
+        {
+            this.cfg = cfg;
+            this.ticket = ticket;
+            this.created = created;
+        }
+    }
+    
+    /**
+     * The feed entries generated for a batch of recipients and the number of recipients excluded
+     */
+    private static class GeneratedFeeds
+    {
+        private final List<ActivityFeedEntity> feeds;
+        private final int excludedConnections;
+        
+        private GeneratedFeeds(List<ActivityFeedEntity> feeds, int excludedConnections)
+        {
+            this.feeds = feeds;
+            this.excludedConnections = excludedConnections;
+        }
+    }
+    
+    /**
+     * Generates the feed entries of a post for a batch of recipients.  They are inserted once all the
+     * batches of the post are done.
+     */
+    private class FeedEntryBatch implements Callable<GeneratedFeeds>
+    {
+        private final PreparedPost post;
+        private final List<String> recipients;
+        private final Map<String, List<FeedControlEntity>> userFeedControls;
+        private final RepoCtx ctx;
+        private final TemplateCache templates;
+        
+        private FeedEntryBatch(
+                PreparedPost post,
+                List<String> recipients,
+                Map<String, List<FeedControlEntity>> userFeedControls,
+                RepoCtx ctx,
+                TemplateCache templates)
+        {
+            this.post = post;
+            this.recipients = recipients;
+            this.userFeedControls = userFeedControls;
+            this.ctx = ctx;
+            this.templates = templates;
+        }
+        
+        public GeneratedFeeds call() throws Exception
+        {
+            prefetchFeedControls(recipients, userFeedControls);
+            
+            List<ActivityFeedEntity> feeds = new ArrayList<ActivityFeedEntity>(recipients.size() * post.fmTemplates.size());
+            int excludedConnections = 0;
+            for (String recipient : recipients)
+            {
+                List<FeedControlEntity> feedControls = recipient.equals("") ? null : userFeedControls.get(recipient);
+                List<ActivityFeedEntity> recipientFeeds = generateFeedEntries(post, recipient, feedControls, ctx, templates.cfg, templates.templates);
+                if (recipientFeeds == null)
+                {
+                    excludedConnections++;
+                }
+                else
+                {
+                    feeds.addAll(recipientFeeds);
+                }
+            }
+            return new GeneratedFeeds(feeds, excludedConnections);
+        }
+    }
+    
     protected class TemplateWebScriptLoader extends URLTemplateLoader
     {
         private String repoEndPoint;
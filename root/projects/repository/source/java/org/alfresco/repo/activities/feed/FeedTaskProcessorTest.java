@@ -0,0 +1,358 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.repo.activities.feed;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.alfresco.repo.domain.activities.ActivityFeedEntity;
+import org.alfresco.repo.domain.activities.ActivityPostEntity;
+import org.alfresco.repo.domain.activities.FeedControlEntity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import freemarker.cache.StringTemplateLoader;
+import freemarker.template.Configuration;
+import freemarker.template.DefaultObjectWrapper;
+
+/**
+ * Compares the sequential and parallel modes of the {@link FeedTaskProcessor} using an in-memory processor.
+ *
+ * @author agent
+ * @since 4.0
+ */
+public class FeedTaskProcessorTest
+{
+    private static final int MEMBER_COUNT = 250;
+    private static final int POST_COUNT = 5;
+
+    private ThreadPoolExecutor threadPoolExecutor;
+    private InMemoryFeedTaskProcessor processor;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        threadPoolExecutor = new ThreadPoolExecutor(4, 4, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        processor = new InMemoryFeedTaskProcessor();
+        processor.setThreadPoolExecutor(threadPoolExecutor);
+        processor.setBatchSize(100);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        threadPoolExecutor.shutdownNow();
+    }
+
+    private Set<String> run(boolean parallel) throws Exception
+    {
+        processor.reset();
+        processor.setParallel(parallel);
+        processor.process(0, 0, POST_COUNT, new RepoCtx("http://localhost:8080/alfresco"));
+        return getEntries();
+    }
+
+    private Set<String> getEntries()
+    {
+        Set<String> entries = new HashSet<String>();
+        for (ActivityFeedEntity feed : processor.feeds)
+        {
+            entries.add(feed.getFeedUserId() + "|" + feed.getActivitySummaryFormat() + "|" + feed.getActivitySummary());
+        }
+        assertEquals("Duplicate feed entries", processor.feeds.size(), entries.size());
+        for (long id = 0; id < POST_COUNT; id++)
+        {
+            assertEquals(ActivityPostEntity.STATUS.PROCESSED, processor.statuses.get(id));
+        }
+        return entries;
+    }
+
+    @Test
+    public void parallelMatchesSequential() throws Exception
+    {
+        Set<String> sequential = run(false);
+        Set<String> parallel = run(true);
+
+        // Every member except the one with a feed control plus the site feed, in two formats, for each post
+        assertEquals(POST_COUNT * MEMBER_COUNT * 2, sequential.size());
+        assertEquals(sequential, parallel);
+        assertFalse(parallel.contains("user3|text|user0 posted 0"));
+        assertTrue(parallel.contains("|text|user0 posted 0"));
+    }
+
+    @Test
+    public void feedControlsAndInsertsAreBatched() throws Exception
+    {
+        // With one thread, the batches of later posts find the feed controls already fetched
+        threadPoolExecutor.setCorePoolSize(1);
+        threadPoolExecutor.setMaximumPoolSize(1);
+        run(true);
+
+        assertEquals(0, processor.singleFeedControlQueries.get());
+        // Member batches of 100, 100 and 51 for the first post only
+        assertEquals(3, processor.batchFeedControlQueries.get());
+        // One insert per post, with the status update
+        assertEquals(POST_COUNT, processor.batchInserts.get());
+    }
+
+    @Test
+    public void failedPostIsProcessedAgainWithoutDuplicates() throws Exception
+    {
+        Set<String> sequential = run(false);
+
+        processor.reset();
+        processor.setParallel(true);
+        processor.failingPostId = 2L;
+        try
+        {
+            processor.process(0, 0, POST_COUNT, new RepoCtx("http://localhost:8080/alfresco"));
+            fail("Marking post 2 as processed must fail");
+        }
+        catch (SQLException e)
+        {
+            // Expected
+        }
+        assertFalse(processor.statuses.containsKey(2L));
+
+        // The next run picks up the posts that were not processed
+        processor.failingPostId = -1L;
+        processor.process(0, 0, POST_COUNT, new RepoCtx("http://localhost:8080/alfresco"));
+        assertEquals(sequential, getEntries());
+    }
+
+    @Test
+    public void templatesAreKeptBetweenRuns() throws Exception
+    {
+        run(true);
+        int lookups = processor.templateLookups.get();
+        assertTrue(lookups > 0);
+        run(true);
+        assertEquals(lookups, processor.templateLookups.get());
+
+        processor.clearTemplateCache();
+        run(true);
+        assertEquals(lookups * 2, processor.templateLookups.get());
+    }
+
+    @Test
+    public void throughputIsRecorded() throws Exception
+    {
+        run(true);
+        assertEquals(POST_COUNT, processor.getProcessedPostCount());
+        assertEquals(POST_COUNT * MEMBER_COUNT * 2, processor.getGeneratedEntryCount());
+        assertTrue(processor.getLastEntriesPerSecond() > 0.0);
+    }
+
+    /**
+     * A processor with one site, whose members are all connected to each post
+     */
+    private static class InMemoryFeedTaskProcessor extends FeedTaskProcessor
+    {
+        private final List<ActivityFeedEntity> feeds = Collections.synchronizedList(new ArrayList<ActivityFeedEntity>());
+        private final Map<Long, ActivityPostEntity.STATUS> statuses = Collections.synchronizedMap(new HashMap<Long, ActivityPostEntity.STATUS>());
+        private final AtomicInteger singleFeedControlQueries = new AtomicInteger();
+        private final AtomicInteger batchFeedControlQueries = new AtomicInteger();
+        private final AtomicInteger batchInserts = new AtomicInteger();
+        private final AtomicInteger templateLookups = new AtomicInteger();
+        private volatile long failingPostId = -1L;
+        
+        // Entries and statuses written in the current thread's transaction
+        private final ThreadLocal<List<ActivityFeedEntity>> txnFeeds = new ThreadLocal<List<ActivityFeedEntity>>();
+        private final ThreadLocal<Map<Long, ActivityPostEntity.STATUS>> txnStatuses = new ThreadLocal<Map<Long, ActivityPostEntity.STATUS>>();
+
+        private void reset()
+        {
+            feeds.clear();
+            statuses.clear();
+            singleFeedControlQueries.set(0);
+            batchFeedControlQueries.set(0);
+            batchInserts.set(0);
+        }
+
+        public void startTransaction() throws SQLException
+        {
+            txnFeeds.set(new ArrayList<ActivityFeedEntity>());
+            txnStatuses.set(new HashMap<Long, ActivityPostEntity.STATUS>());
+        }
+
+        public void commitTransaction() throws SQLException
+        {
+            feeds.addAll(txnFeeds.get());
+            statuses.putAll(txnStatuses.get());
+            endTransaction();
+        }
+
+        public void rollbackTransaction() throws SQLException
+        {
+            endTransaction();
+        }
+
+        public void endTransaction() throws SQLException
+        {
+            txnFeeds.remove();
+            txnStatuses.remove();
+        }
+
+        public List<ActivityPostEntity> selectPosts(ActivityPostEntity selector) throws SQLException
+        {
+            List<ActivityPostEntity> posts = new ArrayList<ActivityPostEntity>(POST_COUNT);
+            for (long id = 0; id < POST_COUNT; id++)
+            {
+                if (statuses.containsKey(id))
+                {
+                    continue;
+                }
+                ActivityPostEntity post = new ActivityPostEntity();
+                post.setId(id);
+                post.setUserId("user0");
+                post.setSiteNetwork("site1");
+                post.setAppTool("documentlibrary");
+                post.setActivityType("org.alfresco.documentlibrary.file-added");
+                post.setActivityData("{\"title\":\"doc" + id + "\"}");
+                post.setPostDate(new Date());
+                posts.add(post);
+            }
+            return posts;
+        }
+
+        public List<FeedControlEntity> selectUserFeedControls(String userId) throws SQLException
+        {
+            singleFeedControlQueries.incrementAndGet();
+            return getFeedControls(Collections.singletonList(userId));
+        }
+
+        @Override
+        public List<FeedControlEntity> selectUserFeedControls(List<String> userIds) throws SQLException
+        {
+            batchFeedControlQueries.incrementAndGet();
+            return getFeedControls(userIds);
+        }
+
+        private List<FeedControlEntity> getFeedControls(List<String> userIds)
+        {
+            List<FeedControlEntity> feedControls = new ArrayList<FeedControlEntity>();
+            if (userIds.contains("user3"))
+            {
+                // user3 has opted out of the site
+                FeedControlEntity feedControl = new FeedControlEntity("user3");
+                feedControl.setSiteNetwork("site1");
+                feedControls.add(feedControl);
+            }
+            return feedControls;
+        }
+
+        public long insertFeedEntry(ActivityFeedEntity feed) throws SQLException
+        {
+            if (txnFeeds.get() == null)
+            {
+                feeds.add(feed);
+            }
+            else
+            {
+                txnFeeds.get().add(feed);
+            }
+            return feeds.size();
+        }
+
+        @Override
+        public void insertFeedEntries(List<ActivityFeedEntity> feeds) throws SQLException
+        {
+            batchInserts.incrementAndGet();
+            super.insertFeedEntries(feeds);
+        }
+
+        public int updatePostStatus(long id, ActivityPostEntity.STATUS status) throws SQLException
+        {
+            if (id == failingPostId)
+            {
+                throw new SQLException("Failed to update activity post " + id);
+            }
+            if (txnStatuses.get() == null)
+            {
+                statuses.put(id, status);
+            }
+            else
+            {
+                txnStatuses.get().put(id, status);
+            }
+            return 1;
+        }
+
+        @Override
+        protected Set<String> getSiteMembers(RepoCtx ctx, String siteId, String tenantDomain) throws Exception
+        {
+            Set<String> members = new HashSet<String>();
+            for (int i = 0; i < MEMBER_COUNT; i++)
+            {
+                members.add("user" + i);
+            }
+            return members;
+        }
+
+        @Override
+        protected Set<String> getFollowers(String userId, String tenantDomain) throws Exception
+        {
+            return new HashSet<String>();
+        }
+
+        @Override
+        protected boolean canRead(RepoCtx ctx, String connectedUser, Map<String, Object> model) throws Exception
+        {
+            return true;
+        }
+
+        @Override
+        protected Map<String, List<String>> getActivityTypeTemplates(String repoEndPoint, String ticket, String subPath) throws Exception
+        {
+            templateLookups.incrementAndGet();
+            return getActivityTemplates(Arrays.asList("activities/generic.text.ftl", "activities/generic.json.ftl"));
+        }
+
+        @Override
+        protected Configuration getFreemarkerConfiguration(RepoCtx ctx)
+        {
+            StringTemplateLoader templateLoader = new StringTemplateLoader();
+            templateLoader.putTemplate("activities/generic.text.ftl", "${userId} posted ${id?c}");
+            templateLoader.putTemplate("activities/generic.json.ftl", "${activityData}");
+            Configuration cfg = new Configuration();
+            cfg.setObjectWrapper(new DefaultObjectWrapper());
+            cfg.setTemplateLoader(templateLoader);
+            cfg.setLocalizedLookup(false);
+            return cfg;
+        }
+    }
+}
@@ -182,6 +182,18 @@ public class LocalFeedTaskProcessor extends FeedTaskProcessor implements Applica
         return feedDAO.insertFeedEntry(feed);
     }
 
+    @Override
+    public void insertFeedEntries(List<ActivityFeedEntity> feeds) throws SQLException
+    {
+        feedDAO.insertFeedEntries(feeds);
+    }
+
+    @Override
+    public void insertPostFeedEntries(long postId, List<ActivityFeedEntity> feeds) throws SQLException
+    {
+        feedDAO.insertPostFeedEntries(postId, feeds);
+    }
+
     public int updatePostStatus(long id, ActivityPostEntity.STATUS status) throws SQLException
     {
         return postDAO.updatePostStatus(id, status);
@@ -191,6 +203,12 @@ public class LocalFeedTaskProcessor extends FeedTaskProcessor implements Applica
     {
         return feedControlDAO.selectFeedControls(userId);
     }
+
+    @Override
+    public List<FeedControlEntity> selectUserFeedControls(List<String> userIds) throws SQLException
+    {
+        return feedControlDAO.selectFeedControlsForUsers(userIds);
+    }
     
     @Override
     protected String getTenantName(String name, String tenantDomain)
@@ -72,6 +72,7 @@ public class AuditComponentImpl implements AuditComponent
     private AuditDAO auditDAO;
     private TransactionService transactionService;
     private AuditFilter auditFilter;
+    private AuditEntryWriter auditEntryWriter;
     
     /**
      * Default constructor
@@ -123,6 +124,16 @@ public class AuditComponentImpl implements AuditComponent
         this.auditFilter = auditFilter;
     }
 
+    /**
+     * Set the component that persists new audit entries.  If not set, entries are written
+     * directly to the {@link #setAuditDAO(AuditDAO) DAO} in the caller's transaction.
+     * @since 4.0
+     */
+    public void setAuditEntryWriter(AuditEntryWriter auditEntryWriter)
+    {
+        this.auditEntryWriter = auditEntryWriter;
+    }
+
     /**
      * {@inheritDoc}
      * @since 3.2
@@ -536,19 +547,27 @@ public class AuditComponentImpl implements AuditComponent
         
         // We have something to record.  Start a transaction, if necessary
         TxnReadState txnState = AlfrescoTransactionSupport.getTransactionReadState();
+        RetryingTransactionCallback<Map<String, Serializable>> callback =
+                new RetryingTransactionCallback<Map<String,Serializable>>()
+        {
+            public Map<String, Serializable> execute() throws Throwable
+            {
+                return recordAuditValuesImpl(mappedValues);
+            }
+        };
+        boolean asynchronous = (auditEntryWriter != null && !auditEntryWriter.isSynchronous());
         switch (txnState)
         {
         case TXN_NONE:
+            // New transaction, which need only be read-only if the entries are written later
+            return transactionService.getRetryingTransactionHelper().doInTransaction(callback, asynchronous, true);
         case TXN_READ_ONLY:
-            // New transaction
-            RetryingTransactionCallback<Map<String, Serializable>> callback =
-                    new RetryingTransactionCallback<Map<String,Serializable>>()
+            if (asynchronous)
             {
-                public Map<String, Serializable> execute() throws Throwable
-                {
-                    return recordAuditValuesImpl(mappedValues);
-                }
-            };
+                // The values can be generated in the current transaction
+                return recordAuditValuesImpl(mappedValues);
+            }
+            // New transaction
             return transactionService.getRetryingTransactionHelper().doInTransaction(callback, false, true);
         case TXN_READ_WRITE:
             return recordAuditValuesImpl(mappedValues);
@@ -689,7 +708,14 @@ public class AuditComponentImpl implements AuditComponent
         if (!auditData.isEmpty())
         {
             // Persist the values
-            entryId = auditDAO.createAuditEntry(applicationId, time, username, auditData);
+            if (auditEntryWriter == null)
+            {
+                entryId = auditDAO.createAuditEntry(applicationId, time, username, auditData);
+            }
+            else
+            {
+                entryId = auditEntryWriter.createAuditEntry(applicationId, time, username, auditData);
+            }
             // Done
             if (logger.isDebugEnabled())
             {
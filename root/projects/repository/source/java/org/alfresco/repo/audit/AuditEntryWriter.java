@@ -0,0 +1,484 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.repo.audit;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.repo.domain.audit.AuditDAO;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport.TxnReadState;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
+import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.util.PropertyCheck;
+import org.alfresco.util.TraceableThreadFactory;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.extensions.surf.util.AbstractLifecycleBean;
+
+/**
+ * Persists audit entries for the {@link AuditComponentImpl}.
+ * <p>
+ * In {@link Mode#SYNC SYNC} mode entries are written straight away in the caller's transaction.
+ * In the asynchronous modes the entries are queued when the caller's transaction commits (or straight
+ * away if there is no read-write transaction) and a background thread writes them in batches, each
+ * batch in its own transaction.  When the queue is full, {@link Mode#ASYNC_BOUNDED ASYNC_BOUNDED}
+ * makes the caller wait and {@link Mode#ASYNC_DROP ASYNC_DROP} discards the entry.  Queued entries
+ * are written out when the application context shuts down, and entries of transactions that commit
+ * after that are written straight away.
+ *
+ * @author agent
+ * @since 4.0
+ */
+public class AuditEntryWriter extends AbstractLifecycleBean
+{
+    /**
+     * How durable audit entries are
+     */
+    public enum Mode
+    {
+        /** Write the entry in the caller's transaction */
+        SYNC,
+        /** Queue the entry, waiting for space if the queue is full */
+        ASYNC_BOUNDED,
+        /** Queue the entry, discarding it if the queue is full */
+        ASYNC_DROP
+    }
+
+    private static final String KEY_PENDING_ENTRIES = AuditEntryWriter.class.getName() + ".pendingEntries";
+    private static final long DROP_WARNING_INTERVAL_MS = 60000L;
+
+    private static Log logger = LogFactory.getLog(AuditEntryWriter.class);
+
+    private AuditDAO auditDAO;
+    private TransactionService transactionService;
+    private Mode mode = Mode.SYNC;
+    private int queueSize = 10000;
+    private int batchSize = 100;
+
+    private final PendingEntriesListener pendingEntriesListener = new PendingEntriesListener();
+    private BlockingQueue<AuditEntry> queue;
+    private Thread writerThread;
+    private volatile boolean running;
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private volatile long lastDropWarning;
+
+    /**
+     * Set the DAO that persists the entries
+     */
+    public void setAuditDAO(AuditDAO auditDAO)
+    {
+        this.auditDAO = auditDAO;
+    }
+
+    /**
+     * Set the service used to start the background transactions
+     */
+    public void setTransactionService(TransactionService transactionService)
+    {
+        this.transactionService = transactionService;
+    }
+
+    /**
+     * @param mode                  the durability of audit entries (default: <b>SYNC</b>)
+     */
+    public void setMode(Mode mode)
+    {
+        this.mode = mode;
+    }
+
+    /**
+     * @param queueSize             the maximum number of entries waiting to be written (default: 10000)
+     */
+    public void setQueueSize(int queueSize)
+    {
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * @param batchSize             the maximum number of entries written per transaction (default: 100)
+     */
+    public void setBatchSize(int batchSize)
+    {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return                      Returns <tt>true</tt> if entries are written in the caller's transaction
+     */
+    public boolean isSynchronous()
+    {
+        return mode == Mode.SYNC;
+    }
+
+    /**
+     * @return                      Returns the number of entries waiting to be written
+     */
+    public int getQueuedCount()
+    {
+        return queue == null ? 0 : queue.size();
+    }
+
+    /**
+     * @return                      Returns the number of entries written in the background
+     */
+    public long getWrittenCount()
+    {
+        return writtenCount.get();
+    }
+
+    /**
+     * @return                      Returns the number of entries discarded because the queue was full
+     */
+    public long getDroppedCount()
+    {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return                      Returns the number of entries that could not be written
+     */
+    public long getFailedCount()
+    {
+        return failedCount.get();
+    }
+
+    /**
+     * Checks the properties and starts the background writer if required
+     */
+    public synchronized void init()
+    {
+        PropertyCheck.mandatory(this, "auditDAO", auditDAO);
+        PropertyCheck.mandatory(this, "transactionService", transactionService);
+        PropertyCheck.mandatory(this, "mode", mode);
+        if (mode == Mode.SYNC || running)
+        {
+            return;
+        }
+        queue = new ArrayBlockingQueue<AuditEntry>(queueSize);
+        running = true;
+        writerThread = startWriter();
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Started audit entry writer: " + mode + ", queue size " + queueSize + ", batch size " + batchSize);
+        }
+    }
+
+    /**
+     * Start the background thread that writes the queued entries
+     *
+     * @return                      Returns the thread or <tt>null</tt> if none was started
+     */
+    Thread startWriter()
+    {
+        TraceableThreadFactory threadFactory = new TraceableThreadFactory();
+        threadFactory.setThreadDaemon(true);
+        threadFactory.setNamePrefix("AuditEntryWriter");
+        Thread thread = threadFactory.newThread(new Runnable()
+        {
+            public void run()
+            {
+                writeQueuedEntries();
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Stops the background writer and writes out any entries that are still queued
+     */
+    public void shutdown()
+    {
+        Thread thread;
+        synchronized (this)
+        {
+            if (!running)
+            {
+                return;
+            }
+            running = false;
+            thread = writerThread;
+            writerThread = null;
+        }
+        if (thread != null)
+        {
+            try
+            {
+                thread.join(30000L);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // Whatever is left is written by the caller
+        writeQueue();
+        if (logger.isDebugEnabled())
+        {
+            logger.debug(
+                    "Stopped audit entry writer: \n" +
+                    "   Written: " + writtenCount + "\n" +
+                    "   Dropped: " + droppedCount + "\n" +
+                    "   Failed:  " + failedCount);
+        }
+    }
+
+    @Override
+    protected void onBootstrap(ApplicationEvent event)
+    {
+        init();
+    }
+
+    @Override
+    protected void onShutdown(ApplicationEvent event)
+    {
+        shutdown();
+    }
+
+    /**
+     * Write an audit entry according to the {@link #setMode(Mode) mode}.
+     *
+     * @return                      Returns the ID of the new entry or <tt>null</tt> if it is written later
+     *
+     * @see AuditDAO#createAuditEntry(Long, long, String, Map)
+     */
+    public Long createAuditEntry(Long applicationId, long time, String username, Map<String, Serializable> values)
+    {
+        if (mode == Mode.SYNC || !running)
+        {
+            return auditDAO.createAuditEntry(applicationId, time, username, values);
+        }
+        AuditEntry entry = new AuditEntry(applicationId, time, username, new HashMap<String, Serializable>(values));
+        if (AlfrescoTransactionSupport.getTransactionReadState() == TxnReadState.TXN_READ_WRITE)
+        {
+            // Only queue the entry if the transaction commits
+            List<AuditEntry> pendingEntries = AlfrescoTransactionSupport.getResource(KEY_PENDING_ENTRIES);
+            if (pendingEntries == null)
+            {
+                pendingEntries = new ArrayList<AuditEntry>(4);
+                AlfrescoTransactionSupport.bindResource(KEY_PENDING_ENTRIES, pendingEntries);
+                AlfrescoTransactionSupport.bindListener(pendingEntriesListener);
+            }
+            pendingEntries.add(entry);
+        }
+        else
+        {
+            queue(entry);
+        }
+        return null;
+    }
+
+    private void queue(AuditEntry entry)
+    {
+        enqueue(entry);
+        if (!running)
+        {
+            // The writer stopped, and may have emptied the queue, while the entry was being queued
+            writeQueue();
+        }
+    }
+
+    private void enqueue(AuditEntry entry)
+    {
+        if (mode == Mode.ASYNC_BOUNDED)
+        {
+            try
+            {
+                queue.put(entry);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                dropped(entry);
+            }
+        }
+        else if (!queue.offer(entry))
+        {
+            dropped(entry);
+        }
+    }
+
+    private void dropped(AuditEntry entry)
+    {
+        long dropped = droppedCount.incrementAndGet();
+        long now = System.currentTimeMillis();
+        if (now - lastDropWarning > DROP_WARNING_INTERVAL_MS)
+        {
+            lastDropWarning = now;
+            logger.warn("Audit entry queue is full; " + dropped + " entries have been discarded so far.");
+        }
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Discarded audit entry: " + entry);
+        }
+    }
+
+    /**
+     * The body of the background writer
+     */
+    private void writeQueuedEntries()
+    {
+        while (running)
+        {
+            try
+            {
+                writeNextBatch(1000L);
+            }
+            catch (InterruptedException e)
+            {
+                // Check if we are still running
+            }
+            catch (Throwable e)
+            {
+                logger.error("Audit entry writer failed", e);
+            }
+        }
+    }
+
+    /**
+     * Write up to a batch of queued entries in one transaction
+     *
+     * @param waitMillis            how long to wait for an entry if the queue is empty
+     * @return                      Returns the number of entries taken from the queue
+     */
+    int writeNextBatch(long waitMillis) throws InterruptedException
+    {
+        AuditEntry first = queue.poll(waitMillis, TimeUnit.MILLISECONDS);
+        if (first == null)
+        {
+            return 0;
+        }
+        List<AuditEntry> batch = new ArrayList<AuditEntry>(batchSize);
+        batch.add(first);
+        queue.drainTo(batch, batchSize - 1);
+        writeBatch(batch);
+        return batch.size();
+    }
+
+    /**
+     * Write all the queued entries in batches on the calling thread
+     */
+    private void writeQueue()
+    {
+        List<AuditEntry> batch = new ArrayList<AuditEntry>(batchSize);
+        while (queue.drainTo(batch, batchSize) > 0)
+        {
+            writeBatch(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Write a batch of entries in a new transaction
+     */
+    private void writeBatch(final List<AuditEntry> batch)
+    {
+        RetryingTransactionCallback<Void> callback = new RetryingTransactionCallback<Void>()
+        {
+            public Void execute() throws Throwable
+            {
+                for (AuditEntry entry : batch)
+                {
+                    auditDAO.createAuditEntry(entry.applicationId, entry.time, entry.username, entry.values);
+                }
+                return null;
+            }
+        };
+        try
+        {
+            transactionService.getRetryingTransactionHelper().doInTransaction(callback, false, true);
+            writtenCount.addAndGet(batch.size());
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Wrote " + batch.size() + " audit entries; " + getQueuedCount() + " remain queued.");
+            }
+        }
+        catch (Throwable e)
+        {
+            failedCount.addAndGet(batch.size());
+            logger.error("Failed to write " + batch.size() + " audit entries", e);
+        }
+    }
+
+    /**
+     * Queues the entries recorded in a transaction once it has committed, or writes them if the
+     * writer has stopped
+     */
+    private class PendingEntriesListener extends TransactionListenerAdapter
+    {
+        @Override
+        public void afterCommit()
+        {
+            List<AuditEntry> pendingEntries = AlfrescoTransactionSupport.getResource(KEY_PENDING_ENTRIES);
+            if (pendingEntries == null)
+            {
+                return;
+            }
+            if (!running)
+            {
+                for (int i = 0; i < pendingEntries.size(); i += batchSize)
+                {
+                    writeBatch(pendingEntries.subList(i, Math.min(i + batchSize, pendingEntries.size())));
+                }
+                return;
+            }
+            for (AuditEntry entry : pendingEntries)
+            {
+                queue(entry);
+            }
+        }
+    }
+
+    /**
+     * An audit entry waiting to be written
+     */
+    private static class AuditEntry
+    {
+        private final Long applicationId;
+        private final long time;
+        private final String username;
+        private final Map<String, Serializable> values;
+
+        private AuditEntry(Long applicationId, long time, String username, Map<String, Serializable> values)
+        {
+            this.applicationId = applicationId;
+            this.time = time;
+            this.username = username;
+            this.values = values;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "AuditEntry[ applicationId=" + applicationId + ", time=" + time + ", username=" + username + "]";
+        }
+    }
+}
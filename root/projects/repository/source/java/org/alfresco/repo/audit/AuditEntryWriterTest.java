@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.repo.audit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.alfresco.repo.domain.audit.AuditDAO;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.transaction.TransactionService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Tests how the {@link AuditEntryWriter} batches queued entries.  No background thread is started:
+ * the test takes each batch from the queue itself, so the batches are exactly those the writer
+ * would make from the same queue.
+ *
+ * @author agent
+ * @since 4.0
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class AuditEntryWriterTest
+{
+    private static final Map<String, Serializable> VALUES = Collections.<String, Serializable>singletonMap("/test/a", "A");
+
+    @Mock
+    private AuditDAO auditDAO;
+    @Mock
+    private TransactionService transactionService;
+    @Mock
+    private RetryingTransactionHelper txnHelper;
+
+    /** The times of the entries written by each transaction, in order */
+    private List<List<Long>> transactions;
+    /** The number of transactions still to fail */
+    private int failures;
+    private AuditEntryWriter writer;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception
+    {
+        transactions = new ArrayList<List<Long>>();
+        when(transactionService.getRetryingTransactionHelper()).thenReturn(txnHelper);
+        when(txnHelper.doInTransaction(any(RetryingTransactionCallback.class), anyBoolean(), anyBoolean())).thenAnswer(new Answer<Object>()
+        {
+            public Object answer(InvocationOnMock invocation) throws Throwable
+            {
+                if (failures > 0)
+                {
+                    failures--;
+                    throw new RuntimeException("Audit table unavailable");
+                }
+                transactions.add(new ArrayList<Long>());
+                return ((RetryingTransactionCallback<Object>) invocation.getArguments()[0]).execute();
+            }
+        });
+        when(auditDAO.createAuditEntry(anyLong(), anyLong(), anyString(), anyMap())).thenAnswer(new Answer<Long>()
+        {
+            public Long answer(InvocationOnMock invocation) throws Throwable
+            {
+                Long time = (Long) invocation.getArguments()[1];
+                if (!transactions.isEmpty())
+                {
+                    transactions.get(transactions.size() - 1).add(time);
+                }
+                return time;
+            }
+        });
+        writer = new AuditEntryWriter()
+        {
+            @Override
+            Thread startWriter()
+            {
+                return null;
+            }
+        };
+        writer.setAuditDAO(auditDAO);
+        writer.setTransactionService(transactionService);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        writer.shutdown();
+    }
+
+    private void createEntries(int from, int to)
+    {
+        for (int i = from; i < to; i++)
+        {
+            assertNull("Queued entries have no ID yet", writer.createAuditEntry(1L, i, "bob", VALUES));
+        }
+    }
+
+    private static List<Long> entryTimes(long from, long to)
+    {
+        List<Long> entryTimes = new ArrayList<Long>();
+        for (long i = from; i < to; i++)
+        {
+            entryTimes.add(i);
+        }
+        return entryTimes;
+    }
+
+    @Test
+    public void syncWritesInTheCallersTransaction() throws Exception
+    {
+        writer.init();
+
+        assertEquals(Long.valueOf(7L), writer.createAuditEntry(1L, 7L, "bob", VALUES));
+        verify(auditDAO).createAuditEntry(1L, 7L, "bob", VALUES);
+        assertTrue("No transactions are started", transactions.isEmpty());
+        assertEquals(0, writer.getQueuedCount());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void queuedEntriesAreWrittenInBatchesOfBatchSize() throws Exception
+    {
+        writer.setMode(AuditEntryWriter.Mode.ASYNC_BOUNDED);
+        writer.setBatchSize(10);
+        writer.init();
+        createEntries(0, 25);
+        verify(auditDAO, never()).createAuditEntry(anyLong(), anyLong(), anyString(), anyMap());
+        assertEquals(25, writer.getQueuedCount());
+
+        assertEquals(10, writer.writeNextBatch(0L));
+        assertEquals(10, writer.writeNextBatch(0L));
+        assertEquals(5, writer.writeNextBatch(0L));
+        assertEquals(0, writer.writeNextBatch(0L));
+
+        // One new read-write transaction per batch, with the entries in the order they were created
+        verify(txnHelper, times(3)).doInTransaction(any(RetryingTransactionCallback.class), eq(false), eq(true));
+        assertEquals(Arrays.asList(entryTimes(0, 10), entryTimes(10, 20), entryTimes(20, 25)), transactions);
+        assertEquals(25L, writer.getWrittenCount());
+    }
+
+    @Test
+    public void batchTakesOnlyWhatIsQueued() throws Exception
+    {
+        writer.setMode(AuditEntryWriter.Mode.ASYNC_BOUNDED);
+        writer.setBatchSize(10);
+        writer.init();
+        createEntries(0, 3);
+        assertEquals(3, writer.writeNextBatch(0L));
+        createEntries(3, 5);
+        assertEquals(2, writer.writeNextBatch(0L));
+
+        assertEquals(Arrays.asList(entryTimes(0, 3), entryTimes(3, 5)), transactions);
+    }
+
+    @Test
+    public void shutdownFlushesTheQueueInBatches() throws Exception
+    {
+        writer.setMode(AuditEntryWriter.Mode.ASYNC_BOUNDED);
+        writer.setBatchSize(20);
+        writer.init();
+        createEntries(0, 50);
+        writer.shutdown();
+
+        assertEquals(0, writer.getQueuedCount());
+        assertEquals(50L, writer.getWrittenCount());
+        assertEquals(Arrays.asList(entryTimes(0, 20), entryTimes(20, 40), entryTimes(40, 50)), transactions);
+
+        // Once stopped, entries are written in the caller's transaction
+        assertEquals(Long.valueOf(50L), writer.createAuditEntry(1L, 50L, "bob", VALUES));
+        assertEquals(3, transactions.size());
+    }
+
+    @Test
+    public void entriesCommittedAfterShutdownAreWritten() throws Exception
+    {
+        writer.setMode(AuditEntryWriter.Mode.ASYNC_BOUNDED);
+        writer.setBatchSize(2);
+        writer.init();
+        createEntries(0, 2);
+
+        // A read-write transaction records entries while the writer is running ...
+        TransactionSynchronizationManager.initSynchronization();
+        try
+        {
+            TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+            createEntries(2, 5);
+            assertEquals("Entries are only queued on commit", 2, writer.getQueuedCount());
+
+            // ... and commits once the writer has stopped
+            writer.shutdown();
+            assertEquals(Arrays.asList(entryTimes(0, 2)), transactions);
+            for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations())
+            {
+                synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+            }
+        }
+        finally
+        {
+            TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertEquals(0, writer.getQueuedCount());
+        assertEquals(5L, writer.getWrittenCount());
+        assertEquals(Arrays.asList(entryTimes(0, 2), entryTimes(2, 4), entryTimes(4, 5)), transactions);
+    }
+
+    @Test
+    public void dropModeDiscardsEntriesBeyondTheQueueSize() throws Exception
+    {
+        writer.setMode(AuditEntryWriter.Mode.ASYNC_DROP);
+        writer.setQueueSize(5);
+        writer.init();
+        createEntries(0, 8);
+
+        assertEquals(3L, writer.getDroppedCount());
+        assertEquals(5, writer.getQueuedCount());
+        writer.shutdown();
+        assertEquals("The oldest entries are kept", Arrays.asList(entryTimes(0, 5)), transactions);
+    }
+
+    @Test
+    public void boundedModeKeepsWaitingCallersInterruptible() throws Exception
+    {
+        writer.setMode(AuditEntryWriter.Mode.ASYNC_BOUNDED);
+        writer.setQueueSize(2);
+        writer.init();
+        createEntries(0, 2);
+
+        // A caller waiting for space gives up when interrupted
+        Thread.currentThread().interrupt();
+        try
+        {
+            writer.createAuditEntry(1L, 2L, "bob", VALUES);
+            assertTrue("Interrupt must be preserved", Thread.interrupted());
+        }
+        finally
+        {
+            Thread.interrupted();
+        }
+        assertEquals(1L, writer.getDroppedCount());
+        assertEquals(2, writer.getQueuedCount());
+    }
+
+    @Test
+    public void failedBatchDoesNotStopLaterBatches() throws Exception
+    {
+        failures = 1;
+        writer.setMode(AuditEntryWriter.Mode.ASYNC_BOUNDED);
+        writer.setBatchSize(4);
+        writer.init();
+        createEntries(0, 6);
+
+        assertEquals(4, writer.writeNextBatch(0L));
+        assertEquals(2, writer.writeNextBatch(0L));
+
+        assertEquals(4L, writer.getFailedCount());
+        assertEquals(2L, writer.getWrittenCount());
+        assertEquals(Arrays.asList(entryTimes(4, 6)), transactions);
+    }
+}
@@ -294,6 +294,13 @@ public class AVMNodeService extends AbstractNodeServiceImpl implements NodeServi
         return fAVMService.lookup(version, avmPath) != null;
     }
     
+    /**
+     * AVM nodes are not cached in bulk, so this does nothing.
+     */
+    public void preloadNodes(List<NodeRef> nodeRefs)
+    {
+    }
+    
     /**
      * Gets the ID of the last transaction that caused the node to change.  This includes
      * deletions, so it is possible that the node being referenced no longer exists.
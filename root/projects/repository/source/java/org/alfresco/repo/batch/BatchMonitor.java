@@ -96,4 +96,40 @@ public interface BatchMonitor
      * @return the end time
      */
     public Date getEndTime();
+
+    /**
+     * Gets the number of entries that are currently put into each transaction. This only changes from the configured
+     * batch size if the batch size is adaptive.
+     * 
+     * @return the current batch size
+     */
+    public int getCurrentBatchSize();
+
+    /**
+     * Gets the number of batches that have been completed, successfully or otherwise.
+     * 
+     * @return the number of completed batches
+     */
+    public int getCompletedBatches();
+
+    /**
+     * Gets the time taken by the last completed batch, including any retries.
+     * 
+     * @return the last batch time in milliseconds or <tt>-1</tt> if no batch has completed
+     */
+    public long getLastBatchTime();
+
+    /**
+     * Gets the average time taken by a batch, including any retries.
+     * 
+     * @return the average batch time in milliseconds or <tt>-1</tt> if no batch has completed
+     */
+    public long getAverageBatchTime();
+
+    /**
+     * Gets the longest time taken by a batch, including any retries.
+     * 
+     * @return the maximum batch time in milliseconds or <tt>-1</tt> if no batch has completed
+     */
+    public long getMaxBatchTime();
 }
@@ -33,8 +33,10 @@ import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.alfresco.error.AlfrescoRuntimeException;
 import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
@@ -55,6 +57,12 @@ import org.springframework.context.ApplicationEventPublisher;
  * ERROR level. Each individual error is logged at WARN level and progress information is logged at INFO level. Through
  * the {@link BatchMonitor} interface, it also supports the real-time monitoring of batch metrics (e.g. over JMX in the
  * Enterprise Edition).
+ * <p>
+ * In {@link #setAdaptive(boolean) adaptive} mode, the batch size halves whenever a batch has to be retried and grows
+ * again with each batch that commits first time, within the {@link #setMinBatchSize(int) minimum} and
+ * {@link #setMaxBatchSize(int) maximum} batch sizes. A batch that runs out of retries is processed again one entry per
+ * transaction, so that only the entries that really fail are reported. The entries are put onto a shared deque from which
+ * each worker thread takes its next batch as soon as it is idle, so that a slow batch doesn't hold up the others.
  * 
  * @author dward
  */
@@ -83,6 +91,33 @@ public class BatchProcessor<T> implements BatchMonitor
 
     /** The number of entries we process at a time in a transaction. */
     private final int batchSize;
+
+    /** Does the batch size adapt to retries and do the workers share a deque of entries? */
+    private boolean adaptive;
+
+    /** The smallest batch size in adaptive mode. */
+    private int minBatchSize = 1;
+
+    /** The largest batch size in adaptive mode. */
+    private int maxBatchSize;
+
+    /** The number of entries currently put into each transaction. */
+    private int currentBatchSize;
+
+    /** The ID of the next batch in adaptive mode. */
+    private int nextBatchId;
+
+    /** The number of completed batches. */
+    private int completedBatches;
+
+    /** The time taken by the last completed batch. */
+    private long lastBatchTime = -1L;
+
+    /** The total time taken by all completed batches. */
+    private long totalBatchTime;
+
+    /** The time taken by the longest batch. */
+    private long maxBatchTime = -1L;
     
     /** The current entry id. */
     private String currentEntryId;
@@ -210,6 +245,8 @@ public class BatchProcessor<T> implements BatchMonitor
         this.workProvider = workProvider;
         this.workerThreads = workerThreads;
         this.batchSize = batchSize;
+        this.maxBatchSize = batchSize;
+        this.currentBatchSize = batchSize;
         if (logger == null)
         {
             this.logger = LogFactory.getLog(this.getClass());
@@ -227,6 +264,77 @@ public class BatchProcessor<T> implements BatchMonitor
         }
     }
 
+    /**
+     * Switches the adaptive mode on or off.  In adaptive mode, the batch size shrinks when batches are retried and
+     * grows when they commit first time, and the worker threads take their work from a shared deque.
+     * The default is <tt>false</tt>.
+     * 
+     * @param adaptive
+     *            <tt>true</tt> to adapt the batch size
+     */
+    public void setAdaptive(boolean adaptive)
+    {
+        this.adaptive = adaptive;
+    }
+
+    /**
+     * @param minBatchSize
+     *            the smallest batch size in adaptive mode (default <tt>1</tt>)
+     */
+    public void setMinBatchSize(int minBatchSize)
+    {
+        this.minBatchSize = minBatchSize;
+    }
+
+    /**
+     * @param maxBatchSize
+     *            the largest batch size in adaptive mode (default is the batch size given on construction)
+     */
+    public void setMaxBatchSize(int maxBatchSize)
+    {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized int getCurrentBatchSize()
+    {
+        return this.currentBatchSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized int getCompletedBatches()
+    {
+        return this.completedBatches;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized long getLastBatchTime()
+    {
+        return this.lastBatchTime;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized long getAverageBatchTime()
+    {
+        return this.completedBatches == 0 ? -1L : this.totalBatchTime / this.completedBatches;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized long getMaxBatchTime()
+    {
+        return this.maxBatchTime;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -339,6 +447,15 @@ public class BatchProcessor<T> implements BatchMonitor
         synchronized (this)
         {
             this.startTime = new Date();
+            if (this.adaptive)
+            {
+                if (this.minBatchSize < 1 || this.maxBatchSize < this.minBatchSize)
+                {
+                    throw new AlfrescoRuntimeException("Invalid adaptive batch sizes for " + getProcessName()
+                            + ": min=" + this.minBatchSize + ", max=" + this.maxBatchSize);
+                }
+                this.currentBatchSize = Math.min(Math.max(this.batchSize, this.minBatchSize), this.maxBatchSize);
+            }
             if (this.logger.isInfoEnabled())
             {
                 if (count >= 0)
@@ -353,6 +470,19 @@ public class BatchProcessor<T> implements BatchMonitor
             }
         }
 
+        if (this.adaptive && splitTxns && this.workerThreads > 1)
+        {
+            try
+            {
+                processShared(worker);
+                return count;
+            }
+            finally
+            {
+                completeProcess(count);
+            }
+        }
+
         // Create a thread pool executor with the specified number of threads and a finite blocking queue of jobs
         ExecutorService executorService = splitTxns && this.workerThreads > 1 ?
                 new ThreadPoolExecutor(
@@ -379,15 +509,14 @@ public class BatchProcessor<T> implements BatchMonitor
         try
         {
             Iterator<T> iterator = new WorkProviderIterator<T>(this.workProvider);
-            int id=0;
             List<T> batch = new ArrayList<T>(this.batchSize);
             while (iterator.hasNext())
             {
                 batch.add(iterator.next());
                 boolean hasNext = iterator.hasNext();
-                if (batch.size() >= this.batchSize || !hasNext)
+                if (batch.size() >= getCurrentBatchSize() || !hasNext)
                 {
-                    final TxnCallback callback = new TxnCallback(id++, worker, batch, splitTxns);
+                    final TxnCallback callback = new TxnCallback(nextBatchId(), worker, batch, splitTxns);
                     if (hasNext)
                     {
                         batch = new ArrayList<T>(this.batchSize);
@@ -418,29 +547,148 @@ public class BatchProcessor<T> implements BatchMonitor
                 {
                 }
             }
-            synchronized (this)
+            completeProcess(count);
+        }
+    }
+
+    /**
+     * Feeds the entries onto a deque shared by the worker threads, each of which takes a batch of the current size
+     * whenever it is idle.
+     * 
+     * @param worker
+     *            the worker
+     */
+    private void processShared(final BatchProcessWorker<T> worker)
+    {
+        final LinkedBlockingDeque<T> deque = new LinkedBlockingDeque<T>(this.workerThreads * this.maxBatchSize * 10);
+        final AtomicBoolean fed = new AtomicBoolean(false);
+        Runnable runnable = new Runnable()
+        {
+            public void run()
             {
-                reportProgress(true);
-                this.endTime = new Date();
-                if (this.logger.isInfoEnabled())
+                try
                 {
-                    if (count >= 0)
+                    while (true)
                     {
-                        this.logger.info(getProcessName() + ": Completed batch of " + count + " entries");
+                        T entry = deque.pollFirst(100L, TimeUnit.MILLISECONDS);
+                        if (entry == null)
+                        {
+                            if (fed.get() && deque.isEmpty())
+                            {
+                                break;
+                            }
+                            continue;
+                        }
+                        int size = getCurrentBatchSize();
+                        List<T> batch = new ArrayList<T>(size);
+                        batch.add(entry);
+                        deque.drainTo(batch, size - 1);
+                        new TxnCallback(nextBatchId(), worker, batch, true).run();
                     }
-                    else
+                }
+                catch (InterruptedException e)
+                {
+                    // Stop taking work
+                }
+                catch (Throwable e)
+                {
+                    BatchProcessor.this.logger.error(getProcessName() + ": Worker thread failed", e);
+                }
+            }
+        };
+        List<Thread> threads = new ArrayList<Thread>(this.workerThreads);
+        for (int i = 0; i < this.workerThreads; i++)
+        {
+            Thread thread = this.threadFactory.newThread(runnable);
+            threads.add(thread);
+            thread.start();
+        }
+        try
+        {
+            Iterator<T> iterator = new WorkProviderIterator<T>(this.workProvider);
+            while (iterator.hasNext())
+            {
+                T entry = iterator.next();
+                // Don't wait forever for space if the workers have stopped taking work
+                while (!deque.offerLast(entry, 100L, TimeUnit.MILLISECONDS))
+                {
+                    if (!isAlive(threads))
                     {
-                        this.logger.info(getProcessName() + ": Completed batch");
-
+                        throw new AlfrescoRuntimeException(getProcessName() + ": All worker threads have stopped with "
+                                + deque.size() + " entries waiting");
                     }
                 }
-                if (this.totalErrors > 0 && this.logger.isErrorEnabled())
+            }
+        }
+        catch (InterruptedException e)
+        {
+            deque.clear();
+            for (Thread thread : threads)
+            {
+                thread.interrupt();
+            }
+        }
+        finally
+        {
+            fed.set(true);
+            for (Thread thread : threads)
+            {
+                try
+                {
+                    thread.join();
+                }
+                catch (InterruptedException e)
+                {
+                }
+            }
+        }
+    }
+
+    /**
+     * @return <tt>true</tt> if any of the threads is still running
+     */
+    private static boolean isAlive(List<Thread> threads)
+    {
+        for (Thread thread : threads)
+        {
+            if (thread.isAlive())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Records the end of the batch process and logs the summary.
+     * 
+     * @param count
+     *            the estimated number of entries
+     */
+    private void completeProcess(int count)
+    {
+        synchronized (this)
+        {
+            reportProgress(true);
+            this.endTime = new Date();
+            if (this.logger.isInfoEnabled())
+            {
+                if (count >= 0)
+                {
+                    this.logger.info(getProcessName() + ": Completed batch of " + count + " entries");
+                }
+                else
                 {
-                    this.logger.error(getProcessName() + ": " + this.totalErrors
-                            + " error(s) detected. Last error from entry \"" + this.lastErrorEntryId + "\"",
-                            this.lastError);
+                    this.logger.info(getProcessName() + ": Completed batch");
+
                 }
             }
+            if (this.totalErrors > 0 && this.logger.isErrorEnabled())
+            {
+                this.logger.error(getProcessName() + ": " + this.totalErrors
+                        + " error(s) detected. Last error from entry \"" + this.lastErrorEntryId + "\"",
+                        this.lastError);
+            }
         }
     }
 
@@ -472,10 +720,60 @@ public class BatchProcessor<T> implements BatchMonitor
                 message.append(". Rate: ").append(processed * 1000L / duration).append(" per second");
             }
             message.append(". " + this.totalErrors + " failures detected.");
+            if (this.adaptive)
+            {
+                message.append(" Batch size: ").append(this.currentBatchSize).append(".");
+            }
             this.logger.info(message);
         }
     }
 
+    /**
+     * @return the ID of the next batch, which gives the order in which retried batches are run
+     */
+    private synchronized int nextBatchId()
+    {
+        return this.nextBatchId++;
+    }
+
+    /**
+     * Records the time taken by a batch and, in adaptive mode, adjusts the batch size. The batch size is halved if
+     * the batch had to be retried and grows by a quarter if it committed first time.
+     * 
+     * @param time
+     *            the time taken by the batch in milliseconds
+     * @param retried
+     *            was the batch retried or did it fail?
+     */
+    private synchronized void batchComplete(long time, boolean retried)
+    {
+        this.completedBatches++;
+        this.lastBatchTime = time;
+        this.totalBatchTime += time;
+        if (time > this.maxBatchTime)
+        {
+            this.maxBatchTime = time;
+        }
+        if (!this.adaptive)
+        {
+            return;
+        }
+        int size = this.currentBatchSize;
+        if (retried)
+        {
+            size = Math.max(this.minBatchSize, size / 2);
+        }
+        else
+        {
+            size = Math.min(this.maxBatchSize, size + Math.max(1, size / 4));
+        }
+        if (size != this.currentBatchSize && this.logger.isDebugEnabled())
+        {
+            this.logger.debug(getProcessName() + ": Batch size changed from " + this.currentBatchSize + " to " + size);
+        }
+        this.currentBatchSize = size;
+    }
+
     /**
      * An interface for workers to be invoked by the {@link BatchProcessor}.
      */
@@ -664,10 +962,14 @@ public class BatchProcessor<T> implements BatchMonitor
 
         /** The last error entry id. */
         private String txnLastErrorEntryId;
+
+        /** The number of times the transaction has been attempted. */
+        private int attempts;
         
         public Object execute() throws Throwable
         {
             reset();
+            this.attempts++;
             if (this.batch.isEmpty())
             {
                 return null;
@@ -747,6 +1049,9 @@ public class BatchProcessor<T> implements BatchMonitor
 
             
             final BatchProcessor<T>.TxnCallback callback = this;
+            long start = System.currentTimeMillis();
+            boolean failed = false;
+            boolean split = false;
             try
             {
                 Throwable tt = null;
@@ -769,8 +1074,20 @@ public class BatchProcessor<T> implements BatchMonitor
             }
             catch (Throwable t)
             {
+                failed = true;
                 // If the callback was in its own transaction, it must have run out of retries
-                if (this.splitTxns)
+                if (this.splitTxns && BatchProcessor.this.adaptive && this.batch.size() > 1)
+                {
+                    // Nothing was committed, so try each entry on its own
+                    split = true;
+                    if (BatchProcessor.this.logger.isDebugEnabled())
+                    {
+                        BatchProcessor.this.logger.debug(getProcessName() + ": Splitting batch starting at entry \""
+                                + this.worker.getIdentifier(this.batch.get(0)) + "\" after failure: " + t.getMessage());
+                    }
+                    reset();
+                }
+                else if (this.splitTxns)
                 {
                     this.txnLastError = t;
                     this.txnLastErrorEntryId = this.txnEntryId;
@@ -796,7 +1113,18 @@ public class BatchProcessor<T> implements BatchMonitor
                 }
             }
 
+            batchComplete(System.currentTimeMillis() - start, failed || this.attempts > 1);
             commitProgress();
+
+            if (split)
+            {
+                for (T entry : this.batch)
+                {
+                    List<T> single = new ArrayList<T>(1);
+                    single.add(entry);
+                    new TxnCallback(nextBatchId(), this.worker, single, true).run();
+                }
+            }
         }
 
         /**
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2005-2012 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.repo.batch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.repo.batch.BatchProcessor.BatchProcessWorkerAdaptor;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
+import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.util.ApplicationContextHelper;
+import org.apache.commons.logging.impl.SimpleLog;
+import org.springframework.context.ApplicationContext;
+import org.springframework.dao.ConcurrencyFailureException;
+
+/**
+ * Tests the {@link BatchProcessor} in adaptive mode.
+ *
+ * @see BatchProcessor#setAdaptive(boolean)
+ */
+public class BatchProcessorTest extends TestCase
+{
+    private static final int ENTRY_COUNT = 200;
+
+    private ApplicationContext ctx;
+    private RetryingTransactionHelper txnHelper;
+    private List<String> entries;
+
+    /** The entries processed by committed transactions */
+    private List<String> committed;
+
+    @Override
+    public void setUp() throws Exception
+    {
+        ctx = ApplicationContextHelper.getApplicationContext();
+        TransactionService transactionService = (TransactionService) ctx.getBean("TransactionService");
+        // Don't wait around between retries
+        txnHelper = new RetryingTransactionHelper();
+        txnHelper.setTransactionService(transactionService);
+        txnHelper.setMaxRetries(2);
+        txnHelper.setMinRetryWaitMs(1);
+        txnHelper.setMaxRetryWaitMs(5);
+        txnHelper.setRetryWaitIncrementMs(1);
+
+        entries = new ArrayList<String>(ENTRY_COUNT);
+        for (int i = 0; i < ENTRY_COUNT; i++)
+        {
+            entries.add("entry-" + i);
+        }
+        committed = Collections.synchronizedList(new ArrayList<String>(ENTRY_COUNT));
+    }
+
+    private BatchProcessor<String> newBatchProcessor(int batchSize, int maxBatchSize)
+    {
+        BatchProcessor<String> batchProcessor = new BatchProcessor<String>(
+                getName(), txnHelper, entries, 2, batchSize, null, null, 1000);
+        batchProcessor.setAdaptive(true);
+        batchProcessor.setMaxBatchSize(maxBatchSize);
+        return batchProcessor;
+    }
+
+    /**
+     * Records the entry as processed once its transaction commits
+     */
+    private void recordOnCommit(final String entry)
+    {
+        AlfrescoTransactionSupport.bindListener(new TransactionListenerAdapter()
+        {
+            @Override
+            public void afterCommit()
+            {
+                committed.add(entry);
+            }
+        });
+    }
+
+    /**
+     * Batches that commit first time grow the batch size up to the maximum
+     */
+    public void testBatchSizeGrowsOnCommit() throws Exception
+    {
+        BatchProcessor<String> batchProcessor = newBatchProcessor(2, 16);
+        assertEquals(2, batchProcessor.getCurrentBatchSize());
+        batchProcessor.process(new BatchProcessWorkerAdaptor<String>()
+        {
+            public void process(String entry) throws Throwable
+            {
+                recordOnCommit(entry);
+            }
+        }, true);
+
+        assertEquals("Batch size must reach the maximum", 16, batchProcessor.getCurrentBatchSize());
+        assertEquals(ENTRY_COUNT, batchProcessor.getSuccessfullyProcessedEntries());
+        assertEquals(0, batchProcessor.getTotalErrors());
+        assertEquals(ENTRY_COUNT, committed.size());
+        assertEquals(new HashSet<String>(entries), new HashSet<String>(committed));
+    }
+
+    /**
+     * Batches that are retried shrink the batch size down to the minimum
+     */
+    public void testBatchSizeShrinksOnRetry() throws Exception
+    {
+        BatchProcessor<String> batchProcessor = newBatchProcessor(16, 16);
+        batchProcessor.setMinBatchSize(2);
+        batchProcessor.process(new BatchProcessWorkerAdaptor<String>()
+        {
+            public void process(String entry) throws Throwable
+            {
+                throw new ConcurrencyFailureException("Conflict on " + entry);
+            }
+        }, true);
+
+        assertEquals("Batch size must fall to the minimum", 2, batchProcessor.getCurrentBatchSize());
+        assertEquals(0, batchProcessor.getSuccessfullyProcessedEntries());
+        assertEquals("Every entry must be reported once", ENTRY_COUNT, batchProcessor.getTotalErrors());
+        assertTrue(batchProcessor.getLastError().contains("Conflict on"));
+    }
+
+    /**
+     * A batch that conflicts once is retried as a whole and commits
+     */
+    public void testRetriedBatchCommits() throws Exception
+    {
+        final Set<String> conflicted = Collections.synchronizedSet(new HashSet<String>());
+        BatchProcessor<String> batchProcessor = newBatchProcessor(10, 10);
+        batchProcessor.process(new BatchProcessWorkerAdaptor<String>()
+        {
+            public void process(String entry) throws Throwable
+            {
+                if (entry.equals("entry-50") && conflicted.add(entry))
+                {
+                    throw new ConcurrencyFailureException("Conflict on " + entry);
+                }
+                recordOnCommit(entry);
+            }
+        }, true);
+
+        assertEquals(ENTRY_COUNT, batchProcessor.getSuccessfullyProcessedEntries());
+        assertEquals(0, batchProcessor.getTotalErrors());
+        assertEquals("Retried entries must only be committed once", ENTRY_COUNT, committed.size());
+        assertEquals(new HashSet<String>(entries), new HashSet<String>(committed));
+    }
+
+    /**
+     * A batch that runs out of retries is split so that only the failing entry is lost
+     */
+    public void testFailedBatchIsSplit() throws Exception
+    {
+        BatchProcessor<String> batchProcessor = newBatchProcessor(10, 10);
+        batchProcessor.process(new BatchProcessWorkerAdaptor<String>()
+        {
+            public void process(String entry) throws Throwable
+            {
+                if (entry.equals("entry-50"))
+                {
+                    throw new ConcurrencyFailureException("Conflict on " + entry);
+                }
+                recordOnCommit(entry);
+            }
+        }, true);
+
+        assertEquals(ENTRY_COUNT - 1, batchProcessor.getSuccessfullyProcessedEntries());
+        assertEquals(1, batchProcessor.getTotalErrors());
+        assertEquals("entry-50", batchProcessor.getLastErrorEntryId());
+        // The rest of the failed batch is committed by the split
+        Set<String> expected = new HashSet<String>(entries);
+        expected.remove("entry-50");
+        assertEquals(ENTRY_COUNT - 1, committed.size());
+        assertEquals(expected, new HashSet<String>(committed));
+    }
+
+    /**
+     * Feeding the entries stops if all of the worker threads die
+     */
+    public void testFeedingStopsWhenWorkersDie() throws Exception
+    {
+        // A failing log kills the worker threads when they report the failed entries
+        SimpleLog log = new SimpleLog(getName())
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void log(int type, Object message, Throwable t)
+            {
+                if (type == LOG_LEVEL_WARN)
+                {
+                    throw new Error("Log failed");
+                }
+            }
+        };
+        log.setLevel(SimpleLog.LOG_LEVEL_WARN);
+        BatchProcessor<String> batchProcessor = new BatchProcessor<String>(
+                getName(), txnHelper, entries, 2, 1, null, log, 1000);
+        batchProcessor.setAdaptive(true);
+        try
+        {
+            batchProcessor.process(new BatchProcessWorkerAdaptor<String>()
+            {
+                public void process(String entry) throws Throwable
+                {
+                    throw new IllegalStateException("Failed " + entry);
+                }
+            }, true);
+            fail("Expected the batch process to stop when all worker threads die");
+        }
+        catch (AlfrescoRuntimeException e)
+        {
+            // Expected
+        }
+    }
+}
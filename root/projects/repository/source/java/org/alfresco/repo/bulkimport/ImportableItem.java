@@ -31,6 +31,7 @@ import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
+import org.alfresco.service.cmr.repository.ContentData;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.apache.commons.lang.builder.ToStringBuilder;
 
@@ -146,6 +147,8 @@ public final class ImportableItem
         private Date     contentFileModified   = null;
         private File     metadataFile          = null;
         private long     metadataFileSize      = -1;
+        
+        private ContentData contentData        = null;
 
         
         public final File getContentFile()
@@ -264,6 +267,23 @@ public final class ImportableItem
             return(metadataFileSize);
         }
         
+        /**
+         * @return The content that has already been written to a content store for this entry, or <tt>null</tt>
+         *         if the content file must still be streamed into the repository.
+         */
+        public final ContentData getContentData()
+        {
+            return(contentData);
+        }
+        
+        /**
+         * @param contentData The content that has already been written to a content store for this entry.
+         */
+        public final void setContentData(final ContentData contentData)
+        {
+            this.contentData = contentData;
+        }
+        
         public final int weight()
         {
             return((contentFile   == null || !contentFileExists ? 0 : 1) +
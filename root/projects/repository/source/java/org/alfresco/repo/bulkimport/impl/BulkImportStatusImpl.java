@@ -27,6 +27,8 @@ package org.alfresco.repo.bulkimport.impl;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -50,6 +52,18 @@ public class BulkImportStatusImpl implements BulkImportStatus
     	REPLACED
     };
     
+    /**
+     * The stages of a pipelined import
+     * 
+     * @see PipelinedBulkFilesystemImporter
+     */
+    public enum Stage
+    {
+    	ANALYSIS,
+    	STREAMING,
+    	NODE_CREATION
+    };
+    
     // General information
     private int numThreads;
     private int batchSize;
@@ -95,10 +109,23 @@ public class BulkImportStatusImpl implements BulkImportStatus
     private AtomicLong    numberOfContentVersionsCreated          = new AtomicLong();
     private AtomicLong    numberOfContentVersionBytesWritten      = new AtomicLong();
     private AtomicLong    numberOfContentVersionPropertiesWritten = new AtomicLong();
+    
+    // Pipeline stage information
+    private Map<Stage, AtomicLong> stageQueueSizes                = new EnumMap<Stage, AtomicLong>(Stage.class);
+    private Map<Stage, AtomicLong> stageItemsProcessed            = new EnumMap<Stage, AtomicLong>(Stage.class);
+    private Map<Stage, AtomicLong> stageItemsFailed               = new EnumMap<Stage, AtomicLong>(Stage.class);
+    private Map<Stage, AtomicLong> stageTimesNs                   = new EnumMap<Stage, AtomicLong>(Stage.class);
 
     public BulkImportStatusImpl()
     {
         inProgress.set(false);
+        for (Stage stage : Stage.values())
+        {
+            stageQueueSizes.put(stage, new AtomicLong());
+            stageItemsProcessed.put(stage, new AtomicLong());
+            stageItemsFailed.put(stage, new AtomicLong());
+            stageTimesNs.put(stage, new AtomicLong());
+        }
     }
     
     // General information
@@ -231,6 +258,15 @@ public class BulkImportStatusImpl implements BulkImportStatus
         this.numberOfContentVersionBytesWritten.set(0);
         this.numberOfContentVersionPropertiesWritten.set(0);
         
+        // Pipeline stage information
+        for (Stage stage : Stage.values())
+        {
+            this.stageQueueSizes.get(stage).set(0);
+            this.stageItemsProcessed.get(stage).set(0);
+            this.stageItemsFailed.get(stage).set(0);
+            this.stageTimesNs.get(stage).set(0);
+        }
+        
         this.startNs = System.nanoTime();
         this.endNs   = null;
     }
@@ -429,6 +465,50 @@ public class BulkImportStatusImpl implements BulkImportStatus
         }
     }
     
+    // Pipeline stage information
+    public long getStageQueueSize(final Stage stage)       { return(stageQueueSizes.get(stage).longValue()); }
+    public long getStageItemsProcessed(final Stage stage)  { return(stageItemsProcessed.get(stage).longValue()); }
+    public long getStageItemsFailed(final Stage stage)     { return(stageItemsFailed.get(stage).longValue()); }
+    public long getStageTimeInNs(final Stage stage)        { return(stageTimesNs.get(stage).longValue()); }
+    
+    /**
+     * Record that items are waiting to be processed by a stage
+     */
+    public void incrementStageItemsQueued(final Stage stage, final int count)
+    {
+        stageQueueSizes.get(stage).addAndGet(count);
+    }
+    
+    /**
+     * Record that items have been taken off a stage's queue and processed
+     * 
+     * @param timeNs        the time the stage spent processing the items
+     */
+    public void incrementStageItemsProcessed(final Stage stage, final int count, final long timeNs)
+    {
+        stageQueueSizes.get(stage).addAndGet(-count);
+        stageItemsProcessed.get(stage).addAndGet(count);
+        stageTimesNs.get(stage).addAndGet(timeNs);
+    }
+    
+    public void incrementStageItemsFailed(final Stage stage, final int count)
+    {
+        stageItemsFailed.get(stage).addAndGet(count);
+    }
+    
+    public Long getStageItemsPerSecond(final Stage stage)
+    {
+    	Long duration = getDuration();
+    	if(duration != null)
+    	{
+	    	return stageItemsProcessed.get(stage).longValue() / duration;
+    	}
+    	else
+    	{
+    		return null;
+    	}
+    }
+    
     public Long getFilesReadPerSecond()
     {
     	Long duration = getDuration();
@@ -633,6 +713,21 @@ public class BulkImportStatusImpl implements BulkImportStatus
     	sb.append("\nNumber of content version bytes written : ");
     	sb.append(getNumberOfContentVersionBytesWritten());    	
 
+    	for (Stage stage : Stage.values())
+    	{
+    		if (getStageItemsProcessed(stage) == 0 && getStageQueueSize(stage) == 0)
+    		{
+    			// Not a pipelined import
+    			continue;
+    		}
+    		sb.append("\nStage ").append(stage).append(" : ");
+    		sb.append(getStageItemsProcessed(stage)).append(" processed, ");
+    		sb.append(getStageItemsFailed(stage)).append(" failed, ");
+    		sb.append(getStageQueueSize(stage)).append(" queued, ");
+    		sb.append(getStageItemsPerSecond(stage)).append(" items/sec, ");
+    		sb.append(getStageTimeInNs(stage) / 1000000L).append(" ms busy");
+    	}
+
     	return sb.toString();
     }
 }
@@ -25,6 +25,7 @@
 package org.alfresco.repo.bulkimport.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.Serializable;
@@ -41,6 +42,7 @@ import org.alfresco.repo.action.executer.CopyActionExecuter;
 import org.alfresco.repo.action.executer.MoveActionExecuter;
 import org.alfresco.repo.bulkimport.BulkImportParameters;
 import org.alfresco.repo.bulkimport.NodeImporter;
+import org.alfresco.repo.bulkimport.impl.BulkImportStatusImpl.Stage;
 import org.alfresco.repo.content.MimetypeMap;
 import org.alfresco.service.cmr.action.Action;
 import org.alfresco.service.cmr.action.ActionCondition;
@@ -163,6 +165,67 @@ public class BulkImportTest extends AbstractBulkImportTests
 				{
 				});
 	}
+
+	@Test
+	public void testCopyImportPipelined() throws Throwable
+	{
+		MultiThreadedBulkFilesystemImporter pipelinedImporter = (MultiThreadedBulkFilesystemImporter)ctx.getBean("pipelinedBulkFilesystemImporter");
+
+        txn = transactionService.getUserTransaction();
+        txn.begin();
+
+		NodeRef folderNode = topLevelFolder.getNodeRef();
+
+		try
+		{
+			NodeImporter nodeImporter = streamingNodeImporterFactory.getNodeImporter(ResourceUtils.getFile("classpath:bulkimport"));
+            BulkImportParameters bulkImportParameters = new BulkImportParameters();
+            bulkImportParameters.setTarget(folderNode);
+            bulkImportParameters.setReplaceExisting(true);
+            bulkImportParameters.setDisableRulesService(true);
+            bulkImportParameters.setBatchSize(5);
+			pipelinedImporter.bulkImport(bulkImportParameters, nodeImporter);
+		}
+		catch(Throwable e)
+		{
+			fail(e.getMessage());
+		}
+
+		BulkImportStatusImpl status = (BulkImportStatusImpl)pipelinedImporter.getStatus();
+		System.out.println(status);
+		assertTrue("Directories were not analysed", status.getStageItemsProcessed(Stage.ANALYSIS) > 0);
+		assertTrue("Content was not streamed", status.getStageItemsProcessed(Stage.STREAMING) > 0);
+		assertEquals("Nodes were not created", 0L, status.getStageQueueSize(Stage.NODE_CREATION));
+		assertEquals("Nodes failed", 0L, status.getStageItemsFailed(Stage.NODE_CREATION));
+
+		checkFiles(folderNode, null, 2, 9,
+				new ExpectedFile[]
+				{
+					new ExpectedFile("quickImg1.xls", MimetypeMap.MIMETYPE_EXCEL),
+					new ExpectedFile("quickImg1.doc", MimetypeMap.MIMETYPE_WORD),
+					new ExpectedFile("quick.txt", MimetypeMap.MIMETYPE_TEXT_PLAIN, "The quick brown fox jumps over the lazy dog"),
+				},
+				new ExpectedFolder[]
+				{
+					new ExpectedFolder("folder1"),
+					new ExpectedFolder("folder2")
+				});
+
+		List<FileInfo> folders = getFolders(folderNode, "folder2");
+		assertEquals("", 1, folders.size());
+		folders = getFolders(folders.get(0).getNodeRef(), "folder2.1");
+		assertEquals("", 1, folders.size());
+		checkFiles(folders.get(0).getNodeRef(), null, 0, 17,
+				new ExpectedFile[]
+				{
+					new ExpectedFile("quick.png", MimetypeMap.MIMETYPE_IMAGE_PNG),
+					new ExpectedFile("quick.pdf", MimetypeMap.MIMETYPE_PDF),
+					new ExpectedFile("quick.odt", MimetypeMap.MIMETYPE_OPENDOCUMENT_TEXT),
+				},
+				new ExpectedFolder[]
+				{
+				});
+	}
 	
     protected Rule createCopyRule(NodeRef targetNode, boolean isAppliedToChildren)
     {
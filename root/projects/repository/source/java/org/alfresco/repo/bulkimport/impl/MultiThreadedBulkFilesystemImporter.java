@@ -50,6 +50,7 @@ public abstract class MultiThreadedBulkFilesystemImporter extends AbstractBulkFi
     protected int defaultBatchSize;
     protected int defaultNumThreads;
     protected int defaultLoggingInterval = 100;
+    protected boolean adaptiveBatchSize;
 
     protected int getLoggingInterval(BulkImportParameters bulkImportParameters)
     {
@@ -139,6 +140,7 @@ public abstract class MultiThreadedBulkFilesystemImporter extends AbstractBulkFi
                 numThreads, batchSize,
                 applicationContext,
                 logger, loggingInterval);
+		batchProcessor.setAdaptive(adaptiveBatchSize);
 		
 		return batchProcessor;
     }
@@ -153,6 +155,15 @@ public abstract class MultiThreadedBulkFilesystemImporter extends AbstractBulkFi
 		this.defaultBatchSize = defaultBatchSize;
 	}
 
+	/**
+	 * @param adaptiveBatchSize     <tt>true</tt> to shrink the batch size when batches are retried, with the
+	 *                              batch size as the largest batch size (default: <tt>false</tt>)
+	 */
+	public void setAdaptiveBatchSize(boolean adaptiveBatchSize)
+	{
+		this.adaptiveBatchSize = adaptiveBatchSize;
+	}
+
 	public int getDefaultNumThreads()
 	{
 		return defaultNumThreads;
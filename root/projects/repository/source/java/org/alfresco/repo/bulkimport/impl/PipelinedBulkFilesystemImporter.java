@@ -0,0 +1,546 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+
+ * As a special exception to the terms and conditions of version 2.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * and Open Source Software ("FLOSS") applications as described in Alfresco's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * http://www.alfresco.com/legal/licensing"
+ */
+package org.alfresco.repo.bulkimport.impl;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.bulkimport.AnalysedDirectory;
+import org.alfresco.repo.bulkimport.BulkImportParameters;
+import org.alfresco.repo.bulkimport.ImportableItem;
+import org.alfresco.repo.bulkimport.NodeImporter;
+import org.alfresco.repo.bulkimport.impl.BulkImportStatusImpl.Stage;
+import org.alfresco.repo.content.AbstractContentWriter;
+import org.alfresco.repo.content.ContentStore;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.repository.ContentWriter;
+import org.alfresco.service.cmr.repository.MimetypeService;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.util.PropertyCheck;
+import org.alfresco.util.TraceableThreadFactory;
+
+/**
+ * A multi threaded bulk importer that splits the import into a pipeline of stages, each with its own threads:
+ * <ul>
+ *   <li><b>analysis</b> - directories are analysed using the {@link org.alfresco.repo.bulkimport.DirectoryAnalyser}
+ *       as soon as the node for the directory exists.</li>
+ *   <li><b>streaming</b> - the content of each file is written to the {@link #setContentStore(ContentStore) content store}
+ *       outside of any transaction.</li>
+ *   <li><b>node creation</b> - nodes are created in small transactions that just attach the content that has
+ *       already been written.</li>
+ * </ul>
+ * Slow content copies therefore don't hold transactions open.  The queue between streaming and node creation is
+ * bounded, so that content is not streamed much faster than the nodes can be created.
+ * <p/>
+ * Files that have version entries are streamed within the node creation transaction, as they would be by the
+ * other importers.  Content that was streamed but that could not be attached to a node is removed from the store.
+ *
+ * @see BulkImportStatusImpl.Stage
+ *
+ * @since 4.0
+ */
+public class PipelinedBulkFilesystemImporter extends MultiThreadedBulkFilesystemImporter
+{
+    private static final long LOCK_TTL = 60000L;
+    private static final long LOCK_REFRESH_MILLIS = 20000L;
+
+    private ContentStore contentStore;
+    private MimetypeService mimetypeService;
+    private NodeService nodeService;
+    private int analysisThreads = 2;
+    private int streamingThreads = 4;
+    private int queueSize = 1000;
+
+    /**
+     * @param contentStore          the store that content is written to before the nodes are created.
+     *                              This must be the store used by the content service, i.e. the
+     *                              <b>contentStore</b> bean.
+     */
+    public void setContentStore(ContentStore contentStore)
+    {
+        this.contentStore = contentStore;
+    }
+
+    public void setMimetypeService(MimetypeService mimetypeService)
+    {
+        this.mimetypeService = mimetypeService;
+    }
+
+    public void setNodeService(NodeService nodeService)
+    {
+        this.nodeService = nodeService;
+    }
+
+    /**
+     * @param analysisThreads       the number of threads analysing directories (default: 2)
+     */
+    public void setAnalysisThreads(int analysisThreads)
+    {
+        this.analysisThreads = analysisThreads;
+    }
+
+    /**
+     * @param streamingThreads      the number of threads writing content to the store (default: 4)
+     */
+    public void setStreamingThreads(int streamingThreads)
+    {
+        this.streamingThreads = streamingThreads;
+    }
+
+    /**
+     * @param queueSize             the number of files that may wait to be streamed and, separately,
+     *                              the number of items that may wait for node creation (default: 1000)
+     */
+    public void setQueueSize(int queueSize)
+    {
+        this.queueSize = queueSize;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception
+    {
+        super.afterPropertiesSet();
+        PropertyCheck.mandatory(this, "contentStore", contentStore);
+        PropertyCheck.mandatory(this, "mimetypeService", mimetypeService);
+        PropertyCheck.mandatory(this, "nodeService", nodeService);
+        if (analysisThreads < 1 || streamingThreads < 1 || queueSize < 1)
+        {
+            throw new AlfrescoRuntimeException("The thread counts and queue size of the pipeline must be 1 or greater");
+        }
+    }
+
+    /**
+     * Method that does the work of importing a filesystem using the pipeline.
+     *
+     * @param bulkImportParameters  The bulk import parameters to apply to this bulk import.
+     * @param nodeImporter          The node importer implementation that will import each node.
+     * @param lockToken             The lock token to use during the bulk import.
+     */
+    @Override
+    protected void bulkImportImpl(final BulkImportParameters bulkImportParameters, final NodeImporter nodeImporter, final String lockToken)
+    {
+        super.bulkImportImpl(bulkImportParameters, nodeImporter, lockToken);
+
+        Pipeline pipeline = new Pipeline(bulkImportParameters, nodeImporter, lockToken);
+        pipeline.run();
+    }
+
+    /**
+     * The state of a single pipelined import
+     */
+    private class Pipeline
+    {
+        private final BulkImportParameters bulkImportParameters;
+        private final NodeImporter nodeImporter;
+        private final String lockToken;
+        private final int batchSize;
+        private final int numThreads;
+        private final boolean rulesEnabled;
+        private final String currentUser;
+
+        private final ThreadPoolExecutor analysisExecutor;
+        private final ThreadPoolExecutor streamingExecutor;
+        private final BlockingQueue<ImportableItem> nodeQueue;
+        private final List<Thread> nodeThreads;
+        /** Directories still to be analysed and items still to be created */
+        private final AtomicInteger outstanding;
+        private final CountDownLatch finished;
+        private volatile Throwable failure;
+
+        private Pipeline(BulkImportParameters bulkImportParameters, NodeImporter nodeImporter, String lockToken)
+        {
+            this.bulkImportParameters = bulkImportParameters;
+            this.nodeImporter = nodeImporter;
+            this.lockToken = lockToken;
+            this.batchSize = getBatchSize(bulkImportParameters);
+            this.numThreads = getNumThreads(bulkImportParameters);
+            this.rulesEnabled = ruleService.isEnabled();
+            this.currentUser = AuthenticationUtil.getFullyAuthenticatedUser();
+
+            // Directories are only analysed once their nodes exist, so their number is limited by the node queue
+            analysisExecutor = new ThreadPoolExecutor(
+                    analysisThreads, analysisThreads,
+                    60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    getThreadFactory("BulkImport-Analysis-"));
+            // When the streaming queue is full, the analysis threads do the streaming
+            streamingExecutor = new ThreadPoolExecutor(
+                    streamingThreads, streamingThreads,
+                    60L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueSize),
+                    getThreadFactory("BulkImport-Streaming-"),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+            nodeQueue = new ArrayBlockingQueue<ImportableItem>(queueSize);
+            nodeThreads = new ArrayList<Thread>(numThreads);
+            outstanding = new AtomicInteger();
+            finished = new CountDownLatch(1);
+        }
+
+        private TraceableThreadFactory getThreadFactory(String namePrefix)
+        {
+            TraceableThreadFactory threadFactory = new TraceableThreadFactory();
+            threadFactory.setThreadDaemon(true);
+            threadFactory.setNamePrefix(namePrefix);
+            return threadFactory;
+        }
+
+        private void run()
+        {
+            // not really an importable item but the interface requires it to be in this form
+            ImportableItem rootFolder = new ImportableItem();
+            rootFolder.getHeadRevision().setContentFile(nodeImporter.getSourceFolder());
+            rootFolder.setNodeRef(bulkImportParameters.getTarget());
+
+            TraceableThreadFactory nodeThreadFactory = getThreadFactory("BulkImport-NodeCreation-");
+            for (int i = 0; i < numThreads; i++)
+            {
+                Thread nodeThread = nodeThreadFactory.newThread(new NodeCreator());
+                nodeThreads.add(nodeThread);
+                nodeThread.start();
+            }
+            try
+            {
+                analyse(rootFolder);
+                // Keep the import lock while the stages work
+                while (!finished.await(LOCK_REFRESH_MILLIS, TimeUnit.MILLISECONDS))
+                {
+                    refreshLock(lockToken, LOCK_TTL);
+                }
+            }
+            catch (Throwable e)
+            {
+                fail(e);
+            }
+            finally
+            {
+                analysisExecutor.shutdownNow();
+                streamingExecutor.shutdownNow();
+                for (Thread nodeThread : nodeThreads)
+                {
+                    nodeThread.interrupt();
+                }
+            }
+            if (failure != null)
+            {
+                throw new AlfrescoRuntimeException("Pipelined bulk import failed", failure);
+            }
+        }
+
+        /**
+         * Abandon the import
+         */
+        private void fail(Throwable e)
+        {
+            if (failure == null)
+            {
+                failure = e;
+            }
+            finished.countDown();
+        }
+
+        /**
+         * Mark a directory or item as completely processed
+         */
+        private void done()
+        {
+            if (outstanding.decrementAndGet() == 0)
+            {
+                finished.countDown();
+            }
+        }
+
+        private void analyse(final ImportableItem directory)
+        {
+            outstanding.incrementAndGet();
+            importStatus.incrementStageItemsQueued(Stage.ANALYSIS, 1);
+            analysisExecutor.execute(new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        long start = System.nanoTime();
+                        AnalysedDirectory analysedDirectory = directoryAnalyser.analyseDirectory(directory, null);
+                        importStatus.incrementStageItemsProcessed(Stage.ANALYSIS, 1, System.nanoTime() - start);
+
+                        for (ImportableItem importableDirectory : analysedDirectory.getImportableDirectories())
+                        {
+                            queueForNodeCreation(importableDirectory);
+                        }
+                        for (ImportableItem importableItem : analysedDirectory.getImportableItems())
+                        {
+                            stream(importableItem);
+                        }
+                        done();
+                    }
+                    catch (Throwable e)
+                    {
+                        importStatus.incrementStageItemsFailed(Stage.ANALYSIS, 1);
+                        fail(e);
+                    }
+                }
+            });
+        }
+
+        private void stream(final ImportableItem importableItem) throws InterruptedException
+        {
+            final ImportableItem.ContentAndMetadata headRevision = importableItem.getHeadRevision();
+            if (!headRevision.contentFileExists() ||
+                !ImportableItem.FileType.FILE.equals(headRevision.getContentFileType()) ||
+                importableItem.hasVersionEntries())
+            {
+                // Nothing to stream ahead of the node creation
+                queueForNodeCreation(importableItem);
+                return;
+            }
+            outstanding.incrementAndGet();
+            importStatus.incrementStageItemsQueued(Stage.STREAMING, 1);
+            streamingExecutor.execute(new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        long start = System.nanoTime();
+                        File contentFile = headRevision.getContentFile();
+                        try
+                        {
+                            ContentWriter writer = contentStore.getWriter(ContentStore.NEW_CONTENT_CONTEXT);
+                            // Describe the content as the content service would
+                            if (writer instanceof AbstractContentWriter)
+                            {
+                                ((AbstractContentWriter) writer).setMimetypeService(mimetypeService);
+                            }
+                            writer.setMimetype(mimetypeService.guessMimetype(contentFile.getName()));
+                            writer.guessEncoding();
+                            writer.putContent(contentFile);
+                            headRevision.setContentData(writer.getContentData());
+                        }
+                        catch (Throwable e)
+                        {
+                            // The content will be streamed during node creation
+                            logger.warn("Failed to stream content of '" + getFileName(contentFile) + "' ahead of node creation.", e);
+                            importStatus.incrementStageItemsFailed(Stage.STREAMING, 1);
+                        }
+                        importStatus.incrementStageItemsProcessed(Stage.STREAMING, 1, System.nanoTime() - start);
+
+                        queueForNodeCreation(importableItem);
+                        done();
+                    }
+                    catch (Throwable e)
+                    {
+                        fail(e);
+                    }
+                }
+            });
+        }
+
+        private void queueForNodeCreation(ImportableItem importableItem) throws InterruptedException
+        {
+            outstanding.incrementAndGet();
+            importStatus.incrementStageItemsQueued(Stage.NODE_CREATION, 1);
+            // Blocks the earlier stages when node creation can't keep up
+            nodeQueue.put(importableItem);
+        }
+
+        /**
+         * Creates the nodes for batches of items, in a transaction per batch
+         */
+        private class NodeCreator implements Runnable
+        {
+            public void run()
+            {
+                try
+                {
+                    AuthenticationUtil.setRunAsUser(currentUser);
+                    while (finished.getCount() > 0)
+                    {
+                        ImportableItem importableItem = nodeQueue.poll(100L, TimeUnit.MILLISECONDS);
+                        if (importableItem == null)
+                        {
+                            continue;
+                        }
+                        List<ImportableItem> batch = new ArrayList<ImportableItem>(batchSize);
+                        batch.add(importableItem);
+                        nodeQueue.drainTo(batch, batchSize - 1);
+
+                        long start = System.nanoTime();
+                        createNodes(batch);
+                        importStatus.incrementStageItemsProcessed(Stage.NODE_CREATION, batch.size(), System.nanoTime() - start);
+                        importStatus.incrementNumberOfBatchesCompleted();
+
+                        for (ImportableItem item : batch)
+                        {
+                            if (item.getNodeRef() != null &&
+                                item.getHeadRevision().contentFileExists() &&
+                                ImportableItem.FileType.DIRECTORY.equals(item.getHeadRevision().getContentFileType()))
+                            {
+                                analyse(item);
+                            }
+                            done();
+                        }
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                    // The import is over
+                }
+                catch (Throwable e)
+                {
+                    fail(e);
+                }
+                finally
+                {
+                    AuthenticationUtil.clearCurrentSecurityContext();
+                }
+            }
+
+            /**
+             * Create the nodes in one transaction or, if that fails, one at a time
+             */
+            private void createNodes(List<ImportableItem> batch)
+            {
+                try
+                {
+                    createNodesInTransaction(batch);
+                }
+                catch (Throwable e)
+                {
+                    if (batch.size() == 1)
+                    {
+                        ImportableItem importableItem = batch.get(0);
+                        logger.error("Bulk import failed to create node for " + importableItem, e);
+                        importStatus.incrementStageItemsFailed(Stage.NODE_CREATION, 1);
+                        importableItem.setNodeRef(null);
+                        deleteStreamedContent(importableItem);
+                        return;
+                    }
+                    for (ImportableItem importableItem : batch)
+                    {
+                        List<ImportableItem> single = new ArrayList<ImportableItem>(1);
+                        single.add(importableItem);
+                        createNodes(single);
+                    }
+                }
+            }
+
+            private void createNodesInTransaction(final List<ImportableItem> batch)
+            {
+                final List<ImportableItem> unusedContent = new ArrayList<ImportableItem>(0);
+                RetryingTransactionCallback<Void> createNodesCallback = new RetryingTransactionCallback<Void>()
+                {
+                    public Void execute() throws Throwable
+                    {
+                        unusedContent.clear();
+                        for (ImportableItem importableItem : batch)
+                        {
+                            try
+                            {
+                                behaviourFilter.disableBehaviour(ContentModel.ASPECT_AUDITABLE);
+
+                                NodeRef nodeRef = nodeImporter.importImportableItem(importableItem, bulkImportParameters.isReplaceExisting());
+                                if (!isStreamedContentAttached(nodeRef, importableItem))
+                                {
+                                    unusedContent.add(importableItem);
+                                }
+                            }
+                            finally
+                            {
+                                behaviourFilter.enableBehaviour(ContentModel.ASPECT_AUDITABLE);
+                            }
+                        }
+                        return null;
+                    }
+                };
+                if (bulkImportParameters.isDisableRulesService() && rulesEnabled)
+                {
+                    ruleService.disableRules();
+                }
+                try
+                {
+                    transactionHelper.doInTransaction(createNodesCallback, false, true);
+                }
+                finally
+                {
+                    if (bulkImportParameters.isDisableRulesService() && rulesEnabled)
+                    {
+                        ruleService.enableRules();
+                    }
+                }
+                // Skipped items don't use the content that was streamed for them
+                for (ImportableItem importableItem : unusedContent)
+                {
+                    deleteStreamedContent(importableItem);
+                }
+            }
+
+            private boolean isStreamedContentAttached(NodeRef nodeRef, ImportableItem importableItem)
+            {
+                ContentData contentData = importableItem.getHeadRevision().getContentData();
+                if (contentData == null)
+                {
+                    return true;
+                }
+                if (nodeRef == null)
+                {
+                    return false;
+                }
+                ContentData attached = (ContentData) nodeService.getProperty(nodeRef, ContentModel.PROP_CONTENT);
+                return attached != null && contentData.getContentUrl().equals(attached.getContentUrl());
+            }
+
+            private void deleteStreamedContent(ImportableItem importableItem)
+            {
+                ContentData contentData = importableItem.getHeadRevision().getContentData();
+                if (contentData == null)
+                {
+                    return;
+                }
+                try
+                {
+                    contentStore.delete(contentData.getContentUrl());
+                }
+                catch (Throwable e)
+                {
+                    logger.warn("Failed to remove unused content: " + contentData.getContentUrl(), e);
+                }
+                importableItem.getHeadRevision().setContentData(null);
+            }
+        }
+    }
+}
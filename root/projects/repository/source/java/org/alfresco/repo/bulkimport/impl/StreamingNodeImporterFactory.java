@@ -27,10 +27,12 @@ package org.alfresco.repo.bulkimport.impl;
 import java.io.File;
 
 import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.model.ContentModel;
 import org.alfresco.repo.bulkimport.ImportableItem;
 import org.alfresco.repo.bulkimport.MetadataLoader;
 import org.alfresco.repo.bulkimport.NodeImporter;
 import org.alfresco.repo.bulkimport.impl.BulkImportStatusImpl.NodeState;
+import org.alfresco.service.cmr.repository.ContentData;
 import org.alfresco.service.cmr.repository.ContentWriter;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.util.Triple;
@@ -74,7 +76,18 @@ public class StreamingNodeImporterFactory extends AbstractNodeImporterFactory
 	    protected final void importContentAndMetadata(NodeRef nodeRef, ImportableItem.ContentAndMetadata contentAndMetadata, MetadataLoader.Metadata metadata)
 	    {
 	    	// Write the content of the file
-	    	if (contentAndMetadata.contentFileExists())
+	    	ContentData contentData = contentAndMetadata.getContentData();
+	    	if (contentData != null)
+	    	{
+	    		// The content has already been streamed into the store, outside of the transaction
+	    		if (logger.isDebugEnabled())
+				{
+	    			logger.debug("Attaching streamed content '" + contentData.getContentUrl() + "' to node '" + nodeRef.toString() + "'.");
+				}
+
+	    		nodeService.setProperty(nodeRef, ContentModel.PROP_CONTENT, contentData);
+	    	}
+	    	else if (contentAndMetadata.contentFileExists())
 	    	{
 	    		String filename = getFileName(contentAndMetadata.getContentFile());
 
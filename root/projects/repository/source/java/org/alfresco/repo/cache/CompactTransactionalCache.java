@@ -0,0 +1,1065 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.repo.cache;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+
+import net.sf.ehcache.CacheException;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport.TxnReadState;
+import org.alfresco.repo.transaction.TransactionListener;
+import org.alfresco.util.EqualsHelper;
+import org.alfresco.util.PropertyCheck;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * A drop-in alternative to the {@link TransactionalCache} that has the same 2-level
+ * semantics but is much lighter on the per-transaction and per-put allocations.
+ * <p>
+ * The differences are purely in the implementation:
+ * <ul>
+ *   <li>The transaction-local updates and removals are held in a single open-addressing
+ *       table made up of parallel arrays.  There are no per-put bucket objects and no
+ *       separate set of removed keys.</li>
+ *   <li>The table is recycled for the next transaction on the same thread once the current
+ *       transaction has completed, so a new table is only allocated when the thread's
+ *       previous one grew too large to keep.</li>
+ *   <li>The original shared value is recorded against a key the first time it is written
+ *       in the transaction; further writes to the same key do not go back to the shared
+ *       cache.</li>
+ *   <li>There is no pre-commit walk of the updated values, which was a no-op.  The post-commit
+ *       writes are grouped by lock stripe and applied in one pass per stripe, which also makes
+ *       the compare-and-put against the shared cache atomic with respect to other transactions
+ *       committing against the same cache in this VM.</li>
+ * </ul>
+ * Configuration is the same as for the {@link TransactionalCache}; the two classes can
+ * be swapped in the cache bean definitions.
+ *
+ * @author agent
+ * @since 4.0
+ */
+public class CompactTransactionalCache<K extends Serializable, V extends Object>
+        implements SimpleCache<K, V>, TransactionListener, InitializingBean
+{
+    private static final String RESOURCE_KEY_TXN_DATA = "CompactTransactionalCache.TxnData";
+    /** The largest table that will be kept by a thread for reuse */
+    private static final int DEFAULT_MAX_POOLED_CAPACITY = 1024;
+
+    private Log logger;
+    private boolean isDebugEnabled;
+
+    /** a name used to uniquely identify the transactional caches */
+    private String name;
+    /** enable/disable write through to the shared cache */
+    private boolean disableSharedCache;
+    /** the shared cache that will get updated after commits */
+    private SimpleCache<Serializable, Object> sharedCache;
+    /** can the cached values be modified */
+    private boolean isMutable;
+    /** the maximum number of elements to be contained in the cache */
+    private int maxCacheSize = 500;
+    /** the number of locks guarding the post-commit writes to the shared cache */
+    private int lockStripeCount = 32;
+    /** the largest table that a thread will keep for reuse */
+    private int maxPooledCapacity = DEFAULT_MAX_POOLED_CAPACITY;
+    /** a unique string identifying this instance when binding resources */
+    private String resourceKeyTxnData;
+    /** the post-commit locks */
+    private Object[] lockStripes;
+    /** the recycled table for each thread */
+    private final ThreadLocal<TxnTable> pooledTables = new ThreadLocal<TxnTable>();
+
+    /**
+     * Public constructor.
+     */
+    public CompactTransactionalCache()
+    {
+        logger = LogFactory.getLog(CompactTransactionalCache.class);
+        isDebugEnabled = logger.isDebugEnabled();
+        disableSharedCache = false;
+        isMutable = true;
+    }
+
+    /**
+     * @see #setName(String)
+     */
+    public String toString()
+    {
+        return name;
+    }
+
+    public boolean equals(Object obj)
+    {
+        if (obj == this)
+        {
+            return true;
+        }
+        if (obj == null)
+        {
+            return false;
+        }
+        if (!(obj instanceof CompactTransactionalCache<?, ?>))
+        {
+            return false;
+        }
+        @SuppressWarnings("rawtypes")
+        CompactTransactionalCache that = (CompactTransactionalCache) obj;
+        return EqualsHelper.nullSafeEquals(this.name, that.name);
+    }
+
+    public int hashCode()
+    {
+        return name.hashCode();
+    }
+
+    /**
+     * Set the shared cache to use during transaction synchronization or when no transaction
+     * is present.
+     *
+     * @param sharedCache           underlying cache shared by transactions
+     */
+    public void setSharedCache(SimpleCache<Serializable, Object> sharedCache)
+    {
+        this.sharedCache = sharedCache;
+    }
+
+    /**
+     * Set whether values must be written through to the shared cache or not
+     *
+     * @param disableSharedCache    <tt>true</tt> to prevent values from being written to
+     *                              the shared cache
+     */
+    public void setDisableSharedCache(boolean disableSharedCache)
+    {
+        this.disableSharedCache = disableSharedCache;
+    }
+
+    /**
+     * @param isMutable             <tt>true</tt> if the data stored in the cache is modifiable
+     */
+    public void setMutable(boolean isMutable)
+    {
+        this.isMutable = isMutable;
+    }
+
+    /**
+     * Set the maximum number of updated and the maximum number of removed elements to hold
+     * for each transaction.
+     *
+     * @param maxCacheSize
+     */
+    public void setMaxCacheSize(int maxCacheSize)
+    {
+        this.maxCacheSize = maxCacheSize;
+    }
+
+    /**
+     * Set the number of locks used to guard the post-commit writes to the shared cache.
+     * The value is rounded up to a power of two.  The default is <b>32</b>.
+     *
+     * @param lockStripeCount       the number of lock stripes
+     */
+    public void setLockStripeCount(int lockStripeCount)
+    {
+        this.lockStripeCount = lockStripeCount;
+    }
+
+    /**
+     * Set the largest transaction-local table (in slots) that each thread will keep for
+     * reuse by its next transaction.  Larger tables are discarded after use.
+     *
+     * @param maxPooledCapacity     the maximum table capacity to pool
+     */
+    public void setMaxPooledCapacity(int maxPooledCapacity)
+    {
+        this.maxPooledCapacity = maxPooledCapacity;
+    }
+
+    /**
+     * Set the name that identifies this cache from other instances.  This is optional.
+     *
+     * @param name
+     */
+    public void setName(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * Ensures that all properties have been set
+     */
+    public void afterPropertiesSet() throws Exception
+    {
+        PropertyCheck.mandatory(this, "name", name);
+        PropertyCheck.mandatory(this, "sharedCache", sharedCache);
+        if (maxCacheSize < 1)
+        {
+            throw new AlfrescoRuntimeException("maxCacheSize must be greater than zero: " + this);
+        }
+
+        // generate the resource binding key
+        resourceKeyTxnData = RESOURCE_KEY_TXN_DATA + "." + name;
+        // Refine the log category
+        logger = LogFactory.getLog(CompactTransactionalCache.class.getName() + "." + name);
+        isDebugEnabled = logger.isDebugEnabled();
+
+        // Build the locks
+        lockStripes = new Object[TxnTable.powerOfTwo(Math.max(1, lockStripeCount))];
+        for (int i = 0; i < lockStripes.length; i++)
+        {
+            lockStripes[i] = new Object();
+        }
+
+        // Assign a 'null' cache if write-through is disabled
+        if (disableSharedCache)
+        {
+            sharedCache = new NullCache<Serializable, Object>();
+        }
+    }
+
+    /**
+     * To be used in a transaction only.
+     */
+    private TransactionData getTransactionData()
+    {
+        TransactionData data = (TransactionData) AlfrescoTransactionSupport.getResource(resourceKeyTxnData);
+        if (data == null)
+        {
+            data = new TransactionData();
+            // Reuse this thread's table, if there is one
+            TxnTable table = pooledTables.get();
+            if (table == null)
+            {
+                table = new TxnTable(16);
+            }
+            else
+            {
+                pooledTables.set(null);
+            }
+            data.table = table;
+            data.isReadOnly = AlfrescoTransactionSupport.getTransactionReadState() == TxnReadState.TXN_READ_ONLY;
+
+            // ensure that we get the transaction callbacks as we have bound the unique
+            // transactional caches to a common manager
+            AlfrescoTransactionSupport.bindListener(this);
+            AlfrescoTransactionSupport.bindResource(resourceKeyTxnData, data);
+        }
+        return data;
+    }
+
+    /**
+     * Checks the transactional removed and updated caches before checking the shared cache.
+     */
+    public boolean contains(K key)
+    {
+        Object value = get(key);
+        if (value == null)
+        {
+            return false;
+        }
+        else
+        {
+            return true;
+        }
+    }
+
+    /**
+     * The keys returned are a union of the set of keys in the current transaction and
+     * those in the backing cache.
+     */
+    @SuppressWarnings("unchecked")
+    public Collection<K> getKeys()
+    {
+        Collection<K> keys = null;
+        // in-txn layering
+        if (AlfrescoTransactionSupport.getTransactionId() != null)
+        {
+            keys = new HashSet<K>(23);
+            TransactionData txnData = getTransactionData();
+            if (!txnData.isClearOn)
+            {
+                // the backing cache is not due for a clear
+                Collection<K> backingKeys = (Collection<K>) sharedCache.getKeys();
+                keys.addAll(backingKeys);
+            }
+            TxnTable table = txnData.table;
+            if (table != null)
+            {
+                for (int i = 0; i < table.capacity; i++)
+                {
+                    byte state = table.states[i];
+                    if (state == TxnTable.STATE_REMOVED)
+                    {
+                        keys.remove(table.keys[i]);
+                    }
+                    else if (state != TxnTable.STATE_EMPTY)
+                    {
+                        keys.add((K) table.keys[i]);
+                    }
+                }
+            }
+        }
+        else
+        {
+            // no transaction, so just use the backing cache
+            keys = (Collection<K>) sharedCache.getKeys();
+        }
+        // done
+        return keys;
+    }
+
+    /**
+     * Checks the per-transaction table for the object before going to the shared cache.
+     * If the thread is not in a transaction, then the shared cache is accessed directly.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(K key)
+    {
+        boolean ignoreSharedCache = false;
+        // are we in a transaction?
+        if (AlfrescoTransactionSupport.getTransactionId() != null)
+        {
+            TransactionData txnData = getTransactionData();
+            if (!txnData.isClosed)
+            {
+                TxnTable table = txnData.table;
+                int index = table.indexOf(key);
+                if (index >= 0)
+                {
+                    if (table.states[index] == TxnTable.STATE_REMOVED)
+                    {
+                        // it has been removed in this transaction
+                        return null;
+                    }
+                    else
+                    {
+                        // element was found in transaction-specific updates/additions
+                        return (V) table.values[index];
+                    }
+                }
+                // check if the cleared flag has been set - cleared flag means ignore shared as unreliable
+                ignoreSharedCache = txnData.isClearOn;
+            }
+        }
+        // no value found - must we ignore the shared cache?
+        if (!ignoreSharedCache)
+        {
+            V value = (V) sharedCache.get(key);
+            if (isDebugEnabled)
+            {
+                logger.debug("No value found in transaction - fetching instance from shared cache: \n" +
+                        "   cache: " + this + "\n" +
+                        "   key: " + key + "\n" +
+                        "   value: " + value);
+            }
+            return value;
+        }
+        else
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Goes direct to the shared cache in the absence of a transaction.
+     * <p>
+     * Where a transaction is present, the value is put into the transaction's table.
+     */
+    public void put(K key, V value)
+    {
+        // are we in a transaction?
+        if (AlfrescoTransactionSupport.getTransactionId() == null)  // not in transaction
+        {
+            // no transaction
+            sharedCache.put(key, value);
+            return;
+        }
+        TransactionData txnData = getTransactionData();
+        // Ensure that the cache isn't being modified
+        if (txnData.isClosed)
+        {
+            if (isDebugEnabled)
+            {
+                logger.debug(
+                        "In post-commit add: \n" +
+                        "   cache: " + this + "\n" +
+                        "   key: " + key + "\n" +
+                        "   value: " + value);
+            }
+            return;
+        }
+        TxnTable table = txnData.table;
+        int index = table.indexOf(key);
+        if (index >= 0 && table.states[index] != TxnTable.STATE_REMOVED)
+        {
+            // Already written in this transaction, so the original shared value is known
+            table.values[index] = value;
+            return;
+        }
+        // are we in an overflow condition?
+        if (table.updatedCount >= maxCacheSize)
+        {
+            // overflow about to occur or has occured - we can only guarantee non-stale
+            // data by clearing the shared cache after the transaction.  Also, the
+            // shared cache needs to be ignored for the rest of the transaction.
+            setClearOn(txnData, "update");
+            // Make space by dropping an entry; it is no longer relevant to the shared cache
+            table.evictUpdated(key);
+            index = table.indexOf(key);
+        }
+        Object existingValueObj = sharedCache.get(key);
+        if (existingValueObj == null)
+        {
+            // ALF-5134: There is no null equivalence, so record the value as new
+            table.putUpdated(index, key, TxnTable.STATE_NEW, null, value);
+        }
+        else
+        {
+            // Record the existing value as is
+            table.putUpdated(index, key, TxnTable.STATE_UPDATED, existingValueObj, value);
+        }
+    }
+
+    /**
+     * Goes direct to the shared cache in the absence of a transaction.
+     * <p>
+     * Where a transaction is present, the removal is recorded in the transaction's table.
+     */
+    public void remove(K key)
+    {
+        // are we in a transaction?
+        if (AlfrescoTransactionSupport.getTransactionId() == null)  // not in transaction
+        {
+            // no transaction
+            sharedCache.remove(key);
+            return;
+        }
+        TransactionData txnData = getTransactionData();
+        // Ensure that the cache isn't being modified
+        if (txnData.isClosed)
+        {
+            if (isDebugEnabled)
+            {
+                logger.debug(
+                        "In post-commit remove: \n" +
+                        "   cache: " + this + "\n" +
+                        "   key: " + key);
+            }
+            return;
+        }
+        TxnTable table = txnData.table;
+        int index = table.indexOf(key);
+        if (!txnData.isClearOn && index < 0 && table.removedCount >= maxCacheSize)
+        {
+            // overflow about to occur or has occured - we can only guarantee non-stale
+            // data by clearing the shared cache after the transaction.
+            setClearOn(txnData, "removal");
+            index = table.indexOf(key);
+        }
+        if (txnData.isClearOn)
+        {
+            // don't store removals if we're just going to clear it all out later
+            if (index >= 0)
+            {
+                table.delete(index);
+            }
+        }
+        else
+        {
+            table.putRemoved(index, key);
+        }
+    }
+
+    /**
+     * Flags the transaction's shared cache as unreliable.  Recorded removals are no longer
+     * needed once the shared cache is due to be cleared, so they are dropped.
+     */
+    private void setClearOn(TransactionData txnData, String type)
+    {
+        if (!txnData.isClearOn)
+        {
+            txnData.isClearOn = true;
+            txnData.table.deleteRemoved();
+        }
+        if (!txnData.haveIssuedFullWarning && logger.isWarnEnabled())
+        {
+            logger.warn("Transactional " + type + " cache '" + name + "' is full (" + maxCacheSize + ").");
+            txnData.haveIssuedFullWarning = true;
+        }
+    }
+
+    /**
+     * Clears out all the caches.
+     */
+    public void clear()
+    {
+        // clear local caches
+        if (AlfrescoTransactionSupport.getTransactionId() != null)
+        {
+            TransactionData txnData = getTransactionData();
+            // Ensure that the cache isn't being modified
+            if (!txnData.isClosed)
+            {
+                // the shared cache must be cleared at the end of the transaction
+                // and also serves to ensure that the shared cache will be ignored
+                // for the remainder of the transaction
+                txnData.isClearOn = true;
+                txnData.table.clear();
+            }
+        }
+        else            // no transaction
+        {
+            // clear shared cache
+            sharedCache.clear();
+        }
+    }
+
+    /**
+     * NO-OP
+     */
+    public void flush()
+    {
+    }
+
+    /**
+     * NO-OP
+     */
+    public void beforeCompletion()
+    {
+    }
+
+    /**
+     * Transfers any clear or removals to the shared cache and blocks further updates.
+     * There is nothing to do for the updated values at this stage.
+     */
+    public void beforeCommit(boolean readOnly)
+    {
+        TransactionData txnData = getTransactionData();
+        try
+        {
+            transferRemovals(txnData);
+        }
+        catch (CacheException e)
+        {
+            throw new AlfrescoRuntimeException("Failed to transfer updates to shared cache", e);
+        }
+        finally
+        {
+            // Block any further updates
+            txnData.isClosed = true;
+        }
+    }
+
+    /**
+     * Merge the transactional table into the shared cache
+     */
+    public void afterCommit()
+    {
+        TransactionData txnData = getTransactionData();
+        try
+        {
+            transferRemovals(txnData);
+            transferUpdates(txnData);
+        }
+        catch (CacheException e)
+        {
+            throw new AlfrescoRuntimeException("Failed to transfer updates to shared cache", e);
+        }
+        finally
+        {
+            releaseTable(txnData);
+        }
+    }
+
+    /**
+     * Transfers cache removals or clears.  This allows explicit cache cleanup to be propagated
+     * to the shared cache even in the event of rollback - useful if the cause of a problem is
+     * the shared cache value.
+     */
+    public void afterRollback()
+    {
+        TransactionData txnData = getTransactionData();
+        try
+        {
+            transferRemovals(txnData);
+        }
+        catch (CacheException e)
+        {
+            throw new AlfrescoRuntimeException("Failed to transfer updates to shared cache", e);
+        }
+        finally
+        {
+            releaseTable(txnData);
+        }
+    }
+
+    /**
+     * Clears the shared cache or removes the keys removed in the transaction
+     */
+    private void transferRemovals(TransactionData txnData)
+    {
+        if (txnData.isClearOn)
+        {
+            sharedCache.clear();
+            if (isDebugEnabled)
+            {
+                logger.debug("Clear notification recieved in commit - clearing shared cache");
+            }
+            return;
+        }
+        TxnTable table = txnData.table;
+        if (table == null || table.removedCount == 0)
+        {
+            return;
+        }
+        for (int i = 0; i < table.capacity; i++)
+        {
+            if (table.states[i] == TxnTable.STATE_REMOVED)
+            {
+                sharedCache.remove((Serializable) table.keys[i]);
+            }
+        }
+        if (isDebugEnabled)
+        {
+            logger.debug("Removed " + table.removedCount + " values from shared cache in commit");
+        }
+    }
+
+    /**
+     * Writes the updated values to the shared cache, one lock stripe at a time.  A value is only
+     * written if the shared cache still holds the value that was there when it was first written
+     * in the transaction; otherwise the shared entry is invalidated.
+     */
+    private void transferUpdates(TransactionData txnData)
+    {
+        TxnTable table = txnData.table;
+        if (table == null || table.updatedCount == 0)
+        {
+            return;
+        }
+        // Bucket the slots by lock stripe using a counting sort
+        int stripeMask = lockStripes.length - 1;
+        int[] stripeCounts = new int[lockStripes.length + 1];
+        int[] slotStripes = new int[table.capacity];
+        for (int i = 0; i < table.capacity; i++)
+        {
+            byte state = table.states[i];
+            if (state == TxnTable.STATE_NEW || state == TxnTable.STATE_UPDATED)
+            {
+                int stripe = table.hashes[i] & stripeMask;
+                slotStripes[i] = stripe;
+                stripeCounts[stripe + 1]++;
+            }
+        }
+        for (int stripe = 0; stripe < lockStripes.length; stripe++)
+        {
+            stripeCounts[stripe + 1] += stripeCounts[stripe];
+        }
+        int[] orderedSlots = new int[table.updatedCount];
+        int[] nextPosition = Arrays.copyOf(stripeCounts, lockStripes.length);
+        for (int i = 0; i < table.capacity; i++)
+        {
+            byte state = table.states[i];
+            if (state == TxnTable.STATE_NEW || state == TxnTable.STATE_UPDATED)
+            {
+                orderedSlots[nextPosition[slotStripes[i]]++] = i;
+            }
+        }
+        // Apply each stripe's writes under its lock
+        boolean mutable = this.isMutable;
+        boolean readOnly = txnData.isReadOnly;
+        for (int stripe = 0; stripe < lockStripes.length; stripe++)
+        {
+            int start = stripeCounts[stripe];
+            int end = stripeCounts[stripe + 1];
+            if (start == end)
+            {
+                continue;
+            }
+            synchronized (lockStripes[stripe])
+            {
+                for (int n = start; n < end; n++)
+                {
+                    int i = orderedSlots[n];
+                    Serializable key = (Serializable) table.keys[i];
+                    Object value = table.values[i];
+                    if (!mutable)
+                    {
+                        // The value can't change so we can write through on the assumption
+                        // that the value is always correct
+                        sharedCache.put(key, value);
+                        continue;
+                    }
+                    Object sharedObj = sharedCache.get(key);
+                    // New values expect nothing in the shared cache; updates expect the original
+                    Object expectedObj = (table.states[i] == TxnTable.STATE_NEW) ? null : table.originals[i];
+                    if (sharedObj == expectedObj)
+                    {
+                        sharedCache.put(key, value);
+                    }
+                    else if (!readOnly)
+                    {
+                        // The value changed
+                        sharedCache.remove(key);
+                    }
+                }
+            }
+        }
+        if (isDebugEnabled)
+        {
+            logger.debug("Post-commit called for " + table.updatedCount + " values.");
+        }
+    }
+
+    /**
+     * Detaches the table from the transaction and gives it back to the thread for reuse.
+     * The transaction data remains bound and closed so that any post-commit access goes
+     * straight to the shared cache.
+     */
+    private void releaseTable(TransactionData txnData)
+    {
+        txnData.isClosed = true;
+        TxnTable table = txnData.table;
+        txnData.table = null;
+        if (table != null && table.capacity <= maxPooledCapacity)
+        {
+            table.clear();
+            pooledTables.set(table);
+        }
+    }
+
+    /** Data holder to bind data to the transaction */
+    private static class TransactionData
+    {
+        private TxnTable table;
+        private boolean haveIssuedFullWarning;
+        private boolean isClearOn;
+        private boolean isClosed;
+        private boolean isReadOnly;
+    }
+
+    /**
+     * Transaction-local table of updated and removed keys.  This is a linear-probing,
+     * open-addressing hash table that stores the key, the value and the original shared
+     * value in parallel arrays, so that recording a put does not allocate anything.
+     * <p>
+     * The table is confined to a single thread and is not thread-safe.
+     *
+     * @author agent
+     * @since 4.0
+     */
+    static class TxnTable
+    {
+        static final byte STATE_EMPTY = 0;
+        /** The key had no value in the shared cache when first written */
+        static final byte STATE_NEW = 1;
+        /** The key had a value in the shared cache when first written */
+        static final byte STATE_UPDATED = 2;
+        /** The key was removed */
+        static final byte STATE_REMOVED = 3;
+
+        private int capacity;
+        private int mask;
+        private byte[] states;
+        private int[] hashes;
+        private Object[] keys;
+        private Object[] values;
+        private Object[] originals;
+        private int size;
+        private int updatedCount;
+        private int removedCount;
+
+        TxnTable(int initialCapacity)
+        {
+            allocate(powerOfTwo(Math.max(4, initialCapacity)));
+        }
+
+        static int powerOfTwo(int value)
+        {
+            int result = 1;
+            while (result < value)
+            {
+                result <<= 1;
+            }
+            return result;
+        }
+
+        private static int hash(Object key)
+        {
+            int h = key.hashCode();
+            // Spread the bits as the low bits are used for the index
+            h ^= (h >>> 20) ^ (h >>> 12);
+            return h ^ (h >>> 7) ^ (h >>> 4);
+        }
+
+        private void allocate(int newCapacity)
+        {
+            capacity = newCapacity;
+            mask = newCapacity - 1;
+            states = new byte[newCapacity];
+            hashes = new int[newCapacity];
+            keys = new Object[newCapacity];
+            values = new Object[newCapacity];
+            originals = new Object[newCapacity];
+        }
+
+        int size()
+        {
+            return size;
+        }
+
+        int getUpdatedCount()
+        {
+            return updatedCount;
+        }
+
+        int getRemovedCount()
+        {
+            return removedCount;
+        }
+
+        int getCapacity()
+        {
+            return capacity;
+        }
+
+        /**
+         * @return              Returns the slot holding the key or <tt>-1</tt> if it is not present
+         */
+        int indexOf(Object key)
+        {
+            int h = hash(key);
+            int i = h & mask;
+            while (states[i] != STATE_EMPTY)
+            {
+                if (hashes[i] == h && (keys[i] == key || keys[i].equals(key)))
+                {
+                    return i;
+                }
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+
+        /**
+         * @param index         the slot holding the key or <tt>-1</tt> if it is not present
+         */
+        void putUpdated(int index, Object key, byte state, Object original, Object value)
+        {
+            if (index < 0)
+            {
+                index = insert(key);
+            }
+            else if (states[index] == STATE_REMOVED)
+            {
+                removedCount--;
+                updatedCount++;
+            }
+            states[index] = state;
+            originals[index] = original;
+            values[index] = value;
+        }
+
+        /**
+         * @param index         the slot holding the key or <tt>-1</tt> if it is not present
+         */
+        void putRemoved(int index, Object key)
+        {
+            if (index < 0)
+            {
+                index = insert(key);
+                states[index] = STATE_REMOVED;
+                updatedCount--;
+                removedCount++;
+            }
+            else if (states[index] != STATE_REMOVED)
+            {
+                states[index] = STATE_REMOVED;
+                updatedCount--;
+                removedCount++;
+            }
+            originals[index] = null;
+            values[index] = null;
+        }
+
+        /**
+         * Adds a slot for the key, which must not be present, and counts it as updated.
+         */
+        private int insert(Object key)
+        {
+            if ((size + 1) * 2 > capacity)
+            {
+                rehash(capacity * 2);
+            }
+            int h = hash(key);
+            int i = h & mask;
+            while (states[i] != STATE_EMPTY)
+            {
+                i = (i + 1) & mask;
+            }
+            states[i] = STATE_NEW;
+            hashes[i] = h;
+            keys[i] = key;
+            size++;
+            updatedCount++;
+            return i;
+        }
+
+        private void rehash(int newCapacity)
+        {
+            byte[] oldStates = states;
+            int[] oldHashes = hashes;
+            Object[] oldKeys = keys;
+            Object[] oldValues = values;
+            Object[] oldOriginals = originals;
+            allocate(newCapacity);
+            for (int j = 0; j < oldStates.length; j++)
+            {
+                if (oldStates[j] == STATE_EMPTY)
+                {
+                    continue;
+                }
+                int i = oldHashes[j] & mask;
+                while (states[i] != STATE_EMPTY)
+                {
+                    i = (i + 1) & mask;
+                }
+                states[i] = oldStates[j];
+                hashes[i] = oldHashes[j];
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+                originals[i] = oldOriginals[j];
+            }
+        }
+
+        /**
+         * Deletes the slot, shifting back any following entries of the probe sequence.
+         */
+        void delete(int index)
+        {
+            if (states[index] == STATE_REMOVED)
+            {
+                removedCount--;
+            }
+            else
+            {
+                updatedCount--;
+            }
+            size--;
+            int gap = index;
+            int i = (index + 1) & mask;
+            while (states[i] != STATE_EMPTY)
+            {
+                int home = hashes[i] & mask;
+                // Move the entry into the gap if its home slot does not lie in (gap, i]
+                boolean movable = (gap <= i) ? (home <= gap || home > i) : (home <= gap && home > i);
+                if (movable)
+                {
+                    states[gap] = states[i];
+                    hashes[gap] = hashes[i];
+                    keys[gap] = keys[i];
+                    values[gap] = values[i];
+                    originals[gap] = originals[i];
+                    gap = i;
+                }
+                i = (i + 1) & mask;
+            }
+            states[gap] = STATE_EMPTY;
+            keys[gap] = null;
+            values[gap] = null;
+            originals[gap] = null;
+        }
+
+        /**
+         * Drops an updated entry other than the given key to make space.
+         */
+        void evictUpdated(Object keepKey)
+        {
+            int i = hash(keepKey) & mask;
+            for (int n = 0; n < capacity; n++, i = (i + 1) & mask)
+            {
+                byte state = states[i];
+                if ((state == STATE_NEW || state == STATE_UPDATED) && !keys[i].equals(keepKey))
+                {
+                    delete(i);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Drops all the recorded removals
+         */
+        void deleteRemoved()
+        {
+            if (removedCount == 0)
+            {
+                return;
+            }
+            byte[] oldStates = states;
+            int[] oldHashes = hashes;
+            Object[] oldKeys = keys;
+            Object[] oldValues = values;
+            Object[] oldOriginals = originals;
+            allocate(capacity);
+            size = 0;
+            removedCount = 0;
+            for (int j = 0; j < oldStates.length; j++)
+            {
+                byte state = oldStates[j];
+                if (state == STATE_EMPTY || state == STATE_REMOVED)
+                {
+                    continue;
+                }
+                int i = oldHashes[j] & mask;
+                while (states[i] != STATE_EMPTY)
+                {
+                    i = (i + 1) & mask;
+                }
+                states[i] = state;
+                hashes[i] = oldHashes[j];
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+                originals[i] = oldOriginals[j];
+                size++;
+            }
+        }
+
+        void clear()
+        {
+            if (size > 0)
+            {
+                Arrays.fill(states, STATE_EMPTY);
+                Arrays.fill(keys, null);
+                Arrays.fill(values, null);
+                Arrays.fill(originals, null);
+            }
+            size = 0;
+            updatedCount = 0;
+            removedCount = 0;
+        }
+    }
+}
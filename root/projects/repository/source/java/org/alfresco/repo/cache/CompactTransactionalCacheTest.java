@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.repo.cache;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+
+import org.alfresco.repo.cache.CompactTransactionalCache.TxnTable;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+/**
+ * Tests the {@link CompactTransactionalCache} without needing the application context.
+ * Transactions are simulated by driving the Spring transaction synchronizations directly.
+ *
+ * @see CompactTransactionalCache
+ *
+ * @author agent
+ * @since 4.0
+ */
+public class CompactTransactionalCacheTest extends TestCase
+{
+    private static CacheManager cacheManager = new CacheManager();
+
+    private SimpleCache<Serializable, Object> backingCache;
+    private CompactTransactionalCache<String, Object> transactionalCache;
+
+    @Override
+    public void setUp() throws Exception
+    {
+        String name = getName() + "-" + System.nanoTime();
+        Cache cache = new Cache(name, 10000, false, true, 0, 0);
+        cacheManager.addCache(cache);
+        EhCacheAdapter<Serializable, Object> ehCacheAdapter = new EhCacheAdapter<Serializable, Object>();
+        ehCacheAdapter.setCache(cache);
+        backingCache = ehCacheAdapter;
+
+        transactionalCache = new CompactTransactionalCache<String, Object>();
+        transactionalCache.setName(name);
+        transactionalCache.setSharedCache(backingCache);
+        transactionalCache.setMaxCacheSize(10);
+        transactionalCache.afterPropertiesSet();
+    }
+
+    /**
+     * Start a simulated transaction
+     */
+    private void begin()
+    {
+        TransactionSynchronizationManager.initSynchronization();
+    }
+
+    /**
+     * Complete the simulated transaction
+     */
+    private void end(boolean commit)
+    {
+        try
+        {
+            if (commit)
+            {
+                TransactionSynchronizationUtils.triggerBeforeCommit(false);
+            }
+            TransactionSynchronizationUtils.triggerBeforeCompletion();
+            if (commit)
+            {
+                TransactionSynchronizationUtils.triggerAfterCommit();
+            }
+            TransactionSynchronizationUtils.triggerAfterCompletion(
+                    commit ? TransactionSynchronization.STATUS_COMMITTED : TransactionSynchronization.STATUS_ROLLED_BACK);
+        }
+        finally
+        {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    public void testNoTransaction() throws Exception
+    {
+        transactionalCache.put("A", "AAA");
+        assertEquals("AAA", backingCache.get("A"));
+        assertEquals("AAA", transactionalCache.get("A"));
+        transactionalCache.remove("A");
+        assertNull(backingCache.get("A"));
+    }
+
+    public void testCommitAndRollback() throws Exception
+    {
+        backingCache.put("B", "BBB");
+        backingCache.put("C", "CCC");
+
+        begin();
+        transactionalCache.put("A", "AAA");
+        transactionalCache.put("B", "BBB-updated");
+        transactionalCache.remove("C");
+        assertEquals("AAA", transactionalCache.get("A"));
+        assertEquals("BBB-updated", transactionalCache.get("B"));
+        assertNull("Removed value still visible", transactionalCache.get("C"));
+        assertNull("Uncommitted value visible in shared cache", backingCache.get("A"));
+        assertEquals("BBB", backingCache.get("B"));
+        end(true);
+
+        assertEquals("AAA", backingCache.get("A"));
+        assertEquals("BBB-updated", backingCache.get("B"));
+        assertFalse("Removal not committed", backingCache.contains("C"));
+
+        begin();
+        transactionalCache.put("A", "AAA-rolledback");
+        transactionalCache.remove("B");
+        end(false);
+        assertEquals("Rolled back value committed", "AAA", backingCache.get("A"));
+        assertFalse("Removals are always propagated", backingCache.contains("B"));
+    }
+
+    public void testConcurrentModificationInvalidates() throws Exception
+    {
+        backingCache.put("A", "AAA");
+
+        begin();
+        transactionalCache.put("A", "AAA-txn");
+        // Another transaction changes the shared value
+        backingCache.put("A", "AAA-other");
+        end(true);
+
+        assertFalse("Stale shared value should have been removed", backingCache.contains("A"));
+    }
+
+    public void testClear() throws Exception
+    {
+        backingCache.put("A", "AAA");
+        backingCache.put("B", "BBB");
+
+        begin();
+        transactionalCache.clear();
+        assertNull("Shared cache must be ignored after a clear", transactionalCache.get("A"));
+        transactionalCache.put("C", "CCC");
+        assertEquals("CCC", transactionalCache.get("C"));
+        end(true);
+
+        assertFalse(backingCache.contains("A"));
+        assertFalse(backingCache.contains("B"));
+        assertEquals("CCC", backingCache.get("C"));
+    }
+
+    public void testOverflow() throws Exception
+    {
+        backingCache.put("X", "XXX");
+
+        begin();
+        for (int i = 0; i < 25; i++)
+        {
+            transactionalCache.put("K" + i, Integer.valueOf(i));
+        }
+        // The last value written must always be visible
+        assertEquals(Integer.valueOf(24), transactionalCache.get("K24"));
+        assertNull("Shared cache must be ignored after overflow", transactionalCache.get("X"));
+        end(true);
+
+        assertFalse("Shared cache should have been cleared", backingCache.contains("X"));
+        assertEquals(Integer.valueOf(24), backingCache.get("K24"));
+    }
+
+    public void testPostCommitAccess() throws Exception
+    {
+        backingCache.put("A", "AAA");
+        begin();
+        transactionalCache.put("B", "BBB");
+        TransactionSynchronizationUtils.triggerBeforeCommit(false);
+        // Updates after the commit are ignored but reads go to the shared cache
+        transactionalCache.put("C", "CCC");
+        assertEquals("AAA", transactionalCache.get("A"));
+        end(true);
+        assertNull(backingCache.get("C"));
+
+        // The thread's table is reused by the next transaction and must be empty
+        begin();
+        assertEquals("BBB", transactionalCache.get("B"));
+        end(true);
+    }
+
+    public void testTxnTable() throws Exception
+    {
+        TxnTable table = new TxnTable(4);
+        Map<String, Integer> expected = new HashMap<String, Integer>();
+        for (int i = 0; i < 500; i++)
+        {
+            String key = "K" + (i % 97);
+            int index = table.indexOf(key);
+            if (i % 5 == 0 && index >= 0)
+            {
+                table.delete(index);
+                expected.remove(key);
+            }
+            else
+            {
+                table.putUpdated(index, key, TxnTable.STATE_NEW, null, Integer.valueOf(i));
+                expected.put(key, Integer.valueOf(i));
+            }
+            assertEquals("Size mismatch", expected.size(), table.size());
+        }
+        for (int i = 0; i < 97; i++)
+        {
+            String key = "K" + i;
+            assertEquals("Presence mismatch for " + key, expected.containsKey(key), table.indexOf(key) >= 0);
+        }
+        // Removals
+        String key = expected.keySet().iterator().next();
+        table.putRemoved(table.indexOf(key), key);
+        assertEquals(1, table.getRemovedCount());
+        assertEquals(expected.size() - 1, table.getUpdatedCount());
+        table.deleteRemoved();
+        assertEquals(0, table.getRemovedCount());
+        assertTrue(table.indexOf(key) < 0);
+        table.clear();
+        assertEquals(0, table.size());
+    }
+}
@@ -31,6 +31,7 @@ import net.sf.ehcache.Element;
 import net.sf.ehcache.Status;
 import net.sf.ehcache.statistics.LiveCacheStatistics;
 
+import org.alfresco.repo.cache.lookup.EntityLookupCacheStatistics;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.quartz.Job;
@@ -38,7 +39,8 @@ import org.quartz.JobExecutionContext;
 import org.quartz.JobExecutionException;
 
 /**
- * Analyzes the size of EHCache caches used.
+ * Analyzes the size of EHCache caches used.  The lookup counts of the entity lookup cache
+ * regions are dumped as well; these are also available through the {@link EntityLookupCacheMonitor}.
  * <p>
  * To activate this class, call the {@link #init()} method. 
  * 
@@ -129,6 +131,13 @@ public class EhCacheTracerJob implements Job
                     maxSizePercentage);
             logger.debug(msg);
         }
+        if (logger.isDebugEnabled())
+        {
+            for (EntityLookupCacheStatistics statistics : EntityLookupCacheStatistics.getStatisticsByRegion().values())
+            {
+                logger.debug(statistics);
+            }
+        }
     }
     
     private static class CacheAnalysis
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.repo.cache;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.alfresco.repo.cache.lookup.EntityLookupCache;
+import org.alfresco.repo.cache.lookup.EntityLookupCacheStatistics;
+
+/**
+ * Exposes the lookup statistics of the {@link EntityLookupCache} instances, added up by region.
+ * The figures show how many lookups were answered by the near caches, by the shared caches
+ * and by the database.
+ *
+ * @see EntityLookupCacheStatistics
+ * @see EhCacheTracerJob
+ *
+ * @author agent
+ * @since 4.0
+ */
+public class EntityLookupCacheMonitor implements EntityLookupCacheMonitorMBean
+{
+    /**
+     * @return              Returns the statistics for the region or <tt>null</tt> if the region is not in use
+     */
+    private EntityLookupCacheStatistics getStatistics(String region)
+    {
+        return EntityLookupCacheStatistics.getStatisticsByRegion().get(region);
+    }
+
+    public String[] getRegionNames()
+    {
+        Map<String, EntityLookupCacheStatistics> statisticsByRegion = EntityLookupCacheStatistics.getStatisticsByRegion();
+        return statisticsByRegion.keySet().toArray(new String[statisticsByRegion.size()]);
+    }
+
+    public String[] getRegionSummaries()
+    {
+        Collection<EntityLookupCacheStatistics> allStatistics = EntityLookupCacheStatistics.getStatisticsByRegion().values();
+        String[] summaries = new String[allStatistics.size()];
+        int i = 0;
+        for (EntityLookupCacheStatistics statistics : allStatistics)
+        {
+            summaries[i++] = statistics.toString();
+        }
+        return summaries;
+    }
+
+    public long getNearCacheHitCount(String region)
+    {
+        EntityLookupCacheStatistics statistics = getStatistics(region);
+        return (statistics == null) ? 0L : statistics.getNearCacheHitCount();
+    }
+
+    public long getCacheHitCount(String region)
+    {
+        EntityLookupCacheStatistics statistics = getStatistics(region);
+        return (statistics == null) ? 0L : statistics.getCacheHitCount();
+    }
+
+    public long getMissCount(String region)
+    {
+        EntityLookupCacheStatistics statistics = getStatistics(region);
+        return (statistics == null) ? 0L : statistics.getMissCount();
+    }
+
+    public double getHitRatio(String region)
+    {
+        EntityLookupCacheStatistics statistics = getStatistics(region);
+        return (statistics == null) ? 0.0 : statistics.getHitRatio();
+    }
+
+    public int getNearCacheSize(String region)
+    {
+        EntityLookupCacheStatistics statistics = getStatistics(region);
+        return (statistics == null) ? 0 : statistics.getNearCacheSize();
+    }
+
+    public void resetStatistics()
+    {
+        for (EntityLookupCacheStatistics statistics : EntityLookupCacheStatistics.getAllStatistics())
+        {
+            statistics.reset();
+        }
+    }
+}
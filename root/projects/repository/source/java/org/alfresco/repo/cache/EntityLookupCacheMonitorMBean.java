@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.repo.cache;
+
+/**
+ * JMX management interface for the {@link EntityLookupCacheMonitor}.
+ *
+ * @author agent
+ * @since 4.0
+ */
+public interface EntityLookupCacheMonitorMBean
+{
+    /**
+     * @return              Returns the names of all entity lookup cache regions in use
+     */
+    public String[] getRegionNames();
+
+    /**
+     * @return              Returns a one-line summary of the lookups for each region
+     */
+    public String[] getRegionSummaries();
+
+    /**
+     * @return              Returns the number of lookups answered by the near cache of the region
+     */
+    public long getNearCacheHitCount(String region);
+
+    /**
+     * @return              Returns the number of lookups answered by the shared cache of the region
+     */
+    public long getCacheHitCount(String region);
+
+    /**
+     * @return              Returns the number of lookups passed through to the database
+     */
+    public long getMissCount(String region);
+
+    /**
+     * @return              Returns the ratio of cache hits to all lookups for the region
+     */
+    public double getHitRatio(String region);
+
+    /**
+     * @return              Returns the number of entries in the near cache of the region
+     */
+    public int getNearCacheSize(String region);
+
+    /**
+     * Reset the counters of all regions
+     */
+    public void resetStatistics();
+}
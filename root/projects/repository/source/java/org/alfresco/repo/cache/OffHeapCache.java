@@ -0,0 +1,829 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.repo.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.util.PropertyCheck;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * A shared cache that keeps its values outside of the Java heap.
+ * <p>
+ * Values are serialized and written into direct <tt>ByteBuffer</tt>s or, if a
+ * {@link #setMappedFileDirectory(String) directory} is given, into memory-mapped files.
+ * Only the keys and a small index entry per key remain on the heap, so large node, property
+ * and ACL caches no longer add to the old generation.  The storage is split into a number of
+ * independently locked segments, each of which is carved up into fixed-size blocks.  A value
+ * occupies a chain of blocks and, when a segment runs out of free blocks, the least recently
+ * used entries of that segment are evicted until the new value fits.  The total storage never
+ * exceeds the configured {@link #setMaxBytes(long) byte budget}.
+ * <p>
+ * The cache is a drop-in replacement for the {@link EhCacheAdapter} wherever a
+ * {@link SimpleCache} is injected, including as the shared cache of the
+ * {@link TransactionalCache} and behind the <tt>EntityLookupCache</tt>.  Those classes detect
+ * concurrent modifications by comparing value instances, so each entry keeps a weak reference
+ * to the last instance that was written or read: as long as that instance is still in use,
+ * lookups return it rather than a fresh copy.  Callers must therefore treat cached values as
+ * immutable, as they must with any other shared cache.
+ * <p>
+ * Values that are not <tt>Serializable</tt> or that are larger than a segment cannot be held.
+ * Writing such a value removes any existing entry for the key, so the cache never returns
+ * stale data.  Such rejections are counted and logged once.
+ * <p>
+ * Statistics are available through the {@link OffHeapCacheMBean} interface.  If an
+ * {@link #setMbeanServer(MBeanServer) MBean server} is provided, the cache registers itself
+ * as <b>Alfresco:Type=Cache,Name=<i>name</i></b>.
+ *
+ * @author agent
+ * @since 4.0
+ */
+public class OffHeapCache<K extends Serializable, V extends Object>
+        implements SimpleCache<K, V>, OffHeapCacheMBean, InitializingBean, DisposableBean
+{
+    private static final Log logger = LogFactory.getLog(OffHeapCache.class);
+
+    /** the entry length used to record a <tt>null</tt> value */
+    private static final int LENGTH_NULL = -1;
+
+    private String name;
+    private long maxBytes;
+    private int blockSize;
+    private int segmentCount;
+    private String mappedFileDirectory;
+    private MBeanServer mbeanServer;
+
+    private Segment[] segments;
+    private int segmentMask;
+    private ObjectName objectName;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong putCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private volatile boolean warnedRejected;
+
+    public OffHeapCache()
+    {
+        maxBytes = 64L * 1024L * 1024L;
+        blockSize = 256;
+        segmentCount = 16;
+    }
+
+    /**
+     * @see #setName(String)
+     */
+    @Override
+    public String toString()
+    {
+        return name;
+    }
+
+    /**
+     * Set the name of the cache, used for logging and for the JMX object name
+     */
+    public void setName(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * Set the maximum number of bytes used to store values.  The default is 64MB.
+     */
+    public void setMaxBytes(long maxBytes)
+    {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Set the size of the storage blocks.  Values are stored in chains of blocks, so smaller
+     * blocks waste less space at the cost of more bookkeeping.  The default is 256 bytes.
+     */
+    public void setBlockSize(int blockSize)
+    {
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Set the number of independently-locked segments.  The value will be rounded up to
+     * a power of two.  The default is 16.
+     */
+    public void setSegmentCount(int segmentCount)
+    {
+        this.segmentCount = segmentCount;
+    }
+
+    /**
+     * Set a directory in which to create memory-mapped files to back the cache.  If not set,
+     * direct buffers are used.  The files are temporary and are removed when the cache is
+     * destroyed.
+     */
+    public void setMappedFileDirectory(String mappedFileDirectory)
+    {
+        this.mappedFileDirectory = mappedFileDirectory;
+    }
+
+    /**
+     * Set the optional MBean server with which to register the cache statistics
+     */
+    public void setMbeanServer(MBeanServer mbeanServer)
+    {
+        this.mbeanServer = mbeanServer;
+    }
+
+    public void afterPropertiesSet() throws Exception
+    {
+        PropertyCheck.mandatory(this, "name", name);
+        if (blockSize < 16)
+        {
+            throw new AlfrescoRuntimeException("The blockSize must be at least 16 bytes: " + this);
+        }
+        if (segmentCount < 1)
+        {
+            throw new AlfrescoRuntimeException("The segmentCount must be at least 1: " + this);
+        }
+        int count = 1;
+        while (count < segmentCount)
+        {
+            count <<= 1;
+        }
+        long segmentBytes = maxBytes / count;
+        if (segmentBytes / blockSize > Integer.MAX_VALUE / blockSize)
+        {
+            throw new AlfrescoRuntimeException(
+                    "A segment cannot be larger than 2GB.  Increase the segmentCount: " + this);
+        }
+        int blocksPerSegment = (int) (segmentBytes / blockSize);
+        if (blocksPerSegment < 1)
+        {
+            throw new AlfrescoRuntimeException(
+                    "The maxBytes must allow for at least one block per segment: \n" +
+                    "   Cache:    " + this + "\n" +
+                    "   maxBytes: " + maxBytes + "\n" +
+                    "   segments: " + count + "\n" +
+                    "   block:    " + blockSize);
+        }
+
+        File directory = null;
+        if (mappedFileDirectory != null)
+        {
+            directory = new File(mappedFileDirectory);
+            if (!directory.exists() && !directory.mkdirs())
+            {
+                throw new AlfrescoRuntimeException("Unable to create cache directory: " + directory);
+            }
+        }
+        Segment[] newSegments = new Segment[count];
+        try
+        {
+            for (int i = 0; i < count; i++)
+            {
+                newSegments[i] = new Segment(blockSize, blocksPerSegment, directory, name);
+            }
+        }
+        catch (IOException e)
+        {
+            for (Segment segment : newSegments)
+            {
+                if (segment != null)
+                {
+                    segment.close();
+                }
+            }
+            throw new AlfrescoRuntimeException("Failed to create cache storage: " + this, e);
+        }
+        segments = newSegments;
+        segmentMask = count - 1;
+
+        if (mbeanServer != null)
+        {
+            registerMBean();
+        }
+        if (logger.isDebugEnabled())
+        {
+            logger.debug(
+                    "Created off-heap cache: \n" +
+                    "   Cache:    " + this + "\n" +
+                    "   Bytes:    " + ((long) count * blocksPerSegment * blockSize) + "\n" +
+                    "   Segments: " + count + "\n" +
+                    "   Mapped:   " + (directory != null));
+        }
+    }
+
+    private void registerMBean() throws Exception
+    {
+        String quotedName = name;
+        if (quotedName.matches(".*[,=:\"*?].*"))
+        {
+            quotedName = ObjectName.quote(quotedName);
+        }
+        objectName = new ObjectName("Alfresco:Type=Cache,Name=" + quotedName);
+        if (mbeanServer.isRegistered(objectName))
+        {
+            mbeanServer.unregisterMBean(objectName);
+        }
+        mbeanServer.registerMBean(this, objectName);
+    }
+
+    /**
+     * Unregisters the MBean and releases the storage
+     */
+    public void destroy() throws Exception
+    {
+        if (objectName != null && mbeanServer.isRegistered(objectName))
+        {
+            mbeanServer.unregisterMBean(objectName);
+        }
+        objectName = null;
+        if (segments != null)
+        {
+            for (Segment segment : segments)
+            {
+                synchronized (segment)
+                {
+                    segment.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Spread the hash bits so that keys with similar hash codes fall into different segments
+     */
+    private Segment getSegment(Object key)
+    {
+        int h = (key == null) ? 0 : key.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return segments[h & segmentMask];
+    }
+
+    public boolean contains(K key)
+    {
+        Segment segment = getSegment(key);
+        synchronized (segment)
+        {
+            return segment.entries.containsKey(key);
+        }
+    }
+
+    public Collection<K> getKeys()
+    {
+        List<K> keys = new ArrayList<K>(getEntryCount());
+        for (Segment segment : segments)
+        {
+            synchronized (segment)
+            {
+                for (Object key : segment.entries.keySet())
+                {
+                    @SuppressWarnings("unchecked")
+                    K k = (K) key;
+                    keys.add(k);
+                }
+            }
+        }
+        return keys;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(K key)
+    {
+        Segment segment = getSegment(key);
+        Entry entry;
+        byte[] bytes;
+        synchronized (segment)
+        {
+            entry = segment.entries.get(key);
+            if (entry == null)
+            {
+                missCount.incrementAndGet();
+                return null;
+            }
+            hitCount.incrementAndGet();
+            if (entry.length == LENGTH_NULL)
+            {
+                return null;
+            }
+            Object value = (entry.valueRef == null) ? null : entry.valueRef.get();
+            if (value != null)
+            {
+                return (V) value;
+            }
+            bytes = segment.read(entry);
+        }
+        // Deserialize outside of the lock
+        Object value;
+        try
+        {
+            value = deserialize(bytes);
+        }
+        catch (Throwable e)
+        {
+            logger.warn("Discarding unreadable value from cache " + this + " for key " + key, e);
+            synchronized (segment)
+            {
+                segment.remove(key, entry);
+            }
+            return null;
+        }
+        synchronized (segment)
+        {
+            // Another reader may have beaten us to it; share a single instance
+            Object existing = (entry.valueRef == null) ? null : entry.valueRef.get();
+            if (existing != null)
+            {
+                return (V) existing;
+            }
+            entry.valueRef = new WeakReference<Object>(value);
+        }
+        return (V) value;
+    }
+
+    public void put(K key, V value)
+    {
+        putCount.incrementAndGet();
+        byte[] bytes = null;
+        if (value != null)
+        {
+            bytes = serialize(key, value);
+            if (bytes == null)
+            {
+                // The value cannot be held, so any previous value is now stale
+                remove(key);
+                return;
+            }
+        }
+        Segment segment = getSegment(key);
+        int evicted;
+        synchronized (segment)
+        {
+            evicted = segment.put(key, value, bytes);
+        }
+        if (evicted < 0)
+        {
+            reject(key, value, "it is larger than a cache segment (" + bytes.length + " bytes)");
+        }
+        else if (evicted > 0)
+        {
+            evictionCount.addAndGet(evicted);
+        }
+    }
+
+    public void remove(K key)
+    {
+        Segment segment = getSegment(key);
+        synchronized (segment)
+        {
+            segment.remove(key, null);
+        }
+    }
+
+    public void clear()
+    {
+        for (Segment segment : segments)
+        {
+            synchronized (segment)
+            {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * @return              Returns the serialized value or <tt>null</tt> if it cannot be serialized
+     */
+    private byte[] serialize(K key, V value)
+    {
+        if (!(value instanceof Serializable))
+        {
+            reject(key, value, "it is not serializable");
+            return null;
+        }
+        try
+        {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(blockSize);
+            ObjectOutputStream oos = new ObjectOutputStream(bos);
+            oos.writeObject(value);
+            oos.close();
+            return bos.toByteArray();
+        }
+        catch (NotSerializableException e)
+        {
+            reject(key, value, "it references a non-serializable " + e.getMessage());
+            return null;
+        }
+        catch (IOException e)
+        {
+            throw new AlfrescoRuntimeException("Failed to serialize value for cache " + this + ": " + key, e);
+        }
+    }
+
+    private Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException
+    {
+        ObjectInputStream ois = new ContextObjectInputStream(new ByteArrayInputStream(bytes));
+        try
+        {
+            return ois.readObject();
+        }
+        finally
+        {
+            ois.close();
+        }
+    }
+
+    private void reject(K key, V value, String reason)
+    {
+        rejectedCount.incrementAndGet();
+        if (!warnedRejected)
+        {
+            warnedRejected = true;
+            logger.warn(
+                    "Cache " + this + " cannot hold a value of type " + value.getClass().getName() +
+                    " because " + reason + ".  Further rejections are counted but not logged.");
+        }
+        else if (logger.isDebugEnabled())
+        {
+            logger.debug("Rejected value for key " + key + " in cache " + this + ": " + reason);
+        }
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public int getEntryCount()
+    {
+        int count = 0;
+        for (Segment segment : segments)
+        {
+            synchronized (segment)
+            {
+                count += segment.entries.size();
+            }
+        }
+        return count;
+    }
+
+    public long getHitCount()
+    {
+        return hitCount.get();
+    }
+
+    public long getMissCount()
+    {
+        return missCount.get();
+    }
+
+    public double getHitRatio()
+    {
+        long hits = hitCount.get();
+        long lookups = hits + missCount.get();
+        return (lookups == 0L) ? 0.0 : (double) hits / (double) lookups;
+    }
+
+    public long getPutCount()
+    {
+        return putCount.get();
+    }
+
+    public long getEvictionCount()
+    {
+        return evictionCount.get();
+    }
+
+    public long getRejectedCount()
+    {
+        return rejectedCount.get();
+    }
+
+    public long getUsedBytes()
+    {
+        long bytes = 0L;
+        for (Segment segment : segments)
+        {
+            synchronized (segment)
+            {
+                bytes += segment.usedBytes;
+            }
+        }
+        return bytes;
+    }
+
+    public long getAllocatedBytes()
+    {
+        long bytes = 0L;
+        for (Segment segment : segments)
+        {
+            synchronized (segment)
+            {
+                bytes += (long) (segment.blockCount - segment.freeBlocks) * blockSize;
+            }
+        }
+        return bytes;
+    }
+
+    public long getMaxBytes()
+    {
+        long bytes = 0L;
+        for (Segment segment : segments)
+        {
+            bytes += (long) segment.blockCount * blockSize;
+        }
+        return bytes;
+    }
+
+    public void resetStatistics()
+    {
+        hitCount.set(0L);
+        missCount.set(0L);
+        putCount.set(0L);
+        evictionCount.set(0L);
+        rejectedCount.set(0L);
+    }
+
+    /**
+     * The on-heap index entry for a value.  It is never modified once it has been added to a
+     * segment, apart from the reference to the last value instance.
+     */
+    private static final class Entry
+    {
+        private final int firstBlock;
+        private final int length;
+        private WeakReference<Object> valueRef;
+
+        private Entry(int firstBlock, int length, Object value)
+        {
+            this.firstBlock = firstBlock;
+            this.length = length;
+            this.valueRef = (value == null) ? null : new WeakReference<Object>(value);
+        }
+    }
+
+    /**
+     * A region of storage together with the index of the entries held in it.  All access
+     * must be synchronized on the segment.
+     */
+    private static final class Segment
+    {
+        private final ByteBuffer buffer;
+        private final int blockSize;
+        private final int blockCount;
+        /** the next block in the chain of an entry or in the free list; <tt>-1</tt> ends the chain */
+        private final int[] nextBlock;
+        /** entries in least-recently-used order */
+        private final LinkedHashMap<Object, Entry> entries;
+        private int freeHead;
+        private int freeBlocks;
+        private long usedBytes;
+        private RandomAccessFile file;
+        private File fileLocation;
+
+        private Segment(int blockSize, int blockCount, File directory, String cacheName) throws IOException
+        {
+            this.blockSize = blockSize;
+            this.blockCount = blockCount;
+            int capacity = blockSize * blockCount;
+            if (directory == null)
+            {
+                buffer = ByteBuffer.allocateDirect(capacity);
+            }
+            else
+            {
+                String prefix = "cache-" + cacheName.replaceAll("[^A-Za-z0-9.]", "_") + "-";
+                fileLocation = File.createTempFile(prefix, ".bin", directory);
+                fileLocation.deleteOnExit();
+                file = new RandomAccessFile(fileLocation, "rw");
+                file.setLength(capacity);
+                buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0L, capacity);
+            }
+            nextBlock = new int[blockCount];
+            entries = new LinkedHashMap<Object, Entry>(64, 0.75F, true);
+            resetBlocks();
+        }
+
+        private void resetBlocks()
+        {
+            for (int i = 0; i < blockCount - 1; i++)
+            {
+                nextBlock[i] = i + 1;
+            }
+            nextBlock[blockCount - 1] = -1;
+            freeHead = 0;
+            freeBlocks = blockCount;
+            usedBytes = 0L;
+        }
+
+        /**
+         * Store a value, evicting the least recently used entries if necessary
+         *
+         * @return          Returns the number of entries evicted or <tt>-1</tt> if the value
+         *                  is too large for the segment.  Any previous entry for the key is
+         *                  removed in either case.
+         */
+        private int put(Object key, Object value, byte[] bytes)
+        {
+            Entry previous = entries.remove(key);
+            if (previous != null)
+            {
+                free(previous);
+            }
+            if (bytes == null)
+            {
+                entries.put(key, new Entry(-1, LENGTH_NULL, null));
+                return 0;
+            }
+            int needed = (bytes.length + blockSize - 1) / blockSize;
+            if (needed > blockCount)
+            {
+                return -1;
+            }
+            int evicted = 0;
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (freeBlocks < needed)
+            {
+                // The eldest entry is the least recently used
+                free(iterator.next());
+                iterator.remove();
+                evicted++;
+            }
+            int firstBlock = -1;
+            int previousBlock = -1;
+            int offset = 0;
+            for (int i = 0; i < needed; i++)
+            {
+                int block = freeHead;
+                freeHead = nextBlock[block];
+                nextBlock[block] = -1;
+                if (previousBlock < 0)
+                {
+                    firstBlock = block;
+                }
+                else
+                {
+                    nextBlock[previousBlock] = block;
+                }
+                int length = Math.min(blockSize, bytes.length - offset);
+                buffer.position(block * blockSize);
+                buffer.put(bytes, offset, length);
+                offset += length;
+                previousBlock = block;
+            }
+            freeBlocks -= needed;
+            usedBytes += bytes.length;
+            entries.put(key, new Entry(firstBlock, bytes.length, value));
+            return evicted;
+        }
+
+        private byte[] read(Entry entry)
+        {
+            byte[] bytes = new byte[entry.length];
+            int offset = 0;
+            int block = entry.firstBlock;
+            while (offset < bytes.length)
+            {
+                int length = Math.min(blockSize, bytes.length - offset);
+                buffer.position(block * blockSize);
+                buffer.get(bytes, offset, length);
+                offset += length;
+                block = nextBlock[block];
+            }
+            return bytes;
+        }
+
+        /**
+         * Remove the entry for the key
+         *
+         * @param expected  the entry that must be current for the removal to go ahead or
+         *                  <tt>null</tt> to remove any entry
+         */
+        private void remove(Object key, Entry expected)
+        {
+            if (expected != null && entries.get(key) != expected)
+            {
+                return;
+            }
+            Entry entry = entries.remove(key);
+            if (entry != null)
+            {
+                free(entry);
+            }
+        }
+
+        private void free(Entry entry)
+        {
+            if (entry.length == LENGTH_NULL)
+            {
+                return;
+            }
+            int block = entry.firstBlock;
+            while (block >= 0)
+            {
+                int next = nextBlock[block];
+                nextBlock[block] = freeHead;
+                freeHead = block;
+                freeBlocks++;
+                block = next;
+            }
+            usedBytes -= entry.length;
+        }
+
+        private void clear()
+        {
+            entries.clear();
+            resetBlocks();
+        }
+
+        private void close()
+        {
+            entries.clear();
+            if (file != null)
+            {
+                try
+                {
+                    file.close();
+                }
+                catch (IOException e)
+                {
+                    logger.warn("Failed to close cache file: " + fileLocation, e);
+                }
+                file = null;
+                // The file will be deleted on exit if the mapping prevents deletion now
+                fileLocation.delete();
+            }
+        }
+    }
+
+    /**
+     * Resolves classes against the thread context classloader so that values from any
+     * application classloader can be read back.
+     */
+    private static class ContextObjectInputStream extends ObjectInputStream
+    {
+        private ContextObjectInputStream(InputStream in) throws IOException
+        {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException
+        {
+            ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+            if (classLoader != null)
+            {
+                try
+                {
+                    return Class.forName(desc.getName(), false, classLoader);
+                }
+                catch (ClassNotFoundException e)
+                {
+                    // Fall back to the default resolution
+                }
+            }
+            return super.resolveClass(desc);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.repo.cache;
+
+/**
+ * JMX management interface for the {@link OffHeapCache}.
+ *
+ * @author agent
+ * @since 4.0
+ */
+public interface OffHeapCacheMBean
+{
+    /**
+     * @return              Returns the name of the cache
+     */
+    public String getName();
+
+    /**
+     * @return              Returns the number of entries currently held
+     */
+    public int getEntryCount();
+
+    /**
+     * @return              Returns the number of successful lookups
+     */
+    public long getHitCount();
+
+    /**
+     * @return              Returns the number of lookups that found no entry
+     */
+    public long getMissCount();
+
+    /**
+     * @return              Returns the ratio of hits to lookups or <tt>0.0</tt> if there have been no lookups
+     */
+    public double getHitRatio();
+
+    /**
+     * @return              Returns the number of values written to the cache
+     */
+    public long getPutCount();
+
+    /**
+     * @return              Returns the number of entries evicted to make space for new values
+     */
+    public long getEvictionCount();
+
+    /**
+     * @return              Returns the number of values that could not be stored because they were
+     *                      too large or not serializable
+     */
+    public long getRejectedCount();
+
+    /**
+     * @return              Returns the number of serialized bytes held by the cache
+     */
+    public long getUsedBytes();
+
+    /**
+     * @return              Returns the number of bytes taken up by the storage blocks in use
+     */
+    public long getAllocatedBytes();
+
+    /**
+     * @return              Returns the maximum number of bytes that the cache may use for values
+     */
+    public long getMaxBytes();
+
+    /**
+     * Reset the hit, miss, put, eviction and rejection counters
+     */
+    public void resetStatistics();
+
+    /**
+     * Remove all entries from the cache
+     */
+    public void clear();
+}
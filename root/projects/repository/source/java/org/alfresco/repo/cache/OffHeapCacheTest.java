@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.repo.cache;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+import org.alfresco.util.TempFileProvider;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+/**
+ * @see OffHeapCache
+ *
+ * @author agent
+ * @since 4.0
+ */
+public class OffHeapCacheTest extends TestCase
+{
+    private OffHeapCache<Serializable, Object> cache;
+
+    @Override
+    public void setUp() throws Exception
+    {
+        cache = newCache(1024 * 1024, 64, 4);
+    }
+
+    @Override
+    public void tearDown() throws Exception
+    {
+        cache.destroy();
+    }
+
+    private OffHeapCache<Serializable, Object> newCache(long maxBytes, int blockSize, int segmentCount) throws Exception
+    {
+        OffHeapCache<Serializable, Object> newCache = new OffHeapCache<Serializable, Object>();
+        newCache.setName(getName());
+        newCache.setMaxBytes(maxBytes);
+        newCache.setBlockSize(blockSize);
+        newCache.setSegmentCount(segmentCount);
+        newCache.afterPropertiesSet();
+        return newCache;
+    }
+
+    public void testPutGetRemove() throws Exception
+    {
+        assertFalse(cache.contains("A"));
+        assertNull(cache.get("A"));
+        assertEquals(1L, cache.getMissCount());
+
+        ArrayList<String> value = new ArrayList<String>();
+        for (int i = 0; i < 100; i++)
+        {
+            value.add("Value " + i);
+        }
+        cache.put("A", value);
+        cache.put("B", null);
+        assertTrue(cache.contains("A"));
+        assertTrue("Null values must be held", cache.contains("B"));
+        assertEquals(value, cache.get("A"));
+        assertNull(cache.get("B"));
+        assertEquals(2L, cache.getHitCount());
+        assertTrue("Value should span several blocks", cache.getAllocatedBytes() > 64);
+        assertTrue(cache.getUsedBytes() <= cache.getAllocatedBytes());
+
+        Collection<Serializable> keys = cache.getKeys();
+        assertEquals(2, keys.size());
+        assertTrue(keys.contains("A"));
+        assertTrue(keys.contains("B"));
+
+        cache.remove("A");
+        assertFalse(cache.contains("A"));
+        assertEquals(0L, cache.getUsedBytes());
+        cache.clear();
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(0L, cache.getAllocatedBytes());
+    }
+
+    public void testInstanceSharing() throws Exception
+    {
+        ArrayList<String> value = new ArrayList<String>();
+        value.add("X");
+        cache.put("A", value);
+        // The instance written is shared while it is still referenced
+        assertSame(value, cache.get("A"));
+        assertSame(cache.get("A"), cache.get("A"));
+
+        // A value held in the cache must survive being rewritten
+        cache.put("A", "Y");
+        assertEquals("Y", cache.get("A"));
+        assertEquals(1, cache.getEntryCount());
+    }
+
+    public void testEvictsLeastRecentlyUsed() throws Exception
+    {
+        OffHeapCache<Serializable, Object> smallCache = newCache(4096, 64, 1);
+        try
+        {
+            smallCache.put(Integer.valueOf(0), "Keep me");
+            for (int i = 1; i < 200; i++)
+            {
+                // Keep the first entry in use
+                assertNotNull("Recently used entry was evicted", smallCache.get(Integer.valueOf(0)));
+                smallCache.put(Integer.valueOf(i), "Value " + i);
+                assertTrue("Byte budget exceeded", smallCache.getAllocatedBytes() <= smallCache.getMaxBytes());
+            }
+            assertTrue("Expected evictions", smallCache.getEvictionCount() > 0);
+            assertFalse("Oldest entry should have been evicted", smallCache.contains(Integer.valueOf(1)));
+            assertTrue(smallCache.contains(Integer.valueOf(199)));
+            assertEquals(200L, smallCache.getPutCount());
+        }
+        finally
+        {
+            smallCache.destroy();
+        }
+    }
+
+    public void testRejections() throws Exception
+    {
+        cache.put("A", "AAA");
+        cache.put("A", new Object());
+        assertFalse("Previous value must be removed when a value is rejected", cache.contains("A"));
+
+        cache.put("B", "BBB");
+        cache.put("B", new byte[1024 * 1024]);
+        assertFalse("Previous value must be removed when a value is too large", cache.contains("B"));
+        assertEquals(2L, cache.getRejectedCount());
+
+        cache.resetStatistics();
+        assertEquals(0L, cache.getRejectedCount());
+        assertEquals(0L, cache.getPutCount());
+    }
+
+    public void testMappedFile() throws Exception
+    {
+        File directory = TempFileProvider.getTempDir();
+        OffHeapCache<Serializable, Object> mappedCache = new OffHeapCache<Serializable, Object>();
+        mappedCache.setName(getName());
+        mappedCache.setMaxBytes(64 * 1024);
+        mappedCache.setSegmentCount(2);
+        mappedCache.setMappedFileDirectory(directory.getAbsolutePath());
+        mappedCache.afterPropertiesSet();
+        try
+        {
+            for (int i = 0; i < 100; i++)
+            {
+                mappedCache.put(Integer.valueOf(i), "Value " + i);
+            }
+            for (int i = 0; i < 100; i++)
+            {
+                assertEquals("Value " + i, mappedCache.get(Integer.valueOf(i)));
+            }
+        }
+        finally
+        {
+            mappedCache.destroy();
+        }
+    }
+
+    public void testMBean() throws Exception
+    {
+        MBeanServer mbeanServer = MBeanServerFactory.newMBeanServer();
+        OffHeapCache<Serializable, Object> jmxCache = new OffHeapCache<Serializable, Object>();
+        jmxCache.setName("org.alfresco.cache.test");
+        jmxCache.setMbeanServer(mbeanServer);
+        jmxCache.afterPropertiesSet();
+        ObjectName objectName = new ObjectName("Alfresco:Type=Cache,Name=org.alfresco.cache.test");
+        try
+        {
+            jmxCache.put("A", "AAA");
+            jmxCache.get("A");
+            assertEquals(Long.valueOf(1L), mbeanServer.getAttribute(objectName, "HitCount"));
+            assertEquals(Integer.valueOf(1), mbeanServer.getAttribute(objectName, "EntryCount"));
+            mbeanServer.invoke(objectName, "clear", new Object[] {}, new String[] {});
+            assertEquals(0, jmxCache.getEntryCount());
+        }
+        finally
+        {
+            jmxCache.destroy();
+        }
+        assertFalse(mbeanServer.isRegistered(objectName));
+    }
+
+    /**
+     * The transactional cache compares shared values by instance so the off-heap cache
+     * must hand back the same instance for an unchanged entry.
+     */
+    public void testAsTransactionalSharedCache() throws Exception
+    {
+        TransactionalCache<Serializable, Object> txnCache = new TransactionalCache<Serializable, Object>();
+        txnCache.setName(getName());
+        txnCache.setSharedCache(cache);
+        txnCache.afterPropertiesSet();
+
+        cache.put("A", "AAA");
+        TransactionSynchronizationManager.initSynchronization();
+        try
+        {
+            assertEquals("AAA", txnCache.get("A"));
+            txnCache.put("A", "AAA-updated");
+            TransactionSynchronizationUtils.triggerBeforeCommit(false);
+            TransactionSynchronizationUtils.triggerBeforeCompletion();
+            TransactionSynchronizationUtils.triggerAfterCommit();
+            TransactionSynchronizationUtils.triggerAfterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+        }
+        finally
+        {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        assertEquals("Update should have been written to the shared cache", "AAA-updated", cache.get("A"));
+    }
+}
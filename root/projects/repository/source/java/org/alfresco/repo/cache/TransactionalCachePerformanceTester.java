@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.repo.cache;
+
+import java.io.Serializable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+/**
+ * Compares the {@link TransactionalCache} and the {@link CompactTransactionalCache} under
+ * a multi-threaded put/get/commit workload.  No application context is required: the
+ * transactions are simulated by driving the Spring transaction synchronizations directly,
+ * so the figures only include the cache and transaction-listener overheads.
+ * <p>
+ * Note that this test is not designed to validate performance figures, but is
+ * rather a handy tool for doing benchmarking.  It is therefore not named <i>*Test</i> as is the
+ * pattern for getting tests run by the continuous build.
+ * <p>
+ * Run with: <pre>TransactionalCachePerformanceTester [threads] [txnsPerThread] [putsPerTxn]</pre>
+ *
+ * @author agent
+ * @since 4.0
+ */
+public class TransactionalCachePerformanceTester extends TestCase
+{
+    private static CacheManager cacheManager = new CacheManager();
+
+    private int threadCount = 8;
+    private int txnsPerThread = 5000;
+    private int putsPerTxn = 50;
+    private int keySpace = 100000;
+
+    private SimpleCache<Serializable, Object> newSharedCache(String name)
+    {
+        Cache cache = new Cache(name + "-" + System.nanoTime(), keySpace, false, true, 0, 0);
+        cacheManager.addCache(cache);
+        EhCacheAdapter<Serializable, Object> sharedCache = new EhCacheAdapter<Serializable, Object>();
+        sharedCache.setCache(cache);
+        return sharedCache;
+    }
+
+    private SimpleCache<Serializable, Object> newTransactionalCache() throws Exception
+    {
+        TransactionalCache<Serializable, Object> cache = new TransactionalCache<Serializable, Object>();
+        cache.setName("transactionalCache");
+        cache.setSharedCache(newSharedCache("transactionalCache"));
+        cache.setMaxCacheSize(putsPerTxn * 2);
+        cache.afterPropertiesSet();
+        return cache;
+    }
+
+    private SimpleCache<Serializable, Object> newCompactTransactionalCache() throws Exception
+    {
+        CompactTransactionalCache<Serializable, Object> cache = new CompactTransactionalCache<Serializable, Object>();
+        cache.setName("compactTransactionalCache");
+        cache.setSharedCache(newSharedCache("compactTransactionalCache"));
+        cache.setMaxCacheSize(putsPerTxn * 2);
+        cache.afterPropertiesSet();
+        return cache;
+    }
+
+    /**
+     * Each transaction reads a range of keys, overwrites half of them and removes a few before
+     * committing.  Every tenth transaction rolls back.
+     *
+     * @return              Returns the average time per transaction in nanoseconds
+     */
+    private long runWorkload(final SimpleCache<Serializable, Object> cache) throws Exception
+    {
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final CountDownLatch endLatch = new CountDownLatch(threadCount);
+        final AtomicLong totalTime = new AtomicLong();
+        for (int t = 0; t < threadCount; t++)
+        {
+            final int threadNumber = t;
+            Thread thread = new Thread("CachePerf-" + t)
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        startLatch.await();
+                        long start = System.nanoTime();
+                        for (int txn = 0; txn < txnsPerThread; txn++)
+                        {
+                            int base = (threadNumber * 7919 + txn * putsPerTxn) % keySpace;
+                            TransactionSynchronizationManager.initSynchronization();
+                            boolean commit = (txn % 10 != 0);
+                            try
+                            {
+                                for (int i = 0; i < putsPerTxn; i++)
+                                {
+                                    Integer key = Integer.valueOf((base + i) % keySpace);
+                                    Object value = cache.get(key);
+                                    if (value == null || (i & 1) == 0)
+                                    {
+                                        cache.put(key, Integer.valueOf(txn));
+                                    }
+                                    if (i % 25 == 0)
+                                    {
+                                        cache.remove(key);
+                                    }
+                                }
+                                if (commit)
+                                {
+                                    TransactionSynchronizationUtils.triggerBeforeCommit(false);
+                                }
+                                TransactionSynchronizationUtils.triggerBeforeCompletion();
+                                if (commit)
+                                {
+                                    TransactionSynchronizationUtils.triggerAfterCommit();
+                                }
+                                TransactionSynchronizationUtils.triggerAfterCompletion(commit
+                                        ? TransactionSynchronization.STATUS_COMMITTED
+                                        : TransactionSynchronization.STATUS_ROLLED_BACK);
+                            }
+                            finally
+                            {
+                                TransactionSynchronizationManager.clearSynchronization();
+                            }
+                        }
+                        totalTime.addAndGet(System.nanoTime() - start);
+                    }
+                    catch (Throwable e)
+                    {
+                        e.printStackTrace();
+                    }
+                    finally
+                    {
+                        endLatch.countDown();
+                    }
+                }
+            };
+            thread.start();
+        }
+        startLatch.countDown();
+        endLatch.await();
+        return totalTime.get() / ((long) threadCount * txnsPerThread);
+    }
+
+    public void testPerformance() throws Exception
+    {
+        // Warm up both implementations before measuring
+        runWorkload(newTransactionalCache());
+        runWorkload(newCompactTransactionalCache());
+
+        long timeTransactional = runWorkload(newTransactionalCache());
+        long timeCompact = runWorkload(newCompactTransactionalCache());
+
+        // report
+        System.out.println("Transactional cache performance test: \n" +
+                "   threads:            " + threadCount + "\n" +
+                "   txns per thread:    " + txnsPerThread + "\n" +
+                "   puts per txn:       " + putsPerTxn + "\n" +
+                "   TransactionalCache:        " + timeTransactional + " ns\\txn \n" +
+                "   CompactTransactionalCache: " + timeCompact + " ns\\txn");
+    }
+
+    public static void main(String ... args)
+    {
+        try
+        {
+            TransactionalCachePerformanceTester test = new TransactionalCachePerformanceTester();
+            if (args.length > 0)
+            {
+                test.threadCount = Integer.parseInt(args[0]);
+            }
+            if (args.length > 1)
+            {
+                test.txnsPerThread = Integer.parseInt(args[1]);
+            }
+            if (args.length > 2)
+            {
+                test.putsPerTxn = Integer.parseInt(args[2]);
+            }
+            test.testPerformance();
+        }
+        catch (Throwable e)
+        {
+            e.printStackTrace();
+        }
+        finally
+        {
+            cacheManager.shutdown();
+        }
+    }
+}
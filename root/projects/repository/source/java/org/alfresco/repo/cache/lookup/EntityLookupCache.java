@@ -19,9 +19,16 @@
 package org.alfresco.repo.cache.lookup;
 
 import java.io.Serializable;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.alfresco.repo.cache.SimpleCache;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport.TxnReadState;
 import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
 import org.alfresco.util.Pair;
 import org.springframework.extensions.surf.util.ParameterCheck;
 import org.springframework.dao.ConcurrencyFailureException;
@@ -44,6 +51,15 @@ import org.springframework.dao.ConcurrencyFailureException;
  *   <li>VK: The a value-derived key that will be used as a cache key when caching K for lookups by V.
  *           This can be the value itself if it is itself a good key.</li>
  * </ul>
+ * <p>
+ * An optional {@link #setNearCacheMaxSize(int) near cache} can be placed in front of the cache for
+ * entities that are never modified once created, such as QNames and namespaces.  Lookups that find
+ * an entry in the near cache don't touch the (transactional) cache at all.  Values only enter the near
+ * cache once they are known to be committed.  Any modification made through this instance clears it.
+ * Modifications made on other servers are not seen, so the near cache must not be used for entities
+ * that can change.
+ * <p>
+ * Lookups against the cache are counted by each instance; see {@link #getStatistics()}.
  * 
  * @author Derek Hulley
  * @since 3.2
@@ -229,6 +245,9 @@ public class EntityLookupCache<K extends Serializable, V extends Object, VK exte
     private final SimpleCache<Serializable, Object> cache;
     private final EntityLookupCallbackDAO<K, V, VK> entityLookup;
     private final String cacheRegion;
+    private final EntityLookupCacheStatistics statistics;
+    /** the immutable value cache or <tt>null</tt> if disabled */
+    private volatile NearCache nearCache;
 
     /**
      * Construct the lookup cache <b>without any cache</b>.  All calls are passed directly to the
@@ -272,6 +291,39 @@ public class EntityLookupCache<K extends Serializable, V extends Object, VK exte
         this.cache = cache;
         this.cacheRegion = cacheRegion;
         this.entityLookup = entityLookup;
+        this.statistics = EntityLookupCacheStatistics.register(this, cacheRegion);
+    }
+    
+    /**
+     * Enable or disable the near cache.  The near cache holds up to the given number of committed
+     * entities in memory, in front of the backing cache.  It is only suitable for entities that
+     * are never modified once they have been created.  When it is full, an entity that has not
+     * been looked up recently makes way for the new one.
+     * <p>
+     * The near cache is only used if a backing cache is present.
+     * 
+     * @param nearCacheMaxSize      the maximum number of entities to hold or <tt>0</tt> to disable
+     *                              the near cache
+     */
+    public void setNearCacheMaxSize(int nearCacheMaxSize)
+    {
+        if (nearCacheMaxSize > 0 && cache != null)
+        {
+            nearCache = new NearCache(nearCacheMaxSize);
+        }
+        else
+        {
+            nearCache = null;
+        }
+        statistics.setNearCacheSize(0);
+    }
+    
+    /**
+     * @return                      Returns the lookup counters of this cache
+     */
+    public EntityLookupCacheStatistics getStatistics()
+    {
+        return statistics;
     }
     
     /**
@@ -298,11 +350,24 @@ public class EntityLookupCache<K extends Serializable, V extends Object, VK exte
             return entityLookup.findByKey(key);
         }
         
+        // Look in the near cache
+        NearCache nearCache = this.nearCache;
+        if (nearCache != null)
+        {
+            Pair<K, V> entityPair = nearCache.getByKey(key);
+            if (entityPair != null)
+            {
+                statistics.recordNearCacheHit();
+                return entityPair;
+            }
+        }
+        
         CacheRegionKey keyCacheKey = new CacheRegionKey(cacheRegion, key);
         // Look in the cache
         V value = (V) cache.get(keyCacheKey);
         if (value != null)
         {
+            statistics.recordCacheHit();
             if (value.equals(VALUE_NOT_FOUND))
             {
                 // We checked before
@@ -310,13 +375,19 @@ public class EntityLookupCache<K extends Serializable, V extends Object, VK exte
             }
             else if (value.equals(VALUE_NULL))
             {
+                nearCachePut(nearCache, key, null, null);
                 return new Pair<K, V>(key, null);
             }
             else
             {
+                if (nearCache != null)
+                {
+                    nearCache.put(key, value, entityLookup.getValueKey(value));
+                }
                 return new Pair<K, V>(key, value);
             }
         }
+        statistics.recordMiss();
         // Resolve it
         Pair<K, V> entityPair = entityLookup.findByKey(key);
         if (entityPair == null)
@@ -339,6 +410,7 @@ public class EntityLookupCache<K extends Serializable, V extends Object, VK exte
             cache.put(
                     keyCacheKey,
                     (value == null ? VALUE_NULL : value));
+            nearCachePut(nearCache, key, value, valueKey);
         }
         // Done
         return entityPair;
@@ -374,12 +446,25 @@ public class EntityLookupCache<K extends Serializable, V extends Object, VK exte
             return entityLookup.findByValue(value);
         }
         
+        // Look in the near cache
+        NearCache nearCache = this.nearCache;
+        if (nearCache != null)
+        {
+            Pair<K, V> entityPair = nearCache.getByValueKey(valueKey);
+            if (entityPair != null)
+            {
+                statistics.recordNearCacheHit();
+                return entityPair;
+            }
+        }
+        
         // Look in the cache
         CacheRegionValueKey valueCacheKey = new CacheRegionValueKey(cacheRegion, valueKey);
         K key = (K) cache.get(valueCacheKey);
         // Check if we have looked this up already
         if (key != null)
         {
+            statistics.recordCacheHit();
             // We checked before and ...
             if (key.equals(VALUE_NOT_FOUND))
             {
@@ -392,6 +477,7 @@ public class EntityLookupCache<K extends Serializable, V extends Object, VK exte
                 return getByKey(key);
             }
         }
+        statistics.recordMiss();
         // Resolve it
         Pair<K, V> entityPair = entityLookup.findByValue(value);
         if (entityPair == null)
@@ -407,6 +493,7 @@ public class EntityLookupCache<K extends Serializable, V extends Object, VK exte
             cache.put(
                     new CacheRegionKey(cacheRegion, key),
                     (entityPair.getSecond() == null ? VALUE_NULL : entityPair.getSecond()));
+            nearCachePut(nearCache, key, entityPair.getSecond(), valueKey);
         }
         // Done
         return entityPair;
@@ -453,14 +540,28 @@ public class EntityLookupCache<K extends Serializable, V extends Object, VK exte
             return entityPair;
         }
         
+        // Look in the near cache
+        NearCache nearCache = this.nearCache;
+        if (nearCache != null)
+        {
+            Pair<K, V> entityPair = nearCache.getByValueKey(valueKey);
+            if (entityPair != null)
+            {
+                statistics.recordNearCacheHit();
+                return entityPair;
+            }
+        }
+        
         // Look in the cache
         CacheRegionValueKey valueCacheKey = new CacheRegionValueKey(cacheRegion, valueKey);
         K key = (K) cache.get(valueCacheKey);
         // Check if the value is already mapped to a key
         if (key != null && !key.equals(VALUE_NOT_FOUND))
         {
+            statistics.recordCacheHit();
             return getByKey(key);
         }
+        statistics.recordMiss();
         // Resolve it
         Pair<K, V> entityPair = entityLookup.findByValue(value);
         if (entityPair == null)
@@ -474,6 +575,7 @@ public class EntityLookupCache<K extends Serializable, V extends Object, VK exte
         cache.put(
                 new CacheRegionKey(cacheRegion, key),
                 (value == null ? VALUE_NULL : value));
+        nearCachePut(nearCache, key, value, valueKey);
         // Done
         return entityPair;
     }
@@ -538,6 +640,15 @@ public class EntityLookupCache<K extends Serializable, V extends Object, VK exte
     @SuppressWarnings("unchecked")
     public K getKey(VK valueKey)
     {
+        NearCache nearCache = this.nearCache;
+        if (nearCache != null)
+        {
+            Pair<K, V> entityPair = nearCache.getByValueKey(valueKey);
+            if (entityPair != null)
+            {
+                return entityPair.getFirst();
+            }
+        }
         // There is a good value key, cache by value
         CacheRegionValueKey valueCacheKey = new CacheRegionValueKey(cacheRegion, valueKey);
         K key = (K) cache.get(valueCacheKey);
@@ -558,6 +669,15 @@ public class EntityLookupCache<K extends Serializable, V extends Object, VK exte
     @SuppressWarnings("unchecked")
     public V getValue(K key)
     {
+        NearCache nearCache = this.nearCache;
+        if (nearCache != null)
+        {
+            Pair<K, V> entityPair = nearCache.getByKey(key);
+            if (entityPair != null)
+            {
+                return entityPair.getSecond();
+            }
+        }
         CacheRegionKey keyCacheKey = new CacheRegionKey(cacheRegion, key);
         // Look in the cache
         V value = (V) cache.get(keyCacheKey);
@@ -689,6 +809,7 @@ public class EntityLookupCache<K extends Serializable, V extends Object, VK exte
     @SuppressWarnings("unchecked")
     private void removeByKey(K key, boolean removeKey)
     {
+        nearCacheInvalidate();
         CacheRegionKey keyCacheKey = new CacheRegionKey(cacheRegion, key);
         V value = (V) cache.get(keyCacheKey);
         if (value != null && !value.equals(VALUE_NOT_FOUND))
@@ -721,6 +842,7 @@ public class EntityLookupCache<K extends Serializable, V extends Object, VK exte
             return;
         }
         
+        nearCacheInvalidate();
         // Get the value key
         VK valueKey = (value == null) ? (VK)VALUE_NULL : entityLookup.getValueKey(value);
         if (valueKey == null)
@@ -752,9 +874,238 @@ public class EntityLookupCache<K extends Serializable, V extends Object, VK exte
         {
             return;
         }
+        nearCacheInvalidate();
         cache.clear();
     }
     
+    /**
+     * Put a value into the near cache, if there is one
+     * 
+     * @param nearCache             the near cache (may be <tt>null</tt>)
+     * @param valueKey              the value key (may be <tt>null</tt>)
+     */
+    private void nearCachePut(NearCache nearCache, K key, V value, VK valueKey)
+    {
+        if (nearCache != null)
+        {
+            nearCache.put(key, value, valueKey);
+        }
+    }
+    
+    /**
+     * Clear the near cache, if there is one, now and again when the transaction completes
+     */
+    private void nearCacheInvalidate()
+    {
+        NearCache nearCache = this.nearCache;
+        if (nearCache != null)
+        {
+            nearCache.invalidate();
+        }
+    }
+    
+    /**
+     * Holds committed, immutable entities in memory.  Entities read or created in a read-write
+     * transaction are only added once the transaction has committed.  This is also the transaction
+     * listener that publishes them.
+     * <p>
+     * Lookups don't lock.  When the near cache is full, an entity is evicted using the clock
+     * algorithm: the entities are visited in the order they were added and an entity that has been
+     * looked up since it was last visited is kept, once, in favour of the next.
+     */
+    private class NearCache extends TransactionListenerAdapter
+    {
+        private final int maxSize;
+        private final ConcurrentHashMap<K, NearCacheEntry> valuesByKey;
+        private final ConcurrentHashMap<VK, K> keysByValueKey;
+        /** The keys in the order the clock visits them, guarded by the near cache */
+        private final LinkedList<K> clock;
+        private final String resourceKeyTxnData;
+        
+        private NearCache(int maxSize)
+        {
+            this.maxSize = maxSize;
+            this.valuesByKey = new ConcurrentHashMap<K, NearCacheEntry>(Math.min(maxSize, 1024));
+            this.keysByValueKey = new ConcurrentHashMap<VK, K>(Math.min(maxSize, 1024));
+            this.clock = new LinkedList<K>();
+            this.resourceKeyTxnData = "EntityLookupCache.NearCache." + cacheRegion + "." + System.identityHashCode(this);
+        }
+        
+        @SuppressWarnings("unchecked")
+        private Pair<K, V> getByKey(K key)
+        {
+            NearCacheEntry entry = valuesByKey.get(key);
+            if (entry == null)
+            {
+                return null;
+            }
+            if (!entry.referenced)
+            {
+                entry.referenced = true;
+            }
+            Object value = entry.value;
+            return new Pair<K, V>(key, value.equals(VALUE_NULL) ? null : (V) value);
+        }
+        
+        private Pair<K, V> getByValueKey(VK valueKey)
+        {
+            K key = keysByValueKey.get(valueKey);
+            return (key == null) ? null : getByKey(key);
+        }
+        
+        private void put(K key, V value, VK valueKey)
+        {
+            Object nearValue = (value == null) ? VALUE_NULL : value;
+            if (AlfrescoTransactionSupport.getTransactionReadState() == TxnReadState.TXN_READ_WRITE)
+            {
+                // The value might not be committed, yet
+                NearCacheTxnData txnData = getTxnData(true);
+                txnData.valuesByKey.put(key, nearValue);
+                if (valueKey != null)
+                {
+                    txnData.keysByValueKey.put(valueKey, key);
+                }
+            }
+            else
+            {
+                publish(key, nearValue, valueKey);
+            }
+        }
+        
+        private synchronized void publish(K key, Object nearValue, VK valueKey)
+        {
+            NearCacheEntry previous = valuesByKey.put(key, new NearCacheEntry(nearValue, valueKey));
+            if (previous == null)
+            {
+                clock.addLast(key);
+                if (valuesByKey.size() > maxSize)
+                {
+                    evict();
+                }
+            }
+            else if (previous.valueKey != null && !previous.valueKey.equals(valueKey))
+            {
+                keysByValueKey.remove(previous.valueKey, key);
+            }
+            if (valueKey != null)
+            {
+                keysByValueKey.put(valueKey, key);
+            }
+            statistics.setNearCacheSize(valuesByKey.size());
+        }
+        
+        /**
+         * Evict the first entity, in clock order, that has not been looked up since it was last visited
+         */
+        private void evict()
+        {
+            // Give up on second chances after two full turns, in case lookups keep setting them
+            int secondChances = clock.size() * 2;
+            while (true)
+            {
+                K key = clock.removeFirst();
+                NearCacheEntry entry = valuesByKey.get(key);
+                if (entry.referenced && secondChances-- > 0)
+                {
+                    entry.referenced = false;
+                    clock.addLast(key);
+                    continue;
+                }
+                valuesByKey.remove(key);
+                if (entry.valueKey != null)
+                {
+                    keysByValueKey.remove(entry.valueKey, key);
+                }
+                return;
+            }
+        }
+        
+        private synchronized void clear()
+        {
+            valuesByKey.clear();
+            keysByValueKey.clear();
+            clock.clear();
+        }
+        
+        private void invalidate()
+        {
+            clear();
+            statistics.setNearCacheSize(0);
+            if (AlfrescoTransactionSupport.getTransactionReadState() == TxnReadState.TXN_READ_WRITE)
+            {
+                // Clear it again on commit, in case other transactions have put the old values back
+                NearCacheTxnData txnData = getTxnData(true);
+                txnData.invalidated = true;
+                txnData.valuesByKey.clear();
+                txnData.keysByValueKey.clear();
+            }
+        }
+        
+        private NearCacheTxnData getTxnData(boolean create)
+        {
+            NearCacheTxnData txnData = AlfrescoTransactionSupport.getResource(resourceKeyTxnData);
+            if (txnData == null && create)
+            {
+                txnData = new NearCacheTxnData();
+                AlfrescoTransactionSupport.bindResource(resourceKeyTxnData, txnData);
+                AlfrescoTransactionSupport.bindListener(this);
+            }
+            return txnData;
+        }
+        
+        @Override
+        public void afterCommit()
+        {
+            NearCacheTxnData txnData = getTxnData(false);
+            if (txnData == null)
+            {
+                return;
+            }
+            if (txnData.invalidated)
+            {
+                clear();
+            }
+            Map<K, VK> valueKeysByKey = new HashMap<K, VK>(txnData.keysByValueKey.size() * 2);
+            for (Map.Entry<VK, K> entry : txnData.keysByValueKey.entrySet())
+            {
+                valueKeysByKey.put(entry.getValue(), entry.getKey());
+            }
+            for (Map.Entry<K, Object> entry : txnData.valuesByKey.entrySet())
+            {
+                K key = entry.getKey();
+                publish(key, entry.getValue(), valueKeysByKey.get(key));
+            }
+            statistics.setNearCacheSize(valuesByKey.size());
+        }
+    }
+    
+    /**
+     * A near cache value and the value key it was published with
+     */
+    private class NearCacheEntry
+    {
+        private final Object value;
+        private final VK valueKey;
+        /** Set by lookups and cleared when the clock passes over the entry */
+        private volatile boolean referenced;
+        
+        private NearCacheEntry(Object value, VK valueKey)
+        {
+            this.value = value;
+            this.valueKey = valueKey;
+        }
+    }
+    
+    /**
+     * Near cache values gathered during a read-write transaction
+     */
+    private class NearCacheTxnData
+    {
+        private final Map<K, Object> valuesByKey = new HashMap<K, Object>(13);
+        private final Map<VK, K> keysByValueKey = new HashMap<VK, K>(13);
+        private boolean invalidated;
+    }
+    
     /**
      * Key-wrapper used to separate cache regions, allowing a single cache to be used for different
      * purposes.<b/>
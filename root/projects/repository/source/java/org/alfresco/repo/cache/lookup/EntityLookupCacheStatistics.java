@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.repo.cache.lookup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lookup counters for a single {@link EntityLookupCache}.  Each lookup by key or by value
+ * is recorded as exactly one of:
+ * <ul>
+ *   <li>a <b>near cache hit</b>: answered by the in-JVM near cache without touching the shared cache</li>
+ *   <li>a <b>cache hit</b>: answered by the shared (usually transactional) cache</li>
+ *   <li>a <b>miss</b>: passed through to the DAO</li>
+ * </ul>
+ * Every lookup cache owns its statistics.  They are registered for monitoring for as long as
+ * the cache itself is in use; caches sharing a region can be reported together using
+ * {@link #getStatisticsByRegion()}.
+ *
+ * @author agent
+ * @since 4.0
+ */
+public class EntityLookupCacheStatistics
+{
+    /** The statistics of the lookup caches that are still referenced */
+    private static final Map<EntityLookupCache<?, ?, ?>, EntityLookupCacheStatistics> statisticsByCache =
+        new WeakHashMap<EntityLookupCache<?, ?, ?>, EntityLookupCacheStatistics>(31);
+
+    /**
+     * Create and register the statistics of a lookup cache
+     *
+     * @param cache                 the lookup cache that will record its lookups
+     * @param cacheRegion           the region of the lookup cache
+     * @return                      Returns new statistics for the cache
+     */
+    static EntityLookupCacheStatistics register(EntityLookupCache<?, ?, ?> cache, String cacheRegion)
+    {
+        EntityLookupCacheStatistics statistics = new EntityLookupCacheStatistics(cacheRegion);
+        synchronized (statisticsByCache)
+        {
+            statisticsByCache.put(cache, statistics);
+        }
+        return statistics;
+    }
+
+    /**
+     * @return                      Returns the statistics of all lookup caches in use, sorted by region name
+     */
+    public static List<EntityLookupCacheStatistics> getAllStatistics()
+    {
+        List<EntityLookupCacheStatistics> allStatistics;
+        synchronized (statisticsByCache)
+        {
+            allStatistics = new ArrayList<EntityLookupCacheStatistics>(statisticsByCache.values());
+        }
+        Collections.sort(allStatistics, new Comparator<EntityLookupCacheStatistics>()
+        {
+            public int compare(EntityLookupCacheStatistics o1, EntityLookupCacheStatistics o2)
+            {
+                return o1.cacheRegion.compareTo(o2.cacheRegion);
+            }
+        });
+        return allStatistics;
+    }
+
+    /**
+     * Add up the statistics of the lookup caches in each region.  The results are a snapshot:
+     * {@link #reset() resetting} them has no effect on the caches.
+     *
+     * @return                      Returns the combined statistics of each region, sorted by region name
+     */
+    public static Map<String, EntityLookupCacheStatistics> getStatisticsByRegion()
+    {
+        Map<String, EntityLookupCacheStatistics> statisticsByRegion = new TreeMap<String, EntityLookupCacheStatistics>();
+        for (EntityLookupCacheStatistics statistics : getAllStatistics())
+        {
+            EntityLookupCacheStatistics regionStatistics = statisticsByRegion.get(statistics.cacheRegion);
+            if (regionStatistics == null)
+            {
+                regionStatistics = new EntityLookupCacheStatistics(statistics.cacheRegion);
+                statisticsByRegion.put(statistics.cacheRegion, regionStatistics);
+            }
+            regionStatistics.nearCacheHitCount.addAndGet(statistics.getNearCacheHitCount());
+            regionStatistics.cacheHitCount.addAndGet(statistics.getCacheHitCount());
+            regionStatistics.missCount.addAndGet(statistics.getMissCount());
+            regionStatistics.nearCacheSize += statistics.getNearCacheSize();
+        }
+        return statisticsByRegion;
+    }
+
+    private final String cacheRegion;
+    private final AtomicLong nearCacheHitCount;
+    private final AtomicLong cacheHitCount;
+    private final AtomicLong missCount;
+    private volatile int nearCacheSize;
+
+    private EntityLookupCacheStatistics(String cacheRegion)
+    {
+        this.cacheRegion = cacheRegion;
+        this.nearCacheHitCount = new AtomicLong();
+        this.cacheHitCount = new AtomicLong();
+        this.missCount = new AtomicLong();
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append("EntityLookupCacheStatistics")
+          .append("[region=").append(cacheRegion)
+          .append(", nearCacheHits=").append(getNearCacheHitCount())
+          .append(", cacheHits=").append(getCacheHitCount())
+          .append(", misses=").append(getMissCount())
+          .append(", hitRatio=").append(String.format("%.4f", getHitRatio()))
+          .append(", nearCacheSize=").append(getNearCacheSize())
+          .append("]");
+        return sb.toString();
+    }
+
+    void recordNearCacheHit()
+    {
+        nearCacheHitCount.incrementAndGet();
+    }
+
+    void recordCacheHit()
+    {
+        cacheHitCount.incrementAndGet();
+    }
+
+    void recordMiss()
+    {
+        missCount.incrementAndGet();
+    }
+
+    void setNearCacheSize(int nearCacheSize)
+    {
+        this.nearCacheSize = nearCacheSize;
+    }
+
+    public String getCacheRegion()
+    {
+        return cacheRegion;
+    }
+
+    public long getNearCacheHitCount()
+    {
+        return nearCacheHitCount.get();
+    }
+
+    public long getCacheHitCount()
+    {
+        return cacheHitCount.get();
+    }
+
+    public long getMissCount()
+    {
+        return missCount.get();
+    }
+
+    /**
+     * @return                      Returns the ratio of near and shared cache hits to all lookups
+     */
+    public double getHitRatio()
+    {
+        long hits = nearCacheHitCount.get() + cacheHitCount.get();
+        long lookups = hits + missCount.get();
+        return (lookups == 0L) ? 0.0 : (double) hits / (double) lookups;
+    }
+
+    /**
+     * @return                      Returns the number of entries in the near cache
+     */
+    public int getNearCacheSize()
+    {
+        return nearCacheSize;
+    }
+
+    /**
+     * Reset the hit and miss counters
+     */
+    public void reset()
+    {
+        nearCacheHitCount.set(0L);
+        cacheHitCount.set(0L);
+        missCount.set(0L);
+    }
+}
@@ -29,6 +29,9 @@ import org.alfresco.repo.cache.SimpleCache;
 import org.alfresco.repo.cache.lookup.EntityLookupCache.EntityLookupCallbackDAO;
 import org.alfresco.util.EqualsHelper;
 import org.alfresco.util.Pair;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
 
 /**
  * A cache for two-way lookups of database entities.  These are characterized by having a unique
@@ -222,6 +225,142 @@ public class EntityLookupCacheTest extends TestCase implements EntityLookupCallb
         assertEquals(valueOne.val, database.get(id));               // Must still be in database
         assertEquals(0, cache.getKeys().size());                    // ... but cache must be empty
     }
+    
+    public void testNearCache() throws Exception
+    {
+        entityLookupCacheA.setNearCacheMaxSize(10);
+        EntityLookupCacheStatistics statistics = entityLookupCacheA.getStatistics();
+        statistics.reset();
+        
+        TestValue valueOne = new TestValue(getName() + "-ONE");
+        Pair<Long, Object> entityPairOne = entityLookupCacheA.getOrCreateByValue(valueOne);
+        Long id = entityPairOne.getFirst();
+        assertEquals(1L, statistics.getMissCount());
+        assertEquals(1, statistics.getNearCacheSize());
+        
+        // Empty the shared cache; the near cache must answer the lookups
+        cache.clear();
+        assertEquals(entityPairOne, entityLookupCacheA.getByKey(id));
+        assertEquals(entityPairOne, entityLookupCacheA.getByValue(valueOne));
+        assertEquals(2L, statistics.getNearCacheHitCount());
+        assertEquals("The shared cache should not have been used", 0, cache.getKeys().size());
+        
+        // Modifications must clear the near cache
+        TestValue valueTwo = new TestValue(getName() + "-TWO");
+        entityLookupCacheA.updateValue(id, valueTwo);
+        assertEquals(0, statistics.getNearCacheSize());
+        assertEquals(valueTwo, entityLookupCacheA.getByKey(id).getSecond());
+        assertNull("Old value must not be found", entityLookupCacheA.getByValue(valueOne));
+        
+        // Other regions are not affected
+        entityLookupCacheB.getOrCreateByValue(valueOne);
+        assertEquals(2L, statistics.getNearCacheHitCount());
+    }
+    
+    public void testNearCacheEvictsWhenFull() throws Exception
+    {
+        entityLookupCacheA.setNearCacheMaxSize(3);
+        EntityLookupCacheStatistics statistics = entityLookupCacheA.getStatistics();
+        Long[] ids = new Long[4];
+        for (int i = 0; i < 3; i++)
+        {
+            ids[i] = entityLookupCacheA.getOrCreateByValue(new TestValue(getName() + "-" + i)).getFirst();
+        }
+        assertEquals(3, statistics.getNearCacheSize());
+        
+        // The first entity is looked up again, so the second makes way for a new one
+        statistics.reset();
+        entityLookupCacheA.getByKey(ids[0]);
+        assertEquals(1L, statistics.getNearCacheHitCount());
+        ids[3] = entityLookupCacheA.getOrCreateByValue(new TestValue(getName() + "-3")).getFirst();
+        assertEquals(3, statistics.getNearCacheSize());
+        
+        cache.clear();
+        statistics.reset();
+        entityLookupCacheA.getByKey(ids[3]);
+        entityLookupCacheA.getByKey(ids[0]);
+        entityLookupCacheA.getByKey(ids[2]);
+        assertEquals("New entities must be admitted when full", 3L, statistics.getNearCacheHitCount());
+        assertEquals(0L, statistics.getMissCount());
+        assertNotNull(entityLookupCacheA.getByKey(ids[1]));
+        assertEquals("The evicted entity must not be in the near cache", 3L, statistics.getNearCacheHitCount());
+        assertEquals(1L, statistics.getMissCount());
+        assertEquals(3, statistics.getNearCacheSize());
+    }
+    
+    public void testStatisticsPerInstance() throws Exception
+    {
+        // Two caches sharing a region
+        String region = getName();
+        EntityLookupCache<Long, Object, String> entityLookupCacheOne = new EntityLookupCache<Long, Object, String>(cache, region, this);
+        EntityLookupCache<Long, Object, String> entityLookupCacheTwo = new EntityLookupCache<Long, Object, String>(cache, region, this);
+        entityLookupCacheOne.setNearCacheMaxSize(10);
+        
+        TestValue valueOne = new TestValue(getName() + "-ONE");
+        Long id = entityLookupCacheOne.getOrCreateByValue(valueOne).getFirst();
+        entityLookupCacheOne.getByKey(id);
+        entityLookupCacheTwo.getByKey(id);
+        
+        EntityLookupCacheStatistics statisticsOne = entityLookupCacheOne.getStatistics();
+        EntityLookupCacheStatistics statisticsTwo = entityLookupCacheTwo.getStatistics();
+        assertEquals(1L, statisticsOne.getMissCount());
+        assertEquals(1L, statisticsOne.getNearCacheHitCount());
+        assertEquals(1, statisticsOne.getNearCacheSize());
+        assertEquals(0L, statisticsTwo.getMissCount());
+        assertEquals(1L, statisticsTwo.getCacheHitCount());
+        assertEquals("Near cache size must not be shared", 0, statisticsTwo.getNearCacheSize());
+        
+        // The region adds them up
+        EntityLookupCacheStatistics regionStatistics = EntityLookupCacheStatistics.getStatisticsByRegion().get(region);
+        assertEquals(1L, regionStatistics.getMissCount());
+        assertEquals(1L, regionStatistics.getNearCacheHitCount());
+        assertEquals(1L, regionStatistics.getCacheHitCount());
+        assertEquals(1, regionStatistics.getNearCacheSize());
+        assertTrue(EntityLookupCacheStatistics.getAllStatistics().contains(statisticsOne));
+        assertTrue(EntityLookupCacheStatistics.getAllStatistics().contains(statisticsTwo));
+    }
+    
+    public void testNearCacheWaitsForCommit() throws Exception
+    {
+        entityLookupCacheA.setNearCacheMaxSize(10);
+        TestValue valueOne = new TestValue(getName() + "-ONE");
+        TestValue valueTwo = new TestValue(getName() + "-TWO");
+        Long idOne = null;
+        Long idTwo = null;
+        
+        // Values created in a transaction that rolls back must not be seen
+        TransactionSynchronizationManager.initSynchronization();
+        try
+        {
+            idOne = entityLookupCacheA.getOrCreateByValue(valueOne).getFirst();
+            cache.clear();
+            assertNull("Uncommitted value in near cache", entityLookupCacheA.getValue(idOne));
+            TransactionSynchronizationUtils.triggerAfterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+        }
+        finally
+        {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        assertNull("Rolled back value in near cache", entityLookupCacheA.getValue(idOne));
+        
+        // Values created in a transaction that commits are published
+        TransactionSynchronizationManager.initSynchronization();
+        try
+        {
+            idTwo = entityLookupCacheA.getOrCreateByValue(valueTwo).getFirst();
+            TransactionSynchronizationUtils.triggerBeforeCommit(false);
+            TransactionSynchronizationUtils.triggerBeforeCompletion();
+            TransactionSynchronizationUtils.triggerAfterCommit();
+            TransactionSynchronizationUtils.triggerAfterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+        }
+        finally
+        {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        cache.clear();
+        assertEquals(valueTwo, entityLookupCacheA.getValue(idTwo));
+        assertEquals(idTwo, entityLookupCacheA.getKey(valueTwo.val));
+    }
 
     /**
      * Helper class to represent business object
@@ -46,6 +46,8 @@ import org.alfresco.repo.content.transform.StringExtractingContentTransformerTes
 import org.alfresco.repo.content.transform.TextMiningContentTransformerTest;
 import org.alfresco.repo.content.transform.TextToPdfContentTransformerTest;
 import org.alfresco.repo.content.transform.TikaAutoContentTransformerTest;
+import org.alfresco.repo.content.transform.TransformationTimesTest;
+import org.alfresco.repo.content.transform.TransformerProcessPoolTest;
 import org.alfresco.repo.content.transform.magick.ImageMagickContentTransformerTest;
 import org.alfresco.util.ApplicationContextHelper;
 import org.springframework.context.ApplicationContext;
@@ -102,6 +104,8 @@ public class ContentMinimalContextTestSuite extends TestSuite
        suite.addTestSuite(BinaryPassThroughContentTransformerTest.class);
        suite.addTestSuite(ComplexContentTransformerTest.class);
        suite.addTestSuite(ContentTransformerRegistryTest.class);
+       suite.addTestSuite(TransformationTimesTest.class);
+       suite.addTestSuite(TransformerProcessPoolTest.class);
        suite.addTestSuite(HtmlParserContentTransformerTest.class);
        suite.addTestSuite(MailContentTransformerTest.class);
        suite.addTestSuite(MediaWikiContentTransformerTest.class);
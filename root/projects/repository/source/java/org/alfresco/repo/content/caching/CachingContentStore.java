@@ -47,6 +47,10 @@ import org.springframework.context.ApplicationEventPublisherAware;
  * <p>
  * It is important that cacheOnInbound is set to true for exceptionally slow backing stores,
  * e.g. {@link org.alfresco.enterprise.repo.content.xam.XAMContentStore}
+ * <p>
+ * If a {@link WriteBehindUploader} is provided, inbound content is uploaded to the backing store
+ * in the background and writers complete as soon as the content is in the cache.  Content waiting
+ * to be uploaded is always read from the cache.
  * 
  * @author Matt Ward
  */
@@ -63,6 +67,7 @@ public class CachingContentStore implements ContentStore, ApplicationEventPublis
     private int maxCacheTries = 2;
     private ApplicationEventPublisher eventPublisher;
     private String beanName;
+    private WriteBehindUploader writeBehindUploader;
     
     static
     {
@@ -161,6 +166,10 @@ public class CachingContentStore implements ContentStore, ApplicationEventPublis
     @Override
     public boolean exists(String contentUrl)
     {
+        if (writeBehindUploader != null && writeBehindUploader.isPending(contentUrl))
+        {
+            return true;
+        }
         return backingStore.exists(contentUrl);
     }
 
@@ -170,6 +179,16 @@ public class CachingContentStore implements ContentStore, ApplicationEventPublis
     @Override
     public ContentReader getReader(String contentUrl)
     {
+        if (writeBehindUploader != null)
+        {
+            // Content that has not reached the backing store must be read from the cache
+            ContentReader pendingReader = writeBehindUploader.getPendingReader(contentUrl);
+            if (pendingReader != null)
+            {
+                return pendingReader;
+            }
+        }
+        
         // Use pool of locks - which one is determined by a hash of the URL.
         // This will stop the content from being read/cached multiple times from the backing store
         // when it should only be read once - cached versions should be returned after that.
@@ -304,6 +323,19 @@ public class CachingContentStore implements ContentStore, ApplicationEventPublis
                     bsWriter.setEncoding(cacheWriter.getEncoding());
                     bsWriter.setLocale(cacheWriter.getLocale());
                     bsWriter.setMimetype(cacheWriter.getMimetype());
+                    
+                    if (writeBehindUploader != null && writeBehindUploader.upload(url, bsWriter))
+                    {
+                        // The cache file must be kept until the upload has been confirmed.
+                        if (!quota.afterWritingCacheFile(cacheWriter.getSize()) &&
+                                    !writeBehindUploader.evictAfterUpload(url))
+                        {
+                            cache.deleteFile(url);
+                            cache.remove(url);
+                        }
+                        return;
+                    }
+                    
                     bsWriter.putContent(cacheWriter.getReader());
                     
                     if (!quota.afterWritingCacheFile(cacheWriter.getSize()))
@@ -360,6 +392,11 @@ public class CachingContentStore implements ContentStore, ApplicationEventPublis
     @Override
     public boolean delete(String contentUrl)
     {
+        if (writeBehindUploader != null)
+        {
+            writeBehindUploader.cancel(contentUrl);
+        }
+        
         ReentrantReadWriteLock readWriteLock = readWriteLock(contentUrl);
         ReadLock readLock = readWriteLock.readLock();
         readLock.lock();
@@ -491,5 +528,22 @@ public class CachingContentStore implements ContentStore, ApplicationEventPublis
     public String getBeanName()
     {
         return this.beanName;
+    }
+
+    /**
+     * Sets the uploader that moves inbound content to the backing store in the background.
+     * Only used if cacheOnInbound is <tt>true</tt>.  If not set, inbound content is written
+     * to the backing store before the writer completes.
+     * 
+     * @param writeBehindUploader
+     */
+    public void setWriteBehindUploader(WriteBehindUploader writeBehindUploader)
+    {
+        this.writeBehindUploader = writeBehindUploader;
+    }
+
+    public WriteBehindUploader getWriteBehindUploader()
+    {
+        return this.writeBehindUploader;
     }    
 }
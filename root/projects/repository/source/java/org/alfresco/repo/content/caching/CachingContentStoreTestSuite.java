@@ -46,6 +46,7 @@ import org.junit.runners.Suite;
     //CachingContentStoreSpringTest.class,
     CachingContentStoreTest.class,
     ContentCacheImplTest.class,
+    WriteBehindUploaderTest.class,
     FullTest.class
 })
 public class CachingContentStoreTestSuite
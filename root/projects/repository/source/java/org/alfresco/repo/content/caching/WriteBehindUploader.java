@@ -0,0 +1,666 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.repo.content.caching;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.repo.content.ContentContext;
+import org.alfresco.repo.content.ContentStore;
+import org.alfresco.repo.content.filestore.FileContentReader;
+import org.alfresco.service.cmr.repository.ContentIOException;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.ContentWriter;
+import org.alfresco.util.PropertyCheck;
+import org.alfresco.util.TraceableThreadFactory;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.extensions.surf.util.I18NUtil;
+
+/**
+ * Uploads cached content files to the backing store of a {@link CachingContentStore} in the
+ * background, allowing writers to complete as soon as the content is in the local cache.
+ * <p>
+ * Each pending upload is recorded in a journal directory as a small properties file holding the
+ * content URL and the path of the cache file.  The entry is written and synced before the writer
+ * is allowed to complete and is only removed once the backing store has accepted the content, so
+ * uploads that were pending when the server stopped are resumed by {@link #init()}.  Until an
+ * upload is confirmed, readers are served from the cache file and the
+ * {@link org.alfresco.repo.content.caching.cleanup.CachedContentCleaner cleaner} leaves the file
+ * alone.
+ * <p>
+ * The number of pending uploads is bounded.  When the bound is reached, {@link #upload(String, ContentWriter)}
+ * declines the work and the caller must write to the backing store itself, which pushes back on
+ * clients at the rate the backing store can sustain.  Failed uploads are retried indefinitely
+ * with a capped, exponential delay.
+ *
+ * @author agent
+ * @since 4.0
+ */
+public class WriteBehindUploader implements WriteBehindUploaderMBean
+{
+    private static final Log log = LogFactory.getLog(WriteBehindUploader.class);
+    private static final String JOURNAL_FILE_EXT = ".upload";
+    private static final String JOURNAL_TEMP_EXT = ".tmp";
+    private static final String PROP_CONTENT_URL = "contentUrl";
+    private static final String PROP_CACHE_FILE = "cacheFile";
+    private static final String PROP_MIMETYPE = "mimetype";
+    private static final String PROP_ENCODING = "encoding";
+    private static final String PROP_LOCALE = "locale";
+
+    private ContentStore backingStore;
+    private ContentCacheImpl cache;
+    private File journalDirectory;
+    private int uploadThreads = 2;
+    private int maxPendingUploads = 1000;
+    private long retryDelayMillis = 1000L;
+    private long maxRetryDelayMillis = 60000L;
+
+    private ScheduledThreadPoolExecutor executor;
+    private final ConcurrentMap<String, PendingUpload> pendingByUrl = new ConcurrentHashMap<String, PendingUpload>();
+    private final ConcurrentMap<String, PendingUpload> pendingByFile = new ConcurrentHashMap<String, PendingUpload>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final AtomicInteger activeCount = new AtomicInteger();
+    private final AtomicLong uploadedCount = new AtomicLong();
+    private final AtomicLong failedAttempts = new AtomicLong();
+    private final AtomicLong synchronousCount = new AtomicLong();
+
+    /**
+     * Checks the properties, starts the upload threads and resumes any uploads recorded in the journal.
+     */
+    public void init()
+    {
+        PropertyCheck.mandatory(this, "backingStore", backingStore);
+        PropertyCheck.mandatory(this, "cache", cache);
+        PropertyCheck.mandatory(this, "journalDirectory", journalDirectory);
+        if (!journalDirectory.exists() && !journalDirectory.mkdirs())
+        {
+            throw new ContentIOException("Unable to create upload journal directory: " + journalDirectory);
+        }
+
+        TraceableThreadFactory threadFactory = new TraceableThreadFactory();
+        threadFactory.setThreadDaemon(true);
+        threadFactory.setNamePrefix("WriteBehindUploader");
+        executor = new ScheduledThreadPoolExecutor(uploadThreads, threadFactory);
+
+        replayJournal();
+    }
+
+    /**
+     * Stops the upload threads.  Uploads that have not been confirmed remain in the journal
+     * and will be resumed when the uploader is next started.
+     */
+    public void shutdown()
+    {
+        if (executor != null)
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Queue the upload of a cache file that has just been written.  The cache must already hold
+     * the file for the URL.
+     *
+     * @param url           the content URL
+     * @param bsWriter      an unused writer to the backing store for the URL
+     * @return              <tt>true</tt> if the upload was queued or <tt>false</tt> if the caller
+     *                      must write the content to the backing store itself
+     */
+    public boolean upload(String url, ContentWriter bsWriter)
+    {
+        String path = cache.getCacheFilePath(url);
+        if (path == null || executor.isShutdown() || !reservePendingSlot())
+        {
+            synchronousCount.incrementAndGet();
+            return false;
+        }
+        File cacheFile = new File(path);
+        PendingUpload upload = new PendingUpload(url, cacheFile, bsWriter);
+        upload.mimetype = bsWriter.getMimetype();
+        upload.encoding = bsWriter.getEncoding();
+        upload.locale = bsWriter.getLocale() == null ? null : bsWriter.getLocale().toString();
+        try
+        {
+            writeJournalEntry(upload);
+        }
+        catch (ContentIOException e)
+        {
+            pendingCount.decrementAndGet();
+            synchronousCount.incrementAndGet();
+            log.warn("Unable to journal upload, writing to backing store directly: " + url, e);
+            return false;
+        }
+        register(upload);
+        schedule(upload, 0L);
+        if (log.isDebugEnabled())
+        {
+            log.debug("Queued upload of " + url + " from " + cacheFile);
+        }
+        return true;
+    }
+
+    /**
+     * @return              Returns <tt>true</tt> if the content has not yet been confirmed by the backing store
+     */
+    public boolean isPending(String url)
+    {
+        return pendingByUrl.containsKey(url);
+    }
+
+    /**
+     * @return              Returns <tt>true</tt> if the cache file is waiting to be uploaded
+     */
+    public boolean isPendingFile(File cacheFile)
+    {
+        return pendingByFile.containsKey(cacheFile.getAbsolutePath());
+    }
+
+    /**
+     * Get a reader onto the cache file of a pending upload
+     *
+     * @return              Returns a reader or <tt>null</tt> if the URL is not waiting to be uploaded
+     */
+    public ContentReader getPendingReader(String url)
+    {
+        PendingUpload upload = pendingByUrl.get(url);
+        if (upload == null || !upload.cacheFile.exists())
+        {
+            return null;
+        }
+        FileContentReader reader = new FileContentReader(upload.cacheFile, url);
+        reader.setMimetype(upload.mimetype);
+        reader.setEncoding(upload.encoding);
+        return reader;
+    }
+
+    /**
+     * Request that the cache entry for the URL is dropped once it has been uploaded
+     *
+     * @return              Returns <tt>true</tt> if the upload is still pending or <tt>false</tt> if it
+     *                      has already completed
+     */
+    public boolean evictAfterUpload(String url)
+    {
+        PendingUpload upload = pendingByUrl.get(url);
+        if (upload == null)
+        {
+            return false;
+        }
+        synchronized (upload)
+        {
+            if (upload.done)
+            {
+                return false;
+            }
+            upload.evict = true;
+            return true;
+        }
+    }
+
+    /**
+     * Abandon the upload of content that is being deleted
+     */
+    public void cancel(String url)
+    {
+        PendingUpload upload = pendingByUrl.get(url);
+        if (upload != null && deregister(upload))
+        {
+            if (log.isDebugEnabled())
+            {
+                log.debug("Cancelled upload of " + url);
+            }
+        }
+    }
+
+    private void schedule(PendingUpload upload, long delayMillis)
+    {
+        schedule(new UploadTask(upload), delayMillis);
+    }
+
+    /**
+     * Run an upload attempt on the upload threads
+     *
+     * @param task          the upload attempt
+     * @param delayMillis   the time to wait before the attempt
+     */
+    void schedule(Runnable task, long delayMillis)
+    {
+        executor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean reservePendingSlot()
+    {
+        while (true)
+        {
+            int current = pendingCount.get();
+            if (current >= maxPendingUploads)
+            {
+                return false;
+            }
+            if (pendingCount.compareAndSet(current, current + 1))
+            {
+                return true;
+            }
+        }
+    }
+
+    private void register(PendingUpload upload)
+    {
+        pendingByUrl.put(upload.url, upload);
+        pendingByFile.put(upload.cacheFile.getAbsolutePath(), upload);
+        pendingBytes.addAndGet(upload.size);
+    }
+
+    /**
+     * Remove an upload from the pending set and the journal
+     *
+     * @return              Returns <tt>false</tt> if the upload had already been removed
+     */
+    private boolean deregister(PendingUpload upload)
+    {
+        synchronized (upload)
+        {
+            if (!pendingByUrl.remove(upload.url, upload))
+            {
+                return false;
+            }
+            upload.done = true;
+        }
+        pendingByFile.remove(upload.cacheFile.getAbsolutePath());
+        pendingCount.decrementAndGet();
+        pendingBytes.addAndGet(-upload.size);
+        upload.journalFile.delete();
+        return true;
+    }
+
+    /**
+     * Push the content to the backing store, confirming content that was written by an
+     * earlier attempt.
+     */
+    private void attemptUpload(PendingUpload upload)
+    {
+        ContentWriter writer = upload.bsWriter;
+        upload.bsWriter = null;
+        if (writer == null)
+        {
+            if (backingStore.exists(upload.url))
+            {
+                ContentReader existing = backingStore.getReader(upload.url);
+                if (existing.getSize() == upload.size)
+                {
+                    // A previous attempt got there
+                    return;
+                }
+                backingStore.delete(upload.url);
+            }
+            writer = backingStore.getWriter(new ContentContext(null, upload.url));
+        }
+        writer.setMimetype(upload.mimetype);
+        writer.setEncoding(upload.encoding);
+        if (upload.locale != null)
+        {
+            writer.setLocale(I18NUtil.parseLocale(upload.locale));
+        }
+        writer.putContent(upload.cacheFile);
+    }
+
+    private void uploadComplete(PendingUpload upload)
+    {
+        if (!deregister(upload))
+        {
+            // The content was deleted while it was being uploaded
+            backingStore.delete(upload.url);
+            return;
+        }
+        uploadedCount.incrementAndGet();
+        if (upload.evict)
+        {
+            cache.deleteFile(upload.url);
+            cache.remove(upload.url);
+        }
+        if (log.isDebugEnabled())
+        {
+            log.debug("Uploaded " + upload.url + " after " + (upload.attempts + 1) + " attempt(s)");
+        }
+    }
+
+    private void uploadFailed(PendingUpload upload, Throwable e)
+    {
+        failedAttempts.incrementAndGet();
+        upload.attempts++;
+        long delay = retryDelayMillis;
+        for (int i = 1; i < upload.attempts && delay < maxRetryDelayMillis; i++)
+        {
+            delay *= 2;
+        }
+        delay = Math.min(delay, maxRetryDelayMillis);
+        if (log.isWarnEnabled())
+        {
+            log.warn("Upload of " + upload.url + " failed (attempt " + upload.attempts + "), retrying in " +
+                        delay + "ms: " + e.getMessage());
+        }
+        if (!executor.isShutdown())
+        {
+            schedule(upload, delay);
+        }
+    }
+
+    private void writeJournalEntry(PendingUpload upload)
+    {
+        Properties props = new Properties();
+        props.setProperty(PROP_CONTENT_URL, upload.url);
+        props.setProperty(PROP_CACHE_FILE, upload.cacheFile.getAbsolutePath());
+        if (upload.mimetype != null)
+        {
+            props.setProperty(PROP_MIMETYPE, upload.mimetype);
+        }
+        if (upload.encoding != null)
+        {
+            props.setProperty(PROP_ENCODING, upload.encoding);
+        }
+        if (upload.locale != null)
+        {
+            props.setProperty(PROP_LOCALE, upload.locale);
+        }
+        File tempFile = new File(journalDirectory, upload.journalFile.getName() + JOURNAL_TEMP_EXT);
+        FileOutputStream os = null;
+        try
+        {
+            os = new FileOutputStream(tempFile);
+            props.store(os, "Pending upload to backing store");
+            os.getFD().sync();
+            os.close();
+            os = null;
+        }
+        catch (IOException e)
+        {
+            tempFile.delete();
+            throw new ContentIOException("Unable to write upload journal entry: " + upload.journalFile, e);
+        }
+        finally
+        {
+            if (os != null)
+            {
+                try { os.close(); } catch (IOException e) {}
+            }
+        }
+        if (!tempFile.renameTo(upload.journalFile))
+        {
+            tempFile.delete();
+            throw new ContentIOException("Unable to write upload journal entry: " + upload.journalFile);
+        }
+    }
+
+    /**
+     * Queue the uploads recorded in the journal.  The bound on pending uploads is not applied
+     * as the content is already in the cache.
+     */
+    private void replayJournal()
+    {
+        File[] entries = journalDirectory.listFiles();
+        if (entries == null)
+        {
+            return;
+        }
+        int replayed = 0;
+        for (File entry : entries)
+        {
+            if (entry.getName().endsWith(JOURNAL_TEMP_EXT))
+            {
+                // The writer never completed
+                entry.delete();
+                continue;
+            }
+            if (!entry.getName().endsWith(JOURNAL_FILE_EXT))
+            {
+                continue;
+            }
+            Properties props = new Properties();
+            InputStream is = null;
+            try
+            {
+                is = new FileInputStream(entry);
+                props.load(is);
+            }
+            catch (IOException e)
+            {
+                log.error("Unable to read upload journal entry: " + entry, e);
+                continue;
+            }
+            finally
+            {
+                if (is != null)
+                {
+                    try { is.close(); } catch (IOException e) {}
+                }
+            }
+            String url = props.getProperty(PROP_CONTENT_URL);
+            String path = props.getProperty(PROP_CACHE_FILE);
+            File cacheFile = path == null ? null : new File(path);
+            if (url == null || cacheFile == null || !cacheFile.exists())
+            {
+                log.error("Content for pending upload is missing from the cache, removing journal entry: " +
+                            entry + " [url=" + url + ", cacheFile=" + path + "]");
+                entry.delete();
+                continue;
+            }
+            PendingUpload upload = new PendingUpload(url, cacheFile, null);
+            upload.mimetype = props.getProperty(PROP_MIMETYPE);
+            upload.encoding = props.getProperty(PROP_ENCODING);
+            upload.locale = props.getProperty(PROP_LOCALE);
+            pendingCount.incrementAndGet();
+            register(upload);
+            cache.putIntoLookup(Key.forUrl(url), cacheFile.getAbsolutePath());
+            cache.putIntoLookup(Key.forCacheFile(cacheFile), url);
+            schedule(upload, 0L);
+            replayed++;
+        }
+        if (replayed > 0 && log.isInfoEnabled())
+        {
+            log.info("Resumed " + replayed + " pending upload(s) from journal " + journalDirectory);
+        }
+    }
+
+    /**
+     * An upload that has not yet been confirmed by the backing store
+     */
+    private class PendingUpload
+    {
+        private final String url;
+        private final File cacheFile;
+        private final File journalFile;
+        private final long size;
+        private final long queuedTime;
+        private volatile ContentWriter bsWriter;
+        private volatile String mimetype;
+        private volatile String encoding;
+        private volatile String locale;
+        private volatile int attempts;
+        private volatile boolean evict;
+        private boolean done;
+
+        private PendingUpload(String url, File cacheFile, ContentWriter bsWriter)
+        {
+            this.url = url;
+            this.cacheFile = cacheFile;
+            this.journalFile = new File(journalDirectory, cacheFile.getName() + JOURNAL_FILE_EXT);
+            this.size = cacheFile.length();
+            this.queuedTime = System.currentTimeMillis();
+            this.bsWriter = bsWriter;
+        }
+    }
+
+    private class UploadTask implements Runnable
+    {
+        private final PendingUpload upload;
+
+        private UploadTask(PendingUpload upload)
+        {
+            this.upload = upload;
+        }
+
+        @Override
+        public void run()
+        {
+            if (pendingByUrl.get(upload.url) != upload)
+            {
+                // Cancelled
+                return;
+            }
+            activeCount.incrementAndGet();
+            try
+            {
+                attemptUpload(upload);
+                uploadComplete(upload);
+            }
+            catch (Throwable e)
+            {
+                uploadFailed(upload, e);
+            }
+            finally
+            {
+                activeCount.decrementAndGet();
+            }
+        }
+    }
+
+    @Override
+    public int getPendingUploadCount()
+    {
+        return pendingCount.get();
+    }
+
+    @Override
+    public long getPendingUploadBytes()
+    {
+        return pendingBytes.get();
+    }
+
+    @Override
+    public long getOldestPendingUploadAgeMillis()
+    {
+        long oldest = Long.MAX_VALUE;
+        for (PendingUpload upload : pendingByUrl.values())
+        {
+            oldest = Math.min(oldest, upload.queuedTime);
+        }
+        return oldest == Long.MAX_VALUE ? 0L : System.currentTimeMillis() - oldest;
+    }
+
+    @Override
+    public int getActiveUploadCount()
+    {
+        return activeCount.get();
+    }
+
+    @Override
+    public int getMaxPendingUploads()
+    {
+        return maxPendingUploads;
+    }
+
+    @Override
+    public long getUploadedCount()
+    {
+        return uploadedCount.get();
+    }
+
+    @Override
+    public long getFailedUploadAttempts()
+    {
+        return failedAttempts.get();
+    }
+
+    @Override
+    public long getSynchronousUploadCount()
+    {
+        return synchronousCount.get();
+    }
+
+    /**
+     * @param backingStore  the store that will receive the content
+     */
+    public void setBackingStore(ContentStore backingStore)
+    {
+        this.backingStore = backingStore;
+    }
+
+    /**
+     * @param cache         the cache that holds the content until it is uploaded
+     */
+    public void setCache(ContentCacheImpl cache)
+    {
+        this.cache = cache;
+    }
+
+    /**
+     * @param journalDirectory  the directory holding an entry for each pending upload.  It should be
+     *                          on the same, durable volume as the cache.
+     */
+    public void setJournalDirectory(File journalDirectory)
+    {
+        this.journalDirectory = journalDirectory;
+    }
+
+    /**
+     * @param uploadThreads the number of concurrent uploads (default <tt>2</tt>)
+     */
+    public void setUploadThreads(int uploadThreads)
+    {
+        this.uploadThreads = uploadThreads;
+    }
+
+    /**
+     * @param maxPendingUploads the number of uploads that may be waiting before writers have to
+     *                          write to the backing store directly (default <tt>1000</tt>)
+     */
+    public void setMaxPendingUploads(int maxPendingUploads)
+    {
+        this.maxPendingUploads = maxPendingUploads;
+    }
+
+    /**
+     * @param retryDelayMillis  the delay before the first retry of a failed upload.  The delay
+     *                          doubles for each subsequent failure.
+     */
+    public void setRetryDelayMillis(long retryDelayMillis)
+    {
+        this.retryDelayMillis = Math.max(1L, retryDelayMillis);
+    }
+
+    /**
+     * @param maxRetryDelayMillis   the longest delay between attempts to upload the same content
+     */
+    public void setMaxRetryDelayMillis(long maxRetryDelayMillis)
+    {
+        this.maxRetryDelayMillis = maxRetryDelayMillis;
+    }
+}
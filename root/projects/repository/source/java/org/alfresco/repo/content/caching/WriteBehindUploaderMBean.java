@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.repo.content.caching;
+
+/**
+ * JMX management interface for the {@link WriteBehindUploader}.
+ *
+ * @author agent
+ * @since 4.0
+ */
+public interface WriteBehindUploaderMBean
+{
+    /**
+     * @return              Returns the number of uploads waiting for confirmation (the queue depth)
+     */
+    public int getPendingUploadCount();
+
+    /**
+     * @return              Returns the total size of the content waiting to be uploaded
+     */
+    public long getPendingUploadBytes();
+
+    /**
+     * @return              Returns the age of the oldest pending upload or <tt>0</tt> if there are none
+     */
+    public long getOldestPendingUploadAgeMillis();
+
+    /**
+     * @return              Returns the number of uploads currently being written to the backing store
+     */
+    public int getActiveUploadCount();
+
+    /**
+     * @return              Returns the maximum number of uploads that may be pending
+     */
+    public int getMaxPendingUploads();
+
+    /**
+     * @return              Returns the number of uploads confirmed since startup
+     */
+    public long getUploadedCount();
+
+    /**
+     * @return              Returns the number of upload attempts that failed and were rescheduled
+     */
+    public long getFailedUploadAttempts();
+
+    /**
+     * @return              Returns the number of writes that went straight to the backing store
+     *                      because the queue was full
+     */
+    public long getSynchronousUploadCount();
+}
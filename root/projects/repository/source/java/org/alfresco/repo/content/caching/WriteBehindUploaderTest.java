@@ -0,0 +1,372 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.repo.content.caching;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+import org.alfresco.repo.cache.MemoryCache;
+import org.alfresco.repo.content.ContentContext;
+import org.alfresco.repo.content.ContentStore;
+import org.alfresco.service.cmr.repository.ContentIOException;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.ContentWriter;
+import org.alfresco.util.GUID;
+import org.alfresco.util.TempFileProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Tests for the WriteBehindUploader. The backing store is a mock and the upload attempts are
+ * run by the test, one at a time, rather than by the upload threads.
+ *
+ * @author agent
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class WriteBehindUploaderTest
+{
+    private static final String URL = "store://2011/1/1/0/0/content.bin";
+    private static final String CONTENT = "Content written behind";
+
+    private File root;
+    private File journalDirectory;
+    private ContentCacheImpl cache;
+    private File cacheFile;
+    private ManualUploader uploader;
+
+    @Mock
+    private ContentStore backingStore;
+
+    @Mock
+    private ContentWriter bsWriter;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        root = new File(TempFileProvider.getTempDir(), GUID.generate());
+        journalDirectory = new File(root, "journal");
+        cache = new ContentCacheImpl();
+        cache.setMemoryStore(new MemoryCache<Key, String>());
+        cache.setCacheRoot(new File(root, "cache"));
+        cache.getWriter(URL).putContent(CONTENT);
+        cacheFile = new File(cache.getCacheFilePath(URL));
+
+        when(bsWriter.getMimetype()).thenReturn("text/plain");
+        when(bsWriter.getEncoding()).thenReturn("UTF-8");
+        when(bsWriter.getLocale()).thenReturn(Locale.FRANCE);
+
+        uploader = createUploader();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        uploader.shutdown();
+    }
+
+    private ManualUploader createUploader()
+    {
+        ManualUploader uploader = new ManualUploader();
+        uploader.setBackingStore(backingStore);
+        uploader.setCache(cache);
+        uploader.setJournalDirectory(journalDirectory);
+        uploader.setMaxPendingUploads(1);
+        uploader.setRetryDelayMillis(10);
+        uploader.setMaxRetryDelayMillis(50);
+        uploader.init();
+        return uploader;
+    }
+
+    private Properties readJournal() throws Exception
+    {
+        File[] entries = journalDirectory.listFiles();
+        assertEquals(1, entries.length);
+        Properties props = new Properties();
+        FileInputStream is = new FileInputStream(entries[0]);
+        try
+        {
+            props.load(is);
+        }
+        finally
+        {
+            is.close();
+        }
+        return props;
+    }
+
+    @Test
+    public void uploadIsJournalledBeforeTheWriterReturns() throws Exception
+    {
+        assertTrue(uploader.upload(URL, bsWriter));
+
+        // Nothing has been written to the backing store yet
+        verify(bsWriter, never()).putContent(any(File.class));
+        assertTrue(uploader.isPending(URL));
+        assertTrue(uploader.isPendingFile(cacheFile));
+        assertEquals(CONTENT.length(), uploader.getPendingUploadBytes());
+
+        Properties journal = readJournal();
+        assertEquals(URL, journal.getProperty("contentUrl"));
+        assertEquals(cacheFile.getAbsolutePath(), journal.getProperty("cacheFile"));
+        assertEquals("text/plain", journal.getProperty("mimetype"));
+        assertEquals("UTF-8", journal.getProperty("encoding"));
+        assertEquals(Locale.FRANCE.toString(), journal.getProperty("locale"));
+    }
+
+    @Test
+    public void pendingContentIsReadFromTheCacheFile() throws Exception
+    {
+        assertNull(uploader.getPendingReader(URL));
+        uploader.upload(URL, bsWriter);
+
+        ContentReader reader = uploader.getPendingReader(URL);
+        assertEquals("text/plain", reader.getMimetype());
+        assertEquals("UTF-8", reader.getEncoding());
+        assertEquals(CONTENT, reader.getContentString());
+    }
+
+    @Test
+    public void uploadedContentLeavesThePendingSetAndJournal() throws Exception
+    {
+        uploader.upload(URL, bsWriter);
+        uploader.runNext();
+
+        verify(bsWriter).putContent(cacheFile);
+        assertFalse(uploader.isPending(URL));
+        assertFalse(uploader.isPendingFile(cacheFile));
+        assertEquals(0, uploader.getPendingUploadCount());
+        assertEquals(0L, uploader.getPendingUploadBytes());
+        assertEquals(1L, uploader.getUploadedCount());
+        assertEquals(0, journalDirectory.list().length);
+        // The content stays cached
+        assertTrue(cache.contains(URL));
+    }
+
+    @Test
+    public void failedUploadsBackOffUpToTheMaximumDelay() throws Exception
+    {
+        doThrow(new ContentIOException("Backing store unavailable")).when(bsWriter).putContent(any(File.class));
+        ContentWriter retryWriter = mock(ContentWriter.class);
+        doThrow(new ContentIOException("Backing store unavailable")).when(retryWriter).putContent(any(File.class));
+        when(backingStore.getWriter(any(ContentContext.class))).thenReturn(retryWriter);
+
+        uploader.upload(URL, bsWriter);
+        for (int i = 0; i < 5; i++)
+        {
+            uploader.runNext();
+        }
+
+        assertEquals(Arrays.asList(0L, 10L, 20L, 40L, 50L, 50L), uploader.delays);
+        assertEquals(5L, uploader.getFailedUploadAttempts());
+        assertTrue(uploader.isPending(URL));
+        assertEquals(1, journalDirectory.list().length);
+    }
+
+    @Test
+    public void retryReplacesPartialContent() throws Exception
+    {
+        doThrow(new ContentIOException("Connection reset")).when(bsWriter).putContent(any(File.class));
+        ContentReader partial = mock(ContentReader.class);
+        when(partial.getSize()).thenReturn(CONTENT.length() - 1L);
+        when(backingStore.exists(URL)).thenReturn(true);
+        when(backingStore.getReader(URL)).thenReturn(partial);
+        ContentWriter retryWriter = mock(ContentWriter.class);
+        when(backingStore.getWriter(any(ContentContext.class))).thenReturn(retryWriter);
+
+        uploader.upload(URL, bsWriter);
+        uploader.runNext();
+        uploader.runNext();
+
+        InOrder inOrder = inOrder(backingStore, retryWriter);
+        inOrder.verify(backingStore).delete(URL);
+        inOrder.verify(backingStore).getWriter(any(ContentContext.class));
+        inOrder.verify(retryWriter).setMimetype("text/plain");
+        inOrder.verify(retryWriter).putContent(cacheFile);
+        assertFalse(uploader.isPending(URL));
+    }
+
+    @Test
+    public void retryConfirmsContentWrittenByAnEarlierAttempt() throws Exception
+    {
+        doThrow(new ContentIOException("Timed out waiting for response")).when(bsWriter).putContent(any(File.class));
+        ContentReader complete = mock(ContentReader.class);
+        when(complete.getSize()).thenReturn((long) CONTENT.length());
+        when(backingStore.exists(URL)).thenReturn(true);
+        when(backingStore.getReader(URL)).thenReturn(complete);
+
+        uploader.upload(URL, bsWriter);
+        uploader.runNext();
+        uploader.runNext();
+
+        verify(backingStore, never()).getWriter(any(ContentContext.class));
+        verify(backingStore, never()).delete(URL);
+        assertFalse(uploader.isPending(URL));
+        assertEquals(1L, uploader.getUploadedCount());
+    }
+
+    @Test
+    public void fullQueueFallsBackToSynchronousWrites() throws Exception
+    {
+        String otherUrl = "store://2011/1/1/0/0/other.bin";
+        cache.getWriter(otherUrl).putContent(CONTENT);
+
+        assertTrue(uploader.upload(URL, bsWriter));
+        assertFalse(uploader.upload(otherUrl, mock(ContentWriter.class)));
+
+        assertEquals(1L, uploader.getSynchronousUploadCount());
+        assertFalse(uploader.isPending(otherUrl));
+        assertEquals(1, journalDirectory.list().length);
+
+        // A slot is free again once the first upload is confirmed
+        uploader.runNext();
+        assertTrue(uploader.upload(otherUrl, mock(ContentWriter.class)));
+    }
+
+    @Test
+    public void cancelledUploadIsNeverWritten() throws Exception
+    {
+        uploader.upload(URL, bsWriter);
+        uploader.cancel(URL);
+        uploader.runNext();
+
+        verify(bsWriter, never()).putContent(any(File.class));
+        assertEquals(0, uploader.getPendingUploadCount());
+        assertEquals(0, journalDirectory.list().length);
+    }
+
+    @Test
+    public void contentDeletedDuringUploadIsRemovedFromTheBackingStore() throws Exception
+    {
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable
+            {
+                // The content is deleted while its upload is running
+                uploader.cancel(URL);
+                return null;
+            }
+        }).when(bsWriter).putContent(cacheFile);
+
+        uploader.upload(URL, bsWriter);
+        uploader.runNext();
+
+        verify(backingStore).delete(URL);
+        assertEquals(0L, uploader.getUploadedCount());
+    }
+
+    @Test
+    public void evictedContentLeavesTheCacheOnceUploaded() throws Exception
+    {
+        uploader.upload(URL, bsWriter);
+        assertTrue(uploader.evictAfterUpload(URL));
+        assertTrue(cache.contains(URL));
+
+        uploader.runNext();
+
+        assertFalse(cache.contains(URL));
+        assertFalse(cacheFile.exists());
+        assertFalse("Already uploaded", uploader.evictAfterUpload(URL));
+    }
+
+    @Test
+    public void journalIsReplayedWithTheContentProperties() throws Exception
+    {
+        uploader.upload(URL, bsWriter);
+        uploader.shutdown();
+
+        // Restart with an empty lookup table
+        cache.removeAll();
+        ContentWriter replayWriter = mock(ContentWriter.class);
+        when(backingStore.getWriter(any(ContentContext.class))).thenReturn(replayWriter);
+        uploader = createUploader();
+
+        assertTrue(cache.contains(URL));
+        assertEquals(URL, cache.getContentUrl(cacheFile));
+        assertTrue(uploader.isPending(URL));
+        uploader.runNext();
+
+        verify(replayWriter).setMimetype("text/plain");
+        verify(replayWriter).setEncoding("UTF-8");
+        verify(replayWriter).setLocale(Locale.FRANCE);
+        verify(replayWriter).putContent(cacheFile);
+        assertEquals(0, journalDirectory.list().length);
+    }
+
+    @Test
+    public void unfinishedJournalEntriesAreDiscarded() throws Exception
+    {
+        uploader.shutdown();
+        assertTrue(new File(journalDirectory, "half-written.upload.tmp").createNewFile());
+        assertTrue(new File(journalDirectory, cacheFile.getName() + ".upload").createNewFile());
+
+        uploader = createUploader();
+
+        // Neither entry names content to upload
+        assertTrue(uploader.tasks.isEmpty());
+        assertEquals(0, journalDirectory.list().length);
+    }
+
+    /**
+     * Runs the upload attempts when the test asks, recording the delay each was scheduled with
+     */
+    private static class ManualUploader extends WriteBehindUploader
+    {
+        private final List<Runnable> tasks = new ArrayList<Runnable>();
+        private final List<Long> delays = new ArrayList<Long>();
+
+        @Override
+        void schedule(Runnable task, long delayMillis)
+        {
+            tasks.add(task);
+            delays.add(delayMillis);
+        }
+
+        private void runNext()
+        {
+            assertFalse("No upload attempt is scheduled", tasks.isEmpty());
+            tasks.remove(0).run();
+        }
+    }
+}
@@ -25,6 +25,7 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.alfresco.repo.content.caching.CacheFileProps;
 import org.alfresco.repo.content.caching.ContentCacheImpl;
 import org.alfresco.repo.content.caching.FileHandler;
+import org.alfresco.repo.content.caching.WriteBehindUploader;
 import org.alfresco.repo.content.caching.quota.UsageTracker;
 import org.alfresco.util.Deleter;
 import org.apache.commons.io.FileUtils;
@@ -58,6 +59,7 @@ public class CachedContentCleaner implements FileHandler, ApplicationEventPublis
     private Date timeFinished;
     private ApplicationEventPublisher eventPublisher;
     private long targetReductionBytes;
+    private WriteBehindUploader writeBehindUploader;
    
     /**
      * This method should be called after the cleaner has been fully constructed
@@ -158,7 +160,15 @@ public class CachedContentCleaner implements FileHandler, ApplicationEventPublis
         CacheFileProps props = null;
         boolean deleted = false;
         
-        if (targetReductionBytes > 0 && sizeFilesDeleted < targetReductionBytes)
+        if (writeBehindUploader != null && writeBehindUploader.isPendingFile(cachedContentFile))
+        {
+            // The content has not reached the backing store yet, so the cache file is the only copy.
+            if (log.isDebugEnabled())
+            {
+                log.debug("File waiting to be uploaded - ignoring " + cachedContentFile);
+            }
+        }
+        else if (targetReductionBytes > 0 && sizeFilesDeleted < targetReductionBytes)
         {
             // Aggressive clean mode, delete file straight away.
             deleted = deleteFilesNow(cachedContentFile);
@@ -351,6 +361,17 @@ public class CachedContentCleaner implements FileHandler, ApplicationEventPublis
         this.usageTracker = usageTracker;
     }
 
+
+    /**
+     * Sets the uploader whose pending cache files must not be removed.
+     * 
+     * @param writeBehindUploader
+     */
+    public void setWriteBehindUploader(WriteBehindUploader writeBehindUploader)
+    {
+        this.writeBehindUploader = writeBehindUploader;
+    }
+
     public boolean isRunning()
     {
         lock.readLock().lock();
@@ -20,8 +20,15 @@ package org.alfresco.repo.content.cleanup;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.alfresco.error.AlfrescoRuntimeException;
 import org.alfresco.repo.domain.avm.AVMNodeDAO;
@@ -29,7 +36,10 @@ import org.alfresco.repo.domain.contentdata.ContentDataDAO;
 import org.alfresco.repo.domain.contentdata.ContentDataDAO.ContentUrlHandler;
 import org.alfresco.repo.lock.JobLockService;
 import org.alfresco.repo.lock.LockAcquisitionException;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
 import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.attributes.AttributeService;
 import org.alfresco.service.cmr.dictionary.DictionaryService;
 import org.alfresco.service.cmr.repository.ContentService;
 import org.alfresco.service.namespace.NamespaceService;
@@ -70,6 +80,13 @@ import org.apache.commons.logging.LogFactory;
  * Lazy cleanup protects the content for a given period (e.g. 7 days) giving plenty of
  * time for a backup to be taken; this allows hot backup without needing metadata-content
  * consistency to be enforced.
+ * <p/>
+ * <u><b>Long cleanups:</b></u> (since 4.0)<p/>
+ * Orphans are processed in order of ID.  If an {@link #setAttributeService(AttributeService) attribute service}
+ * is given, the position reached is recorded with each batch so that a cleanup that is interrupted, e.g. by a
+ * server shutdown, carries on where it left off.  Binaries are deleted using the
+ * {@link #setThreadPoolExecutor(ThreadPoolExecutor) thread pool}, if one is given.  The progress of the
+ * current or last cleanup is available from the <tt>get...</tt> methods.
  * 
  * @author Derek Hulley
  */
@@ -101,6 +118,10 @@ public class ContentStoreCleaner
     
     private static final QName LOCK_QNAME = QName.createQName(NamespaceService.SYSTEM_MODEL_1_0_URI, "ContentStoreCleaner"); 
     private static final long LOCK_TTL = 30000L;
+    private static final String ATTR_KEY_CLEANER = ".ContentStoreCleaner";
+    private static final String ATTR_KEY_CHECKPOINT = "checkpoint";
+    private static final String CHECKPOINT_LAST_ID = "lastId";
+    private static final String CHECKPOINT_MAX_ORPHAN_TIME = "maxOrphanTime";
     private static ThreadLocal<Pair<Long, String>> lockThreadLocal = new ThreadLocal<Pair<Long, String>>();
     
     private static Log logger = LogFactory.getLog(ContentStoreCleaner.class);
@@ -115,12 +136,24 @@ public class ContentStoreCleaner
     private ContentService contentService;
     private AVMNodeDAO avmNodeDAO;
     private TransactionService transactionService;
+    private AttributeService attributeService;
+    private ThreadPoolExecutor threadPoolExecutor;
     private int protectDays;
+    private int batchSize;
+    private boolean countBacklog;
     private DeleteFailureAction deletionFailureAction;
     
+    /* Progress of the current or last cleanup */
+    private volatile long runStartTime;
+    private volatile long runEndTime;
+    private volatile long backlog;
+    private final AtomicLong runDeletedCount = new AtomicLong();
+    private final AtomicLong runFailedCount = new AtomicLong();
+    
     public ContentStoreCleaner()
     {
         this.protectDays = 7;
+        this.batchSize = 1000;
         this.deletionFailureAction = DeleteFailureAction.IGNORE;
     }
 
@@ -180,6 +213,42 @@ public class ContentStoreCleaner
         this.transactionService = transactionService;
     }
 
+    /**
+     * @param attributeService      used to record the progress of a cleanup so that it can be resumed.
+     *                              If this is not set, each cleanup starts from the beginning.
+     */
+    public void setAttributeService(AttributeService attributeService)
+    {
+        this.attributeService = attributeService;
+    }
+
+    /**
+     * @param threadPoolExecutor    the bounded pool used to delete binaries in parallel.
+     *                              If this is not set, binaries are deleted one at a time.
+     */
+    public void setThreadPoolExecutor(ThreadPoolExecutor threadPoolExecutor)
+    {
+        this.threadPoolExecutor = threadPoolExecutor;
+    }
+
+    /**
+     * @param batchSize             the number of orphaned URLs deleted in each transaction (default: 1000)
+     */
+    public void setBatchSize(int batchSize)
+    {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @param countBacklog          <tt>true</tt> to count the orphaned URLs at the start of each cleanup so
+     *                              that the {@link #getBacklog() backlog} can be reported (default: <tt>false</tt>).
+     *                              The count scans all orphaned URLs, which can take some time on large tables.
+     */
+    public void setCountBacklog(boolean countBacklog)
+    {
+        this.countBacklog = countBacklog;
+    }
+
     /**
      * Set the minimum number of days old that orphaned content must be
      *      before deletion is possible.  The default is 7 days.
@@ -223,6 +292,10 @@ public class ContentStoreCleaner
         PropertyCheck.mandatory(this, "transactionService", transactionService);
         PropertyCheck.mandatory(this, "eagerContentStoreCleaner", eagerContentStoreCleaner);
         
+        if (batchSize < 1)
+        {
+            throw new AlfrescoRuntimeException("Property 'batchSize' must be 1 or greater");
+        }
         // check the protect days
         if (protectDays < 0)
         {
@@ -333,13 +406,29 @@ public class ContentStoreCleaner
     
     private void executeInternal()
     {
-        final long maxOrphanTime = System.currentTimeMillis() - (protectDays * 24 * 3600 * 1000);
+        long maxOrphanTime = System.currentTimeMillis() - (protectDays * 24L * 3600L * 1000L);
+        long minId = 0L;
+        // Carry on from where an interrupted cleanup left off
+        Map<String, Long> checkpoint = getCheckpoint();
+        if (checkpoint != null)
+        {
+            minId = checkpoint.get(CHECKPOINT_LAST_ID) + 1L;
+            maxOrphanTime = checkpoint.get(CHECKPOINT_MAX_ORPHAN_TIME);
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("   Resuming content store cleanup from orphan ID " + minId);
+            }
+        }
+        startRun(minId, maxOrphanTime);
+        
+        final long maxOrphanTimeFinal = maxOrphanTime;
+        final long[] nextMinId = new long[] {minId};
         // execute in READ-WRITE txn
         RetryingTransactionCallback<Long> getAndDeleteWork = new RetryingTransactionCallback<Long>()
         {
             public Long execute() throws Exception
             {
-                return cleanBatch(maxOrphanTime, 1000);
+                return cleanBatch(nextMinId[0], maxOrphanTimeFinal, batchSize);
             };
         };
         while (true)
@@ -355,13 +444,210 @@ public class ContentStoreCleaner
                 // There is no more to process
                 break;
             }
+            nextMinId[0] = lastProcessedOrphanId + 1L;
             // There is still more to delete, so continue
             if (logger.isDebugEnabled())
             {
-                logger.debug("   Removed orphaned content URLs up orphan time " + new Date(lastProcessedOrphanId));
+                logger.debug("   Removed orphaned content URLs up to ID " + lastProcessedOrphanId + ": " + this);
             }
         }
         // Done
+        clearCheckpoint();
+        runEndTime = System.currentTimeMillis();
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("   Content store cleanup finished: " + this);
+        }
+    }
+    
+    /**
+     * @return                      Returns the ID and orphan time limit reached by an interrupted cleanup
+     *                              or <tt>null</tt> if there is none
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, Long> getCheckpoint()
+    {
+        if (attributeService == null)
+        {
+            return null;
+        }
+        RetryingTransactionCallback<Map<String, Long>> getWork = new RetryingTransactionCallback<Map<String, Long>>()
+        {
+            public Map<String, Long> execute() throws Exception
+            {
+                return (Map<String, Long>) attributeService.getAttribute(ATTR_KEY_CLEANER, ATTR_KEY_CHECKPOINT);
+            }
+        };
+        return transactionService.getRetryingTransactionHelper().doInTransaction(getWork, true);
+    }
+    
+    /**
+     * Record the position reached; this must be done in the transaction that deletes the URLs
+     */
+    private void setCheckpoint(long lastId, long maxOrphanTime)
+    {
+        if (attributeService == null)
+        {
+            return;
+        }
+        HashMap<String, Long> checkpoint = new HashMap<String, Long>(5);
+        checkpoint.put(CHECKPOINT_LAST_ID, lastId);
+        checkpoint.put(CHECKPOINT_MAX_ORPHAN_TIME, maxOrphanTime);
+        attributeService.setAttribute(checkpoint, ATTR_KEY_CLEANER, ATTR_KEY_CHECKPOINT);
+    }
+    
+    private void clearCheckpoint()
+    {
+        if (attributeService == null)
+        {
+            return;
+        }
+        RetryingTransactionCallback<Void> clearWork = new RetryingTransactionCallback<Void>()
+        {
+            public Void execute() throws Exception
+            {
+                attributeService.removeAttribute(ATTR_KEY_CLEANER, ATTR_KEY_CHECKPOINT);
+                return null;
+            }
+        };
+        transactionService.getRetryingTransactionHelper().doInTransaction(clearWork, false, true);
+    }
+    
+    /**
+     * Reset the progress and, if required, count the orphans that are to be deleted
+     */
+    private void startRun(final long minId, final long maxOrphanTime)
+    {
+        runStartTime = System.currentTimeMillis();
+        runEndTime = 0L;
+        runDeletedCount.set(0L);
+        runFailedCount.set(0L);
+        backlog = -1L;
+        if (!countBacklog)
+        {
+            return;
+        }
+        RetryingTransactionCallback<Long> countWork = new RetryingTransactionCallback<Long>()
+        {
+            public Long execute() throws Exception
+            {
+                return contentDataDAO.countContentUrlsOrphaned(minId, maxOrphanTime);
+            }
+        };
+        backlog = transactionService.getRetryingTransactionHelper().doInTransaction(countWork, true);
+    }
+    
+    /**
+     * @return                      Returns the number of orphaned URLs removed by the current or last cleanup
+     */
+    public long getDeletedCount()
+    {
+        return runDeletedCount.get();
+    }
+    
+    /**
+     * @return                      Returns the number of binaries that could not be deleted by the current or
+     *                              last cleanup
+     */
+    public long getFailedCount()
+    {
+        return runFailedCount.get();
+    }
+    
+    /**
+     * @return                      Returns the number of orphaned URLs still to be processed by the current cleanup
+     *                              or <tt>-1</tt> if the {@link #setCountBacklog(boolean) backlog is not counted}
+     */
+    public long getBacklog()
+    {
+        long backlog = this.backlog;
+        if (backlog < 0L)
+        {
+            return -1L;
+        }
+        return Math.max(0L, backlog - runDeletedCount.get());
+    }
+    
+    /**
+     * @return                      Returns the rate at which the current or last cleanup removed orphaned URLs
+     */
+    public double getDeletedPerSecond()
+    {
+        long start = runStartTime;
+        if (start == 0L)
+        {
+            return 0.0;
+        }
+        long end = (runEndTime == 0L) ? System.currentTimeMillis() : runEndTime;
+        return runDeletedCount.get() * 1000.0 / Math.max(1L, end - start);
+    }
+    
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append("ContentStoreCleaner")
+          .append("[ deleted=").append(getDeletedCount())
+          .append(", failed=").append(getFailedCount())
+          .append(", backlog=").append(getBacklog())
+          .append(", perSecond=").append(String.format("%.1f", getDeletedPerSecond()))
+          .append("]");
+        return sb.toString();
+    }
+    
+    /**
+     * Delete the binaries, in parallel if there is a thread pool
+     * 
+     * @return                      Returns the URLs that could not be deleted from all stores
+     */
+    private List<String> deleteFromStores(List<String> contentUrls)
+    {
+        List<String> failedUrls = new ArrayList<String>(0);
+        if (threadPoolExecutor == null)
+        {
+            for (String contentUrl : contentUrls)
+            {
+                if (!eagerContentStoreCleaner.deleteFromStores(contentUrl))
+                {
+                    failedUrls.add(contentUrl);
+                }
+            }
+            return failedUrls;
+        }
+        // The pool is bounded, so the submission slows down if the stores cannot keep up
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>(contentUrls.size());
+        for (final String contentUrl : contentUrls)
+        {
+            results.add(threadPoolExecutor.submit(new Callable<Boolean>()
+            {
+                public Boolean call() throws Exception
+                {
+                    return eagerContentStoreCleaner.deleteFromStores(contentUrl);
+                }
+            }));
+        }
+        for (int i = 0; i < contentUrls.size(); i++)
+        {
+            boolean deleted = false;
+            try
+            {
+                deleted = results.get(i).get();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new AlfrescoRuntimeException("Interrupted while deleting orphaned content", e);
+            }
+            catch (ExecutionException e)
+            {
+                logger.error("Content deletion failed: " + contentUrls.get(i), e.getCause());
+            }
+            if (!deleted)
+            {
+                failedUrls.add(contentUrls.get(i));
+            }
+        }
+        return failedUrls;
     }
     
     /**
@@ -371,7 +657,7 @@ public class ContentStoreCleaner
      * @param batchSize             the maximum number of orphans to process
      * @return                      Returns the last processed orphan ID or <tt>null</tt> if nothing was processed
      */
-    private Long cleanBatch(final long maxTimeExclusive, final int batchSize)
+    private Long cleanBatch(final long minIdInclusive, final long maxTimeExclusive, final int batchSize)
     {
         // Get a bunch of cleanable URLs
         final TreeMap<Long, String> urlsById = new TreeMap<Long, String>();
@@ -384,7 +670,7 @@ public class ContentStoreCleaner
             }
         };
         // Get a bunch of cleanable URLs
-        contentDataDAO.getContentUrlsOrphaned(contentUrlHandler, maxTimeExclusive, batchSize);
+        contentDataDAO.getContentUrlsOrphaned(contentUrlHandler, minIdInclusive, maxTimeExclusive, batchSize);
         
         // Shortcut, if necessary
         if (urlsById.size() == 0)
@@ -399,26 +685,36 @@ public class ContentStoreCleaner
         // No problems, so far (ALF-1998: contentStoreCleanerJob leads to foreign key exception)
 
         // Now attempt to physically delete the URLs
-        for (Long id : ids)
+        List<String> failedUrls = deleteFromStores(new ArrayList<String>(urlsById.values()));
+        for (String contentUrl : failedUrls)
         {
-            String contentUrl = urlsById.get(id);
             // Handle failures
-            boolean deleted = eagerContentStoreCleaner.deleteFromStores(contentUrl);
-            if (!deleted)
+            switch (deletionFailureAction)
             {
-                switch (deletionFailureAction)
-                {
-                    case KEEP_URL:
-                        // Keep the URL, but with an orphan time of 0 so that it is recorded
-                        contentDataDAO.createContentUrlOrphaned(contentUrl, new Date(0L));
-                    case IGNORE:
-                        break;
-                    default:
-                        throw new IllegalStateException("Unknown deletion failure action: " + deletionFailureAction);
-                }
+                case KEEP_URL:
+                    // Keep the URL, but with an orphan time of 0 so that it is recorded
+                    contentDataDAO.createContentUrlOrphaned(contentUrl, new Date(0L));
+                case IGNORE:
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown deletion failure action: " + deletionFailureAction);
             }
         }
         
+        setCheckpoint(lastId, maxTimeExclusive);
+        // The batch may yet be retried, so only count it once it has been committed
+        final int deletedCount = ids.size();
+        final int failedCount = failedUrls.size();
+        AlfrescoTransactionSupport.bindListener(new TransactionListenerAdapter()
+        {
+            @Override
+            public void afterCommit()
+            {
+                runDeletedCount.addAndGet(deletedCount);
+                runFailedCount.addAndGet(failedCount);
+            }
+        });
+        
         // Done
         return lastId;
     }
@@ -21,11 +21,13 @@ package org.alfresco.repo.content.cleanup;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import junit.framework.TestCase;
 
@@ -39,6 +41,7 @@ import org.alfresco.repo.lock.JobLockService;
 import org.alfresco.repo.security.authentication.AuthenticationUtil;
 import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
 import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.attributes.AttributeService;
 import org.alfresco.service.cmr.dictionary.DictionaryService;
 import org.alfresco.service.cmr.repository.ContentData;
 import org.alfresco.service.cmr.repository.ContentIOException;
@@ -52,6 +55,7 @@ import org.alfresco.service.namespace.QName;
 import org.alfresco.service.transaction.TransactionService;
 import org.alfresco.util.ApplicationContextHelper;
 import org.alfresco.util.GUID;
+import org.alfresco.util.Pair;
 import org.springframework.context.ApplicationContext;
 
 /**
@@ -67,6 +71,8 @@ public class ContentStoreCleanerTest extends TestCase
     private NodeService nodeService;
     private TransactionService transactionService;
     private JobLockService jobLockService;
+    private ContentDataDAO contentDataDAO;
+    private AttributeService attributeService;
     private ContentStoreCleaner cleaner;
     private EagerContentStoreCleaner eagerCleaner;
     private ContentStore store;
@@ -86,7 +92,8 @@ public class ContentStoreCleanerTest extends TestCase
         TransactionService transactionService = serviceRegistry.getTransactionService();
         DictionaryService dictionaryService = serviceRegistry.getDictionaryService();
         AVMNodeDAO avmNodeDAO = (AVMNodeDAO) ctx.getBean("newAvmNodeDAO");
-        ContentDataDAO contentDataDAO = (ContentDataDAO) ctx.getBean("contentDataDAO");
+        contentDataDAO = (ContentDataDAO) ctx.getBean("contentDataDAO");
+        attributeService = (AttributeService) ctx.getBean("attributeService");
         
         // we need a store
         store = (ContentStore) ctx.getBean("fileContentStore");
@@ -96,7 +103,7 @@ public class ContentStoreCleanerTest extends TestCase
         listeners.add(listener);
         listeners.add(new DummyUnsupportiveCleanerListener());
         // initialise record of deleted URLs
-        deletedUrls = new ArrayList<String>(5);
+        deletedUrls = Collections.synchronizedList(new ArrayList<String>(5));
         
         // Construct the test cleaners
         eagerCleaner = (EagerContentStoreCleaner) ctx.getBean("eagerContentStoreCleaner");
@@ -385,6 +392,69 @@ public class ContentStoreCleanerTest extends TestCase
         assertTrue("Protected content was deleted", store.exists(contentUrl));
         assertFalse("Content listener was called with deletion of protected URL", deletedUrls.contains(contentUrl));
     }
+    
+    /**
+     * Checks that an interrupted cleanup carries on from its checkpoint and that binaries are
+     * deleted using the thread pool
+     */
+    public void testResumedParallelRemoval() throws Exception
+    {
+        cleaner.setProtectDays(0);
+        cleaner.setBatchSize(2);
+        cleaner.setCountBacklog(true);
+        cleaner.setAttributeService(attributeService);
+        cleaner.setThreadPoolExecutor((ThreadPoolExecutor) ctx.getBean("contentStoreCleanerThreadPool"));
+        // add some orphaned content to the store
+        final List<String> contentUrls = new ArrayList<String>(5);
+        for (int i = 0; i < 5; i++)
+        {
+            ContentWriter writer = store.getWriter(ContentStore.NEW_CONTENT_CONTEXT);
+            writer.putContent("ABC" + i);
+            contentUrls.add(writer.getContentUrl());
+        }
+        final long orphanTime = System.currentTimeMillis() - 1000L;
+        RetryingTransactionCallback<Long> createOrphansCallback = new RetryingTransactionCallback<Long>()
+        {
+            public Long execute() throws Throwable
+            {
+                Long firstId = null;
+                for (String contentUrl : contentUrls)
+                {
+                    Pair<Long, String> orphan = contentDataDAO.createContentUrlOrphaned(contentUrl, new Date(orphanTime));
+                    firstId = (firstId == null) ? orphan.getFirst() : firstId;
+                }
+                // Pretend that a cleanup was interrupted after dealing with the first orphan
+                HashMap<String, Long> checkpoint = new HashMap<String, Long>(5);
+                checkpoint.put("lastId", firstId);
+                checkpoint.put("maxOrphanTime", System.currentTimeMillis());
+                attributeService.setAttribute(checkpoint, ".ContentStoreCleaner", "checkpoint");
+                return firstId;
+            }
+        };
+        transactionService.getRetryingTransactionHelper().doInTransaction(createOrphansCallback);
+        
+        // fire the cleaner
+        cleaner.execute();
+        
+        assertTrue("Content before the checkpoint was deleted", store.exists(contentUrls.get(0)));
+        for (String contentUrl : contentUrls.subList(1, contentUrls.size()))
+        {
+            assertFalse("Content after the checkpoint was not deleted", store.exists(contentUrl));
+            assertTrue("Content listener was not called", deletedUrls.contains(contentUrl));
+        }
+        assertTrue(cleaner.getDeletedCount() >= 4);
+        assertEquals(0L, cleaner.getBacklog());
+        
+        // The checkpoint is removed once the cleanup completes
+        RetryingTransactionCallback<Serializable> getCheckpointCallback = new RetryingTransactionCallback<Serializable>()
+        {
+            public Serializable execute() throws Throwable
+            {
+                return attributeService.getAttribute(".ContentStoreCleaner", "checkpoint");
+            }
+        };
+        assertNull(transactionService.getRetryingTransactionHelper().doInTransaction(getCheckpointCallback));
+    }
     private class DummyCleanerListener implements ContentStoreCleanerListener
     {
         public void beforeDelete(ContentStore store, String contentUrl) throws ContentIOException
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.repo.content.dedup;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.repo.content.ContentContext;
+import org.alfresco.repo.content.ContentStore;
+import org.alfresco.repo.domain.contentdata.ContentDataDAO;
+import org.alfresco.service.cmr.repository.ContentIOException;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.ContentWriter;
+import org.alfresco.util.PropertyCheck;
+
+/**
+ * Implementation of ContentStore that wraps any other ContentStore (the backing store) and
+ * avoids storing the same binary content more than once.
+ * <p>
+ * New content is spooled to a temporary file while a hash of the content is computed.  When
+ * the content stream is closed, the hash is looked up in the content URL table.  If content with
+ * the same hash and size is already in use, the writer takes on the existing content URL and
+ * nothing is written to the backing store; otherwise the temporary file is copied to the
+ * backing store as usual and the hash is recorded against the new content URL when the URL is
+ * first referenced.
+ * <p>
+ * Shared content URLs are reference-counted by the <b>content data</b> entities that use them:
+ * a URL is only orphaned once the last reference is removed, so the
+ * {@link org.alfresco.repo.content.cleanup.ContentStoreCleaner cleaners} continue to work
+ * unchanged.  Orphaned URLs are never shared, and a URL that is shared is locked until the end of
+ * the writer's transaction, so that a concurrent removal of its last reference cannot delete it,
+ * eagerly or otherwise, before the new reference is made.
+ * <p>
+ * Content is only shared by writers that are closed within a read-write transaction, as there
+ * is otherwise no guarantee that the shared URL will be referenced.  Writers that request a
+ * specific content URL are passed directly to the backing store.
+ *
+ * @author agent
+ * @since 4.0
+ */
+public class DeduplicatingContentStore implements ContentStore
+{
+    private ContentStore backingStore;
+    private ContentDataDAO contentDataDAO;
+    private long minimumSize;
+
+    private final AtomicLong duplicateCount;
+    private final AtomicLong duplicateBytes;
+
+    public DeduplicatingContentStore()
+    {
+        minimumSize = 1L;
+        duplicateCount = new AtomicLong();
+        duplicateBytes = new AtomicLong();
+    }
+
+    public DeduplicatingContentStore(ContentStore backingStore, ContentDataDAO contentDataDAO)
+    {
+        this();
+        this.backingStore = backingStore;
+        this.contentDataDAO = contentDataDAO;
+    }
+
+    /**
+     * @param backingStore          the store that holds the binary content
+     */
+    public void setBackingStore(ContentStore backingStore)
+    {
+        this.backingStore = backingStore;
+    }
+
+    /**
+     * @param contentDataDAO        the DAO that holds the content hashes
+     */
+    public void setContentDataDAO(ContentDataDAO contentDataDAO)
+    {
+        this.contentDataDAO = contentDataDAO;
+    }
+
+    /**
+     * Set the size of the smallest content to share.  Sharing small content saves little
+     * space but costs a lookup for every write.
+     *
+     * @param minimumSize           the minimum content size in bytes (default <tt>1</tt>)
+     */
+    public void setMinimumSize(long minimumSize)
+    {
+        this.minimumSize = Math.max(1L, minimumSize);
+    }
+
+    /**
+     * Checks the mandatory properties
+     */
+    public void init()
+    {
+        PropertyCheck.mandatory(this, "backingStore", backingStore);
+        PropertyCheck.mandatory(this, "contentDataDAO", contentDataDAO);
+    }
+
+    /* package */ ContentStore getBackingStore()
+    {
+        return backingStore;
+    }
+
+    /* package */ ContentDataDAO getContentDataDAO()
+    {
+        return contentDataDAO;
+    }
+
+    /* package */ long getMinimumSize()
+    {
+        return minimumSize;
+    }
+
+    /**
+     * Record that written content was found to be a duplicate
+     */
+    /* package */ void recordDuplicate(long size)
+    {
+        duplicateCount.incrementAndGet();
+        duplicateBytes.addAndGet(size);
+    }
+
+    /**
+     * @return                      Returns the number of writes that reused existing content
+     */
+    public long getDuplicateCount()
+    {
+        return duplicateCount.get();
+    }
+
+    /**
+     * @return                      Returns the number of bytes not written to the backing store
+     *                              because the content already existed
+     */
+    public long getDuplicateBytes()
+    {
+        return duplicateBytes.get();
+    }
+
+    @Override
+    public boolean isContentUrlSupported(String contentUrl)
+    {
+        return backingStore.isContentUrlSupported(contentUrl);
+    }
+
+    @Override
+    public boolean isWriteSupported()
+    {
+        return backingStore.isWriteSupported();
+    }
+
+    @Override
+    public long getTotalSize()
+    {
+        return backingStore.getTotalSize();
+    }
+
+    @Override
+    public long getSpaceUsed()
+    {
+        return backingStore.getSpaceUsed();
+    }
+
+    @Override
+    public long getSpaceFree()
+    {
+        return backingStore.getSpaceFree();
+    }
+
+    @Override
+    public long getSpaceTotal()
+    {
+        return backingStore.getSpaceTotal();
+    }
+
+    @Override
+    public String getRootLocation()
+    {
+        return backingStore.getRootLocation();
+    }
+
+    @Override
+    public boolean exists(String contentUrl)
+    {
+        return backingStore.exists(contentUrl);
+    }
+
+    @Override
+    public ContentReader getReader(String contentUrl)
+    {
+        return backingStore.getReader(contentUrl);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If the context specifies a content URL, the backing store's writer is returned directly.
+     */
+    @Override
+    public ContentWriter getWriter(ContentContext context)
+    {
+        ContentWriter backingWriter = backingStore.getWriter(context);
+        if (context.getContentUrl() != null)
+        {
+            // The URL is dictated by the client and cannot be swapped for another
+            return backingWriter;
+        }
+        return new DeduplicatingContentWriter(this, backingWriter, context.getExistingContentReader());
+    }
+
+    @Override
+    public ContentWriter getWriter(ContentReader existingContentReader, String newContentUrl)
+    {
+        ContentContext ctx = new ContentContext(existingContentReader, newContentUrl);
+        return getWriter(ctx);
+    }
+
+    @Override
+    public void getUrls(ContentUrlHandler handler) throws ContentIOException
+    {
+        backingStore.getUrls(handler);
+    }
+
+    @Override
+    public void getUrls(Date createdAfter, Date createdBefore, ContentUrlHandler handler) throws ContentIOException
+    {
+        backingStore.getUrls(createdAfter, createdBefore, handler);
+    }
+
+    @Override
+    public boolean delete(String contentUrl)
+    {
+        return backingStore.delete(contentUrl);
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.repo.content.dedup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+
+import org.alfresco.repo.content.ContentContext;
+import org.alfresco.repo.content.filestore.FileContentStore;
+import org.alfresco.repo.domain.contentdata.ContentDataDAO;
+import org.alfresco.service.cmr.repository.ContentWriter;
+import org.alfresco.util.GUID;
+import org.alfresco.util.Pair;
+import org.alfresco.util.TempFileProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.context.ApplicationContext;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Tests for the DeduplicatingContentStore class.  Tests use a file backing store and a mock DAO.
+ *
+ * @author agent
+ * @since 4.0
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class DeduplicatingContentStoreTest
+{
+    private static final String CONTENT = "The same content, again and again";
+
+    private FileContentStore backingStore;
+    private DeduplicatingContentStore store;
+
+    @Mock
+    private ApplicationContext ctx;
+
+    @Mock
+    private ContentDataDAO contentDataDAO;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        File root = new File(TempFileProvider.getTempDir(), GUID.generate());
+        backingStore = new FileContentStore(ctx, root);
+        store = new DeduplicatingContentStore(backingStore, contentDataDAO);
+        store.init();
+        TransactionSynchronizationManager.initSynchronization();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        if (TransactionSynchronizationManager.isSynchronizationActive())
+        {
+            TransactionSynchronizationManager.clear();
+        }
+    }
+
+    private ContentWriter write(String content)
+    {
+        ContentWriter writer = store.getWriter(ContentContext.NULL_CONTEXT);
+        writer.putContent(content);
+        return writer;
+    }
+
+    @Test
+    public void newContentIsWrittenAndHashed()
+    {
+        ContentWriter writer = write(CONTENT);
+        String contentUrl = writer.getContentUrl();
+
+        assertTrue(backingStore.exists(contentUrl));
+        assertEquals(CONTENT, writer.getReader().getContentString());
+        assertEquals(CONTENT.length(), writer.getSize());
+        ArgumentCaptor<String> hash = ArgumentCaptor.forClass(String.class);
+        verify(contentDataDAO).registerContentUrlHash(eq(contentUrl), hash.capture());
+        assertEquals("SHA-256 produces 64 hex characters", 64, hash.getValue().length());
+        assertEquals(0L, store.getDuplicateCount());
+    }
+
+    @Test
+    public void duplicateContentSharesUrl()
+    {
+        ContentWriter first = write(CONTENT);
+        String existingUrl = first.getContentUrl();
+        ArgumentCaptor<String> hash = ArgumentCaptor.forClass(String.class);
+        verify(contentDataDAO).registerContentUrlHash(eq(existingUrl), hash.capture());
+        when(contentDataDAO.getContentUrlByHash(hash.getValue(), CONTENT.length()))
+            .thenReturn(new Pair<Long, String>(1L, existingUrl));
+
+        ContentWriter second = store.getWriter(ContentContext.NULL_CONTEXT);
+        String unusedUrl = second.getContentUrl();
+        assertFalse(existingUrl.equals(unusedUrl));
+        second.putContent(CONTENT);
+
+        assertEquals(existingUrl, second.getContentUrl());
+        assertEquals(existingUrl, second.getContentData().getContentUrl());
+        assertEquals(CONTENT, second.getReader().getContentString());
+        assertFalse("Unused URL must be released", backingStore.exists(unusedUrl));
+        assertEquals(1L, store.getDuplicateCount());
+        assertEquals(CONTENT.length(), store.getDuplicateBytes());
+    }
+
+    @Test
+    public void missingContentIsNotShared()
+    {
+        when(contentDataDAO.getContentUrlByHash(anyString(), anyLong()))
+            .thenReturn(new Pair<Long, String>(1L, FileContentStore.createNewFileStoreUrl()));
+
+        ContentWriter writer = write(CONTENT);
+
+        assertTrue(backingStore.exists(writer.getContentUrl()));
+        assertEquals(CONTENT, writer.getReader().getContentString());
+        assertEquals(0L, store.getDuplicateCount());
+    }
+
+    @Test
+    public void contentIsNotSharedOutsideTransaction()
+    {
+        TransactionSynchronizationManager.clear();
+
+        ContentWriter writer = write(CONTENT);
+
+        assertTrue(backingStore.exists(writer.getContentUrl()));
+        verify(contentDataDAO, never()).getContentUrlByHash(anyString(), anyLong());
+        verify(contentDataDAO, never()).registerContentUrlHash(anyString(), anyString());
+    }
+
+    @Test
+    public void smallContentIsNotShared()
+    {
+        store.setMinimumSize(CONTENT.length() + 1);
+
+        write(CONTENT);
+
+        verify(contentDataDAO, never()).getContentUrlByHash(anyString(), anyLong());
+    }
+
+    @Test
+    public void specificUrlGoesToBackingStore()
+    {
+        String contentUrl = FileContentStore.createNewFileStoreUrl();
+        ContentWriter writer = store.getWriter(new ContentContext(null, contentUrl));
+
+        assertFalse(writer instanceof DeduplicatingContentWriter);
+        assertEquals(contentUrl, writer.getContentUrl());
+    }
+}
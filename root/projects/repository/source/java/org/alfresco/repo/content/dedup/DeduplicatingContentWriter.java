@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.repo.content.dedup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.repo.content.AbstractContentWriter;
+import org.alfresco.repo.content.ContentStore;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport.TxnReadState;
+import org.alfresco.service.cmr.repository.ContentIOException;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.ContentWriter;
+import org.alfresco.util.Pair;
+import org.alfresco.util.TempFileProvider;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Writer for the {@link DeduplicatingContentStore}.
+ * <p>
+ * Content is written to a temporary file and hashed on the way.  The content URL is that of the
+ * backing store's writer until the content stream is closed, at which point it may be replaced
+ * by the URL of existing, identical content.
+ *
+ * @author agent
+ * @since 4.0
+ */
+public class DeduplicatingContentWriter extends AbstractContentWriter
+{
+    /** The digest algorithm used for content hashes, which fits the <b>alf_content_url_hash</b> table */
+    public static final String HASH_ALGORITHM = "SHA-256";
+
+    private static final Log logger = LogFactory.getLog(DeduplicatingContentWriter.class);
+
+    private final DeduplicatingContentStore store;
+    private final ContentWriter backingWriter;
+    private File tempFile;
+    private long size;
+
+    /**
+     * @param store                 the store that issued the writer
+     * @param backingWriter         the writer that will receive the content if it is not a duplicate
+     * @param existingContentReader a reader of a previous version of this content
+     */
+    public DeduplicatingContentWriter(
+            DeduplicatingContentStore store,
+            ContentWriter backingWriter,
+            ContentReader existingContentReader)
+    {
+        super(backingWriter.getContentUrl(), existingContentReader);
+        this.store = store;
+        this.backingWriter = backingWriter;
+        this.size = 0L;
+    }
+
+    /**
+     * @return Returns the number of bytes written so far
+     */
+    public long getSize()
+    {
+        if (isClosed())
+        {
+            return size;
+        }
+        else if (tempFile == null)
+        {
+            return 0L;
+        }
+        else
+        {
+            return tempFile.length();
+        }
+    }
+
+    @Override
+    protected ContentReader createReader() throws ContentIOException
+    {
+        return store.getBackingStore().getReader(getContentUrl());
+    }
+
+    @Override
+    protected WritableByteChannel getDirectWritableChannel() throws ContentIOException
+    {
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance(HASH_ALGORITHM);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new AlfrescoRuntimeException("Digest algorithm not available: " + HASH_ALGORITHM, e);
+        }
+        try
+        {
+            tempFile = TempFileProvider.createTempFile("dedup-", ".bin");
+            FileChannel fileChannel = new FileOutputStream(tempFile).getChannel();
+            return new HashingChannel(fileChannel, digest);
+        }
+        catch (Throwable e)
+        {
+            throw new ContentIOException("Failed to open temporary file channel: " + this, e);
+        }
+    }
+
+    /**
+     * Called once all the content has been written to the temporary file.  The content is either
+     * matched to existing content or moved to the backing store.
+     */
+    private void contentWritten(String contentHash) throws ContentIOException
+    {
+        size = tempFile.length();
+        try
+        {
+            boolean share = (size >= store.getMinimumSize()) &&
+                    AlfrescoTransactionSupport.getTransactionReadState() == TxnReadState.TXN_READ_WRITE;
+            if (share && shareExistingContent(contentHash))
+            {
+                return;
+            }
+            backingWriter.setMimetype(getMimetype());
+            backingWriter.setEncoding(getEncoding());
+            backingWriter.setLocale(getLocale());
+            backingWriter.putContent(tempFile);
+            if (share)
+            {
+                store.getContentDataDAO().registerContentUrlHash(getContentUrl(), contentHash);
+            }
+        }
+        finally
+        {
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Switch to the URL of existing content with the same hash, if there is any
+     *
+     * @return              Returns <tt>true</tt> if existing content is being used
+     */
+    private boolean shareExistingContent(String contentHash)
+    {
+        Pair<Long, String> existing = store.getContentDataDAO().getContentUrlByHash(contentHash, size);
+        if (existing == null)
+        {
+            return false;
+        }
+        String newContentUrl = getContentUrl();
+        String existingContentUrl = existing.getSecond();
+        ContentStore backingStore = store.getBackingStore();
+        if (!backingStore.exists(existingContentUrl))
+        {
+            logger.warn("Content with hash " + contentHash + " is missing: " + existingContentUrl);
+            return false;
+        }
+        setContentUrl(existingContentUrl);
+        // The new URL was never written to
+        backingStore.delete(newContentUrl);
+        store.recordDuplicate(size);
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Shared existing content: \n" +
+                    "   hash:     " + contentHash + "\n" +
+                    "   size:     " + size + "\n" +
+                    "   existing: " + existingContentUrl + "\n" +
+                    "   unused:   " + newContentUrl);
+        }
+        return true;
+    }
+
+    /**
+     * Writes to a file channel and updates a digest with everything written
+     */
+    private class HashingChannel implements WritableByteChannel
+    {
+        private final FileChannel fileChannel;
+        private final MessageDigest digest;
+
+        private HashingChannel(FileChannel fileChannel, MessageDigest digest)
+        {
+            this.fileChannel = fileChannel;
+            this.digest = digest;
+        }
+
+        public boolean isOpen()
+        {
+            return fileChannel.isOpen();
+        }
+
+        public int write(ByteBuffer src) throws IOException
+        {
+            ByteBuffer written = src.duplicate();
+            int count = fileChannel.write(src);
+            written.limit(written.position() + count);
+            digest.update(written);
+            return count;
+        }
+
+        public void close() throws IOException
+        {
+            if (!fileChannel.isOpen())
+            {
+                return;
+            }
+            fileChannel.close();
+            String contentHash = new String(Hex.encodeHex(digest.digest()));
+            contentWritten(contentHash);
+        }
+    }
+}
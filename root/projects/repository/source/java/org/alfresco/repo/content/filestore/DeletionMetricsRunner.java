@@ -25,6 +25,8 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.alfresco.model.ContentModel;
 import org.alfresco.repo.content.ContentStore;
@@ -63,7 +65,8 @@ public class DeletionMetricsRunner
     private EagerContentStoreCleaner eagerCleaner;
     private FileContentStore store;
     private ContentStoreCleanerListener listener;
-    private int deletedUrls;
+    private ThreadPoolExecutor threadPoolExecutor;
+    private AtomicInteger deletedUrls = new AtomicInteger();
 
     private final int numOrphans = 1000;
     
@@ -81,6 +84,8 @@ public class DeletionMetricsRunner
         AVMNodeDAO avmNodeDAO = (AVMNodeDAO) ctx.getBean("newAvmNodeDAO");
         ContentDataDAO contentDataDAO = (ContentDataDAO) ctx.getBean("contentDataDAO");
         
+        threadPoolExecutor = (ThreadPoolExecutor) ctx.getBean("contentStoreCleanerThreadPool");
+        
         // we need a store
         store = (FileContentStore) ctx.getBean("fileContentStore");
         
@@ -123,6 +128,12 @@ public class DeletionMetricsRunner
         setUp(false);
         time("Ignoring empty parent dirs");
         tearDown();
+        
+        setUp(false);
+        cleaner.setThreadPoolExecutor(threadPoolExecutor);
+        time("Deleting in parallel (" + threadPoolExecutor.getCorePoolSize() + " threads)");
+        cleaner.setThreadPoolExecutor(null);
+        tearDown();
     }
     
     
@@ -131,7 +142,7 @@ public class DeletionMetricsRunner
     {
         AuthenticationUtil.setRunAsUserSystem();
         store.setDeleteEmptyDirs(deleteEmptyDirs);
-        deletedUrls = 0;
+        deletedUrls.set(0);
     }
     
     
@@ -139,6 +150,9 @@ public class DeletionMetricsRunner
     {
         AuthenticationUtil.clearCurrentSecurityContext();    
         System.out.println("Deleted " + deletedUrls + " URLs.");
+        System.out.println(String.format(
+                "Cleaner deleted %d URLs at %.1f per second with %d failures",
+                cleaner.getDeletedCount(), cleaner.getDeletedPerSecond(), cleaner.getFailedCount()));
     }
  
     
@@ -207,7 +221,7 @@ public class DeletionMetricsRunner
         cleaner.setProtectDays(0);
         cleaner.execute();
         
-        if (deletedUrls < numOrphans)
+        if (deletedUrls.get() < numOrphans)
             throw new IllegalStateException("Not all the orphans were cleaned.");
     }
     
@@ -216,7 +230,7 @@ public class DeletionMetricsRunner
     {
         public void beforeDelete(ContentStore store, String contentUrl) throws ContentIOException
         {
-            deletedUrls++;
+            deletedUrls.incrementAndGet();
         }
     }
     
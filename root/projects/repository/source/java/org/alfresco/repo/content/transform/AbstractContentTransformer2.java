@@ -42,9 +42,13 @@ public abstract class AbstractContentTransformer2 extends ContentTransformerHelp
 {
     private static final Log logger = LogFactory.getLog(AbstractContentTransformer2.class);
     
+    /** The number of recent transformation times kept for percentiles */
+    private static final int RECENT_TIMES_SIZE = 100;
+    
     private ContentTransformerRegistry registry;
     private double averageTime = 0.0;
     private long count = 0L;
+    private final TransformationTimes recentTimes = new TransformationTimes(RECENT_TIMES_SIZE);
     
     /**
      * All transformers start with an average transformation time of 0.0ms.
@@ -239,6 +243,21 @@ public abstract class AbstractContentTransformer2 extends ContentTransformerHelp
         return (long) averageTime;
     }
 
+    /**
+     * Gets a percentile of the recent transformation times.  Failed transformations count as very slow
+     * ones, so a high percentile favours transformers that are both fast and reliable.
+     * 
+     * @param percentile    the percentile, from 1 to 100
+     * @return Returns the percentile of the recent transformation times or the
+     *      {@link #getTransformationTime() average time} if none have been recorded
+     * @since 4.0
+     */
+    public long getTransformationTime(int percentile)
+    {
+        long time = recentTimes.getPercentile(percentile);
+        return time < 0L ? getTransformationTime() : time;
+    }
+
     /**
      * Records and updates the average transformation time for this transformer.
      * <p>
@@ -263,5 +282,6 @@ public abstract class AbstractContentTransformer2 extends ContentTransformerHelp
         count++;
         double diffTime = ((double) transformationTime) - averageTime;
         averageTime += diffTime / (double) count;
+        recentTimes.record(transformationTime);
     }
 }
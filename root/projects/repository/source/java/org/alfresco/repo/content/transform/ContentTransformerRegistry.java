@@ -24,8 +24,12 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.alfresco.service.cmr.repository.TransformationOptions;
+import org.alfresco.util.EqualsHelper;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -35,6 +39,16 @@ import org.apache.commons.logging.LogFactory;
  * <p>
  * The transformers themselves are used to determine the applicability
  * of a particular transformation.
+ * <p>
+ * For each combination of source mimetype, target mimetype and options type, the registered
+ * transformers that can perform the transformation are cached, split into those that are explicit
+ * for the transformation and the rest.  The candidates are cached for a
+ * {@link #setCandidateCacheTimeoutMillis(long) limited time}, and registering a transformer clears
+ * the cache.  As the availability of some transformers changes at runtime, only the cached candidates
+ * are checked again on every request; a transformer that was unavailable when the candidates were
+ * cached is considered again once they expire.
+ * The candidates are ordered by a {@link #setRoutingPercentile(int) percentile} of their
+ * recent transformation times.
  *
  * @see org.alfresco.repo.content.transform.ContentTransformer
  * 
@@ -45,15 +59,60 @@ public class ContentTransformerRegistry
     private static final Log logger = LogFactory.getLog(ContentTransformerRegistry.class);
     
     private List<ContentTransformer> transformers;
+    private long candidateCacheTimeoutMillis = 60000L;
+    private int routingPercentile = 90;
+    private final ConcurrentMap<CandidateKey, CandidateTransformers> candidateCache;
     
     /**
      * @param mimetypeMap all the mimetypes available to the system
      */
     public ContentTransformerRegistry()
     {
-        this.transformers = new ArrayList<ContentTransformer>(10);
+        this.transformers = new CopyOnWriteArrayList<ContentTransformer>();
+        this.candidateCache = new ConcurrentHashMap<CandidateKey, CandidateTransformers>();
     }
     
+    /**
+     * Set how long the transformers that can perform a transformation are cached.  This is also the
+     * longest time before a transformer that has become available again is used.
+     * 
+     * @param candidateCacheTimeoutMillis   the time in milliseconds or <tt>0</tt> to disable the cache
+     *                                      (default: 60s)
+     * @since 4.0
+     */
+    public void setCandidateCacheTimeoutMillis(long candidateCacheTimeoutMillis)
+    {
+        this.candidateCacheTimeoutMillis = candidateCacheTimeoutMillis;
+        candidateCache.clear();
+    }
+
+    /**
+     * Set the percentile of the recent transformation times used to order the transformers.
+     * Transformers that do not keep recent times are ordered by their average time.
+     * 
+     * @param routingPercentile             the percentile, from 1 to 100, or <tt>0</tt> to use the average
+     *                                      time (default: 90)
+     * @since 4.0
+     */
+    public void setRoutingPercentile(int routingPercentile)
+    {
+        if (routingPercentile < 0 || routingPercentile > 100)
+        {
+            throw new IllegalArgumentException("Routing percentile must be between 0 and 100: " + routingPercentile);
+        }
+        this.routingPercentile = routingPercentile;
+    }
+
+    /**
+     * Discard the cached candidate transformers, e.g. after the explicit transformations of a transformer have changed
+     * 
+     * @since 4.0
+     */
+    public void clearCandidateCache()
+    {
+        candidateCache.clear();
+    }
+
     /**
      * Registers an individual transformer that can be queried to check for applicability.
      *  
@@ -62,6 +121,7 @@ public class ContentTransformerRegistry
     public void addTransformer(ContentTransformer transformer)
     {
         transformers.add(transformer);
+        candidateCache.clear();
         // done
         if (logger.isDebugEnabled())
         {
@@ -99,17 +159,10 @@ public class ContentTransformerRegistry
 
         final Map<ContentTransformer,Long> activeTransformers = new HashMap<ContentTransformer, Long>();
         
-        // identify the performance of all the transformers
+        // identify the performance of all the transformers, which have just been checked for transformability
          for (ContentTransformer transformer : transformers)
         {
-            // Transformability can be dynamic, i.e. it may have become unusable
-            if (transformer.isTransformable(sourceMimetype, targetMimetype, options) == false)
-            {
-                // It is unreliable now.
-                continue;
-            }
-            
-            long transformationTime = transformer.getTransformationTime();
+            long transformationTime = getRoutingTime(transformer);
             activeTransformers.put(transformer, transformationTime);
         }
          
@@ -129,6 +182,19 @@ public class ContentTransformerRegistry
         return sorted;
     }
     
+    /**
+     * @return Returns the time by which the transformer is ordered, i.e. the configured percentile
+     *      of its recent transformation times or its average time
+     */
+    private long getRoutingTime(ContentTransformer transformer)
+    {
+        if (routingPercentile > 0 && transformer instanceof AbstractContentTransformer2)
+        {
+            return ((AbstractContentTransformer2) transformer).getTransformationTime(routingPercentile);
+        }
+        return transformer.getTransformationTime();
+    }
+    
     /**
      * Gets all transformers, of equal reliability, that can perform the requested transformation.
      * 
@@ -154,7 +220,8 @@ public class ContentTransformerRegistry
     }
     
     /**
-     * Loops through the content transformers and picks the ones with the highest reliabilities.
+     * Picks the transformers that can currently perform the transformation.  If any of the transformers
+     * that are explicit for the transformation can perform it, only those are returned.
      * <p>
      * Where there are several transformers that are equally reliable, they are all returned.
      * 
@@ -163,38 +230,53 @@ public class ContentTransformerRegistry
      */
     private List<ContentTransformer> findDirectTransformers(String sourceMimetype, String targetMimetype, TransformationOptions options)
     {
-        //double maxReliability = 0.0;
+        CandidateTransformers candidates = getCandidateTransformers(sourceMimetype, targetMimetype, options);
         
+        // Transformability can be dynamic, so the explicit transformers mask the others only while usable
         List<ContentTransformer> transformers = new ArrayList<ContentTransformer>(2);
-        boolean foundExplicit = false;
-        
-        // loop through transformers
-        for (ContentTransformer transformer : this.transformers)
+        for (ContentTransformer transformer : candidates.explicitTransformers)
         {
             if (transformer.isTransformable(sourceMimetype, targetMimetype, options) == true)
             {
-                if (transformer.isExplicitTransformation(sourceMimetype, targetMimetype, options) == true)
+                transformers.add(transformer);
+            }
+        }
+        if (transformers.isEmpty())
+        {
+            for (ContentTransformer transformer : candidates.otherTransformers)
+            {
+                if (transformer.isTransformable(sourceMimetype, targetMimetype, options) == true)
                 {
-                    if (foundExplicit == false)
-                    {
-                        transformers.clear();
-                        foundExplicit = true;
-                    }
                     transformers.add(transformer);
                 }
-                else
-                {
-                    if (foundExplicit == false)
-                    {
-                        transformers.add(transformer);
-                    }
-                }
             }
         }
         // done
         return transformers;
     }
     
+    /**
+     * Gets the registered transformers that can perform the transformation, split into those that are
+     * explicit for the transformation and the rest, from the cache if possible.
+     */
+    private CandidateTransformers getCandidateTransformers(String sourceMimetype, String targetMimetype, TransformationOptions options)
+    {
+        if (candidateCacheTimeoutMillis <= 0L)
+        {
+            return new CandidateTransformers(sourceMimetype, targetMimetype, options, transformers, 0L);
+        }
+        CandidateKey key = new CandidateKey(sourceMimetype, targetMimetype, options);
+        long now = System.currentTimeMillis();
+        CandidateTransformers cached = candidateCache.get(key);
+        if (cached == null || cached.expiresAt < now)
+        {
+            cached = new CandidateTransformers(
+                    sourceMimetype, targetMimetype, options, transformers, now + candidateCacheTimeoutMillis);
+            candidateCache.put(key, cached);
+        }
+        return cached;
+    }
+    
     /**
      * Uses a list of known mimetypes to build transformations from several direct transformations. 
      */
@@ -218,6 +300,86 @@ public class ContentTransformerRegistry
         throw new UnsupportedOperationException();
     }
     
+    /**
+     * The key of the candidate transformers for a source and target mimetype and type of options
+     */
+    private static class CandidateKey
+    {
+        private final String sourceMimetype;
+        private final String targetMimetype;
+        private final Class<?> optionsClass;
+        
+        private CandidateKey(String sourceMimetype, String targetMimetype, TransformationOptions options)
+        {
+            this.sourceMimetype = sourceMimetype;
+            this.targetMimetype = targetMimetype;
+            this.optionsClass = (options == null ? null : options.getClass());
+        }
+        
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj)
+            {
+                return true;
+            }
+            else if (!(obj instanceof CandidateKey))
+            {
+                return false;
+            }
+            CandidateKey that = (CandidateKey) obj;
+            return EqualsHelper.nullSafeEquals(this.sourceMimetype, that.sourceMimetype)
+                && EqualsHelper.nullSafeEquals(this.targetMimetype, that.targetMimetype)
+                && this.optionsClass == that.optionsClass;
+        }
+        
+        @Override
+        public int hashCode()
+        {
+            int hashCode = (sourceMimetype == null ? 0 : sourceMimetype.hashCode());
+            hashCode = hashCode * 37 + (targetMimetype == null ? 0 : targetMimetype.hashCode());
+            return hashCode * 37 + (optionsClass == null ? 0 : optionsClass.hashCode());
+        }
+    }
+    
+    /**
+     * The registered transformers that could perform a transformation when they were cached, split by
+     * whether they are explicit for it, and when they must be found again.  As their transformability
+     * can change at any time, it is checked again before they are used.
+     */
+    private static class CandidateTransformers
+    {
+        private final List<ContentTransformer> explicitTransformers;
+        private final List<ContentTransformer> otherTransformers;
+        private final long expiresAt;
+        
+        private CandidateTransformers(
+                String sourceMimetype, String targetMimetype, TransformationOptions options,
+                List<ContentTransformer> transformers, long expiresAt)
+        {
+            List<ContentTransformer> explicitTransformers = new ArrayList<ContentTransformer>(1);
+            List<ContentTransformer> otherTransformers = new ArrayList<ContentTransformer>(2);
+            for (ContentTransformer transformer : transformers)
+            {
+                if (transformer.isTransformable(sourceMimetype, targetMimetype, options) == false)
+                {
+                    continue;
+                }
+                else if (transformer.isExplicitTransformation(sourceMimetype, targetMimetype, options) == true)
+                {
+                    explicitTransformers.add(transformer);
+                }
+                else
+                {
+                    otherTransformers.add(transformer);
+                }
+            }
+            this.explicitTransformers = explicitTransformers;
+            this.otherTransformers = otherTransformers;
+            this.expiresAt = expiresAt;
+        }
+    }
+    
     /**
      * A key for a combination of a source and target mimetype
      * 
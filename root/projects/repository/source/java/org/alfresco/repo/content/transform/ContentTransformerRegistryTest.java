@@ -199,6 +199,102 @@ public class ContentTransformerRegistryTest extends AbstractContentTransformerTe
         assertTrue("Expected explicit transformer", dummyTransformer == checkTransformer);
     }
     
+    /**
+     * Check that the cached candidates pick up newly registered and disabled transformers
+     */
+    public void testCandidateCache() throws Exception
+    {
+        assertNull(dummyRegistry.getTransformer(C, D, OPTIONS));
+        DummyTransformer transformer = new DummyTransformer(mimetypeService, dummyRegistry, C, D, 10L);
+        assertTrue("Registration must clear the cache", transformer == dummyRegistry.getTransformer(C, D, OPTIONS));
+        
+        transformer.disable();
+        assertNull("Cached candidates must be checked again", dummyRegistry.getTransformer(C, D, OPTIONS));
+        transformer.enable();
+        assertTrue(transformer == dummyRegistry.getTransformer(C, D, OPTIONS));
+    }
+    
+    /**
+     * Check that a transformer that was unavailable when the candidates were cached is used once the
+     * cached candidates expire
+     */
+    public void testCandidateCacheEnableAfterCache() throws Exception
+    {
+        DummyTransformer transformer = new DummyTransformer(mimetypeService, dummyRegistry, C, D, 10L);
+        transformer.disable();
+        assertNull(dummyRegistry.getTransformer(C, D, OPTIONS));
+        
+        transformer.enable();
+        assertNull("Unavailable transformers are not cached as candidates", dummyRegistry.getTransformer(C, D, OPTIONS));
+        
+        dummyRegistry.setCandidateCacheTimeoutMillis(1L);
+        assertNull(dummyRegistry.getTransformer(C, D, OPTIONS));
+        Thread.sleep(10L);
+        assertTrue("Expired candidates must be found again",
+                transformer == dummyRegistry.getTransformer(C, D, OPTIONS));
+    }
+    
+    /**
+     * Check that only the cached candidates are checked for transformability once cached
+     */
+    public void testCandidateCacheChecksOnlyCandidates() throws Exception
+    {
+        DummyTransformer candidate = new DummyTransformer(mimetypeService, dummyRegistry, C, D, 10L);
+        DummyTransformer other = new DummyTransformer(mimetypeService, dummyRegistry, A, B, 10L);
+        for (int i = 0; i < 5; i++)
+        {
+            assertTrue(candidate == dummyRegistry.getTransformer(C, D, OPTIONS));
+        }
+        assertEquals("Transformer checked after the candidates were cached", 1, other.transformableChecks);
+        assertEquals(5 + 1, candidate.transformableChecks);
+    }
+    
+    /**
+     * Check that the other transformers are used while a cached explicit transformer is unavailable
+     */
+    public void testCandidateCacheExplicitUnavailable() throws Exception
+    {
+        DummyTransformer other = new DummyTransformer(mimetypeService, dummyRegistry, C, D, 10L);
+        DummyTransformer explicit = new DummyTransformer(mimetypeService, dummyRegistry, C, D, 20L);
+        explicit.setExplicitTransformations(Collections.singletonList(new ExplictTransformationDetails(C, D)));
+        dummyRegistry.clearCandidateCache();
+        assertTrue("Explicit transformer expected", explicit == dummyRegistry.getTransformer(C, D, OPTIONS));
+        
+        explicit.disable();
+        assertTrue("Other transformers must be used while the explicit one is unavailable",
+                other == dummyRegistry.getTransformer(C, D, OPTIONS));
+        
+        explicit.enable();
+        assertTrue("Explicit transformer expected", explicit == dummyRegistry.getTransformer(C, D, OPTIONS));
+    }
+    
+    /**
+     * Check that a transformer that is fast on average but fails now and again is tried after one
+     * that is reliably a little slower
+     */
+    public void testPercentileRouting() throws Exception
+    {
+        DummyTransformer unreliable = new DummyTransformer(mimetypeService, dummyRegistry, C, D, 10L);
+        DummyTransformer reliable = new DummyTransformer(mimetypeService, dummyRegistry, C, D, 50L);
+        for (int i = 0; i < 8; i++)
+        {
+            unreliable.recordTime(10L);
+            reliable.recordTime(50L);
+        }
+        // Failures are recorded as very slow transformations
+        unreliable.recordTime(60000L);
+        unreliable.recordTime(60000L);
+        
+        dummyRegistry.setRoutingPercentile(90);
+        List<ContentTransformer> activeTransformers = dummyRegistry.getActiveTransformers(C, D, OPTIONS);
+        assertEquals(2, activeTransformers.size());
+        assertTrue("Reliable transformer expected first", reliable == activeTransformers.get(0));
+        
+        dummyRegistry.setRoutingPercentile(0);
+        activeTransformers = dummyRegistry.getActiveTransformers(C, D, OPTIONS);
+        assertTrue("Fastest average expected first", unreliable == activeTransformers.get(0));
+    }
+    
     /**
      * Dummy transformer that does no transformation and scores exactly as it is
      * told to in the constructor.  It enables the tests to be sure of what to expect.
@@ -209,6 +305,7 @@ public class ContentTransformerRegistryTest extends AbstractContentTransformerTe
         private String targetMimetype;
         private long transformationTime;
         private boolean disable = false;
+        private int transformableChecks = 0;
         
         public DummyTransformer(
                 MimetypeService mimetypeService,
@@ -237,6 +334,7 @@ public class ContentTransformerRegistryTest extends AbstractContentTransformerTe
 
         public boolean isTransformable(String sourceMimetype, String targetMimetype, TransformationOptions options)
         {
+            transformableChecks++;
             if (disable) {
                 return false;
             }
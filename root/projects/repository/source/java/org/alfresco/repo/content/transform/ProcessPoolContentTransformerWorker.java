@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.repo.content.transform;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.service.cmr.repository.ContentIOException;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.ContentWriter;
+import org.alfresco.service.cmr.repository.TransformationOptions;
+import org.alfresco.util.TempFileProvider;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * A transformer worker that hands the transformation to a {@link TransformerProcessPool pool} of long-lived
+ * worker processes, rather than starting a process for each transformation as the
+ * {@link RuntimeExecutableContentTransformerWorker} does.
+ * <p>
+ * Each job is built from the {@link #setJobArguments(List) job arguments}, in which the following
+ * variables, as well as any transformation options, are replaced:
+ * <ul>
+ *   <li><b>${source}</b> - full path to the source file</li>
+ *   <li><b>${target}</b> - full path to the target file</li>
+ *   <li><b>${sourceMimetype}</b> - the source mimetype</li>
+ *   <li><b>${targetMimetype}</b> - the target mimetype</li>
+ * </ul>
+ * The worker process must leave the result in the target file.
+ * <p>
+ * This transformer <b>requires</b> the setting of the <b>explicitTransformations</b>
+ * property.
+ *
+ * @see TransformerProcessPool
+ *
+ * @since 4.0
+ * @author agent
+ */
+public class ProcessPoolContentTransformerWorker extends ContentTransformerHelper implements ContentTransformerWorker, InitializingBean
+{
+    public static final String VAR_SOURCE = "source";
+    public static final String VAR_TARGET = "target";
+    public static final String VAR_SOURCE_MIMETYPE = "sourceMimetype";
+    public static final String VAR_TARGET_MIMETYPE = "targetMimetype";
+
+    private static Log logger = LogFactory.getLog(ProcessPoolContentTransformerWorker.class);
+
+    private TransformerProcessPool processPool;
+    private List<String> jobArguments;
+    private String versionString;
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(this.getClass().getSimpleName())
+          .append("[ pool=").append(processPool).append("\n")
+          .append("]");
+        return sb.toString();
+    }
+
+    /**
+     * @param processPool       the pool of worker processes, which must be initialized independently
+     */
+    public void setProcessPool(TransformerProcessPool processPool)
+    {
+        this.processPool = processPool;
+    }
+
+    /**
+     * @param jobArguments      the arguments sent to a worker process for each transformation
+     */
+    public void setJobArguments(List<String> jobArguments)
+    {
+        this.jobArguments = jobArguments;
+    }
+
+    /**
+     * @param versionString     the product and version information to report
+     */
+    public void setVersionString(String versionString)
+    {
+        this.versionString = versionString;
+    }
+
+    public void afterPropertiesSet()
+    {
+        if (processPool == null)
+        {
+            throw new AlfrescoRuntimeException("Mandatory property 'processPool' not set");
+        }
+        if (jobArguments == null)
+        {
+            throw new AlfrescoRuntimeException("Mandatory property 'jobArguments' not set");
+        }
+    }
+
+    /**
+     * @return Returns <tt>true</tt> if the worker processes could be started
+     */
+    public boolean isAvailable()
+    {
+        return processPool.isAvailable();
+    }
+
+    public String getVersionString()
+    {
+        return versionString;
+    }
+
+    public boolean isTransformable(String sourceMimetype, String targetMimetype, TransformationOptions options)
+    {
+        if (!isAvailable())
+        {
+            return false;
+        }
+        return isExplicitTransformation(sourceMimetype, targetMimetype, options);
+    }
+
+    public final void transform(
+            ContentReader reader,
+            ContentWriter writer,
+            TransformationOptions options) throws Exception
+    {
+        // get mimetypes
+        String sourceMimetype = getMimetype(reader);
+        String targetMimetype = getMimetype(writer);
+
+        // get the extensions to use
+        String sourceExtension = getMimetypeService().getExtension(sourceMimetype);
+        String targetExtension = getMimetypeService().getExtension(targetMimetype);
+        if (sourceExtension == null || targetExtension == null)
+        {
+            throw new AlfrescoRuntimeException("Unknown extensions for mimetypes: \n" +
+                    "   source mimetype: " + sourceMimetype + "\n" +
+                    "   source extension: " + sourceExtension + "\n" +
+                    "   target mimetype: " + targetMimetype + "\n" +
+                    "   target extension: " + targetExtension);
+        }
+
+        // create required temp files
+        File sourceFile = TempFileProvider.createTempFile(
+                getClass().getSimpleName() + "_source_",
+                "." + sourceExtension);
+        File targetFile = TempFileProvider.createTempFile(
+                getClass().getSimpleName() + "_target_",
+                "." + targetExtension);
+        // The worker process must create the target
+        targetFile.delete();
+
+        Map<String, String> properties = new HashMap<String, String>(11);
+        // copy options over
+        for (Map.Entry<String, Object> entry : options.toMap().entrySet())
+        {
+            Object value = entry.getValue();
+            properties.put(entry.getKey(), (value == null ? "" : value.toString()));
+        }
+        properties.put(VAR_SOURCE, sourceFile.getAbsolutePath());
+        properties.put(VAR_TARGET, targetFile.getAbsolutePath());
+        properties.put(VAR_SOURCE_MIMETYPE, sourceMimetype);
+        properties.put(VAR_TARGET_MIMETYPE, targetMimetype);
+        List<String> arguments = new ArrayList<String>(jobArguments.size());
+        for (String jobArgument : jobArguments)
+        {
+            arguments.add(substitute(jobArgument, properties));
+        }
+
+        String result;
+        try
+        {
+            // pull reader file into source temp file
+            reader.getContent(sourceFile);
+
+            try
+            {
+                result = processPool.execute(arguments);
+            }
+            catch (Throwable e)
+            {
+                throw new ContentIOException("Transformation failed in worker process: \n" + processPool, e);
+            }
+
+            // check that the file was created
+            if (!targetFile.exists())
+            {
+                throw new ContentIOException("Transformation failed - target file doesn't exist: \n" + result);
+            }
+            // copy the target file back into the repo
+            writer.putContent(targetFile);
+        }
+        finally
+        {
+            // the temp files must not be left behind, whatever happened
+            sourceFile.delete();
+            targetFile.delete();
+        }
+
+        // done
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Transformation completed: \n" +
+                    "   source: " + reader + "\n" +
+                    "   target: " + writer + "\n" +
+                    "   options: " + options + "\n" +
+                    "   result: " + result);
+        }
+    }
+
+    /**
+     * Replaces <b>${name}</b> variables, leaving unknown ones empty
+     */
+    private static String substitute(String argument, Map<String, String> properties)
+    {
+        StringBuilder sb = new StringBuilder(argument.length() + 64);
+        int index = 0;
+        while (true)
+        {
+            int start = argument.indexOf("${", index);
+            int end = (start < 0) ? -1 : argument.indexOf('}', start);
+            if (end < 0)
+            {
+                sb.append(argument.substring(index));
+                break;
+            }
+            sb.append(argument.substring(index, start));
+            String value = properties.get(argument.substring(start + 2, end));
+            if (value != null)
+            {
+                sb.append(value);
+            }
+            index = end + 1;
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.repo.content.transform;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent transformation times of a transformer so that percentiles can be calculated.
+ * <p>
+ * Unlike a running average, a high percentile reflects the occasional slow or failed transformation,
+ * which makes it a better measure of how reliably fast a transformer is.
+ * <p>
+ * The times are also kept in order as they are recorded, so a percentile is looked up without sorting.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author agent
+ * @since 4.0
+ */
+public class TransformationTimes
+{
+    private final long[] times;
+    private final long[] sorted;
+    private int next;
+    private int count;
+
+    /**
+     * @param size          the number of recent times to keep
+     */
+    public TransformationTimes(int size)
+    {
+        if (size < 1)
+        {
+            throw new IllegalArgumentException("At least one time must be kept");
+        }
+        this.times = new long[size];
+        this.sorted = new long[size];
+    }
+
+    /**
+     * Record a transformation time, replacing the oldest one if the buffer is full
+     *
+     * @param transformationTime        the time taken in milliseconds
+     */
+    public synchronized void record(long transformationTime)
+    {
+        if (count == times.length)
+        {
+            // Drop the time being replaced from the ordered times
+            int index = Arrays.binarySearch(sorted, 0, count, times[next]);
+            System.arraycopy(sorted, index + 1, sorted, index, count - index - 1);
+            count--;
+        }
+        int index = Arrays.binarySearch(sorted, 0, count, transformationTime);
+        if (index < 0)
+        {
+            index = -index - 1;
+        }
+        System.arraycopy(sorted, index, sorted, index + 1, count - index);
+        sorted[index] = transformationTime;
+        count++;
+        
+        times[next] = transformationTime;
+        next = (next + 1) % times.length;
+    }
+
+    /**
+     * @return                          Returns the number of times currently kept
+     */
+    public synchronized int getCount()
+    {
+        return count;
+    }
+
+    /**
+     * Get a percentile of the recent times, using the nearest-rank method.
+     *
+     * @param percentile                the percentile, from 1 to 100
+     * @return                          Returns the time in milliseconds or <tt>-1</tt> if no times have been recorded
+     */
+    public synchronized long getPercentile(int percentile)
+    {
+        if (percentile < 1 || percentile > 100)
+        {
+            throw new IllegalArgumentException("Percentile must be between 1 and 100: " + percentile);
+        }
+        if (count == 0)
+        {
+            return -1L;
+        }
+        int rank = (int) Math.ceil(percentile / 100.0 * count);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    /**
+     * Discard all recorded times
+     */
+    public synchronized void clear()
+    {
+        next = 0;
+        count = 0;
+    }
+}
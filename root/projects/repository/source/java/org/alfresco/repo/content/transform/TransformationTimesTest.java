@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.repo.content.transform;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * @see TransformationTimes
+ *
+ * @author agent
+ * @since 4.0
+ */
+public class TransformationTimesTest extends TestCase
+{
+    public void testEmpty() throws Exception
+    {
+        TransformationTimes times = new TransformationTimes(10);
+        assertEquals(0, times.getCount());
+        assertEquals(-1L, times.getPercentile(90));
+    }
+
+    public void testPercentiles() throws Exception
+    {
+        TransformationTimes times = new TransformationTimes(100);
+        for (int i = 100; i > 0; i--)
+        {
+            times.record(i);
+        }
+        assertEquals(100, times.getCount());
+        assertEquals(1L, times.getPercentile(1));
+        assertEquals(50L, times.getPercentile(50));
+        assertEquals(90L, times.getPercentile(90));
+        assertEquals(100L, times.getPercentile(100));
+    }
+
+    public void testOldestTimesAreReplaced() throws Exception
+    {
+        TransformationTimes times = new TransformationTimes(4);
+        times.record(1000L);
+        for (int i = 0; i < 4; i++)
+        {
+            times.record(10L);
+        }
+        assertEquals(4, times.getCount());
+        assertEquals(10L, times.getPercentile(100));
+
+        times.clear();
+        assertEquals(-1L, times.getPercentile(50));
+    }
+
+    public void testPercentilesFollowReplacedTimes() throws Exception
+    {
+        TransformationTimes times = new TransformationTimes(5);
+        long[] recorded = new long[] {30L, 10L, 50L, 10L, 40L, 20L, 10L, 60L, 60L, 5L, 70L, 30L};
+        for (int i = 0; i < recorded.length; i++)
+        {
+            times.record(recorded[i]);
+            // Compare against the sorted most recent times
+            int count = Math.min(i + 1, 5);
+            long[] expected = new long[count];
+            System.arraycopy(recorded, i + 1 - count, expected, 0, count);
+            Arrays.sort(expected);
+            for (int percentile = 1; percentile <= 100; percentile++)
+            {
+                int rank = (int) Math.ceil(percentile / 100.0 * count);
+                assertEquals("Percentile " + percentile + " after " + (i + 1) + " times",
+                        expected[Math.max(rank, 1) - 1], times.getPercentile(percentile));
+            }
+        }
+    }
+
+    public void testInvalidPercentile() throws Exception
+    {
+        TransformationTimes times = new TransformationTimes(4);
+        try
+        {
+            times.getPercentile(0);
+            fail("Percentile 0 must be rejected");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Expected
+        }
+    }
+}
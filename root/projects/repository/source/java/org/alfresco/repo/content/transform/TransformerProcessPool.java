@@ -0,0 +1,572 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.repo.content.transform;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.util.PropertyCheck;
+import org.alfresco.util.TraceableThreadFactory;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A pool of long-lived worker processes that perform transformations, avoiding the cost of starting
+ * a new process for each transformation and allowing several transformations to run at the same time.
+ * <p>
+ * Each worker process is started with the {@link #setCommand(List) command} and is sent one job per line
+ * on its standard input.  A job is a list of arguments separated by tabs.  The process must reply with
+ * a single line on its standard output:
+ * <ul>
+ *   <li><b>OK</b> - optionally followed by a space and a message, if the job succeeded</li>
+ *   <li><b>ERROR</b> - optionally followed by a space and a message, if the job failed</li>
+ * </ul>
+ * A worker process must also reply <b>PONG</b> to a <b>PING</b> line, which is used to check processes
+ * that have been idle for a while.  Anything written to standard error is logged.
+ * <p>
+ * A process that does not reply within the {@link #setJobTimeoutMillis(long) job timeout}, or that
+ * breaks the protocol, is killed and replaced.  Processes are also replaced after a
+ * {@link #setMaxJobsPerProcess(int) number of jobs} to limit the effect of leaks in the tools that they use.
+ *
+ * @author agent
+ * @since 4.0
+ */
+public class TransformerProcessPool
+{
+    public static final String PING = "PING";
+    public static final String PONG = "PONG";
+    public static final String OK = "OK";
+    public static final String ERROR = "ERROR";
+
+    private static Log logger = LogFactory.getLog(TransformerProcessPool.class);
+
+    /** Marks the end of a worker process's output */
+    private static final String END_OF_OUTPUT = "\u0000";
+
+    private String name;
+    private List<String> command;
+    private int poolSize = 2;
+    private int maxJobsPerProcess = 500;
+    private long jobTimeoutMillis = 120000L;
+    private long healthCheckIdleMillis = 60000L;
+    private long healthCheckTimeoutMillis = 5000L;
+
+    private BlockingQueue<WorkerProcess> idleWorkers;
+    private TraceableThreadFactory threadFactory;
+    private volatile boolean available;
+    private volatile boolean shutdown;
+
+    private final AtomicLong startedCount = new AtomicLong();
+    private final AtomicLong recycledCount = new AtomicLong();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong timedOutCount = new AtomicLong();
+
+    /**
+     * @param name                      the name of the pool, used for threads and logging
+     */
+    public void setName(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * @param command                   the command line that starts a worker process
+     */
+    public void setCommand(List<String> command)
+    {
+        this.command = command;
+    }
+
+    /**
+     * @param poolSize                  the number of worker processes (default: 2)
+     */
+    public void setPoolSize(int poolSize)
+    {
+        this.poolSize = poolSize;
+    }
+
+    /**
+     * @param maxJobsPerProcess         the number of jobs after which a process is replaced (default: 500)
+     */
+    public void setMaxJobsPerProcess(int maxJobsPerProcess)
+    {
+        this.maxJobsPerProcess = maxJobsPerProcess;
+    }
+
+    /**
+     * @param jobTimeoutMillis          how long a job may take before its process is killed.  This is also how
+     *                                  long a caller waits for a free process. (default: 2 minutes)
+     */
+    public void setJobTimeoutMillis(long jobTimeoutMillis)
+    {
+        this.jobTimeoutMillis = jobTimeoutMillis;
+    }
+
+    /**
+     * @param healthCheckIdleMillis     how long a process may be idle before it is checked (default: 1 minute)
+     */
+    public void setHealthCheckIdleMillis(long healthCheckIdleMillis)
+    {
+        this.healthCheckIdleMillis = healthCheckIdleMillis;
+    }
+
+    /**
+     * @param healthCheckTimeoutMillis  how long a process has to reply to a check (default: 5s)
+     */
+    public void setHealthCheckTimeoutMillis(long healthCheckTimeoutMillis)
+    {
+        this.healthCheckTimeoutMillis = healthCheckTimeoutMillis;
+    }
+
+    /**
+     * Creates the pool and checks that a worker process can be started.  Processes are otherwise started
+     * when they are first needed.
+     */
+    public synchronized void init()
+    {
+        PropertyCheck.mandatory(this, "name", name);
+        PropertyCheck.mandatory(this, "command", command);
+        if (poolSize < 1)
+        {
+            throw new AlfrescoRuntimeException("Transformer process pool '" + name + "' needs at least one process");
+        }
+
+        threadFactory = new TraceableThreadFactory();
+        threadFactory.setThreadDaemon(true);
+        threadFactory.setNamePrefix("TransformerProcess-" + name);
+        idleWorkers = new LinkedBlockingQueue<WorkerProcess>();
+        for (int i = 0; i < poolSize; i++)
+        {
+            idleWorkers.add(new WorkerProcess());
+        }
+        shutdown = false;
+
+        // Check that the command works
+        WorkerProcess worker = idleWorkers.poll();
+        try
+        {
+            worker.start();
+            available = PONG.equals(worker.call(PING, healthCheckTimeoutMillis));
+        }
+        catch (IOException e)
+        {
+            available = false;
+        }
+        if (!available)
+        {
+            worker.stop();
+            logger.error("Failed to start transformer worker process: \n" +
+                    "   pool: " + name + "\n" +
+                    "   command: " + command);
+        }
+        idleWorkers.add(worker);
+    }
+
+    /**
+     * Stops the worker processes.  Processes that are in use are stopped when their job completes.
+     */
+    public synchronized void shutdown()
+    {
+        if (idleWorkers == null)
+        {
+            return;
+        }
+        shutdown = true;
+        available = false;
+        WorkerProcess worker;
+        while ((worker = idleWorkers.poll()) != null)
+        {
+            worker.stop();
+        }
+    }
+
+    /**
+     * @return                          Returns <tt>true</tt> if the pool started and a worker process was able to
+     *                                  reply when it was started
+     */
+    public boolean isAvailable()
+    {
+        return available;
+    }
+
+    /**
+     * Run a job in one of the worker processes, waiting for a process to become available if necessary
+     *
+     * @param arguments                 the job arguments, which may not contain tabs or line breaks
+     * @return                          Returns the message that followed the <b>OK</b> reply, which may be empty
+     * @throws AlfrescoRuntimeException if the job failed or timed out, or no process became available
+     */
+    public String execute(List<String> arguments)
+    {
+        String line = toLine(arguments);
+        WorkerProcess worker = acquire();
+        boolean healthy = false;
+        try
+        {
+            worker.prepare();
+            String response = worker.call(line, jobTimeoutMillis);
+            worker.jobCount++;
+            if (response.equals(OK) || response.startsWith(OK + " "))
+            {
+                healthy = true;
+                completedCount.incrementAndGet();
+                return response.substring(OK.length()).trim();
+            }
+            else if (response.equals(ERROR) || response.startsWith(ERROR + " "))
+            {
+                // The process is fine; the job is not
+                healthy = true;
+                failedCount.incrementAndGet();
+                throw new AlfrescoRuntimeException("Transformer worker process reported an error: \n" +
+                        "   pool: " + name + "\n" +
+                        "   job: " + arguments + "\n" +
+                        "   error: " + response.substring(ERROR.length()).trim());
+            }
+            else
+            {
+                failedCount.incrementAndGet();
+                throw new AlfrescoRuntimeException("Unexpected reply from transformer worker process: \n" +
+                        "   pool: " + name + "\n" +
+                        "   job: " + arguments + "\n" +
+                        "   reply: " + response);
+            }
+        }
+        catch (IOException e)
+        {
+            failedCount.incrementAndGet();
+            if (worker.timedOut)
+            {
+                timedOutCount.incrementAndGet();
+                throw new AlfrescoRuntimeException("Transformer worker process timed out after " + jobTimeoutMillis + "ms: \n" +
+                        "   pool: " + name + "\n" +
+                        "   job: " + arguments,
+                        e);
+            }
+            throw new AlfrescoRuntimeException("Transformer worker process failed: \n" +
+                    "   pool: " + name + "\n" +
+                    "   job: " + arguments,
+                    e);
+        }
+        finally
+        {
+            if (!healthy)
+            {
+                worker.stop();
+            }
+            release(worker);
+        }
+    }
+
+    private String toLine(List<String> arguments)
+    {
+        StringBuilder sb = new StringBuilder(128);
+        for (String argument : arguments)
+        {
+            if (argument.indexOf('\t') >= 0 || argument.indexOf('\n') >= 0 || argument.indexOf('\r') >= 0)
+            {
+                throw new AlfrescoRuntimeException("Transformer job arguments may not contain tabs or line breaks: " + argument);
+            }
+            if (sb.length() > 0)
+            {
+                sb.append('\t');
+            }
+            sb.append(argument);
+        }
+        return sb.toString();
+    }
+
+    private WorkerProcess acquire()
+    {
+        if (idleWorkers == null || shutdown)
+        {
+            throw new AlfrescoRuntimeException("Transformer process pool '" + name + "' is not running");
+        }
+        WorkerProcess worker = null;
+        try
+        {
+            worker = idleWorkers.poll(jobTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        if (worker == null)
+        {
+            throw new AlfrescoRuntimeException("No transformer worker process became available: " + name);
+        }
+        return worker;
+    }
+
+    private void release(WorkerProcess worker)
+    {
+        if (shutdown)
+        {
+            worker.stop();
+        }
+        else
+        {
+            idleWorkers.add(worker);
+        }
+    }
+
+    /**
+     * @return                          Returns the number of worker processes started
+     */
+    public long getStartedCount()
+    {
+        return startedCount.get();
+    }
+
+    /**
+     * @return                          Returns the number of worker processes replaced after their maximum number of jobs
+     */
+    public long getRecycledCount()
+    {
+        return recycledCount.get();
+    }
+
+    /**
+     * @return                          Returns the number of jobs that succeeded
+     */
+    public long getCompletedCount()
+    {
+        return completedCount.get();
+    }
+
+    /**
+     * @return                          Returns the number of jobs that failed, including those that timed out
+     */
+    public long getFailedCount()
+    {
+        return failedCount.get();
+    }
+
+    /**
+     * @return                          Returns the number of jobs that timed out
+     */
+    public long getTimedOutCount()
+    {
+        return timedOutCount.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "TransformerProcessPool[name=" + name + ", size=" + poolSize + ", command=" + command + "]";
+    }
+
+    /**
+     * Reads lines from a stream until it ends, passing them to the worker or logging them
+     */
+    private class StreamReader implements Runnable
+    {
+        private final BufferedReader reader;
+        private final BlockingQueue<String> lines;
+
+        /**
+         * @param lines             where to put the lines, or <tt>null</tt> to log them
+         */
+        private StreamReader(BufferedReader reader, BlockingQueue<String> lines)
+        {
+            this.reader = reader;
+            this.lines = lines;
+        }
+
+        public void run()
+        {
+            try
+            {
+                String line;
+                while ((line = reader.readLine()) != null)
+                {
+                    if (lines == null)
+                    {
+                        logger.warn("Transformer worker process " + name + ": " + line);
+                    }
+                    else
+                    {
+                        lines.add(line);
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                // The process has gone
+            }
+            finally
+            {
+                if (lines != null)
+                {
+                    lines.add(END_OF_OUTPUT);
+                }
+            }
+        }
+    }
+
+    /**
+     * A slot in the pool, holding a worker process when one has been started.  Only one thread uses a slot at a time.
+     */
+    private class WorkerProcess
+    {
+        private Process process;
+        private BufferedWriter input;
+        private BlockingQueue<String> replies;
+        private int jobCount;
+        private long lastUsed;
+        private boolean timedOut;
+
+        private boolean isAlive()
+        {
+            if (process == null)
+            {
+                return false;
+            }
+            try
+            {
+                process.exitValue();
+                return false;
+            }
+            catch (IllegalThreadStateException e)
+            {
+                return true;
+            }
+        }
+
+        private void start() throws IOException
+        {
+            process = new ProcessBuilder(command).start();
+            input = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), "UTF-8"));
+            replies = new LinkedBlockingQueue<String>();
+            // Replies are read by separate threads so that a hung process cannot hold up the caller
+            BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+            BufferedReader errors = new BufferedReader(new InputStreamReader(process.getErrorStream(), "UTF-8"));
+            threadFactory.newThread(new StreamReader(output, replies)).start();
+            threadFactory.newThread(new StreamReader(errors, null)).start();
+            jobCount = 0;
+            lastUsed = System.currentTimeMillis();
+            startedCount.incrementAndGet();
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Started transformer worker process: " + name);
+            }
+        }
+
+        private void stop()
+        {
+            if (process == null)
+            {
+                return;
+            }
+            try
+            {
+                input.close();
+            }
+            catch (IOException e)
+            {
+                // Ignore
+            }
+            process.destroy();
+            process = null;
+        }
+
+        /**
+         * Makes sure that there is a healthy process that has not done too many jobs
+         */
+        private void prepare() throws IOException
+        {
+            if (!isAlive())
+            {
+                if (process != null)
+                {
+                    logger.warn("Transformer worker process " + name + " exited; starting another.");
+                    stop();
+                }
+                start();
+            }
+            else if (jobCount >= maxJobsPerProcess)
+            {
+                recycledCount.incrementAndGet();
+                stop();
+                start();
+            }
+            else if (System.currentTimeMillis() - lastUsed > healthCheckIdleMillis)
+            {
+                String reply = null;
+                try
+                {
+                    reply = call(PING, healthCheckTimeoutMillis);
+                }
+                catch (IOException e)
+                {
+                    // Replaced below
+                }
+                if (!PONG.equals(reply))
+                {
+                    logger.warn("Transformer worker process " + name + " failed its health check; starting another.");
+                    stop();
+                    start();
+                }
+            }
+        }
+
+        /**
+         * Sends a line and waits for the reply.  The caller must stop the process if this fails.
+         */
+        private String call(String line, long timeoutMillis) throws IOException
+        {
+            timedOut = false;
+            try
+            {
+                input.write(line);
+                input.newLine();
+                input.flush();
+                String reply = replies.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+                if (reply == null)
+                {
+                    timedOut = true;
+                    throw new IOException("Timed out");
+                }
+                else if (reply == END_OF_OUTPUT)
+                {
+                    throw new IOException("Worker process exited");
+                }
+                return reply;
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for worker process");
+            }
+            finally
+            {
+                lastUsed = System.currentTimeMillis();
+            }
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.repo.content.transform;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.util.TempFileProvider;
+
+/**
+ * Tests the {@link TransformerProcessPool} against a stub worker process written as a shell script.
+ * The tests do nothing on platforms without <tt>/bin/sh</tt>.
+ *
+ * @author agent
+ * @since 4.0
+ */
+public class TransformerProcessPoolTest extends TestCase
+{
+    private static final String STUB_SCRIPT =
+        "TAB=$(printf '\\t')\n" +
+        "while IFS=\"$TAB\" read -r cmd arg; do\n" +
+        "  case \"$cmd\" in\n" +
+        "    PING) echo PONG ;;\n" +
+        "    PID) echo \"OK $$\" ;;\n" +
+        "    SLEEP) sleep \"$arg\"; echo \"OK $$\" ;;\n" +
+        "    FAIL) echo \"ERROR $arg\" ;;\n" +
+        "    EXIT) exit 1 ;;\n" +
+        "    *) echo \"Nonsense\" ;;\n" +
+        "  esac\n" +
+        "done\n";
+
+    private TransformerProcessPool pool;
+    private boolean canRun;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        canRun = new File("/bin/sh").exists();
+        if (!canRun)
+        {
+            return;
+        }
+        File script = TempFileProvider.createTempFile(getName(), ".sh");
+        FileWriter scriptWriter = new FileWriter(script);
+        try
+        {
+            scriptWriter.write(STUB_SCRIPT);
+        }
+        finally
+        {
+            scriptWriter.close();
+        }
+        pool = new TransformerProcessPool();
+        pool.setName(getName());
+        pool.setCommand(Arrays.asList("/bin/sh", script.getAbsolutePath()));
+        pool.setPoolSize(2);
+        pool.setJobTimeoutMillis(5000L);
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        if (pool != null)
+        {
+            pool.shutdown();
+        }
+    }
+
+    private String execute(String... arguments)
+    {
+        return pool.execute(Arrays.asList(arguments));
+    }
+
+    public void testProcessesAreReused() throws Exception
+    {
+        if (!canRun)
+        {
+            return;
+        }
+        pool.setPoolSize(1);
+        pool.init();
+        assertTrue(pool.isAvailable());
+
+        String pid = execute("PID");
+        for (int i = 0; i < 10; i++)
+        {
+            assertEquals("Expected the same process", pid, execute("PID"));
+        }
+        assertEquals(1L, pool.getStartedCount());
+        assertEquals(11L, pool.getCompletedCount());
+    }
+
+    public void testProcessesAreRecycled() throws Exception
+    {
+        if (!canRun)
+        {
+            return;
+        }
+        pool.setPoolSize(1);
+        pool.setMaxJobsPerProcess(3);
+        pool.init();
+
+        Set<String> pids = new HashSet<String>();
+        for (int i = 0; i < 9; i++)
+        {
+            pids.add(execute("PID"));
+        }
+        assertEquals(3, pids.size());
+        assertEquals(2L, pool.getRecycledCount());
+    }
+
+    public void testErrorsAndBrokenProcesses() throws Exception
+    {
+        if (!canRun)
+        {
+            return;
+        }
+        pool.setPoolSize(1);
+        pool.init();
+        String pid = execute("PID");
+
+        try
+        {
+            execute("FAIL", "bad input");
+            fail("Error reply must fail the job");
+        }
+        catch (AlfrescoRuntimeException e)
+        {
+            assertTrue(e.getMessage().contains("bad input"));
+        }
+        assertEquals("An error reply must not replace the process", pid, execute("PID"));
+
+        try
+        {
+            execute("EXIT");
+            fail("Process exit must fail the job");
+        }
+        catch (AlfrescoRuntimeException e)
+        {
+            // Expected
+        }
+        try
+        {
+            execute("Rubbish");
+            fail("Unexpected reply must fail the job");
+        }
+        catch (AlfrescoRuntimeException e)
+        {
+            // Expected
+        }
+        // A new process takes over
+        assertFalse(pid.equals(execute("PID")));
+        assertEquals(3L, pool.getStartedCount());
+        assertEquals(3L, pool.getFailedCount());
+    }
+
+    public void testTimeout() throws Exception
+    {
+        if (!canRun)
+        {
+            return;
+        }
+        pool.setPoolSize(1);
+        pool.setJobTimeoutMillis(300L);
+        pool.init();
+        String pid = execute("PID");
+
+        long before = System.currentTimeMillis();
+        try
+        {
+            execute("SLEEP", "10");
+            fail("Job must time out");
+        }
+        catch (AlfrescoRuntimeException e)
+        {
+            // Expected
+        }
+        assertTrue(System.currentTimeMillis() - before < 5000L);
+        assertEquals(1L, pool.getTimedOutCount());
+        assertFalse(pid.equals(execute("PID")));
+    }
+
+    public void testHealthCheck() throws Exception
+    {
+        if (!canRun)
+        {
+            return;
+        }
+        pool.setPoolSize(1);
+        pool.setHealthCheckIdleMillis(0L);
+        pool.init();
+        String pid = execute("PID");
+        Thread.sleep(10L);
+        assertEquals("A healthy process is kept", pid, execute("PID"));
+        assertEquals(1L, pool.getStartedCount());
+    }
+
+    public void testConcurrentJobs() throws Exception
+    {
+        if (!canRun)
+        {
+            return;
+        }
+        pool.init();
+        final List<String> pids = Collections.synchronizedList(new ArrayList<String>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 2; i++)
+        {
+            Thread thread = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    pids.add(execute("SLEEP", "1"));
+                }
+            };
+            threads.add(thread);
+        }
+        long before = System.currentTimeMillis();
+        for (Thread thread : threads)
+        {
+            thread.start();
+        }
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+        assertEquals(2, pids.size());
+        assertEquals("Jobs must run in different processes", 2, new HashSet<String>(pids).size());
+        assertTrue("Jobs must run at the same time", System.currentTimeMillis() - before < 1900L);
+    }
+
+    public void testNonExistentCommand() throws Exception
+    {
+        if (!canRun)
+        {
+            return;
+        }
+        pool.setCommand(Arrays.asList("/nonexistent/worker"));
+        pool.init();
+        assertFalse(pool.isAvailable());
+    }
+}
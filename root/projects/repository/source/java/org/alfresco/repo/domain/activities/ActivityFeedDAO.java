@@ -36,6 +36,22 @@ public interface ActivityFeedDAO extends ActivitiesDAO
     
     public long insertFeedEntry(ActivityFeedEntity activityFeed) throws SQLException;
     
+    /**
+     * Insert several feed entries, using a single JDBC batch where possible
+     * 
+     * @param activityFeeds     the entries to insert
+     */
+    public void insertFeedEntries(List<ActivityFeedEntity> activityFeeds) throws SQLException;
+    
+    /**
+     * Insert the feed entries generated for an activity post and mark the post as processed, in one
+     * transaction, using a single JDBC batch where possible
+     * 
+     * @param postId            the id of the activity post
+     * @param activityFeeds     the entries to insert
+     */
+    public void insertPostFeedEntries(long postId, List<ActivityFeedEntity> activityFeeds) throws SQLException;
+    
     public int deleteFeedEntries(Date keepDate) throws SQLException;
     
     public int deleteUserFeedEntries(String feedUserId, String format, Date keepDate) throws SQLException;
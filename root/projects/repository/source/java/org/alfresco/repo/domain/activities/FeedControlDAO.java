@@ -32,5 +32,13 @@ public interface FeedControlDAO
     
     public List<FeedControlEntity> selectFeedControls(String userId) throws SQLException;
     
+    /**
+     * Get the feed controls of several users in one query
+     * 
+     * @param userIds           the users (should not be empty)
+     * @return                  the feed controls of all the given users, in no particular order
+     */
+    public List<FeedControlEntity> selectFeedControlsForUsers(List<String> userIds) throws SQLException;
+    
     public long selectFeedControl(FeedControlEntity activityFeedControl) throws SQLException;
 }
@@ -27,7 +27,11 @@ import org.alfresco.error.AlfrescoRuntimeException;
 import org.alfresco.repo.domain.activities.ActivityFeedDAO;
 import org.alfresco.repo.domain.activities.ActivityFeedEntity;
 import org.alfresco.repo.domain.activities.ActivityFeedQueryEntity;
+import org.alfresco.repo.domain.activities.ActivityPostEntity;
+import org.apache.ibatis.session.ExecutorType;
 import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSession;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 public class ActivityFeedDAOImpl extends ActivitiesDAOImpl implements ActivityFeedDAO
 {
@@ -38,6 +42,60 @@ public class ActivityFeedDAOImpl extends ActivitiesDAOImpl implements ActivityFe
         return (id != null ? id : -1);
     }
     
+    public void insertFeedEntries(List<ActivityFeedEntity> activityFeeds) throws SQLException
+    {
+        insertFeedEntries(activityFeeds, null);
+    }
+    
+    public void insertPostFeedEntries(long postId, List<ActivityFeedEntity> activityFeeds) throws SQLException
+    {
+        ActivityPostEntity post = new ActivityPostEntity();
+        post.setId(postId);
+        post.setStatus(ActivityPostEntity.STATUS.PROCESSED.toString());
+        post.setLastModified(new Date());
+        
+        insertFeedEntries(activityFeeds, post);
+    }
+    
+    /**
+     * Insert the feed entries and update the status of the post, if given, in one transaction
+     */
+    private void insertFeedEntries(List<ActivityFeedEntity> activityFeeds, ActivityPostEntity post) throws SQLException
+    {
+        if (TransactionSynchronizationManager.isSynchronizationActive())
+        {
+            // The transaction's session cannot change executor type
+            for (ActivityFeedEntity activityFeed : activityFeeds)
+            {
+                template.insert("alfresco.activities.insert.insert_activity_feed", activityFeed);
+            }
+            if (post != null)
+            {
+                template.update("alfresco.activities.update_activity_post_status", post);
+            }
+            return;
+        }
+        
+        SqlSession session = template.getSqlSessionFactory().openSession(ExecutorType.BATCH);
+        try
+        {
+            for (ActivityFeedEntity activityFeed : activityFeeds)
+            {
+                session.insert("alfresco.activities.insert.insert_activity_feed", activityFeed);
+            }
+            if (post != null)
+            {
+                session.update("alfresco.activities.update_activity_post_status", post);
+            }
+            // Executes the batch
+            session.commit();
+        }
+        finally
+        {
+            session.close();
+        }
+    }
+    
     public int deleteFeedEntries(Date keepDate) throws SQLException
     {
         return template.delete("alfresco.activities.delete_activity_feed_entries_older_than_date", keepDate);
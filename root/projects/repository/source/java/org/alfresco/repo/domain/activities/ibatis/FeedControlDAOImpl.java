@@ -46,6 +46,12 @@ public class FeedControlDAOImpl extends ActivitiesDAOImpl implements FeedControl
         return (List<FeedControlEntity>)template.selectList("alfresco.activities.select_activity_feedcontrols_for_user", params);
     }
     
+    @SuppressWarnings("unchecked")
+    public List<FeedControlEntity> selectFeedControlsForUsers(List<String> feedUserIds) throws SQLException
+    {
+        return (List<FeedControlEntity>)template.selectList("alfresco.activities.select_activity_feedcontrols_for_users", feedUserIds);
+    }
+    
     public long selectFeedControl(FeedControlEntity activityFeedControl) throws SQLException
     {
         Long id = (Long)template.selectOne("alfresco.activities.select_activity_feedcontrol", activityFeedControl);
@@ -23,6 +23,7 @@ import java.sql.Savepoint;
 import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 
 import org.alfresco.repo.cache.SimpleCache;
@@ -63,6 +64,10 @@ public abstract class AbstractContentDataDAOImpl implements ContentDataDAO
      * Content URL IDs to delete before final commit.
      */
     private static final String KEY_PRE_COMMIT_CONTENT_URL_DELETIONS = "AbstractContentDataDAOImpl.PreCommitContentUrlDeletions";
+    /**
+     * Content hashes of new content URLs, to be persisted when the URLs are first referenced.
+     */
+    private static final String KEY_PENDING_CONTENT_URL_HASHES = "AbstractContentDataDAOImpl.PendingContentUrlHashes";
 
     private static Log logger = LogFactory.getLog(AbstractContentDataDAOImpl.class);
     
@@ -216,6 +221,43 @@ public abstract class AbstractContentDataDAOImpl implements ContentDataDAO
         return;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public void registerContentUrlHash(String contentUrl, String contentHash)
+    {
+        if (contentUrl == null || contentHash == null)
+        {
+            throw new IllegalArgumentException("Content URL and hash cannot be null");
+        }
+        Map<String, String> contentHashes = TransactionalResourceHelper.getMap(KEY_PENDING_CONTENT_URL_HASHES);
+        contentHashes.put(contentUrl, contentHash);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Pair<Long, String> getContentUrlByHash(String contentHash, long size)
+    {
+        if (contentHash == null)
+        {
+            throw new IllegalArgumentException("Cannot look up content URL by null hash.");
+        }
+        ContentUrlEntity contentUrlEntity = getContentUrlEntityByHash(contentHash, size);
+        if (contentUrlEntity == null)
+        {
+            return null;
+        }
+        // The last reference may be being removed by another transaction.  Lock the row so that it cannot be
+        // orphaned or deleted, and its binary removed by eager cleanup, before this transaction references it.
+        contentUrlEntity = getContentUrlEntityInUseForUpdate(contentUrlEntity.getId());
+        if (contentUrlEntity == null)
+        {
+            return null;
+        }
+        return new Pair<Long, String>(contentUrlEntity.getId(), contentUrlEntity.getContentUrl());
+    }
+
     /**
      * Callback for <b>alf_content_data</b> DAO.
      */
@@ -406,6 +448,13 @@ public abstract class AbstractContentDataDAOImpl implements ContentDataDAO
         {
             contentUrlEntity = createContentUrlEntity(contentUrl, size);
             controlDAO.releaseSavepoint(savepoint);
+            // Persist the content hash, if the content was written with one
+            Map<String, String> contentHashes = TransactionalResourceHelper.getMap(KEY_PENDING_CONTENT_URL_HASHES);
+            String contentHash = contentHashes.remove(contentUrl);
+            if (contentHash != null)
+            {
+                createContentUrlHashEntity(contentUrlEntity.getId(), contentHash);
+            }
         }
         catch (RuntimeException e)
         {
@@ -469,6 +518,30 @@ public abstract class AbstractContentDataDAOImpl implements ContentDataDAO
      */
     protected abstract ContentUrlEntity getContentUrlEntityUnreferenced(String contentUrl);
     
+    /**
+     * @param contentHash   the hash of the binary content
+     * @param size          the size of the binary content
+     * @return              Returns a non-orphaned entity with the given content hash and size
+     *                      or <tt>null</tt> if there isn't one
+     */
+    protected abstract ContentUrlEntity getContentUrlEntityByHash(String contentHash, long size);
+    
+    /**
+     * Lock a <b>content url</b> entity that is in use until the end of the transaction
+     * 
+     * @param id            the ID of the <b>content url</b> entity
+     * @return              Returns the entity or <tt>null</tt> if it doesn't exist or is orphaned
+     */
+    protected abstract ContentUrlEntity getContentUrlEntityInUseForUpdate(Long id);
+    
+    /**
+     * Record the content hash of a <b>content url</b> entity
+     * 
+     * @param contentUrlId  the ID of the <b>content url</b> entity
+     * @param contentHash   the hash of the binary content
+     */
+    protected abstract void createContentUrlHashEntity(Long contentUrlId, String contentHash);
+    
     /**
      * Update a content URL with the given orphan time
      * 
@@ -108,8 +108,61 @@ public interface ContentDataDAO
             Long maxOrphanTimeExclusive,
             int maxResults);
     
+    /**
+     * Enumerate, in order of ID, the content URLs that were orphaned before the given time, starting
+     * at a given ID.  This allows a long cleanup to pick up where it left off.
+     * 
+     * @param contentUrlHandler         the callback object to process the rows
+     * @param minIdInclusive            the minimum content URL ID (inclusive)
+     * @param maxOrphanTimeExclusive    the maximum orphan time (exclusive)
+     * @param maxResults                the maximum number of results (1 or greater)
+     * 
+     * @since 4.0
+     */
+    void getContentUrlsOrphaned(
+            ContentUrlHandler contentUrlHandler,
+            Long minIdInclusive,
+            Long maxOrphanTimeExclusive,
+            int maxResults);
+    
+    /**
+     * Count the content URLs that were orphaned before the given time
+     * 
+     * @param minIdInclusive            the minimum content URL ID (inclusive)
+     * @param maxOrphanTimeExclusive    the maximum orphan time (exclusive)
+     * @return                          Returns the number of orphaned content URLs
+     * 
+     * @since 4.0
+     */
+    long countContentUrlsOrphaned(Long minIdInclusive, Long maxOrphanTimeExclusive);
+    
     /**
      * Delete a batch of content URL entities.
      */
     int deleteContentUrls(List<Long> ids);
+
+    /**
+     * Record the hash of the binary content behind a new content URL.  The hash is persisted
+     * when the <b>content_url</b> entity is created in the current transaction i.e. when the
+     * new content is first referenced; if the content is never referenced then the hash is
+     * discarded along with the transaction.
+     *
+     * @param contentUrl    the URL of newly-written content
+     * @param contentHash   the hash of the binary content
+     */
+    void registerContentUrlHash(String contentUrl, String contentHash);
+
+    /**
+     * Find a content URL that is in use and whose binary content has the given hash and size.
+     * Orphaned content URLs are never returned as they may be removed at any time.
+     * <p>
+     * The URL is locked until the end of the transaction, so that a concurrent transaction that
+     * removes the last reference to it cannot delete it before this transaction references it.
+     * Call this in the read-write transaction that will reference the URL.
+     *
+     * @param contentHash   the hash of the binary content
+     * @param size          the size of the binary content
+     * @return              Returns the ID-URL pair or <tt>null</tt> if there is no match
+     */
+    Pair<Long, String> getContentUrlByHash(String contentHash, long size);
 }
@@ -27,6 +27,7 @@ import junit.framework.TestCase;
 import org.alfresco.repo.content.ContentContext;
 import org.alfresco.repo.content.ContentStore;
 import org.alfresco.repo.content.MimetypeMap;
+import org.alfresco.repo.content.cleanup.EagerContentStoreCleaner;
 import org.alfresco.repo.content.filestore.FileContentStore;
 import org.alfresco.repo.domain.contentdata.ContentDataDAO.ContentUrlHandler;
 import org.alfresco.repo.transaction.RetryingTransactionHelper;
@@ -35,6 +36,7 @@ import org.alfresco.service.ServiceRegistry;
 import org.alfresco.service.cmr.repository.ContentData;
 import org.alfresco.service.transaction.TransactionService;
 import org.alfresco.util.ApplicationContextHelper;
+import org.alfresco.util.GUID;
 import org.alfresco.util.Pair;
 import org.alfresco.util.TempFileProvider;
 import org.springframework.context.ConfigurableApplicationContext;
@@ -297,6 +299,101 @@ public class ContentDataDAOTest extends TestCase
         assertEquals("Expected exactly 5 results callbacks", 5, count[0]);
     }
     
+    public void testContentUrlHash() throws Exception
+    {
+        final ContentData contentData = getContentData();
+        final String contentHash = GUID.generate();
+        RetryingTransactionCallback<Pair<Long, ContentData>> createCallback = new RetryingTransactionCallback<Pair<Long, ContentData>>()
+        {
+            public Pair<Long, ContentData> execute() throws Throwable
+            {
+                // The hash is only persisted when the URL is first referenced
+                contentDataDAO.registerContentUrlHash(contentData.getContentUrl(), contentHash);
+                assertNull(contentDataDAO.getContentUrlByHash(contentHash, contentData.getSize()));
+                return contentDataDAO.createContentData(contentData);
+            }
+        };
+        Pair<Long, ContentData> resultPair = txnHelper.doInTransaction(createCallback, false, false);
+        
+        Pair<Long, String> contentUrlPair = contentDataDAO.getContentUrlByHash(contentHash, contentData.getSize());
+        assertNotNull("Content URL not found by hash", contentUrlPair);
+        assertEquals(contentData.getContentUrl(), contentUrlPair.getSecond());
+        assertNull("Size must match", contentDataDAO.getContentUrlByHash(contentHash, contentData.getSize() + 1L));
+        
+        // Share the URL and drop the original reference
+        Pair<Long, ContentData> sharedPair = create(contentData);
+        delete(resultPair.getFirst());
+        assertNotNull("Shared content URL must still be found", contentDataDAO.getContentUrlByHash(contentHash, contentData.getSize()));
+        // Orphaned URLs must not be found
+        delete(sharedPair.getFirst());
+        assertNull("Orphaned content URL found by hash", contentDataDAO.getContentUrlByHash(contentHash, contentData.getSize()));
+    }
+    
+    /**
+     * A content URL found by hash cannot be deleted by eager cleanup before the transaction that
+     * found it references it.
+     */
+    public void testContentUrlHashLockedUntilShared() throws Exception
+    {
+        final ContentData contentData = getContentData();
+        final String contentHash = GUID.generate();
+        RetryingTransactionCallback<Pair<Long, ContentData>> createCallback = new RetryingTransactionCallback<Pair<Long, ContentData>>()
+        {
+            public Pair<Long, ContentData> execute() throws Throwable
+            {
+                contentDataDAO.registerContentUrlHash(contentData.getContentUrl(), contentHash);
+                return contentDataDAO.createContentData(contentData);
+            }
+        };
+        final Long originalId = txnHelper.doInTransaction(createCallback, false, false).getFirst();
+        
+        EagerContentStoreCleaner eagerCleaner = (EagerContentStoreCleaner) ctx.getBean("eagerContentStoreCleaner");
+        eagerCleaner.setEagerOrphanCleanup(true);
+        try
+        {
+            // Drop the last reference while another transaction is sharing the URL
+            final Throwable[] deleteError = new Throwable[1];
+            final Thread deleteThread = new Thread(getName() + "-delete")
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        delete(originalId);
+                    }
+                    catch (Throwable e)
+                    {
+                        deleteError[0] = e;
+                    }
+                }
+            };
+            RetryingTransactionCallback<Pair<Long, ContentData>> shareCallback = new RetryingTransactionCallback<Pair<Long, ContentData>>()
+            {
+                public Pair<Long, ContentData> execute() throws Throwable
+                {
+                    Pair<Long, String> contentUrlPair = contentDataDAO.getContentUrlByHash(contentHash, contentData.getSize());
+                    assertNotNull("Content URL not found by hash", contentUrlPair);
+                    deleteThread.start();
+                    deleteThread.join(1000L);
+                    assertTrue("The content URL was deleted while it was being shared", deleteThread.isAlive());
+                    return contentDataDAO.createContentData(contentData);
+                }
+            };
+            Pair<Long, ContentData> sharedPair = txnHelper.doInTransaction(shareCallback, false, true);
+            
+            deleteThread.join(20000L);
+            assertFalse("The deletion did not complete", deleteThread.isAlive());
+            assertNull("The deletion failed: " + deleteError[0], deleteError[0]);
+            assertNotNull("Shared content URL must remain", contentDataDAO.getContentUrlByHash(contentHash, contentData.getSize()));
+            getAndCheck(sharedPair.getFirst(), contentData);
+        }
+        finally
+        {
+            eagerCleaner.setEagerOrphanCleanup(false);
+        }
+    }
+    
     private static final String[] MIMETYPES = new String[]
                                                          {
                                                             MimetypeMap.MIMETYPE_ACP,
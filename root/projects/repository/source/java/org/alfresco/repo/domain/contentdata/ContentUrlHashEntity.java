@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.repo.domain.contentdata;
+
+/**
+ * Entity bean for the <b>alf_content_url_hash</b> table, which records the hash of the
+ * binary content behind a <b>alf_content_url</b> entity.
+ * <p>
+ * The size is not persisted with the hash but is used to narrow searches by hash.
+ *
+ * @author agent
+ * @since 4.0
+ */
+public class ContentUrlHashEntity
+{
+    private Long contentUrlId;
+    private String contentHash;
+    private Long size;
+
+    public ContentUrlHashEntity()
+    {
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder(512);
+        sb.append("ContentUrlHashEntity")
+          .append("[ contentUrlId=").append(contentUrlId)
+          .append(", contentHash=").append(contentHash)
+          .append(", size=").append(size)
+          .append("]");
+        return sb.toString();
+    }
+
+    public Long getContentUrlId()
+    {
+        return contentUrlId;
+    }
+
+    public void setContentUrlId(Long contentUrlId)
+    {
+        this.contentUrlId = contentUrlId;
+    }
+
+    public String getContentHash()
+    {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash)
+    {
+        this.contentHash = contentHash;
+    }
+
+    public Long getSize()
+    {
+        return size;
+    }
+
+    public void setSize(Long size)
+    {
+        this.size = size;
+    }
+}
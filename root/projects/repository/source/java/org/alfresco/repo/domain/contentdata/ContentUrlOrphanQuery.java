@@ -26,6 +26,7 @@ package org.alfresco.repo.domain.contentdata;
  */
 public class ContentUrlOrphanQuery
 {
+    private Long minIdInclusive;
     private Long maxOrphanTimeExclusive;
     
     @Override
@@ -33,11 +34,22 @@ public class ContentUrlOrphanQuery
     {
         StringBuilder sb = new StringBuilder(512);
         sb.append("ContentUrlOrphanQuery")
-          .append("[ maxOrphanTimeExclusive=").append(maxOrphanTimeExclusive)
+          .append("[ minIdInclusive=").append(minIdInclusive)
+          .append(", maxOrphanTimeExclusive=").append(maxOrphanTimeExclusive)
           .append("]");
         return sb.toString();
     }
 
+    public Long getMinIdInclusive()
+    {
+        return minIdInclusive;
+    }
+
+    public void setMinIdInclusive(Long minIdInclusive)
+    {
+        this.minIdInclusive = minIdInclusive;
+    }
+
     public Long getMaxOrphanTimeExclusive()
     {
         return maxOrphanTimeExclusive;
@@ -30,6 +30,7 @@ import org.alfresco.ibatis.IdsEntity;
 import org.alfresco.repo.domain.contentdata.AbstractContentDataDAOImpl;
 import org.alfresco.repo.domain.contentdata.ContentDataEntity;
 import org.alfresco.repo.domain.contentdata.ContentUrlEntity;
+import org.alfresco.repo.domain.contentdata.ContentUrlHashEntity;
 import org.alfresco.repo.domain.contentdata.ContentUrlOrphanQuery;
 import org.alfresco.repo.domain.contentdata.ContentUrlUpdateEntity;
 import org.alfresco.service.cmr.repository.ContentData;
@@ -52,10 +53,15 @@ public class ContentDataDAOImpl extends AbstractContentDataDAOImpl
     private static final String SELECT_CONTENT_URL_BY_KEY = "alfresco.content.select_ContentUrlByKey";
     private static final String SELECT_CONTENT_URL_BY_KEY_UNREFERENCED = "alfresco.content.select_ContentUrlByKeyUnreferenced";
     private static final String SELECT_CONTENT_URLS_ORPHANED = "alfresco.content.select_ContentUrlsOrphaned";
+    private static final String SELECT_CONTENT_URLS_ORPHANED_FROM_ID = "alfresco.content.select_ContentUrlsOrphanedFromId";
+    private static final String SELECT_CONTENT_URLS_ORPHANED_COUNT = "alfresco.content.select_ContentUrlsOrphanedCount";
+    private static final String SELECT_CONTENT_URL_BY_HASH = "alfresco.content.select_ContentUrlByHash";
+    private static final String SELECT_CONTENT_URL_IN_USE_FOR_UPDATE = "alfresco.content.select_ContentUrlInUseForUpdate";
     private static final String SELECT_CONTENT_DATA_BY_ID = "alfresco.content.select_ContentDataById";
     private static final String SELECT_CONTENT_DATA_BY_NODE_AND_QNAME = "alfresco.content.select_ContentDataByNodeAndQName";
     private static final String INSERT_CONTENT_URL = "alfresco.content.insert.insert_ContentUrl";
     private static final String INSERT_CONTENT_DATA = "alfresco.content.insert.insert_ContentData";
+    private static final String INSERT_CONTENT_URL_HASH = "alfresco.content.insert_ContentUrlHash";
     private static final String UPDATE_CONTENT_URL_ORPHAN_TIME = "alfresco.content.update_ContentUrlOrphanTime";
     private static final String UPDATE_CONTENT_DATA = "alfresco.content.update_ContentData";
     private static final String DELETE_CONTENT_DATA = "alfresco.content.delete_ContentData";
@@ -143,6 +149,44 @@ public class ContentDataDAOImpl extends AbstractContentDataDAOImpl
         }
     }
     
+    @SuppressWarnings("unchecked")
+    public void getContentUrlsOrphaned(
+            final ContentUrlHandler contentUrlHandler,
+            final Long minIdInclusive,
+            final Long maxOrphanTimeExclusive,
+            final int maxResults)
+    {
+        ParameterCheck.mandatory("minIdInclusive", minIdInclusive);
+        ParameterCheck.mandatory("maxOrphanTimeExclusive", maxOrphanTimeExclusive);
+        
+        ContentUrlOrphanQuery query = new ContentUrlOrphanQuery();
+        query.setMinIdInclusive(minIdInclusive);
+        query.setMaxOrphanTimeExclusive(maxOrphanTimeExclusive);
+        List<ContentUrlEntity> results = (List<ContentUrlEntity>) template.selectList(SELECT_CONTENT_URLS_ORPHANED_FROM_ID, 
+                                                                                      query, 
+                                                                                      new RowBounds(0, maxResults));
+        // Pass the result to the callback
+        for (ContentUrlEntity result : results)
+        {
+            contentUrlHandler.handle(
+                    result.getId(),
+                    result.getContentUrl(),
+                    result.getOrphanTime());
+        }
+    }
+    
+    public long countContentUrlsOrphaned(Long minIdInclusive, Long maxOrphanTimeExclusive)
+    {
+        ParameterCheck.mandatory("minIdInclusive", minIdInclusive);
+        ParameterCheck.mandatory("maxOrphanTimeExclusive", maxOrphanTimeExclusive);
+        
+        ContentUrlOrphanQuery query = new ContentUrlOrphanQuery();
+        query.setMinIdInclusive(minIdInclusive);
+        query.setMaxOrphanTimeExclusive(maxOrphanTimeExclusive);
+        Long count = (Long) template.selectOne(SELECT_CONTENT_URLS_ORPHANED_COUNT, query);
+        return count == null ? 0L : count.longValue();
+    }
+    
     public int updateContentUrlOrphanTime(Long id, Long orphanTime, Long oldOrphanTime)
     {
         ContentUrlUpdateEntity contentUrlUpdateEntity = new ContentUrlUpdateEntity();
@@ -160,6 +204,41 @@ public class ContentDataDAOImpl extends AbstractContentDataDAOImpl
         return template.delete(DELETE_CONTENT_URLS, ids);
     }
 
+    @SuppressWarnings("unchecked")
+    @Override
+    protected ContentUrlEntity getContentUrlEntityByHash(String contentHash, long size)
+    {
+        ContentUrlHashEntity contentUrlHashEntity = new ContentUrlHashEntity();
+        contentUrlHashEntity.setContentHash(contentHash);
+        contentUrlHashEntity.setSize(size);
+        // Any of the matches will do
+        List<ContentUrlEntity> results = (List<ContentUrlEntity>) template.selectList(
+                SELECT_CONTENT_URL_BY_HASH,
+                contentUrlHashEntity,
+                new RowBounds(0, 1));
+        // Done
+        return results.size() > 0 ? results.get(0) : null;
+    }
+
+    @Override
+    protected ContentUrlEntity getContentUrlEntityInUseForUpdate(Long id)
+    {
+        ContentUrlEntity contentUrlEntity = new ContentUrlEntity();
+        contentUrlEntity.setId(id);
+        contentUrlEntity = (ContentUrlEntity) template.selectOne(SELECT_CONTENT_URL_IN_USE_FOR_UPDATE, contentUrlEntity);
+        // Done
+        return contentUrlEntity;
+    }
+
+    @Override
+    protected void createContentUrlHashEntity(Long contentUrlId, String contentHash)
+    {
+        ContentUrlHashEntity contentUrlHashEntity = new ContentUrlHashEntity();
+        contentUrlHashEntity.setContentUrlId(contentUrlId);
+        contentUrlHashEntity.setContentHash(contentHash);
+        template.insert(INSERT_CONTENT_URL_HASH, contentUrlHashEntity);
+    }
+
     @Override
     protected ContentUrlEntity getContentUrlEntityUnreferenced(String contentUrl)
     {
@@ -44,6 +44,10 @@ public abstract class AbstractEncodingDAOImpl implements EncodingDAO
      * VALUE KEY: String<br/>
      */
     private EntityLookupCache<Long, String, String> encodingEntityCache;
+    /**
+     * The size of the in-memory near cache for encodings
+     */
+    private int nearCacheMaxSize;
     
     /**
      * Set the cache that maintains the ID-Encoding mappings and vice-versa (bi-directional)
@@ -56,6 +60,25 @@ public abstract class AbstractEncodingDAOImpl implements EncodingDAO
                 encodingEntityCache,
                 CACHE_REGION_ENCODING,
                 new EncodingEntityCallbackDAO());
+        this.encodingEntityCache.setNearCacheMaxSize(nearCacheMaxSize);
+    }
+    
+    /**
+     * Set the number of encodings to keep in the in-memory near cache.  Encodings are never
+     * modified, so they can be held in memory in front of the shared cache.
+     * 
+     * @param nearCacheMaxSize      the maximum number of encodings or <tt>0</tt> (default) to
+     *                              disable the near cache
+     * 
+     * @see EntityLookupCache#setNearCacheMaxSize(int)
+     */
+    public void setNearCacheMaxSize(int nearCacheMaxSize)
+    {
+        this.nearCacheMaxSize = nearCacheMaxSize;
+        if (encodingEntityCache != null)
+        {
+            encodingEntityCache.setNearCacheMaxSize(nearCacheMaxSize);
+        }
     }
     
     public Pair<Long, String> getEncoding(Long id)
@@ -50,6 +50,10 @@ public abstract class AbstractLocaleDAOImpl implements LocaleDAO
      * VALUE KEY: Locale<br/>
      */
     private EntityLookupCache<Long, String, String> localeEntityCache;
+    /**
+     * The size of the in-memory near cache for locales
+     */
+    private int nearCacheMaxSize;
     
     /**
      * Set the cache that maintains the ID-Locale mappings and vice-versa (bi-directional)
@@ -62,6 +66,22 @@ public abstract class AbstractLocaleDAOImpl implements LocaleDAO
                 localeEntityCache,
                 CACHE_REGION_LOCALE,
                 new LocaleEntityCallbackDAO());
+        this.localeEntityCache.setNearCacheMaxSize(nearCacheMaxSize);
+    }
+    
+    /**
+     * Set the number of locales to keep in the in-memory near cache.  Locales are never
+     * modified, so they can be held in memory in front of the shared cache.
+     * 
+     * @param nearCacheMaxSize      the maximum number of locales or <tt>0</tt> (default) to
+     *                              disable the near cache
+     * 
+     * @see EntityLookupCache#setNearCacheMaxSize(int)
+     */
+    public void setNearCacheMaxSize(int nearCacheMaxSize)
+    {
+        this.nearCacheMaxSize = nearCacheMaxSize;
+        this.localeEntityCache.setNearCacheMaxSize(nearCacheMaxSize);
     }
     
     /**
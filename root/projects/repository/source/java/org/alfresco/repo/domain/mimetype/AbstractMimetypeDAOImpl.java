@@ -22,8 +22,10 @@ import java.io.Serializable;
 
 import org.alfresco.error.AlfrescoRuntimeException;
 import org.alfresco.repo.cache.SimpleCache;
+import org.alfresco.repo.cache.lookup.EntityLookupCache;
+import org.alfresco.repo.cache.lookup.EntityLookupCache.EntityLookupCallbackDAOAdaptor;
 import org.alfresco.util.Pair;
-import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.ConcurrencyFailureException;
 import org.springframework.extensions.surf.util.ParameterCheck;
 
 /**
@@ -37,9 +39,30 @@ import org.springframework.extensions.surf.util.ParameterCheck;
  */
 public abstract class AbstractMimetypeDAOImpl implements MimetypeDAO
 {
-    private static final Long CACHE_NULL_LONG = Long.MIN_VALUE;
-    private static final String NULL_SAFE_STRING = ".null";
-    private SimpleCache<Serializable, Serializable> mimetypeEntityCache;
+    private static final String CACHE_REGION_MIMETYPE = "Mimetype";
+    
+    /**
+     * Cache for the mimetype values:<br/>
+     * KEY: ID<br/>
+     * VALUE: Mimetype<br/>
+     * VALUE KEY: Lowercase mimetype<br/>
+     */
+    private EntityLookupCache<Long, String, String> mimetypeEntityCache;
+    /**
+     * The size of the in-memory near cache for mimetypes
+     */
+    private int nearCacheMaxSize;
+    
+    /**
+     * Default constructor.
+     * <p>
+     * This sets up the DAO accessors to bypass any caching to handle the case where the caches are not
+     * supplied in the setters.
+     */
+    protected AbstractMimetypeDAOImpl()
+    {
+        this.mimetypeEntityCache = new EntityLookupCache<Long, String, String>(new MimetypeEntityCallbackDAO());
+    }
 
     /**
      * 
@@ -47,114 +70,129 @@ public abstract class AbstractMimetypeDAOImpl implements MimetypeDAO
      */
     public void setMimetypeEntityCache(SimpleCache<Serializable, Serializable> mimetypeEntityCache)
     {
-        this.mimetypeEntityCache = mimetypeEntityCache;
+        this.mimetypeEntityCache = new EntityLookupCache<Long, String, String>(
+                mimetypeEntityCache,
+                CACHE_REGION_MIMETYPE,
+                new MimetypeEntityCallbackDAO());
+        this.mimetypeEntityCache.setNearCacheMaxSize(nearCacheMaxSize);
+    }
+    
+    /**
+     * Set the number of mimetypes to keep in the in-memory near cache.  Mimetypes are only
+     * modified by patches, so they can be held in memory in front of the shared cache.
+     * 
+     * @param nearCacheMaxSize      the maximum number of mimetypes or <tt>0</tt> (default) to
+     *                              disable the near cache
+     * 
+     * @see EntityLookupCache#setNearCacheMaxSize(int)
+     */
+    public void setNearCacheMaxSize(int nearCacheMaxSize)
+    {
+        this.nearCacheMaxSize = nearCacheMaxSize;
+        this.mimetypeEntityCache.setNearCacheMaxSize(nearCacheMaxSize);
     }
 
     public Pair<Long, String> getMimetype(Long id)
     {
-        // Check the cache
-        String mimetype = (String) mimetypeEntityCache.get(id);
-        if (mimetype != null)
-        {
-            return new Pair<Long, String>(id, mimetype);
-        }
-        // Get it from the DB
-        MimetypeEntity mimetypeEntity = getMimetypeEntity(id);
-        if (mimetypeEntity == null)
+        Pair<Long, String> entityPair = mimetypeEntityCache.getByKey(id);
+        if (entityPair == null)
         {
             throw new AlfrescoRuntimeException("The MimetypeEntity ID " + id + " doesn't exist.");
         }
-        mimetype = mimetypeEntity.getMimetype();
-        // Cache it
-        mimetypeEntityCache.put(mimetype, id);
-        mimetypeEntityCache.put(id, mimetype);
-        // Done
-        return new Pair<Long, String>(id, mimetype);
+        return entityPair;
     }
 
     public Pair<Long, String> getMimetype(String mimetype)
     {
         ParameterCheck.mandatory("mimetype", mimetype);
+        return mimetypeEntityCache.getByValue(mimetype);
+    }
+
+    public Pair<Long, String> getOrCreateMimetype(String mimetype)
+    {
+        ParameterCheck.mandatory("mimetype", mimetype);
+        return mimetypeEntityCache.getOrCreateByValue(mimetype);
+    }
+    
+    public int updateMimetype(String oldMimetype, String newMimetype)
+    {
+        ParameterCheck.mandatory("oldMimetype", oldMimetype);
+        ParameterCheck.mandatory("newMimetype", newMimetype);
         
-        // Check the cache
-        Long id = (Long) mimetypeEntityCache.get(mimetype);
-        if (id != null)
+        Pair<Long, String> oldMimetypePair = getMimetype(oldMimetype);
+        if (oldMimetypePair == null)
         {
-            if (id.equals(CACHE_NULL_LONG))
+            // There is no mimetype currently, so there is nothing to update.
+            // Just do a create
+            getOrCreateMimetype(newMimetype);
+            return 0;
+        }
+        // The ID will remain the same
+        Long id = oldMimetypePair.getFirst();
+        // We have to update it, which also updates the cache
+        int count = mimetypeEntityCache.updateValue(id, newMimetype);
+        if (count != 1)
+        {
+            throw new ConcurrencyFailureException("Concurrent update of mimetype: " + oldMimetype);
+        }
+        // Done
+        return count;
+    }
+
+    /**
+     * Callback for <b>alf_mimetype</b> DAO
+     */
+    private class MimetypeEntityCallbackDAO extends EntityLookupCallbackDAOAdaptor<Long, String, String>
+    {
+        /**
+         * Mimetypes are stored in lowercase, so lookups are case-insensitive
+         */
+        @Override
+        public String getValueKey(String value)
+        {
+            return value.toLowerCase();
+        }
+
+        public Pair<Long, String> findByKey(Long id)
+        {
+            MimetypeEntity entity = getMimetypeEntity(id);
+            if (entity == null)
             {
                 return null;
             }
             else
             {
-                return new Pair<Long, String>(id, mimetype);
+                return new Pair<Long, String>(id, entity.getMimetype());
             }
         }
-        // It's not in the cache, so query
-        MimetypeEntity result = getMimetypeEntity(mimetype);
-        if (result == null)
+        
+        @Override
+        public Pair<Long, String> findByValue(String mimetype)
         {
-            // Cache it
-            mimetypeEntityCache.put(mimetype, CACHE_NULL_LONG);
-            // Done
-            return null;
+            MimetypeEntity entity = getMimetypeEntity(mimetype);
+            if (entity == null)
+            {
+                return null;
+            }
+            else
+            {
+                return new Pair<Long, String>(entity.getId(), entity.getMimetype());
+            }
         }
-        else
+        
+        public Pair<Long, String> createValue(String mimetype)
         {
-            id = result.getId();
-            // Cache it
-            mimetypeEntityCache.put(id, mimetype);
-            mimetypeEntityCache.put(mimetype, id);
-            // Done
-            return new Pair<Long, String>(id, mimetype);
+            MimetypeEntity entity = createMimetypeEntity(mimetype);
+            return new Pair<Long, String>(entity.getId(), entity.getMimetype());
         }
-    }
 
-    public Pair<Long, String> getOrCreateMimetype(String mimetype)
-    {
-        ParameterCheck.mandatory("mimetype", mimetype);
-        
-        Pair<Long, String> result = getMimetype(mimetype);
-        if (result == null)
+        @Override
+        public int updateValue(Long id, String mimetype)
         {
-            MimetypeEntity mimetypeEntity = createMimetypeEntity(mimetype);
-            Long id = mimetypeEntity.getId();
-            result = new Pair<Long, String>(id, mimetype);
-            // Cache it
-            mimetypeEntityCache.put(id, mimetype);
-            mimetypeEntityCache.put(mimetype, id);
+            return updateMimetypeEntity(id, mimetype);
         }
-        return result;
     }
-    
-    public int updateMimetype(String oldMimetype, String newMimetype)
-    {
-        ParameterCheck.mandatory("oldMimetype", oldMimetype);
-        ParameterCheck.mandatory("newMimetype", newMimetype);
-        
-        Pair<Long, String> oldMimetypePair = getMimetype(oldMimetype);
-        if (oldMimetypePair == null)
-        {
-            // There is no mimetype currently, so there is nothing to update.
-            // Just do a create
-            getOrCreateMimetype(newMimetype);
-            return 0;
-        }
-        // The ID will remain the same
-        Long id = oldMimetypePair.getFirst();
-        // We have to update it
-        int count = updateMimetypeEntity(id, newMimetype);
-        if (count != 1)
-        {
-            throw new ConcurrencyFailureException("Concurrent update of mimetype: " + oldMimetype);
-        }
-        // Cache it
-        mimetypeEntityCache.remove(oldMimetype);
-        mimetypeEntityCache.put(id, newMimetype);
-        mimetypeEntityCache.put(newMimetype, id);
-        // Done
-        return count;
-    }
-
+
     /**
      * @param id            the ID of the mimetype entity
      * @return              Return the entity or <tt>null</tt> if it doesn't exist
@@ -162,5 +200,5 @@ public abstract class AbstractMimetypeDAOImpl implements MimetypeDAO
     protected abstract MimetypeEntity getMimetypeEntity(Long id);
     protected abstract MimetypeEntity getMimetypeEntity(String mimetype);
     protected abstract MimetypeEntity createMimetypeEntity(String mimetype);
-    protected abstract int updateMimetypeEntity(Long id, String newMimetype);
+    protected abstract int updateMimetypeEntity(Long id, String newMimetype);
 }
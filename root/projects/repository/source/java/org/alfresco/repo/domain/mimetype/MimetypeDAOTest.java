@@ -135,6 +135,10 @@ public class MimetypeDAOTest extends TestCase
         assertEquals(
                 "Upper and lowercase mimetype instance IDs were not the same",
                 lowercasePair.getFirst(), uppercasePair.getFirst());
+        // The stored mimetype is returned, whatever case was used to look it up
+        assertEquals(mimetype.toLowerCase(), uppercasePair.getSecond());
+        Pair<Long, String> mixedCasePair = get(mimetype, false, true);
+        assertEquals(mimetype.toLowerCase(), mixedCasePair.getSecond());
     }
     
     public void testUpdate() throws Exception
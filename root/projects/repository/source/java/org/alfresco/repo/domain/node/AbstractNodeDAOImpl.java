@@ -28,6 +28,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
@@ -3747,28 +3748,232 @@ public abstract class AbstractNodeDAOImpl implements NodeDAO, BatchingDAO
             logger.debug("Pre-loaded " + propertiesNodeIds.size() + " aspects");
         }
         
-        Map<NodeVersionKey, Set<QName>> nodeAspects = selectNodeAspects(aspectNodeIds);
+        cacheNodeAspectsNoBatch(aspectNodeIds, nodeVersionKeysFromCache);
+        cacheNodePropertiesNoBatch(propertiesNodeIds, nodeVersionKeysFromCache);
+    }
+    
+    /**
+     * Bulk-fetch the aspects for the given nodes.  Results are only cached against the node version
+     * currently known to the cache; stale entries are left for the on-demand lookup to detect.
+     * 
+     * @param nodeIds                   the nodes to fetch aspects for (this set is modified)
+     * @param nodeVersionKeysFromCache  the cached version key of each node
+     */
+    private void cacheNodeAspectsNoBatch(SortedSet<Long> nodeIds, Map<Long, NodeVersionKey> nodeVersionKeysFromCache)
+    {
+        Map<NodeVersionKey, Set<QName>> nodeAspects = selectNodeAspects(nodeIds);
         for (Map.Entry<NodeVersionKey, Set<QName>> entry : nodeAspects.entrySet())
         {
             NodeVersionKey nodeVersionKeyFromDb = entry.getKey();
             Long nodeId = nodeVersionKeyFromDb.getNodeId();
+            nodeIds.remove(nodeId);
+            if (!nodeVersionKeyFromDb.equals(nodeVersionKeysFromCache.get(nodeId)))
+            {
+                continue;
+            }
             Set<QName> qnames = entry.getValue();
-            setNodeAspectsCached(nodeId, qnames);
-            aspectNodeIds.remove(nodeId);
+            aspectsCache.setValue(nodeVersionKeyFromDb, Collections.unmodifiableSet(qnames));
         }
         // Cache the absence of aspects too!
-        for (Long nodeId: aspectNodeIds)
+        for (Long nodeId: nodeIds)
         {
-            setNodeAspectsCached(nodeId, Collections.<QName>emptySet());
+            aspectsCache.setValue(nodeVersionKeysFromCache.get(nodeId), Collections.<QName>emptySet());
         }
-
-        Map<NodeVersionKey, Map<NodePropertyKey, NodePropertyValue>> propsByNodeId = selectNodeProperties(propertiesNodeIds);
+    }
+    
+    /**
+     * Bulk-fetch the properties for the given nodes.  Results are only cached against the node version
+     * currently known to the cache; stale entries are left for the on-demand lookup to detect.
+     * 
+     * @param nodeIds                   the nodes to fetch properties for (this set is modified)
+     * @param nodeVersionKeysFromCache  the cached version key of each node
+     */
+    private void cacheNodePropertiesNoBatch(SortedSet<Long> nodeIds, Map<Long, NodeVersionKey> nodeVersionKeysFromCache)
+    {
+        Map<NodeVersionKey, Map<NodePropertyKey, NodePropertyValue>> propsByNodeId = selectNodeProperties(nodeIds);
         for (Map.Entry<NodeVersionKey, Map<NodePropertyKey, NodePropertyValue>> entry : propsByNodeId.entrySet())
         {
-            Long nodeId = entry.getKey().getNodeId();
+            NodeVersionKey nodeVersionKeyFromDb = entry.getKey();
+            Long nodeId = nodeVersionKeyFromDb.getNodeId();
+            nodeIds.remove(nodeId);
+            if (!nodeVersionKeyFromDb.equals(nodeVersionKeysFromCache.get(nodeId)))
+            {
+                continue;
+            }
             Map<NodePropertyKey, NodePropertyValue> propertyValues = entry.getValue();
             Map<QName, Serializable> props = nodePropertyHelper.convertToPublicProperties(propertyValues);
-            setNodePropertiesCached(nodeId, props);
+            propertiesCache.setValue(nodeVersionKeyFromDb, Collections.unmodifiableMap(props));
+        }
+        // Cache the absence of properties too
+        for (Long nodeId: nodeIds)
+        {
+            propertiesCache.setValue(nodeVersionKeysFromCache.get(nodeId), Collections.<QName, Serializable>emptyMap());
+        }
+    }
+    
+    public Map<Long, Pair<Map<QName, Serializable>, Set<QName>>> getNodesPropertiesAndAspects(Collection<Long> nodeIds)
+    {
+        // Make sure that everything is in the cache
+        cacheNodePropertiesAndAspects(nodeIds);
+        
+        Map<Long, Pair<Map<QName, Serializable>, Set<QName>>> results =
+                new LinkedHashMap<Long, Pair<Map<QName, Serializable>, Set<QName>>>(nodeIds.size() * 2);
+        for (Long nodeId : nodeIds)
+        {
+            Node node = nodesCache.getValue(nodeId);
+            if (node == null || node.getDeleted() || results.containsKey(nodeId))
+            {
+                // The node has gone or has been done already
+                continue;
+            }
+            Map<QName, Serializable> props = getNodeProperties(nodeId);
+            Set<QName> aspects = getNodeAspects(nodeId);
+            results.put(nodeId, new Pair<Map<QName, Serializable>, Set<QName>>(props, aspects));
+        }
+        // Done
+        if (isDebugEnabled)
+        {
+            logger.debug("Bulk-fetched properties and aspects for " + results.size() + " nodes.");
+        }
+        return results;
+    }
+    
+    public Map<NodeRef, Pair<Map<QName, Serializable>, Set<QName>>> getNodesPropertiesAndAspectsByRef(Collection<NodeRef> nodeRefs)
+    {
+        // Get the nodes into the cache first so that the ID lookups are cheap
+        cacheNodes(new ArrayList<NodeRef>(nodeRefs));
+        
+        List<Long> nodeIds = new ArrayList<Long>(nodeRefs.size());
+        Map<Long, NodeRef> nodeRefsById = new HashMap<Long, NodeRef>(nodeRefs.size() * 2);
+        for (NodeRef nodeRef : nodeRefs)
+        {
+            Pair<Long, NodeRef> nodePair = getNodePair(nodeRef);
+            if (nodePair == null)
+            {
+                continue;
+            }
+            nodeIds.add(nodePair.getFirst());
+            nodeRefsById.put(nodePair.getFirst(), nodeRef);
+        }
+        
+        Map<Long, Pair<Map<QName, Serializable>, Set<QName>>> resultsById = getNodesPropertiesAndAspects(nodeIds);
+        Map<NodeRef, Pair<Map<QName, Serializable>, Set<QName>>> results =
+                new LinkedHashMap<NodeRef, Pair<Map<QName, Serializable>, Set<QName>>>(resultsById.size() * 2);
+        for (Map.Entry<Long, Pair<Map<QName, Serializable>, Set<QName>>> entry : resultsById.entrySet())
+        {
+            results.put(nodeRefsById.get(entry.getKey()), entry.getValue());
+        }
+        return results;
+    }
+    
+    @Override
+    public Map<NodeRef, Long> getNodeAclIds(Collection<NodeRef> nodeRefs)
+    {
+        // Batch-load the nodes that are not yet cached; the ACL ID is part of the node
+        Map<StoreRef, List<String>> uuidsByStore = new HashMap<StoreRef, List<String>>(3);
+        for (NodeRef nodeRef : nodeRefs)
+        {
+            if (nodesCache.getKey(nodeRef) != null)
+            {
+                continue;
+            }
+            StoreRef storeRef = nodeRef.getStoreRef();
+            List<String> uuids = uuidsByStore.get(storeRef);
+            if (uuids == null)
+            {
+                uuids = new ArrayList<String>(nodeRefs.size());
+                uuidsByStore.put(storeRef, uuids);
+            }
+            uuids.add(nodeRef.getId());
+        }
+        for (Map.Entry<StoreRef, List<String>> entry : uuidsByStore.entrySet())
+        {
+            cacheNodes(entry.getKey(), entry.getValue());
+        }
+        
+        Map<NodeRef, Long> results = new LinkedHashMap<NodeRef, Long>(nodeRefs.size() * 2);
+        for (NodeRef nodeRef : nodeRefs)
+        {
+            Pair<Long, NodeRef> nodePair = getNodePair(nodeRef);
+            if (nodePair == null)
+            {
+                continue;
+            }
+            results.put(nodeRef, getNodeNotNull(nodePair.getFirst()).getAclId());
+        }
+        return results;
+    }
+    
+    /**
+     * Ensures that the nodes, their properties and their aspects are all cached.  Unlike
+     * {@link #cacheNodesById(List)}, this does not skip nodes whose node entry is already cached
+     * and it does not have a minimum threshold.
+     */
+    private void cacheNodePropertiesAndAspects(Collection<Long> nodeIds)
+    {
+        List<Long> batchLoadNodeIds = new ArrayList<Long>(nodeIds.size());
+        SortedSet<Long> aspectNodeIds = new TreeSet<Long>();
+        SortedSet<Long> propertiesNodeIds = new TreeSet<Long>();
+        Map<Long, NodeVersionKey> nodeVersionKeysFromCache = new HashMap<Long, NodeVersionKey>(nodeIds.size() * 2);
+        for (Long nodeId : nodeIds)
+        {
+            Node node = nodesCache.getValue(nodeId);
+            if (node == null)
+            {
+                // The node and everything else will be loaded in one go
+                batchLoadNodeIds.add(nodeId);
+                continue;
+            }
+            NodeVersionKey nodeVersionKey = node.getNodeVersionKey();
+            if (propertiesCache.getValue(nodeVersionKey) == null)
+            {
+                propertiesNodeIds.add(nodeId);
+            }
+            if (aspectsCache.getValue(nodeVersionKey) == null)
+            {
+                aspectNodeIds.add(nodeId);
+            }
+            nodeVersionKeysFromCache.put(nodeId, nodeVersionKey);
+        }
+        
+        cacheNodesBatch(batchLoadNodeIds);
+        
+        int batchSize = 256;
+        SortedSet<Long> batch = new TreeSet<Long>();
+        for (Long nodeId : aspectNodeIds)
+        {
+            batch.add(nodeId);
+            if (batch.size() >= batchSize)
+            {
+                cacheNodeAspectsNoBatch(batch, nodeVersionKeysFromCache);
+                batch.clear();
+            }
+        }
+        if (batch.size() > 0)
+        {
+            cacheNodeAspectsNoBatch(batch, nodeVersionKeysFromCache);
+            batch.clear();
+        }
+        for (Long nodeId : propertiesNodeIds)
+        {
+            batch.add(nodeId);
+            if (batch.size() >= batchSize)
+            {
+                cacheNodePropertiesNoBatch(batch, nodeVersionKeysFromCache);
+                batch.clear();
+            }
+        }
+        if (batch.size() > 0)
+        {
+            cacheNodePropertiesNoBatch(batch, nodeVersionKeysFromCache);
+        }
+        
+        if (isDebugEnabled)
+        {
+            logger.debug(
+                    "Pre-loaded " + batchLoadNodeIds.size() + " nodes, " +
+                    propertiesNodeIds.size() + " properties and " +
+                    aspectNodeIds.size() + " aspects.");
         }
     }
 
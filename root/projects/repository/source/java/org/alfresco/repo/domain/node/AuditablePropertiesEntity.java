@@ -40,8 +40,10 @@ import org.alfresco.util.EqualsHelper;
  * @author Derek Hulley
  * @since 3.4
  */
-public class AuditablePropertiesEntity
+public class AuditablePropertiesEntity implements Serializable
 {
+    private static final long serialVersionUID = 2714153809649748144L;
+    
     private static Set<QName> auditablePropertyQNames;
     static
     {
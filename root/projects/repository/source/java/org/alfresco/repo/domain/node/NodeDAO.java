@@ -269,7 +269,47 @@ public interface NodeDAO extends NodeBulkLoader
     public boolean removeNodeAspects(Long nodeId);
     
     public boolean removeNodeAspects(Long nodeId, Set<QName> aspectQNames);
-    
+
+    /*
+     * Bulk properties and aspects
+     */
+
+    /**
+     * Bulk-fetch the properties and aspects of a collection of nodes.  Nodes, properties and aspects
+     * that are not already cached are loaded using batched queries and added to the caches, so
+     * subsequent calls to {@link #getNodeProperties(Long)} and {@link #getNodeAspects(Long)} for the
+     * same nodes will not go to the database.  There is no need to split the collection up before
+     * calling this method.
+     *
+     * @param nodeIds           the IDs of the nodes to fetch
+     * @return                  Returns the properties (first) and aspects (second) of each live node,
+     *                          keyed by node ID in the iteration order of the given IDs.  Nodes that do
+     *                          not exist or have been deleted are left out of the results.
+     */
+    public Map<Long, Pair<Map<QName, Serializable>, Set<QName>>> getNodesPropertiesAndAspects(Collection<Long> nodeIds);
+
+    /**
+     * Bulk-fetch the properties and aspects of a collection of nodes, identified by reference.
+     *
+     * @param nodeRefs          the references of the nodes to fetch
+     * @return                  Returns the properties (first) and aspects (second) of each live node,
+     *                          keyed by node reference in the iteration order of the given references
+     *
+     * @see #getNodesPropertiesAndAspects(Collection)
+     */
+    public Map<NodeRef, Pair<Map<QName, Serializable>, Set<QName>>> getNodesPropertiesAndAspectsByRef(Collection<NodeRef> nodeRefs);
+
+    /**
+     * Bulk-fetch the ACL IDs of a collection of nodes.  Nodes that are not already cached are
+     * loaded with one query per batch, after which the ACL IDs are taken from the cache.
+     *
+     * @param nodeRefs          the references of the nodes
+     * @return                  Returns the ACL ID of each live node, keyed by node reference in the
+     *                          iteration order of the given references.  Nodes without an ACL are
+     *                          mapped to <tt>null</tt> and nodes that do not exist are left out.
+     */
+    public Map<NodeRef, Long> getNodeAclIds(Collection<NodeRef> nodeRefs);
+
     /**
      * Get nodes with aspects between the given ranges
      * 
@@ -18,8 +18,12 @@
  */
 package org.alfresco.repo.domain.node;
 
+import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import junit.framework.TestCase;
 
@@ -29,6 +33,8 @@ import org.alfresco.repo.transaction.RetryingTransactionHelper;
 import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
 import org.alfresco.service.ServiceRegistry;
 import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.namespace.QName;
 import org.alfresco.service.transaction.TransactionService;
 import org.alfresco.util.ApplicationContextHelper;
 import org.alfresco.util.Pair;
@@ -105,6 +111,27 @@ public class NodeDAOTest extends TestCase
                 callback);
     }
     
+    public void testGetNodesPropertiesAndAspects() throws Throwable
+    {
+        RetryingTransactionCallback<Void> callback = new RetryingTransactionCallback<Void>()
+        {
+            public Void execute() throws Throwable
+            {
+                Long rootNodeId = nodeDAO.getRootNode(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE).getFirst();
+                nodeDAO.clear();
+                Map<Long, Pair<Map<QName, Serializable>, Set<QName>>> results =
+                        nodeDAO.getNodesPropertiesAndAspects(Arrays.asList(rootNodeId, Long.valueOf(-1L)));
+                assertEquals("Only the live node should be present", 1, results.size());
+                Pair<Map<QName, Serializable>, Set<QName>> rootResult = results.get(rootNodeId);
+                assertNotNull("No results for root node", rootResult);
+                assertEquals("Bulk properties differ", nodeDAO.getNodeProperties(rootNodeId), rootResult.getFirst());
+                assertEquals("Bulk aspects differ", nodeDAO.getNodeAspects(rootNodeId), rootResult.getSecond());
+                return null;
+            }
+        };
+        txnHelper.doInTransaction(callback, true);
+    }
+    
     public void testGetPrimaryChildAcls() throws Throwable
     {
         List<NodeIdAndAclId> acls = nodeDAO.getPrimaryChildrenAcls(1L);
@@ -18,6 +18,8 @@
  */
 package org.alfresco.repo.domain.node;
 
+import java.io.Serializable;
+
 import org.alfresco.repo.security.permissions.PermissionCheckValue;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.util.Pair;
@@ -28,8 +30,10 @@ import org.alfresco.util.Pair;
  * @author Derek Hulley
  * @since 3.4
  */
-public class NodeEntity implements Node, PermissionCheckValue
+public class NodeEntity implements Node, PermissionCheckValue, Serializable
 {
+    private static final long serialVersionUID = -2205810087521248438L;
+    
     private boolean locked;
     
     private Long id;
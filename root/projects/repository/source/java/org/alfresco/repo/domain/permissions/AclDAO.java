@@ -160,4 +160,13 @@ public interface AclDAO
      * @param aclId
      */
     public void fixSharedAcl(Long shared, Long defining);
+
+    /**
+     * Get the ACL change set that holds ACL changes made in the current transaction.  ACLs belonging
+     * to this change set may still be modified before the transaction commits.
+     * 
+     * @return              the ID of the current change set or <tt>null</tt> if no ACLs have been
+     *                      changed in the current transaction
+     */
+    public Long getTransactionChangeSetId();
 }
@@ -1684,6 +1684,15 @@ public class AclDAOImpl implements AclDAO
             aclCrudDAO.updateAclChangeSet(changeSetId, commitTimeMs);
         }
     }
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Long getTransactionChangeSetId()
+    {
+        return (Long) AlfrescoTransactionSupport.getResource(RESOURCE_KEY_ACL_CHANGE_SET_ID);
+    }
+
     /**
      * Support to get the current ACL change set and bind this to the transaction. So we only make one new version of an
      * ACL per change set. If something is in the current change set we can update it.
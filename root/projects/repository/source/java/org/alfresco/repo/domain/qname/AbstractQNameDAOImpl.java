@@ -57,6 +57,10 @@ public abstract class AbstractQNameDAOImpl implements QNameDAO
      * VALUE KEY: QName<br/>
      */
     private EntityLookupCache<Long, QName, QName> qnameCache;
+    /**
+     * The size of the in-memory near caches for namespaces and QNames
+     */
+    private int nearCacheMaxSize;
     
     /**
      * Default constructor.
@@ -81,6 +85,7 @@ public abstract class AbstractQNameDAOImpl implements QNameDAO
                 namespaceCache,
                 CACHE_REGION_NAMESPACE,
                 new NamespaceCallbackDAO());
+        this.namespaceCache.setNearCacheMaxSize(nearCacheMaxSize);
     }
 
     /**
@@ -94,6 +99,24 @@ public abstract class AbstractQNameDAOImpl implements QNameDAO
                 qnameCache,
                 CACHE_REGION_QNAME,
                 new QNameCallbackDAO());
+        this.qnameCache.setNearCacheMaxSize(nearCacheMaxSize);
+    }
+
+    /**
+     * Set the number of namespaces and QNames to keep in the in-memory near caches.
+     * Namespaces and QNames are only ever modified by patches, so they can be held in memory
+     * in front of the shared caches.
+     * 
+     * @param nearCacheMaxSize      the maximum number of entries of each type or <tt>0</tt>
+     *                              (default) to disable the near caches
+     * 
+     * @see EntityLookupCache#setNearCacheMaxSize(int)
+     */
+    public void setNearCacheMaxSize(int nearCacheMaxSize)
+    {
+        this.nearCacheMaxSize = nearCacheMaxSize;
+        this.namespaceCache.setNearCacheMaxSize(nearCacheMaxSize);
+        this.qnameCache.setNearCacheMaxSize(nearCacheMaxSize);
     }
 
     //================================
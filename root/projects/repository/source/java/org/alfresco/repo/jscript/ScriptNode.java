@@ -405,6 +405,7 @@ public class ScriptNode implements Scopeable, NamespacePrefixResolverProvider
         if (this.children == null)
         {
             List<ChildAssociationRef> childRefs = this.nodeService.getChildAssocs(this.nodeRef);
+            preloadNodes(childRefs);
             Object[] children = new Object[childRefs.size()];
             for (int i = 0; i < childRefs.size(); i++)
             {
@@ -3203,6 +3204,24 @@ public class ScriptNode implements Scopeable, NamespacePrefixResolverProvider
         this.siteNameResolved = false;
     }
     
+    /**
+     * Bulk-load the properties and aspects of the given child nodes, which nearly every script
+     * goes on to read, rather than loading them one node at a time.
+     */
+    private void preloadNodes(List<ChildAssociationRef> childRefs)
+    {
+        if (childRefs.size() == 0 || StoreRef.PROTOCOL_AVM.equals(this.nodeRef.getStoreRef().getProtocol()))
+        {
+            return;
+        }
+        List<NodeRef> childNodeRefs = new ArrayList<NodeRef>(childRefs.size());
+        for (ChildAssociationRef childRef : childRefs)
+        {
+            childNodeRefs.add(childRef.getChildRef());
+        }
+        this.services.getNodeService().preloadNodes(childNodeRefs);
+    }
+    
     /**
      * @return helper object to perform cross repository copy of JavaScript Node objects
      */
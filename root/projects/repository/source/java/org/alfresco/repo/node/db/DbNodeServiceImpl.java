@@ -189,6 +189,15 @@ public class DbNodeServiceImpl extends AbstractNodeServiceImpl
         return nodeDAO.exists(nodeRef);
     }
     
+    public void preloadNodes(List<NodeRef> nodeRefs)
+    {
+        ParameterCheck.mandatory("nodeRefs", nodeRefs);
+        if (nodeRefs.size() > 0)
+        {
+            nodeDAO.getNodesPropertiesAndAspectsByRef(nodeRefs);
+        }
+    }
+    
     public Status getNodeStatus(NodeRef nodeRef)
     {
         ParameterCheck.mandatory("nodeRef", nodeRef);
@@ -19,6 +19,8 @@
 package org.alfresco.repo.node.db;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
@@ -372,6 +374,34 @@ public class DbNodeServiceImplTest extends BaseNodeServiceTest
         nodeService.deleteNode(nodeRef);
     }
     
+    /**
+     * Preloading must leave the nodes reading exactly as before and must ignore missing nodes
+     */
+    public void testPreloadNodes() throws Exception
+    {
+        Map<QName, ChildAssociationRef> assocRefs = buildNodeGraph();
+        NodeRef n6Ref = assocRefs.get(QName.createQName(BaseNodeServiceTest.NAMESPACE, "n6_p_n8")).getParentRef();
+        List<NodeRef> nodeRefs = new ArrayList<NodeRef>();
+        for (ChildAssociationRef assocRef : nodeService.getChildAssocs(n6Ref))
+        {
+            nodeRefs.add(assocRef.getChildRef());
+        }
+        assertTrue("Expected some children to preload", nodeRefs.size() > 0);
+        NodeRef missingNodeRef = new NodeRef(rootNodeRef.getStoreRef(), "missing-" + getName());
+        nodeRefs.add(missingNodeRef);
+        
+        nodeService.preloadNodes(nodeRefs);
+        nodeService.preloadNodes(Collections.<NodeRef>emptyList());
+        
+        for (NodeRef nodeRef : nodeRefs.subList(0, nodeRefs.size() - 1))
+        {
+            Long nodeId = nodeDAO.getNodePair(nodeRef).getFirst();
+            assertEquals(nodeDAO.getNodeProperties(nodeId).keySet(), nodeService.getProperties(nodeRef).keySet());
+            assertEquals(nodeDAO.getNodeAspects(nodeId), nodeService.getAspects(nodeRef));
+        }
+        assertFalse(nodeService.exists(missingNodeRef));
+    }
+    
     public void testAspectRemovalWithCommit() throws Throwable
     {
        // Create a node to add the aspect to
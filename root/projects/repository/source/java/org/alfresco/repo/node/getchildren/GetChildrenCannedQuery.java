@@ -519,7 +519,8 @@ public class GetChildrenCannedQuery extends AbstractCannedQueryPermissions<NodeR
     {
         Long start = (logger.isTraceEnabled() ? System.currentTimeMillis() : null);
         
-        nodeDAO.cacheNodes(nodeRefs);
+        // Pull in the nodes, properties and aspects in batches rather than one node at a time
+        nodeDAO.getNodesPropertiesAndAspectsByRef(nodeRefs);
         
         if (start != null)
         {
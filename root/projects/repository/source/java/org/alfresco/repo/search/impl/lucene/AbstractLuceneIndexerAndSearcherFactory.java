@@ -178,6 +178,8 @@ public abstract class AbstractLuceneIndexerAndSearcherFactory extends AbstractIn
     private int mergerTargetOverlayCount = 5;
 
     private int mergerTargetOverlaysBlockingFactor = 1;
+
+    private int mergerConcurrency = 1;
     
     private boolean fairLocking;
 
@@ -1786,6 +1788,18 @@ public abstract class AbstractLuceneIndexerAndSearcherFactory extends AbstractIn
         this.mergerTargetOverlaysBlockingFactor = mergerTargetOverlaysBlockingFactor;
     }
 
+    @Override
+    public int getMergerConcurrency()
+    {
+        return mergerConcurrency;
+    }
+
+    @Override
+    public void setMergerConcurrency(int mergerConcurrency)
+    {
+        this.mergerConcurrency = mergerConcurrency;
+    }
+
     @Override
     public boolean getFairLocking()
     {
@@ -151,6 +151,14 @@ public interface LuceneConfig
      */
     public int getMergerTargetOverlaysBlockingFactor();
 
+    /**
+     * The number of merge workers for each index. With more than one, separate sets of indexes are merged at the same
+     * time and overlay deletions are applied to several indexes at once.
+     * 
+     * @return the number of merge workers for each index
+     */
+    public int getMergerConcurrency();
+
     /**
      * Target index count. Over this indexes will be merged together.
      * @return
@@ -398,6 +406,11 @@ public interface LuceneConfig
      */
     void setMergerTargetOverlaysBlockingFactor(int mergerTargetOverlaysBlockingFactor);
 
+    /**
+     * @param mergerConcurrency
+     */
+    void setMergerConcurrency(int mergerConcurrency);
+
     /**
      * @param fairLocking
      */
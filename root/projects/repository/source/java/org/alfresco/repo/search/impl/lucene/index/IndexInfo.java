@@ -53,6 +53,9 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.zip.CRC32;
 
@@ -396,6 +399,12 @@ public class IndexInfo implements IndexMonitor
      */
     private Merger merger = new Merger();
 
+    /**
+     * All the merge workers, starting with {@link #merger}. With more than one, separate sets of indexes may be merged
+     * at the same time and deletions are applied to several indexes at once.
+     */
+    private List<Merger> mergers = new ArrayList<Merger>(1);
+
     /**
      * The thread that carries out index merging and applying deletions from deltas to indexes and deltas that go before
      * it.
@@ -453,6 +462,18 @@ public class IndexInfo implements IndexMonitor
     private int mergerTargetOverlaysBlockingFactor = 1;
 
     private Object mergerTargetLock = new Object();
+
+    private int mergerConcurrency = 1;
+
+    // Merge and throttling statistics
+
+    private static final int MAX_RECENT_MERGE_DURATIONS = 100;
+
+    private AtomicLong throttleTimeNanos = new AtomicLong();
+
+    private AtomicInteger throttleCount = new AtomicInteger();
+
+    private LinkedList<Long> recentMergeDurations = new LinkedList<Long>();
     
     // To avoid deadlock (a thread with multiple deltas never proceeding to commit) we track whether each thread is
     // already in the prepare phase.
@@ -522,7 +543,7 @@ public class IndexInfo implements IndexMonitor
 
                         cleaner.schedule();
 
-                        merger.schedule();
+                        scheduleMergers();
 
                         // persist the new state
                         writeStatus();
@@ -628,6 +649,7 @@ public class IndexInfo implements IndexMonitor
             this.mergerTargetOverlays = config.getMergerTargetOverlayCount();
             this.mergerTargetIndexes = config.getMergerTargetIndexCount();
             this.mergerTargetOverlaysBlockingFactor = config.getMergerTargetOverlaysBlockingFactor();
+            this.mergerConcurrency = Math.max(1, config.getMergerConcurrency());
             // Work out the relative path of the index
             try
             {
@@ -674,6 +696,13 @@ public class IndexInfo implements IndexMonitor
 
         }
 
+        // Create the merge workers
+        mergers.add(merger);
+        for (int i = 1; i < mergerConcurrency; i++)
+        {
+            mergers.add(new Merger());
+        }
+
         // Create an empty in memory index
         IndexWriter writer;
         try
@@ -873,7 +902,7 @@ public class IndexInfo implements IndexMonitor
 
                             cleaner.schedule();
 
-                            merger.schedule();
+                            scheduleMergers();
 
                             // persist the new state
                             writeStatus();
@@ -1601,8 +1630,14 @@ public class IndexInfo implements IndexMonitor
                     }
                     else
                     {
+                        long throttleStart = 0L;
                         while (shouldBlock())
                         {
+                            if (throttleStart == 0L)
+                            {
+                                throttleStart = System.nanoTime();
+                                throttleCount.incrementAndGet();
+                            }
                             synchronized (mergerTargetLock)
                             {
                                 if (s_logger.isDebugEnabled())
@@ -1620,6 +1655,10 @@ public class IndexInfo implements IndexMonitor
                             }
                             getWriteLock();
                         }
+                        if (throttleStart != 0L)
+                        {
+                            throttleTimeNanos.addAndGet(System.nanoTime() - throttleStart);
+                        }
                         thisThreadPreparing.set(this);
                     }
                 }
@@ -1943,7 +1982,7 @@ public class IndexInfo implements IndexMonitor
                         mainIndexReader = null;
                     }
 
-                    merger.schedule();
+                    scheduleMergers();
                 }
 
             }
@@ -3488,6 +3527,11 @@ public class IndexInfo implements IndexMonitor
 
     private class Merger extends AbstractSchedulable
     {
+        /**
+         * The merge id of the index merge this worker is doing, if any
+         */
+        private String currentMergeId;
+
         String getLogName()
         {
             return "Index merger";
@@ -3498,6 +3542,7 @@ public class IndexInfo implements IndexMonitor
         {
             // Reschedule if we need to, based on the current index state, that may have changed since we last got the
             // read lock
+            boolean moreWork = false;
             getReadLock();
             try
             {
@@ -3505,6 +3550,7 @@ public class IndexInfo implements IndexMonitor
                 {
                     if (decideMergeAction() != MergeAction.NONE)
                     {
+                        moreWork = true;
                         if (s_logger.isDebugEnabled())
                         {
                             s_logger.debug(getLogName() + " rescheduling ... ");
@@ -3536,6 +3582,11 @@ public class IndexInfo implements IndexMonitor
             {
                 releaseReadLock();
             }
+            // Wake up any idle workers that can share the work
+            if (moreWork && mergers.size() > 1)
+            {
+                scheduleMergers();
+            }
         }
 
         void runImpl() throws IOException
@@ -3613,6 +3664,8 @@ public class IndexInfo implements IndexMonitor
         {
             MergeAction action = MergeAction.NONE;
             int indexes = 0;
+            int committedIndexes = 0;
+            int mergeTargets = 0;
             boolean mergingIndexes = false;
             int deltas = 0;
             boolean applyingDeletions = false;
@@ -3625,6 +3678,16 @@ public class IndexInfo implements IndexMonitor
                     if ((entry.getStatus() == TransactionStatus.MERGE) || (entry.getStatus() == TransactionStatus.MERGE_TARGET))
                     {
                         mergingIndexes = true;
+                        // Only the indexes after a merge can be merged, so that documents stay in order
+                        committedIndexes = 0;
+                    }
+                    if (entry.getStatus() == TransactionStatus.COMMITTED)
+                    {
+                        committedIndexes++;
+                    }
+                    else if (entry.getStatus() == TransactionStatus.MERGE_TARGET)
+                    {
+                        mergeTargets++;
                     }
                 }
                 else if (entry.getType() == IndexType.DELTA)
@@ -3649,7 +3712,24 @@ public class IndexInfo implements IndexMonitor
                 s_logger.debug("Deleting = " + applyingDeletions);
             }
 
-            if (!mergingIndexes && !applyingDeletions)
+            if (mergers.size() > 1)
+            {
+                // Deletions change the indexes that merges read, so the two never overlap. Overlays are cleared first
+                // as they hold up writers. Several merges of separate sets of committed indexes may run together.
+                if (applyingDeletions)
+                {
+                    action = MergeAction.NONE;
+                }
+                else if (deltas > mergerTargetOverlays)
+                {
+                    action = mergingIndexes ? MergeAction.NONE : MergeAction.APPLY_DELTA_DELETION;
+                }
+                else if ((committedIndexes > mergerTargetIndexes) && (mergeTargets < mergers.size()))
+                {
+                    action = MergeAction.MERGE_INDEX;
+                }
+            }
+            else if (!mergingIndexes && !applyingDeletions)
             {
                 if (indexes > mergerTargetIndexes) 
                 {
@@ -3684,6 +3764,14 @@ public class IndexInfo implements IndexMonitor
                             // clean up
                             for (IndexEntry entry : indexEntries.values())
                             {
+                                if (isMergedByAnotherWorker(entry))
+                                {
+                                    if (s_logger.isInfoEnabled())
+                                    {
+                                        s_logger.info("Roll back merge: leaving entry merged by another worker " + entry);
+                                    }
+                                    continue;
+                                }
                                 switch (entry.getStatus())
                                 {
                                 // states which can be deleted
@@ -3767,17 +3855,36 @@ public class IndexInfo implements IndexMonitor
             }
             finally
             {
+                currentMergeId = null;
                 releaseWriteLock();
             }
             return ExitState.DONE;
         }
 
+        /**
+         * With several merge workers, entries that are part of another worker's index merge must be left alone when
+         * this worker recovers.
+         */
+        private boolean isMergedByAnotherWorker(IndexEntry entry)
+        {
+            if (mergers.size() == 1)
+            {
+                return false;
+            }
+            if ((entry.getStatus() == TransactionStatus.MERGE) || (entry.getStatus() == TransactionStatus.MERGE_TARGET))
+            {
+                return (currentMergeId == null) || !currentMergeId.equals(entry.getMergeId());
+            }
+            return false;
+        }
+
         void mergeDeletions() throws IOException
         {
             if (s_logger.isDebugEnabled())
             {
                 s_logger.debug("Deleting ...");
             }
+            long start = System.nanoTime();
 
             // lock for deletions
             final LinkedHashMap<String, IndexEntry> toDelete;
@@ -3871,161 +3978,28 @@ public class IndexInfo implements IndexMonitor
             // Build readers
 
             int size = 2 * (toDelete.size() + indexes.size());
-            final HashSet<String> invalidIndexes = new HashSet<String>(size);
+            final Set<String> invalidIndexes = Collections.synchronizedSet(new HashSet<String>(size));
 
             final HashMap<String, Long> newIndexCounts = new HashMap<String, Long>(size);
 
-            LinkedHashMap<String, IndexReader> readers = new LinkedHashMap<String, IndexReader>(size);
-            for (IndexEntry currentDelete : toDelete.values())
+            final Map<String, IndexReader> readers = Collections.synchronizedMap(new LinkedHashMap<String, IndexReader>(size));
+            if (mergers.size() > 1)
             {
-                Set<String> deletions = getDeletions(currentDelete.getName(), INDEX_INFO_DELETIONS);
-                Set<String> containerDeletions = getDeletions(currentDelete.getName(), INDEX_INFO_CONTAINER_DELETIONS);
-                if (!deletions.isEmpty())
-                {
-                    for (String key : indexes.keySet())
-                    {
-                        IndexReader reader = getReferenceCountingIndexReader(key);
-                        Searcher searcher = new IndexSearcher(reader);
-                        try
-                        {
-                            for (String stringRef : deletions)
-                            {
-                                TermQuery query = new TermQuery(new Term("ID", stringRef));
-                                Hits hits = searcher.search(query);
-                                if (hits.length() > 0)
-                                {
-                                    IndexReader writeableReader = readers.get(key);
-                                    if (writeableReader == null)
-                                    {
-                                        File location = new File(indexDirectory, key).getCanonicalFile();
-                                        if (IndexReader.indexExists(location))
-                                        {
-                                            writeableReader = IndexReader.open(location);
-                                        }
-                                        else
-                                        {
-                                            continue;
-                                        }
-                                        readers.put(key, writeableReader);
-                                    }
-                                    
-                                    if (currentDelete.isDeletOnlyNodes() && !containerDeletions.contains(stringRef))
-                                    {
-                                        Searcher writeableSearcher = new IndexSearcher(writeableReader);        
-                                        hits = writeableSearcher.search(query);
-                                        if (hits.length() > 0)
-                                        {
-                                            for (int i = 0; i < hits.length(); i++)
-                                            {
-                                                Document doc = hits.doc(i);
-                                                // Exclude all containers except the root (which is also a node!)
-                                                Field path = doc.getField("PATH");
-                                                if (path == null || path.stringValue().length() == 0)
-                                                {
-                                                    writeableReader.deleteDocument(hits.id(i));
-                                                    invalidIndexes.add(key);
-                                                    // There should only be one thing to
-                                                    // delete
-                                                    // break;
-                                                }
-                                            }
-                                        }
-                                        writeableSearcher.close();
-                                    }
-                                    else
-                                    {
-                                        int deletedCount = 0;
-                                        try
-                                        {
-                                            deletedCount = writeableReader.deleteDocuments(new Term("ID", stringRef));
-                                        }
-                                        catch (IOException ioe)
-                                        {
-                                            if (s_logger.isDebugEnabled())
-                                            {
-                                                s_logger.debug("IO Error for " + key);
-                                                throw ioe;
-                                            }
-                                        }
-                                        if (deletedCount > 0)
-                                        {
-                                            if (s_logger.isDebugEnabled())
-                                            {
-                                                s_logger.debug("Deleted " + deletedCount + " from " + key + " for id " + stringRef + " remaining docs " + writeableReader.numDocs());
-                                            }
-                                            invalidIndexes.add(key);
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                        finally
-                        {
-                            searcher.close();
-                        }    
-                    }
-                }
-                if (!containerDeletions.isEmpty())
+                applyDeletionsConcurrently(toDelete, indexes, readers, invalidIndexes);
+            }
+            else
+            {
+                for (IndexEntry currentDelete : toDelete.values())
                 {
+                    Set<String> deletions = getDeletions(currentDelete.getName(), INDEX_INFO_DELETIONS);
+                    Set<String> containerDeletions = getDeletions(currentDelete.getName(), INDEX_INFO_CONTAINER_DELETIONS);
                     for (String key : indexes.keySet())
                     {
-                        IndexReader reader = getReferenceCountingIndexReader(key);
-                        Searcher searcher = new IndexSearcher(reader);
-                        try
-                        {
-                            for (String stringRef : deletions)
-                            {
-                                TermQuery query = new TermQuery(new Term("ANCESTOR", stringRef));
-                                Hits hits = searcher.search(query);
-                                if (hits.length() > 0)
-                                {
-                                    IndexReader writeableReader = readers.get(key);
-                                    if (writeableReader == null)
-                                    {
-                                        File location = new File(indexDirectory, key).getCanonicalFile();
-                                        if (IndexReader.indexExists(location))
-                                        {
-                                            writeableReader = IndexReader.open(location);
-                                        }
-                                        else
-                                        {
-                                            continue;
-                                        }
-                                        readers.put(key, writeableReader);
-                                    }
-                                    
-                                    int deletedCount = 0;
-                                    try
-                                    {
-                                        deletedCount = writeableReader.deleteDocuments(new Term("ANCESTOR", stringRef));
-                                    }
-                                    catch (IOException ioe)
-                                    {
-                                        if (s_logger.isDebugEnabled())
-                                        {
-                                            s_logger.debug("IO Error for " + key);
-                                            throw ioe;
-                                        }
-                                    }
-                                    if (deletedCount > 0)
-                                    {
-                                        if (s_logger.isDebugEnabled())
-                                        {
-                                            s_logger.debug("Deleted " + deletedCount + " from " + key + " for id " + stringRef + " remaining docs " + writeableReader.numDocs());
-                                        }
-                                        invalidIndexes.add(key);
-                                    }
-                                }
-                            }
-                        }
-                        finally
-                        {
-                            searcher.close();
-                        }    
+                        applyDeletions(key, currentDelete, deletions, containerDeletions, readers, invalidIndexes);
                     }
+                    // The delta we have just processed now must be included when we process the deletions of its successor
+                    indexes.put(currentDelete.getName(), currentDelete);
                 }
-                // The delta we have just processed now must be included when we process the deletions of its successor
-                indexes.put(currentDelete.getName(), currentDelete);
             }
 
             // Close all readers holding the write lock - so no one tries to
@@ -4131,6 +4105,291 @@ public class IndexInfo implements IndexMonitor
             {
                 releaseWriteLock();
             }
+            recordMergeDuration(start);
+        }
+
+        /**
+         * Apply the deletions from one delta to one of the indexes or deltas that go before it. The writeable reader for
+         * the index is opened on first use and left in <code>readers</code>.
+         */
+        private void applyDeletions(String key, IndexEntry currentDelete, Set<String> deletions, Set<String> containerDeletions,
+                Map<String, IndexReader> readers, Set<String> invalidIndexes) throws IOException
+        {
+            if (!deletions.isEmpty())
+            {
+                IndexReader reader = getReferenceCountingIndexReader(key);
+                Searcher searcher = new IndexSearcher(reader);
+                try
+                {
+                    for (String stringRef : deletions)
+                    {
+                        TermQuery query = new TermQuery(new Term("ID", stringRef));
+                        Hits hits = searcher.search(query);
+                        if (hits.length() > 0)
+                        {
+                            IndexReader writeableReader = readers.get(key);
+                            if (writeableReader == null)
+                            {
+                                File location = new File(indexDirectory, key).getCanonicalFile();
+                                if (IndexReader.indexExists(location))
+                                {
+                                    writeableReader = IndexReader.open(location);
+                                }
+                                else
+                                {
+                                    continue;
+                                }
+                                readers.put(key, writeableReader);
+                            }
+
+                            if (currentDelete.isDeletOnlyNodes() && !containerDeletions.contains(stringRef))
+                            {
+                                Searcher writeableSearcher = new IndexSearcher(writeableReader);        
+                                hits = writeableSearcher.search(query);
+                                if (hits.length() > 0)
+                                {
+                                    for (int i = 0; i < hits.length(); i++)
+                                    {
+                                        Document doc = hits.doc(i);
+                                        // Exclude all containers except the root (which is also a node!)
+                                        Field path = doc.getField("PATH");
+                                        if (path == null || path.stringValue().length() == 0)
+                                        {
+                                            writeableReader.deleteDocument(hits.id(i));
+                                            invalidIndexes.add(key);
+                                            // There should only be one thing to
+                                            // delete
+                                            // break;
+                                        }
+                                    }
+                                }
+                                writeableSearcher.close();
+                            }
+                            else
+                            {
+                                int deletedCount = 0;
+                                try
+                                {
+                                    deletedCount = writeableReader.deleteDocuments(new Term("ID", stringRef));
+                                }
+                                catch (IOException ioe)
+                                {
+                                    if (s_logger.isDebugEnabled())
+                                    {
+                                        s_logger.debug("IO Error for " + key);
+                                        throw ioe;
+                                    }
+                                }
+                                if (deletedCount > 0)
+                                {
+                                    if (s_logger.isDebugEnabled())
+                                    {
+                                        s_logger.debug("Deleted " + deletedCount + " from " + key + " for id " + stringRef + " remaining docs " + writeableReader.numDocs());
+                                    }
+                                    invalidIndexes.add(key);
+                                }
+                            }
+                        }
+                    }
+                }
+                finally
+                {
+                    searcher.close();
+                }    
+            }
+            if (!containerDeletions.isEmpty())
+            {
+                IndexReader reader = getReferenceCountingIndexReader(key);
+                Searcher searcher = new IndexSearcher(reader);
+                try
+                {
+                    for (String stringRef : deletions)
+                    {
+                        TermQuery query = new TermQuery(new Term("ANCESTOR", stringRef));
+                        Hits hits = searcher.search(query);
+                        if (hits.length() > 0)
+                        {
+                            IndexReader writeableReader = readers.get(key);
+                            if (writeableReader == null)
+                            {
+                                File location = new File(indexDirectory, key).getCanonicalFile();
+                                if (IndexReader.indexExists(location))
+                                {
+                                    writeableReader = IndexReader.open(location);
+                                }
+                                else
+                                {
+                                    continue;
+                                }
+                                readers.put(key, writeableReader);
+                            }
+
+                            int deletedCount = 0;
+                            try
+                            {
+                                deletedCount = writeableReader.deleteDocuments(new Term("ANCESTOR", stringRef));
+                            }
+                            catch (IOException ioe)
+                            {
+                                if (s_logger.isDebugEnabled())
+                                {
+                                    s_logger.debug("IO Error for " + key);
+                                    throw ioe;
+                                }
+                            }
+                            if (deletedCount > 0)
+                            {
+                                if (s_logger.isDebugEnabled())
+                                {
+                                    s_logger.debug("Deleted " + deletedCount + " from " + key + " for id " + stringRef + " remaining docs " + writeableReader.numDocs());
+                                }
+                                invalidIndexes.add(key);
+                            }
+                        }
+                    }
+                }
+                finally
+                {
+                    searcher.close();
+                }    
+            }
+        }
+
+        /**
+         * Apply the deletions using all the merge workers. Each index or delta is given to one worker, which applies the
+         * deletions of all the deltas that follow it. Deletions may be applied in any order, so this gives the same
+         * result as applying them one delta at a time.
+         */
+        private void applyDeletionsConcurrently(LinkedHashMap<String, IndexEntry> toDelete, LinkedHashMap<String, IndexEntry> indexes,
+                Map<String, IndexReader> readers, Set<String> invalidIndexes) throws IOException
+        {
+            Map<String, Set<String>> deletions = new HashMap<String, Set<String>>();
+            Map<String, Set<String>> containerDeletions = new HashMap<String, Set<String>>();
+            for (IndexEntry currentDelete : toDelete.values())
+            {
+                deletions.put(currentDelete.getName(), getDeletions(currentDelete.getName(), INDEX_INFO_DELETIONS));
+                containerDeletions.put(currentDelete.getName(), getDeletions(currentDelete.getName(), INDEX_INFO_CONTAINER_DELETIONS));
+            }
+
+            final ConcurrentLinkedQueue<DeletionWork> work = new ConcurrentLinkedQueue<DeletionWork>();
+            List<IndexEntry> deltas = new ArrayList<IndexEntry>(toDelete.values());
+            for (String key : indexes.keySet())
+            {
+                work.add(new DeletionWork(key, deltas, deletions, containerDeletions, readers, invalidIndexes));
+            }
+            for (int i = 0; i < deltas.size() - 1; i++)
+            {
+                work.add(new DeletionWork(deltas.get(i).getName(), deltas.subList(i + 1, deltas.size()), deletions, containerDeletions, readers, invalidIndexes));
+            }
+
+            // The workers only wait for work that has been started, so this can't be held up by a busy thread pool
+            final AtomicInteger remaining = new AtomicInteger(work.size());
+            final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+            int helpers = Math.min(mergers.size(), work.size()) - 1;
+            for (int i = 0; i < helpers; i++)
+            {
+                threadPoolExecutor.execute(new Runnable()
+                {
+                    public void run()
+                    {
+                        doDeletionWork(work, remaining, failure);
+                    }
+                });
+            }
+            doDeletionWork(work, remaining, failure);
+            synchronized (remaining)
+            {
+                while (remaining.get() > 0)
+                {
+                    try
+                    {
+                        remaining.wait();
+                    }
+                    catch (InterruptedException e)
+                    {
+                    }
+                }
+            }
+
+            Throwable t = failure.get();
+            if (t instanceof IOException)
+            {
+                throw (IOException) t;
+            }
+            else if (t instanceof RuntimeException)
+            {
+                throw (RuntimeException) t;
+            }
+            else if (t instanceof Error)
+            {
+                throw (Error) t;
+            }
+            else if (t != null)
+            {
+                throw new IndexerException("Failed to apply deletions", t);
+            }
+        }
+
+        private void doDeletionWork(ConcurrentLinkedQueue<DeletionWork> work, AtomicInteger remaining, AtomicReference<Throwable> failure)
+        {
+            DeletionWork next;
+            while ((next = work.poll()) != null)
+            {
+                try
+                {
+                    if (failure.get() == null)
+                    {
+                        next.apply();
+                    }
+                }
+                catch (Throwable t)
+                {
+                    failure.compareAndSet(null, t);
+                }
+                finally
+                {
+                    if (remaining.decrementAndGet() == 0)
+                    {
+                        synchronized (remaining)
+                        {
+                            remaining.notifyAll();
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * The deletions from a run of deltas to be applied to one index or delta
+         */
+        private class DeletionWork
+        {
+            private final String key;
+            private final List<IndexEntry> deltas;
+            private final Map<String, Set<String>> deletions;
+            private final Map<String, Set<String>> containerDeletions;
+            private final Map<String, IndexReader> readers;
+            private final Set<String> invalidIndexes;
+
+            DeletionWork(String key, List<IndexEntry> deltas, Map<String, Set<String>> deletions, Map<String, Set<String>> containerDeletions,
+                    Map<String, IndexReader> readers, Set<String> invalidIndexes)
+            {
+                this.key = key;
+                this.deltas = deltas;
+                this.deletions = deletions;
+                this.containerDeletions = containerDeletions;
+                this.readers = readers;
+                this.invalidIndexes = invalidIndexes;
+            }
+
+            void apply() throws IOException
+            {
+                for (IndexEntry currentDelete : deltas)
+                {
+                    String name = currentDelete.getName();
+                    applyDeletions(key, currentDelete, deletions.get(name), containerDeletions.get(name), readers, invalidIndexes);
+                }
+            }
         }
 
         void mergeIndexes() throws IOException
@@ -4140,6 +4399,7 @@ public class IndexInfo implements IndexMonitor
             {
                 s_logger.debug("Merging...");
             }
+            long start = System.nanoTime();
 
             final LinkedHashMap<String, IndexEntry> toMerge;
 
@@ -4152,19 +4412,30 @@ public class IndexInfo implements IndexMonitor
                     {
                         LinkedHashMap<String, IndexEntry> set = new LinkedHashMap<String, IndexEntry>();
 
-                        for (IndexEntry entry : indexEntries.values())
+                        if (mergers.size() > 1)
                         {
-                            if ((entry.getType() == IndexType.INDEX) && (entry.getStatus() == TransactionStatus.MERGE))
+                            // Other merges may be running over other committed indexes
+                            if (decideMergeAction() != MergeAction.MERGE_INDEX)
                             {
                                 return set;
                             }
-                            if ((entry.getType() == IndexType.INDEX) && (entry.getStatus() == TransactionStatus.MERGE_TARGET))
-                            {
-                                return set;
-                            }
-                            if ((entry.getType() == IndexType.DELTA) && (entry.getStatus() == TransactionStatus.COMMITTED_DELETING))
+                        }
+                        else
+                        {
+                            for (IndexEntry entry : indexEntries.values())
                             {
-                                return set;
+                                if ((entry.getType() == IndexType.INDEX) && (entry.getStatus() == TransactionStatus.MERGE))
+                                {
+                                    return set;
+                                }
+                                if ((entry.getType() == IndexType.INDEX) && (entry.getStatus() == TransactionStatus.MERGE_TARGET))
+                                {
+                                    return set;
+                                }
+                                if ((entry.getType() == IndexType.DELTA) && (entry.getStatus() == TransactionStatus.COMMITTED_DELETING))
+                                {
+                                    return set;
+                                }
                             }
                         }
 
@@ -4175,9 +4446,18 @@ public class IndexInfo implements IndexMonitor
                             {
                                 mergeList.add(entry);
                             }
+                            else if ((entry.getStatus() == TransactionStatus.MERGE) || (entry.getStatus() == TransactionStatus.MERGE_TARGET))
+                            {
+                                // Merge the indexes after any merge in progress, so that documents stay in order
+                                mergeList.clear();
+                            }
                         }
 
                         int position = findMergeIndex(1, mergerMaxMergeDocs, mergerTargetIndexes, mergeList);
+                        if (position < 0)
+                        {
+                            return set;
+                        }
                         String firstMergeId = mergeList.get(position).getName();
 
                         long count = 0;
@@ -4185,6 +4465,7 @@ public class IndexInfo implements IndexMonitor
                         if (position >= 0)
                         {
                             guid = GUID.generate();
+                            currentMergeId = guid;
                             for (int i = position; i < mergeList.size(); i++)
                             {
                                 IndexEntry entry = mergeList.get(i);
@@ -4402,6 +4683,9 @@ public class IndexInfo implements IndexMonitor
                 releaseWriteLock();
             }
 
+            currentMergeId = null;
+            recordMergeDuration(start);
+
             if (s_logger.isDebugEnabled())
             {
                 s_logger.debug("..done merging");
@@ -4582,6 +4866,116 @@ public class IndexInfo implements IndexMonitor
         }
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.alfresco.repo.search.impl.lucene.index.IndexMonitor#getMergeBacklog()
+     */
+    public int getMergeBacklog()
+    {
+        getReadLock();
+        try
+        {
+            int overlays = 0;
+            int committedIndexes = 0;
+            for (IndexEntry entry : indexEntries.values())
+            {
+                if (entry.getType() == IndexType.DELTA)
+                {
+                    if ((entry.getStatus() == TransactionStatus.COMMITTED) || (entry.getStatus() == TransactionStatus.COMMITTED_DELETING))
+                    {
+                        overlays++;
+                    }
+                }
+                else if ((entry.getType() == IndexType.INDEX) && (entry.getStatus() == TransactionStatus.COMMITTED))
+                {
+                    committedIndexes++;
+                }
+            }
+            return Math.max(0, overlays - mergerTargetOverlays) + Math.max(0, committedIndexes - mergerTargetIndexes);
+        }
+        finally
+        {
+            releaseReadLock();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.alfresco.repo.search.impl.lucene.index.IndexMonitor#getActiveMergeCount()
+     */
+    public int getActiveMergeCount()
+    {
+        getReadLock();
+        try
+        {
+            int count = 0;
+            for (IndexEntry entry : indexEntries.values())
+            {
+                if (entry.getStatus() == TransactionStatus.MERGE_TARGET)
+                {
+                    count++;
+                }
+            }
+            return count;
+        }
+        finally
+        {
+            releaseReadLock();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.alfresco.repo.search.impl.lucene.index.IndexMonitor#getThrottleCount()
+     */
+    public int getThrottleCount()
+    {
+        return throttleCount.get();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.alfresco.repo.search.impl.lucene.index.IndexMonitor#getThrottleTime()
+     */
+    public long getThrottleTime()
+    {
+        return throttleTimeNanos.get() / 1000000L;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.alfresco.repo.search.impl.lucene.index.IndexMonitor#getRecentMergeDurations()
+     */
+    public List<Long> getRecentMergeDurations()
+    {
+        synchronized (recentMergeDurations)
+        {
+            return new ArrayList<Long>(recentMergeDurations);
+        }
+    }
+
+    private void recordMergeDuration(long startNanos)
+    {
+        long duration = (System.nanoTime() - startNanos) / 1000000L;
+        synchronized (recentMergeDurations)
+        {
+            recentMergeDurations.addLast(duration);
+            if (recentMergeDurations.size() > MAX_RECENT_MERGE_DURATIONS)
+            {
+                recentMergeDurations.removeFirst();
+            }
+        }
+        if (s_logger.isDebugEnabled())
+        {
+            s_logger.debug("Merge took " + duration + " ms");
+        }
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -4757,6 +5151,14 @@ public class IndexInfo implements IndexMonitor
         }
     }
 
+    private void scheduleMergers()
+    {
+        for (Merger worker : mergers)
+        {
+            worker.schedule();
+        }
+    }
+
     interface Schedulable
     {
         void schedule();
@@ -23,20 +23,27 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import junit.framework.TestCase;
 
+import org.alfresco.repo.search.impl.lucene.ADMLuceneIndexerAndSearcherFactory;
 import org.alfresco.repo.search.impl.lucene.analysis.AlfrescoStandardAnalyser;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.cmr.repository.StoreRef;
 import org.alfresco.util.GUID;
 import org.alfresco.util.TempFileProvider;
+import org.alfresco.util.TraceableThreadFactory;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.TermDocs;
+import org.springframework.context.support.StaticApplicationContext;
 
 public class IndexInfoTest extends TestCase
 {
@@ -639,6 +646,73 @@ public static final String[] UPDATE_LIST_2 = { "alpha2", "bravo2", "charlie2", "
         }
     }
 
+    public void testMultiThreadedCreateAndSearchWithConcurrentMerging() throws Exception
+    {
+        System.setProperty("disableLuceneLocks", "true");
+
+        File tempLocation = TempFileProvider.getTempDir();
+        File testArea = new File(tempLocation, "IndexInfoTest");
+        File testDir = new File(testArea, "" + System.currentTimeMillis());
+
+        // Small targets so that there is plenty of merging and throttling
+        StaticApplicationContext ctx = new StaticApplicationContext();
+        ctx.refresh();
+        ADMLuceneIndexerAndSearcherFactory config = new ADMLuceneIndexerAndSearcherFactory();
+        config.setApplicationContext(ctx);
+        config.setIndexRootLocation(testArea.getAbsolutePath());
+        config.setThreadPoolExecutor(new ThreadPoolExecutor(4, 4, 90, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new TraceableThreadFactory(), new ThreadPoolExecutor.CallerRunsPolicy()));
+        config.setMergerTargetIndexCount(2);
+        config.setMergerTargetOverlayCount(2);
+        config.setMergerTargetOverlaysBlockingFactor(1);
+        config.setMergerConcurrency(3);
+        final IndexInfo ii = IndexInfo.getIndexInfo(testDir, config);
+
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread.UncaughtExceptionHandler handler = new Thread.UncaughtExceptionHandler()
+        {
+            public void uncaughtException(Thread t, Throwable e)
+            {
+                failure.compareAndSet(null, e);
+            }
+        };
+        Thread thread1 = new Thread(new Test(ii, CREATE_LIST, UPDATE_LIST));
+        Thread thread2 = new Thread(new Test(ii, CREATE_LIST_2, UPDATE_LIST_2));
+        thread1.setUncaughtExceptionHandler(handler);
+        thread2.setUncaughtExceptionHandler(handler);
+        thread1.start();
+        thread2.start();
+        thread1.join();
+        thread2.join();
+        assertNull("Writer failed: " + failure.get(), failure.get());
+
+        for (int i = 0; i < 500 && (ii.getMergeBacklog() > 0 || ii.getActiveMergeCount() > 0); i++)
+        {
+            Thread.sleep(20);
+        }
+        assertEquals(ii.getStatusSnapshot().toString(), 0, ii.getMergeBacklog());
+        assertFalse(ii.getRecentMergeDurations().isEmpty());
+
+        // Only the updates are left
+        IndexReader reader = ii.getMainIndexReferenceCountingReadOnlyIndexReader();
+        try
+        {
+            assertEquals(UPDATE_LIST.length + UPDATE_LIST_2.length, reader.numDocs());
+            for (String[] words : new String[][] { UPDATE_LIST, UPDATE_LIST_2 })
+            {
+                for (String word : words)
+                {
+                    TermDocs tds = reader.termDocs(new Term("TEXT", word));
+                    assertTrue(word, tds.next());
+                    tds.close();
+                }
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
     public static class Test implements Runnable
     {
         String[] create;
@@ -19,6 +19,7 @@
 package org.alfresco.repo.search.impl.lucene.index;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 
 import org.springframework.context.ApplicationListener;
@@ -91,6 +92,42 @@ public interface IndexMonitor
      */
     public int getNumberOfIndexedFields() throws IOException;
 
+    /**
+     * Gets the amount of merge work waiting to be done. This is the number of committed overlays over the target overlay
+     * count plus the number of committed indexes over the target index count.
+     * 
+     * @return the merge backlog
+     */
+    public int getMergeBacklog();
+
+    /**
+     * Gets the number of index merges in progress.
+     * 
+     * @return the number of index merges in progress
+     */
+    public int getActiveMergeCount();
+
+    /**
+     * Gets the number of times that writers have been held up waiting for overlays to be merged.
+     * 
+     * @return the number of times that writers have been throttled
+     */
+    public int getThrottleCount();
+
+    /**
+     * Gets the total time that writers have been held up waiting for overlays to be merged.
+     * 
+     * @return the total throttle time in milliseconds
+     */
+    public long getThrottleTime();
+
+    /**
+     * Gets the durations of the most recent index merges and deletion applications, oldest first.
+     * 
+     * @return the recent merge durations in milliseconds
+     */
+    public List<Long> getRecentMergeDurations();
+
     /**
      * Registers a listener for events on this index.
      * 
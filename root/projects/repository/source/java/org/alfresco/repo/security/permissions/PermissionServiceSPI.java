@@ -18,6 +18,7 @@
  */
 package org.alfresco.repo.security.permissions;
 
+import java.util.List;
 import java.util.Set;
 
 import org.alfresco.service.cmr.repository.NodeRef;
@@ -151,4 +152,14 @@ public interface PermissionServiceSPI extends PermissionService
      * @return - the node permission entry
      */
     public NodePermissionEntry getSetPermissions(StoreRef storeRef);
+    
+    /**
+     * Bulk form of {@link #hasPermission(NodeRef, String) hasPermission(nodeRef, READ)}, giving the same
+     * answer for each node.  The ACL IDs of the nodes are fetched together and each distinct ACL is evaluated
+     * once, so the cost depends on the number of ACLs rather than the number of nodes.
+     * 
+     * @param nodeRefs the nodes to check
+     * @return the given nodes that can be read by the current user, in the given order
+     */
+    public List<NodeRef> filterByReadPermission(List<NodeRef> nodeRefs);
 }
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.repo.security.permissions.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.security.permissions.PermissionServiceSPI;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.model.FileFolderService;
+import org.alfresco.service.cmr.model.FileInfo;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.security.AccessStatus;
+import org.alfresco.service.cmr.security.MutableAuthenticationService;
+import org.alfresco.service.cmr.security.PermissionService;
+import org.alfresco.service.cmr.security.PersonService;
+import org.alfresco.util.ApplicationContextHelper;
+import org.alfresco.util.GUID;
+import org.alfresco.util.PropertyMap;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.context.ApplicationContext;
+
+/**
+ * Compares the per-node read check against the bulk read filter for folders of 1000 and 10000
+ * children, where every tenth child has its own ACL.  The page timings of a folder listing through
+ * the public services are also reported.
+ * <p>
+ * Note that this test is not designed to validate performance figures, but is
+ * rather a handy tool for doing benchmarking.  It is therefore not named <i>*Test</i> as is the
+ * pattern for getting tests run by the continuous build.
+ *
+ * @author agent
+ * @since 4.0
+ */
+public class BulkReadPermissionPerformanceTester extends TestCase
+{
+    private static Log logger = LogFactory.getLog(BulkReadPermissionPerformanceTester.class);
+
+    private static ApplicationContext ctx = ApplicationContextHelper.getApplicationContext();
+
+    private static final int PAGE_SIZE = 100;
+    private static final int RUNS = 5;
+
+    private RetryingTransactionHelper retryingTransactionHelper;
+    private NodeService nodeService;
+    private PermissionServiceSPI permissionServiceImpl;
+    private PermissionService permissionService;
+    private FileFolderService fileFolderService;
+    private MutableAuthenticationService authenticationService;
+    private PersonService personService;
+    private String userName;
+
+    @Override
+    public void setUp() throws Exception
+    {
+        ServiceRegistry serviceRegistry = (ServiceRegistry) ctx.getBean(ServiceRegistry.SERVICE_REGISTRY);
+        retryingTransactionHelper = (RetryingTransactionHelper) ctx.getBean("retryingTransactionHelper");
+        nodeService = (NodeService) ctx.getBean("nodeService");
+        permissionServiceImpl = (PermissionServiceSPI) ctx.getBean("permissionServiceImpl");
+        permissionService = serviceRegistry.getPermissionService();
+        fileFolderService = serviceRegistry.getFileFolderService();
+        authenticationService = serviceRegistry.getAuthenticationService();
+        personService = serviceRegistry.getPersonService();
+
+        AuthenticationUtil.setFullyAuthenticatedUser(AuthenticationUtil.getAdminUserName());
+        userName = "bulkread-" + GUID.generate();
+        retryingTransactionHelper.doInTransaction(new RetryingTransactionCallback<Void>()
+        {
+            public Void execute() throws Throwable
+            {
+                authenticationService.createAuthentication(userName, "password".toCharArray());
+                PropertyMap personProps = new PropertyMap();
+                personProps.put(ContentModel.PROP_USERNAME, userName);
+                personService.createPerson(personProps);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void tearDown() throws Exception
+    {
+        AuthenticationUtil.clearCurrentSecurityContext();
+    }
+
+    public void test1000() throws Exception
+    {
+        run(1000);
+    }
+
+    public void test10000() throws Exception
+    {
+        run(10000);
+    }
+
+    /**
+     * Creates a folder readable by the test user in which every tenth child has inheritance
+     * turned off and is therefore not readable
+     */
+    private NodeRef createFolder(final int childCount)
+    {
+        AuthenticationUtil.setFullyAuthenticatedUser(AuthenticationUtil.getAdminUserName());
+        return retryingTransactionHelper.doInTransaction(new RetryingTransactionCallback<NodeRef>()
+        {
+            public NodeRef execute() throws Throwable
+            {
+                StoreRef storeRef = nodeService.createStore(StoreRef.PROTOCOL_WORKSPACE, "BulkRead-" + GUID.generate());
+                NodeRef rootNodeRef = nodeService.getRootNode(storeRef);
+                NodeRef folderRef = fileFolderService.create(rootNodeRef, "Folder", ContentModel.TYPE_FOLDER).getNodeRef();
+                permissionService.setPermission(folderRef, userName, PermissionService.READ, true);
+                for (int i = 0; i < childCount; i++)
+                {
+                    NodeRef childRef = fileFolderService.create(folderRef, "Child-" + i, ContentModel.TYPE_CONTENT).getNodeRef();
+                    if (i % 10 == 0)
+                    {
+                        permissionService.setInheritParentPermissions(childRef, false);
+                    }
+                }
+                return folderRef;
+            }
+        });
+    }
+
+    private void run(int childCount)
+    {
+        final NodeRef folderRef = createFolder(childCount);
+        final List<NodeRef> childRefs = retryingTransactionHelper.doInTransaction(new RetryingTransactionCallback<List<NodeRef>>()
+        {
+            public List<NodeRef> execute() throws Throwable
+            {
+                List<NodeRef> childRefs = new ArrayList<NodeRef>();
+                for (FileInfo fileInfo : fileFolderService.list(folderRef))
+                {
+                    childRefs.add(fileInfo.getNodeRef());
+                }
+                return childRefs;
+            }
+        }, true);
+
+        AuthenticationUtil.setFullyAuthenticatedUser(userName);
+        for (int run = 0; run < RUNS; run++)
+        {
+            long perNode = retryingTransactionHelper.doInTransaction(new RetryingTransactionCallback<Long>()
+            {
+                public Long execute() throws Throwable
+                {
+                    long start = System.nanoTime();
+                    int readable = 0;
+                    for (NodeRef childRef : childRefs)
+                    {
+                        if (permissionServiceImpl.hasPermission(childRef, PermissionService.READ) == AccessStatus.ALLOWED)
+                        {
+                            readable++;
+                        }
+                    }
+                    assertEquals(childRefs.size() - childRefs.size() / 10, readable);
+                    return System.nanoTime() - start;
+                }
+            }, true);
+            long bulk = retryingTransactionHelper.doInTransaction(new RetryingTransactionCallback<Long>()
+            {
+                public Long execute() throws Throwable
+                {
+                    long start = System.nanoTime();
+                    int readable = 0;
+                    for (int i = 0; i < childRefs.size(); i += PAGE_SIZE)
+                    {
+                        List<NodeRef> page = childRefs.subList(i, Math.min(childRefs.size(), i + PAGE_SIZE));
+                        readable += permissionServiceImpl.filterByReadPermission(page).size();
+                    }
+                    assertEquals(childRefs.size() - childRefs.size() / 10, readable);
+                    return System.nanoTime() - start;
+                }
+            }, true);
+            long listing = retryingTransactionHelper.doInTransaction(new RetryingTransactionCallback<Long>()
+            {
+                public Long execute() throws Throwable
+                {
+                    long start = System.nanoTime();
+                    fileFolderService.list(folderRef);
+                    return System.nanoTime() - start;
+                }
+            }, true);
+            int pages = (childRefs.size() + PAGE_SIZE - 1) / PAGE_SIZE;
+            logger.debug(
+                    "Read checks on " + childRefs.size() + " children (run " + run + "): \n" +
+                    "   Per node:         " + (perNode / 1000000L) + "ms (" + (perNode / pages / 1000L) + "us per page of " + PAGE_SIZE + ")\n" +
+                    "   Bulk:             " + (bulk / 1000000L) + "ms (" + (bulk / pages / 1000L) + "us per page of " + PAGE_SIZE + ")\n" +
+                    "   Folder listing:   " + (listing / 1000000L) + "ms");
+        }
+    }
+}
@@ -19,12 +19,15 @@
 package org.alfresco.repo.security.permissions.impl;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 import net.sf.acegisecurity.Authentication;
 import net.sf.acegisecurity.GrantedAuthority;
@@ -34,6 +37,7 @@ import org.alfresco.model.ContentModel;
 import org.alfresco.repo.avm.AVMNodeConverter;
 import org.alfresco.repo.avm.AVMRepository;
 import org.alfresco.repo.cache.SimpleCache;
+import org.alfresco.repo.domain.node.NodeDAO;
 import org.alfresco.repo.domain.permissions.AclDAO;
 import org.alfresco.repo.policy.JavaBehaviour;
 import org.alfresco.repo.policy.PolicyComponent;
@@ -109,6 +113,11 @@ public class PermissionServiceImpl extends AbstractLifecycleBean implements Perm
      */
     private NodeService nodeService;
 
+    /*
+     * Access to bulk node data
+     */
+    private NodeDAO nodeDAO;
+
     /*
      * Access to the tenant service
      */
@@ -240,6 +249,17 @@ public class PermissionServiceImpl extends AbstractLifecycleBean implements Perm
         this.aclDaoComponent = aclDaoComponent;
     }
 
+    /**
+     * Set the node DAO used to fetch the ACLs of many nodes at once.  If not set, bulk
+     * permission checks are done one node at a time.
+     * 
+     * @param nodeDAO
+     */
+    public void setNodeDAO(NodeDAO nodeDAO)
+    {
+        this.nodeDAO = nodeDAO;
+    }
+
     /**
      * Set the permissions access cache.
      * 
@@ -656,7 +676,9 @@ public class PermissionServiceImpl extends AbstractLifecycleBean implements Perm
             throw new IllegalStateException("Unauthenticated");
         }
 
-        Set<String> authorisations = getAuthorisations(auth, context);
+        Set<String> authorisations = getCoreAuthorisations(auth);
+        Set<String> dynamicAuthorisations = getDynamicAuthorities(auth, context, authorisations);
+        authorisations.addAll(dynamicAuthorisations);
 
         // If the node does not support the given permission there is no point
         // doing the test
@@ -690,6 +712,17 @@ public class PermissionServiceImpl extends AbstractLifecycleBean implements Perm
             permission = getAllPermissionReference();
         }
 
+        // The result can be shared by all nodes with the same ACL and node facts
+        Serializable key = generateKey(authorisations, dynamicAuthorisations, aclId, permission, context);
+        if (key != null)
+        {
+            AccessStatus status = accessCache.get(key);
+            if (status != null)
+            {
+                return status;
+            }
+        }
+
         boolean result;
         if (context.getStoreAcl() == null)
         {
@@ -703,19 +736,71 @@ public class PermissionServiceImpl extends AbstractLifecycleBean implements Perm
             result = aclTest.evaluate(authorisations, aclId, context) && aclTest.evaluate(storeAuthorisations, context.getStoreAcl(), context);
         }
         AccessStatus status = result ? AccessStatus.ALLOWED : AccessStatus.DENIED;
+        if (key != null)
+        {
+            accessCache.put(key, status);
+        }
         return status;
 
     }
 
     /**
-     * Control permissions cache - only used when we do old style permission evaluations 
+     * Key for an evaluation against an ACL.  Many nodes share the same ACL, so rather than the node the key holds
+     * the facts about the node that the evaluation depends on: its type, aspects and dynamic authorities.
+     * <p>
+     * The ACL change set is part of the key so that the key changes whenever the ACL does.  ACLs that belong to the
+     * change set of the current transaction can still be changed and are not cached.
+     * 
+     * @return the key or <tt>null</tt> if the evaluation must not be cached
+     */
+    private Serializable generateKey(Set<String> auths, Set<String> dynamicAuths, Long aclId, PermissionReference perm, PermissionContext context)
+    {
+        AccessControlList acl = aclDaoComponent.getAccessControlList(aclId);
+        if (acl == null)
+        {
+            return null;
+        }
+        Long aclChangeSetId = acl.getProperties().getAclChangeSetId();
+        if (aclChangeSetId == null || aclChangeSetId.equals(aclDaoComponent.getTransactionChangeSetId()))
+        {
+            return null;
+        }
+        ArrayList<Serializable> key = new ArrayList<Serializable>(10);
+        key.add(perm.toString());
+        // Key dynamic sets by username, as for node evaluations
+        if (auths instanceof AuthorityServiceImpl.UserAuthoritySet)
+        {
+            key.add((Serializable)Collections.singleton(((AuthorityServiceImpl.UserAuthoritySet)auths).getUsername()));
+            key.add(new TreeSet<String>(dynamicAuths));
+        }
+        else
+        {
+            key.add(new TreeSet<String>(auths));
+        }
+        key.add(aclId);
+        key.add(aclChangeSetId);
+        key.add(context.getType());
+        key.add(new HashSet<QName>(context.getAspects()));
+        key.add(context.getStoreAcl());
+        key.add(CacheType.ACL_PERMISSION);
+        return key;
+    }
+
+    /**
+     * Control permissions cache - used when we do old style permission evaluations 
      * - which should only be in DM stores where no permissions have been set 
+     * - and for evaluations against ACLs
      * 
      * @author andyh
      *
      */
     enum CacheType
     {
+        /**
+         * Cache evaluation against an ACL, shared between nodes
+         */
+        ACL_PERMISSION,
+
         /**
          * cache full check
          */
@@ -1053,8 +1138,151 @@ public class PermissionServiceImpl extends AbstractLifecycleBean implements Perm
             return AccessStatus.ALLOWED;
         }
 
-        // any dynamic authorities other than those defined in the default permissions model with full
-        // control or read permission force hasPermission check
+        if(isForceHasPermission())
+        {
+            return hasPermission(nodeRef, PermissionService.READ);
+        }
+
+        Long aclID = nodeService.getNodeAclId(nodeRef);
+        if(aclID == null)
+        {
+            // ACLID is null - need to call default permissions evaluation
+            // This will end up calling the old-style ACL code that walks up the ACL tree
+            status = hasPermission(nodeRef, getPermissionReference(null, PermissionService.READ));
+        }
+        else
+        {
+            status = (canRead(aclID) == AccessStatus.ALLOWED ||
+                    adminRead() == AccessStatus.ALLOWED ||
+                    ownerRead(runAsUser, nodeRef) == AccessStatus.ALLOWED) ? AccessStatus.ALLOWED : AccessStatus.DENIED;
+        }
+
+        return status;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The ACL readers are only used for nodes whose read permission depends on nothing but their ACL and owner.
+     * Other nodes, e.g. those of types or aspects with their own requirements for <b>Read</b>, are checked
+     * one at a time.
+     */
+    @Override
+    public List<NodeRef> filterByReadPermission(List<NodeRef> nodeRefs)
+    {
+        String runAsUser = AuthenticationUtil.getRunAsUser();
+        if (nodeDAO == null || runAsUser == null || AuthenticationUtil.isRunAsUserTheSystemUser() || isForceHasPermission())
+        {
+            List<NodeRef> readable = new ArrayList<NodeRef>(nodeRefs.size());
+            for (NodeRef nodeRef : nodeRefs)
+            {
+                if (hasPermission(nodeRef, PermissionService.READ) == AccessStatus.ALLOWED)
+                {
+                    readable.add(nodeRef);
+                }
+            }
+            return readable;
+        }
+
+        // Fetch all the ACL IDs in one go
+        List<NodeRef> storeNodeRefs = new ArrayList<NodeRef>(nodeRefs.size());
+        for (NodeRef nodeRef : nodeRefs)
+        {
+            storeNodeRefs.add(nodeRef == null ? null : tenantService.getName(nodeRef));
+        }
+        Map<NodeRef, Long> aclIds = nodeDAO.getNodeAclIds(storeNodeRefs);
+
+        // Evaluate each ACL once
+        PermissionReference read = getPermissionReference(PermissionService.READ);
+        Set<String> authorisations = getAuthorisations();
+        boolean admin = authorisations.contains(AuthenticationUtil.getAdminRoleName());
+        Map<Long, Boolean> readableAcls = new HashMap<Long, Boolean>(64);
+        Map<Pair<QName, Set<QName>>, Boolean> aclOnlyTypes = new HashMap<Pair<QName, Set<QName>>, Boolean>(16);
+        int nodeChecks = 0;
+        List<NodeRef> readable = new ArrayList<NodeRef>(nodeRefs.size());
+        for (int i = 0; i < nodeRefs.size(); i++)
+        {
+            NodeRef nodeRef = nodeRefs.get(i);
+            NodeRef storeNodeRef = storeNodeRefs.get(i);
+            boolean allowed;
+            if (nodeRef == null)
+            {
+                allowed = true;
+            }
+            else if (!aclIds.containsKey(storeNodeRef) && !isVersionNodeRef(nodeRef)
+                    && !nodeRef.getStoreRef().getProtocol().equals(StoreRef.PROTOCOL_AVM))
+            {
+                // Allow permissions for nodes that do not exist
+                allowed = true;
+            }
+            else
+            {
+                Long aclId = aclIds.get(storeNodeRef);
+                if (aclId != null && isReadAclOnly(aclId, storeNodeRef, read, aclOnlyTypes))
+                {
+                    Boolean aclReadable = readableAcls.get(aclId);
+                    if (aclReadable == null)
+                    {
+                        aclReadable = admin || canRead(aclId, authorisations) == AccessStatus.ALLOWED;
+                        readableAcls.put(aclId, aclReadable);
+                    }
+                    allowed = aclReadable || ownerRead(runAsUser, nodeRef) == AccessStatus.ALLOWED;
+                }
+                else
+                {
+                    allowed = hasPermission(nodeRef, read) == AccessStatus.ALLOWED;
+                    nodeChecks++;
+                }
+            }
+            if (allowed)
+            {
+                readable.add(nodeRef);
+            }
+        }
+        if (log.isDebugEnabled())
+        {
+            log.debug("Read permission: " + readable.size() + " of " + nodeRefs.size() + " nodes allowed using " +
+                    readableAcls.size() + " ACL evaluations and " + nodeChecks + " node checks");
+        }
+        return readable;
+    }
+
+    /**
+     * Checks if reading a node depends only on its ACL, so that the ACL readers give the same answer as
+     * {@link #hasPermission(NodeRef, PermissionReference)}.  This is not the case for old-style ACLs, or when
+     * the permission model has requirements for <b>Read</b> that are specific to the type or aspects of the node.
+     * 
+     * @param aclOnlyTypes      the answers for the combinations of type and aspects seen so far
+     */
+    private boolean isReadAclOnly(Long aclId, NodeRef nodeRef, PermissionReference read, Map<Pair<QName, Set<QName>>, Boolean> aclOnlyTypes)
+    {
+        AccessControlList acl = aclDaoComponent.getAccessControlList(aclId);
+        if (acl == null || acl.getProperties().getAclType() == null || acl.getProperties().getAclType() == ACLType.OLD)
+        {
+            return false;
+        }
+        QName typeQName = nodeService.getType(nodeRef);
+        Set<QName> aspectQNames = nodeService.getAspects(nodeRef);
+        Pair<QName, Set<QName>> typeKey = new Pair<QName, Set<QName>>(typeQName, aspectQNames);
+        Boolean aclOnly = aclOnlyTypes.get(typeKey);
+        if (aclOnly == null)
+        {
+            aclOnly = modelDAO.getAllPermissions(typeQName, aspectQNames).contains(read)
+                && modelDAO.getRequiredPermissions(read, typeQName, aspectQNames, RequiredPermission.On.NODE).equals(
+                        modelDAO.getUnconditionalRequiredPermissions(read, RequiredPermission.On.NODE))
+                && modelDAO.getRequiredPermissions(read, typeQName, aspectQNames, RequiredPermission.On.PARENT).isEmpty()
+                && modelDAO.getRequiredPermissions(read, typeQName, aspectQNames, RequiredPermission.On.CHILDREN).isEmpty();
+            aclOnlyTypes.put(typeKey, aclOnly);
+        }
+        return aclOnly;
+    }
+
+    /**
+     * Any dynamic authorities other than those defined in the default permissions model with full
+     * control or read permission force a full hasPermission check
+     */
+    private boolean isForceHasPermission()
+    {
         Boolean forceHasPermission = (Boolean)AlfrescoTransactionSupport.getResource("forceHasPermission");
         if(forceHasPermission == null)
         {
@@ -1075,27 +1303,7 @@ public class PermissionServiceImpl extends AbstractLifecycleBean implements Perm
             }
             AlfrescoTransactionSupport.bindResource("forceHasPermission", forceHasPermission);            
         }
-
-        if(forceHasPermission == Boolean.TRUE)
-        {
-            return hasPermission(nodeRef, PermissionService.READ);
-        }
-
-        Long aclID = nodeService.getNodeAclId(nodeRef);
-        if(aclID == null)
-        {
-            // ACLID is null - need to call default permissions evaluation
-            // This will end up calling the old-style ACL code that walks up the ACL tree
-            status = hasPermission(nodeRef, getPermissionReference(null, PermissionService.READ));
-        }
-        else
-        {
-            status = (canRead(aclID) == AccessStatus.ALLOWED ||
-                    adminRead() == AccessStatus.ALLOWED ||
-                    ownerRead(runAsUser, nodeRef) == AccessStatus.ALLOWED) ? AccessStatus.ALLOWED : AccessStatus.DENIED;
-        }
-
-        return status;
+        return forceHasPermission == Boolean.TRUE;
     }
 
     private AccessStatus adminRead()
@@ -1185,8 +1393,11 @@ public class PermissionServiceImpl extends AbstractLifecycleBean implements Perm
 
     private AccessStatus canRead(Long aclId)
     {
-        Set<String> authorities = getAuthorisations();
+        return canRead(aclId, getAuthorisations());
+    }
 
+    private AccessStatus canRead(Long aclId, Set<String> authorities)
+    {
         // test acl readers
         Set<String> aclReaders = getReaders(aclId);
 
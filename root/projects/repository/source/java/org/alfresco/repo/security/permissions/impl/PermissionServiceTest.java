@@ -18,9 +18,12 @@
  */
 package org.alfresco.repo.security.permissions.impl;
 
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import net.sf.acegisecurity.Authentication;
@@ -1122,6 +1125,42 @@ public class PermissionServiceTest extends AbstractPermissionTest
         assertTrue(permissionService.hasPermission(n2, getPermission(PermissionService.READ)) == AccessStatus.DENIED);
     }
 
+    public void testPermissionCacheSharedAcl()
+    {
+        runAs(AuthenticationUtil.getAdminUserName());
+
+        NodeRef n1 = nodeService.createNode(rootNodeRef, ContentModel.ASSOC_CHILDREN, QName.createQName("{namespace}one"), ContentModel.TYPE_FOLDER).getChildRef();
+        NodeRef owned = nodeService.createNode(n1, ContentModel.ASSOC_CONTAINS, QName.createQName("{namespace}owned"), ContentModel.TYPE_FOLDER).getChildRef();
+        NodeRef other = nodeService.createNode(n1, ContentModel.ASSOC_CONTAINS, QName.createQName("{namespace}other"), ContentModel.TYPE_FOLDER).getChildRef();
+        Map<QName, Serializable> ownerProps = new HashMap<QName, Serializable>();
+        ownerProps.put(ContentModel.PROP_OWNER, "andy");
+        nodeService.addAspect(owned, ContentModel.ASPECT_OWNABLE, ownerProps);
+        assertEquals(nodeService.getNodeAclId(owned), nodeService.getNodeAclId(other));
+
+        runAs("andy");
+
+        // Same ACL but the owner evaluation must not be shared
+        assertTrue(permissionService.hasPermission(owned, getPermission(PermissionService.WRITE)) == AccessStatus.ALLOWED);
+        assertTrue(permissionService.hasPermission(other, getPermission(PermissionService.WRITE)) == AccessStatus.DENIED);
+        assertTrue(permissionService.hasPermission(owned, getPermission(PermissionService.WRITE)) == AccessStatus.ALLOWED);
+        assertTrue(permissionService.hasPermission(other, getPermission(PermissionService.READ)) == AccessStatus.DENIED);
+
+        runAs(AuthenticationUtil.getAdminUserName());
+        permissionService.setPermission(new SimplePermissionEntry(n1, getPermission(PermissionService.READ), "andy", AccessStatus.ALLOWED));
+
+        runAs("andy");
+
+        assertTrue(permissionService.hasPermission(other, getPermission(PermissionService.READ)) == AccessStatus.ALLOWED);
+        assertTrue(permissionService.hasPermission(other, getPermission(PermissionService.WRITE)) == AccessStatus.DENIED);
+
+        runAs(AuthenticationUtil.getAdminUserName());
+        permissionService.deletePermission(new SimplePermissionEntry(n1, getPermission(PermissionService.READ), "andy", AccessStatus.ALLOWED));
+
+        runAs("andy");
+
+        assertTrue(permissionService.hasPermission(other, getPermission(PermissionService.READ)) == AccessStatus.DENIED);
+    }
+
     public void testSetInheritFalse()
     {
         runAs("andy");
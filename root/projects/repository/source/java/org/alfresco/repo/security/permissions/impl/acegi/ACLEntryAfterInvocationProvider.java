@@ -45,6 +45,8 @@ import org.alfresco.repo.security.permissions.PermissionCheckCollection;
 import org.alfresco.repo.security.permissions.PermissionCheckValue;
 import org.alfresco.repo.security.permissions.PermissionCheckedValue;
 import org.alfresco.repo.security.permissions.PermissionCheckedCollection.PermissionCheckedCollectionMixin;
+import org.alfresco.repo.security.permissions.PermissionReference;
+import org.alfresco.repo.security.permissions.PermissionServiceSPI;
 import org.alfresco.repo.security.permissions.impl.SimplePermissionReference;
 import org.alfresco.service.cmr.repository.ChildAssociationRef;
 import org.alfresco.service.cmr.repository.NodeRef;
@@ -865,6 +867,13 @@ public class ACLEntryAfterInvocationProvider implements AfterInvocationProvider,
         // Keep values explicitly
         List<Object> keepValues = new ArrayList<Object>(returnedObject.size());
         
+        // Plain read checks are done a chunk at a time so that each distinct ACL is only evaluated once
+        PermissionServiceSPI bulkPermissionService = getBulkReadPermissionService(supportedDefinitions);
+        Object[] bulkObjects = (bulkPermissionService == null) ? null : returnedObject.toArray();
+        Set<NodeRef> readableNodeRefs = null;
+        int bulkIndex = 0;
+        int bulkChunkEnd = 0;
+        
         for (Object nextObject : returnedObject)
         {
             // if the maximum result size or time has been exceeded, then we have to remove only
@@ -896,36 +905,20 @@ public class ACLEntryAfterInvocationProvider implements AfterInvocationProvider,
                 break;
             }
             
+            if (bulkPermissionService != null && bulkIndex == bulkChunkEnd)
+            {
+                bulkChunkEnd = Math.min(bulkObjects.length, bulkIndex + optimisePermissionsBulkFetchSize);
+                readableNodeRefs = getReadableNodeRefs(bulkPermissionService, bulkObjects, bulkIndex, bulkChunkEnd);
+            }
+            bulkIndex++;
+            
             boolean allowed = true;
             for (ConfigAttributeDefintion cad : supportedDefinitions)
             {
                 NodeRef testNodeRef = null;
                 if (cad.typeString.equals(AFTER_ACL_NODE))
                 {
-                    if (StoreRef.class.isAssignableFrom(nextObject.getClass()))
-                    {
-                        testNodeRef = nodeService.getRootNode((StoreRef) nextObject);
-                    }
-                    else if (NodeRef.class.isAssignableFrom(nextObject.getClass()))
-                    {
-                        testNodeRef = (NodeRef) nextObject;
-                    }
-                    else if (ChildAssociationRef.class.isAssignableFrom(nextObject.getClass()))
-                    {
-                        testNodeRef = ((ChildAssociationRef) nextObject).getChildRef();
-                    }
-                    else if (Pair.class.isAssignableFrom(nextObject.getClass()))
-                    {
-                        testNodeRef = (NodeRef) ((Pair)nextObject).getSecond();
-                    }
-                    else if (PermissionCheckValue.class.isAssignableFrom(nextObject.getClass()))
-                    {
-                        testNodeRef = ((PermissionCheckValue) nextObject).getNodeRef();
-                    }
-                    else
-                    {
-                        throw new ACLEntryVoterException("The specified parameter is not recognized: " + nextObject.getClass());
-                    }
+                    testNodeRef = getNodeRef(nextObject);
                 }
                 else if (cad.typeString.equals(AFTER_ACL_PARENT))
                 {
@@ -967,7 +960,15 @@ public class ACLEntryAfterInvocationProvider implements AfterInvocationProvider,
                     continue;                       // Continue to next ConfigAttributeDefintion
                 }
                 
-                if (allowed && (testNodeRef != null) && (permissionService.hasPermission(testNodeRef, cad.required.toString()) == AccessStatus.DENIED))
+                if (readableNodeRefs != null)
+                {
+                    if (!readableNodeRefs.contains(testNodeRef))
+                    {
+                        allowed = false;
+                        break;
+                    }
+                }
+                else if (allowed && (testNodeRef != null) && (permissionService.hasPermission(testNodeRef, cad.required.toString()) == AccessStatus.DENIED))
                 {
                     allowed = false;
                     break;                          // No point evaluating more ConfigAttributeDefintions
@@ -1005,6 +1006,73 @@ public class ACLEntryAfterInvocationProvider implements AfterInvocationProvider,
         return PermissionCheckedCollectionMixin.create(returnedObject, cutoff, checksRemaining, sizeOriginal);
     }
 
+    private NodeRef getNodeRef(Object nextObject)
+    {
+        if (StoreRef.class.isAssignableFrom(nextObject.getClass()))
+        {
+            return nodeService.getRootNode((StoreRef) nextObject);
+        }
+        else if (NodeRef.class.isAssignableFrom(nextObject.getClass()))
+        {
+            return (NodeRef) nextObject;
+        }
+        else if (ChildAssociationRef.class.isAssignableFrom(nextObject.getClass()))
+        {
+            return ((ChildAssociationRef) nextObject).getChildRef();
+        }
+        else if (Pair.class.isAssignableFrom(nextObject.getClass()))
+        {
+            return (NodeRef) ((Pair<?, ?>)nextObject).getSecond();
+        }
+        else if (PermissionCheckValue.class.isAssignableFrom(nextObject.getClass()))
+        {
+            return ((PermissionCheckValue) nextObject).getNodeRef();
+        }
+        else
+        {
+            throw new ACLEntryVoterException("The specified parameter is not recognized: " + nextObject.getClass());
+        }
+    }
+
+    /**
+     * Bulk read checks are possible when the optimised read checks are on and every definition
+     * is a read check on the returned node itself.  The bulk checks give the same answers as the
+     * per-node {@link PermissionService#hasPermission(NodeRef, String)} checks.
+     * 
+     * @return the permission service to do bulk read checks or <tt>null</tt> if they can't be used
+     */
+    private PermissionServiceSPI getBulkReadPermissionService(List<ConfigAttributeDefintion> supportedDefinitions)
+    {
+        if (!optimisePermissionsCheck || optimisePermissionsBulkFetchSize <= 0 || !(permissionService instanceof PermissionServiceSPI))
+        {
+            return null;
+        }
+        PermissionServiceSPI permissionServiceSPI = (PermissionServiceSPI) permissionService;
+        PermissionReference read = permissionServiceSPI.getPermissionReference(PermissionService.READ);
+        for (ConfigAttributeDefintion cad : supportedDefinitions)
+        {
+            if (!cad.typeString.equals(AFTER_ACL_NODE) || !cad.required.equals(read))
+            {
+                return null;
+            }
+        }
+        return permissionServiceSPI;
+    }
+
+    private Set<NodeRef> getReadableNodeRefs(PermissionServiceSPI permissionServiceSPI, Object[] objects, int start, int end)
+    {
+        List<NodeRef> nodeRefs = new ArrayList<NodeRef>(end - start);
+        for (int i = start; i < end; i++)
+        {
+            NodeRef nodeRef = getNodeRef(objects[i]);
+            if (nodeRef != null)
+            {
+                nodeRefs.add(nodeRef);
+            }
+        }
+        return new HashSet<NodeRef>(permissionServiceSPI.filterByReadPermission(nodeRefs));
+    }
+
     @SuppressWarnings("rawtypes")
     private Object[] decide(Authentication authentication, Object object, ConfigAttributeDefinition config, Object[] returnedObject) throws AccessDeniedException
     {
@@ -18,9 +18,11 @@
  */
 package org.alfresco.repo.security.permissions.impl.acegi;
 
+import java.io.Serializable;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
@@ -781,6 +783,82 @@ public class ACLEntryAfterInvocationTest extends AbstractPermissionTest
 
     }
 
+    /**
+     * The optimised read checks must give the same answers as the per-node checks
+     */
+    public void testOptimisedReadChecksMatchPerNodeChecks() throws Exception
+    {
+        runAs(AuthenticationUtil.getAdminUserName());
+        permissionService.setPermission(new SimplePermissionEntry(rootNodeRef, getPermission(PermissionService.READ), "andy", AccessStatus.ALLOWED));
+        List<NodeRef> nodeRefList = new ArrayList<NodeRef>();
+        for (int i = 0; i < 12; i++)
+        {
+            NodeRef nodeRef = nodeService.createNode(rootNodeRef, ContentModel.ASSOC_CHILDREN,
+                    QName.createQName("{namespace}n" + i), (i % 2 == 0) ? ContentModel.TYPE_FOLDER : ContentModel.TYPE_CONTENT).getChildRef();
+            if (i % 3 == 0)
+            {
+                permissionService.setInheritParentPermissions(nodeRef, false);
+            }
+            if (i % 4 == 0)
+            {
+                permissionService.setPermission(new SimplePermissionEntry(nodeRef, getPermission(PermissionService.READ), "andy", AccessStatus.DENIED));
+            }
+            if (i == 9)
+            {
+                // Only readable as the owner
+                nodeService.addAspect(nodeRef, ContentModel.ASPECT_OWNABLE,
+                        Collections.<QName, Serializable>singletonMap(ContentModel.PROP_OWNER, "andy"));
+            }
+            nodeRefList.add(nodeRef);
+        }
+        nodeRefList.add(systemNodeRef);
+        List<ChildAssociationRef> carList = new ArrayList<ChildAssociationRef>();
+        for (NodeRef nodeRef : nodeRefList)
+        {
+            carList.add(nodeService.getPrimaryParent(nodeRef));
+        }
+        nodeRefList.add(new NodeRef("workspace://SpacesStore/noodle"));
+
+        runAs("andy");
+
+        Object o = new ClassWithMethods();
+        Method methodResultSet = o.getClass().getMethod("echoResultSet", new Class[] { ResultSet.class });
+        Method methodCollection = o.getClass().getMethod("echoCollection", new Class[] { Collection.class });
+        Method methodArray = o.getClass().getMethod("echoArray", new Class[] { Object[].class });
+
+        AdvisorAdapterRegistry advisorAdapterRegistry = GlobalAdvisorAdapterRegistry.getInstance();
+
+        ProxyFactory proxyFactory = new ProxyFactory();
+        proxyFactory.addAdvisor(advisorAdapterRegistry.wrap(new Interceptor("AFTER_ACL_NODE.sys:base.Read")));
+        proxyFactory.setTargetSource(new SingletonTargetSource(o));
+        Object perNodeProxy = proxyFactory.getProxy();
+
+        proxyFactory = new ProxyFactory();
+        proxyFactory.addAdvisor(advisorAdapterRegistry.wrap(new Interceptor("AFTER_ACL_NODE.sys:base.Read", true)));
+        proxyFactory.setTargetSource(new SingletonTargetSource(o));
+        Object optimisedProxy = proxyFactory.getProxy();
+
+        Collection<?> expected = (Collection<?>) methodCollection.invoke(perNodeProxy, new Object[] { nodeRefList });
+        assertTrue("Some nodes must be filtered out", expected.size() > 1 && expected.size() < nodeRefList.size());
+        assertTrue("The owner must be able to read", expected.contains(nodeRefList.get(9)));
+        assertEquals(new ArrayList<Object>(expected),
+                new ArrayList<Object>((Collection<?>) methodCollection.invoke(optimisedProxy, new Object[] { nodeRefList })));
+
+        expected = (Collection<?>) methodCollection.invoke(perNodeProxy, new Object[] { carList });
+        assertEquals(new ArrayList<Object>(expected),
+                new ArrayList<Object>((Collection<?>) methodCollection.invoke(optimisedProxy, new Object[] { carList })));
+
+        NodeRef[] nodeRefArray = nodeRefList.toArray(new NodeRef[] {});
+        assertEquals(
+                Arrays.asList((Object[]) methodArray.invoke(perNodeProxy, new Object[] { nodeRefArray })),
+                Arrays.asList((Object[]) methodArray.invoke(optimisedProxy, new Object[] { nodeRefArray })));
+
+        ResultSet rsIn = new ChildAssocRefResultSet(nodeService, nodeRefList.subList(0, nodeRefList.size() - 1), false);
+        ResultSet perNodeResultSet = (ResultSet) methodResultSet.invoke(perNodeProxy, new Object[] { rsIn });
+        ResultSet optimisedResultSet = (ResultSet) methodResultSet.invoke(optimisedProxy, new Object[] { rsIn });
+        assertEquals(perNodeResultSet.getNodeRefs(), optimisedResultSet.getNodeRefs());
+    }
+
     public void testResultSetFilterNone2() throws Exception
     {
         runAs(AuthenticationUtil.getAdminUserName());
@@ -952,6 +1030,13 @@ public class ACLEntryAfterInvocationTest extends AbstractPermissionTest
     public class Interceptor implements MethodInterceptor
     {
         ConfigAttributeDefinition cad = new ConfigAttributeDefinition();
+        boolean optimisePermissionsCheck;
+
+        Interceptor(final String config, boolean optimisePermissionsCheck)
+        {
+            this(config);
+            this.optimisePermissionsCheck = optimisePermissionsCheck;
+        }
 
         Interceptor(final String config)
         {
@@ -979,6 +1064,12 @@ public class ACLEntryAfterInvocationTest extends AbstractPermissionTest
             after.setNodeService(nodeService);
             after.setAuthenticationService(authenticationService);
             after.setUnfilteredFor(Collections.singleton("{ns}ln"));
+            if (optimisePermissionsCheck)
+            {
+                // Small chunks so that the bulk checks span several of them
+                after.setOptimisePermissionsCheck(true);
+                after.setOptimisePermissionsBulkFetchSize(5);
+            }
             after.afterPropertiesSet();
 
             Object returnObject = invocation.proceed();
@@ -20,6 +20,7 @@ package org.alfresco.repo.security.permissions.noop;
 
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.alfresco.repo.security.permissions.NodePermissionEntry;
@@ -265,6 +266,12 @@ public class PermissionServiceNOOPImpl implements PermissionServiceSPI
         return AccessStatus.ALLOWED;
     }
 
+    @Override
+    public List<NodeRef> filterByReadPermission(List<NodeRef> nodeRefs)
+    {
+        return nodeRefs;
+    }
+
     @Override
 	public Set<String> getAuthorisations()
 	{
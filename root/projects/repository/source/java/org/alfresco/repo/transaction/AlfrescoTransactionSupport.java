@@ -18,7 +18,6 @@
  */
 package org.alfresco.repo.transaction;
 
-import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -28,6 +27,7 @@ import java.util.Map;
 import java.util.Set;
 
 import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.repo.cache.CompactTransactionalCache;
 import org.alfresco.repo.cache.TransactionalCache;
 import org.alfresco.repo.node.integrity.IntegrityChecker;
 import org.alfresco.repo.search.impl.lucene.LuceneIndexerAndSearcher;
@@ -530,7 +530,8 @@ public abstract class AlfrescoTransactionSupport
         private final Set<IntegrityChecker> integrityCheckers;
         private final Set<LuceneIndexerAndSearcher> lucenes;
         private final LinkedHashSet<TransactionListener> listeners;
-        private final Set<TransactionalCache<Serializable, Object>> transactionalCaches;
+        /** {@link TransactionalCache} and {@link CompactTransactionalCache} instances */
+        private final Set<TransactionListener> transactionalCaches;
 //        private final Set<JGroupsEhCacheListener> jgroupsEhCacheListeners;
         private final Map<Object, Object> resources;
         
@@ -547,7 +548,7 @@ public abstract class AlfrescoTransactionSupport
             integrityCheckers = new HashSet<IntegrityChecker>(3);
             lucenes = new HashSet<LuceneIndexerAndSearcher>(3);
             listeners = new LinkedHashSet<TransactionListener>(5);
-            transactionalCaches = new HashSet<TransactionalCache<Serializable, Object>>(3);
+            transactionalCaches = new HashSet<TransactionListener>(3);
 //            jgroupsEhCacheListeners = new HashSet<JGroupsEhCacheListener>(3);
             resources = new HashMap<Object, Object>(17);
         }
@@ -593,14 +594,13 @@ public abstract class AlfrescoTransactionSupport
          * @return Returns a set of <tt>TransactionListener<tt> instances that will be called
          *      during end-of-transaction processing
          */
-        @SuppressWarnings("unchecked")
         public boolean addListener(TransactionListener listener)
         {
             ParameterCheck.mandatory("listener", listener);
             
-            if (listener instanceof TransactionalCache)
+            if (listener instanceof TransactionalCache || listener instanceof CompactTransactionalCache)
             {
-                return transactionalCaches.add((TransactionalCache<Serializable, Object>)listener);
+                return transactionalCaches.add(listener);
             }
 //            else if (listener instanceof JGroupsEhCacheListener)
 //            {
@@ -705,7 +705,7 @@ public abstract class AlfrescoTransactionSupport
             }
             
             // Flush the transactional caches
-            for (TransactionalCache<Serializable, Object> cache : transactionalCaches)
+            for (TransactionListener cache : transactionalCaches)
             {
                 cache.beforeCommit(readOnly);
             }
@@ -791,7 +791,7 @@ public abstract class AlfrescoTransactionSupport
             AlfrescoTransactionSupport.bindResource(RESOURCE_KEY_TXN_COMPLETING, Boolean.TRUE);
             
             // Clean up the transactional caches
-            for (TransactionalCache<Serializable, Object> cache : transactionalCaches)
+            for (TransactionListener cache : transactionalCaches)
             {
                 try
                 {
@@ -164,6 +164,13 @@ public class NodeServiceImpl implements NodeService, VersionModel
         return dbNodeService.exists(VersionUtil.convertNodeRef(nodeRef));
     }
 
+    /**
+     * Frozen nodes are not cached in bulk, so this does nothing.
+     */
+    public void preloadNodes(List<NodeRef> nodeRefs)
+    {
+    }
+
     /**
      * Delegates to the <code>NodeService</code> used as the version store implementation
      */
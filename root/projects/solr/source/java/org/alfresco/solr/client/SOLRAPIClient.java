@@ -87,6 +87,7 @@ public class SOLRAPIClient
     private static final String GET_ACLS_READERS = "api/solr/aclsReaders";
     private static final String GET_TRANSACTIONS_URL = "api/solr/transactions";
     private static final String GET_METADATA_URL = "api/solr/metadata";
+    private static final String GET_METADATA_STREAM_URL = "api/solr/metadata/stream";
     private static final String GET_NODES_URL = "api/solr/nodes";
     private static final String GET_CONTENT = "api/solr/textContent";
     private static final String GET_MODEL = "api/solr/model";
@@ -619,11 +620,37 @@ public class SOLRAPIClient
         return ret;
     }
     
+    /**
+     * Get the metadata of the nodes, holding it all in memory
+     * 
+     * @see #getNodesMetaData(NodeMetaDataParameters, int, NodeMetaDataCallback)
+     */
     public List<NodeMetaData> getNodesMetaData(NodeMetaDataParameters params, int maxResults) throws AuthenticationException, IOException, JSONException
+    {
+        final List<NodeMetaData> nodes = new ArrayList<NodeMetaData>(maxResults > 0 && maxResults < 1000 ? maxResults : 16);
+        getNodesMetaData(params, maxResults, new NodeMetaDataCallback()
+        {
+            public boolean handleNodeMetaData(NodeMetaData nodeMetaData)
+            {
+                nodes.add(nodeMetaData);
+                return true;
+            }
+        });
+        return nodes;
+    }
+
+    /**
+     * Get the metadata of the nodes one node at a time.  The response is parsed as it is read so
+     * only the metadata of the current node is held in memory.
+     * 
+     * @param callback                      called for each node in the order returned; returning
+     *                                      <tt>false</tt> stops the processing of the results
+     */
+    public void getNodesMetaData(NodeMetaDataParameters params, int maxResults, NodeMetaDataCallback callback) throws AuthenticationException, IOException, JSONException
     {
         List<Long> nodeIds = params.getNodeIds();
         
-        StringBuilder url = new StringBuilder(GET_METADATA_URL);
+        StringBuilder url = new StringBuilder(GET_METADATA_STREAM_URL);
 
         JSONObject body = new JSONObject();
         if(nodeIds != null && nodeIds.size() > 0)
@@ -692,183 +719,234 @@ public class SOLRAPIClient
 
         PostRequest req = new PostRequest(url.toString(), body.toString(), "application/json");
         Response response = null;
-        JSONObject json = null;
         try
         {
-        	response = repositoryHttpClient.sendRequest(req);
-	        if(response.getStatus() != HttpStatus.SC_OK)
-	        {
-	            throw new AlfrescoRuntimeException("GetNodeMetaData return status is " + response.getStatus());
-	        }
-        
-	        Reader reader = new BufferedReader(new InputStreamReader(response.getContentAsStream(), "UTF-8"));
-	        json = new JSONObject(new JSONTokener(reader));
+            response = repositoryHttpClient.sendRequest(req);
+            if(response.getStatus() != HttpStatus.SC_OK)
+            {
+                throw new AlfrescoRuntimeException("GetNodeMetaData return status is " + response.getStatus());
+            }
+
+            Reader reader = new BufferedReader(new InputStreamReader(response.getContentAsStream(), "UTF-8"));
+            readNodesMetaData(new JSONTokener(reader), callback);
         }
         finally
         {
-        	if(response != null)
-        	{
-        		response.release();
-        	}
+            if(response != null)
+            {
+                response.release();
+            }
         }
+    }
 
-        if (log.isDebugEnabled())
+    /**
+     * Read a <tt>{"nodes" : [ ... ]}</tt> document, parsing and handing over one node at a time
+     */
+    private void readNodesMetaData(JSONTokener tokener, NodeMetaDataCallback callback) throws JSONException
+    {
+        if(tokener.nextClean() != '{')
         {
-            log.debug(json.toString(3));
+            throw tokener.syntaxError("A JSON object text must begin with '{'");
         }
-        
-        JSONArray jsonNodes = json.getJSONArray("nodes");
-        
-        List<NodeMetaData> nodes = new ArrayList<NodeMetaData>(jsonNodes.length());
-        for(int i = 0; i < jsonNodes.length(); i++)
+        while(true)
         {
-            JSONObject jsonNodeInfo = jsonNodes.getJSONObject(i);
-            NodeMetaData metaData = new NodeMetaData();
-
-            if(jsonNodeInfo.has("id"))
+            char c = tokener.nextClean();
+            if(c == '}')
             {
-                metaData.setId(jsonNodeInfo.getLong("id"));
+                return;
             }
-            
-            if(jsonNodeInfo.has("txnId"))
+            else if(c == ',')
             {
-                metaData.setTxnId(jsonNodeInfo.getLong("txnId"));
+                continue;
             }
-            
-            if(jsonNodeInfo.has("aclId"))
+            tokener.back();
+            String key = tokener.nextValue().toString();
+            if(tokener.nextClean() != ':')
+            {
+                throw tokener.syntaxError("Expected a ':' after a key");
+            }
+            if(!key.equals("nodes"))
             {
-                metaData.setAclId(jsonNodeInfo.getLong("aclId"));
+                // skip it
+                tokener.nextValue();
+                continue;
             }
 
-            if(jsonNodeInfo.has("nodeRef"))
+            if(tokener.nextClean() != '[')
             {
-                metaData.setNodeRef(new NodeRef(jsonNodeInfo.getString("nodeRef")));
+                throw tokener.syntaxError("Expected the array of nodes");
             }
-            
-            if(jsonNodeInfo.has("type"))
+            if(tokener.nextClean() == ']')
             {
-                metaData.setType(deserializer.deserializeValue(QName.class, jsonNodeInfo.getString("type")));
+                continue;
             }
-            
-            if(jsonNodeInfo.has("aspects"))
+            tokener.back();
+            while(true)
             {
-                JSONArray jsonAspects = jsonNodeInfo.getJSONArray("aspects");
-                Set<QName> aspects = new HashSet<QName>(jsonAspects.length());
-                for(int j = 0; j < jsonAspects.length(); j++)
+                JSONObject jsonNodeInfo = new JSONObject(tokener);
+                if(log.isDebugEnabled())
                 {
-                    String jsonAspect = (String)jsonAspects.get(j);
-                    aspects.add(deserializer.deserializeValue(QName.class, jsonAspect));
+                    log.debug(jsonNodeInfo.toString(3));
                 }
-                metaData.setAspects(aspects);
+                if(!callback.handleNodeMetaData(getNodeMetaData(jsonNodeInfo)))
+                {
+                    return;
+                }
+                c = tokener.nextClean();
+                if(c == ']')
+                {
+                    break;
+                }
+                else if(c != ',')
+                {
+                    throw tokener.syntaxError("Expected a ',' or ']' after a node");
+                }
+            }
+        }
+    }
+
+    private NodeMetaData getNodeMetaData(JSONObject jsonNodeInfo) throws JSONException
+    {
+        NodeMetaData metaData = new NodeMetaData();
+
+        if(jsonNodeInfo.has("id"))
+        {
+            metaData.setId(jsonNodeInfo.getLong("id"));
+        }
+        
+        if(jsonNodeInfo.has("txnId"))
+        {
+            metaData.setTxnId(jsonNodeInfo.getLong("txnId"));
+        }
+        
+        if(jsonNodeInfo.has("aclId"))
+        {
+            metaData.setAclId(jsonNodeInfo.getLong("aclId"));
+        }
+
+        if(jsonNodeInfo.has("nodeRef"))
+        {
+            metaData.setNodeRef(new NodeRef(jsonNodeInfo.getString("nodeRef")));
+        }
+        
+        if(jsonNodeInfo.has("type"))
+        {
+            metaData.setType(deserializer.deserializeValue(QName.class, jsonNodeInfo.getString("type")));
+        }
+        
+        if(jsonNodeInfo.has("aspects"))
+        {
+            JSONArray jsonAspects = jsonNodeInfo.getJSONArray("aspects");
+            Set<QName> aspects = new HashSet<QName>(jsonAspects.length());
+            for(int j = 0; j < jsonAspects.length(); j++)
+            {
+                String jsonAspect = (String)jsonAspects.get(j);
+                aspects.add(deserializer.deserializeValue(QName.class, jsonAspect));
             }
+            metaData.setAspects(aspects);
+        }
 
-            if(jsonNodeInfo.has("paths"))
+        if(jsonNodeInfo.has("paths"))
+        {
+            JSONArray jsonPaths = jsonNodeInfo.getJSONArray("paths");
+            List<Pair<String, QName>> paths = new ArrayList<Pair<String, QName>>(jsonPaths.length());
+            for(int j = 0; j < jsonPaths.length(); j++)
             {
-                JSONArray jsonPaths = jsonNodeInfo.getJSONArray("paths");
-                List<Pair<String, QName>> paths = new ArrayList<Pair<String, QName>>(jsonPaths.length());
-                for(int j = 0; j < jsonPaths.length(); j++)
-                {
-                    JSONObject path = new JSONObject(jsonPaths.getString(j));
-                    String pathValue = path.getString("path");
-                    QName qname = path.has("qname") ? deserializer.deserializeValue(QName.class, path.getString("qname")) : null;
-                    paths.add(new Pair<String, QName>(pathValue, qname));
-                }
-                metaData.setPaths(paths);
+                JSONObject path = new JSONObject(jsonPaths.getString(j));
+                String pathValue = path.getString("path");
+                QName qname = path.has("qname") ? deserializer.deserializeValue(QName.class, path.getString("qname")) : null;
+                paths.add(new Pair<String, QName>(pathValue, qname));
             }
-            
-            if(jsonNodeInfo.has("ancestors"))
+            metaData.setPaths(paths);
+        }
+        
+        if(jsonNodeInfo.has("ancestors"))
+        {
+            JSONArray jsonAncestors = jsonNodeInfo.getJSONArray("ancestors");
+            HashSet<NodeRef> ancestors = new HashSet<NodeRef>(jsonAncestors.length());
+            for(int j = 0; j < jsonAncestors.length(); j++)
             {
-                JSONArray jsonAncestors = jsonNodeInfo.getJSONArray("ancestors");
-                HashSet<NodeRef> ancestors = new HashSet<NodeRef>(jsonAncestors.length());
-                for(int j = 0; j < jsonAncestors.length(); j++)
-                {
-                    String ancestorNodeRefString = jsonAncestors.getString(j);
-                    NodeRef ancestorNodeRef = new NodeRef(ancestorNodeRefString);
-                    ancestors.add(ancestorNodeRef);
-                }
-                metaData.setAncestors(ancestors);
+                String ancestorNodeRefString = jsonAncestors.getString(j);
+                NodeRef ancestorNodeRef = new NodeRef(ancestorNodeRefString);
+                ancestors.add(ancestorNodeRef);
             }
+            metaData.setAncestors(ancestors);
+        }
 
-            if(jsonNodeInfo.has("properties"))
+        if(jsonNodeInfo.has("properties"))
+        {
+            JSONObject jsonProperties = jsonNodeInfo.getJSONObject("properties");
+            Map<QName, PropertyValue> properties = new HashMap<QName, PropertyValue>(jsonProperties.length());
+            @SuppressWarnings("rawtypes")
+            Iterator propKeysIterator = jsonProperties.keys();
+            while(propKeysIterator.hasNext())
             {
-                JSONObject jsonProperties = jsonNodeInfo.getJSONObject("properties");
-                Map<QName, PropertyValue> properties = new HashMap<QName, PropertyValue>(jsonProperties.length());
-                @SuppressWarnings("rawtypes")
-                Iterator propKeysIterator = jsonProperties.keys();
-                while(propKeysIterator.hasNext())
-                {
-                    String propName = (String)propKeysIterator.next();
-                    QName propQName = deserializer.deserializeValue(QName.class, propName);
-                    Object propValueObj = jsonProperties.opt(propName);
+                String propName = (String)propKeysIterator.next();
+                QName propQName = deserializer.deserializeValue(QName.class, propName);
+                Object propValueObj = jsonProperties.opt(propName);
 
-                    // check the expected property type to determine how to process the value
-                    PropertyDefinition propertyDef = dictionaryService.getProperty(propQName);
+                // check the expected property type to determine how to process the value
+                PropertyDefinition propertyDef = dictionaryService.getProperty(propQName);
 //                    if(propertyDef == null)
 //                    {
 //                        // TODO which exception here?
 //                        throw new IllegalArgumentException("Could not find property definition for property " + propName);
 //                    }
-                    
-                    properties.put(propQName, getPropertyValue(propertyDef, propValueObj));
-                }
-                metaData.setProperties(properties);
-            }
-            
-            if(jsonNodeInfo.has("parentAssocsCrc"))
-            {
-                metaData.setParentAssocsCrc(jsonNodeInfo.getLong("parentAssocsCrc"));
+                
+                properties.put(propQName, getPropertyValue(propertyDef, propValueObj));
             }
-            
-            if(jsonNodeInfo.has("parentAssocs"))
-            {
-                JSONArray jsonParentAssocs = jsonNodeInfo.getJSONArray("parentAssocs");
-                List<ChildAssociationRef> assocs = new ArrayList<ChildAssociationRef>(jsonParentAssocs.length());
-                for(int j = 0; j < jsonParentAssocs.length(); j++)
-                {
-                    String childAssocRefStr = jsonParentAssocs.getString(j);
-                    ChildAssociationRef childAssociationRef = new ChildAssociationRef(childAssocRefStr);
-                    assocs.add(childAssociationRef);
-                }
-                metaData.setParentAssocs(assocs);
-            }
-            
-            if(jsonNodeInfo.has("childAssocs"))
+            metaData.setProperties(properties);
+        }
+        
+        if(jsonNodeInfo.has("parentAssocsCrc"))
+        {
+            metaData.setParentAssocsCrc(jsonNodeInfo.getLong("parentAssocsCrc"));
+        }
+        
+        if(jsonNodeInfo.has("parentAssocs"))
+        {
+            JSONArray jsonParentAssocs = jsonNodeInfo.getJSONArray("parentAssocs");
+            List<ChildAssociationRef> assocs = new ArrayList<ChildAssociationRef>(jsonParentAssocs.length());
+            for(int j = 0; j < jsonParentAssocs.length(); j++)
             {
-                JSONArray jsonParentAssocs = jsonNodeInfo.getJSONArray("childAssocs");
-                List<ChildAssociationRef> assocs = new ArrayList<ChildAssociationRef>(jsonParentAssocs.length());
-                for(int j = 0; j < jsonParentAssocs.length(); j++)
-                {
-                    String childAssocRefStr = jsonParentAssocs.getString(j);
-                    ChildAssociationRef childAssociationRef = new ChildAssociationRef(childAssocRefStr);
-                    assocs.add(childAssociationRef);
-                }
-                metaData.setChildAssocs(assocs);
+                String childAssocRefStr = jsonParentAssocs.getString(j);
+                ChildAssociationRef childAssociationRef = new ChildAssociationRef(childAssocRefStr);
+                assocs.add(childAssociationRef);
             }
-            
-            if(jsonNodeInfo.has("childIds"))
+            metaData.setParentAssocs(assocs);
+        }
+        
+        if(jsonNodeInfo.has("childAssocs"))
+        {
+            JSONArray jsonParentAssocs = jsonNodeInfo.getJSONArray("childAssocs");
+            List<ChildAssociationRef> assocs = new ArrayList<ChildAssociationRef>(jsonParentAssocs.length());
+            for(int j = 0; j < jsonParentAssocs.length(); j++)
             {
-                JSONArray jsonChildIds = jsonNodeInfo.getJSONArray("childIds");
-                List<Long> childIds = new ArrayList<Long>(jsonChildIds.length());
-                for(int j = 0; j < jsonChildIds.length(); j++)
-                {
-                    Long childId = jsonChildIds.getLong(j);
-                    childIds.add(childId);
-                }
-                metaData.setChildIds(childIds);
+                String childAssocRefStr = jsonParentAssocs.getString(j);
+                ChildAssociationRef childAssociationRef = new ChildAssociationRef(childAssocRefStr);
+                assocs.add(childAssociationRef);
             }
-            
-            if(jsonNodeInfo.has("owner"))
+            metaData.setChildAssocs(assocs);
+        }
+        
+        if(jsonNodeInfo.has("childIds"))
+        {
+            JSONArray jsonChildIds = jsonNodeInfo.getJSONArray("childIds");
+            List<Long> childIds = new ArrayList<Long>(jsonChildIds.length());
+            for(int j = 0; j < jsonChildIds.length(); j++)
             {
-                metaData.setOwner(jsonNodeInfo.getString("owner"));
+                Long childId = jsonChildIds.getLong(j);
+                childIds.add(childId);
             }
-           
-            
-            nodes.add(metaData);
-            
-         
+            metaData.setChildIds(childIds);
+        }
+        
+        if(jsonNodeInfo.has("owner"))
+        {
+            metaData.setOwner(jsonNodeInfo.getString("owner"));
         }
 
-        return nodes;
+        return metaData;
     }
     
     public GetTextContentResponse getTextContent(Long nodeId, QName propertyName, Long modifiedSince) throws AuthenticationException, IOException
@@ -1176,6 +1254,17 @@ public class SOLRAPIClient
         }
     }
     
+    /**
+     * Receives node metadata as it is read from the repository
+     */
+    public interface NodeMetaDataCallback
+    {
+        /**
+         * @return              <tt>true</tt> to continue processing, <tt>false</tt> to stop
+         */
+        boolean handleNodeMetaData(NodeMetaData nodeMetaData);
+    }
+
     private static class SOLRResponse
     {
         protected Response response;
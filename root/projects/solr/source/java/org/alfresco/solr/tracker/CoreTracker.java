@@ -42,6 +42,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import javax.swing.text.StyledEditorKit.BoldAction;
 
@@ -128,6 +129,7 @@ import org.apache.solr.update.AddUpdateCommand;
 import org.apache.solr.update.CommitUpdateCommand;
 import org.apache.solr.update.DeleteUpdateCommand;
 import org.apache.solr.update.RollbackUpdateCommand;
+import org.apache.solr.update.UpdateCommand;
 import org.apache.solr.util.RefCounted;
 import org.json.JSONException;
 import org.quartz.CronTrigger;
@@ -176,6 +178,18 @@ public class CoreTracker implements CloseHook
 
     private long batchCount;
 
+    private boolean pipelined = false;
+
+    private int pipelineMetadataThreads = 4;
+
+    private int pipelineContentThreads = 4;
+
+    private int pipelineQueueSize = 100;
+
+    private ThreadPoolExecutor metadataExecutor;
+
+    private ThreadPoolExecutor contentExecutor;
+
     // encryption related parameters
     private String secureCommsType; // "none", "https"
 
@@ -307,6 +321,22 @@ public class CoreTracker implements CloseHook
                 {
                     batchCount = Long.parseLong(split[1]);
                 }
+                else if (split[0].equals("alfresco.pipeline.enabled"))
+                {
+                    pipelined = Boolean.parseBoolean(split[1]);
+                }
+                else if (split[0].equals("alfresco.pipeline.metadataThreads"))
+                {
+                    pipelineMetadataThreads = Integer.parseInt(split[1]);
+                }
+                else if (split[0].equals("alfresco.pipeline.contentThreads"))
+                {
+                    pipelineContentThreads = Integer.parseInt(split[1]);
+                }
+                else if (split[0].equals("alfresco.pipeline.queueSize"))
+                {
+                    pipelineQueueSize = Integer.parseInt(split[1]);
+                }
                 else if (split[0].equals("alfresco.storeAll"))
                 {
                     storeAll = Boolean.parseBoolean(split[1]);
@@ -389,6 +419,14 @@ public class CoreTracker implements CloseHook
 
         client = new SOLRAPIClient(getRepoClient(loader), dataModel.getDictionaryService(), dataModel.getNamespaceDAO());
 
+        if (pipelined)
+        {
+            metadataExecutor = TransactionIndexPipeline.createExecutor(
+                    "CoreTracker-" + core.getName() + "-metadata-", pipelineMetadataThreads, pipelineQueueSize);
+            contentExecutor = TransactionIndexPipeline.createExecutor(
+                    "CoreTracker-" + core.getName() + "-content-", pipelineContentThreads, pipelineQueueSize);
+        }
+
         JobDetail job = new JobDetail("CoreTracker-" + core.getName(), "Solr", CoreTrackerJob.class);
         JobDataMap jobDataMap = new JobDataMap();
         jobDataMap.put("TRACKER", this);
@@ -1128,12 +1166,18 @@ public class CoreTracker implements CloseHook
         trackModels();
 
         RefCounted<SolrIndexSearcher> refCounted = null;
+        TransactionIndexPipeline<NodeIndexWork> pipeline = null;
         try
         {
             refCounted = core.getSearcher(false, true, null);
 
             SolrIndexSearcher solrIndexSearcher = refCounted.get();
             SolrIndexReader reader = solrIndexSearcher.getReader();
+            if (pipelined)
+            {
+                pipeline = new TransactionIndexPipeline<NodeIndexWork>(
+                        core.getName(), new PipelineStages(solrIndexSearcher), metadataExecutor, contentExecutor, pipelineQueueSize);
+            }
 
             if (lastIndexedCommitTime == 0)
             {
@@ -1298,15 +1342,19 @@ public class CoreTracker implements CloseHook
                         {
                             upToDate = true;
                         }
+                        else if (pipeline != null)
+                        {
+                            // The transaction is indexed in the background; only those applied to the index
+                            // so far count towards the tracking position
+                            Transaction applied = pipeline.submit(info);
+                            if (applied != null)
+                            {
+                                lastTxCommitTime = applied.getCommitTimeMs();
+                            }
+                        }
                         else
                         {
-                            GetNodesParameters gnp = new GetNodesParameters();
-                            ArrayList<Long> txs = new ArrayList<Long>();
-                            txs.add(info.getId());
-                            gnp.setTransactionIds(txs);
-                            gnp.setStoreProtocol(storeRef.getProtocol());
-                            gnp.setStoreIdentifier(storeRef.getIdentifier());
-                            List<Node> nodes = client.getNodes(gnp, Integer.MAX_VALUE);
+                            List<Node> nodes = getNodes(info);
                             for (Node node : nodes)
                             {
                                 docCount++;
@@ -1337,6 +1385,15 @@ public class CoreTracker implements CloseHook
                         docCount = 0;
                     }
                 }
+                // The next batch of transactions is fetched from the last one applied
+                if (pipeline != null)
+                {
+                    Transaction applied = pipeline.drain();
+                    if (applied != null)
+                    {
+                        lastTxCommitTime = applied.getCommitTimeMs();
+                    }
+                }
                 // reorder and find first last before hole
 
                 if (transactionsOrderedById.size() < 10000)
@@ -1382,6 +1439,11 @@ public class CoreTracker implements CloseHook
         }
         finally
         {
+            if (pipeline != null)
+            {
+                // Stop using the searcher before it is released
+                pipeline.cancel();
+            }
             if (refCounted != null)
             {
                 refCounted.decref();
@@ -1599,34 +1661,89 @@ public class CoreTracker implements CloseHook
      * @throws IOException
      */
     private void indexNode(Node node, SolrIndexSearcher solrIndexSearcher, boolean overwrite) throws IOException
+    {
+        NodeIndexWork work = buildNodeIndexWork(node, getNodeMetaData(node), solrIndexSearcher, overwrite);
+        applyNodeIndexWork(work);
+    }
+
+    private List<Node> getNodes(Transaction info) throws AuthenticationException, IOException, JSONException
+    {
+        GetNodesParameters gnp = new GetNodesParameters();
+        ArrayList<Long> txs = new ArrayList<Long>();
+        txs.add(info.getId());
+        gnp.setTransactionIds(txs);
+        gnp.setStoreProtocol(storeRef.getProtocol());
+        gnp.setStoreIdentifier(storeRef.getIdentifier());
+        return client.getNodes(gnp, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return              the metadata required to index the node or <tt>null</tt> if the node is not
+     *                      to be (re)indexed
+     */
+    private List<NodeMetaData> getNodeMetaData(Node node) throws IOException
+    {
+        if ((node.getStatus() != SolrApiNodeStatus.UPDATED) && (node.getStatus() != SolrApiNodeStatus.UNKNOWN))
+        {
+            return null;
+        }
+        log.info(".. updating");
+        NodeMetaDataParameters nmdp = new NodeMetaDataParameters();
+        nmdp.setFromNodeId(node.getId());
+        nmdp.setToNodeId(node.getId());
+        try
+        {
+            return client.getNodesMetaData(nmdp, 1);
+        }
+        catch (JSONException e)
+        {
+            log.error(e.getStackTrace().toString());
+        }
+        catch (AuthenticationException e)
+        {
+            log.error(e.getStackTrace().toString());
+        }
+        return null;
+    }
+
+    /**
+     * Build, but do not apply, the index updates for a node.  Nothing is written to the index so this
+     * may be called concurrently for different nodes.
+     *
+     * @param nodeMetaDatas the metadata from {@link #getNodeMetaData(Node)}
+     */
+    private NodeIndexWork buildNodeIndexWork(Node node, List<NodeMetaData> nodeMetaDatas, SolrIndexSearcher solrIndexSearcher, boolean overwrite) throws IOException
+    {
+        NodeIndexWork work = new NodeIndexWork();
+        boolean built = false;
+        try
+        {
+            buildNodeIndexWork(work, node, nodeMetaDatas, solrIndexSearcher, overwrite);
+            built = true;
+        }
+        finally
+        {
+            if (!built)
+            {
+                work.release();
+            }
+        }
+        return work;
+    }
+
+    private void buildNodeIndexWork(NodeIndexWork work, Node node, List<NodeMetaData> nodeMetaDatas, SolrIndexSearcher solrIndexSearcher, boolean overwrite) throws IOException
     {
         if ((node.getStatus() == SolrApiNodeStatus.DELETED) || (node.getStatus() == SolrApiNodeStatus.UNKNOWN))
         {
             log.debug(".. deleting");
-            DeleteUpdateCommand docCmd = new DeleteUpdateCommand();
-            docCmd.id = "LEAF-" + node.getId();
-            docCmd.fromPending = true;
-            docCmd.fromCommitted = true;
-            core.getUpdateHandler().delete(docCmd);
-
-            docCmd = new DeleteUpdateCommand();
-            docCmd.id = "AUX-" + node.getId();
-            docCmd.fromPending = true;
-            docCmd.fromCommitted = true;
-            core.getUpdateHandler().delete(docCmd);
+            work.commands.add(createDeleteCommand("LEAF-" + node.getId()));
+            work.commands.add(createDeleteCommand("AUX-" + node.getId()));
         }
         
-        if ((node.getStatus() == SolrApiNodeStatus.UPDATED)  || (node.getStatus() == SolrApiNodeStatus.UNKNOWN))
+        if (nodeMetaDatas != null)
         {
-
-            log.info(".. updating");
-            NodeMetaDataParameters nmdp = new NodeMetaDataParameters();
-            nmdp.setFromNodeId(node.getId());
-            nmdp.setToNodeId(node.getId());
             try
             {
-                List<NodeMetaData> nodeMetaDatas = client.getNodesMetaData(nmdp, 1);
-
                 AddUpdateCommand leafDocCmd = new AddUpdateCommand();
                 leafDocCmd.overwriteCommitted = overwrite;
                 leafDocCmd.overwritePending = overwrite;
@@ -1634,9 +1751,6 @@ public class CoreTracker implements CloseHook
                 auxDocCmd.overwriteCommitted = overwrite;
                 auxDocCmd.overwritePending = overwrite;
 
-                ArrayList<Reader> toClose = new ArrayList<Reader>();
-                ArrayList<File> toDelete = new ArrayList<File>();
-
                 for (NodeMetaData nodeMetaData : nodeMetaDatas)
                 {
                     if(nodeMetaData.getTxnId() > node.getTxnId())
@@ -1663,7 +1777,7 @@ public class CoreTracker implements CloseHook
                             if (docSet.size() > 0)
                             {
                                 log.debug("... cascade updating aux doc");
-                                updateDescendantAuxDocs(nodeMetaData, overwrite);
+                                updateDescendantAuxDocs(nodeMetaData, overwrite, work.commands);
                             }
                             else
                             {
@@ -1684,18 +1798,8 @@ public class CoreTracker implements CloseHook
                             Boolean isIndexed = Boolean.valueOf(pValue.getValue());
                             if ((isIndexed != null) && (isIndexed.booleanValue() == false))
                             {
-                                DeleteUpdateCommand docCmd = new DeleteUpdateCommand();
-                                docCmd.id = "LEAF-" + node.getId();
-                                docCmd.fromPending = true;
-                                docCmd.fromCommitted = true;
-                                core.getUpdateHandler().delete(docCmd);
-
-                                docCmd = new DeleteUpdateCommand();
-                                docCmd.id = "AUX-" + node.getId();
-                                docCmd.fromPending = true;
-                                docCmd.fromCommitted = true;
-                                core.getUpdateHandler().delete(docCmd);
-
+                                work.commands.add(createDeleteCommand("LEAF-" + node.getId()));
+                                work.commands.add(createDeleteCommand("AUX-" + node.getId()));
                                 return;
                             }
                         }
@@ -1732,7 +1836,7 @@ public class CoreTracker implements CloseHook
                                 {
                                     if (isContentIndexedForNode)
                                     {
-                                        addContentPropertyToDoc(doc, toClose, toDelete, nodeMetaData, propertyQname, (ContentPropertyValue) value);
+                                        addContentPropertyToDoc(doc, work.toClose, work.toDelete, nodeMetaData, propertyQname, (ContentPropertyValue) value);
                                     }
                                 }
                                 else if (value instanceof MLTextPropertyValue)
@@ -1748,7 +1852,7 @@ public class CoreTracker implements CloseHook
                                         {
                                             if (isContentIndexedForNode)
                                             {
-                                                addContentPropertyToDoc(doc, toClose, toDelete, nodeMetaData, propertyQname, (ContentPropertyValue) singleValue);
+                                                addContentPropertyToDoc(doc, work.toClose, work.toDelete, nodeMetaData, propertyQname, (ContentPropertyValue) singleValue);
                                             }
                                         }
                                         else if (singleValue instanceof MLTextPropertyValue)
@@ -1789,26 +1893,11 @@ public class CoreTracker implements CloseHook
 
                 }
 
-                core.getUpdateHandler().addDoc(leafDocCmd);
-                core.getUpdateHandler().addDoc(auxDocCmd);
-
-                for (Reader forClose : toClose)
-                {
-                    try
-                    {
-                        forClose.close();
-                    }
-                    catch (IOException ioe)
-                    {
-                    }
-
-                }
-
-                for (File file : toDelete)
+                if (leafDocCmd.doc != null)
                 {
-                    file.delete();
+                    work.commands.add(leafDocCmd);
+                    work.commands.add(auxDocCmd);
                 }
-
             }
             catch (JSONException e)
             {
@@ -1822,7 +1911,41 @@ public class CoreTracker implements CloseHook
         
     }
 
-    private void updateDescendantAuxDocs(NodeMetaData parentNodeMetaData, boolean overwrite) throws AuthenticationException, IOException, JSONException
+    /**
+     * Apply the updates for a node to the index and release the resources held by them
+     */
+    private void applyNodeIndexWork(NodeIndexWork work) throws IOException
+    {
+        try
+        {
+            for (UpdateCommand command : work.commands)
+            {
+                if (command instanceof AddUpdateCommand)
+                {
+                    core.getUpdateHandler().addDoc((AddUpdateCommand) command);
+                }
+                else
+                {
+                    core.getUpdateHandler().delete((DeleteUpdateCommand) command);
+                }
+            }
+        }
+        finally
+        {
+            work.release();
+        }
+    }
+
+    private DeleteUpdateCommand createDeleteCommand(String id)
+    {
+        DeleteUpdateCommand docCmd = new DeleteUpdateCommand();
+        docCmd.id = id;
+        docCmd.fromPending = true;
+        docCmd.fromCommitted = true;
+        return docCmd;
+    }
+
+    private void updateDescendantAuxDocs(NodeMetaData parentNodeMetaData, boolean overwrite, List<UpdateCommand> commands) throws AuthenticationException, IOException, JSONException
     {
         if (parentNodeMetaData.getChildIds() != null)
         {
@@ -1848,7 +1971,7 @@ public class CoreTracker implements CloseHook
                 {
                     if (mayHaveChildren(nodeMetaData))
                     {
-                        updateDescendantAuxDocs(nodeMetaData, overwrite);
+                        updateDescendantAuxDocs(nodeMetaData, overwrite, commands);
                     }
 
                     SolrInputDocument aux = createAuxDoc(nodeMetaData);
@@ -1858,7 +1981,7 @@ public class CoreTracker implements CloseHook
                     auxDocCmd.solrDoc = aux;
                     auxDocCmd.doc = CoreTracker.toDocument(auxDocCmd.getSolrInputDocument(), core.getSchema(), dataModel);
 
-                    core.getUpdateHandler().addDoc(auxDocCmd);
+                    commands.add(auxDocCmd);
                 }
 
             }
@@ -1866,6 +1989,102 @@ public class CoreTracker implements CloseHook
 
     }
 
+    /**
+     * The index updates for a single node, in the order in which they must be applied, together
+     * with the content readers and temporary files that must be released once they have been.
+     */
+    private static class NodeIndexWork
+    {
+        private final List<UpdateCommand> commands = new ArrayList<UpdateCommand>(4);
+        private final ArrayList<Reader> toClose = new ArrayList<Reader>();
+        private final ArrayList<File> toDelete = new ArrayList<File>();
+
+        private void release()
+        {
+            for (Reader forClose : toClose)
+            {
+                try
+                {
+                    forClose.close();
+                }
+                catch (IOException ioe)
+                {
+                }
+            }
+            toClose.clear();
+
+            for (File file : toDelete)
+            {
+                file.delete();
+            }
+            toDelete.clear();
+        }
+    }
+
+    /**
+     * Connects the {@link TransactionIndexPipeline} to this tracker for a single tracking run
+     */
+    private class PipelineStages implements TransactionIndexPipeline.Stages<NodeIndexWork>
+    {
+        private final SolrIndexSearcher solrIndexSearcher;
+        private int docCount;
+
+        private PipelineStages(SolrIndexSearcher solrIndexSearcher)
+        {
+            this.solrIndexSearcher = solrIndexSearcher;
+            this.docCount = 0;
+        }
+
+        public List<Node> getNodes(Transaction info) throws Exception
+        {
+            return CoreTracker.this.getNodes(info);
+        }
+
+        public List<NodeMetaData> getNodeMetaData(Node node) throws Exception
+        {
+            if (log.isDebugEnabled())
+            {
+                log.debug(node.toString());
+            }
+            return CoreTracker.this.getNodeMetaData(node);
+        }
+
+        public NodeIndexWork buildNodeIndexWork(Node node, List<NodeMetaData> nodeMetaDatas) throws Exception
+        {
+            return CoreTracker.this.buildNodeIndexWork(node, nodeMetaDatas, solrIndexSearcher, true);
+        }
+
+        public void applyNodeIndexWork(NodeIndexWork work) throws IOException
+        {
+            CoreTracker.this.applyNodeIndexWork(work);
+        }
+
+        public void release(NodeIndexWork work)
+        {
+            work.release();
+        }
+
+        public void transactionApplied(Transaction info, int nodeCount) throws IOException
+        {
+            docCount += nodeCount;
+
+            // Index the transaction doc after the node - if this is not found then a reindex will be
+            // done.
+            indexTransaction(info, true);
+
+            if (info.getCommitTimeMs() > lastIndexedCommitTime)
+            {
+                lastIndexedCommitTime = info.getCommitTimeMs();
+            }
+
+            if (docCount > batchCount)
+            {
+                core.getUpdateHandler().commit(new CommitUpdateCommand(false));
+                docCount = 0;
+            }
+        }
+    }
+
     private SolrInputDocument createAuxDoc(NodeMetaData nodeMetaData)
     {
         SolrInputDocument aux = new SolrInputDocument();
@@ -3087,6 +3306,14 @@ public class CoreTracker implements CloseHook
     @Override
     public void close(SolrCore core)
     {
+        if (metadataExecutor != null)
+        {
+            metadataExecutor.shutdownNow();
+        }
+        if (contentExecutor != null)
+        {
+            contentExecutor.shutdownNow();
+        }
         try
         {
             adminHandler.getScheduler().deleteJob("CoreTracker-" + core.getName(), "Solr");
@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr.tracker;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.solr.client.Node;
+import org.alfresco.solr.client.NodeMetaData;
+import org.alfresco.solr.client.Transaction;
+import org.alfresco.util.TraceableThreadFactory;
+
+/**
+ * Indexes transactions in stages so that the repository round trips of different transactions
+ * and nodes overlap:
+ * <ol>
+ *   <li>the nodes of several transactions, and their metadata, are fetched on the metadata pool</li>
+ *   <li>the documents, including the content text, are built on the content pool</li>
+ *   <li>the documents are added to the index by the tracking thread</li>
+ * </ol>
+ * Transactions are added to the index strictly in the order in which they were submitted and each
+ * transaction is reported as applied after its nodes, exactly as the sequential tracker does.
+ * At most <tt>maxInFlight</tt> transactions are in flight at any time.
+ * <p>
+ * A failure in any stage is thrown to the tracking thread when the transaction it belongs to is
+ * applied.  If the pools are shut down, work that will never complete fails in the same way.
+ *
+ * @param <W>           the index updates built for a node
+ *
+ * @author agent
+ * @since 4.0
+ */
+class TransactionIndexPipeline<W>
+{
+    /** How often a wait for work checks that the pools are still running */
+    private static final long SHUTDOWN_CHECK_INTERVAL_MS = 1000L;
+
+    /**
+     * The work done by each stage of the pipeline
+     */
+    interface Stages<W>
+    {
+        /**
+         * Fetch the nodes of a transaction.  Called on the metadata pool.
+         */
+        List<Node> getNodes(Transaction info) throws Exception;
+
+        /**
+         * Fetch the metadata required to index a node.  Called on the metadata pool.
+         */
+        List<NodeMetaData> getNodeMetaData(Node node) throws Exception;
+
+        /**
+         * Build, but do not apply, the index updates for a node.  Called on the content pool.
+         */
+        W buildNodeIndexWork(Node node, List<NodeMetaData> nodeMetaDatas) throws Exception;
+
+        /**
+         * Apply the index updates for a node and release them.  Called on the tracking thread.
+         */
+        void applyNodeIndexWork(W work) throws IOException;
+
+        /**
+         * Release index updates that will not be applied
+         */
+        void release(W work);
+
+        /**
+         * Record that all the nodes of a transaction have been applied.  Called on the tracking thread.
+         *
+         * @param nodeCount     the number of nodes applied
+         */
+        void transactionApplied(Transaction info, int nodeCount) throws IOException;
+    }
+
+    /**
+     * Create the pool for one stage of the pipeline.  The queue is bounded; when it is full the
+     * submitting thread runs the task itself, which throttles the previous stage.  Once the pool
+     * has been shut down, work is rejected.
+     */
+    static ThreadPoolExecutor createExecutor(String namePrefix, int threadCount, int queueSize)
+    {
+        TraceableThreadFactory threadFactory = new TraceableThreadFactory();
+        threadFactory.setNamePrefix(namePrefix);
+        return new ThreadPoolExecutor(
+                threadCount,
+                threadCount,
+                60L,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize),
+                threadFactory,
+                new CallerRunsUnlessShutdownPolicy());
+    }
+
+    private final String name;
+    private final Stages<W> stages;
+    private final ExecutorService metadataExecutor;
+    private final ExecutorService contentExecutor;
+    private final int maxInFlight;
+    private final LinkedList<PendingTransaction> inFlight;
+
+    /**
+     * @param name                  the name used in error messages, usually the core name
+     * @param stages                the work done at each stage
+     * @param metadataExecutor      the pool that fetches nodes and metadata
+     * @param contentExecutor       the pool that builds the index updates
+     * @param maxInFlight           the maximum number of transactions submitted but not yet applied
+     */
+    TransactionIndexPipeline(
+            String name,
+            Stages<W> stages,
+            ExecutorService metadataExecutor,
+            ExecutorService contentExecutor,
+            int maxInFlight)
+    {
+        this.name = name;
+        this.stages = stages;
+        this.metadataExecutor = metadataExecutor;
+        this.contentExecutor = contentExecutor;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new LinkedList<PendingTransaction>();
+    }
+
+    /**
+     * Start indexing a transaction, first applying the oldest transaction if the pipeline is full
+     *
+     * @return              the transaction applied to the index or <tt>null</tt> if none was
+     */
+    Transaction submit(final Transaction info) throws IOException
+    {
+        Transaction applied = null;
+        if (inFlight.size() >= maxInFlight)
+        {
+            applied = applyNext();
+        }
+        Future<List<Future<W>>> nodeWork = metadataExecutor.submit(new Callable<List<Future<W>>>()
+        {
+            public List<Future<W>> call() throws Exception
+            {
+                List<Node> nodes = stages.getNodes(info);
+                List<Future<W>> results = new ArrayList<Future<W>>(nodes.size());
+                for (final Node node : nodes)
+                {
+                    final List<NodeMetaData> nodeMetaDatas = stages.getNodeMetaData(node);
+                    results.add(contentExecutor.submit(new Callable<W>()
+                    {
+                        public W call() throws Exception
+                        {
+                            return stages.buildNodeIndexWork(node, nodeMetaDatas);
+                        }
+                    }));
+                }
+                return results;
+            }
+        });
+        inFlight.add(new PendingTransaction(info, nodeWork));
+        return applied;
+    }
+
+    /**
+     * Apply all the transactions in flight
+     *
+     * @return              the last transaction applied to the index or <tt>null</tt> if there were none
+     */
+    Transaction drain() throws IOException
+    {
+        Transaction applied = null;
+        while (!inFlight.isEmpty())
+        {
+            applied = applyNext();
+        }
+        return applied;
+    }
+
+    /**
+     * Wait for the work in flight to complete and discard it
+     */
+    void cancel()
+    {
+        while (!inFlight.isEmpty())
+        {
+            PendingTransaction pending = inFlight.removeFirst();
+            try
+            {
+                release(waitFor(pending.nodeWork), 0);
+            }
+            catch (Throwable e)
+            {
+                // Nothing was built
+            }
+        }
+    }
+
+    /**
+     * @return              the number of transactions submitted but not yet applied
+     */
+    int getInFlightCount()
+    {
+        return inFlight.size();
+    }
+
+    private Transaction applyNext() throws IOException
+    {
+        PendingTransaction pending = inFlight.removeFirst();
+        List<Future<W>> nodeWork = waitFor(pending.nodeWork);
+        int applied = 0;
+        try
+        {
+            while (applied < nodeWork.size())
+            {
+                W work = waitFor(nodeWork.get(applied++));
+                stages.applyNodeIndexWork(work);
+            }
+        }
+        finally
+        {
+            release(nodeWork, applied);
+        }
+        stages.transactionApplied(pending.info, applied);
+        return pending.info;
+    }
+
+    /**
+     * Release the node updates that will not be applied
+     */
+    private void release(List<Future<W>> nodeWork, int fromIndex)
+    {
+        for (int i = fromIndex; i < nodeWork.size(); i++)
+        {
+            try
+            {
+                stages.release(waitFor(nodeWork.get(i)));
+            }
+            catch (Throwable e)
+            {
+                // Nothing to release
+            }
+        }
+    }
+
+    private <T> T waitFor(Future<T> future) throws IOException
+    {
+        try
+        {
+            while (true)
+            {
+                try
+                {
+                    return future.get(SHUTDOWN_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                }
+                catch (TimeoutException e)
+                {
+                    // Work that was still queued when the pools were shut down will never run
+                    if (metadataExecutor.isTerminated() && contentExecutor.isTerminated() && !future.isDone())
+                    {
+                        throw new AlfrescoRuntimeException("The indexing pipeline for " + name + " has been shut down");
+                    }
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new AlfrescoRuntimeException("Interrupted while indexing " + name, e);
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+            {
+                throw (IOException) cause;
+            }
+            else if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            else if (cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+            throw new AlfrescoRuntimeException("Failed to build the index documents for " + name, cause);
+        }
+    }
+
+    /**
+     * A submitted transaction.  The metadata stage produces the node updates of the transaction,
+     * each of which is built on the content stage.
+     */
+    private class PendingTransaction
+    {
+        private final Transaction info;
+        private final Future<List<Future<W>>> nodeWork;
+
+        private PendingTransaction(Transaction info, Future<List<Future<W>>> nodeWork)
+        {
+            this.info = info;
+            this.nodeWork = nodeWork;
+        }
+    }
+
+    /**
+     * Runs rejected work on the submitting thread unless the pool has been shut down
+     */
+    private static class CallerRunsUnlessShutdownPolicy implements RejectedExecutionHandler
+    {
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor)
+        {
+            if (executor.isShutdown())
+            {
+                throw new RejectedExecutionException("The indexing pipeline has been shut down");
+            }
+            r.run();
+        }
+    }
+}
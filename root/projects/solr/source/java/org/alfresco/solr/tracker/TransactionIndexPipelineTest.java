@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr.tracker;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.solr.client.Node;
+import org.alfresco.solr.client.Node.SolrApiNodeStatus;
+import org.alfresco.solr.client.NodeMetaData;
+import org.alfresco.solr.client.Transaction;
+
+/**
+ * Tests the ordering, error handling and shutdown of the {@link TransactionIndexPipeline}.
+ * The stages record what they do instead of talking to a repository and an index.
+ *
+ * @author agent
+ */
+public class TransactionIndexPipelineTest extends TestCase
+{
+    private static final int NODES_PER_TXN = 3;
+
+    private ThreadPoolExecutor metadataExecutor;
+    private ThreadPoolExecutor contentExecutor;
+    private RecordingStages stages;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        metadataExecutor = TransactionIndexPipeline.createExecutor(getName() + "-metadata-", 4, 10);
+        contentExecutor = TransactionIndexPipeline.createExecutor(getName() + "-content-", 4, 10);
+        stages = new RecordingStages();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        metadataExecutor.shutdownNow();
+        contentExecutor.shutdownNow();
+    }
+
+    private TransactionIndexPipeline<Long> newPipeline(int maxInFlight)
+    {
+        return new TransactionIndexPipeline<Long>(getName(), stages, metadataExecutor, contentExecutor, maxInFlight);
+    }
+
+    private static Transaction txn(long id)
+    {
+        Transaction info = new Transaction();
+        info.setId(id);
+        info.setCommitTimeMs(1000L * id);
+        return info;
+    }
+
+    /**
+     * @return              the ID of a node of a transaction
+     */
+    private static long nodeId(long txnId, int i)
+    {
+        return txnId * 100 + i;
+    }
+
+    public void testTransactionsAreAppliedInSubmissionOrder() throws Exception
+    {
+        // Earlier transactions take longer to build, so they complete last
+        stages.slowEarlierBuilds = true;
+        TransactionIndexPipeline<Long> pipeline = newPipeline(3);
+
+        List<Long> expected = new ArrayList<Long>();
+        for (long txnId = 1; txnId <= 6; txnId++)
+        {
+            Transaction applied = pipeline.submit(txn(txnId));
+            // The oldest transaction is applied to make room once three are in flight
+            if (txnId <= 3)
+            {
+                assertNull(applied);
+            }
+            else
+            {
+                assertEquals(txnId - 3, applied.getId());
+            }
+            assertTrue(pipeline.getInFlightCount() <= 3);
+        }
+        assertEquals(6L, pipeline.drain().getId());
+        assertEquals(0, pipeline.getInFlightCount());
+        assertNull("Nothing left to apply", pipeline.drain());
+
+        // Each transaction follows its nodes, in order
+        for (long txnId = 1; txnId <= 6; txnId++)
+        {
+            for (int i = 0; i < NODES_PER_TXN; i++)
+            {
+                expected.add(nodeId(txnId, i));
+            }
+            expected.add(-txnId);
+        }
+        assertEquals(expected, stages.applied);
+        assertTrue("Nothing is released without being applied", stages.released.isEmpty());
+    }
+
+    public void testNodeFailureIsThrownWhenItsTransactionIsApplied() throws Exception
+    {
+        final IOException failure = new IOException("Content transformation failed");
+        stages.buildFailures.put(nodeId(2, 1), failure);
+        TransactionIndexPipeline<Long> pipeline = newPipeline(5);
+        for (long txnId = 1; txnId <= 3; txnId++)
+        {
+            pipeline.submit(txn(txnId));
+        }
+
+        try
+        {
+            pipeline.drain();
+            fail("Expected the node failure");
+        }
+        catch (IOException e)
+        {
+            assertSame(failure, e);
+        }
+        // The first transaction and the nodes before the failure were applied
+        List<Long> expected = new ArrayList<Long>();
+        expected.add(nodeId(1, 0));
+        expected.add(nodeId(1, 1));
+        expected.add(nodeId(1, 2));
+        expected.add(-1L);
+        expected.add(nodeId(2, 0));
+        assertEquals(expected, stages.applied);
+
+        // The tracker discards the rest
+        pipeline.cancel();
+        assertEquals(0, pipeline.getInFlightCount());
+        assertEquals("Only the first transaction was applied", expected, stages.applied);
+        Set<Long> released = new HashSet<Long>(stages.released);
+        assertEquals("Everything built must be applied or released once", stages.released.size(), released.size());
+        Set<Long> expectedReleased = new HashSet<Long>();
+        expectedReleased.add(nodeId(2, 2));
+        for (int i = 0; i < NODES_PER_TXN; i++)
+        {
+            expectedReleased.add(nodeId(3, i));
+        }
+        assertEquals(expectedReleased, released);
+    }
+
+    public void testMetadataFailureIsThrownUnchanged() throws Exception
+    {
+        final IllegalStateException failure = new IllegalStateException("Repository unavailable");
+        stages.nodeFailures.put(2L, failure);
+        TransactionIndexPipeline<Long> pipeline = newPipeline(5);
+        for (long txnId = 1; txnId <= 3; txnId++)
+        {
+            pipeline.submit(txn(txnId));
+        }
+
+        try
+        {
+            pipeline.drain();
+            fail("Expected the metadata failure");
+        }
+        catch (IllegalStateException e)
+        {
+            assertSame(failure, e);
+        }
+        // Nothing after the failed transaction is applied
+        assertEquals(-1L, stages.applied.get(stages.applied.size() - 1).longValue());
+        assertEquals(1, pipeline.getInFlightCount());
+        pipeline.cancel();
+    }
+
+    public void testCheckedFailureIsWrapped() throws Exception
+    {
+        final Exception failure = new Exception("Authentication failed");
+        stages.nodeFailures.put(1L, failure);
+        TransactionIndexPipeline<Long> pipeline = newPipeline(5);
+        pipeline.submit(txn(1));
+        try
+        {
+            pipeline.drain();
+            fail("Expected the metadata failure");
+        }
+        catch (AlfrescoRuntimeException e)
+        {
+            assertSame(failure, e.getCause());
+        }
+        assertTrue(stages.applied.isEmpty());
+    }
+
+    public void testShutdownFailsTheWorkInFlight() throws Exception
+    {
+        // One metadata thread, held up by the first transaction
+        metadataExecutor.shutdownNow();
+        metadataExecutor = TransactionIndexPipeline.createExecutor(getName() + "-metadata-", 1, 10);
+        stages.nodesDelayMs = 5000L;
+        TransactionIndexPipeline<Long> pipeline = newPipeline(5);
+        for (long txnId = 1; txnId <= 3; txnId++)
+        {
+            pipeline.submit(txn(txnId));
+        }
+
+        // The core is closed
+        metadataExecutor.shutdownNow();
+        contentExecutor.shutdownNow();
+        assertTrue(metadataExecutor.awaitTermination(10, TimeUnit.SECONDS));
+        assertTrue(contentExecutor.awaitTermination(10, TimeUnit.SECONDS));
+
+        // The interrupted transaction fails and so do those that never started
+        for (int i = 0; i < 3; i++)
+        {
+            try
+            {
+                pipeline.drain();
+                fail("Expected the pipeline to fail after shutdown");
+            }
+            catch (AlfrescoRuntimeException e)
+            {
+                // Expected
+            }
+        }
+        assertEquals(0, pipeline.getInFlightCount());
+        assertTrue(stages.applied.isEmpty());
+
+        // New work is rejected rather than lost
+        try
+        {
+            pipeline.submit(txn(4));
+            fail("Expected the submission to be rejected");
+        }
+        catch (RejectedExecutionException e)
+        {
+            // Expected
+        }
+        pipeline.cancel();
+    }
+
+    public void testCancelReleasesEverythingBuilt() throws Exception
+    {
+        TransactionIndexPipeline<Long> pipeline = newPipeline(5);
+        for (long txnId = 1; txnId <= 3; txnId++)
+        {
+            pipeline.submit(txn(txnId));
+        }
+        pipeline.cancel();
+
+        assertEquals(0, pipeline.getInFlightCount());
+        assertTrue(stages.applied.isEmpty());
+        assertEquals(3 * NODES_PER_TXN, new HashSet<Long>(stages.released).size());
+        assertEquals(3 * NODES_PER_TXN, stages.released.size());
+    }
+
+    /**
+     * Stages that give every transaction the same number of nodes and use the node ID as
+     * the index updates.  Applied nodes are recorded by ID and applied transactions by
+     * negative ID.
+     */
+    private static class RecordingStages implements TransactionIndexPipeline.Stages<Long>
+    {
+        private final Map<Long, Exception> nodeFailures = Collections.synchronizedMap(new HashMap<Long, Exception>());
+        private final Map<Long, Exception> buildFailures = Collections.synchronizedMap(new HashMap<Long, Exception>());
+        private final List<Long> applied = Collections.synchronizedList(new ArrayList<Long>());
+        private final List<Long> released = Collections.synchronizedList(new ArrayList<Long>());
+        private volatile boolean slowEarlierBuilds;
+        private volatile long nodesDelayMs;
+
+        public List<Node> getNodes(Transaction info) throws Exception
+        {
+            if (nodesDelayMs > 0)
+            {
+                Thread.sleep(nodesDelayMs);
+            }
+            Exception failure = nodeFailures.get(info.getId());
+            if (failure != null)
+            {
+                throw failure;
+            }
+            List<Node> nodes = new ArrayList<Node>(NODES_PER_TXN);
+            for (int i = 0; i < NODES_PER_TXN; i++)
+            {
+                Node node = new Node();
+                node.setId(nodeId(info.getId(), i));
+                node.setTxnId(info.getId());
+                node.setStatus(SolrApiNodeStatus.UPDATED);
+                nodes.add(node);
+            }
+            return nodes;
+        }
+
+        public List<NodeMetaData> getNodeMetaData(Node node) throws Exception
+        {
+            return Collections.emptyList();
+        }
+
+        public Long buildNodeIndexWork(Node node, List<NodeMetaData> nodeMetaDatas) throws Exception
+        {
+            if (slowEarlierBuilds)
+            {
+                Thread.sleep(Math.max(0L, 20L - 2L * node.getTxnId()));
+            }
+            Exception failure = buildFailures.get(node.getId());
+            if (failure != null)
+            {
+                throw failure;
+            }
+            return node.getId();
+        }
+
+        public void applyNodeIndexWork(Long work) throws IOException
+        {
+            applied.add(work);
+        }
+
+        public void release(Long work)
+        {
+            released.add(work);
+        }
+
+        public void transactionApplied(Transaction info, int nodeCount) throws IOException
+        {
+            assertEquals(NODES_PER_TXN, nodeCount);
+            applied.add(-info.getId());
+        }
+    }
+}